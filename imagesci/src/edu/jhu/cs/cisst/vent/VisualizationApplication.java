@@ -25,6 +25,7 @@ import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.LinkedList;
 import java.util.List;
@@ -47,8 +48,10 @@ import javax.swing.WindowConstants;
 
 import processing.core.PImage;
 import edu.jhu.cs.cisst.vent.resources.PlaceHolder;
+import edu.jhu.cs.cisst.vent.video.FrameRecorder;
+import edu.jhu.cs.cisst.vent.video.FrameSink;
 import edu.jhu.cs.cisst.vent.video.GenericMovieMaker;
-import edu.jhu.cs.cisst.vent.video.ProcessingMovieMaker;
+import edu.jhu.cs.cisst.vent.video.StreamingMovieMaker;
 import edu.jhu.ece.iacl.jist.io.FileExtensionFilter;
 import edu.jhu.ece.iacl.jist.io.FileReaderWriter;
 import edu.jhu.ece.iacl.jist.pipeline.factory.ParamFactory;
@@ -94,7 +97,7 @@ public class VisualizationApplication extends JFrame implements ActionListener {
 	public VisualizationApplication(File cacheFile, Visualization visual) {
 		this.visual = visual;
 		this.cacheFile = cacheFile;
-		this.movieMaker = new ProcessingMovieMaker();
+		this.movieMaker = new StreamingMovieMaker();
 	}
 
 	/**
@@ -105,7 +108,7 @@ public class VisualizationApplication extends JFrame implements ActionListener {
 	 */
 	public VisualizationApplication(Visualization visual) {
 		this.visual = visual;
-		this.movieMaker = new ProcessingMovieMaker();
+		this.movieMaker = new StreamingMovieMaker();
 	}
 
 	/**
@@ -576,6 +579,50 @@ public class VisualizationApplication extends JFrame implements ActionListener {
 		return menuBar;
 	}
 
+	/**
+	 * Open a video that is encoded as frames are added, so that long
+	 * recordings do not need to keep every frame in memory.
+	 * 
+	 * @param f
+	 *            the f
+	 * @param frameRate
+	 *            the frame rate
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * 
+	 * @return the frame sink
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected FrameSink openVideo(File f, int frameRate, int width, int height)
+			throws IOException {
+		return movieMaker.open(f, frameRate, width, height);
+	}
+
+	/**
+	 * Record a video of the visualization while a simulation runs. Add the
+	 * returned recorder as a frame update listener of the simulation and
+	 * close it when the simulation finishes.
+	 * 
+	 * @param f
+	 *            the f
+	 * @param sampleInterval
+	 *            the number of iterations between recorded frames
+	 * 
+	 * @return the frame recorder
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public FrameRecorder recordVideo(File f, int sampleInterval)
+			throws IOException {
+		Dimension d = visual.getMovieDimensions();
+		FrameSink sink = openVideo(f, visual.getFrameRate(), d.width,
+				d.height);
+		return new FrameRecorder(visual, sink, sampleInterval);
+	}
+
 	/**
 	 * Save video.
 	 * 
@@ -610,17 +657,17 @@ public class VisualizationApplication extends JFrame implements ActionListener {
 	private static File selectVideoToSave(Component parent) {
 		JFileChooser loadDialog = new JFileChooser("Save Video");
 		loadDialog.setDialogType(JFileChooser.SAVE_DIALOG);
-		loadDialog.setFileFilter(new FileExtensionFilter(new String[] { "mov",
-				"avi" }));
+		loadDialog.setFileFilter(new FileExtensionFilter(
+				new String[] { "avi" }));
 		loadDialog.setFileSelectionMode(JFileChooser.FILES_ONLY);
 		int returnVal = loadDialog.showSaveDialog(parent);
 		if (returnVal == JFileChooser.APPROVE_OPTION) {
 			File f = loadDialog.getSelectedFile();
 			FileReaderWriter.getFileName(f);
 			String ext = FileReaderWriter.getFileExtension(f);
-			if (!ext.equalsIgnoreCase("mov") && !ext.equalsIgnoreCase("avi")) {
+			if (!ext.equalsIgnoreCase("avi")) {
 				f = new File(f.getParent(), FileReaderWriter.getFileName(f)
-						+ ".mov");
+						+ ".avi");
 			}
 			return f;
 		} else {
@@ -0,0 +1,237 @@
+/**
+ * JIST Extensions for Computer-Integrated Surgery
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * @author Blake Lucas
+ */
+package edu.jhu.cs.cisst.vent.renderer.processing;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which cubic bricks of a volume changed between frames so a renderer
+ * only recomputes and uploads those bricks. Voxels are marked from the active
+ * list of a narrow band solver. The bricks marked in the current and the
+ * previous frame are dilated by one brick, which covers the stencils of the
+ * render kernels and fronts that move less than one brick between frames.
+ */
+public class DirtyBrickSet {
+
+	/** The brick size. */
+	protected int brickSize;
+
+	/** The number of bricks along each axis. */
+	protected int brickRows, brickCols, brickSlices;
+
+	/** The bricks marked in the current frame. */
+	protected boolean[] current;
+
+	/** The number of dirty bricks. */
+	protected int dirtyCount;
+
+	/** The dirty bricks, in increasing order. */
+	protected int[] dirtyList;
+
+	/** The bricks marked in the previous frame. */
+	protected boolean[] previous;
+
+	/** The volume dimensions. */
+	protected int rows, cols, slices;
+
+	/**
+	 * Instantiates a new dirty brick set.
+	 * 
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param brickSize
+	 *            the brick size
+	 */
+	public DirtyBrickSet(int rows, int cols, int slices, int brickSize) {
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = slices;
+		this.brickSize = brickSize;
+		brickRows = (rows + brickSize - 1) / brickSize;
+		brickCols = (cols + brickSize - 1) / brickSize;
+		brickSlices = (slices + brickSize - 1) / brickSize;
+		int count = getBrickCount();
+		current = new boolean[count];
+		previous = new boolean[count];
+		dirtyList = new int[count];
+	}
+
+	/**
+	 * Gets the brick containing a voxel.
+	 * 
+	 * @param index
+	 *            the voxel index, with rows varying fastest
+	 * @return the brick
+	 */
+	public int getBrick(int index) {
+		int k = index / (rows * cols);
+		int ij = index - k * (rows * cols);
+		int j = ij / rows;
+		int i = ij - j * rows;
+		return (i / brickSize) + brickRows
+				* ((j / brickSize) + brickCols * (k / brickSize));
+	}
+
+	/**
+	 * Gets the brick count.
+	 * 
+	 * @return the brick count
+	 */
+	public int getBrickCount() {
+		return brickRows * brickCols * brickSlices;
+	}
+
+	/**
+	 * Gets the voxel extent of a brick, which is smaller than the brick size
+	 * for bricks on the upper faces of the volume.
+	 * 
+	 * @param brick
+	 *            the brick
+	 * @param origin
+	 *            the first voxel of the brick
+	 * @param extent
+	 *            the number of voxels along each axis
+	 */
+	public void getBrickExtent(int brick, int[] origin, int[] extent) {
+		int bi = brick % brickRows;
+		int bj = (brick / brickRows) % brickCols;
+		int bk = brick / (brickRows * brickCols);
+		origin[0] = bi * brickSize;
+		origin[1] = bj * brickSize;
+		origin[2] = bk * brickSize;
+		extent[0] = Math.min(brickSize, rows - origin[0]);
+		extent[1] = Math.min(brickSize, cols - origin[1]);
+		extent[2] = Math.min(brickSize, slices - origin[2]);
+	}
+
+	/**
+	 * Gets the brick size.
+	 * 
+	 * @return the brick size
+	 */
+	public int getBrickSize() {
+		return brickSize;
+	}
+
+	/**
+	 * Gets the dirty bricks found by the last update.
+	 * 
+	 * @return the dirty bricks, of which the first getDirtyCount() are valid
+	 */
+	public int[] getDirtyBricks() {
+		return dirtyList;
+	}
+
+	/**
+	 * Gets the number of dirty bricks found by the last update.
+	 * 
+	 * @return the dirty count
+	 */
+	public int getDirtyCount() {
+		return dirtyCount;
+	}
+
+	/**
+	 * Mark the brick containing a voxel.
+	 * 
+	 * @param index
+	 *            the voxel index
+	 */
+	public void markVoxel(int index) {
+		current[getBrick(index)] = true;
+	}
+
+	/**
+	 * Mark the bricks containing a list of voxels.
+	 * 
+	 * @param indices
+	 *            the voxel indices
+	 * @param count
+	 *            the number of indices
+	 */
+	public void markVoxels(int[] indices, int count) {
+		for (int n = 0; n < count; n++) {
+			current[getBrick(indices[n])] = true;
+		}
+	}
+
+	/**
+	 * Forget all marks, for example after the whole volume was uploaded.
+	 */
+	public void reset() {
+		Arrays.fill(current, false);
+		Arrays.fill(previous, false);
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Find the dirty bricks for this frame and start the next one. A brick is
+	 * dirty if it or one of its 26 neighbors was marked in this frame or the
+	 * previous one.
+	 * 
+	 * @return the number of dirty bricks
+	 */
+	public int update() {
+		dirtyCount = 0;
+		for (int bk = 0; bk < brickSlices; bk++) {
+			for (int bj = 0; bj < brickCols; bj++) {
+				for (int bi = 0; bi < brickRows; bi++) {
+					if (isMarkedNear(bi, bj, bk)) {
+						dirtyList[dirtyCount++] = bi + brickRows
+								* (bj + brickCols * bk);
+					}
+				}
+			}
+		}
+		boolean[] tmp = previous;
+		previous = current;
+		current = tmp;
+		Arrays.fill(current, false);
+		return dirtyCount;
+	}
+
+	/**
+	 * Checks if a brick or one of its neighbors was marked.
+	 * 
+	 * @param bi
+	 *            the brick row
+	 * @param bj
+	 *            the brick column
+	 * @param bk
+	 *            the brick slice
+	 * @return true, if marked
+	 */
+	private boolean isMarkedNear(int bi, int bj, int bk) {
+		for (int k = Math.max(bk - 1, 0); k <= Math.min(bk + 1,
+				brickSlices - 1); k++) {
+			for (int j = Math.max(bj - 1, 0); j <= Math.min(bj + 1,
+					brickCols - 1); j++) {
+				int offset = brickRows * (j + brickCols * k);
+				for (int i = Math.max(bi - 1, 0); i <= Math.min(bi + 1,
+						brickRows - 1); i++) {
+					if (current[offset + i] || previous[offset + i]) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+}
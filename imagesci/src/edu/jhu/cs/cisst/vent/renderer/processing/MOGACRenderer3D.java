@@ -44,6 +44,7 @@ import javax.vecmath.Vector3f;
 
 import org.imagesci.mogac.MOGAC3D;
 import org.imagesci.mogac.MOGAC3D.FrameUpdateListener;
+import org.imagesci.mogac.WEMOGAC3D;
 import org.imagesci.springls.SpringlsConstants;
 
 import processing.opengl2.PGraphicsOpenGL2;
@@ -88,6 +89,15 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 	/** The bg color. */
 	protected Color bgColor = Color.WHITE;
 
+	/** The staging buffer dirty bricks are packed into. */
+	protected CLBuffer<FloatBuffer> brickStagingBuffer = null;
+
+	/** The capacity of the dirty brick buffers, in bricks. */
+	protected int brickCapacity = 0;
+
+	/** True if the device can copy buffers into images. */
+	protected boolean bufferToImageCopy = false;
+
 	/** The brightness. */
 	protected float brightness = 0;
 
@@ -133,6 +143,12 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 	/** The dirty colors. */
 	boolean dirtyColors = false;
 
+	/** The dirty bricks. */
+	protected DirtyBrickSet dirtyBricks = null;
+
+	/** The dirty brick list on the device. */
+	protected CLBuffer<IntBuffer> dirtyBrickBuffer = null;
+
 	/** The distance field buffer copy. */
 	protected CLBuffer<FloatBuffer> distanceFieldBufferCopy;
 
@@ -144,7 +160,7 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 
 	/** The show text param. */
 	protected ParamBoolean enableAntiAliasParam, enableShadowsParam,
-			showTextParam, enableSmoothingParam;
+			showTextParam, enableSmoothingParam, incrementalUploadParam;
 
 	/** The enable fast rendering. */
 	protected boolean enableFastRendering = true;
@@ -161,7 +177,11 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 	protected CLKernel isoSurfRender, multiply, setDistance, springlsRender,
 			computeCapsuleColor, copyNarrowBand, clearNarrowBandToImage,
 			bilateralFilter, maskLabels, copyNarrowBandToImage,
-			copyLevelSetImage;
+			copyLevelSetImage, copyLevelSetImageBricks, bilateralFilterBricks,
+			packBricks;
+
+	/** Only recompute and upload the bricks around the narrow band. */
+	protected boolean incrementalUpload = false;
 
 	/** The max image value. */
 	protected float minImageValue, maxImageValue;
@@ -312,6 +332,8 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 			updateColors();
 		} else if (model == enableSmoothingParam) {
 			frameUpdate(-1, -1);
+		} else if (model == incrementalUploadParam) {
+			setIncrementalUpload(incrementalUploadParam.getValue());
 		} else if (model == contrastParam) {
 			contrast = contrastParam.getFloat();
 		} else if (model == brightnessParam) {
@@ -414,7 +436,7 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 							define("GPU", 1),
 							define("CONTAINS_OVERLAPS",
 									(simulator.containsOverlaps() ? 1 : 0)),
-							ENABLE_MAD);
+							define("BRICK_SIZE", CUBE_DIM), ENABLE_MAD);
 			bilateralFilter = program.createCLKernel("bilateralFilterVolume");
 			copyNarrowBand = simulator.kernelMap.get("copyLevelSetImageNB");
 			copyLevelSetImage = program.createCLKernel("copyLevelSetImage");
@@ -425,6 +447,14 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 					.createCLKernel("copyNarrowBandToImage");
 			clearNarrowBandToImage = program
 					.createCLKernel("clearNarrowBandToImage");
+			copyLevelSetImageBricks = program
+					.createCLKernel("copyLevelSetImageBricks");
+			bilateralFilterBricks = program
+					.createCLKernel("bilateralFilterBricks");
+			packBricks = program.createCLKernel("packBricks");
+			bufferToImageCopy = queue.getDevice().isImageSupportAvailable();
+			dirtyBricks = new DirtyBrickSet(simulator.rows, simulator.cols,
+					simulator.slices, CUBE_DIM);
 			multiply.putArg(pixelBuffer).putArg(bufferSize).rewind();
 			gpuColorLUT = context.createFloatBuffer(
 					4 * simulator.getNumColors(), READ_WRITE);
@@ -536,6 +566,8 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 				"Enable Smoothing", true));
 		visualizationParameters.add(enableShadowsParam = new ParamBoolean(
 				"Enable Shadows", enableShadows));
+		visualizationParameters.add(incrementalUploadParam = new ParamBoolean(
+				"Incremental Upload", incrementalUpload));
 		visualizationParameters.add(showTextParam = new ParamBoolean(
 				"Show Text", true));
 
@@ -584,6 +616,7 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 		showYplane = showYplaneParam.getValue();
 		showZplane = showZplaneParam.getValue();
 		transparency = transparencyParam.getFloat();
+		setIncrementalUpload(incrementalUploadParam.getValue());
 		updateColors(true);
 		setFastRendering(!enableAntiAliasParam.getValue());
 		frameUpdate(0, 0);
@@ -632,55 +665,176 @@ public class MOGACRenderer3D extends RendererProcessing3D implements
 		this.computeFPS = fps;
 		this.timeStep = time;
 		synchronized (this) {
-			System.nanoTime();
 			int global_size = MOGAC3D.roundToWorkgroupPower(simulator.rows
 					* simulator.cols * simulator.slices, WORKGROUP_SIZE);
 			if (time >= 0) {
-				simulator.queue.putReadBuffer(simulator.imageLabelBuffer, true)
-						.putReadBuffer(simulator.distanceFieldBuffer, true);
-				imageLabelBufferCopy.getBuffer()
-						.put(simulator.imageLabelBuffer.getBuffer()).rewind();
-				distanceFieldBufferCopy.getBuffer()
-						.put(simulator.distanceFieldBuffer.getBuffer())
-						.rewind();
-				simulator.imageLabelBuffer.getBuffer().rewind();
-				simulator.distanceFieldBuffer.getBuffer().rewind();
-				queue.putWriteBuffer(imageLabelBufferCopy, true)
-						.putWriteBuffer(distanceFieldBufferCopy, true);
+				copySimulatorBuffers();
 			}
 			maskLabels.setArgs(imageLabelBufferCopy, volumeColorBuffer,
 					gpuColorLUT).rewind();
 			queue.put1DRangeKernel(maskLabels, 0, global_size, WORKGROUP_SIZE);
-			copyLevelSetImage.putArgs(distanceFieldBufferCopy,
-					imageLabelBufferCopy, gpuColorLUT, volumeColorBuffer)
+			// Parameter changes and the first frame refresh the whole volume
+			if (time > 0 && isBrickUploadAvailable()) {
+				updateBricks();
+			} else {
+				updateVolume(global_size);
+			}
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Copy the level set and labels from the simulator. Buffers are copied
+	 * on the device when the simulator shares the renderer's context.
+	 */
+	protected void copySimulatorBuffers() {
+		if (context == simulator.context && !simulator.isJavaBackend()) {
+			queue.putCopyBuffer(simulator.imageLabelBuffer,
+					imageLabelBufferCopy).putCopyBuffer(
+					simulator.distanceFieldBuffer, distanceFieldBufferCopy);
+			return;
+		}
+		simulator.queue.putReadBuffer(simulator.imageLabelBuffer, true)
+				.putReadBuffer(simulator.distanceFieldBuffer, true);
+		imageLabelBufferCopy.getBuffer()
+				.put(simulator.imageLabelBuffer.getBuffer()).rewind();
+		distanceFieldBufferCopy.getBuffer()
+				.put(simulator.distanceFieldBuffer.getBuffer()).rewind();
+		simulator.imageLabelBuffer.getBuffer().rewind();
+		simulator.distanceFieldBuffer.getBuffer().rewind();
+		queue.putWriteBuffer(imageLabelBufferCopy, true).putWriteBuffer(
+				distanceFieldBufferCopy, true);
+	}
+
+	/**
+	 * Checks if only the dirty bricks can be updated. This requires a narrow
+	 * band simulator and a device that can copy buffers into images.
+	 * 
+	 * @return true, if available
+	 */
+	protected boolean isBrickUploadAvailable() {
+		return (incrementalUpload && bufferToImageCopy
+				&& distanceFieldTexture != null && dirtyBricks != null
+				&& simulator instanceof WEMOGAC3D);
+	}
+
+	/**
+	 * Recompute the bricks around the narrow band and copy them into the
+	 * texture on the device, without reading the volume back to the host.
+	 */
+	protected void updateBricks() {
+		int[] activeVoxels = ((WEMOGAC3D) simulator).getActiveVoxels();
+		dirtyBricks.markVoxels(activeVoxels, activeVoxels.length);
+		int brickCount = dirtyBricks.update();
+		if (brickCount == 0) {
+			return;
+		}
+		final int BRICK_VOLUME = CUBE_DIM * CUBE_DIM * CUBE_DIM;
+		if (brickCount > brickCapacity) {
+			if (dirtyBrickBuffer != null) {
+				dirtyBrickBuffer.release();
+				brickStagingBuffer.release();
+			}
+			brickCapacity = Math.min(dirtyBricks.getBrickCount(),
+					Math.max(2 * brickCapacity, brickCount));
+			dirtyBrickBuffer = context.createIntBuffer(brickCapacity,
+					READ_ONLY);
+			brickStagingBuffer = context.createFloatBuffer(4 * BRICK_VOLUME
+					* brickCapacity, READ_WRITE);
+		}
+		int[] bricks = dirtyBricks.getDirtyBricks();
+		dirtyBrickBuffer.getBuffer().put(bricks, 0, brickCount).rewind();
+		queue.putWriteBuffer(dirtyBrickBuffer, false);
+		int global_size = MOGAC3D.roundToWorkgroupPower(brickCount
+				* BRICK_VOLUME, WORKGROUP_SIZE);
+		copyLevelSetImageBricks
+				.putArgs(distanceFieldBufferCopy, imageLabelBufferCopy,
+						gpuColorLUT, volumeColorBuffer, dirtyBrickBuffer)
+				.putArg(brickCount).rewind();
+		queue.put1DRangeKernel(copyLevelSetImageBricks, 0, global_size,
+				WORKGROUP_SIZE);
+		if (enableSmoothingParam != null && enableSmoothingParam.getValue()) {
+			final int SMOOTH_ITERATIONS = 8;
+			float smoothing = 0.8f;
+			bilateralFilterBricks.putArgs(volumeColorBuffer).putArg(smoothing)
+					.putArg(1.0f).putArgs(dirtyBrickBuffer).putArg(brickCount)
 					.rewind();
-			queue.put1DRangeKernel(copyLevelSetImage, 0, global_size,
-					WORKGROUP_SIZE);
-			if (enableSmoothingParam != null && enableSmoothingParam.getValue()) {
-				final int SMOOTH_ITERATIONS = 8;
-				float smoothing = 0.8f;
-				bilateralFilter.putArgs(volumeColorBuffer).putArg(smoothing)
-						.putArg(1.0f).rewind();
-				for (int k = 0; k < SMOOTH_ITERATIONS; k++) {
-					queue.put1DRangeKernel(bilateralFilter, 0, global_size,
-							WORKGROUP_SIZE);
-				}
+			for (int k = 0; k < SMOOTH_ITERATIONS; k++) {
+				queue.put1DRangeKernel(bilateralFilterBricks, 0, global_size,
+						WORKGROUP_SIZE);
 			}
-			queue.putReadBuffer(volumeColorBuffer, false);
-			if (distanceFieldTexture == null) {
-				CLImageFormat iformat = new CLImageFormat(
-						CLImageFormat.ChannelOrder.RGBA,
-						CLImageFormat.ChannelType.FLOAT);
-
-				distanceFieldTexture = context.createImage3d(
-						volumeColorBuffer.getBuffer(), simulator.rows,
-						simulator.cols, simulator.slices, iformat, READ_WRITE,
-						CLMemory.Mem.COPY_BUFFER);
+		}
+		packBricks.putArgs(volumeColorBuffer, brickStagingBuffer,
+				dirtyBrickBuffer).putArg(brickCount).rewind();
+		queue.put1DRangeKernel(packBricks, 0, global_size, WORKGROUP_SIZE);
+		int[] origin = new int[3];
+		int[] extent = new int[3];
+		for (int b = 0; b < brickCount; b++) {
+			dirtyBricks.getBrickExtent(bricks[b], origin, extent);
+			// 16 bytes per RGBA float voxel
+			queue.putCopyBufferToImage(brickStagingBuffer,
+					distanceFieldTexture, 16L * BRICK_VOLUME * b, origin[0],
+					origin[1], origin[2], extent[0], extent[1], extent[2]);
+		}
+	}
+
+	/**
+	 * Recompute the whole volume and upload it to the texture.
+	 * 
+	 * @param global_size
+	 *            the global work size
+	 */
+	protected void updateVolume(int global_size) {
+		copyLevelSetImage.putArgs(distanceFieldBufferCopy,
+				imageLabelBufferCopy, gpuColorLUT, volumeColorBuffer).rewind();
+		queue.put1DRangeKernel(copyLevelSetImage, 0, global_size,
+				WORKGROUP_SIZE);
+		if (enableSmoothingParam != null && enableSmoothingParam.getValue()) {
+			final int SMOOTH_ITERATIONS = 8;
+			float smoothing = 0.8f;
+			bilateralFilter.putArgs(volumeColorBuffer).putArg(smoothing)
+					.putArg(1.0f).rewind();
+			for (int k = 0; k < SMOOTH_ITERATIONS; k++) {
+				queue.put1DRangeKernel(bilateralFilter, 0, global_size,
+						WORKGROUP_SIZE);
 			}
-			queue.putWriteImage(distanceFieldTexture, false);
-			System.nanoTime();
 		}
-		dirty = true;
+		queue.putReadBuffer(volumeColorBuffer, false);
+		if (distanceFieldTexture == null) {
+			CLImageFormat iformat = new CLImageFormat(
+					CLImageFormat.ChannelOrder.RGBA,
+					CLImageFormat.ChannelType.FLOAT);
+
+			distanceFieldTexture = context.createImage3d(
+					volumeColorBuffer.getBuffer(), simulator.rows,
+					simulator.cols, simulator.slices, iformat, READ_WRITE,
+					CLMemory.Mem.COPY_BUFFER);
+		}
+		queue.putWriteImage(distanceFieldTexture, false);
+		if (dirtyBricks != null) {
+			dirtyBricks.reset();
+		}
+	}
+
+	/**
+	 * Sets whether only the bricks around the narrow band are recomputed and
+	 * uploaded each frame. This is ignored unless the simulator is a
+	 * {@link WEMOGAC3D} and the device can copy buffers into images.
+	 * 
+	 * @param incremental
+	 *            true to enable incremental uploads
+	 */
+	public void setIncrementalUpload(boolean incremental) {
+		this.incrementalUpload = incremental;
+	}
+
+	/**
+	 * Checks if incremental uploads are enabled.
+	 * 
+	 * @return true, if enabled
+	 */
+	public boolean isIncrementalUpload() {
+		return incrementalUpload;
 	}
 
 	/**
@@ -279,12 +279,7 @@ inline float distanceSquaredPoint(float4 pt1,float4 pt2){
 	float4 d=(pt1-pt2);
 	return (d.x*d.x+d.y*d.y+d.z*d.z);
 }
-kernel void copyLevelSetImage(global float* srcImage,global int* labels,const global float4* colors,global float4* destImage){
-	uint id=get_global_id(0);
-	if(id>=ROWS*COLS*SLICES)return;
-	int i,j,k;
-	getRowColSlice(id,&i,&j,&k);
-	
+inline float4 getLevelSetColor(global float* srcImage,global int* labels,const global float4* colors,int i,int j,int k){
 	float v111 = getNonBackgroundLevelSetValue(srcImage,labels,colors, i, j, k);
 	float v211 = getNonBackgroundLevelSetValue(srcImage,labels,colors, i + 1, j, k);
 	float v121 = getNonBackgroundLevelSetValue(srcImage,labels,colors, i, j + 1, k);
@@ -300,7 +295,14 @@ kernel void copyLevelSetImage(global float* srcImage,global int* labels,const gl
 	grad=normalize(grad);
 	grad.w=clamp(v111,-10.0f,10.0f);	
 	if(i==ROWS-1||j==COLS-1||k==SLICES-1||i==0||j==0||k==0)grad.w=max(grad.w,1.5f);
-	destImage[id]=grad;
+	return grad;
+}
+kernel void copyLevelSetImage(global float* srcImage,global int* labels,const global float4* colors,global float4* destImage){
+	uint id=get_global_id(0);
+	if(id>=ROWS*COLS*SLICES)return;
+	int i,j,k;
+	getRowColSlice(id,&i,&j,&k);
+	destImage[id]=getLevelSetColor(srcImage,labels,colors,i,j,k);
 }
 
 float4 QuatMult(const float4 q1, const float4 q2) {
@@ -1061,11 +1063,7 @@ kernel void bilateralFilter(global int* activeList,global float4* buffIn,float e
 		tukey(v111,v112,edgeSigma)*(v111-v112));
 	buffIn[id]=norm;
 }
-kernel void bilateralFilterVolume(global float4* buffIn,float edgeSigma,float lambda){
-	int i,j,k;
-	uint id=get_global_id(0);
-	if(id>=ROWS*COLS*SLICES)return;
-	getRowColSlice(id,&i,&j,&k);
+inline float4 getBilateralValue(global float4* buffIn,float edgeSigma,float lambda,int i,int j,int k){
 	float4 v111 = getVectorImageValue(buffIn,i, j, k);
 	float4 v211 = getVectorImageValue(buffIn,i + 1, j, k);
 	float4 v121 = getVectorImageValue(buffIn,i, j + 1, k);
@@ -1080,5 +1078,57 @@ kernel void bilateralFilterVolume(global float4* buffIn,float edgeSigma,float la
 		tukey(v111,v211,edgeSigma)*(v111-v211)+
 		tukey(v111,v110,edgeSigma)*(v111-v110)+
 		tukey(v111,v112,edgeSigma)*(v111-v112));
-	buffIn[id]=norm;
-}
\ No newline at end of file
+	return norm;
+}
+kernel void bilateralFilterVolume(global float4* buffIn,float edgeSigma,float lambda){
+	int i,j,k;
+	uint id=get_global_id(0);
+	if(id>=ROWS*COLS*SLICES)return;
+	getRowColSlice(id,&i,&j,&k);
+	buffIn[id]=getBilateralValue(buffIn,edgeSigma,lambda,i,j,k);
+}
+#ifdef BRICK_SIZE
+#define BRICK_VOLUME (BRICK_SIZE*BRICK_SIZE*BRICK_SIZE)
+#define BRICK_ROWS ((ROWS+BRICK_SIZE-1)/BRICK_SIZE)
+#define BRICK_COLS ((COLS+BRICK_SIZE-1)/BRICK_SIZE)
+//Gets the voxel for a work item in a list of bricks, or -1 if the voxel lies outside the volume.
+inline int getBrickVoxel(const global int* bricks,uint gid,int* i,int* j,int* k){
+	int brick=bricks[gid/BRICK_VOLUME];
+	int local=gid%BRICK_VOLUME;
+	(*i)=(brick%BRICK_ROWS)*BRICK_SIZE+local%BRICK_SIZE;
+	(*j)=((brick/BRICK_ROWS)%BRICK_COLS)*BRICK_SIZE+(local/BRICK_SIZE)%BRICK_SIZE;
+	(*k)=(brick/(BRICK_ROWS*BRICK_COLS))*BRICK_SIZE+local/(BRICK_SIZE*BRICK_SIZE);
+	if((*i)>=ROWS||(*j)>=COLS||(*k)>=SLICES)return -1;
+	return getIndex(*i,*j,*k);
+}
+kernel void copyLevelSetImageBricks(global float* srcImage,global int* labels,const global float4* colors,global float4* destImage,const global int* bricks,int brickCount){
+	uint gid=get_global_id(0);
+	if(gid>=brickCount*BRICK_VOLUME)return;
+	int i,j,k;
+	int id=getBrickVoxel(bricks,gid,&i,&j,&k);
+	if(id<0)return;
+	destImage[id]=getLevelSetColor(srcImage,labels,colors,i,j,k);
+}
+kernel void bilateralFilterBricks(global float4* buffIn,float edgeSigma,float lambda,const global int* bricks,int brickCount){
+	uint gid=get_global_id(0);
+	if(gid>=brickCount*BRICK_VOLUME)return;
+	int i,j,k;
+	int id=getBrickVoxel(bricks,gid,&i,&j,&k);
+	if(id<0)return;
+	buffIn[id]=getBilateralValue(buffIn,edgeSigma,lambda,i,j,k);
+}
+//Packs each brick densely into its own BRICK_VOLUME slot so it can be copied into a 3D image. Bricks on the upper faces of the volume are clipped.
+kernel void packBricks(const global float4* volumeColorBuffer,global float4* stagingBuffer,const global int* bricks,int brickCount){
+	uint gid=get_global_id(0);
+	if(gid>=brickCount*BRICK_VOLUME)return;
+	int i,j,k;
+	int id=getBrickVoxel(bricks,gid,&i,&j,&k);
+	if(id<0)return;
+	int li=i%BRICK_SIZE;
+	int lj=j%BRICK_SIZE;
+	int lk=k%BRICK_SIZE;
+	int wi=min(BRICK_SIZE,ROWS-(i-li));
+	int wj=min(BRICK_SIZE,COLS-(j-lj));
+	stagingBuffer[(gid/BRICK_VOLUME)*BRICK_VOLUME+li+wi*(lj+wj*lk)]=volumeColorBuffer[id];
+}
+#endif
@@ -17,8 +17,14 @@ package edu.jhu.cs.cisst.vent.renderer.processing;
 
 
 import java.awt.Color;
-
-import javax.swing.SwingWorker;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.imagesci.gac.TopologyRule2D;
 import org.imagesci.utility.IsoContourGenerator;
@@ -46,50 +52,157 @@ import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
 public class VolumeIsoContourRenderer extends VolumeSliceRenderer2D {
 
 	/**
-	 * The Class IsoContourWorker creates iso-contours for all slices.
+	 * The Class ContourKey identifies an iso-contour by slice, iso-level,
+	 * topology rule and component.
 	 */
-	protected class IsoContourWorker extends SwingWorker<Void, Void> {
+	protected static class ContourKey {
+
+		/** The component. */
+		protected final int component;
+
+		/** The iso level. */
+		protected final float isoLevel;
+
+		/** The rule. */
+		protected final TopologyRule2D.Rule rule;
+
+		/** The slice. */
+		protected final int slice;
 
 		/**
-		 * Do in background.
+		 * Instantiates a new contour key.
 		 * 
-		 * @return the void
+		 * @param slice
+		 *            the slice
+		 * @param isoLevel
+		 *            the iso level
+		 * @param rule
+		 *            the rule
+		 * @param component
+		 *            the component
+		 */
+		public ContourKey(int slice, float isoLevel, TopologyRule2D.Rule rule,
+				int component) {
+			this.slice = slice;
+			this.isoLevel = isoLevel;
+			this.rule = rule;
+			this.component = component;
+		}
+
+		/*
+		 * (non-Javadoc)
 		 * 
-		 * @throws Exception
-		 *             the exception
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ContourKey)) {
+				return false;
+			}
+			ContourKey key = (ContourKey) obj;
+			return (slice == key.slice && rule == key.rule
+					&& component == key.component && Float
+					.floatToIntBits(isoLevel) == Float
+					.floatToIntBits(key.isoLevel));
+		}
+
+		/*
+		 * (non-Javadoc)
 		 * 
-		 * @see javax.swing.SwingWorker#doInBackground()
+		 * @see java.lang.Object#hashCode()
 		 */
 		@Override
-		protected Void doInBackground() throws Exception {
+		public int hashCode() {
+			int hash = slice;
+			hash = 31 * hash + Float.floatToIntBits(isoLevel);
+			hash = 31 * hash + ((rule != null) ? rule.hashCode() : 0);
+			hash = 31 * hash + component;
+			return hash;
+		}
+	}
 
-			for (int i = 0; i < curves.length; i++) {
-				curves[i] = null;
-				if (this.isCancelled()) {
-					break;
-				}
-				IsoContourGenerator isogen = new IsoContourGenerator(rule);
-				curves[i] = new PCurveCollection(isogen.solve(
-						(ImageDataFloat) image, isoLevel, i, component), false);
-			}
+	/**
+	 * The Class ContourTask creates the iso-contour for one slice, unless the
+	 * slice is no longer near the visible slice by the time the task runs.
+	 */
+	protected class ContourTask implements Runnable {
 
-			return null;
+		/** The key. */
+		protected ContourKey key;
 
+		/**
+		 * Instantiates a new contour task.
+		 * 
+		 * @param key
+		 *            the key
+		 */
+		public ContourTask(ContourKey key) {
+			this.key = key;
 		}
 
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			try {
+				if (!isWanted(key)) {
+					return;
+				}
+				IsoContourGenerator isogen = new IsoContourGenerator(key.rule);
+				PCurveCollection curve = new PCurveCollection(isogen.solve(
+						(ImageDataFloat) image, key.isoLevel, key.slice,
+						key.component), false);
+				synchronized (contourCache) {
+					contourCache.put(key, curve);
+				}
+			} catch (RuntimeException e) {
+				fail(key, e);
+			} catch (OutOfMemoryError e) {
+				fail(key, e);
+			} finally {
+				synchronized (contourCache) {
+					pending.remove(key);
+				}
+			}
+		}
 	}
 
+	/** The number of threads that generate iso-contours. */
+	protected static final int POOL_SIZE = Math.max(1, Math.min(2, Runtime
+			.getRuntime().availableProcessors()));
+
+	/** The pool shared by all renderers. */
+	private static ExecutorService contourPool = null;
+
+	/** The maximum number of cached iso-contours. */
+	protected int cacheSize = 32;
+
 	/** The contour color. */
 	protected Color contourColor = new Color(0, 132, 68);
 
 	/** The contour color param. */
 	protected ParamColor contourColorParam;
 
-	/** The contour worker. */
-	protected SwingWorker<Void, Void> contourWorker = null;
+	/** The iso-contours in least recently used order. */
+	protected final LinkedHashMap<ContourKey, PCurveCollection> contourCache =
+			new LinkedHashMap<ContourKey, PCurveCollection>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
 
-	/** The curves. */
-	protected PCurveCollection[] curves = null;
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<ContourKey, PCurveCollection> eldest) {
+			return size() > Math.max(cacheSize, 2 * prefetchRadius + 1);
+		}
+	};
+
+	/**
+	 * The iso-contours that could not be generated. They are not requested
+	 * again until the iso-level, rule, component or image changes.
+	 */
+	protected final Set<ContourKey> failed = new HashSet<ContourKey>();
 
 	/** The fill color. */
 	protected Color fillColor = new Color(Color.white.getRGB());
@@ -112,6 +225,12 @@ public class VolumeIsoContourRenderer extends VolumeSliceRenderer2D {
 	/** The name. */
 	protected String name = "Iso-Contour";
 
+	/** The iso-contours queued or being generated. */
+	protected final Set<ContourKey> pending = new HashSet<ContourKey>();
+
+	/** The number of slices on either side of the visible slice to prefetch. */
+	protected int prefetchRadius = 2;
+
 	/** The rule. */
 	protected TopologyRule2D.Rule rule = null;
 
@@ -127,6 +246,13 @@ public class VolumeIsoContourRenderer extends VolumeSliceRenderer2D {
 	/** The visible contour. */
 	protected boolean visibleContour = true;
 
+	/**
+	 * The key of the visible slice when it was last prefetched. The contour
+	 * threads compare against it instead of the renderer fields, and it is
+	 * only accessed while holding the lock on the cache.
+	 */
+	protected ContourKey visibleKey = null;
+
 	/**
 	 * Instantiates a new volume iso contour renderer.
 	 * 
@@ -140,10 +266,8 @@ public class VolumeIsoContourRenderer extends VolumeSliceRenderer2D {
 	public VolumeIsoContourRenderer(ImageDataFloat img,
 			TopologyRule2D.Rule rule, VisualizationProcessing applet) {
 		super(img, applet);
-		curves = new PCurveCollection[slices];
 		this.rule = rule;
-		contourWorker = createWorker();
-		contourWorker.execute();
+		prefetch(slice);
 	}
 
 	/**
@@ -200,15 +324,31 @@ public class VolumeIsoContourRenderer extends VolumeSliceRenderer2D {
 	 *            the new iso level
 	 */
 	public void setIsoLevel(float isoLevel) {
-		if (isoLevel != this.isoLevel) {
-			this.isoLevel = isoLevel;
-			if (contourWorker != null && !contourWorker.isDone()) {
-				contourWorker.cancel(false);
+		synchronized (contourCache) {
+			if (isoLevel == this.isoLevel) {
+				return;
 			}
-			contourWorker = createWorker();
-			contourWorker.execute();
+			this.isoLevel = isoLevel;
+			failed.clear();
+		}
+		prefetch(slice);
+	}
 
+	/**
+	 * Sets the topology rule.
+	 * 
+	 * @param rule
+	 *            the new rule
+	 */
+	public void setRule(TopologyRule2D.Rule rule) {
+		synchronized (contourCache) {
+			if (rule == this.rule) {
+				return;
+			}
+			this.rule = rule;
+			failed.clear();
 		}
+		prefetch(slice);
 	}
 
 	/*
@@ -220,24 +360,175 @@ public class VolumeIsoContourRenderer extends VolumeSliceRenderer2D {
 	 */
 	@Override
 	public void setComponent(int component) {
-		if (this.component != component) {
+		synchronized (contourCache) {
+			if (this.component == component) {
+				return;
+			}
 			this.component = component;
-			clearCache();
-			if (contourWorker != null && !contourWorker.isDone()) {
-				contourWorker.cancel(false);
+			failed.clear();
+		}
+		clearCache();
+		prefetch(slice);
+	}
+
+	/**
+	 * Gets the pool that generates iso-contours.
+	 * 
+	 * @return the contour pool
+	 */
+	protected static synchronized ExecutorService getContourPool() {
+		if (contourPool == null) {
+			final AtomicInteger counter = new AtomicInteger(0);
+			contourPool = Executors.newFixedThreadPool(POOL_SIZE,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread th = new Thread(r);
+							th.setName("isocontour-worker-"
+									+ counter.getAndIncrement());
+							th.setDaemon(true);
+							return th;
+						}
+					});
+		}
+		return contourPool;
+	}
+
+	/**
+	 * Gets the iso-contour for a slice and prefetches its neighbors. Returns
+	 * null if the iso-contour has not been generated yet.
+	 * 
+	 * @param index
+	 *            the slice index
+	 * 
+	 * @return the contour
+	 */
+	public PCurveCollection getContour(int index) {
+		PCurveCollection curve;
+		synchronized (contourCache) {
+			curve = contourCache.get(new ContourKey(index, isoLevel, rule,
+					component));
+		}
+		prefetch(index);
+		return curve;
+	}
+
+	/**
+	 * Discard all cached iso-contours, for instance after the image has been
+	 * modified.
+	 */
+	public void clearContours() {
+		synchronized (contourCache) {
+			contourCache.clear();
+			failed.clear();
+		}
+	}
+
+	/**
+	 * Record that the iso-contour for a key could not be generated, so that
+	 * it is not requested again on every frame. Called from the contour
+	 * threads.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param e
+	 *            the failure
+	 */
+	protected void fail(ContourKey key, Throwable e) {
+		System.err.println("Could not generate iso-contour for slice "
+				+ key.slice + ": " + e);
+		synchronized (contourCache) {
+			failed.add(key);
+		}
+	}
+
+	/**
+	 * Queue generation of the iso-contours for a slice and its neighbors,
+	 * nearest first.
+	 * 
+	 * @param index
+	 *            the slice index
+	 */
+	protected void prefetch(int index) {
+		ContourKey key;
+		int radius;
+		synchronized (contourCache) {
+			visibleKey = new ContourKey(index, isoLevel, rule, component);
+			key = visibleKey;
+			radius = prefetchRadius;
+		}
+		request(key, index);
+		for (int d = 1; d <= radius; d++) {
+			request(key, index + d);
+			request(key, index - d);
+		}
+	}
+
+	/**
+	 * Queue generation of the iso-contour for a slice if it is not cached,
+	 * pending or known to fail.
+	 * 
+	 * @param visible
+	 *            the key of the visible slice
+	 * @param index
+	 *            the slice index
+	 */
+	protected void request(ContourKey visible, int index) {
+		if (index < 0 || index >= slices) {
+			return;
+		}
+		ContourKey key = new ContourKey(index, visible.isoLevel, visible.rule,
+				visible.component);
+		synchronized (contourCache) {
+			if (contourCache.containsKey(key) || failed.contains(key)
+					|| !pending.add(key)) {
+				return;
 			}
-			contourWorker = createWorker();
-			contourWorker.execute();
 		}
+		getContourPool().execute(new ContourTask(key));
 	}
 
 	/**
-	 * Creates the worker.
+	 * Checks if an iso-contour is still needed for the visible slice,
+	 * iso-level, rule and component. Called from the contour threads.
+	 * 
+	 * @param key
+	 *            the key
 	 * 
-	 * @return the swing worker
+	 * @return true, if is wanted
 	 */
-	protected SwingWorker<Void, Void> createWorker() {
-		return new IsoContourWorker();
+	protected boolean isWanted(ContourKey key) {
+		synchronized (contourCache) {
+			return (visibleKey != null && key.component == visibleKey.component
+					&& key.rule == visibleKey.rule
+					&& key.isoLevel == visibleKey.isoLevel && Math
+					.abs(key.slice - visibleKey.slice) <= prefetchRadius);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of cached iso-contours.
+	 * 
+	 * @param cacheSize
+	 *            the new cache size
+	 */
+	public void setCacheSize(int cacheSize) {
+		synchronized (contourCache) {
+			this.cacheSize = cacheSize;
+		}
+	}
+
+	/**
+	 * Sets the number of slices on either side of the visible slice that are
+	 * generated ahead of time.
+	 * 
+	 * @param prefetchRadius
+	 *            the new prefetch radius
+	 */
+	public void setPrefetchRadius(int prefetchRadius) {
+		synchronized (contourCache) {
+			this.prefetchRadius = Math.max(0, prefetchRadius);
+		}
 	}
 
 	/**
@@ -358,7 +649,7 @@ public class VolumeIsoContourRenderer extends VolumeSliceRenderer2D {
 			applet.image(img, 0, 0, rows, cols);
 
 		}
-		PCurveCollection curve = curves[slice];
+		PCurveCollection curve = getContour(slice);
 		if (curve != null && visibleContour) {
 			applet.pushMatrix();
 
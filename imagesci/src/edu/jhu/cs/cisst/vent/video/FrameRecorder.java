@@ -0,0 +1,113 @@
+/**
+ * JIST Extensions for Computer-Integrated Surgery
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * @author Blake Lucas
+ */
+package edu.jhu.cs.cisst.vent.video;
+
+import java.awt.Image;
+import java.io.IOException;
+
+import org.imagesci.mogac.MOGAC3D;
+import org.imagesci.springls.ActiveContour3D;
+
+import edu.jhu.cs.cisst.vent.Visualization;
+
+/**
+ * Records a movie while a simulation runs. Register it as a frame update
+ * listener and every sampled iteration grabs a screenshot of the
+ * visualization and pushes it to a frame sink, so frames are encoded as they
+ * are produced instead of being collected in memory. Frame updates must come
+ * from the simulation thread, because grabbing a screenshot waits for the
+ * visualization to draw.
+ */
+public class FrameRecorder implements ActiveContour3D.FrameUpdateListener,
+		MOGAC3D.FrameUpdateListener {
+
+	/** The first error raised by the sink. */
+	protected IOException error = null;
+
+	/** The number of iterations between recorded frames. */
+	protected int sampleInterval;
+
+	/** The sink that receives the frames. */
+	protected FrameSink sink;
+
+	/** The visualization to record. */
+	protected Visualization visual;
+
+	/**
+	 * Instantiates a new frame recorder.
+	 *
+	 * @param visual
+	 *            the visualization to record
+	 * @param sink
+	 *            the sink that receives the frames
+	 * @param sampleInterval
+	 *            the number of iterations between recorded frames
+	 */
+	public FrameRecorder(Visualization visual, FrameSink sink,
+			int sampleInterval) {
+		this.visual = visual;
+		this.sink = sink;
+		this.sampleInterval = Math.max(1, sampleInterval);
+	}
+
+	/**
+	 * Finish the movie. Rethrows the first error raised while recording.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public synchronized void close() throws IOException {
+		if (sink != null) {
+			FrameSink s = sink;
+			sink = null;
+			s.close();
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.imagesci.springls.ActiveContour3D.FrameUpdateListener#frameUpdate
+	 * (long, double)
+	 */
+	@Override
+	public synchronized void frameUpdate(long time, double fps) {
+		if (sink == null || error != null || time % sampleInterval != 0) {
+			return;
+		}
+		Image image = visual.getScreenshot();
+		try {
+			sink.addFrame(image);
+		} catch (IOException e) {
+			// Stop recording but let the simulation continue
+			System.err.println("Recording stopped: " + e.getMessage());
+			error = e;
+		}
+	}
+
+	/**
+	 * Gets the error that stopped the recording.
+	 *
+	 * @return the error, or null if recording has not failed
+	 */
+	public synchronized IOException getError() {
+		return error;
+	}
+}
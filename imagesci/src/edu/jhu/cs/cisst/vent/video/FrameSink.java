@@ -0,0 +1,44 @@
+/**
+ * JIST Extensions for Computer-Integrated Surgery
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * @author Blake Lucas
+ */
+package edu.jhu.cs.cisst.vent.video;
+
+import java.awt.Image;
+import java.io.IOException;
+
+/**
+ * A destination for movie frames that are encoded as they are delivered, so
+ * that a recording never needs to hold more than a few frames in memory.
+ */
+public interface FrameSink {
+
+	/**
+	 * Add the next frame to the movie.
+	 * 
+	 * @param image
+	 *            the frame image
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void addFrame(Image image) throws IOException;
+
+	/**
+	 * Finish encoding and release the output.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException;
+}
@@ -0,0 +1,124 @@
+/**
+ * JIST Extensions for Computer-Integrated Surgery
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * @author Blake Lucas
+ */
+package edu.jhu.cs.cisst.vent.video;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Base class for frame sinks that write frames of a fixed size.
+ */
+public abstract class FrameWriter implements FrameSink {
+
+	/**
+	 * Create a frame of the requested size and type from an image. The image
+	 * is copied, so the caller may reuse it once this method returns.
+	 * 
+	 * @param image
+	 *            the image
+	 * @param width
+	 *            the frame width
+	 * @param height
+	 *            the frame height
+	 * @param type
+	 *            the buffered image type
+	 * 
+	 * @return the frame
+	 */
+	public static BufferedImage createFrame(Image image, int width,
+			int height, int type) {
+		BufferedImage frame = new BufferedImage(width, height, type);
+		Graphics2D g = frame.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return frame;
+	}
+
+	/** The frame count. */
+	protected int frameCount = 0;
+
+	/** The frame height. */
+	protected int height;
+
+	/** The frame width. */
+	protected int width;
+
+	/**
+	 * Instantiates a new frame writer.
+	 * 
+	 * @param width
+	 *            the frame width
+	 * @param height
+	 *            the frame height
+	 */
+	public FrameWriter(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Gets the number of frames written so far.
+	 * 
+	 * @return the frame count
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Gets the frame height.
+	 * 
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the frame width.
+	 * 
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Convert an image to a frame of the writer's size, avoiding the copy
+	 * when the image already has the right size and type.
+	 * 
+	 * @param image
+	 *            the image
+	 * @param type
+	 *            the buffered image type
+	 * 
+	 * @return the frame
+	 */
+	protected BufferedImage toFrame(Image image, int type) {
+		if (image instanceof BufferedImage) {
+			BufferedImage buff = (BufferedImage) image;
+			if (buff.getWidth() == width && buff.getHeight() == height
+					&& buff.getType() == type) {
+				return buff;
+			}
+		}
+		return createFrame(image, width, height, type);
+	}
+}
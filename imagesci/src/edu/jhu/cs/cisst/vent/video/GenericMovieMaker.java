@@ -17,6 +17,7 @@ package edu.jhu.cs.cisst.vent.video;
 
 import java.awt.Image;
 import java.io.File;
+import java.io.IOException;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -24,6 +25,26 @@ import java.io.File;
  */
 public interface GenericMovieMaker {
 
+	/**
+	 * Open a movie for incremental writing. Frames are encoded as they are
+	 * added to the returned sink, which must be closed to finish the movie.
+	 * 
+	 * @param f
+	 *            the f
+	 * @param frameRate
+	 *            the frame rate
+	 * @param width
+	 *            the width
+	 * @param height
+	 *            the height
+	 * 
+	 * @return the frame sink
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public FrameSink open(File f, int frameRate, int width, int height)
+			throws IOException;
+
 	/**
 	 * Save.
 	 * 
@@ -0,0 +1,320 @@
+/**
+ * JIST Extensions for Computer-Integrated Surgery
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * @author Blake Lucas
+ */
+package edu.jhu.cs.cisst.vent.video;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Writes frames as Motion JPEG in an AVI container. Each frame is compressed
+ * and appended to the file as soon as it is added; only the 16 byte index
+ * entry for each frame is kept in memory, and the header counts are patched
+ * in when the writer is closed. A frame that would grow the file past
+ * {@link #MAX_FILE_SIZE} is rejected, and the frames already written can
+ * still be closed into a valid file.
+ */
+public class MJPEGAviWriter extends FrameWriter {
+
+	/** The AVIF_HASINDEX main header flag. */
+	protected static final int AVIF_HASINDEX = 0x10;
+
+	/** The AVIIF_KEYFRAME index flag. */
+	protected static final int AVIIF_KEYFRAME = 0x10;
+
+	/**
+	 * The largest file size. AVI 1.0 stores offsets and sizes as 32 bit
+	 * integers.
+	 */
+	protected static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+	/** The size of the header up to the first frame chunk. */
+	protected static final int HEADER_SIZE = 224;
+
+	/** The position of the total frame count in the main header. */
+	protected static final int POS_AVIH_FRAMES = 48;
+
+	/** The position of the suggested buffer size in the main header. */
+	protected static final int POS_AVIH_BUFFER = 60;
+
+	/** The position of the 'movi' list size. */
+	protected static final int POS_MOVI_SIZE = 216;
+
+	/** The position of the 'movi' list type, which index offsets refer to. */
+	protected static final int POS_MOVI_TYPE = 220;
+
+	/** The position of the RIFF size. */
+	protected static final int POS_RIFF_SIZE = 4;
+
+	/** The position of the stream length in the stream header. */
+	protected static final int POS_STRH_LENGTH = 140;
+
+	/** The position of the suggested buffer size in the stream header. */
+	protected static final int POS_STRH_BUFFER = 144;
+
+	/** The buffer that holds the compressed frame. */
+	protected ByteArrayOutputStream jpegBuffer;
+
+	/** The index of frame offsets and sizes. */
+	protected int[] index;
+
+	/** The largest compressed frame size. */
+	protected int maxFrameSize = 0;
+
+	/** The output file. */
+	protected RandomAccessFile raf;
+
+	/** The JPEG writer. */
+	protected ImageWriter writer;
+
+	/** The JPEG write parameters. */
+	protected ImageWriteParam writeParam;
+
+	/**
+	 * Instantiates a new MJPEG AVI writer.
+	 * 
+	 * @param f
+	 *            the output file
+	 * @param frameRate
+	 *            the frame rate
+	 * @param width
+	 *            the frame width
+	 * @param height
+	 *            the frame height
+	 * @param quality
+	 *            the JPEG quality between 0 and 1
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public MJPEGAviWriter(File f, int frameRate, int width, int height,
+			float quality) throws IOException {
+		super(width, height);
+		if (frameRate <= 0) {
+			throw new IllegalArgumentException("Invalid frame rate "
+					+ frameRate);
+		}
+		Iterator<ImageWriter> iter = ImageIO
+				.getImageWritersByFormatName("jpeg");
+		if (!iter.hasNext()) {
+			throw new IOException("No JPEG writer available");
+		}
+		writer = iter.next();
+		writeParam = writer.getDefaultWriteParam();
+		writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		writeParam.setCompressionQuality(quality);
+		jpegBuffer = new ByteArrayOutputStream();
+		index = new int[256];
+		raf = new RandomAccessFile(f, "rw");
+		raf.setLength(0);
+		writeHeader(frameRate);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.FrameSink#addFrame(java.awt.Image)
+	 */
+	@Override
+	public void addFrame(Image image) throws IOException {
+		BufferedImage frame = toFrame(image, BufferedImage.TYPE_INT_RGB);
+		jpegBuffer.reset();
+		ImageOutputStream ios = ImageIO.createImageOutputStream(jpegBuffer);
+		writer.setOutput(ios);
+		writer.write(null, new IIOImage(frame, null, null), writeParam);
+		ios.close();
+		int size = jpegBuffer.size();
+		// Frame chunk, padding and the index entries once the frame is added
+		long fileSize = raf.getFilePointer() + 8 + size + (size & 1) + 8 + 16L
+				* (frameCount + 1);
+		if (fileSize > MAX_FILE_SIZE) {
+			throw new IOException("Frame " + frameCount
+					+ " would exceed the AVI 1.0 file size limit of "
+					+ MAX_FILE_SIZE + " bytes");
+		}
+		if (2 * frameCount + 2 > index.length) {
+			int[] tmp = new int[index.length * 2];
+			System.arraycopy(index, 0, tmp, 0, index.length);
+			index = tmp;
+		}
+		index[2 * frameCount] = (int) (raf.getFilePointer() - POS_MOVI_TYPE);
+		index[2 * frameCount + 1] = size;
+		ByteBuffer chunk = createBuffer(8);
+		chunk.put(fourcc("00dc")).putInt(size);
+		raf.write(chunk.array());
+		jpegBuffer.writeTo(new RandomAccessFileOutput());
+		if ((size & 1) != 0) {
+			raf.write(0);
+		}
+		maxFrameSize = Math.max(maxFrameSize, size);
+		frameCount++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.FrameSink#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (raf == null) {
+			return;
+		}
+		try {
+			long moviEnd = raf.getFilePointer();
+			ByteBuffer idx = createBuffer(8 + 16 * frameCount);
+			idx.put(fourcc("idx1")).putInt(16 * frameCount);
+			for (int i = 0; i < frameCount; i++) {
+				idx.put(fourcc("00dc")).putInt(AVIIF_KEYFRAME)
+						.putInt(index[2 * i]).putInt(index[2 * i + 1]);
+			}
+			raf.write(idx.array());
+			long end = raf.getFilePointer();
+			patch(POS_RIFF_SIZE, (int) (end - 8));
+			patch(POS_MOVI_SIZE, (int) (moviEnd - POS_MOVI_SIZE - 4));
+			patch(POS_AVIH_FRAMES, frameCount);
+			patch(POS_STRH_LENGTH, frameCount);
+			patch(POS_AVIH_BUFFER, maxFrameSize + 8);
+			patch(POS_STRH_BUFFER, maxFrameSize + 8);
+		} finally {
+			raf.close();
+			raf = null;
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Creates a little endian buffer.
+	 * 
+	 * @param size
+	 *            the size
+	 * 
+	 * @return the byte buffer
+	 */
+	protected ByteBuffer createBuffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Convert a four character code to bytes.
+	 * 
+	 * @param code
+	 *            the code
+	 * 
+	 * @return the bytes
+	 */
+	protected static byte[] fourcc(String code) {
+		byte[] b = new byte[4];
+		for (int i = 0; i < 4; i++) {
+			b[i] = (byte) code.charAt(i);
+		}
+		return b;
+	}
+
+	/**
+	 * Overwrite a header field and return to the end of the file.
+	 * 
+	 * @param pos
+	 *            the field position
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void patch(long pos, int value) throws IOException {
+		long end = raf.getFilePointer();
+		raf.seek(pos);
+		raf.writeInt(Integer.reverseBytes(value));
+		raf.seek(end);
+	}
+
+	/**
+	 * Write the RIFF header, stream header and the start of the 'movi' list.
+	 * The counts and sizes are written as zero and patched on close.
+	 * 
+	 * @param frameRate
+	 *            the frame rate
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void writeHeader(int frameRate) throws IOException {
+		ByteBuffer hdr = createBuffer(HEADER_SIZE);
+		hdr.put(fourcc("RIFF")).putInt(0).put(fourcc("AVI "));
+		hdr.put(fourcc("LIST")).putInt(192).put(fourcc("hdrl"));
+		// Main AVI header
+		hdr.put(fourcc("avih")).putInt(56);
+		hdr.putInt(1000000 / frameRate).putInt(0).putInt(0)
+				.putInt(AVIF_HASINDEX);
+		hdr.putInt(0).putInt(0).putInt(1).putInt(0);
+		hdr.putInt(width).putInt(height);
+		hdr.putInt(0).putInt(0).putInt(0).putInt(0);
+		hdr.put(fourcc("LIST")).putInt(116).put(fourcc("strl"));
+		// Video stream header
+		hdr.put(fourcc("strh")).putInt(56);
+		hdr.put(fourcc("vids")).put(fourcc("MJPG")).putInt(0);
+		hdr.putShort((short) 0).putShort((short) 0).putInt(0);
+		hdr.putInt(1).putInt(frameRate).putInt(0).putInt(0);
+		hdr.putInt(0).putInt(-1).putInt(0);
+		hdr.putShort((short) 0).putShort((short) 0).putShort((short) width)
+				.putShort((short) height);
+		// Bitmap info header
+		hdr.put(fourcc("strf")).putInt(40);
+		hdr.putInt(40).putInt(width).putInt(height);
+		hdr.putShort((short) 1).putShort((short) 24).put(fourcc("MJPG"));
+		hdr.putInt(width * height * 3).putInt(0).putInt(0).putInt(0)
+				.putInt(0);
+		hdr.put(fourcc("LIST")).putInt(0).put(fourcc("movi"));
+		raf.write(hdr.array());
+	}
+
+	/**
+	 * Output stream adapter that appends to the random access file.
+	 */
+	protected class RandomAccessFileOutput extends OutputStream {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			raf.write(b, off, len);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			raf.write(b);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * JIST Extensions for Computer-Integrated Surgery
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * @author Blake Lucas
+ */
+package edu.jhu.cs.cisst.vent.video;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes each frame to its own PNG file named
+ * <code>&lt;prefix&gt;_&lt;frame&gt;.png</code>.
+ */
+public class PNGSequenceWriter extends FrameWriter {
+
+	/** The output directory. */
+	protected File dir;
+
+	/** The file name prefix. */
+	protected String prefix;
+
+	/**
+	 * Instantiates a new PNG sequence writer.
+	 * 
+	 * @param dir
+	 *            the output directory
+	 * @param prefix
+	 *            the file name prefix
+	 * @param width
+	 *            the frame width
+	 * @param height
+	 *            the frame height
+	 */
+	public PNGSequenceWriter(File dir, String prefix, int width, int height) {
+		super(width, height);
+		this.dir = dir;
+		this.prefix = prefix;
+		dir.mkdirs();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.FrameSink#addFrame(java.awt.Image)
+	 */
+	@Override
+	public void addFrame(Image image) throws IOException {
+		BufferedImage frame = toFrame(image, BufferedImage.TYPE_INT_RGB);
+		File f = new File(dir, String.format("%s_%04d.png", prefix,
+				frameCount));
+		if (!ImageIO.write(frame, "png", f)) {
+			throw new IOException("No PNG writer available for " + f);
+		}
+		frameCount++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.FrameSink#close()
+	 */
+	@Override
+	public void close() throws IOException {
+	}
+}
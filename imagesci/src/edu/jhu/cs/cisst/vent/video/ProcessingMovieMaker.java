@@ -17,6 +17,7 @@ package edu.jhu.cs.cisst.vent.video;
 
 import java.awt.Image;
 import java.io.File;
+import java.io.IOException;
 
 import processing.core.PApplet;
 import processing.core.PImage;
@@ -36,6 +37,37 @@ public class ProcessingMovieMaker extends PApplet implements GenericMovieMaker {
 		init();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.GenericMovieMaker#open(java.io.File,
+	 * int, int, int)
+	 */
+	@Override
+	public FrameSink open(File f, final int frameRate, final int width,
+			final int height) throws IOException {
+		final MovieMaker movieMaker;
+		try {
+			movieMaker = new MovieMaker(this, width, height,
+					f.getAbsolutePath(), frameRate);
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		return new FrameSink() {
+			@Override
+			public void addFrame(Image image) {
+				PImage pimg = new PImage(image);
+				pimg.resize(width, height);
+				movieMaker.addFrame(pimg.pixels, pimg.width, pimg.height);
+			}
+
+			@Override
+			public void close() {
+				movieMaker.finish();
+			}
+		};
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -0,0 +1,199 @@
+/**
+ * JIST Extensions for Computer-Integrated Surgery
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * @author Blake Lucas
+ */
+package edu.jhu.cs.cisst.vent.video;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes frames on a background thread. Frames are copied into a bounded
+ * queue, and {@link #addFrame(Image)} blocks while the queue is full, so a
+ * producer that renders faster than the encoder is throttled instead of
+ * accumulating frames in memory. If the encoder thread stops, producers get
+ * an exception instead of waiting on a queue that is never drained.
+ */
+public class QueuedFrameSink implements FrameSink {
+
+	/** Marker that tells the encoder thread to finish. */
+	protected static final BufferedImage END_OF_STREAM = new BufferedImage(1,
+			1, BufferedImage.TYPE_INT_RGB);
+
+	/** The encoder thread. */
+	protected Thread encoder;
+
+	/** The first error raised by the encoder thread. */
+	protected volatile IOException error = null;
+
+	/** How long to wait for queue space before checking the encoder again. */
+	protected static final long POLL_MILLIS = 100;
+
+	/** The frame queue. */
+	protected BlockingQueue<BufferedImage> queue;
+
+	/** The sink that encodes the frames. */
+	protected FrameSink sink;
+
+	/**
+	 * Instantiates a new queued frame sink.
+	 * 
+	 * @param sink
+	 *            the sink that encodes the frames
+	 * @param capacity
+	 *            the maximum number of frames waiting to be encoded
+	 */
+	public QueuedFrameSink(FrameSink sink, int capacity) {
+		this.sink = sink;
+		this.queue = new ArrayBlockingQueue<BufferedImage>(Math.max(1,
+				capacity));
+		encoder = new Thread("Frame Encoder") {
+			@Override
+			public void run() {
+				encode();
+			}
+		};
+		encoder.setDaemon(true);
+		encoder.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.FrameSink#addFrame(java.awt.Image)
+	 */
+	@Override
+	public void addFrame(Image image) throws IOException {
+		if (encoder == null) {
+			throw new IOException("Frame sink is closed");
+		}
+		checkError();
+		BufferedImage frame = FrameWriter.createFrame(image,
+				image.getWidth(null), image.getHeight(null),
+				BufferedImage.TYPE_INT_RGB);
+		enqueue(frame);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.FrameSink#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (encoder == null) {
+			return;
+		}
+		try {
+			enqueue(END_OF_STREAM);
+			encoder.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			if (!encoder.isAlive()) {
+				encoder = null;
+			}
+		}
+		checkError();
+	}
+
+	/**
+	 * Wait for space in the queue and add the frame. Fails if the encoder
+	 * thread is no longer running, since nothing would drain the queue.
+	 * 
+	 * @param frame
+	 *            the frame
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void enqueue(BufferedImage frame) throws IOException {
+		try {
+			while (!queue.offer(frame, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (!encoder.isAlive()) {
+					checkError();
+					throw new IOException("Frame encoder stopped");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Rethrow an error raised by the encoder thread.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void checkError() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Encode frames until the end of the stream. After an error the remaining
+	 * frames are discarded so that producers never block indefinitely. Any
+	 * throwable from the sink, including runtime exceptions and errors, is
+	 * reported to the producer as an IOException.
+	 */
+	protected void encode() {
+		try {
+			while (true) {
+				BufferedImage frame = queue.take();
+				if (frame == END_OF_STREAM) {
+					break;
+				}
+				if (error == null) {
+					try {
+						sink.addFrame(frame);
+					} catch (Throwable e) {
+						error = wrap(e);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			error = new InterruptedIOException();
+		}
+		try {
+			sink.close();
+		} catch (Throwable e) {
+			if (error == null) {
+				error = wrap(e);
+			}
+		}
+	}
+
+	/**
+	 * Wrap an encoder failure as an IOException.
+	 * 
+	 * @param e
+	 *            the failure
+	 * 
+	 * @return the IO exception
+	 */
+	protected static IOException wrap(Throwable e) {
+		if (e instanceof IOException) {
+			return (IOException) e;
+		}
+		return new IOException("Frame encoding failed", e);
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * JIST Extensions for Computer-Integrated Surgery
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * @author Blake Lucas
+ */
+package edu.jhu.cs.cisst.vent.video;
+
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+
+import edu.jhu.ece.iacl.jist.io.FileReaderWriter;
+
+/**
+ * Pure Java movie maker that encodes frames as they are added. Files with an
+ * "avi" extension are written as Motion JPEG, anything else as a sequence of
+ * PNG images next to the requested file. Encoding runs on a background thread
+ * behind a bounded queue.
+ */
+public class StreamingMovieMaker implements GenericMovieMaker {
+
+	/** The JPEG quality. */
+	protected float quality = 0.9f;
+
+	/** The maximum number of frames waiting to be encoded. */
+	protected int queueSize = 8;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.GenericMovieMaker#open(java.io.File,
+	 * int, int, int)
+	 */
+	@Override
+	public FrameSink open(File f, int frameRate, int width, int height)
+			throws IOException {
+		FrameSink sink;
+		if (FileReaderWriter.getFileExtension(f).equalsIgnoreCase("avi")) {
+			sink = new MJPEGAviWriter(f, frameRate, width, height, quality);
+		} else {
+			sink = new PNGSequenceWriter(f.getAbsoluteFile().getParentFile(),
+					FileReaderWriter.getFileName(f), width, height);
+		}
+		return new QueuedFrameSink(sink, queueSize);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.vent.video.GenericMovieMaker#save(java.io.File,
+	 * java.awt.Image[], int, int, int)
+	 */
+	@Override
+	public void save(File f, Image[] images, int frameRate, int width,
+			int height) {
+		try {
+			FrameSink sink = open(f, frameRate, width, height);
+			for (int i = 0; i < images.length; i++) {
+				sink.addFrame(images[i]);
+			}
+			sink.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Gets the JPEG quality.
+	 * 
+	 * @return the quality
+	 */
+	public float getQuality() {
+		return quality;
+	}
+
+	/**
+	 * Gets the queue size.
+	 * 
+	 * @return the queue size
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Sets the JPEG quality.
+	 * 
+	 * @param quality
+	 *            the quality between 0 and 1
+	 */
+	public void setQuality(float quality) {
+		this.quality = quality;
+	}
+
+	/**
+	 * Sets the maximum number of frames waiting to be encoded.
+	 * 
+	 * @param queueSize
+	 *            the queue size
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+}
@@ -0,0 +1,765 @@
+/**
+ * Java Image Science Toolkit (JIST)
+ *
+ * Image Analysis and Communications Laboratory &
+ * Laboratory for Medical Image Computing &
+ * The Johns Hopkins University
+ * 
+ * http://www.nitrc.org/projects/jist/
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ */
+package edu.jhu.ece.iacl.jist.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads whitespace separated ASCII tokens and raw binary values from a
+ * channel through a single reusable buffer, so that large text or mixed
+ * text/binary files can be parsed in one pass without holding the file in
+ * memory. Numbers are parsed directly from the buffered bytes; only tokens
+ * that cannot be converted exactly fall back to the java parsers. A
+ * tokenizer can also be restricted to a region of a file so that several
+ * threads can parse disjoint chunks of the same file concurrently.
+ */
+public class ChannelTokenizer {
+
+	/** The default buffer size. */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	/** Exact powers of ten that can be represented as doubles. */
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	/** The channel. */
+	protected ReadableByteChannel channel;
+
+	/** The file that is read with positional reads, or null. */
+	protected FileChannel file;
+
+	/** The next position to read from the file. */
+	protected long filePosition;
+
+	/** The end of the file region. */
+	protected long fileEnd;
+
+	/** The total number of bytes read into the buffer. */
+	protected long bytesRead = 0;
+
+	/** The word matched by skipToToken. */
+	private String word = null;
+
+	/** The bytes of the word matched by skipToToken. */
+	private byte[] wordBytes = null;
+
+	/** The buffer. */
+	protected ByteBuffer buffer;
+
+	/** The bytes of the last token. */
+	protected byte[] token = new byte[64];
+
+	/** The length of the last token. */
+	protected int tokenLength = 0;
+
+	/** Flags the end of the channel. */
+	protected boolean eof = false;
+
+	/**
+	 * Instantiates a new channel tokenizer.
+	 * 
+	 * @param channel
+	 *            the channel
+	 */
+	public ChannelTokenizer(ReadableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Instantiates a new channel tokenizer.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @param bufferSize
+	 *            the buffer size
+	 */
+	public ChannelTokenizer(ReadableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocate(Math.max(bufferSize, 64));
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		buffer.limit(0);
+	}
+
+	/**
+	 * Instantiates a new channel tokenizer for the region [start, end) of a
+	 * file. The file position is not used or modified, so tokenizers for
+	 * different regions can share the same channel across threads.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param start
+	 *            the start of the region
+	 * @param end
+	 *            the end of the region
+	 */
+	public ChannelTokenizer(FileChannel file, long start, long end) {
+		this(file, DEFAULT_BUFFER_SIZE);
+		this.file = file;
+		this.filePosition = start;
+		this.fileEnd = end;
+	}
+
+	/**
+	 * Split the region [start, end) of a file into chunks that begin at the
+	 * start of a line. Chunks may be empty.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param start
+	 *            the start of the region
+	 * @param end
+	 *            the end of the region
+	 * @param chunks
+	 *            the number of chunks
+	 * @return the chunk boundaries, chunk c is [bounds[c], bounds[c+1])
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static long[] splitLines(FileChannel file, long start, long end,
+			int chunks) throws IOException {
+		chunks = Math.max(1, chunks);
+		long[] bounds = new long[chunks + 1];
+		bounds[0] = start;
+		bounds[chunks] = end;
+		ByteBuffer scan = ByteBuffer.allocate(4096);
+		for (int c = 1; c < chunks; c++) {
+			long pos = Math.max(bounds[c - 1], start + (end - start) * c
+					/ chunks);
+			search: while (pos < end) {
+				scan.clear();
+				if (end - pos < scan.capacity()) {
+					scan.limit((int) (end - pos));
+				}
+				int n = file.read(scan, pos);
+				if (n <= 0) {
+					pos = end;
+					break;
+				}
+				for (int i = 0; i < n; i++) {
+					if (scan.get(i) == '\n') {
+						pos += i + 1;
+						break search;
+					}
+				}
+				pos += n;
+			}
+			bounds[c] = Math.min(pos, end);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Sets the byte order of binary values. The default is big endian.
+	 * 
+	 * @param order
+	 *            the byte order
+	 */
+	public void setByteOrder(ByteOrder order) {
+		buffer.order(order);
+	}
+
+	/**
+	 * Gets the byte order of binary values.
+	 * 
+	 * @return the byte order
+	 */
+	public ByteOrder getByteOrder() {
+		return buffer.order();
+	}
+
+	/**
+	 * Gets the number of bytes consumed since the tokenizer was created.
+	 * 
+	 * @return the offset
+	 */
+	public long getOffset() {
+		return bytesRead - buffer.remaining();
+	}
+
+	/**
+	 * Read more bytes into the buffer, keeping the bytes that have not been
+	 * consumed.
+	 * 
+	 * @return false if no more bytes are available
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		buffer.compact();
+		if (!buffer.hasRemaining()) {
+			buffer.flip();
+			return true;
+		}
+		int n = 0;
+		while (n == 0) {
+			if (file != null) {
+				long left = fileEnd - filePosition;
+				if (left <= 0) {
+					n = -1;
+				} else if (buffer.remaining() > left) {
+					int limit = buffer.limit();
+					buffer.limit(buffer.position() + (int) left);
+					n = file.read(buffer, filePosition);
+					buffer.limit(limit);
+				} else {
+					n = file.read(buffer, filePosition);
+				}
+				if (n > 0) {
+					filePosition += n;
+				}
+			} else {
+				n = channel.read(buffer);
+			}
+		}
+		buffer.flip();
+		if (n > 0) {
+			bytesRead += n;
+		}
+		if (n < 0) {
+			eof = true;
+			return buffer.hasRemaining();
+		}
+		return true;
+	}
+
+	/**
+	 * Make sure at least the requested number of bytes are buffered.
+	 * 
+	 * @param bytes
+	 *            the number of bytes, no larger than the buffer capacity
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void require(int bytes) throws IOException {
+		while (buffer.remaining() < bytes) {
+			int before = buffer.remaining();
+			if (!fill() || buffer.remaining() == before) {
+				throw new EOFException("Unexpected end of file");
+			}
+		}
+	}
+
+	/**
+	 * Skip whitespace.
+	 * 
+	 * @return false if the end of the channel was reached
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected boolean skipWhitespace() throws IOException {
+		while (true) {
+			if (!buffer.hasRemaining() && !fill()) {
+				return false;
+			}
+			byte[] bytes = buffer.array();
+			int pos = buffer.position();
+			int limit = buffer.limit();
+			while (pos < limit && bytes[pos] <= ' ') {
+				pos++;
+			}
+			buffer.position(pos);
+			if (pos < limit) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Read the bytes of the next token into the token array.
+	 * 
+	 * @return false if there are no more tokens
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected boolean readTokenBytes() throws IOException {
+		tokenLength = 0;
+		if (!skipWhitespace()) {
+			return false;
+		}
+		while (true) {
+			byte[] bytes = buffer.array();
+			int pos = buffer.position();
+			int limit = buffer.limit();
+			int start = pos;
+			while (pos < limit && bytes[pos] > ' ') {
+				pos++;
+			}
+			int len = pos - start;
+			if (tokenLength + len > token.length) {
+				byte[] tmp = new byte[Math.max(token.length * 2, tokenLength
+						+ len)];
+				System.arraycopy(token, 0, tmp, 0, tokenLength);
+				token = tmp;
+			}
+			System.arraycopy(bytes, start, token, tokenLength, len);
+			tokenLength += len;
+			buffer.position(pos);
+			if (pos < limit || !fill()) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Get the next whitespace separated token. The delimiter following the
+	 * token is not consumed.
+	 * 
+	 * @return the token, or null at the end of the channel
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public String nextToken() throws IOException {
+		if (!readTokenBytes()) {
+			return null;
+		}
+		return new String(token, 0, tokenLength, "US-ASCII");
+	}
+
+	/**
+	 * Skip tokens until one that equals the given word. The comparison is
+	 * made on the raw bytes so no strings are created.
+	 * 
+	 * @param word
+	 *            the word
+	 * @return false if the end of the channel was reached first
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public boolean skipToToken(String word) throws IOException {
+		if (!word.equals(this.word)) {
+			this.word = word;
+			wordBytes = word.getBytes("US-ASCII");
+		}
+		while (readTokenBytes()) {
+			if (tokenLength == wordBytes.length) {
+				int i = 0;
+				while (i < tokenLength && token[i] == wordBytes[i]) {
+					i++;
+				}
+				if (i == tokenLength) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Count the remaining tokens, consuming them.
+	 * 
+	 * @return the number of tokens
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public long countTokens() throws IOException {
+		long count = 0;
+		boolean inToken = false;
+		while (buffer.hasRemaining() || fill()) {
+			byte[] bytes = buffer.array();
+			int pos = buffer.position();
+			int limit = buffer.limit();
+			for (; pos < limit; pos++) {
+				boolean space = (bytes[pos] <= ' ');
+				if (!space && !inToken) {
+					count++;
+				}
+				inToken = !space;
+			}
+			buffer.position(pos);
+		}
+		return count;
+	}
+
+	/**
+	 * Read the remainder of the current line, without the line terminator.
+	 * 
+	 * @return the line, or null at the end of the channel
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public String readLine() throws IOException {
+		if (!buffer.hasRemaining() && !fill()) {
+			return null;
+		}
+		StringBuilder line = new StringBuilder();
+		while (true) {
+			byte[] bytes = buffer.array();
+			int pos = buffer.position();
+			int limit = buffer.limit();
+			while (pos < limit && bytes[pos] != '\n') {
+				if (bytes[pos] != '\r') {
+					line.append((char) (bytes[pos] & 0xFF));
+				}
+				pos++;
+			}
+			if (pos < limit) {
+				buffer.position(pos + 1);
+				return line.toString();
+			}
+			buffer.position(pos);
+			if (!fill()) {
+				return line.toString();
+			}
+		}
+	}
+
+	/**
+	 * Skip the remainder of the current line including the line terminator.
+	 * Binary data that follows an ASCII header line starts immediately
+	 * afterwards.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void skipLine() throws IOException {
+		while (true) {
+			if (!buffer.hasRemaining() && !fill()) {
+				return;
+			}
+			byte[] bytes = buffer.array();
+			int pos = buffer.position();
+			int limit = buffer.limit();
+			while (pos < limit && bytes[pos] != '\n') {
+				pos++;
+			}
+			if (pos < limit) {
+				buffer.position(pos + 1);
+				return;
+			}
+			buffer.position(pos);
+		}
+	}
+
+	/**
+	 * Parse the next token as an integer.
+	 * 
+	 * @return the int
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public int nextInt() throws IOException {
+		if (!readTokenBytes()) {
+			throw new EOFException("Unexpected end of file");
+		}
+		int i = 0;
+		boolean neg = false;
+		if (token[0] == '-' || token[0] == '+') {
+			neg = (token[0] == '-');
+			i++;
+		}
+		if (i == tokenLength) {
+			throw new IOException("Invalid integer "
+					+ new String(token, 0, tokenLength, "US-ASCII"));
+		}
+		long val = 0;
+		for (; i < tokenLength; i++) {
+			int d = token[i] - '0';
+			if (d < 0 || d > 9 || val > Integer.MAX_VALUE) {
+				throw new IOException("Invalid integer "
+						+ new String(token, 0, tokenLength, "US-ASCII"));
+			}
+			val = val * 10 + d;
+		}
+		val = (neg) ? -val : val;
+		if (val > Integer.MAX_VALUE || val < Integer.MIN_VALUE) {
+			throw new IOException("Invalid integer "
+					+ new String(token, 0, tokenLength, "US-ASCII"));
+		}
+		return (int) val;
+	}
+
+	/**
+	 * Parse the next token as a float.
+	 * 
+	 * @return the float
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public float nextFloat() throws IOException {
+		return (float) nextDouble();
+	}
+
+	/**
+	 * Parse the next token as a double. Decimal numbers with at most 15
+	 * significant digits and small exponents are converted exactly without
+	 * creating a string.
+	 * 
+	 * @return the double
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public double nextDouble() throws IOException {
+		if (!readTokenBytes()) {
+			throw new EOFException("Unexpected end of file");
+		}
+		int i = 0;
+		boolean neg = false;
+		if (token[0] == '-' || token[0] == '+') {
+			neg = (token[0] == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exp = 0;
+		boolean valid = false;
+		for (; i < tokenLength && token[i] >= '0' && token[i] <= '9'; i++) {
+			mantissa = mantissa * 10 + (token[i] - '0');
+			if (mantissa != 0) {
+				digits++;
+			}
+			valid = true;
+		}
+		if (i < tokenLength && token[i] == '.') {
+			for (i++; i < tokenLength && token[i] >= '0' && token[i] <= '9'; i++) {
+				mantissa = mantissa * 10 + (token[i] - '0');
+				if (mantissa != 0) {
+					digits++;
+				}
+				exp--;
+				valid = true;
+			}
+		}
+		if (valid && i < tokenLength && (token[i] == 'e' || token[i] == 'E')) {
+			i++;
+			boolean negExp = false;
+			if (i < tokenLength && (token[i] == '-' || token[i] == '+')) {
+				negExp = (token[i] == '-');
+				i++;
+			}
+			int e = 0;
+			valid = (i < tokenLength);
+			for (; i < tokenLength && token[i] >= '0' && token[i] <= '9'; i++) {
+				e = Math.min(e * 10 + (token[i] - '0'), 10000);
+			}
+			exp += (negExp) ? -e : e;
+		}
+		if (valid && i == tokenLength && digits <= 15) {
+			double val;
+			if (mantissa == 0) {
+				val = 0;
+			} else if (exp >= 0 && exp < POW10.length) {
+				val = mantissa * POW10[exp];
+			} else if (exp < 0 && -exp < POW10.length) {
+				val = mantissa / POW10[-exp];
+			} else {
+				val = parseToken();
+				return val;
+			}
+			return (neg) ? -val : val;
+		}
+		return parseToken();
+	}
+
+	/**
+	 * Parse the current token with the java parser.
+	 * 
+	 * @return the double
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private double parseToken() throws IOException {
+		String str = new String(token, 0, tokenLength, "US-ASCII");
+		try {
+			return Double.parseDouble(str);
+		} catch (NumberFormatException e) {
+			if (str.equalsIgnoreCase("nan")) {
+				return Double.NaN;
+			} else if (str.equalsIgnoreCase("inf")
+					|| str.equalsIgnoreCase("infinity")) {
+				return Double.POSITIVE_INFINITY;
+			} else if (str.equalsIgnoreCase("-inf")
+					|| str.equalsIgnoreCase("-infinity")) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			throw new IOException("Invalid number " + str);
+		}
+	}
+
+	/**
+	 * Read binary floats.
+	 * 
+	 * @param dst
+	 *            the destination
+	 * @param offset
+	 *            the offset
+	 * @param length
+	 *            the number of values
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void readFloats(float[] dst, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			require(4);
+			int n = Math.min(length, buffer.remaining() / 4);
+			buffer.asFloatBuffer().get(dst, offset, n);
+			buffer.position(buffer.position() + 4 * n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Read binary doubles.
+	 * 
+	 * @param dst
+	 *            the destination
+	 * @param offset
+	 *            the offset
+	 * @param length
+	 *            the number of values
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void readDoubles(double[] dst, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			require(8);
+			int n = Math.min(length, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().get(dst, offset, n);
+			buffer.position(buffer.position() + 8 * n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Read binary integers.
+	 * 
+	 * @param dst
+	 *            the destination
+	 * @param offset
+	 *            the offset
+	 * @param length
+	 *            the number of values
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void readInts(int[] dst, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			require(4);
+			int n = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(dst, offset, n);
+			buffer.position(buffer.position() + 4 * n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Read a binary value with the given size and interpret it as a double.
+	 * 
+	 * @param bytes
+	 *            the size of the value in bytes (1, 2, 4 or 8)
+	 * @param real
+	 *            true for floating point values
+	 * @param unsigned
+	 *            true for unsigned integers
+	 * @return the value
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public double readValue(int bytes, boolean real, boolean unsigned)
+			throws IOException {
+		require(bytes);
+		switch (bytes) {
+		case 1:
+			return (unsigned) ? (buffer.get() & 0xFF) : buffer.get();
+		case 2:
+			return (unsigned) ? (buffer.getShort() & 0xFFFF) : buffer
+					.getShort();
+		case 4:
+			if (real) {
+				return buffer.getFloat();
+			}
+			return (unsigned) ? (buffer.getInt() & 0xFFFFFFFFL) : buffer
+					.getInt();
+		case 8:
+			return (real) ? buffer.getDouble() : buffer.getLong();
+		default:
+			throw new IOException("Unsupported value size " + bytes);
+		}
+	}
+
+	/**
+	 * Skip bytes.
+	 * 
+	 * @param bytes
+	 *            the number of bytes
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void skip(long bytes) throws IOException {
+		while (bytes > 0) {
+			if (!buffer.hasRemaining() && !fill()) {
+				throw new EOFException("Unexpected end of file");
+			}
+			int n = (int) Math.min(bytes, buffer.remaining());
+			buffer.position(buffer.position() + n);
+			bytes -= n;
+		}
+	}
+
+	/**
+	 * Skip tokens.
+	 * 
+	 * @param count
+	 *            the number of tokens
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void skipTokens(long count) throws IOException {
+		for (long i = 0; i < count; i++) {
+			if (!readTokenBytes()) {
+				throw new EOFException("Unexpected end of file");
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Java Image Science Toolkit (JIST)
+ *
+ * Image Analysis and Communications Laboratory &
+ * Laboratory for Medical Image Computing &
+ * The Johns Hopkins University
+ * 
+ * http://www.nitrc.org/projects/jist/
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ */
+package edu.jhu.ece.iacl.jist.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes ASCII strings and binary values to a channel through a single
+ * reusable buffer. Arrays are copied into the buffer with bulk puts.
+ */
+public class ChannelWriter {
+
+	/** The channel. */
+	protected WritableByteChannel channel;
+
+	/** The buffer. */
+	protected ByteBuffer buffer;
+
+	/**
+	 * Instantiates a new channel writer.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @param order
+	 *            the byte order of binary values
+	 */
+	public ChannelWriter(WritableByteChannel channel, ByteOrder order) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocate(ChannelTokenizer.DEFAULT_BUFFER_SIZE);
+		buffer.order(order);
+	}
+
+	/**
+	 * Write the buffered bytes to the channel.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Flush the buffer and close the channel.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Make room for the requested number of bytes.
+	 * 
+	 * @param bytes
+	 *            the number of bytes
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void reserve(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write a byte.
+	 * 
+	 * @param val
+	 *            the value
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putByte(int val) throws IOException {
+		reserve(1);
+		buffer.put((byte) val);
+	}
+
+	/**
+	 * Write a short.
+	 * 
+	 * @param val
+	 *            the value
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putShort(int val) throws IOException {
+		reserve(2);
+		buffer.putShort((short) val);
+	}
+
+	/**
+	 * Write an int.
+	 * 
+	 * @param val
+	 *            the value
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putInt(int val) throws IOException {
+		reserve(4);
+		buffer.putInt(val);
+	}
+
+	/**
+	 * Write a float.
+	 * 
+	 * @param val
+	 *            the value
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putFloat(float val) throws IOException {
+		reserve(4);
+		buffer.putFloat(val);
+	}
+
+	/**
+	 * Write bytes.
+	 * 
+	 * @param bytes
+	 *            the bytes
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putBytes(byte[] bytes) throws IOException {
+		for (int i = 0; i < bytes.length;) {
+			reserve(1);
+			int n = Math.min(bytes.length - i, buffer.remaining());
+			buffer.put(bytes, i, n);
+			i += n;
+		}
+	}
+
+	/**
+	 * Write an ASCII string.
+	 * 
+	 * @param str
+	 *            the string
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putString(String str) throws IOException {
+		putBytes(str.getBytes("US-ASCII"));
+	}
+
+	/**
+	 * Write floats.
+	 * 
+	 * @param vals
+	 *            the values
+	 * @param offset
+	 *            the offset
+	 * @param length
+	 *            the number of values
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putFloats(float[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			reserve(4);
+			int n = Math.min(length, buffer.remaining() / 4);
+			buffer.asFloatBuffer().put(vals, offset, n);
+			buffer.position(buffer.position() + 4 * n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Write ints.
+	 * 
+	 * @param vals
+	 *            the values
+	 * @param offset
+	 *            the offset
+	 * @param length
+	 *            the number of values
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putInts(int[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			reserve(4);
+			int n = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(vals, offset, n);
+			buffer.position(buffer.position() + 4 * n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Write rows of values as floats.
+	 * 
+	 * @param data
+	 *            the data
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void putFloats(double[][] data) throws IOException {
+		for (double[] row : data) {
+			for (double val : row) {
+				reserve(4);
+				buffer.putFloat((float) val);
+			}
+		}
+	}
+}
@@ -17,13 +17,25 @@
 package edu.jhu.ece.iacl.jist.io;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.vecmath.Point3i;
 
@@ -31,9 +43,12 @@ import org.imagesci.utility.PhantomMetasphere;
 
 import edu.jhu.ece.iacl.jist.structures.image.ImageData;
 import edu.jhu.ece.iacl.jist.structures.image.ImageDataByte;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataDouble;
 import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
 import edu.jhu.ece.iacl.jist.structures.image.ImageDataInt;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataMapped;
 import edu.jhu.ece.iacl.jist.structures.image.ImageDataUByte;
+import edu.jhu.ece.iacl.jist.structures.image.VoxelType;
 import edu.jhu.ece.iacl.jist.utility.JistLogger;
 import edu.washington.biostr.sig.nifti.AnalyzeNiftiSpmHeader;
 import edu.washington.biostr.sig.nifti.NiftiFile;
@@ -50,6 +65,21 @@ public class NIFTIReaderWriter extends FileReaderWriter<ImageData> {
 	/** The Constant readerWriter. */
 	protected static final NIFTIReaderWriter readerWriter = new NIFTIReaderWriter();
 
+	/** The size of the buffer used to stream gzip compressed files. */
+	protected static final int STREAM_BUFFER_SIZE = 1 << 20;
+
+	/** The maximum size of a single memory-mapped buffer. */
+	protected static final int MAX_MAPPED_BUFFER_SIZE = 1 << 30;
+
+	/** The offset of the voxel data in single file NIfTI images. */
+	protected static final int NII_HEADER_SIZE = 352;
+
+	/** Memory map uncompressed files instead of reading them into arrays. */
+	protected boolean memoryMapped = false;
+
+	/** The byte order used when writing images. */
+	protected ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+
 	/**
 	 * Gets the single instance of CubicVolumeReaderWriter.
 	 * 
@@ -63,7 +93,48 @@ public class NIFTIReaderWriter extends FileReaderWriter<ImageData> {
 	 * Instantiates a new cubic volume reader writer.
 	 */
 	public NIFTIReaderWriter() {
-		super(new FileExtensionFilter(new String[] { "nii", "hdr", "img" }));
+		super(new FileExtensionFilter(new String[] { "nii", "hdr", "img",
+				"gz" }));
+	}
+
+	/**
+	 * Sets the memory mapped flag. When enabled, uncompressed images are
+	 * returned as an {@link ImageDataMapped} view of the file instead of
+	 * being copied into java arrays.
+	 * 
+	 * @param memoryMapped
+	 *            the new memory mapped
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	/**
+	 * Checks if images are memory mapped.
+	 * 
+	 * @return true, if memory mapped
+	 */
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	/**
+	 * Sets the byte order used when writing images.
+	 * 
+	 * @param byteOrder
+	 *            the new byte order
+	 */
+	public void setByteOrder(ByteOrder byteOrder) {
+		this.byteOrder = byteOrder;
+	}
+
+	/**
+	 * Gets the byte order used when writing images.
+	 * 
+	 * @return the byte order
+	 */
+	public ByteOrder getByteOrder() {
+		return byteOrder;
 	}
 
 	/**
@@ -526,90 +597,31 @@ public class NIFTIReaderWriter extends FileReaderWriter<ImageData> {
 					}
 				}
 			}
-			byte[] buffer = nimage.getDataBytes();// new
-
-			// nimage.getDataBytes();
+			VoxelType type = getVoxelType(ahead.getDatatype());
+			if (type == null || cols == -1) {
+				JistLogger.logError(JistLogger.WARNING,
+						"Unsupported NIfTI data type " + ahead.getDatatype()
+								+ " in " + f);
+				return null;
+			}
+			File dataFile = new File(nimage.getImg().toURI());
+			// Single .nii files written without a valid vox_offset still
+			// store the data after the header
+			long offset = (long) ahead.getVoxOffset();
+			if (ahead.isSingleNIFTIFile()
+					|| nimage.getImg().equals(nimage.getHdr())) {
+				offset = Math.max(offset, 348);
+			} else {
+				offset = Math.max(offset, 0);
+			}
 			ImageData img = null;
-			boolean bigEndian = (ahead.getEndian() == ByteOrder.BIG_ENDIAN);
-			if (comps != -1) {
-				switch (ahead.getDatatype()) {
-				case AnalyzeNiftiSpmHeader.DT_FLOAT:
-					img = new ImageDataFloat(bufferToFloatMatrix(buffer, rows,
-							cols, slices, comps, bigEndian));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT32:
-				case AnalyzeNiftiSpmHeader.DT_UINT32:
-
-					img = new ImageDataInt(bufferToIntMatrix(buffer, rows,
-							cols, slices, comps, bigEndian));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_UINT8:
-					img = new ImageDataUByte(bufferToByteMatrix(buffer, rows,
-							cols, slices, comps));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT8:
-					img = new ImageDataByte(bufferToByteMatrix(buffer, rows,
-							cols, slices, comps));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT16:
-				case AnalyzeNiftiSpmHeader.DT_UINT16:
-					img = new ImageDataInt(bufferToShortMatrix(buffer, rows,
-							cols, slices, comps, bigEndian));
-					break;
-
-				}
-			} else if (slices != -1) {
-				switch (ahead.getDatatype()) {
-				case AnalyzeNiftiSpmHeader.DT_FLOAT:
-					img = new ImageDataFloat(bufferToFloatMatrix(buffer, rows,
-							cols, slices, bigEndian));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT32:
-				case AnalyzeNiftiSpmHeader.DT_UINT32:
-					img = new ImageDataInt(bufferToIntMatrix(buffer, rows,
-							cols, slices, bigEndian));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_UINT8:
-					img = new ImageDataUByte(bufferToByteMatrix(buffer, rows,
-							cols, slices));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT8:
-					img = new ImageDataByte(bufferToByteMatrix(buffer, rows,
-							cols, slices));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT16:
-				case AnalyzeNiftiSpmHeader.DT_UINT16:
-					img = new ImageDataInt(bufferToShortMatrix(buffer, rows,
-							cols, slices, bigEndian));
-					break;
-
-				}
-			} else if (cols != -1) {
-				switch (ahead.getDatatype()) {
-				case AnalyzeNiftiSpmHeader.DT_FLOAT:
-					img = new ImageDataFloat(bufferToFloatMatrix(buffer, rows,
-							cols, bigEndian));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT32:
-				case AnalyzeNiftiSpmHeader.DT_UINT32:
-					img = new ImageDataInt(bufferToIntMatrix(buffer, rows,
-							cols, bigEndian));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_UINT8:
-					img = new ImageDataUByte(bufferToByteMatrix(buffer, rows,
-							cols));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT8:
-					img = new ImageDataByte(bufferToByteMatrix(buffer, rows,
-							cols));
-					break;
-				case AnalyzeNiftiSpmHeader.DT_INT16:
-				case AnalyzeNiftiSpmHeader.DT_UINT16:
-					img = new ImageDataInt(bufferToShortMatrix(buffer, rows,
-							cols, bigEndian));
-					break;
-
-				}
+			ByteOrder order = ahead.getEndian();
+			if (memoryMapped && !isCompressed(dataFile)) {
+				img = readMapped(dataFile, offset, order, type, rows, cols,
+						Math.max(1, slices), Math.max(0, comps));
+			} else {
+				img = readStream(dataFile, offset, order, type, rows, cols,
+						slices, comps);
 			}
 			float[] pixelRes = ahead.getPixdim();
 			float[] headerRes = new float[numDims];
@@ -627,8 +639,459 @@ public class NIFTIReaderWriter extends FileReaderWriter<ImageData> {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 			return null;
+		} catch (URISyntaxException e) {
+			e.printStackTrace();
+			return null;
+		}
+
+	}
+
+	/**
+	 * Gets the voxel type used to store a NIfTI data type. Unsigned 16 and 32
+	 * bit data is stored as signed integers, as in the array based reader.
+	 * 
+	 * @param datatype
+	 *            the NIfTI data type
+	 * @return the voxel type, or null if the data type is not supported
+	 */
+	protected static VoxelType getVoxelType(short datatype) {
+		switch (datatype) {
+		case AnalyzeNiftiSpmHeader.DT_FLOAT:
+			return VoxelType.FLOAT;
+		case AnalyzeNiftiSpmHeader.DT_DOUBLE:
+			return VoxelType.DOUBLE;
+		case AnalyzeNiftiSpmHeader.DT_INT32:
+		case AnalyzeNiftiSpmHeader.DT_UINT32:
+			return VoxelType.INT;
+		case AnalyzeNiftiSpmHeader.DT_UINT8:
+			return VoxelType.UBYTE;
+		case AnalyzeNiftiSpmHeader.DT_INT8:
+			return VoxelType.BYTE;
+		case AnalyzeNiftiSpmHeader.DT_INT16:
+		case AnalyzeNiftiSpmHeader.DT_UINT16:
+			return VoxelType.SHORT;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if a file is gzip compressed.
+	 * 
+	 * @param f
+	 *            the file
+	 * @return true, if the file starts with the gzip magic number
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected static boolean isCompressed(File f) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		try {
+			return (in.read() == 0x1f && in.read() == 0x8b);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Memory map the voxel data of an uncompressed file. The returned image
+	 * reads voxels directly from the mapped file. If the file is writable,
+	 * the mapping is private so modifications to the image are never written
+	 * back to the file, otherwise the image is read-only.
+	 * 
+	 * @param f
+	 *            the data file
+	 * @param offset
+	 *            the offset of the voxel data
+	 * @param order
+	 *            the byte order
+	 * @param type
+	 *            the voxel type
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param comps
+	 *            the components
+	 * @return the image data
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected ImageDataMapped readMapped(File f, long offset, ByteOrder order,
+			VoxelType type, int rows, int cols, int slices, int comps)
+			throws IOException {
+		int sliceBytes = rows * cols * ImageDataMapped.getBytesPerVoxel(type);
+		int totalSlices = slices * Math.max(1, comps);
+		int slicesPerBuffer = Math.max(1,
+				Math.min(totalSlices, MAX_MAPPED_BUFFER_SIZE / sliceBytes));
+		ByteBuffer[] buffers = new ByteBuffer[(totalSlices + slicesPerBuffer - 1)
+				/ slicesPerBuffer];
+		boolean writable = f.canWrite();
+		RandomAccessFile raf = new RandomAccessFile(f, (writable) ? "rw" : "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long end = offset + (long) totalSlices * sliceBytes;
+			if (channel.size() < end) {
+				throw new IOException("Expected " + end + " bytes in " + f
+						+ " but found " + channel.size());
+			}
+			for (int b = 0; b < buffers.length; b++) {
+				int count = Math.min(slicesPerBuffer, totalSlices - b
+						* slicesPerBuffer);
+				buffers[b] = channel.map(
+						(writable) ? FileChannel.MapMode.PRIVATE
+								: FileChannel.MapMode.READ_ONLY,
+						offset + (long) b * slicesPerBuffer * sliceBytes,
+						(long) count * sliceBytes);
+				buffers[b].order(order);
+			}
+		} finally {
+			// The mapping remains valid after the channel is closed
+			raf.close();
 		}
+		return new ImageDataMapped(buffers, type, rows, cols, slices, comps);
+	}
 
+	/**
+	 * Read the voxel data slice by slice through a bounded buffer, which
+	 * avoids holding a copy of the entire file in memory. Gzip compressed
+	 * files are decompressed on the fly.
+	 * 
+	 * @param f
+	 *            the data file
+	 * @param offset
+	 *            the offset of the voxel data
+	 * @param order
+	 *            the byte order
+	 * @param type
+	 *            the voxel type
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices, or -1 for 2d images
+	 * @param comps
+	 *            the components, or -1 for 2d and 3d images
+	 * @return the image data
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected ImageData readStream(File f, long offset, ByteOrder order,
+			VoxelType type, int rows, int cols, int slices, int comps)
+			throws IOException {
+		ImageData img = createFlatImage(type, rows, cols, slices, comps);
+		// Nested arrays are only used when no flat storage is available
+		if (img == null) {
+			switch (type) {
+			case FLOAT:
+				img = (comps != -1) ? new ImageDataFloat(
+						new float[rows][cols][slices][comps])
+						: (slices != -1) ? new ImageDataFloat(
+								new float[rows][cols][slices])
+								: new ImageDataFloat(new float[rows][cols]);
+				break;
+			case DOUBLE:
+				img = (comps != -1) ? new ImageDataDouble(
+						new double[rows][cols][slices][comps])
+						: (slices != -1) ? new ImageDataDouble(
+								new double[rows][cols][slices])
+								: new ImageDataDouble(new double[rows][cols]);
+				break;
+			case UBYTE:
+				img = (comps != -1) ? new ImageDataUByte(
+						new byte[rows][cols][slices][comps])
+						: (slices != -1) ? new ImageDataUByte(
+								new byte[rows][cols][slices])
+								: new ImageDataUByte(new byte[rows][cols]);
+				break;
+			case BYTE:
+				img = (comps != -1) ? new ImageDataByte(
+						new byte[rows][cols][slices][comps])
+						: (slices != -1) ? new ImageDataByte(
+								new byte[rows][cols][slices])
+								: new ImageDataByte(new byte[rows][cols]);
+				break;
+			default:
+				img = (comps != -1) ? new ImageDataInt(
+						new int[rows][cols][slices][comps])
+						: (slices != -1) ? new ImageDataInt(
+								new int[rows][cols][slices]) : new ImageDataInt(
+								new int[rows][cols]);
+				break;
+			}
+		}
+		slices = Math.max(1, slices);
+		comps = Math.max(1, comps);
+		int sliceBytes = rows * cols * ImageDataMapped.getBytesPerVoxel(type);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(sliceBytes);
+		buffer.order(order);
+		ReadableByteChannel channel;
+		if (isCompressed(f)) {
+			InputStream in = new GZIPInputStream(new FileInputStream(f),
+					STREAM_BUFFER_SIZE);
+			long skipped = 0;
+			while (skipped < offset) {
+				long n = in.skip(offset - skipped);
+				if (n <= 0) {
+					in.close();
+					throw new EOFException("Unexpected end of " + f);
+				}
+				skipped += n;
+			}
+			channel = Channels.newChannel(in);
+		} else {
+			FileChannel fc = new FileInputStream(f).getChannel();
+			fc.position(offset);
+			channel = fc;
+		}
+		try {
+			for (int l = 0; l < comps; l++) {
+				for (int k = 0; k < slices; k++) {
+					buffer.clear();
+					while (buffer.hasRemaining()) {
+						if (channel.read(buffer) < 0) {
+							throw new EOFException("Unexpected end of " + f);
+						}
+					}
+					buffer.flip();
+					getSlice(buffer, img, type, k, l);
+				}
+			}
+		} finally {
+			channel.close();
+		}
+		return img;
+	}
+
+	/**
+	 * Creates an image backed by a single flat array, so that large volumes
+	 * are not allocated as millions of nested arrays.
+	 * 
+	 * @param type
+	 *            the voxel type
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices, or -1 for 2d images
+	 * @param comps
+	 *            the components, or -1 for 2d and 3d images
+	 * @return the image data, or null if the type has no flat storage or the
+	 *         volume does not fit in one array
+	 */
+	protected static ImageData createFlatImage(VoxelType type, int rows,
+			int cols, int slices, int comps) {
+		long size = (long) rows * cols * Math.max(1, slices)
+				* Math.max(1, comps);
+		if (size > Integer.MAX_VALUE - 8) {
+			return null;
+		}
+		slices = Math.max(1, slices);
+		comps = Math.max(0, comps);
+		switch (type) {
+		case FLOAT:
+			return new ImageDataFloat(new float[(int) size], rows, cols,
+					slices, comps);
+		case DOUBLE:
+			return new ImageDataDouble(new double[(int) size], rows, cols,
+					slices, comps);
+		case UBYTE:
+			return new ImageDataUByte(new byte[(int) size], rows, cols,
+					slices, comps);
+		case BYTE:
+			return null;
+		default:
+			return new ImageDataInt(new int[(int) size], rows, cols, slices,
+					comps);
+		}
+	}
+
+	/**
+	 * Copy one slice of voxel data from a buffer into an image.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @param img
+	 *            the image
+	 * @param type
+	 *            the voxel type of the data in the buffer
+	 * @param k
+	 *            the slice
+	 * @param l
+	 *            the component
+	 */
+	protected final void getSlice(ByteBuffer buffer, ImageData img,
+			VoxelType type, int k, int l) {
+		int rows = img.getRows();
+		int cols = img.getCols();
+		int offset = (l * Math.max(1, img.getSlices()) + k) * rows * cols;
+		int count = rows * cols;
+		// Flat images are filled with a single bulk get per slice
+		if (type == VoxelType.FLOAT && img instanceof ImageDataFloat
+				&& ((ImageDataFloat) img).isFlat()) {
+			buffer.asFloatBuffer().get(((ImageDataFloat) img).toArray1d(),
+					offset, count);
+			buffer.position(buffer.position() + 4 * count);
+			return;
+		} else if (type == VoxelType.INT && img instanceof ImageDataInt
+				&& ((ImageDataInt) img).isFlat()) {
+			buffer.asIntBuffer().get(((ImageDataInt) img).toArray1d(), offset,
+					count);
+			buffer.position(buffer.position() + 4 * count);
+			return;
+		} else if (type == VoxelType.SHORT && img instanceof ImageDataInt
+				&& ((ImageDataInt) img).isFlat()) {
+			int[] data = ((ImageDataInt) img).toArray1d();
+			for (int n = 0; n < count; n++) {
+				data[offset + n] = buffer.getShort();
+			}
+			return;
+		} else if (type == VoxelType.DOUBLE && img instanceof ImageDataDouble
+				&& ((ImageDataDouble) img).isFlat()) {
+			buffer.asDoubleBuffer().get(((ImageDataDouble) img).toArray1d(),
+					offset, count);
+			buffer.position(buffer.position() + 8 * count);
+			return;
+		} else if (type == VoxelType.UBYTE && img instanceof ImageDataUByte
+				&& ((ImageDataUByte) img).isFlat()) {
+			buffer.get(((ImageDataUByte) img).toArray1d(), offset, count);
+			return;
+		}
+		switch (type) {
+		case FLOAT:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					img.set(i, j, k, l, buffer.getFloat());
+				}
+			}
+			break;
+		case DOUBLE:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					img.set(i, j, k, l, buffer.getDouble());
+				}
+			}
+			break;
+		case INT:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					img.set(i, j, k, l, buffer.getInt());
+				}
+			}
+			break;
+		case SHORT:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					img.set(i, j, k, l, (int) buffer.getShort());
+				}
+			}
+			break;
+		case UBYTE:
+			ImageDataUByte ubyteImg = (ImageDataUByte) img;
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					ubyteImg.set(i, j, k, l, buffer.get());
+				}
+			}
+			break;
+		default:
+			ImageDataByte byteImg = (ImageDataByte) img;
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					byteImg.set(i, j, k, l, buffer.get());
+				}
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Copy one slice of an image into a buffer.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @param img
+	 *            the image
+	 * @param type
+	 *            the voxel type of the data in the buffer
+	 * @param k
+	 *            the slice
+	 * @param l
+	 *            the component
+	 */
+	protected final void putSlice(ByteBuffer buffer, ImageData img,
+			VoxelType type, int k, int l) {
+		int rows = img.getRows();
+		int cols = img.getCols();
+		int offset = (l * Math.max(1, img.getSlices()) + k) * rows * cols;
+		int count = rows * cols;
+		// Flat images are copied with a single bulk put per slice
+		if (type == VoxelType.FLOAT && img instanceof ImageDataFloat
+				&& ((ImageDataFloat) img).isFlat()) {
+			buffer.asFloatBuffer().put(((ImageDataFloat) img).toArray1d(),
+					offset, count);
+			buffer.position(buffer.position() + 4 * count);
+			return;
+		} else if (type == VoxelType.INT && img instanceof ImageDataInt
+				&& ((ImageDataInt) img).isFlat()) {
+			buffer.asIntBuffer().put(((ImageDataInt) img).toArray1d(), offset,
+					count);
+			buffer.position(buffer.position() + 4 * count);
+			return;
+		} else if (type == VoxelType.DOUBLE && img instanceof ImageDataDouble
+				&& ((ImageDataDouble) img).isFlat()) {
+			buffer.asDoubleBuffer().put(((ImageDataDouble) img).toArray1d(),
+					offset, count);
+			buffer.position(buffer.position() + 8 * count);
+			return;
+		} else if (type == VoxelType.UBYTE && img instanceof ImageDataUByte
+				&& ((ImageDataUByte) img).isFlat()) {
+			buffer.put(((ImageDataUByte) img).toArray1d(), offset, count);
+			return;
+		}
+		switch (type) {
+		case FLOAT:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buffer.putFloat(img.getFloat(i, j, k, l));
+				}
+			}
+			break;
+		case DOUBLE:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buffer.putDouble(img.getDouble(i, j, k, l));
+				}
+			}
+			break;
+		case INT:
+		case UINT:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buffer.putInt(img.getInt(i, j, k, l));
+				}
+			}
+			break;
+		case SHORT:
+		case USHORT:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buffer.putShort(img.getShort(i, j, k, l));
+				}
+			}
+			break;
+		default:
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buffer.put(img.getByte(i, j, k, l));
+				}
+			}
+			break;
+		}
 	}
 
 	/**
@@ -869,9 +1332,16 @@ public class NIFTIReaderWriter extends FileReaderWriter<ImageData> {
 	 */
 	@Override
 	protected File writeObject(ImageData img, File f) {
-
-		AnalyzeNiftiSpmHeader newHeader = new AnalyzeNiftiSpmHeader(
-				ByteOrder.BIG_ENDIAN);
+		String ext = FileReaderWriter.getFileExtension(f);
+		String baseName = FileReaderWriter.getFileName(f);
+		boolean compressed = ext.equals("gz");
+		if (compressed) {
+			ext = FileReaderWriter.getFileExtension(baseName);
+			baseName = FileReaderWriter.getFileName(baseName);
+		}
+		boolean singleFile = ext.equals("nii");
+		AnalyzeNiftiSpmHeader newHeader = new AnalyzeNiftiSpmHeader(byteOrder,
+				singleFile);
 		try {
 
 			short numDims = 2;
@@ -897,78 +1367,82 @@ public class NIFTIReaderWriter extends FileReaderWriter<ImageData> {
 			}
 			newHeader.setDim(dims);
 			newHeader.setPixdim(pixelRes);
-			System.out.println("HEADER SIZE " + newHeader.getSizeofHdr());
-			byte[] buffer = null;
-			switch (img.getType()) {
+			VoxelType type = img.getType();
+			switch (type) {
 			case DOUBLE:
 				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_DOUBLE);
 				break;
 			case FLOAT:
 				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_FLOAT);
-				buffer = toFloatBuffer(img, true);
 				break;
 			case UBYTE:
 				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_UINT8);
-				buffer = toByteBuffer(img, true);
 				break;
 			case BYTE:
 				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_INT8);
-				buffer = toByteBuffer(img, true);
 				break;
 			case INT:
 				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_INT32);
-				buffer = toIntBuffer(img, true);
 				break;
 			case UINT:
 				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_UINT32);
-				buffer = toIntBuffer(img, true);
 				break;
 			case SHORT:
 				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_INT16);
-				buffer = toShortBuffer(img, true);
 				break;
 			case USHORT:
 				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_UINT16);
-				buffer = toShortBuffer(img, true);
 				break;
-			case COLOR:
+			default:
 				// not implemented yet!
-				newHeader.setDatatype(AnalyzeNiftiSpmHeader.DT_RGB);
-				break;
+				return null;
 			}
-			String ext = FileReaderWriter.getFileExtension(f);
-
-			if (buffer != null) {
-				if (ext.equals("nii")) {
-
-					DataOutputStream outputStream = new DataOutputStream(
-							new FileOutputStream(f));
-					newHeader.write(outputStream);
-					outputStream.write(buffer);
-					outputStream.close();
-				} else if (ext.equals("hdr")) {
-					DataOutputStream outputStream = new DataOutputStream(
-							new FileOutputStream(f));
-					newHeader.write(outputStream);
-					outputStream.close();
-					outputStream = new DataOutputStream(new FileOutputStream(
-							new File(f.getParentFile(), FileReaderWriter
-									.getFileName(f) + ".img")));
-					outputStream.write(buffer);
-					outputStream.close();
-				} else if (ext.equals("img")) {
-					DataOutputStream outputStream = new DataOutputStream(
-							new FileOutputStream(new File(f.getParentFile(),
-									FileReaderWriter.getFileName(f) + ".hdr")));
-					newHeader.write(outputStream);
-					outputStream.close();
-					outputStream = new DataOutputStream(new FileOutputStream(f));
-					outputStream.write(buffer);
-					outputStream.close();
-				}
+			File dataFile;
+			if (singleFile) {
+				// Header, 4 byte extension flag and voxel data
+				newHeader.setVoxOffset(NII_HEADER_SIZE);
+				dataFile = f;
+			} else if (ext.equals("hdr")) {
+				// Only the voxel data of an Analyze pair is compressed, so
+				// x.hdr.gz is written as x.hdr and x.img.gz
+				f = new File(f.getParentFile(), baseName + ".hdr");
+				DataOutputStream outputStream = new DataOutputStream(
+						new FileOutputStream(f));
+				newHeader.write(outputStream);
+				outputStream.close();
+				dataFile = new File(f.getParentFile(), baseName + ".img"
+						+ ((compressed) ? ".gz" : ""));
+			} else if (ext.equals("img")) {
+				DataOutputStream outputStream = new DataOutputStream(
+						new FileOutputStream(new File(f.getParentFile(),
+								baseName + ".hdr")));
+				newHeader.write(outputStream);
+				outputStream.close();
+				dataFile = f;
 			} else {
 				return null;
 			}
+			WritableByteChannel channel;
+			if (compressed) {
+				channel = Channels.newChannel(new GZIPOutputStream(
+						new FileOutputStream(dataFile), STREAM_BUFFER_SIZE));
+			} else {
+				channel = new FileOutputStream(dataFile).getChannel();
+			}
+			try {
+				if (singleFile) {
+					ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(
+							NII_HEADER_SIZE);
+					newHeader.write(headerBytes);
+					headerBytes.write(new byte[NII_HEADER_SIZE
+							- headerBytes.size()]);
+					writeFully(channel,
+							ByteBuffer.wrap(headerBytes.toByteArray()));
+				}
+				writeData(img, type, channel);
+			} finally {
+				channel.close();
+			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -977,6 +1451,65 @@ public class NIFTIReaderWriter extends FileReaderWriter<ImageData> {
 		return f;
 	}
 
+	/**
+	 * Write the voxel data slice by slice through a direct buffer, converting
+	 * to the output byte order on the fly. Memory-mapped images stored with
+	 * the output byte order are written directly from their buffers.
+	 * 
+	 * @param img
+	 *            the image
+	 * @param type
+	 *            the voxel type
+	 * @param channel
+	 *            the channel
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void writeData(ImageData img, VoxelType type,
+			WritableByteChannel channel) throws IOException {
+		int rows = img.getRows();
+		int cols = img.getCols();
+		int slices = Math.max(1, img.getSlices());
+		int comps = Math.max(1, img.getComponents());
+		int sliceBytes = rows * cols * ImageDataMapped.getBytesPerVoxel(type);
+		if (img instanceof ImageDataMapped
+				&& ((ImageDataMapped) img).getByteOrder() == byteOrder) {
+			for (ByteBuffer buffer : ((ImageDataMapped) img).getBuffers()) {
+				ByteBuffer data = buffer.duplicate();
+				data.clear();
+				writeFully(channel, data);
+			}
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(sliceBytes);
+		buffer.order(byteOrder);
+		for (int l = 0; l < comps; l++) {
+			for (int k = 0; k < slices; k++) {
+				buffer.clear();
+				putSlice(buffer, img, type, k, l);
+				buffer.flip();
+				writeFully(channel, buffer);
+			}
+		}
+	}
+
+	/**
+	 * Write the remaining contents of a buffer to a channel.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @param buffer
+	 *            the buffer
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeFully(WritableByteChannel channel,
+			ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
 	/**
 	 * The main method.
 	 * 
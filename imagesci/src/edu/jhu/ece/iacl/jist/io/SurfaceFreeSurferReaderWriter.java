@@ -16,36 +16,49 @@
  */
 package edu.jhu.ece.iacl.jist.io;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import javax.vecmath.Point3d;
-import javax.vecmath.Point3f;
+
+import org.imagesci.utility.ParallelUtil;
+import org.imagesci.utility.ParallelUtil.RangeTask;
 
 import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface;
-import edu.jhu.ece.iacl.jist.structures.geom.NormalGenerator;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class SurfaceFreeSurferReaderWriter.
+ * The Class SurfaceFreeSurferReaderWriter. Reads and writes FreeSurfer
+ * triangle surfaces. Files with the "asc" extension use the ASCII format,
+ * all other extensions use the big endian binary format.
  */
 public class SurfaceFreeSurferReaderWriter extends SurfaceReaderWriter {
 
+	/** The magic number of binary triangle surfaces. */
+	protected static final int TRIANGLE_MAGIC = 0xFFFFFE;
+
+	/** The magic number of binary quadrangle surfaces. */
+	protected static final int QUAD_MAGIC = 0xFFFFFF;
+
 	/** The Constant readerWriter. */
 	protected static final SurfaceFreeSurferReaderWriter readerWriter = new SurfaceFreeSurferReaderWriter();
 
+	/** Parse ASCII files in parallel chunks. */
+	protected boolean parallel = false;
+
 	/**
 	 * Instantiates a new surface free surfer reader writer.
 	 */
 	public SurfaceFreeSurferReaderWriter() {
-		super(new FileExtensionFilter(new String[] { "asc" }));
+		super(new FileExtensionFilter(new String[] { "asc", "white", "pial",
+				"inflated", "orig", "sphere", "smoothwm" }));
 	}
 
 	/**
@@ -57,6 +70,26 @@ public class SurfaceFreeSurferReaderWriter extends SurfaceReaderWriter {
 		return readerWriter;
 	}
 
+	/**
+	 * Checks if ASCII files are parsed in parallel.
+	 * 
+	 * @return true, if parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Sets whether ASCII files are split into chunks of lines that are
+	 * parsed on several threads.
+	 * 
+	 * @param parallel
+	 *            the new parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -65,98 +98,182 @@ public class SurfaceFreeSurferReaderWriter extends SurfaceReaderWriter {
 	 */
 	@Override
 	protected EmbeddedSurface readObject(File f) {
-		BufferedReader in;
-		StringBuffer buff = new StringBuffer();
+		EmbeddedSurface surf;
 		try {
-			// Create input stream from file
-			in = new BufferedReader(new InputStreamReader(
-					new FileInputStream(f)));
-
-			String str;
-			// Read file as string
-			while ((str = in.readLine()) != null) {
-				buff.append(str + "\n");
+			FileChannel channel = new FileInputStream(f).getChannel();
+			try {
+				ByteBuffer magic = ByteBuffer.allocate(3);
+				channel.read(magic, 0);
+				int id = ((magic.get(0) & 0xFF) << 16)
+						| ((magic.get(1) & 0xFF) << 8) | (magic.get(2) & 0xFF);
+				if (id == TRIANGLE_MAGIC) {
+					surf = readBinary(channel);
+				} else if (id == QUAD_MAGIC) {
+					throw new IOException(
+							"Quadrangle surfaces are not supported");
+				} else {
+					surf = readAscii(channel);
+				}
+			} finally {
+				channel.close();
 			}
-		} catch (Exception e) {
+		} catch (IOException e) {
 			System.err.println(getClass().getCanonicalName()
-					+ "Error occured while reading parameter file:\n"
+					+ "Error occured while reading " + f + ":\n"
 					+ e.getMessage());
-			e.printStackTrace();
 			return null;
 		}
-		Pattern header = Pattern.compile("\\d+\\s+\\d+");
-		Matcher m = header.matcher(buff);
-		int vertexCount = 0;
-		int indexCount = 0;
-		Point3f[] points;
-		int[] indices;
-		if (m.find()) {
-			String head = buff.substring(m.start(), m.end());
-			String[] vals = head.split("\\s+");
-			if (vals.length == 2) {
-				// System.out.println("jist.io"+"\t"+vals.length);
-				try {
-					vertexCount = Integer.parseInt(vals[0]);
-					indexCount = Integer.parseInt(vals[1]);
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT DETERMINE VERTEX AND INDEX COUNT");
-					return null;
+		surf.setName(FileReaderWriter.getFileName(f));
+		return surf;
+	}
+
+	/**
+	 * Reverse the winding of triangles. FreeSurfer orders triangle vertices
+	 * clockwise when viewed from outside.
+	 * 
+	 * @param indices
+	 *            the indices
+	 */
+	private static void flipTriangles(int[] indices) {
+		for (int i = 0; i < indices.length; i += 3) {
+			int tmp = indices[i];
+			indices[i] = indices[i + 2];
+			indices[i + 2] = tmp;
+		}
+	}
+
+	/**
+	 * Read a binary triangle surface.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @return the embedded surface
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected EmbeddedSurface readBinary(FileChannel channel)
+			throws IOException {
+		ChannelTokenizer in = new ChannelTokenizer(channel, 0, channel.size());
+		in.setByteOrder(ByteOrder.BIG_ENDIAN);
+		in.skip(3);
+		// The creation comment is terminated by two line feeds
+		in.readLine();
+		in.readLine();
+		int[] counts = new int[2];
+		in.readInts(counts, 0, 2);
+		System.out.println("jist.io" + "\t" + "VERTS " + counts[0]);
+		System.out.println("jist.io" + "\t" + "INDICES " + counts[1]);
+		float[] points = new float[3 * counts[0]];
+		in.readFloats(points, 0, points.length);
+		int[] indices = new int[3 * counts[1]];
+		in.readInts(indices, 0, indices.length);
+		flipTriangles(indices);
+		return new EmbeddedSurface(points, indices);
+	}
+
+	/**
+	 * Read an ASCII surface. Every vertex and face is stored on a line of
+	 * four values. When parsing in parallel, the file is split into chunks
+	 * of lines whose tokens are counted first so that each chunk knows where
+	 * its values belong.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @return the embedded surface
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected EmbeddedSurface readAscii(final FileChannel channel)
+			throws IOException {
+		long size = channel.size();
+		ChannelTokenizer head = new ChannelTokenizer(channel, 0, size);
+		String line = head.readLine();
+		while (line != null
+				&& (line.startsWith("#") || line.trim().length() == 0)) {
+			line = head.readLine();
+		}
+		if (line == null) {
+			throw new IOException("CANNOT DETERMINE VERTEX AND INDEX COUNT");
+		}
+		String[] vals = line.trim().split("\\s+");
+		final int vertexCount;
+		final int faceCount;
+		try {
+			vertexCount = Integer.parseInt(vals[0]);
+			faceCount = Integer.parseInt(vals[1]);
+		} catch (RuntimeException e) {
+			throw new IOException("CANNOT DETERMINE VERTEX AND INDEX COUNT");
+		}
+		System.out.println("jist.io" + "\t" + "VERTS " + vertexCount);
+		System.out.println("jist.io" + "\t" + "INDICES " + faceCount);
+		final long needed = 4L * (vertexCount + faceCount);
+		final int chunks = (parallel) ? ParallelUtil.getThreadCount() : 1;
+		final long[] bounds = ChannelTokenizer.splitLines(channel,
+				head.getOffset(), size, chunks);
+		final long[] firstToken = new long[chunks + 1];
+		final float[] points = new float[3 * vertexCount];
+		final int[] indices = new int[3 * faceCount];
+		try {
+			if (chunks > 1) {
+				ParallelUtil.forRange(0, chunks, chunks, new RangeTask() {
+					@Override
+					public void run(int start, int end) {
+						for (int c = start; c < end; c++) {
+							try {
+								firstToken[c + 1] = new ChannelTokenizer(
+										channel, bounds[c], bounds[c + 1])
+										.countTokens();
+							} catch (IOException e) {
+								throw new RuntimeException(e);
+							}
+						}
+					}
+				});
+				for (int c = 1; c <= chunks; c++) {
+					firstToken[c] += firstToken[c - 1];
 				}
-			}
-			String[] strs = buff.substring(m.end(), buff.length())
-					.split("\\s+");
-			// System.out.println("jist.io"+"\t"+strs.length);
-			// System.out.println("jist.io"+"\t"+strs[1]);
-			// System.out.println("jist.io"+"\t"+strs[vertexCount*4+1]);
-			// System.out.println("jist.io"+"\t"+strs[vertexCount*4+2]);
-			// System.out.println("jist.io"+"\t"+strs[vertexCount*4+3]);
-			points = new Point3f[vertexCount];
-			System.out.println("jist.io" + "\t" + "VERTS " + vertexCount);
-			for (int i = 1; i < ((vertexCount * 4) + 1); i += 4) {
-				try {
-					Point3f p = new Point3f();
-					p.x = Float.parseFloat(strs[i]);
-					p.y = Float.parseFloat(strs[i + 1]);
-					p.z = Float.parseFloat(strs[i + 2]);
-					points[(i - 1) / 4] = p;
-					// System.out.println("jist.io"+"\t"+i/3+")"+p);
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT FORMAT VERTS");
-					return null;
+				if (firstToken[chunks] < needed) {
+					throw new IOException("Unexpected end of file");
 				}
+			} else {
+				firstToken[1] = needed;
 			}
-			int j = 0;
-			indices = new int[indexCount * 3];
-			System.out.println("jist.io" + "\t" + "INDICES " + indexCount);
-			for (int i = ((vertexCount * 4) + 1); i < strs.length; i += 4) {
-				try {
-					indices[j] = Integer.parseInt(strs[i + 2]);
-					j++;
-					indices[j] = Integer.parseInt(strs[i + 1]);
-					j++;
-					indices[j] = Integer.parseInt(strs[i]);
-					j++;
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT FORMAT INDICES");
-					return null;
+			ParallelUtil.forRange(0, chunks, chunks, new RangeTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int c = start; c < end; c++) {
+						try {
+							ChannelTokenizer in = new ChannelTokenizer(channel,
+									bounds[c], bounds[c + 1]);
+							long last = Math.min(firstToken[c + 1], needed);
+							for (long t = firstToken[c]; t < last; t++) {
+								int tuple = (int) (t / 4);
+								int comp = (int) (t % 4);
+								if (comp == 3) {
+									in.skipTokens(1);
+								} else if (tuple < vertexCount) {
+									points[3 * tuple + comp] = in.nextFloat();
+								} else {
+									int face = tuple - vertexCount;
+									indices[3 * face + comp] = in.nextInt();
+								}
+							}
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
 				}
+			});
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
 			}
-			// System.out.println("jist.io"+"\t"+j);
-			// System.out.println("jist.io"+"\t"+indexCount*3);
-			// System.out.println("jist.io"+"\t"+indices[0]);
-			// System.out.println("jist.io"+"\t"+indices[1]);
-			// System.out.println("jist.io"+"\t"+indices[2]);
-
-		} else {
-			return null;
+			throw e;
 		}
-		EmbeddedSurface surf = new EmbeddedSurface(points,
-				NormalGenerator.generate(points, indices), indices);
-		surf.setName(FileReaderWriter.getFileName(f));
-		return surf;
+		flipTriangles(indices);
+		return new EmbeddedSurface(points, indices);
 	}
 
 	/*
@@ -168,6 +285,9 @@ public class SurfaceFreeSurferReaderWriter extends SurfaceReaderWriter {
 	 */
 	@Override
 	protected File writeObject(EmbeddedSurface mesh, File f) {
+		if (!"asc".equalsIgnoreCase(FileReaderWriter.getFileExtension(f))) {
+			return writeBinary(mesh, f);
+		}
 		try {
 			BufferedWriter stream = new BufferedWriter(new FileWriter(f));
 			int[] indices = new int[mesh.getIndexCount()];
@@ -199,4 +319,42 @@ public class SurfaceFreeSurferReaderWriter extends SurfaceReaderWriter {
 		return null;
 	}
 
+	/**
+	 * Write a binary triangle surface.
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 * @param f
+	 *            the file
+	 * @return the file
+	 */
+	protected File writeBinary(EmbeddedSurface mesh, File f) {
+		try {
+			ChannelWriter out = new ChannelWriter(
+					new FileOutputStream(f).getChannel(), ByteOrder.BIG_ENDIAN);
+			try {
+				float[] points = new float[3 * mesh.getVertexCount()];
+				mesh.getCoordinates(0, points);
+				int[] indices = new int[mesh.getIndexCount()];
+				mesh.getCoordinateIndices(0, indices);
+				flipTriangles(indices);
+				out.putByte(TRIANGLE_MAGIC >> 16);
+				out.putByte(TRIANGLE_MAGIC >> 8);
+				out.putByte(TRIANGLE_MAGIC);
+				out.putString("created by " + System.getProperty("user.name")
+						+ "\n\n");
+				out.putInt(points.length / 3);
+				out.putInt(indices.length / 3);
+				out.putFloats(points, 0, points.length);
+				out.putInts(indices, 0, indices.length);
+			} finally {
+				out.close();
+			}
+			return f;
+		} catch (IOException e) {
+			System.err.println(getClass().getCanonicalName() + e.getMessage());
+		}
+		return null;
+	}
+
 }
@@ -16,47 +16,163 @@
  */
 package edu.jhu.ece.iacl.jist.io;
 
-
-import java.awt.Color;
-import java.awt.Dimension;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.LinkedList;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.vecmath.Color3f;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
 import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
 
-import org.imagesci.utility.GeomUtil;
+import org.imagesci.utility.ParallelUtil;
+import org.imagesci.utility.ParallelUtil.RangeTask;
 
-import edu.jhu.cs.cisst.vent.VisualizationApplication;
-import edu.jhu.cs.cisst.vent.widgets.VisualizationTriangleMesh;
 import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface;
-import edu.jhu.ece.iacl.jist.structures.geom.NormalGenerator;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class SurfaceSTLReaderWriter.
+ * The Class SurfaceSTLReaderWriter. Reads ASCII and binary STL files and
+ * welds the triangle corners into shared vertices. Files are written as
+ * ASCII by default or as little endian binary if requested.
  */
 public class SurfaceSTLReaderWriter extends SurfaceReaderWriter {
 
+	/**
+	 * Merges vertices with identical coordinates using an open addressing
+	 * hash table over the coordinate bits.
+	 */
+	protected static class VertexWelder {
+
+		/** The unique vertex coordinates. */
+		protected float[] coords;
+
+		/** The number of unique vertices. */
+		protected int count = 0;
+
+		/** The hash table of vertex ids, -1 marks empty slots. */
+		protected int[] table;
+
+		/**
+		 * Instantiates a new vertex welder.
+		 * 
+		 * @param capacity
+		 *            the expected number of unique vertices
+		 */
+		public VertexWelder(int capacity) {
+			capacity = Math.max(capacity, 16);
+			coords = new float[3 * capacity];
+			int size = Integer.highestOneBit(capacity) * 4;
+			table = new int[size];
+			Arrays.fill(table, -1);
+		}
+
+		/**
+		 * Hash the coordinates.
+		 * 
+		 * @param x
+		 *            the x
+		 * @param y
+		 *            the y
+		 * @param z
+		 *            the z
+		 * @return the hash
+		 */
+		private static int hash(float x, float y, float z) {
+			int h = Float.floatToIntBits(x);
+			h = h * 31 + Float.floatToIntBits(y);
+			h = h * 31 + Float.floatToIntBits(z);
+			return h ^ (h >>> 16);
+		}
+
+		/**
+		 * Add a vertex.
+		 * 
+		 * @param x
+		 *            the x
+		 * @param y
+		 *            the y
+		 * @param z
+		 *            the z
+		 * @return the id of the vertex with these coordinates
+		 */
+		public int add(float x, float y, float z) {
+			// Map -0 to 0 so that equal coordinates hash equally
+			x += 0.0f;
+			y += 0.0f;
+			z += 0.0f;
+			int mask = table.length - 1;
+			int slot = hash(x, y, z) & mask;
+			int id;
+			while ((id = table[slot]) >= 0) {
+				if (coords[3 * id] == x && coords[3 * id + 1] == y
+						&& coords[3 * id + 2] == z) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			id = count++;
+			if (3 * count > coords.length) {
+				coords = Arrays.copyOf(coords, coords.length * 2);
+			}
+			coords[3 * id] = x;
+			coords[3 * id + 1] = y;
+			coords[3 * id + 2] = z;
+			table[slot] = id;
+			if (2 * count > table.length) {
+				rehash();
+			}
+			return id;
+		}
+
+		/**
+		 * Gets the unique vertex coordinates.
+		 * 
+		 * @return the coordinates stored as x,y,z triples
+		 */
+		public float[] getCoordinates() {
+			return Arrays.copyOf(coords, 3 * count);
+		}
+
+		/**
+		 * Double the size of the hash table.
+		 */
+		private void rehash() {
+			table = new int[table.length * 2];
+			Arrays.fill(table, -1);
+			int mask = table.length - 1;
+			for (int id = 0; id < count; id++) {
+				int slot = hash(coords[3 * id], coords[3 * id + 1],
+						coords[3 * id + 2])
+						& mask;
+				while (table[slot] >= 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = id;
+			}
+		}
+	}
+
+	/** The size of the binary header. */
+	protected static final int BINARY_HEADER = 84;
+
+	/** The size of one binary facet. */
+	protected static final int BINARY_FACET = 50;
+
 	/** The Constant readerWriter. */
 	protected static final SurfaceSTLReaderWriter readerWriter = new SurfaceSTLReaderWriter();
 
+	/** Write files in the binary format. */
+	protected boolean binary = false;
+
+	/** Parse ASCII files in parallel chunks. */
+	protected boolean parallel = false;
+
 	/**
 	 * Gets the single instance of SurfaceVrmlReaderWriter.
 	 * 
@@ -74,59 +190,43 @@ public class SurfaceSTLReaderWriter extends SurfaceReaderWriter {
 	}
 
 	/**
-	 * The Class ComparePoint3f.
+	 * Checks if files are written in the binary format.
+	 * 
+	 * @return true, if binary
 	 */
-	protected static class ComparePoint3f extends Point3f implements
-			Comparable<ComparePoint3f> {
-		
-		/** The id. */
-		protected int id;
-
-		/**
-		 * Instantiates a new compare point3f.
-		 *
-		 * @param pt the pt
-		 * @param id the id
-		 */
-		public ComparePoint3f(Point3f pt, int id) {
-			super(pt);
-			this.id = id;
-		}
-
-		/**
-		 * Instantiates a new compare point3f.
-		 *
-		 * @param x the x
-		 * @param y the y
-		 * @param z the z
-		 * @param id the id
-		 */
-		public ComparePoint3f(float x, float y, float z, int id) {
-			super(x, y, z);
-			this.id = id;
-		}
+	public boolean isBinary() {
+		return binary;
+	}
 
-		/**
-		 * Equals.
-		 *
-		 * @param pt2 the pt2
-		 * @return true, if successful
-		 */
-		public boolean equals(ComparePoint3f pt2) {
-			Point3f pt1 = this;
-			return (pt1.x == pt2.x && pt1.y == pt2.y && pt1.z == pt2.z);
-		}
+	/**
+	 * Sets the format used when writing files. Reading detects the format
+	 * from the file size and header.
+	 * 
+	 * @param binary
+	 *            true to write binary files, false to write ASCII files
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
 
-		/* (non-Javadoc)
-		 * @see java.lang.Comparable#compareTo(java.lang.Object)
-		 */
-		@Override
-		public int compareTo(ComparePoint3f pt2) {
-			Point3f pt1 = this;
-			return (pt1.x == pt2.x && pt1.y == pt2.y && pt1.z == pt2.z) ? 0
-					: pt2.id - this.id;
-		}
+	/**
+	 * Checks if ASCII files are parsed in parallel.
+	 * 
+	 * @return true, if parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
 
+	/**
+	 * Sets whether ASCII files are split into chunks of lines that are
+	 * parsed on several threads.
+	 * 
+	 * @param parallel
+	 *            the new parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
 	}
 
 	/*
@@ -136,59 +236,164 @@ public class SurfaceSTLReaderWriter extends SurfaceReaderWriter {
 	 * edu.jhu.ece.iacl.jist.io.SurfaceReaderWriter#readObject(java.io.File)
 	 */
 	protected EmbeddedSurface readObject(File f) {
-		BufferedReader in;
-		StringBuffer buff = new StringBuffer();
+		float[] corners;
 		try {
-			// Create input stream from file
-			in = new BufferedReader(new InputStreamReader(
-					new FileInputStream(f)));
-
-			String str;
-			// Read file as string
-			while ((str = in.readLine()) != null) {
-				buff.append(str + "\n");
+			FileChannel channel = new FileInputStream(f).getChannel();
+			try {
+				if (isBinary(channel)) {
+					corners = readBinaryCorners(channel);
+				} else {
+					corners = readAsciiCorners(channel);
+				}
+			} finally {
+				channel.close();
 			}
-		} catch (Exception e) {
+		} catch (IOException e) {
 			System.err.println(getClass().getCanonicalName()
-					+ "Error occured while reading parameter file:\n"
+					+ "Error occured while reading " + f + ":\n"
 					+ e.getMessage());
-			e.printStackTrace();
 			return null;
 		}
-		Pattern header = Pattern.compile("vertex.+\n");
-		Matcher m = header.matcher(buff);
+		int indexCount = corners.length / 3;
+		VertexWelder welder = new VertexWelder(indexCount / 4);
+		int[] indices = new int[indexCount];
+		for (int i = 0; i < indexCount; i++) {
+			indices[i] = welder.add(corners[3 * i], corners[3 * i + 1],
+					corners[3 * i + 2]);
+		}
+		corners = null;
+		EmbeddedSurface surf = new EmbeddedSurface(welder.getCoordinates(),
+				indices);
+		surf.setName(FileReaderWriter.getFileName(f));
+		return surf;
+	}
 
-		TreeSet<ComparePoint3f> map = new TreeSet<ComparePoint3f>();
-		LinkedList<ComparePoint3f> pointList = new LinkedList<ComparePoint3f>();
+	/**
+	 * Checks if a file is a binary STL file. Binary files are recognized by
+	 * their size matching the triangle count in the header, since binary
+	 * headers may also start with "solid".
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @return true, if binary
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected static boolean isBinary(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size < BINARY_HEADER) {
+			return false;
+		}
+		ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				return false;
+			}
+		}
+		long triangles = header.getInt(80) & 0xFFFFFFFFL;
+		if (BINARY_HEADER + BINARY_FACET * triangles == size) {
+			return true;
+		}
+		for (int i = 0; i < 5; i++) {
+			if (header.get(i) != "solid".charAt(i)) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-		int l = 0;
-		while (m.find()) {
-			String head = buff.substring(m.start(), m.end());
-			String[] vals = head.split("\\s+");
-			ComparePoint3f pt = new ComparePoint3f(Float.parseFloat(vals[1]),
-					Float.parseFloat(vals[2]), Float.parseFloat(vals[3]), l++);
-			pointList.add(pt);
-			map.add(pt);
+	/**
+	 * Read the triangle corners of a binary file.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @return the corner coordinates stored as x,y,z triples
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected static float[] readBinaryCorners(FileChannel channel)
+			throws IOException {
+		ChannelTokenizer in = new ChannelTokenizer(channel, 0, channel.size());
+		in.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+		in.skip(80);
+		int triangles = (int) in.readValue(4, false, true);
+		float[] corners = new float[9 * triangles];
+		for (int t = 0; t < triangles; t++) {
+			// Skip the facet normal, it is recomputed from the vertices
+			in.skip(12);
+			in.readFloats(corners, 9 * t, 9);
+			in.skip(2);
 		}
-		l = 0;
-		Hashtable<ComparePoint3f, Integer> hash = new Hashtable<ComparePoint3f, Integer>();
+		return corners;
+	}
 
-		int vertexCount = map.size();
-		ComparePoint3f[] points = new ComparePoint3f[vertexCount];
-		for (ComparePoint3f val : map) {
-			points[l] = val;
-			hash.put(val, l++);
+	/**
+	 * Read the triangle corners of an ASCII file, optionally splitting the
+	 * file into chunks that are parsed in parallel.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @return the corner coordinates stored as x,y,z triples
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected float[] readAsciiCorners(final FileChannel channel)
+			throws IOException {
+		int chunks = (parallel) ? ParallelUtil.getThreadCount() : 1;
+		final long[] bounds = ChannelTokenizer.splitLines(channel, 0,
+				channel.size(), chunks);
+		final float[][] parts = new float[chunks][];
+		final int[] counts = new int[chunks];
+		try {
+			ParallelUtil.forRange(0, chunks, chunks, new RangeTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int c = start; c < end; c++) {
+						try {
+							ChannelTokenizer in = new ChannelTokenizer(channel,
+									bounds[c], bounds[c + 1]);
+							float[] part = new float[1024];
+							int count = 0;
+							while (in.skipToToken("vertex")) {
+								if (count + 3 > part.length) {
+									part = Arrays.copyOf(part, part.length * 2);
+								}
+								part[count++] = in.nextFloat();
+								part[count++] = in.nextFloat();
+								part[count++] = in.nextFloat();
+							}
+							parts[c] = part;
+							counts[c] = count;
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
 		}
-		int indexCount = pointList.size();
-		int[] indices = new int[indexCount];
-		l = 0;
-		for (ComparePoint3f pt : pointList) {
-			indices[l++] = hash.get(pt);
+		int total = 0;
+		for (int c = 0; c < chunks; c++) {
+			total += counts[c];
 		}
-		EmbeddedSurface surf = new EmbeddedSurface(points,
-				NormalGenerator.generate(points, indices), indices);
-		surf.setName(FileReaderWriter.getFileName(f));
-		return surf;
+		total -= total % 9;
+		float[] corners = new float[total];
+		int offset = 0;
+		for (int c = 0; c < chunks && offset < total; c++) {
+			int n = Math.min(counts[c], total - offset);
+			System.arraycopy(parts[c], 0, corners, offset, n);
+			offset += n;
+			parts[c] = null;
+		}
+		return corners;
 	}
 
 	/*
@@ -200,6 +405,9 @@ public class SurfaceSTLReaderWriter extends SurfaceReaderWriter {
 	 */
 	protected File writeObject(EmbeddedSurface mesh, File f) {
 		f = new File(f.getParent(), FileReaderWriter.getFileName(f) + ".stl");
+		if (binary) {
+			return writeBinary(mesh, f);
+		}
 		try {
 			BufferedWriter data = new BufferedWriter(new FileWriter(f));
 			Point3f[] points = mesh.getVertexCopy();
@@ -231,5 +439,61 @@ public class SurfaceSTLReaderWriter extends SurfaceReaderWriter {
 		return null;
 	}
 
+	/**
+	 * Write a surface in the little endian binary format.
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 * @param f
+	 *            the file
+	 * @return the file
+	 */
+	protected File writeBinary(EmbeddedSurface mesh, File f) {
+		try {
+			ChannelWriter out = new ChannelWriter(
+					new FileOutputStream(f).getChannel(),
+					ByteOrder.LITTLE_ENDIAN);
+			try {
+				float[] points = new float[3 * mesh.getVertexCount()];
+				mesh.getCoordinates(0, points);
+				int[] indexes = new int[mesh.getIndexCount()];
+				mesh.getCoordinateIndices(0, indexes);
+				// Binary headers must not start with "solid"
+				byte[] header = new byte[80];
+				byte[] name = ("binary " + mesh.getName()).getBytes("US-ASCII");
+				System.arraycopy(name, 0, header, 0,
+						Math.min(name.length, header.length));
+				out.putBytes(header);
+				out.putInt(indexes.length / 3);
+				Vector3f norm = new Vector3f();
+				Vector3f e1 = new Vector3f();
+				Vector3f e2 = new Vector3f();
+				float[] facet = new float[12];
+				for (int i = 0; i < indexes.length; i += 3) {
+					for (int v = 0; v < 3; v++) {
+						System.arraycopy(points, 3 * indexes[i + v], facet,
+								3 + 3 * v, 3);
+					}
+					e1.set(facet[9] - facet[6], facet[10] - facet[7],
+							facet[11] - facet[8]);
+					e2.set(facet[3] - facet[6], facet[4] - facet[7], facet[5]
+							- facet[8]);
+					norm.cross(e1, e2);
+					norm.normalize();
+					facet[0] = norm.x;
+					facet[1] = norm.y;
+					facet[2] = norm.z;
+					out.putFloats(facet, 0, 12);
+					out.putShort(0);
+				}
+			} finally {
+				out.close();
+			}
+			return f;
+		} catch (IOException e) {
+			System.err.println(getClass().getCanonicalName() + e.getMessage());
+		}
+		return null;
+	}
 
 }
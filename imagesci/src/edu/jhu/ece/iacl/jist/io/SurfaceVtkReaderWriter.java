@@ -16,15 +16,14 @@
  */
 package edu.jhu.ece.iacl.jist.io;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import javax.vecmath.Point3f;
 
@@ -32,13 +31,18 @@ import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class SurfaceVtkReaderWriter.
+ * The Class SurfaceVtkReaderWriter. Reads legacy VTK polydata files in
+ * either ASCII or BINARY format in a single pass over the file, and writes
+ * them as ASCII by default or as big endian BINARY if requested.
  */
 public class SurfaceVtkReaderWriter extends SurfaceReaderWriter {
 
 	/** The Constant readerWriter. */
 	protected static final SurfaceVtkReaderWriter readerWriter = new SurfaceVtkReaderWriter();
 
+	/** Write files in the BINARY format. */
+	protected boolean binary = false;
+
 	/**
 	 * Instantiates a new surface vtk reader writer.
 	 */
@@ -55,6 +59,26 @@ public class SurfaceVtkReaderWriter extends SurfaceReaderWriter {
 		return readerWriter;
 	}
 
+	/**
+	 * Checks if files are written in the BINARY format.
+	 * 
+	 * @return true, if binary
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Sets the format used when writing files. Reading detects the format
+	 * from the file header.
+	 * 
+	 * @param binary
+	 *            true to write BINARY files, false to write ASCII files
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -63,193 +87,366 @@ public class SurfaceVtkReaderWriter extends SurfaceReaderWriter {
 	 */
 	@Override
 	protected EmbeddedSurface readObject(File f) {
-		BufferedReader in;
-		StringBuffer buff = new StringBuffer();
 		EmbeddedSurface surf = null;
 		try {
-			// Create input stream from file
-			in = new BufferedReader(new InputStreamReader(
-					new FileInputStream(f)));
-
-			String str;
-			// Read file as string
-			while ((str = in.readLine()) != null) {
-				buff.append(str + "\n");
+			FileChannel channel = new FileInputStream(f).getChannel();
+			try {
+				surf = readSurface(new ChannelTokenizer(channel));
+			} finally {
+				channel.close();
 			}
-		} catch (Exception e) {
+		} catch (IOException e) {
 			System.err.println(getClass().getCanonicalName()
-					+ "Error occured while reading parameter file:\n"
+					+ "Error occured while reading " + f + ":\n"
 					+ e.getMessage());
-			e.printStackTrace();
 			return null;
 		}
-		Pattern header = Pattern.compile("POINTS\\s\\d+\\sfloat");
-		Matcher m = header.matcher(buff);
-		int vertexCount = 0;
-		int indexCount = 0;
-		Point3f[] points;
-		int[] indices;
-		// Find vertex count
-		if (m.find()) {
-			String head = buff.substring(m.start(), m.end());
-			String[] vals = head.split("\\D+");
-			if (vals.length > 0) {
-				try {
-					vertexCount = Integer.parseInt(vals[vals.length - 1]);
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT DETERMINE VERTEX COUNT");
-					return null;
+		if (surf != null) {
+			surf.setName(FileReaderWriter.getFileName(f));
+		}
+		return surf;
+	}
+
+	/**
+	 * Read a surface from a tokenizer positioned at the start of a legacy VTK
+	 * file. Only the first scalar array of the point and cell data is kept,
+	 * other attributes are skipped.
+	 * 
+	 * @param in
+	 *            the tokenizer
+	 * @return the embedded surface, or null if the file has no points or
+	 *         polygons
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected EmbeddedSurface readSurface(ChannelTokenizer in)
+			throws IOException {
+		String version = in.readLine();
+		if (version == null || !version.startsWith("# vtk")) {
+			throw new IOException("Not a VTK file");
+		}
+		// Title
+		in.readLine();
+		String format = in.nextToken();
+		boolean binaryData = "BINARY".equalsIgnoreCase(format);
+		if (!binaryData && !"ASCII".equalsIgnoreCase(format)) {
+			throw new IOException("Unknown VTK format " + format);
+		}
+		in.skipLine();
+		in.setByteOrder(ByteOrder.BIG_ENDIAN);
+		float[] points = null;
+		int[] indices = null;
+		double[][] vertData = null;
+		double[][] cellData = null;
+		double[][] texCoords = null;
+		boolean pointData = true;
+		int dataCount = 0;
+		String keyword;
+		while ((keyword = in.nextToken()) != null) {
+			keyword = keyword.toUpperCase();
+			if (keyword.equals("DATASET")) {
+				String type = in.nextToken();
+				if (!"POLYDATA".equalsIgnoreCase(type)) {
+					throw new IOException("Unsupported VTK dataset " + type);
 				}
-			}
-			points = new Point3f[vertexCount];
-			System.out.println("jist.io" + "\t" + "VERTS " + vertexCount);
-			String[] strs = buff.substring(m.end(), buff.length()).split(
-					"\\s+", vertexCount * 3 + 2);
-			// Read in vertexes
-			for (int i = 1; i < strs.length - 1; i += 3) {
-				try {
-					Point3f p = new Point3f();
-					p.x = Float.parseFloat(strs[i]);
-					p.y = Float.parseFloat(strs[i + 1]);
-					p.z = Float.parseFloat(strs[i + 2]);
-					points[(i - 1) / 3] = p;
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT FORMAT VERTS");
-					return null;
+				in.skipLine();
+			} else if (keyword.equals("POINTS")) {
+				int count = in.nextInt();
+				String type = in.nextToken();
+				in.skipLine();
+				System.out.println("jist.io" + "\t" + "VERTS " + count);
+				points = new float[3 * count];
+				if (binaryData && type.equalsIgnoreCase("float")) {
+					in.readFloats(points, 0, points.length);
+				} else {
+					for (int i = 0; i < points.length; i++) {
+						points[i] = (float) readValue(in, binaryData, type);
+					}
 				}
-			}
-		} else {
-			return null;
-		}
-		// Find cell count
-		header = Pattern.compile("POLYGONS\\s+\\d+\\s+\\d+");
-		m = header.matcher(buff);
-		if (m.find()) {
-			String head = buff.substring(m.start(), m.end());
-			String[] vals = head.split("\\D+");
-			if (vals.length > 1) {
-				try {
-					indexCount = Integer.parseInt(vals[1]);
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT DETERMINE INDEX COUNT");
-					return null;
+			} else if (keyword.equals("POLYGONS")) {
+				int count = in.nextInt();
+				int size = in.nextInt();
+				in.skipLine();
+				System.out.println("jist.io" + "\t" + "INDICES " + count);
+				int[] cells = new int[size];
+				if (binaryData) {
+					in.readInts(cells, 0, size);
+				} else {
+					for (int i = 0; i < size; i++) {
+						cells[i] = in.nextInt();
+					}
 				}
-			}
-			indices = new int[indexCount * 3];
-			System.out.println("jist.io" + "\t" + "INDICES " + indexCount);
-			String[] strs = buff.substring(m.end(), buff.length()).split(
-					"\\s+", indexCount * 4 + 2);
-			int count = 0;
-			// Read in indexes
-			for (int i = 1; i < strs.length - 1; i += 4) {
-				try {
-					indices[count++] = Integer.parseInt(strs[i + 1]);
-					indices[count++] = Integer.parseInt(strs[i + 2]);
-					indices[count++] = Integer.parseInt(strs[i + 3]);
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT FORMAT INDICES");
-					return null;
+				indices = triangulate(cells, count);
+			} else if (keyword.equals("VERTICES") || keyword.equals("LINES")
+					|| keyword.equals("TRIANGLE_STRIPS")) {
+				in.nextInt();
+				int size = in.nextInt();
+				in.skipLine();
+				skipValues(in, binaryData, "int", size);
+			} else if (keyword.equals("POINT_DATA")
+					|| keyword.equals("CELL_DATA")) {
+				pointData = keyword.equals("POINT_DATA");
+				dataCount = in.nextInt();
+				in.skipLine();
+			} else if (keyword.equals("SCALARS")) {
+				in.nextToken();
+				String type = in.nextToken();
+				String rest = in.readLine().trim();
+				int dim = 1;
+				if (rest.length() > 0) {
+					try {
+						dim = Integer.parseInt(rest);
+					} catch (NumberFormatException e) {
+						throw new IOException("Invalid component count "
+								+ rest);
+					}
 				}
-			}
-		} else {
-			return null;
-		}
-		header = Pattern
-				.compile("POINT_DATA\\s+\\d+\\D+float\\s+\\d+\\nLOOKUP_TABLE\\s");
-		m = header.matcher(buff);
-		double[][] vertData = null;
-		int count = 0;
-		int dim = 0;
-		// Find embedded vertex data count
-		if (m.find()) {
-			String head = buff.substring(m.start(), m.end());
-			String[] vals = head.split("\\D+");
-			if (vals.length > 0) {
-				try {
-					count = Integer.parseInt(vals[1]);
-					dim = Integer.parseInt(vals[2]);
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT DETERMINE DATA POINTS");
-					return null;
+				if (!"LOOKUP_TABLE".equalsIgnoreCase(in.nextToken())) {
+					throw new IOException(
+							"Expected LOOKUP_TABLE after SCALARS");
 				}
-			}
-			vertData = new double[count][dim];
-			System.out.println("jist.io" + "\t" + "VERTEX DATA " + count
-					+ " by " + dim);
-			String[] strs = buff.substring(m.end(), buff.length()).split(
-					"\\s+", count * dim + 2);
-			int index = 0;
-			// Read in vertex data
-			for (int i = 1; i < strs.length && index < count * dim; i++) {
-				try {
-					vertData[index / dim][index % dim] = Double
-							.parseDouble(strs[i]);
-					index++;
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT FORMAT DATA [" + strs[i] + "]");
-					// return null;
+				in.skipLine();
+				double[][] data = readData(in, binaryData, type, dataCount,
+						dim);
+				System.out.println("jist.io" + "\t"
+						+ ((pointData) ? "VERTEX DATA " : "CELL DATA ")
+						+ dataCount + " by " + dim);
+				if (pointData && vertData == null) {
+					vertData = data;
+				} else if (!pointData && cellData == null) {
+					cellData = data;
 				}
-			}
-			System.out.println("jist.io" + "\t" + index + " " + count);
-		}
-		header = Pattern
-				.compile("CELL_DATA\\s+\\d+\\D+float\\s+\\d+\\nLOOKUP_TABLE\\s");
-		m = header.matcher(buff);
-		double[][] cellData = null;
-		count = 0;
-		dim = 0;
-		// Find cell data count
-		if (m.find()) {
-
-			String head = buff.substring(m.start(), m.end());
-			String[] vals = head.split("\\D+");
-			if (vals.length > 0) {
-				try {
-					count = Integer.parseInt(vals[1]);
-					dim = Integer.parseInt(vals[2]);
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT DETERMINE DATA POINTS");
-					return null;
+			} else if (keyword.equals("TEXTURE_COORDINATES")) {
+				in.nextToken();
+				int dim = in.nextInt();
+				String type = in.nextToken();
+				in.skipLine();
+				double[][] data = readData(in, binaryData, type, dataCount,
+						dim);
+				if (pointData) {
+					texCoords = data;
 				}
-			}
-			cellData = new double[count][dim];
-			System.out.println("jist.io" + "\t" + "CELL DATA " + count + " by "
-					+ dim);
-			String[] strs = buff.substring(m.end(), buff.length()).split(
-					"\\s+", count * dim + 2);
-			int index = 0;
-			// Read in cell data
-			for (int i = 1; i < strs.length && index < count * dim; i++) {
-				try {
-					cellData[index / dim][index % dim] = Double
-							.parseDouble(strs[i]);
-					index++;
-				} catch (NumberFormatException e) {
-					System.err.println(getClass().getCanonicalName()
-							+ "CANNOT FORMAT DATA [" + strs[i] + "]");
-					// return null;
+			} else if (keyword.equals("NORMALS") || keyword.equals("VECTORS")
+					|| keyword.equals("TENSORS")) {
+				in.nextToken();
+				String type = in.nextToken();
+				in.skipLine();
+				long size = (keyword.equals("TENSORS")) ? 9L : 3L;
+				skipValues(in, binaryData, type, size * dataCount);
+			} else if (keyword.equals("COLOR_SCALARS")) {
+				in.nextToken();
+				int dim = in.nextInt();
+				in.skipLine();
+				skipValues(in, binaryData, "unsigned_char", (long) dim
+						* dataCount);
+			} else if (keyword.equals("LOOKUP_TABLE")) {
+				in.nextToken();
+				int size = in.nextInt();
+				in.skipLine();
+				skipValues(in, binaryData, "unsigned_char", 4L * size);
+			} else if (keyword.equals("FIELD")) {
+				in.nextToken();
+				int arrays = in.nextInt();
+				in.skipLine();
+				for (int a = 0; a < arrays; a++) {
+					in.nextToken();
+					int comps = in.nextInt();
+					int tuples = in.nextInt();
+					String type = in.nextToken();
+					in.skipLine();
+					skipValues(in, binaryData, type, (long) comps * tuples);
 				}
+			} else if (keyword.equals("METADATA")) {
+				// Metadata blocks end with a blank line
+				in.skipLine();
+				String line;
+				while ((line = in.readLine()) != null
+						&& line.trim().length() > 0) {
+				}
+			} else {
+				throw new IOException("Unsupported VTK keyword " + keyword);
 			}
-			System.out.println("jist.io" + "\t" + index + " " + count);
 		}
-		surf = new EmbeddedSurface(points, indices);
-		surf.setName(FileReaderWriter.getFileName(f));
+		if (points == null || indices == null) {
+			return null;
+		}
+		EmbeddedSurface surf = new EmbeddedSurface(points, indices);
 		if (vertData != null) {
 			surf.setVertexData(vertData);
 		}
 		if (cellData != null) {
 			surf.setCellData(cellData);
 		}
+		if (texCoords != null) {
+			surf.setTextureCoordinates(texCoords);
+		}
 		return surf;
 	}
 
+	/**
+	 * Gets the size in bytes of a VTK data type.
+	 * 
+	 * @param type
+	 *            the type
+	 * @return the size
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static int getTypeSize(String type) throws IOException {
+		type = type.toLowerCase();
+		if (type.equals("char") || type.equals("unsigned_char")) {
+			return 1;
+		} else if (type.equals("short") || type.equals("unsigned_short")) {
+			return 2;
+		} else if (type.equals("int") || type.equals("unsigned_int")
+				|| type.equals("float")) {
+			return 4;
+		} else if (type.equals("long") || type.equals("unsigned_long")
+				|| type.equals("double") || type.equals("vtkidtype")
+				|| type.equals("vtktypeint64")
+				|| type.equals("vtktypeuint64")) {
+			return 8;
+		}
+		throw new IOException("Unsupported VTK data type " + type);
+	}
+
+	/**
+	 * Read one value of the given type.
+	 * 
+	 * @param in
+	 *            the tokenizer
+	 * @param binaryData
+	 *            true if the data is binary
+	 * @param type
+	 *            the type
+	 * @return the value
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static double readValue(ChannelTokenizer in, boolean binaryData,
+			String type) throws IOException {
+		if (binaryData) {
+			return in.readValue(getTypeSize(type),
+					type.equalsIgnoreCase("float")
+							|| type.equalsIgnoreCase("double"), type
+							.toLowerCase().startsWith("unsigned"));
+		}
+		return in.nextDouble();
+	}
+
+	/**
+	 * Read an attribute array.
+	 * 
+	 * @param in
+	 *            the tokenizer
+	 * @param binaryData
+	 *            true if the data is binary
+	 * @param type
+	 *            the type
+	 * @param count
+	 *            the number of tuples
+	 * @param dim
+	 *            the number of components
+	 * @return the data
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static double[][] readData(ChannelTokenizer in,
+			boolean binaryData, String type, int count, int dim)
+			throws IOException {
+		double[][] data = new double[count][dim];
+		if (binaryData && type.equalsIgnoreCase("float")) {
+			float[] row = new float[dim];
+			for (int i = 0; i < count; i++) {
+				in.readFloats(row, 0, dim);
+				for (int j = 0; j < dim; j++) {
+					data[i][j] = row[j];
+				}
+			}
+		} else if (binaryData && type.equalsIgnoreCase("double")) {
+			for (int i = 0; i < count; i++) {
+				in.readDoubles(data[i], 0, dim);
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				for (int j = 0; j < dim; j++) {
+					data[i][j] = readValue(in, binaryData, type);
+				}
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Skip values of the given type.
+	 * 
+	 * @param in
+	 *            the tokenizer
+	 * @param binaryData
+	 *            true if the data is binary
+	 * @param type
+	 *            the type
+	 * @param count
+	 *            the number of values
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void skipValues(ChannelTokenizer in, boolean binaryData,
+			String type, long count) throws IOException {
+		if (binaryData) {
+			in.skip(count * getTypeSize(type));
+		} else {
+			in.skipTokens(count);
+		}
+	}
+
+	/**
+	 * Convert a VTK cell array into triangle indices. Polygons with more
+	 * than three vertices are split into triangle fans.
+	 * 
+	 * @param cells
+	 *            the cell array
+	 * @param count
+	 *            the number of cells
+	 * @return the triangle indices
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static int[] triangulate(int[] cells, int count)
+			throws IOException {
+		int triangles = 0;
+		int pos = 0;
+		for (int c = 0; c < count; c++) {
+			if (pos >= cells.length || cells[pos] < 0) {
+				throw new IOException("Invalid POLYGONS cell array");
+			}
+			triangles += Math.max(0, cells[pos] - 2);
+			pos += cells[pos] + 1;
+		}
+		if (pos > cells.length) {
+			throw new IOException("Invalid POLYGONS cell array");
+		}
+		int[] indices = new int[3 * triangles];
+		int index = 0;
+		pos = 0;
+		for (int c = 0; c < count; c++) {
+			int n = cells[pos];
+			for (int t = 2; t < n; t++) {
+				indices[index++] = cells[pos + 1];
+				indices[index++] = cells[pos + t];
+				indices[index++] = cells[pos + t + 1];
+			}
+			pos += n + 1;
+		}
+		return indices;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -259,6 +456,9 @@ public class SurfaceVtkReaderWriter extends SurfaceReaderWriter {
 	 */
 	@Override
 	protected File writeObject(EmbeddedSurface mesh, File f) {
+		if (binary) {
+			return writeBinary(mesh, f);
+		}
 		try {
 			BufferedWriter stream = new BufferedWriter(new FileWriter(f));
 			int pointCount = mesh.getVertexCount();
@@ -333,4 +533,78 @@ public class SurfaceVtkReaderWriter extends SurfaceReaderWriter {
 		return null;
 	}
 
+	/**
+	 * Write a surface in the BINARY format. Values are written big endian
+	 * through a file channel.
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 * @param f
+	 *            the file
+	 * @return the file
+	 */
+	protected File writeBinary(EmbeddedSurface mesh, File f) {
+		try {
+			ChannelWriter out = new ChannelWriter(
+					new FileOutputStream(f).getChannel(), ByteOrder.BIG_ENDIAN);
+			try {
+				int pointCount = mesh.getVertexCount();
+				int indexCount = mesh.getIndexCount();
+				// Write header for vertex locations
+				out.putString("# vtk DataFile Version 3.0\n" + mesh.getName()
+						+ "\n" + "BINARY\n" + "DATASET POLYDATA\n" + "POINTS "
+						+ pointCount + " float\n");
+				float[] coords = new float[3 * pointCount];
+				mesh.getCoordinates(0, coords);
+				out.putFloats(coords, 0, coords.length);
+				coords = null;
+				// Write triangle indexes
+				out.putString("\nPOLYGONS " + indexCount / 3 + " "
+						+ (4 * indexCount / 3) + "\n");
+				int[] indices = new int[indexCount];
+				mesh.getCoordinateIndices(0, indices);
+				for (int i = 0; i < indexCount; i += 3) {
+					out.putInt(3);
+					out.putInts(indices, i, 3);
+				}
+				indices = null;
+				// Write scalar data
+				double[][] scalars = mesh.getVertexData();
+				boolean hasScalars = (scalars != null && scalars.length > 0
+						&& scalars[0].length > 0);
+				if (hasScalars) {
+					out.putString("\nPOINT_DATA " + scalars.length + "\n"
+							+ "SCALARS EmbedVertex float " + scalars[0].length
+							+ "\n" + "LOOKUP_TABLE default\n");
+					out.putFloats(scalars);
+				}
+				// Write texture coordinates
+				double[][] tex = mesh.getTextureCoordinates();
+				if (tex != null && tex.length > 0 && tex[0].length > 0) {
+					if (!hasScalars) {
+						out.putString("\nPOINT_DATA " + tex.length);
+					}
+					out.putString("\nTEXTURE_COORDINATES Texture%20Coordinates "
+							+ tex[0].length + " float\n");
+					out.putFloats(tex);
+				}
+				// Write cell data
+				double[][] cells = mesh.getCellData();
+				if (cells != null && cells.length > 0 && cells[0].length > 0) {
+					out.putString("\nCELL_DATA " + cells.length + "\n"
+							+ "SCALARS EmbedCell float " + cells[0].length
+							+ "\n" + "LOOKUP_TABLE default\n");
+					out.putFloats(cells);
+				}
+				out.putString("\n");
+			} finally {
+				out.close();
+			}
+			return f;
+		} catch (IOException e) {
+			System.err.println(getClass().getCanonicalName() + e.getMessage());
+		}
+		return null;
+	}
+
 }
@@ -0,0 +1,242 @@
+/**
+ * Java Image Science Toolkit (JIST)
+ *
+ * Image Analysis and Communications Laboratory &
+ * Laboratory for Medical Image Computing &
+ * The Johns Hopkins University
+ *
+ * http://www.nitrc.org/projects/jist/
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ */
+package edu.jhu.ece.iacl.jist.structures.data;
+
+/**
+ * Implements an indexed binary min heap of float keys stored in primitive
+ * arrays. Each element is identified by an integer index in [0, maxIndex),
+ * such as a linear voxel index, and its position in the heap is tracked so
+ * that keys can be changed in place.
+ */
+public class BinaryMinFloatHeap {
+
+	/** The heap array of element indexes, 1-based. */
+	private int[] heap;
+
+	/** The keys, stored in heap order. */
+	private float[] keys;
+
+	/** The position of each element in the heap, or 0 if absent. */
+	private int[] positions;
+
+	/** The current size. */
+	private int currentSize;
+
+	/**
+	 * Instantiates a new heap.
+	 *
+	 * @param maxIndex
+	 *            the number of distinct element indexes
+	 * @param capacity
+	 *            the initial capacity
+	 */
+	public BinaryMinFloatHeap(int maxIndex, int capacity) {
+		capacity = Math.max(capacity, 16);
+		heap = new int[capacity + 1];
+		keys = new float[capacity + 1];
+		positions = new int[maxIndex];
+		currentSize = 0;
+	}
+
+	/**
+	 * Insert an element. If the element is already in the heap, its key is
+	 * changed instead.
+	 *
+	 * @param index
+	 *            the element index
+	 * @param key
+	 *            the key
+	 */
+	public void add(int index, float key) {
+		if (positions[index] != 0) {
+			change(index, key);
+			return;
+		}
+		if (currentSize + 1 == heap.length) {
+			resize();
+		}
+		int hole = ++currentSize;
+		heap[hole] = index;
+		keys[hole] = key;
+		positions[index] = hole;
+		percolateUp(hole);
+	}
+
+	/**
+	 * Change the key of an element in the heap.
+	 *
+	 * @param index
+	 *            the element index
+	 * @param key
+	 *            the new key
+	 */
+	public void change(int index, float key) {
+		int hole = positions[index];
+		float old = keys[hole];
+		keys[hole] = key;
+		if (key < old) {
+			percolateUp(hole);
+		} else if (key > old) {
+			percolateDown(hole);
+		}
+	}
+
+	/**
+	 * Checks if the heap contains an element.
+	 *
+	 * @param index
+	 *            the element index
+	 * @return true, if successful
+	 */
+	public boolean contains(int index) {
+		return (positions[index] != 0);
+	}
+
+	/**
+	 * Gets the key of an element in the heap.
+	 *
+	 * @param index
+	 *            the element index
+	 * @return the key
+	 */
+	public float getKey(int index) {
+		return keys[positions[index]];
+	}
+
+	/**
+	 * Test if the priority queue is logically empty.
+	 *
+	 * @return true if empty, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return currentSize == 0;
+	}
+
+	/**
+	 * Make the priority queue logically empty.
+	 */
+	public void makeEmpty() {
+		for (int i = 1; i <= currentSize; i++) {
+			positions[heap[i]] = 0;
+		}
+		currentSize = 0;
+	}
+
+	/**
+	 * Gets the index of the smallest element.
+	 *
+	 * @return the element index
+	 */
+	public int peek() {
+		return heap[1];
+	}
+
+	/**
+	 * Gets the smallest key.
+	 *
+	 * @return the key
+	 */
+	public float peekKey() {
+		return keys[1];
+	}
+
+	/**
+	 * Remove the smallest element from the priority queue.
+	 *
+	 * @return the element index
+	 */
+	public int remove() {
+		int minItem = heap[1];
+		positions[minItem] = 0;
+		int last = currentSize--;
+		if (last > 1) {
+			heap[1] = heap[last];
+			keys[1] = keys[last];
+			positions[heap[1]] = 1;
+			percolateDown(1);
+		}
+		return minItem;
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return currentSize;
+	}
+
+	/**
+	 * Internal method to percolate down in the heap.
+	 *
+	 * @param hole
+	 *            the position at which the percolate begins.
+	 */
+	private void percolateDown(int hole) {
+		int index = heap[hole];
+		float key = keys[hole];
+		int child;
+		for (; hole * 2 <= currentSize; hole = child) {
+			child = hole * 2;
+			if (child != currentSize && keys[child + 1] < keys[child]) {
+				child++;
+			}
+			if (keys[child] < key) {
+				heap[hole] = heap[child];
+				keys[hole] = keys[child];
+				positions[heap[hole]] = hole;
+			} else {
+				break;
+			}
+		}
+		heap[hole] = index;
+		keys[hole] = key;
+		positions[index] = hole;
+	}
+
+	/**
+	 * Internal method to percolate up in the heap.
+	 *
+	 * @param hole
+	 *            the position at which the percolate begins.
+	 */
+	private void percolateUp(int hole) {
+		int index = heap[hole];
+		float key = keys[hole];
+		for (; hole > 1 && key < keys[hole / 2]; hole /= 2) {
+			heap[hole] = heap[hole / 2];
+			keys[hole] = keys[hole / 2];
+			positions[heap[hole]] = hole;
+		}
+		heap[hole] = index;
+		keys[hole] = key;
+		positions[index] = hole;
+	}
+
+	/**
+	 * Internal method to extend the heap arrays.
+	 */
+	private void resize() {
+		int[] newHeap = new int[heap.length * 2];
+		float[] newKeys = new float[keys.length * 2];
+		System.arraycopy(heap, 0, newHeap, 0, heap.length);
+		System.arraycopy(keys, 0, newKeys, 0, keys.length);
+		heap = newHeap;
+		keys = newKeys;
+	}
+}
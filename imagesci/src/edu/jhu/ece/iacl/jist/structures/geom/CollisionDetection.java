@@ -4,7 +4,7 @@
  * Image Analysis and Communications Laboratory &
  * Laboratory for Medical Image Computing &
  * The Johns Hopkins University
- * 
+ *
  * http://www.nitrc.org/projects/jist/
  *
  * This library is free software; you can redistribute it and/or modify it
@@ -16,146 +16,376 @@
  */
 package edu.jhu.ece.iacl.jist.structures.geom;
 
-import java.awt.Dimension;
-import java.awt.GraphicsConfiguration;
-import java.awt.GraphicsDevice;
-import java.awt.GraphicsEnvironment;
-import java.util.ArrayList;
-
-import javax.media.j3d.AmbientLight;
-import javax.media.j3d.Appearance;
-import javax.media.j3d.BoundingBox;
-import javax.media.j3d.BoundingSphere;
-import javax.media.j3d.BranchGroup;
-import javax.media.j3d.Canvas3D;
-import javax.media.j3d.DirectionalLight;
-import javax.media.j3d.GeometryArray;
-import javax.media.j3d.GraphicsConfigTemplate3D;
-import javax.media.j3d.IndexedTriangleArray;
-import javax.media.j3d.Material;
-import javax.media.j3d.PickInfo;
-import javax.media.j3d.PolygonAttributes;
-import javax.media.j3d.Shape3D;
-import javax.media.j3d.TransformGroup;
-import javax.swing.JFrame;
-import javax.vecmath.Color3f;
+import java.util.Arrays;
+
 import javax.vecmath.Point3d;
 import javax.vecmath.Point3f;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector3f;
 
-import com.sun.j3d.utils.behaviors.vp.OrbitBehavior;
-import com.sun.j3d.utils.pickfast.PickTool;
-import com.sun.j3d.utils.universe.SimpleUniverse;
+import org.imagesci.utility.ParallelUtil;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class CollisionDetection.
+ * The Class CollisionDetection answers ray, segment, closest point and
+ * inside/outside queries against a triangle mesh. Triangles are organized in
+ * a bounding volume hierarchy built with the surface area heuristic from the
+ * mesh's flat coordinate and index arrays, so no display or scene graph is
+ * required. The hierarchy is immutable once built and all queries keep their
+ * state on the stack, which makes concurrent queries safe.
  */
 public class CollisionDetection {
 
 	/**
-	 * The Class Triangle.
+	 * Immutable bounding volume hierarchy.
 	 */
-	public static class Triangle {
+	protected static class Hierarchy {
 
-		/** The points. */
-		Point3d[] points = new Point3d[3];
+		/** Node bounds stored as minx, miny, minz, maxx, maxy, maxz. */
+		final float[] nodeBounds;
 
 		/**
-		 * Instantiates a new triangle.
-		 * 
-		 * @param p1
-		 *            the p1
-		 * @param p2
-		 *            the p2
-		 * @param p3
-		 *            the p3
+		 * First triangle for leaves, first child for internal nodes. The
+		 * second child is always stored immediately after the first.
 		 */
-		public Triangle(Point3d p1, Point3d p2, Point3d p3) {
-			points[0] = p1;
-			points[1] = p2;
-			points[2] = p3;
-		}
+		final int[] nodeStart;
+
+		/** The number of triangles in a leaf, or zero for internal nodes. */
+		final int[] nodeCount;
+
+		/** The number of nodes. */
+		final int nodes;
+
+		/** The maximum depth of the tree. */
+		final int depth;
+
+		/** Triangle vertex coordinates stored as 9 values per triangle. */
+		final double[] tris;
 
 		/**
-		 * Gets the bounds.
-		 * 
+		 * Instantiates a new hierarchy.
+		 *
+		 * @param nodeBounds
+		 *            the node bounds
+		 * @param nodeStart
+		 *            the node start
+		 * @param nodeCount
+		 *            the node count
+		 * @param nodes
+		 *            the nodes
+		 * @param depth
+		 *            the depth
 		 * @param tris
-		 *            the tris
-		 * 
-		 * @return the bounds
+		 *            the triangles
+		 */
+		Hierarchy(float[] nodeBounds, int[] nodeStart, int[] nodeCount,
+				int nodes, int depth, double[] tris) {
+			this.nodeBounds = nodeBounds;
+			this.nodeStart = nodeStart;
+			this.nodeCount = nodeCount;
+			this.nodes = nodes;
+			this.depth = depth;
+			this.tris = tris;
+		}
+	}
+
+	/**
+	 * Builds a hierarchy with binned SAH splits.
+	 */
+	private static class Builder {
+
+		/** The number of SAH bins per axis. */
+		private static final int BINS = 16;
+
+		/** The relative cost of traversing a node. */
+		private static final float TRAVERSAL_COST = 1.0f;
+
+		/** The triangle bounds. */
+		final float[] triBounds;
+
+		/** The triangle centroids. */
+		final float[] centroids;
+
+		/** The triangle order. */
+		final int[] order;
+
+		/** The node bounds. */
+		final float[] nodeBounds;
+
+		/** The node start. */
+		final int[] nodeStart;
+
+		/** The node count. */
+		final int[] nodeCount;
+
+		/** The number of allocated nodes. */
+		int nodes = 0;
+
+		/** The deepest level reached. */
+		int depth = 0;
+
+		/** The maximum depth. */
+		final int maxDepth;
+
+		/** The bin counts. */
+		final int[] binCount = new int[BINS];
+
+		/** The bin bounds. */
+		final float[] binBounds = new float[6 * BINS];
+
+		/** The right sweep areas. */
+		final float[] rightArea = new float[BINS];
+
+		/** The right sweep counts. */
+		final int[] rightCount = new int[BINS];
+
+		/**
+		 * Instantiates a new builder.
+		 *
+		 * @param points
+		 *            the vertex coordinates
+		 * @param indices
+		 *            the triangle indices
+		 * @param maxDepth
+		 *            the max depth
 		 */
-		public static BoundingBox getBounds(ArrayList<Triangle> tris) {
-			double minx = 1E10, miny = 1E10, minz = 1E10;
-			double maxx = -1E10, maxy = -1E10, maxz = -1E10;
-			for (Triangle t : tris) {
-				minx = Math.min(
-						minx,
-						Math.min(t.points[0].x,
-								Math.min(t.points[1].x, t.points[2].x)));
-				miny = Math.min(
-						miny,
-						Math.min(t.points[0].y,
-								Math.min(t.points[1].y, t.points[2].y)));
-				minz = Math.min(
-						minz,
-						Math.min(t.points[0].z,
-								Math.min(t.points[1].z, t.points[2].z)));
-				maxx = Math.max(
-						maxx,
-						Math.max(t.points[0].x,
-								Math.max(t.points[1].x, t.points[2].x)));
-				maxy = Math.max(
-						maxy,
-						Math.max(t.points[0].y,
-								Math.max(t.points[1].y, t.points[2].y)));
-				maxz = Math.max(
-						maxz,
-						Math.max(t.points[0].z,
-								Math.max(t.points[1].z, t.points[2].z)));
+		Builder(float[] points, int[] indices, int maxDepth) {
+			final int triCount = indices.length / 3;
+			this.maxDepth = maxDepth;
+			triBounds = new float[6 * triCount];
+			centroids = new float[3 * triCount];
+			order = new int[triCount];
+			int capacity = Math.max(1, 2 * triCount - 1);
+			nodeBounds = new float[6 * capacity];
+			nodeStart = new int[capacity];
+			nodeCount = new int[capacity];
+			for (int t = 0; t < triCount; t++) {
+				order[t] = t;
+				for (int c = 0; c < 3; c++) {
+					float a = points[3 * indices[3 * t] + c];
+					float b = points[3 * indices[3 * t + 1] + c];
+					float d = points[3 * indices[3 * t + 2] + c];
+					triBounds[6 * t + c] = Math.min(a, Math.min(b, d));
+					triBounds[6 * t + 3 + c] = Math.max(a, Math.max(b, d));
+					centroids[3 * t + c] = 0.5f * (triBounds[6 * t + c] + triBounds[6 * t + 3 + c]);
+				}
 			}
-			return new BoundingBox(new Point3d(minx, miny, minz), new Point3d(
-					maxx, maxy, maxz));
 		}
 
 		/**
-		 * Gets the in bounds.
-		 * 
-		 * @param tris
-		 *            the tris
-		 * @param box
-		 *            the box
-		 * 
-		 * @return the in bounds
+		 * Build the tree.
 		 */
-		public static ArrayList<Triangle> getInBounds(ArrayList<Triangle> tris,
-				BoundingBox box) {
-			ArrayList<Triangle> result = new ArrayList<Triangle>();
-			for (Triangle t : tris) {
-				if (t.inBounds(box)) {
-					result.add(t);
+		void build() {
+			nodes = 1;
+			build(0, 0, order.length, 1);
+		}
+
+		/**
+		 * Build a subtree.
+		 *
+		 * @param node
+		 *            the node
+		 * @param start
+		 *            the first triangle
+		 * @param end
+		 *            one past the last triangle
+		 * @param level
+		 *            the level
+		 */
+		private void build(int node, int start, int end, int level) {
+			depth = Math.max(depth, level);
+			int count = end - start;
+			float[] cbounds = new float[6];
+			computeBounds(start, end, nodeBounds, 6 * node, cbounds);
+			if (count <= 2 || level >= maxDepth) {
+				makeLeaf(node, start, count);
+				return;
+			}
+			int bestAxis = -1;
+			int bestBin = -1;
+			float bestCost = Float.MAX_VALUE;
+			for (int axis = 0; axis < 3; axis++) {
+				float cmin = cbounds[axis];
+				float extent = cbounds[3 + axis] - cmin;
+				if (extent <= 0) {
+					continue;
+				}
+				float binScale = BINS / extent;
+				Arrays.fill(binCount, 0);
+				for (int b = 0; b < BINS; b++) {
+					resetBounds(binBounds, 6 * b);
+				}
+				for (int i = start; i < end; i++) {
+					int t = order[i];
+					int b = Math.min(BINS - 1,
+							(int) ((centroids[3 * t + axis] - cmin) * binScale));
+					binCount[b]++;
+					growBounds(binBounds, 6 * b, triBounds, 6 * t);
+				}
+				float[] sweep = new float[6];
+				resetBounds(sweep, 0);
+				int n = 0;
+				for (int b = BINS - 1; b > 0; b--) {
+					n += binCount[b];
+					growBounds(sweep, 0, binBounds, 6 * b);
+					rightCount[b] = n;
+					rightArea[b] = (n > 0) ? area(sweep, 0) : 0;
+				}
+				resetBounds(sweep, 0);
+				n = 0;
+				for (int b = 0; b < BINS - 1; b++) {
+					n += binCount[b];
+					growBounds(sweep, 0, binBounds, 6 * b);
+					if (n == 0 || rightCount[b + 1] == 0) {
+						continue;
+					}
+					float cost = n * area(sweep, 0) + rightCount[b + 1]
+							* rightArea[b + 1];
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestAxis = axis;
+						bestBin = b;
+					}
 				}
 			}
-			return result;
+			float parentArea = area(nodeBounds, 6 * node);
+			float splitCost = (parentArea > 0) ? TRAVERSAL_COST + bestCost
+					/ parentArea : Float.MAX_VALUE;
+			if (bestAxis < 0
+					|| (splitCost >= count && count <= minChildSize)) {
+				makeLeaf(node, start, count);
+				return;
+			}
+			float cmin = cbounds[bestAxis];
+			float binScale = BINS / (cbounds[3 + bestAxis] - cmin);
+			int mid = start;
+			for (int i = start; i < end; i++) {
+				int t = order[i];
+				int b = Math.min(BINS - 1,
+						(int) ((centroids[3 * t + bestAxis] - cmin) * binScale));
+				if (b <= bestBin) {
+					order[i] = order[mid];
+					order[mid++] = t;
+				}
+			}
+			if (mid == start || mid == end) {
+				mid = (start + end) / 2;
+			}
+			int left = nodes;
+			nodes += 2;
+			nodeStart[node] = left;
+			nodeCount[node] = 0;
+			build(left, start, mid, level + 1);
+			build(left + 1, mid, end, level + 1);
 		}
 
 		/**
-		 * In bounds.
-		 * 
-		 * @param box
-		 *            the box
-		 * 
-		 * @return true, if successful
+		 * Make leaf.
+		 *
+		 * @param node
+		 *            the node
+		 * @param start
+		 *            the start
+		 * @param count
+		 *            the count
 		 */
-		public boolean inBounds(BoundingBox box) {
-			return (box.intersect(points[0]) || box.intersect(points[1]) || box
-					.intersect(points[2]));
+		private void makeLeaf(int node, int start, int count) {
+			nodeStart[node] = start;
+			nodeCount[node] = count;
+		}
+
+		/**
+		 * Compute triangle and centroid bounds of a range.
+		 *
+		 * @param start
+		 *            the start
+		 * @param end
+		 *            the end
+		 * @param bounds
+		 *            the bounds
+		 * @param offset
+		 *            the offset
+		 * @param cbounds
+		 *            the centroid bounds
+		 */
+		private void computeBounds(int start, int end, float[] bounds,
+				int offset, float[] cbounds) {
+			resetBounds(bounds, offset);
+			resetBounds(cbounds, 0);
+			for (int i = start; i < end; i++) {
+				int t = order[i];
+				growBounds(bounds, offset, triBounds, 6 * t);
+				for (int c = 0; c < 3; c++) {
+					float v = centroids[3 * t + c];
+					cbounds[c] = Math.min(cbounds[c], v);
+					cbounds[3 + c] = Math.max(cbounds[3 + c], v);
+				}
+			}
+		}
+
+		/**
+		 * Reset bounds.
+		 *
+		 * @param bounds
+		 *            the bounds
+		 * @param offset
+		 *            the offset
+		 */
+		private static void resetBounds(float[] bounds, int offset) {
+			for (int c = 0; c < 3; c++) {
+				bounds[offset + c] = Float.MAX_VALUE;
+				bounds[offset + 3 + c] = -Float.MAX_VALUE;
+			}
+		}
+
+		/**
+		 * Grow bounds.
+		 *
+		 * @param bounds
+		 *            the bounds
+		 * @param offset
+		 *            the offset
+		 * @param other
+		 *            the other
+		 * @param otherOffset
+		 *            the other offset
+		 */
+		private static void growBounds(float[] bounds, int offset,
+				float[] other, int otherOffset) {
+			for (int c = 0; c < 3; c++) {
+				bounds[offset + c] = Math.min(bounds[offset + c],
+						other[otherOffset + c]);
+				bounds[offset + 3 + c] = Math.max(bounds[offset + 3 + c],
+						other[otherOffset + 3 + c]);
+			}
+		}
+
+		/**
+		 * Half surface area of a box.
+		 *
+		 * @param bounds
+		 *            the bounds
+		 * @param offset
+		 *            the offset
+		 *
+		 * @return the float
+		 */
+		private static float area(float[] bounds, int offset) {
+			float dx = bounds[offset + 3] - bounds[offset];
+			float dy = bounds[offset + 4] - bounds[offset + 1];
+			float dz = bounds[offset + 5] - bounds[offset + 2];
+			if (dx < 0 || dy < 0 || dz < 0) {
+				return 0;
+			}
+			return dx * dy + dy * dz + dz * dx;
 		}
 	}
 
-	/** The Constant minChildSize. */
-	private static final int minChildSize = 10;
+	/** Leaves with at most this many triangles are not split further. */
+	private static final int minChildSize = 4;
+
+	/** Tolerance used by the ray-triangle test. */
+	private static final double EPSILON = 1E-12;
 
 	/** The bounds. */
 	protected double[] bounds = { -1, 1, -1, 1, -1, 1 };// set min/max X,
@@ -166,12 +396,6 @@ public class CollisionDetection {
 	/** The center. */
 	protected Vector3d center = new Vector3d();
 
-	/** The light directions. */
-	private Vector3f[] lightDirections = { new Vector3f(1, 0, 0),
-			new Vector3f(0, 1, 0), new Vector3f(0, 0, 1),
-			new Vector3f(-1, 0, 0), new Vector3f(0, -1, 0),
-			new Vector3f(0, 0, -1) };
-
 	/** The limits. */
 	protected double[] limits = { -1, 1, -1, 1, -1, 1 };// set min/max X,
 	// min/max Y, and
@@ -181,11 +405,8 @@ public class CollisionDetection {
 	/** The max depth. */
 	private int maxDepth;
 
-	/** The mesh color. */
-	private Color3f meshColor = new Color3f(0.1f, 0.1f, 0.1f);
-
-	/** The picker. */
-	private PickTool picker;
+	/** The hierarchy. */
+	private volatile Hierarchy hierarchy;
 
 	/** The slices. */
 	private int rows, cols, slices;
@@ -193,12 +414,9 @@ public class CollisionDetection {
 	/** The scale. */
 	protected Vector3d scale = new Vector3d();
 
-	/** The universe. */
-	private SimpleUniverse universe;
-
 	/**
 	 * Instantiates a new collision detection.
-	 * 
+	 *
 	 * @param mesh
 	 *            the mesh
 	 * @param rows
@@ -208,7 +426,8 @@ public class CollisionDetection {
 	 * @param slices
 	 *            the slices
 	 * @param maxDepth
-	 *            the max depth
+	 *            the max depth of the former octree. Each octree level
+	 *            corresponds to three binary splits of the hierarchy.
 	 */
 	public CollisionDetection(EmbeddedSurface mesh, int rows, int cols,
 			int slices, int maxDepth) {
@@ -219,98 +438,97 @@ public class CollisionDetection {
 		init(mesh);
 	}
 
+	/**
+	 * Instantiates a new collision detection.
+	 *
+	 * @param points
+	 *            the vertex coordinates stored as x,y,z triples
+	 * @param indices
+	 *            the triangle vertex indices
+	 */
+	public CollisionDetection(float[] points, int[] indices) {
+		this.maxDepth = 0;
+		init(points, indices);
+	}
+
 	/**
 	 * Inits the.
-	 * 
+	 *
 	 * @param mesh
 	 *            the mesh
 	 */
 	public void init(EmbeddedSurface mesh) {
-		JFrame frame = new JFrame("Intersector");
-		GraphicsConfigTemplate3D template = new GraphicsConfigTemplate3D();
-		GraphicsEnvironment env = GraphicsEnvironment
-				.getLocalGraphicsEnvironment();
-		GraphicsDevice device = env.getDefaultScreenDevice();
-		GraphicsConfiguration config = device.getBestConfiguration(template);
-		Canvas3D canvas = new Canvas3D(config, true);
-		canvas.setSize(640, 640);
-		universe = new SimpleUniverse(canvas);
-		computeBounds(mesh);
-		/*
-		 * BranchGroup group=new BranchGroup(); Shape3D shape=new Shape3D(mesh);
-		 * 
-		 * shape.setAppearance(createAppearance(1/(float)maxDepth));
-		 * com.sun.j3d.utils.picking.PickTool.setCapabilities(shape,
-		 * com.sun.j3d.utils.picking.PickTool.INTERSECT_FULL);
-		 * group.addChild(shape);
-		 */
-		BranchGroup group = buildTree(mesh);
-		group.setPickable(true);
-		group.setBoundsAutoCompute(true);
-		/*
-		 * Transform3D trans = new Transform3D(); Vector3d
-		 * tmp1=(Vector3d)center.clone(); tmp1.negate();
-		 * trans.setTranslation(tmp1); trans.setScale(scale); TransformGroup
-		 * shapeTG = new TransformGroup(trans);
-		 * 
-		 * shapeTG.addChild(group); shapeTG.addChild(createLight());
-		 * 
-		 * BranchGroup bg=new BranchGroup(); bg.setPickable(true);
-		 * bg.setBoundsAutoCompute(true); bg.addChild(shapeTG); bg.compile();
-		 */
-		universe.addBranchGraph(group);
-		universe.getViewingPlatform().setNominalViewingTransform();
-
-		OrbitBehavior orbit = new OrbitBehavior(canvas,
-				OrbitBehavior.REVERSE_ALL);
-		universe.getViewingPlatform().setViewPlatformBehavior(orbit);
-		BoundingSphere bounds = new BoundingSphere(new Point3d(0.0, 0.0, 0.0),
-				100.0);
-		orbit.setSchedulingBounds(bounds);
-		//
-
-		frame.add(canvas);
-		picker = new PickTool(group);
-		picker.setMode(PickInfo.PICK_GEOMETRY);
-		picker.setFlags(PickInfo.CLOSEST_DISTANCE);
-		picker.setFlags(PickInfo.CLOSEST_INTERSECTION_POINT);
-		frame.setPreferredSize(new Dimension(0, 0));
-		frame.setLocation(0, 0);
-		frame.pack();
-		frame.setVisible(true);
-		canvas.startRenderer();
-		frame.repaint();
-		frame.setVisible(false);
-		frame.dispose();
+		float[] points = new float[3 * mesh.getVertexCount()];
+		int[] indices = new int[mesh.getIndexCount()];
+		mesh.getCoordinates(0, points);
+		mesh.getCoordinateIndices(0, indices);
+		init(points, indices);
+	}
+
+	/**
+	 * Build the hierarchy from flat vertex and index arrays.
+	 *
+	 * @param points
+	 *            the vertex coordinates stored as x,y,z triples
+	 * @param indices
+	 *            the triangle vertex indices
+	 */
+	public void init(float[] points, int[] indices) {
+		computeBounds(points);
+		int depthLimit = (maxDepth > 0) ? 3 * maxDepth : 64;
+		Builder builder = new Builder(points, indices, depthLimit);
+		builder.build();
+		int triCount = builder.order.length;
+		double[] tris = new double[9 * triCount];
+		for (int i = 0; i < triCount; i++) {
+			int t = builder.order[i];
+			for (int v = 0; v < 3; v++) {
+				int vid = indices[3 * t + v];
+				tris[9 * i + 3 * v] = points[3 * vid];
+				tris[9 * i + 3 * v + 1] = points[3 * vid + 1];
+				tris[9 * i + 3 * v + 2] = points[3 * vid + 2];
+			}
+		}
+		hierarchy = new Hierarchy(builder.nodeBounds, builder.nodeStart,
+				builder.nodeCount, builder.nodes, builder.depth, tris);
 	}
 
 	/**
 	 * Compute bounds.
-	 * 
+	 *
 	 * @param mesh
 	 *            the mesh
 	 */
 	public void computeBounds(EmbeddedSurface mesh) {
-		int sz = mesh.getVertexCount();
+		float[] points = new float[3 * mesh.getVertexCount()];
+		mesh.getCoordinates(0, points);
+		computeBounds(points);
+	}
+
+	/**
+	 * Compute bounds.
+	 *
+	 * @param points
+	 *            the vertex coordinates stored as x,y,z triples
+	 */
+	private void computeBounds(float[] points) {
 		double large = 1E30;
 		double[] limits = new double[] { large, -large, large, -large, large,
 				-large };
-		Point3 p = new Point3();
-		for (int i = 0; i < sz; i++) {
-			mesh.getCoordinate(i, p);
-			limits[0] = Math.min(p.x, limits[0]);
-			limits[1] = Math.max(p.x, limits[1]);
-			limits[2] = Math.min(p.y, limits[2]);
-			limits[3] = Math.max(p.y, limits[3]);
-			limits[4] = Math.min(p.z, limits[4]);
-			limits[5] = Math.max(p.z, limits[5]);
+		for (int i = 0; i < points.length; i += 3) {
+			limits[0] = Math.min(points[i], limits[0]);
+			limits[1] = Math.max(points[i], limits[1]);
+			limits[2] = Math.min(points[i + 1], limits[2]);
+			limits[3] = Math.max(points[i + 1], limits[3]);
+			limits[4] = Math.min(points[i + 2], limits[4]);
+			limits[5] = Math.max(points[i + 2], limits[5]);
 		}
 		setBounds(limits);
 	}
 
 	/**
 	 * Sets the bounds.
-	 * 
+	 *
 	 * @param limits
 	 *            the new bounds
 	 */
@@ -335,234 +553,73 @@ public class CollisionDetection {
 	}
 
 	/**
-	 * Builds the tree.
-	 * 
-	 * @param mesh
-	 *            the mesh
-	 * 
-	 * @return the branch group
+	 * Gets the number of hierarchy nodes.
+	 *
+	 * @return the node count
 	 */
-	private BranchGroup buildTree(EmbeddedSurface mesh) {
-		int[] indices = new int[mesh.getIndexCount()];
-		Point3d[] points = new Point3d[mesh.getVertexCount()];
-		ArrayList<Triangle> tris = new ArrayList<Triangle>();
-		// mesh.getCoordinates(0, points);
-		for (int i = 0; i < mesh.getVertexCount(); i++) {
-			points[i] = new Point3d();
-			mesh.getCoordinate(i, points[i]);
-		}
-		mesh.getCoordinateIndices(0, indices);
-		for (int i = 0; i < indices.length; i += 3) {
-			tris.add(new Triangle(points[indices[i]], points[indices[i + 1]],
-					points[indices[i + 2]]));
-		}
-		Triangle.getBounds(tris);
-		return buildTree(mesh, 1, tris);
+	public int getNodeCount() {
+		return hierarchy.nodes;
 	}
 
 	/**
-	 * Builds the tree.
-	 * 
-	 * @param mesh
-	 *            the mesh
-	 * @param depth
-	 *            the depth
-	 * @param tris
-	 *            the tris
-	 * 
-	 * @return the branch group
-	 */
-	private BranchGroup buildTree(EmbeddedSurface mesh, int depth,
-			ArrayList<Triangle> tris) {
-		if (tris.size() == 0) {
-			return null;
-		}
-		BranchGroup group = new BranchGroup();
-		if (depth == maxDepth || tris.size() <= minChildSize) {
-			BoundingBox box = Triangle.getBounds(tris);
-			IndexedTriangleArray smallMesh = new IndexedTriangleArray(
-					tris.size() * 3, GeometryArray.COORDINATES, tris.size() * 3);
-			int index = 0;
-			for (Triangle t : tris) {
-				smallMesh.setCoordinates(index, t.points);
-				smallMesh.setCoordinateIndices(index, new int[] { index,
-						index + 1, index + 2 });
-				index += 3;
-			}
-			// GeometryInfo gi=new GeometryInfo(smallMesh);
-			// NormalGenerator ng = new NormalGenerator();
-			// ng.generateNormals(gi);
-			// System.out.println(getClass().getCanonicalName()+"\t"+"TRIANGLES "+depth+" "+tris.size()+" "+volume(box));
-			// gi.getGeometryArray()
-			Shape3D shape = new Shape3D(smallMesh);
-			shape.setAppearance(createAppearance(depth / (float) maxDepth));
-			com.sun.j3d.utils.picking.PickTool.setCapabilities(shape,
-					com.sun.j3d.utils.picking.PickTool.INTERSECT_FULL);
-			// System.out.println(getClass().getCanonicalName()+"\t"+tris.size()+" "+depth+" "+box);
-			shape.setBounds(box);
-			group.setPickable(true);
-			group.setBoundsAutoCompute(true);
-			group.addChild(shape);
-		} else {
-			BoundingBox box = Triangle.getBounds(tris);
-			// System.out.println(getClass().getCanonicalName()+"\t"+"BOUNDS "+depth+" "+tris.size()+" "+volume(box));
-			Point3d lower = new Point3d();
-			Point3d upper = new Point3d();
-			box.getLower(lower);
-			box.getUpper(upper);
-			Point3d lowerBox1 = lower;
-			Point3d lowerBox2 = new Point3d((lower.x + upper.x) * 0.5, lower.y,
-					lower.z);
-			Point3d lowerBox3 = new Point3d((lower.x + upper.x) * 0.5,
-					(lower.y + upper.y) * 0.5, lower.z);
-			Point3d lowerBox4 = new Point3d(lower.x, (lower.y + upper.y) * 0.5,
-					lower.z);
-
-			Point3d lowerBox5 = new Point3d(lower.x, lower.y,
-					(lower.z + upper.z) * 0.5);
-			Point3d lowerBox6 = new Point3d((lower.x + upper.x) * 0.5, lower.y,
-					(lower.z + upper.z) * 0.5);
-			Point3d lowerBox7 = new Point3d((lower.x + upper.x) * 0.5,
-					(lower.y + upper.y) * 0.5, (lower.z + upper.z) * 0.5);
-			Point3d lowerBox8 = new Point3d(lower.x, (lower.y + upper.y) * 0.5,
-					(lower.z + upper.z) * 0.5);
-
-			Point3d upperBox1 = new Point3d((lower.x + upper.x) * 0.5,
-					(lower.y + upper.y) * 0.5, (lower.z + upper.z) * 0.5);
-			Point3d upperBox2 = new Point3d(upper.x, (lower.y + upper.y) * 0.5,
-					(lower.z + upper.z) * 0.5);
-			Point3d upperBox3 = new Point3d(upper.x, upper.y,
-					(lower.z + upper.z) * 0.5);
-			Point3d upperBox4 = new Point3d((lower.x + upper.x) * 0.5, upper.y,
-					(lower.z + upper.z) * 0.5);
-
-			Point3d upperBox5 = new Point3d((lower.x + upper.x) * 0.5,
-					(lower.y + upper.y) * 0.5, upper.z);
-			Point3d upperBox6 = new Point3d(upper.x, (lower.y + upper.y) * 0.5,
-					upper.z);
-			Point3d upperBox7 = upper;
-			Point3d upperBox8 = new Point3d((lower.x + upper.x) * 0.5, upper.y,
-					upper.z);
-
-			BoundingBox oct1 = new BoundingBox(lowerBox1, upperBox1);
-			BoundingBox oct2 = new BoundingBox(lowerBox2, upperBox2);
-			BoundingBox oct3 = new BoundingBox(lowerBox3, upperBox3);
-			BoundingBox oct4 = new BoundingBox(lowerBox4, upperBox4);
-
-			BoundingBox oct5 = new BoundingBox(lowerBox5, upperBox5);
-			BoundingBox oct6 = new BoundingBox(lowerBox6, upperBox6);
-			BoundingBox oct7 = new BoundingBox(lowerBox7, upperBox7);
-			BoundingBox oct8 = new BoundingBox(lowerBox8, upperBox8);
-
-			BranchGroup bg = null;
-			group.setPickable(true);
-			group.setBoundsAutoCompute(true);
-
-			// System.out.println(getClass().getCanonicalName()+"\t"+"OCT 1 "+depth+" "+volume(oct1));
-			bg = buildTree(mesh, depth + 1, Triangle.getInBounds(tris, oct1));
-			if (bg != null) {
-				group.addChild(bg);
-			}
-			// System.out.println(getClass().getCanonicalName()+"\t"+"OCT 2 "+depth+" "+volume(oct2));
-			bg = buildTree(mesh, depth + 1, Triangle.getInBounds(tris, oct2));
-			if (bg != null) {
-				group.addChild(bg);
-			}
-			// System.out.println(getClass().getCanonicalName()+"\t"+"OCT 3 "+depth+" "+volume(oct3));
-			bg = buildTree(mesh, depth + 1, Triangle.getInBounds(tris, oct3));
-			if (bg != null) {
-				group.addChild(bg);
-			}
-			// System.out.println(getClass().getCanonicalName()+"\t"+"OCT 4 "+depth+" "+volume(oct4));
-			bg = buildTree(mesh, depth + 1, Triangle.getInBounds(tris, oct4));
-			if (bg != null) {
-				group.addChild(bg);
-			}
-			// System.out.println(getClass().getCanonicalName()+"\t"+"OCT 5 "+depth+" "+volume(oct5));
-			bg = buildTree(mesh, depth + 1, Triangle.getInBounds(tris, oct5));
-			if (bg != null) {
-				group.addChild(bg);
-			}
-			// System.out.println(getClass().getCanonicalName()+"\t"+"OCT 6 "+depth+" "+volume(oct6));
-			bg = buildTree(mesh, depth + 1, Triangle.getInBounds(tris, oct6));
-			if (bg != null) {
-				group.addChild(bg);
-			}
-			// System.out.println(getClass().getCanonicalName()+"\t"+"OCT 7 "+depth+" "+volume(oct7));
-			bg = buildTree(mesh, depth + 1, Triangle.getInBounds(tris, oct7));
-			if (bg != null) {
-				group.addChild(bg);
-			}
-			// System.out.println(getClass().getCanonicalName()+"\t"+"OCT 8 "+depth+" "+volume(oct8));
-			bg = buildTree(mesh, depth + 1, Triangle.getInBounds(tris, oct8));
-			if (bg != null) {
-				group.addChild(bg);
-			}
-		}
-		return group;
+	 * Gets the depth of the hierarchy.
+	 *
+	 * @return the depth
+	 */
+	public int getDepth() {
+		return hierarchy.depth;
 	}
 
 	/**
-	 * Creates the appearance.
-	 * 
-	 * @param val
-	 *            the val
-	 * 
-	 * @return the appearance
+	 * Find the closest point on the surface.
+	 *
+	 * @param p
+	 *            the p
+	 *
+	 * @return the closest surface point, or null if the mesh is empty
 	 */
-	Appearance createAppearance(float val) {
-		Appearance appear = new Appearance();
-		Material material = new Material(new Color3f(1, 0, 0), new Color3f(),
-				new Color3f(0.6f, 0.6f, 0.6f), new Color3f(0.5f, 0.5f, 0.5f),
-				64.0f);
-		PolygonAttributes polyAttr = new PolygonAttributes(
-				PolygonAttributes.POLYGON_FILL, PolygonAttributes.CULL_BACK,
-				0.0f);
-		appear.setPolygonAttributes(polyAttr);
-		appear.setMaterial(material);
-		return appear;
+	public Point3d projectToSurface(Point3d p) {
+		double[] result = new double[4];
+		if (closestPoint(hierarchy, p.x, p.y, p.z, result)) {
+			return new Point3d(result[0], result[1], result[2]);
+		}
+		return null;
 	}
 
 	/**
-	 * Project to surface.
-	 * 
+	 * Distance to the closest point on the surface.
+	 *
 	 * @param p
 	 *            the p
-	 * 
-	 * @return the point3d
+	 *
+	 * @return the distance, or -1 if the mesh is empty
 	 */
-	public Point3d projectToSurface(Point3d p) {
-		intersectSegmentPoint(new Point3d(p.x - 1, p.y, p.z), new Point3d(
-				p.x + 1, p.y, p.z));
-		intersectSegmentPoint(new Point3d(p.x, p.y - 1, p.z), new Point3d(p.x,
-				p.y + 1, p.z));
-		intersectSegmentPoint(new Point3d(p.x, p.y, p.z - 1), new Point3d(p.x,
-				p.y, p.z + 1));
-
-		PickInfo result = picker.pickClosest();
-		if (result != null) {
-			// System.out.println(getClass().getCanonicalName()+"\t"+"RESULT "+result+" "+result.getClosestDistance());
-			return result.getClosestIntersectionPoint();
+	public double distanceToSurface(Point3d p) {
+		double[] result = new double[4];
+		if (closestPoint(hierarchy, p.x, p.y, p.z, result)) {
+			return Math.sqrt(result[3]);
 		}
-		return null;
+		return -1;
 	}
 
 	/**
 	 * Intersect segment point.
-	 * 
+	 *
 	 * @param start
 	 *            the start
 	 * @param end
 	 *            the end
-	 * 
+	 *
 	 * @return the point3d
 	 */
 	public Point3d intersectSegmentPoint(Point3d start, Point3d end) {
-		picker.setShapeSegment(start, end);
-		PickInfo result = picker.pickClosest();
-		if (result != null) {
-			// System.out.println(getClass().getCanonicalName()+"\t"+"RESULT "+result+" "+result.getClosestDistance());
-			return result.getClosestIntersectionPoint();
+		double dx = end.x - start.x, dy = end.y - start.y, dz = end.z
+				- start.z;
+		double t = closestHit(hierarchy, start.x, start.y, start.z, dx, dy,
+				dz, 1.0);
+		if (t >= 0) {
+			return new Point3d(start.x + t * dx, start.y + t * dy, start.z + t
+					* dz);
 		}
 		return null;
 	}
@@ -571,25 +628,25 @@ public class CollisionDetection {
 	 * Dispose.
 	 */
 	public void dispose() {
-		universe.cleanup();
+		hierarchy = new Hierarchy(new float[6], new int[1], new int[1], 1, 0,
+				new double[0]);
 	}
 
 	/**
 	 * Intersect ray distance.
-	 * 
+	 *
 	 * @param start
 	 *            the start
 	 * @param dir
 	 *            the dir
-	 * 
+	 *
 	 * @return the double
 	 */
 	public double intersectRayDistance(Point3d start, Vector3d dir) {
-		picker.setShapeRay(start, dir);
-		PickInfo result = picker.pickClosest();
-		if (result != null) {
-			// System.out.println(getClass().getCanonicalName()+"\t"+"RESULT "+result+" "+result.getClosestDistance());
-			return result.getClosestDistance();
+		double t = closestHit(hierarchy, start.x, start.y, start.z, dir.x,
+				dir.y, dir.z, Double.MAX_VALUE);
+		if (t >= 0) {
+			return t * dir.length();
 		}
 		return -1;
 
@@ -597,20 +654,20 @@ public class CollisionDetection {
 
 	/**
 	 * Intersect ray point.
-	 * 
+	 *
 	 * @param start
 	 *            the start
 	 * @param dir
 	 *            the dir
-	 * 
+	 *
 	 * @return the point3d
 	 */
 	public Point3d intersectRayPoint(Point3d start, Vector3d dir) {
-		picker.setShapeRay(start, dir);
-		PickInfo result = picker.pickClosest();
-		if (result != null) {
-			// System.out.println(getClass().getCanonicalName()+"\t"+"RESULT "+result+" "+result.getClosestDistance());
-			return result.getClosestIntersectionPoint();
+		double t = closestHit(hierarchy, start.x, start.y, start.z, dir.x,
+				dir.y, dir.z, Double.MAX_VALUE);
+		if (t >= 0) {
+			return new Point3d(start.x + t * dir.x, start.y + t * dir.y,
+					start.z + t * dir.z);
 		}
 		return null;
 
@@ -618,212 +675,600 @@ public class CollisionDetection {
 
 	/**
 	 * Intersect ray point.
-	 * 
+	 *
 	 * @param start
 	 *            the start
 	 * @param dir
 	 *            the dir
-	 * 
+	 *
 	 * @return the point3f
 	 */
 	public Point3f intersectRayPoint(Point3f start, Vector3f dir) {
-		picker.setShapeRay(new Point3d(start), new Vector3d(dir));
-		PickInfo result = picker.pickClosest();
-		if (result != null) {
-			// System.out.println(getClass().getCanonicalName()+"\t"+"RESULT "+result+" "+result.getClosestDistance());
-			return new Point3f(result.getClosestIntersectionPoint());
-		}
-		return null;
-
+		Point3d p = intersectRayPoint(new Point3d(start), new Vector3d(dir));
+		return (p != null) ? new Point3f(p) : null;
 	}
 
 	/**
 	 * Intersect segment distance.
-	 * 
+	 *
 	 * @param start
 	 *            the start
 	 * @param end
 	 *            the end
-	 * 
+	 *
 	 * @return the double
 	 */
 	public double intersectSegmentDistance(Point3d start, Point3d end) {
-		picker.setShapeSegment(start, end);
-		PickInfo result = picker.pickClosest();
-		if (result != null) {
-			// System.out.println(getClass().getCanonicalName()+"\t"+"RESULT "+result+" "+result.getClosestDistance());
-			return result.getClosestDistance();
+		double dx = end.x - start.x, dy = end.y - start.y, dz = end.z
+				- start.z;
+		double t = closestHit(hierarchy, start.x, start.y, start.z, dx, dy,
+				dz, 1.0);
+		if (t >= 0) {
+			return t * Math.sqrt(dx * dx + dy * dy + dz * dz);
 		}
 		return -1;
 	}
 
 	/**
 	 * Intersect segment point.
-	 * 
+	 *
 	 * @param start
 	 *            the start
 	 * @param end
 	 *            the end
-	 * 
+	 *
 	 * @return the point3f
 	 */
 	public Point3f intersectSegmentPoint(Point3f start, Point3f end) {
-		picker.setShapeSegment(new Point3d(start), new Point3d(end));
-		PickInfo result = picker.pickClosest();
-		if (result != null) {
-			// System.out.println(getClass().getCanonicalName()+"\t"+"RESULT "+result+" "+result.getClosestDistance());
-			return new Point3f(result.getClosestIntersectionPoint());
-		}
-		return null;
+		Point3d p = intersectSegmentPoint(new Point3d(start), new Point3d(end));
+		return (p != null) ? new Point3f(p) : null;
 	}
 
 	/**
-	 * Checks if is inside.
-	 * 
+	 * Checks if is inside by counting crossings along the +z axis.
+	 *
 	 * @param start
 	 *            the start
-	 * 
+	 *
 	 * @return true, if is inside
 	 */
 	public boolean isInside(Point3d start) {
-		picker.setShapeRay(start, new Vector3d(0, 0, 1));
-		PickInfo[] result = picker.pickAll();
-		if (result != null) {
-			return (result.length % 2 == 1);
+		return (countHits(hierarchy, start.x, start.y, start.z, 0, 0, 1) % 2 == 1);
+	}
+
+	/**
+	 * Batch version of {@link #intersectRayDistance(Point3d, Vector3d)}.
+	 *
+	 * @param starts
+	 *            the starts
+	 * @param dirs
+	 *            the dirs
+	 *
+	 * @return the distances, -1 for rays that miss
+	 */
+	public double[] intersectRayDistance(final Point3d[] starts,
+			final Vector3d[] dirs) {
+		final double[] result = new double[starts.length];
+		ParallelUtil.forRange(0, starts.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					result[i] = intersectRayDistance(starts[i], dirs[i]);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Batch version of {@link #intersectRayPoint(Point3d, Vector3d)}.
+	 *
+	 * @param starts
+	 *            the starts
+	 * @param dirs
+	 *            the dirs
+	 *
+	 * @return the intersection points, null for rays that miss
+	 */
+	public Point3d[] intersectRayPoint(final Point3d[] starts,
+			final Vector3d[] dirs) {
+		final Point3d[] result = new Point3d[starts.length];
+		ParallelUtil.forRange(0, starts.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					result[i] = intersectRayPoint(starts[i], dirs[i]);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Batch version of {@link #intersectSegmentDistance(Point3d, Point3d)}.
+	 *
+	 * @param starts
+	 *            the starts
+	 * @param ends
+	 *            the ends
+	 *
+	 * @return the distances, -1 for segments that miss
+	 */
+	public double[] intersectSegmentDistance(final Point3d[] starts,
+			final Point3d[] ends) {
+		final double[] result = new double[starts.length];
+		ParallelUtil.forRange(0, starts.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					result[i] = intersectSegmentDistance(starts[i], ends[i]);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Batch version of {@link #intersectSegmentPoint(Point3d, Point3d)}.
+	 *
+	 * @param starts
+	 *            the starts
+	 * @param ends
+	 *            the ends
+	 *
+	 * @return the intersection points, null for segments that miss
+	 */
+	public Point3d[] intersectSegmentPoint(final Point3d[] starts,
+			final Point3d[] ends) {
+		final Point3d[] result = new Point3d[starts.length];
+		ParallelUtil.forRange(0, starts.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					result[i] = intersectSegmentPoint(starts[i], ends[i]);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Batch version of {@link #projectToSurface(Point3d)}.
+	 *
+	 * @param points
+	 *            the points
+	 *
+	 * @return the closest surface points
+	 */
+	public Point3d[] projectToSurface(final Point3d[] points) {
+		final Point3d[] result = new Point3d[points.length];
+		ParallelUtil.forRange(0, points.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					result[i] = projectToSurface(points[i]);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Batch version of {@link #isInside(Point3d)}.
+	 *
+	 * @param points
+	 *            the points
+	 *
+	 * @return the inside flags
+	 */
+	public boolean[] isInside(final Point3d[] points) {
+		final boolean[] result = new boolean[points.length];
+		ParallelUtil.forRange(0, points.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					result[i] = isInside(points[i]);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Find the parametric distance to the closest hit along a ray.
+	 *
+	 * @param h
+	 *            the hierarchy
+	 * @param ox
+	 *            the origin x
+	 * @param oy
+	 *            the origin y
+	 * @param oz
+	 *            the origin z
+	 * @param dx
+	 *            the direction x
+	 * @param dy
+	 *            the direction y
+	 * @param dz
+	 *            the direction z
+	 * @param tmax
+	 *            the maximum parametric distance
+	 *
+	 * @return the parametric distance, or -1 if there is no hit
+	 */
+	private static double closestHit(Hierarchy h, double ox, double oy,
+			double oz, double dx, double dy, double dz, double tmax) {
+		if (h.tris.length == 0) {
+			return -1;
+		}
+		double invx = 1.0 / dx, invy = 1.0 / dy, invz = 1.0 / dz;
+		int[] stack = new int[h.depth + 2];
+		int top = 0;
+		stack[top++] = 0;
+		double best = tmax;
+		boolean hit = false;
+		while (top > 0) {
+			int node = stack[--top];
+			if (!intersectBox(h.nodeBounds, 6 * node, ox, oy, oz, invx, invy,
+					invz, best)) {
+				continue;
+			}
+			int count = h.nodeCount[node];
+			int first = h.nodeStart[node];
+			if (count > 0) {
+				for (int i = first; i < first + count; i++) {
+					double t = intersectTriangle(h.tris, 9 * i, ox, oy, oz,
+							dx, dy, dz);
+					if (t >= 0 && t <= best) {
+						best = t;
+						hit = true;
+					}
+				}
+			} else {
+				stack[top++] = first + 1;
+				stack[top++] = first;
+			}
 		}
-		return false;
+		return (hit) ? best : -1;
 	}
 
 	/**
-	 * Creates the light.
-	 * 
-	 * @return the javax.media.j3d. node
+	 * Count the number of distinct triangle crossings along a ray.
+	 *
+	 * @param h
+	 *            the hierarchy
+	 * @param ox
+	 *            the origin x
+	 * @param oy
+	 *            the origin y
+	 * @param oz
+	 *            the origin z
+	 * @param dx
+	 *            the direction x
+	 * @param dy
+	 *            the direction y
+	 * @param dz
+	 *            the direction z
+	 *
+	 * @return the number of crossings
 	 */
-	private javax.media.j3d.Node createLight() {
-		Color3f directColor = new Color3f(meshColor);
-		BoundingSphere bsphere = new BoundingSphere(new Point3d(), 2.0);
-		TransformGroup tg = new TransformGroup();
-		DirectionalLight directLight;
-		for (Vector3f direction : lightDirections) {
-			directLight = new DirectionalLight();
-			directLight.setInfluencingBounds(bsphere);
-			directLight.setDirection(direction);
-			directLight.setColor(directColor);
-			tg.addChild(directLight);
+	private static int countHits(Hierarchy h, double ox, double oy,
+			double oz, double dx, double dy, double dz) {
+		if (h.tris.length == 0) {
+			return 0;
 		}
+		double invx = 1.0 / dx, invy = 1.0 / dy, invz = 1.0 / dz;
+		int[] stack = new int[h.depth + 2];
+		double[] hits = new double[16];
+		int hitCount = 0;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (!intersectBox(h.nodeBounds, 6 * node, ox, oy, oz, invx, invy,
+					invz, Double.MAX_VALUE)) {
+				continue;
+			}
+			int count = h.nodeCount[node];
+			int first = h.nodeStart[node];
+			if (count > 0) {
+				for (int i = first; i < first + count; i++) {
+					double t = intersectTriangle(h.tris, 9 * i, ox, oy, oz,
+							dx, dy, dz);
+					if (t >= 0) {
+						if (hitCount == hits.length) {
+							hits = Arrays.copyOf(hits, hitCount * 2);
+						}
+						hits[hitCount++] = t;
+					}
+				}
+			} else {
+				stack[top++] = first + 1;
+				stack[top++] = first;
+			}
+		}
+		// A ray passing through a shared edge or vertex reports one hit per
+		// incident triangle, so coincident hits are counted once.
+		Arrays.sort(hits, 0, hitCount);
+		int distinct = 0;
+		for (int i = 0; i < hitCount; i++) {
+			if (i == 0 || hits[i] - hits[i - 1] > 1E-9 * (1 + hits[i])) {
+				distinct++;
+			}
+		}
+		return distinct;
+	}
 
-		AmbientLight ambientLight = new AmbientLight();
-		ambientLight.setInfluencingBounds(bsphere);
-		ambientLight.setColor(meshColor);
+	/**
+	 * Find the closest point on the mesh.
+	 *
+	 * @param h
+	 *            the hierarchy
+	 * @param px
+	 *            the px
+	 * @param py
+	 *            the py
+	 * @param pz
+	 *            the pz
+	 * @param result
+	 *            stores the closest point and squared distance
+	 *
+	 * @return true, if the mesh is not empty
+	 */
+	private static boolean closestPoint(Hierarchy h, double px, double py,
+			double pz, double[] result) {
+		if (h.tris.length == 0) {
+			return false;
+		}
+		int[] stack = new int[h.depth + 2];
+		double[] candidate = new double[3];
+		double best = Double.MAX_VALUE;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (boxDistanceSquared(h.nodeBounds, 6 * node, px, py, pz) >= best) {
+				continue;
+			}
+			int count = h.nodeCount[node];
+			int first = h.nodeStart[node];
+			if (count > 0) {
+				for (int i = first; i < first + count; i++) {
+					closestPointOnTriangle(h.tris, 9 * i, px, py, pz,
+							candidate);
+					double ex = candidate[0] - px;
+					double ey = candidate[1] - py;
+					double ez = candidate[2] - pz;
+					double d = ex * ex + ey * ey + ez * ez;
+					if (d < best) {
+						best = d;
+						result[0] = candidate[0];
+						result[1] = candidate[1];
+						result[2] = candidate[2];
+					}
+				}
+			} else {
+				// Visit the nearer child first
+				double d1 = boxDistanceSquared(h.nodeBounds, 6 * first, px, py,
+						pz);
+				double d2 = boxDistanceSquared(h.nodeBounds, 6 * (first + 1),
+						px, py, pz);
+				if (d1 < d2) {
+					stack[top++] = first + 1;
+					stack[top++] = first;
+				} else {
+					stack[top++] = first;
+					stack[top++] = first + 1;
+				}
+			}
+		}
+		result[3] = best;
+		return true;
+	}
 
-		tg.addChild(ambientLight);
-		return tg;
+	/**
+	 * Slab test between a ray and a box.
+	 *
+	 * @param b
+	 *            the bounds
+	 * @param off
+	 *            the offset
+	 * @param ox
+	 *            the ox
+	 * @param oy
+	 *            the oy
+	 * @param oz
+	 *            the oz
+	 * @param invx
+	 *            the inverse direction x
+	 * @param invy
+	 *            the inverse direction y
+	 * @param invz
+	 *            the inverse direction z
+	 * @param tmax
+	 *            the tmax
+	 *
+	 * @return true, if the ray overlaps the box in [0, tmax]
+	 */
+	private static boolean intersectBox(float[] b, int off, double ox,
+			double oy, double oz, double invx, double invy, double invz,
+			double tmax) {
+		double t1 = (b[off] - ox) * invx;
+		double t2 = (b[off + 3] - ox) * invx;
+		double tnear = Math.min(t1, t2);
+		double tfar = Math.max(t1, t2);
+		t1 = (b[off + 1] - oy) * invy;
+		t2 = (b[off + 4] - oy) * invy;
+		tnear = Math.max(tnear, Math.min(t1, t2));
+		tfar = Math.min(tfar, Math.max(t1, t2));
+		t1 = (b[off + 2] - oz) * invz;
+		t2 = (b[off + 5] - oz) * invz;
+		tnear = Math.max(tnear, Math.min(t1, t2));
+		tfar = Math.min(tfar, Math.max(t1, t2));
+		// NaN from 0*inf on a slab boundary fails all comparisons and is
+		// treated as overlapping
+		return !(tfar < tnear || tfar < 0 || tnear > tmax);
 	}
 
 	/**
-	 * Volume.
-	 * 
-	 * @param box
-	 *            the box
-	 * 
-	 * @return the double
+	 * Moller-Trumbore ray triangle intersection.
+	 *
+	 * @param tris
+	 *            the triangle coordinates
+	 * @param off
+	 *            the offset
+	 * @param ox
+	 *            the ox
+	 * @param oy
+	 *            the oy
+	 * @param oz
+	 *            the oz
+	 * @param dx
+	 *            the dx
+	 * @param dy
+	 *            the dy
+	 * @param dz
+	 *            the dz
+	 *
+	 * @return the parametric distance, or -1 if there is no hit
 	 */
-	private double volume(BoundingBox box) {
-		Point3d lower = new Point3d();
-		Point3d upper = new Point3d();
-		box.getLower(lower);
-		box.getUpper(upper);
-		if (upper.x < lower.x || upper.y < lower.y || upper.z < lower.z) {
-			System.err.println("jist.base" + "INVALID " + box);
-		}
-		return (upper.x - lower.x) * (upper.y - lower.y) * (upper.z - lower.z);
-	}
-
-	// Geometric Tools, Inc.
-	// http://www.geometrictools.com
-	// Copyright (c) 1998-2006. All Rights Reserved
-	//
-	// The Wild Magic Version 4 Foundation Library source code is supplied
-	// under the terms of the license agreement
-	// http://www.geometrictools.com/License/Wm4FoundationLicense.pdf
-	// and may not be copied or disclosed except in accordance with the terms
-	// of that agreement.
-	/*
-	 * public static Point3f projectPoint(Point3f p,EmbeddedSurface mesh,double
-	 * lambda){ Point3f ret=p; Point3f p1=new Point3f(); Point3f p2=new
-	 * Point3f(); Point3f p3=new Point3f(); int in1,in2,in3; int
-	 * count=mesh.getIndexCount(); double mind=1E10; double d; for(int
-	 * i=0;i<count;i+=3){ in1=mesh.getCoordinateIndex(i);
-	 * mesh.getCoordinate(in1,p1); in2=mesh.getCoordinateIndex(i+1);
-	 * mesh.getCoordinate(in2,p2); in3=mesh.getCoordinateIndex(i+2);
-	 * mesh.getCoordinate(in3,p3);
-	 * if(p1.distance(p)>lambda&&p2.distance(p)>lambda
-	 * &&p3.distance(p)>lambda)continue; d=triangleDistance(p,p1,p2,p3);
-	 * if(d<mind){ mind=d; ret=(Point3f)minPoint.clone(); } } return ret; }
-	 * public static double triangleDistance(Point3f p,Point3f p1,Point3f
-	 * p2,Point3f p3){ Vector3f kDiff=new Vector3f(); kDiff.sub(p1,p); Vector3f
-	 * kEdge0=new Vector3f(); kEdge0.sub(p2,p1); Vector3f kEdge1=new Vector3f();
-	 * kEdge1.sub(p3,p1); float fA00 = kEdge0.lengthSquared(); float fA01 =
-	 * kEdge0.dot(kEdge1); float fA11 = kEdge1.lengthSquared(); float fB0 =
-	 * kDiff.dot(kEdge0); float fB1 = kDiff.dot(kEdge1); float fC =
-	 * kDiff.lengthSquared(); float fDet = Math.abs(fA00*fA11-fA01*fA01); float
-	 * fS = fA01*fB1-fA11*fB0; float fT = fA01*fB0-fA00*fB1; float fSqrDistance;
-	 * minPoint.x=p1.x; minPoint.y=p1.y; minPoint.z=p1.z;
-	 * 
-	 * if (fS + fT <= fDet) { if (fS < (float)0.0) { if (fT < (float)0.0) //
-	 * region 4 { if (fB0 < (float)0.0) { fT = (float)0.0; if (-fB0 >= fA00) {
-	 * fS = (float)1.0; fSqrDistance = fA00+((float)2.0)*fB0+fC; } else { fS =
-	 * -fB0/fA00; fSqrDistance = fB0*fS+fC; }
-	 * 
-	 * } else { fS = (float)0.0; if (fB1 >= (float)0.0) { fT = (float)0.0;
-	 * fSqrDistance = fC; } else if (-fB1 >= fA11) { fT = (float)1.0;
-	 * fSqrDistance = fA11+((float)2.0)*fB1+fC; } else { fT = -fB1/fA11;
-	 * fSqrDistance = fB1*fT+fC; } }
-	 * 
-	 * } else // region 3 { fS = (float)0.0; if (fB1 >= (float)0.0) { fT =
-	 * (float)0.0; fSqrDistance = fC; } else if (-fB1 >= fA11) { fT =
-	 * (float)1.0; fSqrDistance = fA11+((float)2.0)*fB1+fC; } else { fT =
-	 * -fB1/fA11; fSqrDistance = fB1*fT+fC; } } } else if (fT < (float)0.0) //
-	 * region 5 { fT = (float)0.0; if (fB0 >= (float)0.0) { fS = (float)0.0;
-	 * fSqrDistance = fC; } else if (-fB0 >= fA00) { fS = (float)1.0;
-	 * fSqrDistance = fA00+((float)2.0)*fB0+fC; } else { fS = -fB0/fA00;
-	 * fSqrDistance = fB0*fS+fC; } } else // region 0 { // minimum at interior
-	 * point float fInvDet = ((float)1.0)/fDet; fS *= fInvDet; fT *= fInvDet;
-	 * fSqrDistance = fS*(fA00*fS+fA01*fT+((float)2.0)*fB0) +
-	 * fT*(fA01*fS+fA11*fT+((float)2.0)*fB1)+fC; } } else { float fTmp0, fTmp1,
-	 * fNumer, fDenom;
-	 * 
-	 * if (fS < (float)0.0) // region 2 { fTmp0 = fA01 + fB0; fTmp1 = fA11 +
-	 * fB1; if (fTmp1 > fTmp0) { fNumer = fTmp1 - fTmp0; fDenom =
-	 * fA00-2.0f*fA01+fA11; if (fNumer >= fDenom) { fS = (float)1.0; fT =
-	 * (float)0.0; fSqrDistance = fA00+((float)2.0)*fB0+fC; } else { fS =
-	 * fNumer/fDenom; fT = (float)1.0 - fS; fSqrDistance =
-	 * fS*(fA00*fS+fA01*fT+2.0f*fB0) + fT*(fA01*fS+fA11*fT+((float)2.0)*fB1)+fC;
-	 * } } else { fS = (float)0.0; if (fTmp1 <= (float)0.0) { fT = (float)1.0;
-	 * fSqrDistance = fA11+((float)2.0)*fB1+fC; } else if (fB1 >= (float)0.0) {
-	 * fT = (float)0.0; fSqrDistance = fC; } else { fT = -fB1/fA11; fSqrDistance
-	 * = fB1*fT+fC; } } } else if (fT < (float)0.0) // region 6 { fTmp0 = fA01 +
-	 * fB1; fTmp1 = fA00 + fB0; if (fTmp1 > fTmp0) { fNumer = fTmp1 - fTmp0;
-	 * fDenom = fA00-((float)2.0)*fA01+fA11; if (fNumer >= fDenom) { fT =
-	 * (float)1.0; fS = (float)0.0; fSqrDistance = fA11+((float)2.0)*fB1+fC; }
-	 * else { fT = fNumer/fDenom; fS = (float)1.0 - fT; fSqrDistance =
-	 * fS*(fA00*fS+fA01*fT+((float)2.0)*fB0) +
-	 * fT*(fA01*fS+fA11*fT+((float)2.0)*fB1)+fC; } } else { fT = (float)0.0; if
-	 * (fTmp1 <= (float)0.0) { fS = (float)1.0; fSqrDistance =
-	 * fA00+((float)2.0)*fB0+fC; } else if (fB0 >= (float)0.0) { fS =
-	 * (float)0.0; fSqrDistance = fC; } else { fS = -fB0/fA00; fSqrDistance =
-	 * fB0*fS+fC; } } } else // region 1 { fNumer = fA11 + fB1 - fA01 - fB0; if
-	 * (fNumer <= (float)0.0) { fS = (float)0.0; fT = (float)1.0; fSqrDistance =
-	 * fA11+((float)2.0)*fB1+fC; } else { fDenom = fA00-2.0f*fA01+fA11; if
-	 * (fNumer >= fDenom) { fS = (float)1.0; fT = (float)0.0; fSqrDistance =
-	 * fA00+((float)2.0)*fB0+fC; } else { fS = fNumer/fDenom; fT = (float)1.0 -
-	 * fS; fSqrDistance = fS*(fA00*fS+fA01*fT+((float)2.0)*fB0) +
-	 * fT*(fA01*fS+fA11*fT+((float)2.0)*fB1)+fC; } } } }
-	 * 
-	 * // account for numerical round-off error if (fSqrDistance < (float)0.0) {
-	 * fSqrDistance = (float)0.0; }
-	 * 
-	 * kEdge0.scale(fS); kEdge1.scale(fT); minPoint.add(kEdge0);
-	 * minPoint.add(kEdge1); return Math.sqrt(fSqrDistance); }
+	private static double intersectTriangle(double[] tris, int off,
+			double ox, double oy, double oz, double dx, double dy, double dz) {
+		double e1x = tris[off + 3] - tris[off];
+		double e1y = tris[off + 4] - tris[off + 1];
+		double e1z = tris[off + 5] - tris[off + 2];
+		double e2x = tris[off + 6] - tris[off];
+		double e2y = tris[off + 7] - tris[off + 1];
+		double e2z = tris[off + 8] - tris[off + 2];
+		double px = dy * e2z - dz * e2y;
+		double py = dz * e2x - dx * e2z;
+		double pz = dx * e2y - dy * e2x;
+		double det = e1x * px + e1y * py + e1z * pz;
+		if (Math.abs(det) < EPSILON) {
+			return -1;
+		}
+		double inv = 1.0 / det;
+		double sx = ox - tris[off];
+		double sy = oy - tris[off + 1];
+		double sz = oz - tris[off + 2];
+		double u = (sx * px + sy * py + sz * pz) * inv;
+		if (u < 0 || u > 1) {
+			return -1;
+		}
+		double qx = sy * e1z - sz * e1y;
+		double qy = sz * e1x - sx * e1z;
+		double qz = sx * e1y - sy * e1x;
+		double v = (dx * qx + dy * qy + dz * qz) * inv;
+		if (v < 0 || u + v > 1) {
+			return -1;
+		}
+		double t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+		return (t >= 0) ? t : -1;
+	}
+
+	/**
+	 * Squared distance from a point to a box.
+	 *
+	 * @param b
+	 *            the bounds
+	 * @param off
+	 *            the offset
+	 * @param px
+	 *            the px
+	 * @param py
+	 *            the py
+	 * @param pz
+	 *            the pz
+	 *
+	 * @return the squared distance
 	 */
+	private static double boxDistanceSquared(float[] b, int off, double px,
+			double py, double pz) {
+		double dx = Math.max(0, Math.max(b[off] - px, px - b[off + 3]));
+		double dy = Math.max(0, Math.max(b[off + 1] - py, py - b[off + 4]));
+		double dz = Math.max(0, Math.max(b[off + 2] - pz, pz - b[off + 5]));
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Closest point on a triangle (Ericson, Real-Time Collision Detection).
+	 *
+	 * @param tris
+	 *            the triangle coordinates
+	 * @param off
+	 *            the offset
+	 * @param px
+	 *            the px
+	 * @param py
+	 *            the py
+	 * @param pz
+	 *            the pz
+	 * @param out
+	 *            the closest point
+	 */
+	private static void closestPointOnTriangle(double[] tris, int off,
+			double px, double py, double pz, double[] out) {
+		double ax = tris[off], ay = tris[off + 1], az = tris[off + 2];
+		double bx = tris[off + 3], by = tris[off + 4], bz = tris[off + 5];
+		double cx = tris[off + 6], cy = tris[off + 7], cz = tris[off + 8];
+		double abx = bx - ax, aby = by - ay, abz = bz - az;
+		double acx = cx - ax, acy = cy - ay, acz = cz - az;
+		double apx = px - ax, apy = py - ay, apz = pz - az;
+		double d1 = abx * apx + aby * apy + abz * apz;
+		double d2 = acx * apx + acy * apy + acz * apz;
+		if (d1 <= 0 && d2 <= 0) {
+			out[0] = ax;
+			out[1] = ay;
+			out[2] = az;
+			return;
+		}
+		double bpx = px - bx, bpy = py - by, bpz = pz - bz;
+		double d3 = abx * bpx + aby * bpy + abz * bpz;
+		double d4 = acx * bpx + acy * bpy + acz * bpz;
+		if (d3 >= 0 && d4 <= d3) {
+			out[0] = bx;
+			out[1] = by;
+			out[2] = bz;
+			return;
+		}
+		double vc = d1 * d4 - d3 * d2;
+		if (vc <= 0 && d1 >= 0 && d3 <= 0) {
+			double v = d1 / (d1 - d3);
+			out[0] = ax + v * abx;
+			out[1] = ay + v * aby;
+			out[2] = az + v * abz;
+			return;
+		}
+		double cpx = px - cx, cpy = py - cy, cpz = pz - cz;
+		double d5 = abx * cpx + aby * cpy + abz * cpz;
+		double d6 = acx * cpx + acy * cpy + acz * cpz;
+		if (d6 >= 0 && d5 <= d6) {
+			out[0] = cx;
+			out[1] = cy;
+			out[2] = cz;
+			return;
+		}
+		double vb = d5 * d2 - d1 * d6;
+		if (vb <= 0 && d2 >= 0 && d6 <= 0) {
+			double w = d2 / (d2 - d6);
+			out[0] = ax + w * acx;
+			out[1] = ay + w * acy;
+			out[2] = az + w * acz;
+			return;
+		}
+		double va = d3 * d6 - d5 * d4;
+		if (va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0) {
+			double w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+			out[0] = bx + w * (cx - bx);
+			out[1] = by + w * (cy - by);
+			out[2] = bz + w * (cz - bz);
+			return;
+		}
+		double denom = 1.0 / (va + vb + vc);
+		double v = vb * denom;
+		double w = vc * denom;
+		out[0] = ax + abx * v + acx * w;
+		out[1] = ay + aby * v + acy * w;
+		out[2] = az + abz * v + acz * w;
+	}
 }
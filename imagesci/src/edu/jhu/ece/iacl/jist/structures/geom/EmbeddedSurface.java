@@ -17,7 +17,6 @@
 package edu.jhu.ece.iacl.jist.structures.geom;
 
 import java.awt.Color;
-import java.util.Arrays;
 import java.util.Hashtable;
 
 import javax.media.j3d.IndexedTriangleArray;
@@ -371,26 +370,13 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 	/** The faces. */
 	protected EmbeddedSurface.Face[] faces;
 
-	/** The m_k e0. */
-	private javax.vecmath.Vector3f m_kE0;
-
-	/** The m_k e1. */
-	private javax.vecmath.Vector3f m_kE1;
-
-	/** The m_k n. */
-	private javax.vecmath.Vector3f m_kN;
-
-	/** The m_k v0. */
-	private Point3f m_kV0;
-
-	/** The m_k v1. */
-	private Point3f m_kV1;
-
-	/** The m_k v2. */
-	private Point3f m_kV2;
+	/**
+	 * The cached mesh topology, rebuilt when the coordinate indices change.
+	 */
+	protected SurfaceGeometry geometry;
 
-	/** The m_k v3. */
-	private Point3f m_kV3;
+	/** The scratch vertex coordinates used by the geometry computations. */
+	protected float[] geometryCoords;
 
 	/** The neighbor edge face table. */
 	protected EmbeddedSurface.Face[][] neighborEdgeFaceTable;
@@ -435,6 +421,21 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 
 	}
 
+	/**
+	 * Instantiates a new embedded surface from flat arrays.
+	 *
+	 * @param afVertex the vertex coordinates stored as x,y,z triples
+	 * @param aiConnect the ai connect
+	 */
+	public EmbeddedSurface(float[] afVertex, int[] aiConnect) {
+		super(afVertex.length / 3, 79, 2, new int[] { 0, 0 }, aiConnect.length);
+		init();
+		setCoordinates(0, afVertex);
+		setCoordinateIndices(0, aiConnect);
+		computeNormals();
+		setNormalIndices(0, aiConnect);
+	}
+
 	/**
 	 * Instantiates a new embedded surface.
 	 *
@@ -537,58 +538,71 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 		setCapability(16);
 		setCapability(2);
 		setCapability(3);
-
-		this.m_kV0 = new Point3f();
-		this.m_kV1 = new Point3f();
-		this.m_kV2 = new Point3f();
-		this.m_kV3 = new Point3f();
-		this.m_kE0 = new javax.vecmath.Vector3f();
-		this.m_kE1 = new javax.vecmath.Vector3f();
-		this.m_kN = new javax.vecmath.Vector3f();
 	}
 
 	/**
-	 * Compute normals.
+	 * Compute normals by averaging the unit normals of the incident faces.
 	 */
 	public void computeNormals() {
-		javax.vecmath.Vector3f[] akSum = new javax.vecmath.Vector3f[getVertexCount()];
-
-		for (int i = 0; i < getVertexCount(); ++i) {
-			akSum[i] = new javax.vecmath.Vector3f(0.0F, 0.0F, 0.0F);
-		}
-
-		for (int i = 0; i < getIndexCount();) {
-			int iV0 = getCoordinateIndex(i++);
-			int iV1 = getCoordinateIndex(i++);
-			int iV2 = getCoordinateIndex(i++);
-
-			getCoordinate(iV0, this.m_kV0);
-			getCoordinate(iV1, this.m_kV1);
-			getCoordinate(iV2, this.m_kV2);
+		computeNormals(SurfaceGeometry.Weighting.UNIFORM);
+	}
 
-			this.m_kE0.sub(this.m_kV1, this.m_kV0);
-			this.m_kE1.sub(this.m_kV2, this.m_kV0);
-			this.m_kN.cross(this.m_kE0, this.m_kE1);
+	/**
+	 * Compute normals by averaging the normals of the incident faces.
+	 * 
+	 * @param weighting
+	 *            the weight given to each face
+	 */
+	public void computeNormals(SurfaceGeometry.Weighting weighting) {
+		setNormals(0, getGeometry().computeVertexNormals(getGeometryCoords(),
+				null, weighting));
+	}
 
-			float fLength = this.m_kN.length();
+	/**
+	 * Gets the mesh topology. It is built on first use and kept until the
+	 * coordinate indices change.
+	 * 
+	 * @return the geometry
+	 */
+	public SurfaceGeometry getGeometry() {
+		if (geometry == null) {
+			geometry = new SurfaceGeometry(this);
+		}
+		return geometry;
+	}
 
-			if (fLength > 1.0E-006D) {
-				this.m_kN.scale(1.0F / fLength);
-			} else {
-				this.m_kN.x = 0.0F;
-				this.m_kN.y = 0.0F;
-				this.m_kN.z = 0.0F;
-			}
+	/**
+	 * Read the vertex coordinates into the scratch array, which is reused
+	 * between calls.
+	 * 
+	 * @return the coordinates
+	 */
+	protected float[] getGeometryCoords() {
+		geometryCoords = SurfaceGeometry.getCoordinates(this, geometryCoords);
+		return geometryCoords;
+	}
 
-			akSum[iV0].add(this.m_kN);
-			akSum[iV1].add(this.m_kN);
-			akSum[iV2].add(this.m_kN);
-		}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see javax.media.j3d.IndexedGeometryArray#setCoordinateIndex(int, int)
+	 */
+	@Override
+	public void setCoordinateIndex(int index, int coordinateIndex) {
+		super.setCoordinateIndex(index, coordinateIndex);
+		geometry = null;
+	}
 
-		for (int i = 0; i < getVertexCount(); ++i) {
-			akSum[i].normalize();
-			setNormal(i, akSum[i]);
-		}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see javax.media.j3d.IndexedGeometryArray#setCoordinateIndices(int,
+	 * int[])
+	 */
+	@Override
+	public void setCoordinateIndices(int index, int[] coordinateIndices) {
+		super.setCoordinateIndices(index, coordinateIndices);
+		geometry = null;
 	}
 
 	/*
@@ -637,33 +651,7 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 	 * @return the center of mass
 	 */
 	public Point3f getCenterOfMass() {
-		int indexCount = getIndexCount();
-		// Compute center of mass
-		Point3f p1, p2, p3;
-		Vector3f edge1 = new Vector3f();
-		Vector3f edge2 = new Vector3f();
-		Vector3f norm = new Vector3f();
-		Point3f centroid = new Point3f();
-		Point3f massCenter = new Point3f();
-		float areaSum = 0;
-		float area;
-		for (int in = 0; in < indexCount; in += 3) {
-			p1 = getVertex(getCoordinateIndex(in));
-			p2 = getVertex(getCoordinateIndex(in + 1));
-			p3 = getVertex(getCoordinateIndex(in + 2));
-			edge1.sub(p2, p1);
-			edge2.sub(p3, p1);
-			norm.cross(edge2, edge1);
-			area = 0.5f * norm.length();
-			centroid = new Point3f(p1);
-			centroid.add(p2);
-			centroid.add(p3);
-			centroid.scale(0.333333f * area);
-			massCenter.add(centroid);
-			areaSum += area;
-		}
-		massCenter.scale(1.0f / areaSum);
-		return massCenter;
+		return getGeometry().getCenterOfMass(getGeometryCoords());
 	}
 
 	/**
@@ -695,16 +683,31 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 	 */
 	public float getFaceArea(int fid) {
 		fid *= 3;
-		Point3f p1 = getVertex(getCoordinateIndex(fid));
-		Point3f p2 = getVertex(getCoordinateIndex(fid + 1));
-		Point3f p3 = getVertex(getCoordinateIndex(fid + 2));
-		Vector3f edge1 = new Vector3f();
-		Vector3f edge2 = new Vector3f();
-		Vector3f cross = new Vector3f();
-		edge1.sub(p2, p1);
-		edge2.sub(p3, p1);
-		cross.cross(edge1, edge2);
-		return cross.length();
+		float[] coords = new float[9];
+		float[] p = new float[3];
+		for (int i = 0; i < 3; i++) {
+			getCoordinate(getCoordinateIndex(fid + i), p);
+			System.arraycopy(p, 0, coords, 3 * i, 3);
+		}
+		return SurfaceGeometry.getTriangleArea(coords, 0, 1, 2);
+	}
+
+	/**
+	 * Gets the areas of all faces.
+	 * 
+	 * @return the face areas
+	 */
+	public float[] getFaceAreas() {
+		return getGeometry().computeFaceAreas(getGeometryCoords(), null);
+	}
+
+	/**
+	 * Gets the centroids of all faces, stored as x,y,z triples.
+	 * 
+	 * @return the face centroids
+	 */
+	public float[] getFaceCentroids() {
+		return getGeometry().computeFaceCentroids(getGeometryCoords(), null);
 	}
 
 	/**
@@ -730,17 +733,25 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 	 * @return the max
 	 */
 	public Point3f getMax() {
-		Point3f max = new Point3f(Float.MIN_VALUE, Float.MIN_VALUE,
-				Float.MIN_VALUE);
-		for (int i = 0; i < getVertexCount(); i++) {
-			Point3f p = getVertex(i);
-			max.x = Math.max(p.x, max.x);
-			max.y = Math.max(p.y, max.y);
-			max.z = Math.max(p.z, max.z);
-		}
+		Point3f min = new Point3f();
+		Point3f max = new Point3f();
+		getBounds(min, max);
 		return max;
 	}
 
+	/**
+	 * Gets the bounding box of the vertices.
+	 * 
+	 * @param min
+	 *            the minimum corner
+	 * @param max
+	 *            the maximum corner
+	 */
+	public void getBounds(Point3f min, Point3f max) {
+		SurfaceGeometry.getBounds(getGeometryCoords(), getVertexCount(), min,
+				max);
+	}
+
 	/**
 	 * Gets the max angle.
 	 * 
@@ -772,14 +783,9 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 	 * @return the min
 	 */
 	public Point3f getMin() {
-		Point3f min = new Point3f(Float.MAX_VALUE, Float.MAX_VALUE,
-				Float.MAX_VALUE);
-		for (int i = 0; i < getVertexCount(); i++) {
-			Point3f p = getVertex(i);
-			min.x = Math.min(p.x, min.x);
-			min.y = Math.min(p.y, min.y);
-			min.z = Math.min(p.z, min.z);
-		}
+		Point3f min = new Point3f();
+		Point3f max = new Point3f();
+		getBounds(min, max);
 		return min;
 	}
 
@@ -963,41 +969,22 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 	 * @return the genus
 	 */
 	public static int getGenus(EmbeddedSurface mesh) {
-		int vertCount = mesh.getVertexCount();
-		int indexCount = mesh.getIndexCount();
-		int faceCount = indexCount / 3;
-		// Edge[] edges=new Edge[indexCount];
-		long edgeHash[] = new long[indexCount];
-		for (int i = 0; i < indexCount; i += 3) {
-			int i1 = mesh.getCoordinateIndex(i);
-			int i2 = mesh.getCoordinateIndex(i + 1);
-			int i3 = mesh.getCoordinateIndex(i + 2);
-			if (i1 < i2) {
-				edgeHash[i] = i1 + i2 * 10000000l;
-			} else {
-				edgeHash[i] = i2 + i1 * 10000000l;
-			}
-			if (i2 < i3) {
-				edgeHash[i + 1] = i2 + i3 * 10000000l;
-			} else {
-				edgeHash[i + 1] = i3 + i2 * 10000000l;
-			}
-			if (i3 < i1) {
-				edgeHash[i + 2] = i3 + i1 * 10000000l;
-			} else {
-				edgeHash[i + 2] = i1 + i3 * 10000000l;
-			}
-		}
-		Arrays.sort(edgeHash);
-		long lastIndex = -1;
-		int edgeCount = 1;
-		for (long index : edgeHash) {
-			if (index != lastIndex) {
-				edgeCount++;
-			}
-			lastIndex = index;
-		}
-		return -(vertCount - edgeCount + faceCount - 2) / 2;
+		return getGenus(new VertexAdjacency(mesh));
+	}
+
+	/**
+	 * Gets the genus from the vertex adjacency of a mesh.
+	 * 
+	 * @param adjacency
+	 *            the adjacency
+	 * 
+	 * @return the genus
+	 */
+	public static int getGenus(VertexAdjacency adjacency) {
+		// The edge count includes one extra edge, as it always has, which
+		// only changes the rounding for odd Euler characteristics.
+		long euler = adjacency.getEulerCharacteristic() - 1;
+		return (int) (-(euler - 2) / 2);
 	}
 
 	/**
@@ -1374,6 +1361,15 @@ public class EmbeddedSurface extends IndexedTriangleArray implements Cloneable,
 		return vertexData[i][offset];
 	}
 
+	/**
+	 * Gets the vertex coordinates as x,y,z triples.
+	 * 
+	 * @return the vertex float copy
+	 */
+	public float[] getVertexFloatCopy() {
+		return SurfaceGeometry.getCoordinates(this, null);
+	}
+
 	/**
 	 * Gets the vertex double copy.
 	 * 
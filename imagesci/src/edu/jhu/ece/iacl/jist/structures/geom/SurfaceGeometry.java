@@ -0,0 +1,595 @@
+/**
+ * Java Image Science Toolkit (JIST)
+ *
+ * Image Analysis and Communications Laboratory &
+ * Laboratory for Medical Image Computing &
+ * The Johns Hopkins University
+ * 
+ * http://www.nitrc.org/projects/jist/
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ */
+package edu.jhu.ece.iacl.jist.structures.geom;
+
+import javax.vecmath.Point3f;
+
+import org.imagesci.utility.ParallelUtil;
+import org.imagesci.utility.ParallelUtil.RangeTask;
+
+/**
+ * Bulk geometry of a triangle mesh computed over flat coordinate arrays,
+ * where vertex v is stored at coords[3*v] ... coords[3*v+2]. The topology is
+ * fixed when the object is created and the vertex to corner table built
+ * from it is reused, so a mesh whose vertices move every frame only pays
+ * for the arithmetic. Per-face quantities are computed in parallel over the
+ * faces, vertex normals are gathered in parallel over the vertices, and
+ * sums are reduced over fixed slabs so results do not depend on timing.
+ * Scratch buffers are kept between calls, so one instance should not be
+ * used by several threads at once.
+ */
+public class SurfaceGeometry {
+
+	/**
+	 * The weight given to each incident face when averaging vertex normals.
+	 */
+	public enum Weighting {
+
+		/** Every face counts equally. */
+		UNIFORM,
+		/** Faces are weighted by their area. */
+		AREA,
+		/** Faces are weighted by the interior angle at the vertex. */
+		ANGLE
+	}
+
+	/** The number of vertices. */
+	protected int vertexCount;
+
+	/** The number of faces. */
+	protected int faceCount;
+
+	/** The triangle indices. */
+	protected int[] indices;
+
+	/** The offsets into the corner table for each vertex. */
+	protected int[] offsets;
+
+	/** The corners incident to each vertex, in increasing order. */
+	protected int[] corners;
+
+	/** The scratch face normals. */
+	private float[] faceNormals;
+
+	/** The scratch corner weights. */
+	private float[] cornerWeights;
+
+	/**
+	 * Instantiates the geometry of a mesh.
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 */
+	public SurfaceGeometry(EmbeddedSurface mesh) {
+		this(mesh.getVertexCount(), mesh.getIndexCopy());
+	}
+
+	/**
+	 * Instantiates the geometry of a triangle index array.
+	 * 
+	 * @param vertexCount
+	 *            the vertex count
+	 * @param indices
+	 *            the triangle indices
+	 */
+	public SurfaceGeometry(int vertexCount, int[] indices) {
+		this.vertexCount = vertexCount;
+		this.faceCount = indices.length / 3;
+		this.indices = indices;
+		int indexCount = 3 * faceCount;
+		offsets = new int[vertexCount + 1];
+		for (int i = 0; i < indexCount; i++) {
+			offsets[indices[i] + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		corners = new int[indexCount];
+		int[] fill = new int[vertexCount];
+		for (int i = 0; i < indexCount; i++) {
+			int v = indices[i];
+			corners[offsets[v] + fill[v]++] = i;
+		}
+	}
+
+	/**
+	 * Gets the vertex coordinates of a mesh as a flat array.
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 * @param coords
+	 *            the array to fill, or null to allocate one
+	 * @return the coordinates
+	 */
+	public static float[] getCoordinates(EmbeddedSurface mesh, float[] coords) {
+		int length = 3 * mesh.getVertexCount();
+		if (coords == null || coords.length < length) {
+			coords = new float[length];
+		}
+		mesh.getCoordinates(0, coords);
+		return coords;
+	}
+
+	/**
+	 * Gets the bounding box of the vertices.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @param vertexCount
+	 *            the vertex count
+	 * @param min
+	 *            the minimum corner
+	 * @param max
+	 *            the maximum corner
+	 */
+	public static void getBounds(final float[] coords, final int vertexCount,
+			Point3f min, Point3f max) {
+		final int slabs = getSlabCount(vertexCount);
+		final float[] bounds = new float[6 * slabs];
+		ParallelUtil.forRange(0, slabs, slabs, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+					float minZ = Float.MAX_VALUE;
+					float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+					float maxZ = -Float.MAX_VALUE;
+					int first = 3 * getSlabStart(vertexCount, slabs, s);
+					int last = 3 * getSlabStart(vertexCount, slabs, s + 1);
+					for (int i = first; i < last; i += 3) {
+						minX = Math.min(minX, coords[i]);
+						minY = Math.min(minY, coords[i + 1]);
+						minZ = Math.min(minZ, coords[i + 2]);
+						maxX = Math.max(maxX, coords[i]);
+						maxY = Math.max(maxY, coords[i + 1]);
+						maxZ = Math.max(maxZ, coords[i + 2]);
+					}
+					int b = 6 * s;
+					bounds[b] = minX;
+					bounds[b + 1] = minY;
+					bounds[b + 2] = minZ;
+					bounds[b + 3] = maxX;
+					bounds[b + 4] = maxY;
+					bounds[b + 5] = maxZ;
+				}
+			}
+		});
+		min.set(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+		max.set(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+		for (int b = 0; b < bounds.length; b += 6) {
+			min.x = Math.min(min.x, bounds[b]);
+			min.y = Math.min(min.y, bounds[b + 1]);
+			min.z = Math.min(min.z, bounds[b + 2]);
+			max.x = Math.max(max.x, bounds[b + 3]);
+			max.y = Math.max(max.y, bounds[b + 4]);
+			max.z = Math.max(max.z, bounds[b + 5]);
+		}
+	}
+
+	/**
+	 * Gets the number of slabs used for a reduction.
+	 * 
+	 * @param length
+	 *            the number of elements
+	 * @return the slab count
+	 */
+	private static int getSlabCount(int length) {
+		return Math.max(1, Math.min(ParallelUtil.getThreadCount(),
+				length / 4096));
+	}
+
+	/**
+	 * Gets the first element of a slab.
+	 * 
+	 * @param length
+	 *            the number of elements
+	 * @param slabs
+	 *            the slab count
+	 * @param s
+	 *            the slab
+	 * @return the first element
+	 */
+	private static int getSlabStart(int length, int slabs, int s) {
+		return (int) ((long) length * s / slabs);
+	}
+
+	/**
+	 * Compute the face areas.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @param areas
+	 *            the array to fill, or null to allocate one
+	 * @return the face areas
+	 */
+	public float[] computeFaceAreas(final float[] coords, float[] areas) {
+		if (areas == null || areas.length < faceCount) {
+			areas = new float[faceCount];
+		}
+		final float[] result = areas;
+		ParallelUtil.forRange(0, faceCount, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int f = start; f < end; f++) {
+					result[f] = getFaceArea(coords, f);
+				}
+			}
+		});
+		return areas;
+	}
+
+	/**
+	 * Compute the face centroids, stored as x,y,z triples.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @param centroids
+	 *            the array to fill, or null to allocate one
+	 * @return the face centroids
+	 */
+	public float[] computeFaceCentroids(final float[] coords,
+			float[] centroids) {
+		if (centroids == null || centroids.length < 3 * faceCount) {
+			centroids = new float[3 * faceCount];
+		}
+		final float[] result = centroids;
+		ParallelUtil.forRange(0, faceCount, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int f = start; f < end; f++) {
+					int i1 = 3 * indices[3 * f];
+					int i2 = 3 * indices[3 * f + 1];
+					int i3 = 3 * indices[3 * f + 2];
+					for (int c = 0; c < 3; c++) {
+						result[3 * f + c] = (coords[i1 + c] + coords[i2 + c]
+								+ coords[i3 + c]) * 0.333333333333f;
+					}
+				}
+			}
+		});
+		return centroids;
+	}
+
+	/**
+	 * Compute the face normals, stored as x,y,z triples. Unit normals of
+	 * degenerate faces are zero.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @param normals
+	 *            the array to fill, or null to allocate one
+	 * @param unit
+	 *            true to normalize, otherwise the length of each normal is
+	 *            twice the face area
+	 * @return the face normals
+	 */
+	public float[] computeFaceNormals(float[] coords, float[] normals,
+			boolean unit) {
+		if (normals == null || normals.length < 3 * faceCount) {
+			normals = new float[3 * faceCount];
+		}
+		computeFaceNormals(coords, normals, null, (unit) ? Weighting.UNIFORM
+				: Weighting.AREA);
+		return normals;
+	}
+
+	/**
+	 * Compute the face normals and the weights of their corners.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @param normals
+	 *            the face normals
+	 * @param weights
+	 *            the corner weights, only filled for angle weighting
+	 * @param weighting
+	 *            the weighting
+	 */
+	private void computeFaceNormals(final float[] coords, final float[] normals,
+			final float[] weights, final Weighting weighting) {
+		ParallelUtil.forRange(0, faceCount, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int f = start; f < end; f++) {
+					int i = 3 * f;
+					int i0 = 3 * indices[i];
+					int i1 = 3 * indices[i + 1];
+					int i2 = 3 * indices[i + 2];
+					float e0x = coords[i1] - coords[i0];
+					float e0y = coords[i1 + 1] - coords[i0 + 1];
+					float e0z = coords[i1 + 2] - coords[i0 + 2];
+					float e1x = coords[i2] - coords[i0];
+					float e1y = coords[i2 + 1] - coords[i0 + 1];
+					float e1z = coords[i2 + 2] - coords[i0 + 2];
+					float nx = e0y * e1z - e0z * e1y;
+					float ny = e1x * e0z - e1z * e0x;
+					float nz = e0x * e1y - e0y * e1x;
+					if (weighting != Weighting.AREA) {
+						// Same arithmetic as Vector3f.length() and scale()
+						float length = (float) Math.sqrt(nx * nx + ny * ny
+								+ nz * nz);
+						if (length > 1.0E-006D) {
+							float scale = 1.0F / length;
+							nx *= scale;
+							ny *= scale;
+							nz *= scale;
+						} else {
+							nx = ny = nz = 0.0F;
+						}
+					}
+					normals[i] = nx;
+					normals[i + 1] = ny;
+					normals[i + 2] = nz;
+					if (weighting == Weighting.ANGLE) {
+						float e2x = coords[i2] - coords[i1];
+						float e2y = coords[i2 + 1] - coords[i1 + 1];
+						float e2z = coords[i2 + 2] - coords[i1 + 2];
+						float a0 = getAngle(e0x, e0y, e0z, e1x, e1y, e1z);
+						float a1 = getAngle(-e0x, -e0y, -e0z, e2x, e2y, e2z);
+						weights[i] = a0;
+						weights[i + 1] = a1;
+						weights[i + 2] = (float) Math.max(0, Math.PI - a0 - a1);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Compute the vertex normals, stored as x,y,z triples. With uniform
+	 * weighting the result matches the unit face normals summed in face
+	 * order. Vertices without a face with non-zero area get a zero normal.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @param normals
+	 *            the array to fill, or null to allocate one
+	 * @param weighting
+	 *            the weighting
+	 * @return the vertex normals
+	 */
+	public float[] computeVertexNormals(float[] coords, float[] normals,
+			final Weighting weighting) {
+		if (normals == null || normals.length < 3 * vertexCount) {
+			normals = new float[3 * vertexCount];
+		}
+		if (faceNormals == null || faceNormals.length < 3 * faceCount) {
+			faceNormals = new float[3 * faceCount];
+		}
+		if (weighting == Weighting.ANGLE
+				&& (cornerWeights == null
+				|| cornerWeights.length < 3 * faceCount)) {
+			cornerWeights = new float[3 * faceCount];
+		}
+		final float[] faceNorms = faceNormals;
+		final float[] weights = cornerWeights;
+		computeFaceNormals(coords, faceNorms, weights, weighting);
+		final float[] result = normals;
+		ParallelUtil.forRange(0, vertexCount, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int v = start; v < end; v++) {
+					float x = 0.0F, y = 0.0F, z = 0.0F;
+					int last = offsets[v + 1];
+					for (int k = offsets[v]; k < last; k++) {
+						int corner = corners[k];
+						int f = 3 * (corner / 3);
+						if (weighting == Weighting.ANGLE) {
+							float w = weights[corner];
+							x += w * faceNorms[f];
+							y += w * faceNorms[f + 1];
+							z += w * faceNorms[f + 2];
+						} else {
+							x += faceNorms[f];
+							y += faceNorms[f + 1];
+							z += faceNorms[f + 2];
+						}
+					}
+					float lengthSquared = x * x + y * y + z * z;
+					if (lengthSquared > 0) {
+						// Same arithmetic as Vector3f.normalize()
+						float norm = (float) (1.0 / Math.sqrt(lengthSquared));
+						x *= norm;
+						y *= norm;
+						z *= norm;
+					}
+					result[3 * v] = x;
+					result[3 * v + 1] = y;
+					result[3 * v + 2] = z;
+				}
+			}
+		});
+		return normals;
+	}
+
+	/**
+	 * Gets the angle between two vectors.
+	 * 
+	 * @param ax
+	 *            the x component of the first vector
+	 * @param ay
+	 *            the y component of the first vector
+	 * @param az
+	 *            the z component of the first vector
+	 * @param bx
+	 *            the x component of the second vector
+	 * @param by
+	 *            the y component of the second vector
+	 * @param bz
+	 *            the z component of the second vector
+	 * @return the angle in radians
+	 */
+	private static float getAngle(float ax, float ay, float az, float bx,
+			float by, float bz) {
+		float cx = ay * bz - az * by;
+		float cy = az * bx - ax * bz;
+		float cz = ax * by - ay * bx;
+		return (float) Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ax
+				* bx + ay * by + az * bz);
+	}
+
+	/**
+	 * Gets the center of mass of the surface, the average of the face
+	 * centroids weighted by face area.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @return the center of mass
+	 */
+	public Point3f getCenterOfMass(final float[] coords) {
+		final int slabs = getSlabCount(faceCount);
+		final double[] sums = new double[4 * slabs];
+		ParallelUtil.forRange(0, slabs, slabs, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					double x = 0, y = 0, z = 0, areaSum = 0;
+					int first = getSlabStart(faceCount, slabs, s);
+					int last = getSlabStart(faceCount, slabs, s + 1);
+					for (int f = first; f < last; f++) {
+						int i = 3 * f;
+						double area = getFaceArea(coords, f);
+						int i1 = 3 * indices[i];
+						int i2 = 3 * indices[i + 1];
+						int i3 = 3 * indices[i + 2];
+						x += area * (coords[i1] + coords[i2] + coords[i3]);
+						y += area * (coords[i1 + 1] + coords[i2 + 1]
+								+ coords[i3 + 1]);
+						z += area * (coords[i1 + 2] + coords[i2 + 2]
+								+ coords[i3 + 2]);
+						areaSum += area;
+					}
+					sums[4 * s] = x;
+					sums[4 * s + 1] = y;
+					sums[4 * s + 2] = z;
+					sums[4 * s + 3] = areaSum;
+				}
+			}
+		});
+		double x = 0, y = 0, z = 0, areaSum = 0;
+		for (int s = 0; s < slabs; s++) {
+			x += sums[4 * s];
+			y += sums[4 * s + 1];
+			z += sums[4 * s + 2];
+			areaSum += sums[4 * s + 3];
+		}
+		double scale = 1.0 / (3.0 * areaSum);
+		return new Point3f((float) (x * scale), (float) (y * scale),
+				(float) (z * scale));
+	}
+
+	/**
+	 * Gets the area of a face.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @param f
+	 *            the face
+	 * @return the area
+	 */
+	private float getFaceArea(float[] coords, int f) {
+		return getTriangleArea(coords, indices[3 * f], indices[3 * f + 1],
+				indices[3 * f + 2]);
+	}
+
+	/**
+	 * Gets the area of a triangle.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @param v1
+	 *            the first vertex
+	 * @param v2
+	 *            the second vertex
+	 * @param v3
+	 *            the third vertex
+	 * @return the area
+	 */
+	public static float getTriangleArea(float[] coords, int v1, int v2, int v3) {
+		int i1 = 3 * v1;
+		int i2 = 3 * v2;
+		int i3 = 3 * v3;
+		float e1x = coords[i2] - coords[i1];
+		float e1y = coords[i2 + 1] - coords[i1 + 1];
+		float e1z = coords[i2 + 2] - coords[i1 + 2];
+		float e2x = coords[i3] - coords[i1];
+		float e2y = coords[i3 + 1] - coords[i1 + 1];
+		float e2z = coords[i3 + 2] - coords[i1 + 2];
+		float cx = e1y * e2z - e1z * e2y;
+		float cy = e2x * e1z - e2z * e1x;
+		float cz = e1x * e2y - e1y * e2x;
+		return 0.5f * (float) Math.sqrt(cx * cx + cy * cy + cz * cz);
+	}
+
+	/**
+	 * Gets the face count.
+	 * 
+	 * @return the face count
+	 */
+	public int getFaceCount() {
+		return faceCount;
+	}
+
+	/**
+	 * Gets the triangle indices.
+	 * 
+	 * @return the indices
+	 */
+	public int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * Gets the total surface area.
+	 * 
+	 * @param coords
+	 *            the coordinates
+	 * @return the surface area
+	 */
+	public double getSurfaceArea(final float[] coords) {
+		final int slabs = getSlabCount(faceCount);
+		final double[] sums = new double[slabs];
+		ParallelUtil.forRange(0, slabs, slabs, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					double sum = 0;
+					int first = getSlabStart(faceCount, slabs, s);
+					int last = getSlabStart(faceCount, slabs, s + 1);
+					for (int f = first; f < last; f++) {
+						sum += getFaceArea(coords, f);
+					}
+					sums[s] = sum;
+				}
+			}
+		});
+		double sum = 0;
+		for (int s = 0; s < slabs; s++) {
+			sum += sums[s];
+		}
+		return sum;
+	}
+
+	/**
+	 * Gets the vertex count.
+	 * 
+	 * @return the vertex count
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+}
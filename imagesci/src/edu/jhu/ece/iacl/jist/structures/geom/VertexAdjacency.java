@@ -0,0 +1,249 @@
+/**
+ * Java Image Science Toolkit (JIST)
+ *
+ * Image Analysis and Communications Laboratory &
+ * Laboratory for Medical Image Computing &
+ * The Johns Hopkins University
+ * 
+ * http://www.nitrc.org/projects/jist/
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ */
+package edu.jhu.ece.iacl.jist.structures.geom;
+
+import java.util.Arrays;
+
+import org.imagesci.utility.ParallelUtil;
+import org.imagesci.utility.ParallelUtil.RangeTask;
+
+/**
+ * Vertex to vertex adjacency of a triangle mesh stored in compressed sparse
+ * row form. The neighbors of vertex v are
+ * neighbors[offsets[v]] ... neighbors[offsets[v+1]-1] in increasing order,
+ * each listed once. The table is built from the index array with one
+ * counting pass and one filling pass, followed by a parallel pass that
+ * sorts and de-duplicates each row.
+ */
+public class VertexAdjacency {
+
+	/** The number of vertices. */
+	protected int vertexCount;
+
+	/** The number of faces. */
+	protected int faceCount;
+
+	/** The row offsets. */
+	protected int[] offsets;
+
+	/** The neighbors. */
+	protected int[] neighbors;
+
+	/**
+	 * Instantiates a new vertex adjacency for a mesh.
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 */
+	public VertexAdjacency(EmbeddedSurface mesh) {
+		this(mesh.getVertexCount(), getIndices(mesh));
+	}
+
+	/**
+	 * Instantiates a new vertex adjacency from a triangle index array.
+	 * 
+	 * @param vertexCount
+	 *            the vertex count
+	 * @param indices
+	 *            the triangle indices
+	 */
+	public VertexAdjacency(int vertexCount, int[] indices) {
+		this.vertexCount = vertexCount;
+		this.faceCount = indices.length / 3;
+		final int[] rowStart = new int[vertexCount + 1];
+		for (int i = 0; i < 3 * faceCount; i++) {
+			rowStart[indices[i] + 1] += 2;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			rowStart[v + 1] += rowStart[v];
+		}
+		final int[] entries = new int[rowStart[vertexCount]];
+		int[] fill = new int[vertexCount];
+		for (int i = 0; i < 3 * faceCount; i += 3) {
+			int v1 = indices[i];
+			int v2 = indices[i + 1];
+			int v3 = indices[i + 2];
+			int pos = rowStart[v1] + fill[v1];
+			entries[pos] = v2;
+			entries[pos + 1] = v3;
+			fill[v1] += 2;
+			pos = rowStart[v2] + fill[v2];
+			entries[pos] = v3;
+			entries[pos + 1] = v1;
+			fill[v2] += 2;
+			pos = rowStart[v3] + fill[v3];
+			entries[pos] = v1;
+			entries[pos + 1] = v2;
+			fill[v3] += 2;
+		}
+		fill = null;
+		// Sort each row and count its distinct neighbors
+		final int[] unique = new int[vertexCount + 1];
+		ParallelUtil.forRange(0, vertexCount, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int v = start; v < end; v++) {
+					int first = rowStart[v];
+					int last = rowStart[v + 1];
+					if (last - first > 32) {
+						Arrays.sort(entries, first, last);
+					} else {
+						for (int i = first + 1; i < last; i++) {
+							int val = entries[i];
+							int j = i - 1;
+							while (j >= first && entries[j] > val) {
+								entries[j + 1] = entries[j];
+								j--;
+							}
+							entries[j + 1] = val;
+						}
+					}
+					int count = 0;
+					for (int i = first; i < last; i++) {
+						if (i == first || entries[i] != entries[i - 1]) {
+							count++;
+						}
+					}
+					unique[v + 1] = count;
+				}
+			}
+		});
+		for (int v = 0; v < vertexCount; v++) {
+			unique[v + 1] += unique[v];
+		}
+		offsets = unique;
+		neighbors = new int[unique[vertexCount]];
+		ParallelUtil.forRange(0, vertexCount, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int v = start; v < end; v++) {
+					int pos = offsets[v];
+					for (int i = rowStart[v]; i < rowStart[v + 1]; i++) {
+						if (i == rowStart[v] || entries[i] != entries[i - 1]) {
+							neighbors[pos++] = entries[i];
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Copy the triangle indices of a mesh.
+	 * 
+	 * @param mesh
+	 *            the mesh
+	 * @return the indices
+	 */
+	private static int[] getIndices(EmbeddedSurface mesh) {
+		int[] indices = new int[mesh.getIndexCount()];
+		mesh.getCoordinateIndices(0, indices);
+		return indices;
+	}
+
+	/**
+	 * Gets the number of neighbors of a vertex.
+	 * 
+	 * @param v
+	 *            the vertex
+	 * @return the degree
+	 */
+	public int getDegree(int v) {
+		return offsets[v + 1] - offsets[v];
+	}
+
+	/**
+	 * Gets the number of distinct undirected edges.
+	 * 
+	 * @return the edge count
+	 */
+	public int getEdgeCount() {
+		return neighbors.length / 2;
+	}
+
+	/**
+	 * Gets the Euler characteristic V - E + F.
+	 * 
+	 * @return the Euler characteristic
+	 */
+	public long getEulerCharacteristic() {
+		return (long) vertexCount - getEdgeCount() + faceCount;
+	}
+
+	/**
+	 * Gets the number of faces.
+	 * 
+	 * @return the face count
+	 */
+	public int getFaceCount() {
+		return faceCount;
+	}
+
+	/**
+	 * Gets a neighbor of a vertex.
+	 * 
+	 * @param v
+	 *            the vertex
+	 * @param k
+	 *            the neighbor number, less than the degree
+	 * @return the neighbor
+	 */
+	public int getNeighbor(int v, int k) {
+		return neighbors[offsets[v] + k];
+	}
+
+	/**
+	 * Gets the neighbor array shared by all rows.
+	 * 
+	 * @return the neighbors
+	 */
+	public int[] getNeighbors() {
+		return neighbors;
+	}
+
+	/**
+	 * Gets a copy of the neighbors of a vertex.
+	 * 
+	 * @param v
+	 *            the vertex
+	 * @return the neighbors
+	 */
+	public int[] getNeighbors(int v) {
+		int[] row = new int[getDegree(v)];
+		System.arraycopy(neighbors, offsets[v], row, 0, row.length);
+		return row;
+	}
+
+	/**
+	 * Gets the row offsets, which have one more entry than there are
+	 * vertices.
+	 * 
+	 * @return the offsets
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Gets the number of vertices.
+	 * 
+	 * @return the vertex count
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+}
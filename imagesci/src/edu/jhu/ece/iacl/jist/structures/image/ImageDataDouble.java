@@ -17,6 +17,7 @@
 package edu.jhu.ece.iacl.jist.structures.image;
 
 import java.awt.Color;
+import java.nio.DoubleBuffer;
 
 import edu.jhu.ece.iacl.jist.utility.JistLogger;
 
@@ -31,6 +32,9 @@ public class ImageDataDouble extends ImageData {
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 8205138120433256897L;
 
+	/** The flat volume, with rows varying fastest. */
+	protected double vol1d[] = null;
+
 	/** The vol2d. */
 	protected double vol2d[][] = null;
 
@@ -40,6 +44,37 @@ public class ImageDataDouble extends ImageData {
 	/** The vol4d. */
 	protected double vol4d[][][][] = null;
 
+	/**
+	 * Instantiates a new image data double backed by a flat array. Voxel
+	 * (i,j,k,l) is stored at index ((l*slices+k)*cols+j)*rows+i.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param components
+	 *            the components
+	 */
+	public ImageDataDouble(double[] data, int rows, int cols, int slices,
+			int components) {
+		this.type = VoxelType.DOUBLE;
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = Math.max(1, slices);
+		this.components = components;
+		if (data.length < rows * cols * this.slices
+				* Math.max(1, components)) {
+			throw new IllegalArgumentException("Flat array is too small for "
+					+ rows + "x" + cols + "x" + slices + "x" + components);
+		}
+		vol1d = data;
+		setHeader(new ImageHeader());
+	}
+
 	/**
 	 * Instantiates a new image data double.
 	 * 
@@ -234,6 +269,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, double a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -274,6 +312,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public double getDouble(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -306,6 +347,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public short getShort(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (short) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (short) vol4d[i][j][k][l];
 		}
@@ -340,6 +384,7 @@ public class ImageDataDouble extends ImageData {
 	 * @return the object[]
 	 */
 	public Object[] toArray() {
+		materialize();
 		if (vol2d != null) {
 			return vol2d;
 		}
@@ -359,6 +404,7 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public void dispose() {
+		vol1d = null;
 		vol2d = null;
 		vol3d = null;
 		vol4d = null;
@@ -372,6 +418,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public Number get(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -392,6 +441,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public boolean getBoolean(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)] != 0;
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l] != 0;
 		}
@@ -426,6 +478,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public byte getByte(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (byte) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (byte) vol4d[i][j][k][l];
 		}
@@ -446,6 +501,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public Color getColor(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return new Color((int) vol1d[getIndex(i, j, k, l)]);
+		}
 		if (vol4d != null) {
 			return new Color((int) vol4d[i][j][k][l]);
 		}
@@ -471,6 +529,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public float getFloat(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (float) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (float) vol4d[i][j][k][l];
 		}
@@ -491,6 +552,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public int getInt(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (int) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (int) vol4d[i][j][k][l];
 		}
@@ -518,7 +582,8 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public boolean isNotAvailable() {
-		return (vol2d == null) && (vol3d == null) && (vol4d == null);
+		return (vol1d == null) && (vol2d == null) && (vol3d == null)
+				&& (vol4d == null);
 	}
 
 	/*
@@ -528,8 +593,13 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public ImageDataDouble mimic() {
-		ImageDataDouble vol = new ImageDataDouble(rows, cols, slices,
-				components);
+		ImageDataDouble vol;
+		if (vol1d != null) {
+			vol = new ImageDataDouble(new double[vol1d.length], rows, cols, slices,
+					components);
+		} else {
+			vol = new ImageDataDouble(rows, cols, slices, components);
+		}
 		vol.setHeader(this.getHeader());
 		return vol;
 	}
@@ -542,8 +612,14 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public ImageDataDouble mimic(int rows, int cols, int slices, int components) {
-		ImageDataDouble vol = new ImageDataDouble(rows, cols, slices,
-				components);
+		ImageDataDouble vol;
+		if (vol1d != null) {
+			vol = new ImageDataDouble(new double[rows * cols * Math.max(1, slices)
+					* Math.max(1, components)], rows, cols, slices,
+					components);
+		} else {
+			vol = new ImageDataDouble(rows, cols, slices, components);
+		}
 		vol.setHeader(this.getHeader());
 		return vol;
 	}
@@ -602,6 +678,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, boolean a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a ? 1 : 0;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a ? 1 : 0;
 		}
@@ -628,6 +707,9 @@ public class ImageDataDouble extends ImageData {
 	 *            the a
 	 */
 	public void set(int i, int j, int k, int l, byte a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -647,6 +729,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, Color a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a.getRGB();
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a.getRGB();
 		}
@@ -666,6 +751,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, float a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -685,6 +773,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, int a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -701,6 +792,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, Number a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a.doubleValue();
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a.doubleValue();
 		}
@@ -720,6 +814,9 @@ public class ImageDataDouble extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, short a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -749,6 +846,7 @@ public class ImageDataDouble extends ImageData {
 	 * @return the double[][]
 	 */
 	public double[][] toArray2d() {
+		materialize();
 		return vol2d;
 	}
 
@@ -758,6 +856,7 @@ public class ImageDataDouble extends ImageData {
 	 * @return the double[][][]
 	 */
 	public double[][][] toArray3d() {
+		materialize();
 		return vol3d;
 	}
 
@@ -767,6 +866,127 @@ public class ImageDataDouble extends ImageData {
 	 * @return the double[][][][]
 	 */
 	public double[][][][] toArray4d() {
+		materialize();
 		return vol4d;
 	}
+
+	/**
+	 * Gets the index of a voxel in the flat array.
+	 * 
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @param l
+	 *            the l
+	 * @return the index
+	 */
+	public final int getIndex(int i, int j, int k, int l) {
+		return ((l * slices + k) * cols + j) * rows + i;
+	}
+
+	/**
+	 * Checks if the image is stored in a flat array.
+	 * 
+	 * @return true, if flat
+	 */
+	public boolean isFlat() {
+		return (vol1d != null);
+	}
+
+	/**
+	 * To array1d. Returns the flat array backing this image, or null if the
+	 * image is stored in nested arrays.
+	 * 
+	 * @return the double[]
+	 */
+	public double[] toArray1d() {
+		return vol1d;
+	}
+
+	/**
+	 * Copy the voxels into a buffer with rows varying fastest, followed by
+	 * columns, slices and components. Flat storage is copied with a single
+	 * bulk put.
+	 * 
+	 * @param buff
+	 *            the buffer
+	 */
+	public void toBuffer(DoubleBuffer buff) {
+		if (vol1d != null) {
+			buff.put(vol1d, 0, rows * cols * slices * Math.max(1, components));
+		} else if (vol2d != null) {
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buff.put(vol2d[i][j]);
+				}
+			}
+		} else if (vol3d != null) {
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						buff.put(vol3d[i][j][k]);
+					}
+				}
+			}
+		} else if (vol4d != null) {
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							buff.put(vol4d[i][j][k][l]);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy flat storage into nested arrays the first time they are
+	 * requested. The nested arrays then replace the flat array as the
+	 * storage of this image, so writes through either view stay consistent.
+	 */
+	protected synchronized void materialize() {
+		if (vol1d == null) {
+			return;
+		}
+		int index = 0;
+		if (components < 2) {
+			if (slices < 2) {
+				double[][] vol = new double[rows][cols];
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						vol[i][j] = vol1d[index++];
+					}
+				}
+				vol2d = vol;
+			} else {
+				double[][][] vol = new double[rows][cols][slices];
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							vol[i][j][k] = vol1d[index++];
+						}
+					}
+				}
+				vol3d = vol;
+			}
+		} else {
+			double[][][][] vol = new double[rows][cols][slices][components];
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							vol[i][j][k][l] = vol1d[index++];
+						}
+					}
+				}
+			}
+			vol4d = vol;
+		}
+		vol1d = null;
+	}
 }
@@ -17,6 +17,7 @@
 package edu.jhu.ece.iacl.jist.structures.image;
 
 import java.awt.Color;
+import java.nio.FloatBuffer;
 
 import edu.jhu.ece.iacl.jist.utility.JistLogger;
 
@@ -31,6 +32,9 @@ public class ImageDataFloat extends ImageData {
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 8205138120433256897L;
 
+	/** The flat volume, with rows varying fastest. */
+	protected float vol1d[] = null;
+
 	/** The vol2d. */
 	protected float vol2d[][] = null;
 
@@ -40,6 +44,37 @@ public class ImageDataFloat extends ImageData {
 	/** The vol4d. */
 	protected float vol4d[][][][] = null;
 
+	/**
+	 * Instantiates a new image data float backed by a flat array. Voxel
+	 * (i,j,k,l) is stored at index ((l*slices+k)*cols+j)*rows+i.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param components
+	 *            the components
+	 */
+	public ImageDataFloat(float[] data, int rows, int cols, int slices,
+			int components) {
+		this.type = VoxelType.FLOAT;
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = Math.max(1, slices);
+		this.components = components;
+		if (data.length < rows * cols * this.slices
+				* Math.max(1, components)) {
+			throw new IllegalArgumentException("Flat array is too small for "
+					+ rows + "x" + cols + "x" + slices + "x" + components);
+		}
+		vol1d = data;
+		setHeader(new ImageHeader());
+	}
+
 	/**
 	 * Instantiates a new image data float.
 	 * 
@@ -311,6 +346,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public float getFloat(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -343,6 +381,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public short getShort(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (short) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (short) vol4d[i][j][k][l];
 		}
@@ -377,6 +418,7 @@ public class ImageDataFloat extends ImageData {
 	 * @return the object[]
 	 */
 	public Object[] toArray() {
+		materialize();
 		if (vol2d != null) {
 			return vol2d;
 		}
@@ -396,6 +438,7 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public void dispose() {
+		vol1d = null;
 		vol2d = null;
 		vol3d = null;
 		vol4d = null;
@@ -409,6 +452,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public Number get(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -429,6 +475,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public boolean getBoolean(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)] != 0;
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l] != 0;
 		}
@@ -446,6 +495,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public byte getByte(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (byte) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (byte) vol4d[i][j][k][l];
 		}
@@ -466,6 +518,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public Color getColor(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return new Color((int) vol1d[getIndex(i, j, k, l)]);
+		}
 		if (vol4d != null) {
 			return new Color((int) vol4d[i][j][k][l]);
 		}
@@ -509,6 +564,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public double getDouble(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -529,6 +587,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public int getInt(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (int) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (int) vol4d[i][j][k][l];
 		}
@@ -556,7 +617,8 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public boolean isNotAvailable() {
-		return (vol2d == null) && (vol3d == null) && (vol4d == null);
+		return (vol1d == null) && (vol2d == null) && (vol3d == null)
+				&& (vol4d == null);
 	}
 
 	/*
@@ -566,7 +628,13 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public ImageDataFloat mimic() {
-		ImageDataFloat vol = new ImageDataFloat(rows, cols, slices, components);
+		ImageDataFloat vol;
+		if (vol1d != null) {
+			vol = new ImageDataFloat(new float[vol1d.length], rows, cols, slices,
+					components);
+		} else {
+			vol = new ImageDataFloat(rows, cols, slices, components);
+		}
 		vol.setHeader(this.getHeader());
 		return vol;
 	}
@@ -579,7 +647,14 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public ImageDataFloat mimic(int rows, int cols, int slices, int components) {
-		ImageDataFloat vol = new ImageDataFloat(rows, cols, slices, components);
+		ImageDataFloat vol;
+		if (vol1d != null) {
+			vol = new ImageDataFloat(new float[rows * cols * Math.max(1, slices)
+					* Math.max(1, components)], rows, cols, slices,
+					components);
+		} else {
+			vol = new ImageDataFloat(rows, cols, slices, components);
+		}
 		vol.setHeader(this.getHeader());
 		return vol;
 	}
@@ -588,6 +663,10 @@ public class ImageDataFloat extends ImageData {
 	 * Normalize.
 	 */
 	public void normalize() {
+		if (vol1d != null) {
+			normalizeFlat();
+			return;
+		}
 		if (vol3d != null) {
 			// Normalize 3d volume
 			float min = 1E30f;
@@ -641,6 +720,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, boolean a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a ? 1 : 0;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a ? 1 : 0;
 		}
@@ -667,6 +749,9 @@ public class ImageDataFloat extends ImageData {
 	 *            the a
 	 */
 	public void set(int i, int j, int k, int l, byte a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -686,6 +771,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, Color a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a.getRGB();
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a.getRGB();
 		}
@@ -705,6 +793,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, double a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = (float) a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = (float) a;
 		}
@@ -724,6 +815,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, float a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -743,6 +837,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, int a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -759,6 +856,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, Number a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a.floatValue();
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a.floatValue();
 		}
@@ -778,6 +878,9 @@ public class ImageDataFloat extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, short a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -795,6 +898,7 @@ public class ImageDataFloat extends ImageData {
 	 * @return the float[][]
 	 */
 	public float[][] toArray2d() {
+		materialize();
 		return vol2d;
 	}
 
@@ -804,6 +908,7 @@ public class ImageDataFloat extends ImageData {
 	 * @return the float[][][]
 	 */
 	public float[][][] toArray3d() {
+		materialize();
 		return vol3d;
 	}
 
@@ -813,6 +918,7 @@ public class ImageDataFloat extends ImageData {
 	 * @return the float[][][][]
 	 */
 	public float[][][][] toArray4d() {
+		materialize();
 		return vol4d;
 	}
 
@@ -822,6 +928,7 @@ public class ImageDataFloat extends ImageData {
 	@Override
 	protected void finalize() throws Throwable {
 		try {
+			vol1d = null;
 			vol2d = null;
 			vol3d = null;
 			vol4d = null;
@@ -829,4 +936,159 @@ public class ImageDataFloat extends ImageData {
 			super.finalize();
 		}
 	}
+
+	/**
+	 * Normalize flat storage.
+	 */
+	private void normalizeFlat() {
+		int size = rows * cols * slices;
+		if (components < 2) {
+			// Normalize 3d volume
+			float min = 1E30f;
+			float max = -1E30f;
+			for (int index = 0; index < size; index++) {
+				min = Math.min(min, vol1d[index]);
+				max = Math.max(max, vol1d[index]);
+			}
+			float scale = ((max - min) > 0.0f) ? (1.0f / (max - min)) : 1.0f;
+			for (int index = 0; index < size; index++) {
+				vol1d[index] = (vol1d[index] - min) * scale;
+			}
+		} else {
+			// Normalize 4d vector volume
+			for (int index = 0; index < size; index++) {
+				double sum = 0;
+				for (int l = 0; l < components; l++) {
+					float val = vol1d[index + l * size];
+					sum += val * val;
+				}
+				if (sum != 0) {
+					sum = Math.sqrt(sum);
+					for (int l = 0; l < components; l++) {
+						vol1d[index + l * size] /= sum;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the index of a voxel in the flat array.
+	 * 
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @param l
+	 *            the l
+	 * @return the index
+	 */
+	public final int getIndex(int i, int j, int k, int l) {
+		return ((l * slices + k) * cols + j) * rows + i;
+	}
+
+	/**
+	 * Checks if the image is stored in a flat array.
+	 * 
+	 * @return true, if flat
+	 */
+	public boolean isFlat() {
+		return (vol1d != null);
+	}
+
+	/**
+	 * To array1d. Returns the flat array backing this image, or null if the
+	 * image is stored in nested arrays.
+	 * 
+	 * @return the float[]
+	 */
+	public float[] toArray1d() {
+		return vol1d;
+	}
+
+	/**
+	 * Copy the voxels into a buffer with rows varying fastest, followed by
+	 * columns, slices and components. Flat storage is copied with a single
+	 * bulk put.
+	 * 
+	 * @param buff
+	 *            the buffer
+	 */
+	public void toBuffer(FloatBuffer buff) {
+		if (vol1d != null) {
+			buff.put(vol1d, 0, rows * cols * slices * Math.max(1, components));
+		} else if (vol2d != null) {
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buff.put(vol2d[i][j]);
+				}
+			}
+		} else if (vol3d != null) {
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						buff.put(vol3d[i][j][k]);
+					}
+				}
+			}
+		} else if (vol4d != null) {
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							buff.put(vol4d[i][j][k][l]);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy flat storage into nested arrays the first time they are
+	 * requested. The nested arrays then replace the flat array as the
+	 * storage of this image, so writes through either view stay consistent.
+	 */
+	protected synchronized void materialize() {
+		if (vol1d == null) {
+			return;
+		}
+		int index = 0;
+		if (components < 2) {
+			if (slices < 2) {
+				float[][] vol = new float[rows][cols];
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						vol[i][j] = vol1d[index++];
+					}
+				}
+				vol2d = vol;
+			} else {
+				float[][][] vol = new float[rows][cols][slices];
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							vol[i][j][k] = vol1d[index++];
+						}
+					}
+				}
+				vol3d = vol;
+			}
+		} else {
+			float[][][][] vol = new float[rows][cols][slices][components];
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							vol[i][j][k][l] = vol1d[index++];
+						}
+					}
+				}
+			}
+			vol4d = vol;
+		}
+		vol1d = null;
+	}
 }
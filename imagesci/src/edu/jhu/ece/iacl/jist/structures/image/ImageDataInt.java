@@ -17,6 +17,7 @@
 package edu.jhu.ece.iacl.jist.structures.image;
 
 import java.awt.Color;
+import java.nio.IntBuffer;
 
 import edu.jhu.ece.iacl.jist.utility.JistLogger;
 
@@ -31,6 +32,9 @@ public class ImageDataInt extends ImageData {
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 8205138120433256897L;
 
+	/** The flat volume, with rows varying fastest. */
+	protected int vol1d[] = null;
+
 	/** The vol2d. */
 	protected int vol2d[][] = null;
 
@@ -212,6 +216,37 @@ public class ImageDataInt extends ImageData {
 		setHeader(new ImageHeader());
 	}
 
+	/**
+	 * Instantiates a new image data integer backed by a flat array. Voxel
+	 * (i,j,k,l) is stored at index ((l*slices+k)*cols+j)*rows+i.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param components
+	 *            the components
+	 */
+	public ImageDataInt(int[] data, int rows, int cols, int slices,
+			int components) {
+		this.type = VoxelType.INT;
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = Math.max(1, slices);
+		this.components = components;
+		if (data.length < rows * cols * this.slices
+				* Math.max(1, components)) {
+			throw new IllegalArgumentException("Flat array is too small for "
+					+ rows + "x" + cols + "x" + slices + "x" + components);
+		}
+		vol1d = data;
+		setHeader(new ImageHeader());
+	}
+
 	/**
 	 * Instantiates a new image data int.
 	 * 
@@ -323,6 +358,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public int getInt(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -355,6 +393,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public short getShort(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (short) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (short) vol4d[i][j][k][l];
 		}
@@ -389,6 +430,7 @@ public class ImageDataInt extends ImageData {
 	 * @return the object[]
 	 */
 	public Object[] toArray() {
+		materialize();
 		if (vol2d != null) {
 			return vol2d;
 		}
@@ -408,6 +450,7 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public void dispose() {
+		vol1d = null;
 		vol2d = null;
 		vol3d = null;
 		vol4d = null;
@@ -421,6 +464,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public Number get(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -441,6 +487,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public boolean getBoolean(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)] != 0;
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l] != 0;
 		}
@@ -475,6 +524,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public byte getByte(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return (byte) vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return (byte) vol4d[i][j][k][l];
 		}
@@ -495,6 +547,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public Color getColor(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return new Color(vol1d[getIndex(i, j, k, l)]);
+		}
 		if (vol4d != null) {
 			return new Color(vol4d[i][j][k][l]);
 		}
@@ -566,6 +621,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public double getDouble(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -586,6 +644,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public float getFloat(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -603,7 +664,8 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public boolean isNotAvailable() {
-		return (vol2d == null) && (vol3d == null) && (vol4d == null);
+		return (vol1d == null) && (vol2d == null) && (vol3d == null)
+				&& (vol4d == null);
 	}
 
 	/*
@@ -613,7 +675,13 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public ImageDataInt mimic() {
-		ImageDataInt vol = new ImageDataInt(rows, cols, slices, components);
+		ImageDataInt vol;
+		if (vol1d != null) {
+			vol = new ImageDataInt(new int[vol1d.length], rows, cols, slices,
+					components);
+		} else {
+			vol = new ImageDataInt(rows, cols, slices, components);
+		}
 		vol.setHeader(this.getHeader());
 		return vol;
 	}
@@ -626,7 +694,14 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public ImageDataInt mimic(int rows, int cols, int slices, int components) {
-		ImageDataInt vol = new ImageDataInt(rows, cols, slices, components);
+		ImageDataInt vol;
+		if (vol1d != null) {
+			vol = new ImageDataInt(new int[rows * cols * Math.max(1, slices)
+					* Math.max(1, components)], rows, cols, slices,
+					components);
+		} else {
+			vol = new ImageDataInt(rows, cols, slices, components);
+		}
 		vol.setHeader(this.getHeader());
 		return vol;
 	}
@@ -639,6 +714,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, boolean a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a ? 1 : 0;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a ? 1 : 0;
 		}
@@ -665,6 +743,9 @@ public class ImageDataInt extends ImageData {
 	 *            the a
 	 */
 	public void set(int i, int j, int k, int l, byte a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -684,6 +765,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, Color a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a.getRGB();
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a.getRGB();
 		}
@@ -703,6 +787,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, double a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = (int) a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = (int) a;
 		}
@@ -722,6 +809,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, float a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = (int) a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = (int) a;
 		}
@@ -741,6 +831,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, int a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -757,6 +850,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, Number a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a.intValue();
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a.intValue();
 		}
@@ -776,6 +872,9 @@ public class ImageDataInt extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, short a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -793,6 +892,7 @@ public class ImageDataInt extends ImageData {
 	 * @return the int[][]
 	 */
 	public int[][] toArray2d() {
+		materialize();
 		return vol2d;
 	}
 
@@ -802,6 +902,7 @@ public class ImageDataInt extends ImageData {
 	 * @return the int[][][]
 	 */
 	public int[][][] toArray3d() {
+		materialize();
 		return vol3d;
 	}
 
@@ -811,6 +912,127 @@ public class ImageDataInt extends ImageData {
 	 * @return the int[][][][]
 	 */
 	public int[][][][] toArray4d() {
+		materialize();
 		return vol4d;
 	}
+
+	/**
+	 * Gets the index of a voxel in the flat array.
+	 * 
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @param l
+	 *            the l
+	 * @return the index
+	 */
+	public final int getIndex(int i, int j, int k, int l) {
+		return ((l * slices + k) * cols + j) * rows + i;
+	}
+
+	/**
+	 * Checks if the image is stored in a flat array.
+	 * 
+	 * @return true, if flat
+	 */
+	public boolean isFlat() {
+		return (vol1d != null);
+	}
+
+	/**
+	 * To array1d. Returns the flat array backing this image, or null if the
+	 * image is stored in nested arrays.
+	 * 
+	 * @return the int[]
+	 */
+	public int[] toArray1d() {
+		return vol1d;
+	}
+
+	/**
+	 * Copy the voxels into a buffer with rows varying fastest, followed by
+	 * columns, slices and components. Flat storage is copied with a single
+	 * bulk put.
+	 * 
+	 * @param buff
+	 *            the buffer
+	 */
+	public void toBuffer(IntBuffer buff) {
+		if (vol1d != null) {
+			buff.put(vol1d, 0, rows * cols * slices * Math.max(1, components));
+		} else if (vol2d != null) {
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buff.put(vol2d[i][j]);
+				}
+			}
+		} else if (vol3d != null) {
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						buff.put(vol3d[i][j][k]);
+					}
+				}
+			}
+		} else if (vol4d != null) {
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							buff.put(vol4d[i][j][k][l]);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy flat storage into nested arrays the first time they are
+	 * requested. The nested arrays then replace the flat array as the
+	 * storage of this image, so writes through either view stay consistent.
+	 */
+	protected synchronized void materialize() {
+		if (vol1d == null) {
+			return;
+		}
+		int index = 0;
+		if (components < 2) {
+			if (slices < 2) {
+				int[][] vol = new int[rows][cols];
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						vol[i][j] = vol1d[index++];
+					}
+				}
+				vol2d = vol;
+			} else {
+				int[][][] vol = new int[rows][cols][slices];
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							vol[i][j][k] = vol1d[index++];
+						}
+					}
+				}
+				vol3d = vol;
+			}
+		} else {
+			int[][][][] vol = new int[rows][cols][slices][components];
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							vol[i][j][k][l] = vol1d[index++];
+						}
+					}
+				}
+			}
+			vol4d = vol;
+		}
+		vol1d = null;
+	}
 }
@@ -0,0 +1,528 @@
+/**
+ * Java Image Science Toolkit (JIST)
+ *
+ * Image Analysis and Communications Laboratory &
+ * Laboratory for Medical Image Computing &
+ * The Johns Hopkins University
+ *
+ * http://www.nitrc.org/projects/jist/
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or (at
+ * your option) any later version.  The license is available for reading at:
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ */
+package edu.jhu.ece.iacl.jist.structures.image;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Image data backed by byte buffers, such as memory-mapped regions of a NIfTI
+ * file, instead of java arrays. Voxels are stored in file order with rows
+ * varying fastest, followed by columns, slices and components. Large images
+ * are split into several buffers that each hold a whole number of slices, so
+ * images larger than 2GB can be addressed.
+ *
+ * @author Blake Lucas
+ */
+public class ImageDataMapped extends ImageData {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = -2873264391875823311L;
+
+	/** The buffers. */
+	protected transient ByteBuffer[] buffers;
+
+	/** The bytes per voxel. */
+	protected int bytesPerVoxel;
+
+	/** The number of slices stored in each buffer. */
+	protected int slicesPerBuffer;
+
+	/**
+	 * Instantiates a new image data backed by byte buffers. The byte order of
+	 * each buffer must already be set to the byte order of the data.
+	 *
+	 * @param buffers
+	 *            the buffers, each holding the same whole number of slices
+	 *            except possibly the last
+	 * @param type
+	 *            the voxel type
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param components
+	 *            the components
+	 */
+	public ImageDataMapped(ByteBuffer[] buffers, VoxelType type, int rows,
+			int cols, int slices, int components) {
+		this.type = type;
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = slices;
+		this.components = components;
+		this.buffers = buffers;
+		this.bytesPerVoxel = getBytesPerVoxel(type);
+		if (bytesPerVoxel <= 0) {
+			throw new IllegalArgumentException("Unsupported voxel type "
+					+ type);
+		}
+		this.slicesPerBuffer = buffers[0].capacity()
+				/ (rows * cols * bytesPerVoxel);
+		setHeader(new ImageHeader());
+	}
+
+	/**
+	 * Gets the number of bytes used to store one voxel of the specified type.
+	 *
+	 * @param type
+	 *            the type
+	 * @return the bytes per voxel, or -1 if the type is not supported
+	 */
+	public static int getBytesPerVoxel(VoxelType type) {
+		switch (type) {
+		case BYTE:
+		case UBYTE:
+			return 1;
+		case SHORT:
+		case USHORT:
+			return 2;
+		case INT:
+		case UINT:
+		case FLOAT:
+			return 4;
+		case DOUBLE:
+			return 8;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Gets the byte order of the buffers.
+	 *
+	 * @return the byte order
+	 */
+	public ByteOrder getByteOrder() {
+		return buffers[0].order();
+	}
+
+	/**
+	 * Gets the backing buffers. Modifications to the buffers are visible in
+	 * this image.
+	 *
+	 * @return the buffers
+	 */
+	public ByteBuffer[] getBuffers() {
+		return buffers;
+	}
+
+	/**
+	 * Gets the number of slices stored in each buffer.
+	 *
+	 * @return the slices per buffer
+	 */
+	public int getSlicesPerBuffer() {
+		return slicesPerBuffer;
+	}
+
+	/**
+	 * Gets the buffer that contains a voxel.
+	 *
+	 * @param k
+	 *            the slice
+	 * @param l
+	 *            the component
+	 * @return the buffer
+	 */
+	private ByteBuffer getBuffer(int k, int l) {
+		return buffers[(l * Math.max(1, slices) + k) / slicesPerBuffer];
+	}
+
+	/**
+	 * Gets the byte position of a voxel in its buffer.
+	 *
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @param l
+	 *            the l
+	 * @return the position
+	 */
+	private int getPosition(int i, int j, int k, int l) {
+		int slice = (l * Math.max(1, slices) + k) % slicesPerBuffer;
+		return ((slice * cols + j) * rows + i) * bytesPerVoxel;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#clone()
+	 */
+	@Override
+	public ImageData clone() {
+		ImageData v = mimic();
+		int comps = Math.max(1, components);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				for (int k = 0; k < slices; k++) {
+					for (int l = 0; l < comps; l++) {
+						v.set(i, j, k, l, getDouble(i, j, k, l));
+					}
+				}
+			}
+		}
+		v.setName(getName());
+		return v;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#dispose()
+	 */
+	@Override
+	public void dispose() {
+		buffers = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#get(int, int, int,
+	 * int)
+	 */
+	@Override
+	public Number get(int i, int j, int k, int l) {
+		switch (type) {
+		case FLOAT:
+			return getFloat(i, j, k, l);
+		case DOUBLE:
+			return getDouble(i, j, k, l);
+		default:
+			return getInt(i, j, k, l);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getBoolean(int,
+	 * int, int, int)
+	 */
+	@Override
+	public boolean getBoolean(int i, int j, int k, int l) {
+		return getDouble(i, j, k, l) != 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getByte(int, int,
+	 * int, int)
+	 */
+	@Override
+	public byte getByte(int i, int j, int k, int l) {
+		return (byte) getInt(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getColor(int, int,
+	 * int, int)
+	 */
+	@Override
+	public Color getColor(int i, int j, int k, int l) {
+		return new Color(getInt(i, j, k, l));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getDouble(int, int,
+	 * int, int)
+	 */
+	@Override
+	public double getDouble(int i, int j, int k, int l) {
+		ByteBuffer buffer = getBuffer(k, l);
+		int pos = getPosition(i, j, k, l);
+		switch (type) {
+		case FLOAT:
+			return buffer.getFloat(pos);
+		case DOUBLE:
+			return buffer.getDouble(pos);
+		case UINT:
+			return buffer.getInt(pos) & 0xFFFFFFFFL;
+		default:
+			return getInt(i, j, k, l);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getFloat(int, int,
+	 * int, int)
+	 */
+	@Override
+	public float getFloat(int i, int j, int k, int l) {
+		if (type == VoxelType.FLOAT) {
+			return getBuffer(k, l).getFloat(getPosition(i, j, k, l));
+		}
+		return (float) getDouble(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getInt(int, int,
+	 * int, int)
+	 */
+	@Override
+	public int getInt(int i, int j, int k, int l) {
+		ByteBuffer buffer = getBuffer(k, l);
+		int pos = getPosition(i, j, k, l);
+		switch (type) {
+		case BYTE:
+			return buffer.get(pos);
+		case UBYTE:
+			return buffer.get(pos) & 0xFF;
+		case SHORT:
+			return buffer.getShort(pos);
+		case USHORT:
+			return buffer.getShort(pos) & 0xFFFF;
+		case INT:
+		case UINT:
+			return buffer.getInt(pos);
+		case FLOAT:
+			return (int) buffer.getFloat(pos);
+		case DOUBLE:
+			return (int) buffer.getDouble(pos);
+		default:
+			return 0;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getShort(int, int,
+	 * int, int)
+	 */
+	@Override
+	public short getShort(int i, int j, int k, int l) {
+		return (short) getInt(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getUByte(int, int,
+	 * int, int)
+	 */
+	@Override
+	public short getUByte(int i, int j, int k, int l) {
+		int val = getInt(i, j, k, l);
+		return (short) (val < 0 ? 0 : val > 255 ? 255 : val);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#isNotAvailable()
+	 */
+	@Override
+	public boolean isNotAvailable() {
+		return (buffers == null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#mimic()
+	 */
+	@Override
+	public ImageData mimic() {
+		return mimic(rows, cols, slices, components);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#mimic(int, int,
+	 * int, int)
+	 */
+	@Override
+	public ImageData mimic(int rows, int cols, int slices, int components) {
+		ImageData vol;
+		switch (type) {
+		case FLOAT:
+			vol = new ImageDataFloat(rows, cols, slices, components);
+			break;
+		case DOUBLE:
+			vol = new ImageDataDouble(rows, cols, slices, components);
+			break;
+		case UBYTE:
+			vol = new ImageDataUByte(rows, cols, slices, components);
+			break;
+		case BYTE:
+			vol = new ImageDataByte(rows, cols, slices, components);
+			break;
+		default:
+			vol = new ImageDataInt(rows, cols, slices, components);
+			break;
+		}
+		vol.setHeader(this.getHeader());
+		return vol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, boolean)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, boolean a) {
+		set(i, j, k, l, (a) ? 1 : 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, java.awt.Color)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, Color a) {
+		set(i, j, k, l, a.getRGB());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, double)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, double a) {
+		ByteBuffer buffer = getBuffer(k, l);
+		int pos = getPosition(i, j, k, l);
+		switch (type) {
+		case FLOAT:
+			buffer.putFloat(pos, (float) a);
+			break;
+		case DOUBLE:
+			buffer.putDouble(pos, a);
+			break;
+		case UINT:
+			buffer.putInt(pos, (int) (long) a);
+			break;
+		default:
+			set(i, j, k, l, (int) a);
+			break;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, float)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, float a) {
+		if (type == VoxelType.FLOAT) {
+			getBuffer(k, l).putFloat(getPosition(i, j, k, l), a);
+		} else {
+			set(i, j, k, l, (double) a);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, int)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, int a) {
+		ByteBuffer buffer = getBuffer(k, l);
+		int pos = getPosition(i, j, k, l);
+		switch (type) {
+		case BYTE:
+		case UBYTE:
+			buffer.put(pos, (byte) a);
+			break;
+		case SHORT:
+		case USHORT:
+			buffer.putShort(pos, (short) a);
+			break;
+		case INT:
+		case UINT:
+			buffer.putInt(pos, a);
+			break;
+		case FLOAT:
+			buffer.putFloat(pos, a);
+			break;
+		case DOUBLE:
+			buffer.putDouble(pos, a);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, java.lang.Number)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, Number a) {
+		set(i, j, k, l, a.doubleValue());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, short)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, short a) {
+		set(i, j, k, l, (int) a);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * edu.jhu.ece.iacl.jist.structures.image.ImageData#set(edu.jhu.ece.iacl
+	 * .jist.structures.image.Voxel)
+	 */
+	@Override
+	public void set(Voxel a) {
+		double val = a.doubleValue();
+		int comps = Math.max(1, components);
+		for (int l = 0; l < comps; l++) {
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						set(i, j, k, l, val);
+					}
+				}
+			}
+		}
+	}
+}
@@ -17,6 +17,7 @@
 package edu.jhu.ece.iacl.jist.structures.image;
 
 import java.awt.Color;
+import java.nio.ByteBuffer;
 
 import edu.jhu.ece.iacl.jist.utility.JistLogger;
 
@@ -34,6 +35,9 @@ public class ImageDataUByte extends ImageData {
 	/** The val. */
 	private short val;
 
+	/** The flat volume, with rows varying fastest. */
+	protected byte vol1d[] = null;
+
 	/** The vol2d. */
 	protected byte vol2d[][] = null;
 
@@ -43,6 +47,37 @@ public class ImageDataUByte extends ImageData {
 	/** The vol4d. */
 	protected byte vol4d[][][][] = null;
 
+	/**
+	 * Instantiates a new image data ubyte backed by a flat array. Voxel
+	 * (i,j,k,l) is stored at index ((l*slices+k)*cols+j)*rows+i.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param components
+	 *            the components
+	 */
+	public ImageDataUByte(byte[] data, int rows, int cols, int slices,
+			int components) {
+		this.type = VoxelType.UBYTE;
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = Math.max(1, slices);
+		this.components = components;
+		if (data.length < rows * cols * this.slices
+				* Math.max(1, components)) {
+			throw new IllegalArgumentException("Flat array is too small for "
+					+ rows + "x" + cols + "x" + slices + "x" + components);
+		}
+		vol1d = data;
+		setHeader(new ImageHeader());
+	}
+
 	/**
 	 * Instantiates a new image data u byte.
 	 * 
@@ -279,7 +314,8 @@ public class ImageDataUByte extends ImageData {
 	@Override
 	public short getShort(int i, int j, int k, int l) {
 		short val = 0;
-		if (vol2d == null && vol3d == null && vol4d == null) {
+		if (vol1d == null && vol2d == null && vol3d == null
+				&& vol4d == null) {
 			return 0;
 		}
 		if (vol2d != null) {
@@ -288,6 +324,9 @@ public class ImageDataUByte extends ImageData {
 		if (vol3d != null) {
 			val = vol3d[i][j][k];
 		}
+		if (vol1d != null) {
+			val = vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			val = vol4d[i][j][k][l];
 		}
@@ -316,7 +355,8 @@ public class ImageDataUByte extends ImageData {
 	public int getInt(int i, int j, int k, int l) {
 		int val = 0;
 
-		if (vol2d == null && vol3d == null && vol4d == null) {
+		if (vol1d == null && vol2d == null && vol3d == null
+				&& vol4d == null) {
 			return 0;
 		}
 		if (vol2d != null) {
@@ -325,6 +365,9 @@ public class ImageDataUByte extends ImageData {
 		if (vol3d != null) {
 			val = vol3d[i][j][k];
 		}
+		if (vol1d != null) {
+			val = vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			val = vol4d[i][j][k][l];
 		}
@@ -354,6 +397,7 @@ public class ImageDataUByte extends ImageData {
 	 * @return the object[]
 	 */
 	public Object[] toArray() {
+		materialize();
 		if (vol2d != null) {
 			return vol2d;
 		}
@@ -373,6 +417,7 @@ public class ImageDataUByte extends ImageData {
 	 */
 	@Override
 	public void dispose() {
+		vol1d = null;
 		vol2d = null;
 		vol3d = null;
 		vol4d = null;
@@ -388,7 +433,8 @@ public class ImageDataUByte extends ImageData {
 	public Number get(int i, int j, int k, int l) {
 		Number val = 0;
 
-		if (vol2d == null && vol3d == null && vol4d == null) {
+		if (vol1d == null && vol2d == null && vol3d == null
+				&& vol4d == null) {
 			return null;
 		}
 		if (vol2d != null) {
@@ -397,6 +443,9 @@ public class ImageDataUByte extends ImageData {
 		if (vol3d != null) {
 			val = vol3d[i][j][k];
 		}
+		if (vol1d != null) {
+			val = vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			val = vol4d[i][j][k][l];
 		}
@@ -417,6 +466,9 @@ public class ImageDataUByte extends ImageData {
 	 */
 	@Override
 	public boolean getBoolean(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)] != 0;
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l] != 0;
 		}
@@ -452,6 +504,9 @@ public class ImageDataUByte extends ImageData {
 	 */
 	@Override
 	public byte getByte(int i, int j, int k, int l) {
+		if (vol1d != null) {
+			return vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			return vol4d[i][j][k][l];
 		}
@@ -474,7 +529,8 @@ public class ImageDataUByte extends ImageData {
 	public double getDouble(int i, int j, int k, int l) {
 		double val = 0;
 
-		if (vol2d == null && vol3d == null && vol4d == null) {
+		if (vol1d == null && vol2d == null && vol3d == null
+				&& vol4d == null) {
 			return Double.NaN;
 		}
 		if (vol2d != null) {
@@ -483,6 +539,9 @@ public class ImageDataUByte extends ImageData {
 		if (vol3d != null) {
 			val = vol3d[i][j][k];
 		}
+		if (vol1d != null) {
+			val = vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			val = vol4d[i][j][k][l];
 		}
@@ -547,7 +606,8 @@ public class ImageDataUByte extends ImageData {
 	public float getFloat(int i, int j, int k, int l) {
 		float val = 0;
 
-		if (vol2d == null && vol3d == null && vol4d == null) {
+		if (vol1d == null && vol2d == null && vol3d == null
+				&& vol4d == null) {
 			return Float.NaN;
 		}
 		if (vol2d != null) {
@@ -556,6 +616,9 @@ public class ImageDataUByte extends ImageData {
 		if (vol3d != null) {
 			val = vol3d[i][j][k];
 		}
+		if (vol1d != null) {
+			val = vol1d[getIndex(i, j, k, l)];
+		}
 		if (vol4d != null) {
 			val = vol4d[i][j][k][l];
 		}
@@ -578,7 +641,8 @@ public class ImageDataUByte extends ImageData {
 	 */
 	@Override
 	public boolean isNotAvailable() {
-		return (vol2d == null) && (vol3d == null) && (vol4d == null);
+		return (vol1d == null) && (vol2d == null) && (vol3d == null)
+				&& (vol4d == null);
 	}
 
 	/*
@@ -588,7 +652,13 @@ public class ImageDataUByte extends ImageData {
 	 */
 	@Override
 	public ImageDataUByte mimic() {
-		ImageDataUByte vol = new ImageDataUByte(rows, cols, slices, components);
+		ImageDataUByte vol;
+		if (vol1d != null) {
+			vol = new ImageDataUByte(new byte[vol1d.length], rows, cols, slices,
+					components);
+		} else {
+			vol = new ImageDataUByte(rows, cols, slices, components);
+		}
 		vol.setHeader(this.getHeader());
 		return vol;
 	}
@@ -601,7 +671,14 @@ public class ImageDataUByte extends ImageData {
 	 */
 	@Override
 	public ImageDataUByte mimic(int rows, int cols, int slices, int components) {
-		ImageDataUByte vol = new ImageDataUByte(rows, cols, slices, components);
+		ImageDataUByte vol;
+		if (vol1d != null) {
+			vol = new ImageDataUByte(new byte[rows * cols * Math.max(1, slices)
+					* Math.max(1, components)], rows, cols, slices,
+					components);
+		} else {
+			vol = new ImageDataUByte(rows, cols, slices, components);
+		}
 		vol.setHeader(this.getHeader());
 		return vol;
 	}
@@ -614,6 +691,9 @@ public class ImageDataUByte extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, boolean a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a ? (byte) 1 : (byte) 0;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a ? (byte) 1 : (byte) 0;
 		}
@@ -640,6 +720,9 @@ public class ImageDataUByte extends ImageData {
 	 *            the a
 	 */
 	public void set(int i, int j, int k, int l, byte a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = a;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = a;
 		}
@@ -659,6 +742,9 @@ public class ImageDataUByte extends ImageData {
 	 */
 	@Override
 	public void set(int i, int j, int k, int l, Color a) {
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = (byte) a.getRed();
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = (byte) a.getRed();
 		}
@@ -680,6 +766,9 @@ public class ImageDataUByte extends ImageData {
 	public void set(int i, int j, int k, int l, double a) {
 		a = (a > 255 ? 255 : a < 0 ? 0 : a);
 		byte ba = (byte) (a > 127 ? a - 256 : a);
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = ba;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = ba;
 		}
@@ -701,6 +790,9 @@ public class ImageDataUByte extends ImageData {
 	public void set(int i, int j, int k, int l, float a) {
 		a = (a > 255 ? 255 : a < 0 ? 0 : a);
 		byte ba = (byte) (a > 127 ? a - 256 : a);
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = ba;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = ba;
 		}
@@ -722,6 +814,9 @@ public class ImageDataUByte extends ImageData {
 	public void set(int i, int j, int k, int l, int a) {
 		a = (a > 255 ? 255 : a < 0 ? 0 : a);
 		byte ba = (byte) (a > 127 ? a - 256 : a);
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = ba;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = ba;
 		}
@@ -742,6 +837,9 @@ public class ImageDataUByte extends ImageData {
 		int a = av.intValue();
 		a = (a > 255 ? 255 : a < 0 ? 0 : a);
 		byte ba = (byte) (a > 127 ? a - 256 : a);
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = ba;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = ba;
 		}
@@ -763,6 +861,9 @@ public class ImageDataUByte extends ImageData {
 	public void set(int i, int j, int k, int l, short a) {
 		a = (a > 255 ? 255 : a < 0 ? 0 : a);
 		byte ba = (byte) (a > 127 ? a - 256 : a);
+		if (vol1d != null) {
+			vol1d[getIndex(i, j, k, l)] = ba;
+		}
 		if (vol4d != null) {
 			vol4d[i][j][k][l] = ba;
 		}
@@ -792,6 +893,7 @@ public class ImageDataUByte extends ImageData {
 	 * @return the byte[][]
 	 */
 	public byte[][] toArray2d() {
+		materialize();
 		return vol2d;
 	}
 
@@ -801,6 +903,7 @@ public class ImageDataUByte extends ImageData {
 	 * @return the byte[][][]
 	 */
 	public byte[][][] toArray3d() {
+		materialize();
 		return vol3d;
 	}
 
@@ -810,6 +913,127 @@ public class ImageDataUByte extends ImageData {
 	 * @return the byte[][][][]
 	 */
 	public byte[][][][] toArray4d() {
+		materialize();
 		return vol4d;
 	}
+
+	/**
+	 * Gets the index of a voxel in the flat array.
+	 * 
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @param l
+	 *            the l
+	 * @return the index
+	 */
+	public final int getIndex(int i, int j, int k, int l) {
+		return ((l * slices + k) * cols + j) * rows + i;
+	}
+
+	/**
+	 * Checks if the image is stored in a flat array.
+	 * 
+	 * @return true, if flat
+	 */
+	public boolean isFlat() {
+		return (vol1d != null);
+	}
+
+	/**
+	 * To array1d. Returns the flat array backing this image, or null if the
+	 * image is stored in nested arrays.
+	 * 
+	 * @return the byte[]
+	 */
+	public byte[] toArray1d() {
+		return vol1d;
+	}
+
+	/**
+	 * Copy the voxels into a buffer with rows varying fastest, followed by
+	 * columns, slices and components. Flat storage is copied with a single
+	 * bulk put.
+	 * 
+	 * @param buff
+	 *            the buffer
+	 */
+	public void toBuffer(ByteBuffer buff) {
+		if (vol1d != null) {
+			buff.put(vol1d, 0, rows * cols * slices * Math.max(1, components));
+		} else if (vol2d != null) {
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					buff.put(vol2d[i][j]);
+				}
+			}
+		} else if (vol3d != null) {
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						buff.put(vol3d[i][j][k]);
+					}
+				}
+			}
+		} else if (vol4d != null) {
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							buff.put(vol4d[i][j][k][l]);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy flat storage into nested arrays the first time they are
+	 * requested. The nested arrays then replace the flat array as the
+	 * storage of this image, so writes through either view stay consistent.
+	 */
+	protected synchronized void materialize() {
+		if (vol1d == null) {
+			return;
+		}
+		int index = 0;
+		if (components < 2) {
+			if (slices < 2) {
+				byte[][] vol = new byte[rows][cols];
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						vol[i][j] = vol1d[index++];
+					}
+				}
+				vol2d = vol;
+			} else {
+				byte[][][] vol = new byte[rows][cols][slices];
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							vol[i][j][k] = vol1d[index++];
+						}
+					}
+				}
+				vol3d = vol;
+			}
+		} else {
+			byte[][][][] vol = new byte[rows][cols][slices][components];
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							vol[i][j][k][l] = vol1d[index++];
+						}
+					}
+				}
+			}
+			vol4d = vol;
+		}
+		vol1d = null;
+	}
 }
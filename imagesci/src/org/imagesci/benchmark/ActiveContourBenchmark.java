@@ -0,0 +1,206 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Point3i;
+
+import org.imagesci.gac.WEGAC3D;
+import org.imagesci.mogac.WEMOGAC3D;
+import org.imagesci.springls.ActiveContour3D;
+import org.imagesci.springls.SpringlsActiveContour3D;
+import org.imagesci.utility.PhantomCube;
+import org.imagesci.utility.PhantomMetasphere;
+import org.imagesci.utility.RandomSphereCollection;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+
+/**
+ * Benchmarks a fixed number of evolution steps of an active contour running
+ * on the default CPU OpenCL device. Set up includes initialization of the
+ * device buffers, which is not timed.
+ */
+public class ActiveContourBenchmark extends Benchmark {
+
+	/**
+	 * The active contour implementation.
+	 */
+	public enum Method {
+
+		/** Work-efficient geodesic active contour. */
+		WEGAC3D,
+		/** Work-efficient multi-object geodesic active contour. */
+		WEMOGAC3D,
+		/** Spring level set active contour. */
+		SPRINGLS3D
+	}
+
+	/** The number of steps per timed invocation. */
+	protected int stepsPerRun;
+
+	/** The method. */
+	protected Method method;
+
+	/** The geodesic active contour. */
+	protected WEGAC3D gac;
+
+	/** The multi-object geodesic active contour. */
+	protected WEMOGAC3D mogac;
+
+	/** The spring level set active contour. */
+	protected SpringlsActiveContour3D springls;
+
+	/**
+	 * Instantiates a new active contour benchmark.
+	 * 
+	 * @param method
+	 *            the method
+	 * @param stepsPerRun
+	 *            the number of steps per timed invocation
+	 */
+	public ActiveContourBenchmark(Method method, int stepsPerRun) {
+		this.method = method;
+		this.stepsPerRun = stepsPerRun;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#getName()
+	 */
+	@Override
+	public String getName() {
+		String name = method + ".step[x" + stepsPerRun;
+		if (mogac != null && mogac.isJavaBackend()) {
+			name += ",java";
+		}
+		return name + "]";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#run()
+	 */
+	@Override
+	public void run() {
+		for (int n = 0; n < stepsPerRun; n++) {
+			switch (method) {
+			case WEGAC3D:
+				gac.step();
+				break;
+			case WEMOGAC3D:
+				mogac.step();
+				break;
+			case SPRINGLS3D:
+				springls.step();
+				break;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#setup(int)
+	 */
+	@Override
+	public void setup(int size) throws Exception {
+		super.setup(size);
+		Point3i dims = new Point3i(size, size, size);
+		PhantomMetasphere metasphere = createPhantom(size);
+		ImageDataFloat pressureImage = metasphere.getImage();
+		PhantomCube cube = new PhantomCube(dims);
+		cube.setCenter(new Point3d(0, 0, 0));
+		cube.setWidth(1.21);
+		cube.solve();
+		switch (method) {
+		case WEGAC3D:
+			gac = new WEGAC3D();
+			gac.setPressure(pressureImage, 0.5f);
+			gac.setReferenceImage(pressureImage);
+			gac.setInitialDistanceFieldImage(cube.getLevelset());
+			gac.setCurvatureWeight(0.5f);
+			gac.setTargetPressure(0.5f);
+			gac.setMaxIterations(Integer.MAX_VALUE);
+			gac.setClampSpeed(true);
+			gac.setAdaptiveConvergence(false);
+			gac.init();
+			break;
+		case WEMOGAC3D:
+			RandomSphereCollection spheres = new RandomSphereCollection(size,
+					size, size, 27, size / 8.5f);
+			mogac = new WEMOGAC3D(pressureImage);
+			mogac.setPressure(pressureImage, 0.5f);
+			mogac.setCurvatureWeight(1.0f);
+			mogac.setTargetPressure(0.5f);
+			mogac.setMaxIterations(Integer.MAX_VALUE);
+			mogac.setClampSpeed(true);
+			mogac.setPreserveTopology(false);
+			mogac.init(spheres.getDistanceField(), spheres.getLabelImage(),
+					false);
+			break;
+		case SPRINGLS3D:
+			springls = new SpringlsActiveContour3D();
+			springls.setTask(ActiveContour3D.Task.ACTIVE_CONTOUR);
+			springls.setPressureImage(pressureImage);
+			springls.setReferenceImage(pressureImage);
+			springls.setPreserveTopology(false);
+			springls.setTargetPressure(0.5f);
+			springls.setAdvectionWeight(0.0f);
+			springls.setCurvatureWeight(0.01f);
+			springls.setPressureWeight(1.0f);
+			springls.setResamplingInterval(5);
+			springls.setMaxIterations(Integer.MAX_VALUE);
+			springls.setInitialDistanceFieldImage(cube.getLevelset());
+			springls.setInitialSurface(cube.getSurface());
+			springls.init();
+			break;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#tearDown()
+	 */
+	@Override
+	public void tearDown() {
+		if (gac != null) {
+			gac.dispose();
+			gac = null;
+		}
+		if (mogac != null) {
+			mogac.dispose();
+			mogac = null;
+		}
+		if (springls != null) {
+			springls.dispose();
+			springls = null;
+		}
+	}
+}
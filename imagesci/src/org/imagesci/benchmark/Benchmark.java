@@ -0,0 +1,129 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import javax.vecmath.Point3i;
+
+import org.imagesci.utility.PhantomMetasphere;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+
+/**
+ * Base class for a micro-benchmark run by {@link BenchmarkRunner}. A benchmark
+ * is set up once per volume size, after which {@link #run()} is timed
+ * repeatedly. Results that would otherwise be dead code should be passed to
+ * {@link #consume(Object)}.
+ */
+public abstract class Benchmark {
+
+	/** Sink that keeps benchmark results reachable. */
+	private static volatile Object sink;
+
+	/** The volume size along each dimension. */
+	protected int size;
+
+	/**
+	 * Keep an object reachable so that the JIT cannot eliminate the work
+	 * that produced it.
+	 * 
+	 * @param obj
+	 *            the object
+	 */
+	protected static void consume(Object obj) {
+		sink = obj;
+	}
+
+	/**
+	 * Create a metasphere phantom of the given size.
+	 * 
+	 * @param size
+	 *            the size along each dimension
+	 * @return the phantom
+	 */
+	protected static PhantomMetasphere createPhantom(int size) {
+		PhantomMetasphere phantom = new PhantomMetasphere(new Point3i(size,
+				size, size));
+		phantom.setNoiseLevel(0.1);
+		phantom.setFuzziness(0.5f);
+		phantom.setInvertImage(true);
+		phantom.solve();
+		return phantom;
+	}
+
+	/**
+	 * Gets the benchmark name.
+	 * 
+	 * @return the name
+	 */
+	public abstract String getName();
+
+	/**
+	 * Gets the volume size.
+	 * 
+	 * @return the size
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Run one timed invocation.
+	 * 
+	 * @throws Exception
+	 *             if the benchmark fails
+	 */
+	public abstract void run() throws Exception;
+
+	/**
+	 * Prepare the input data for a volume size. Work done here is not timed.
+	 * 
+	 * @param size
+	 *            the size along each dimension
+	 * @throws Exception
+	 *             if the input could not be created
+	 */
+	public void setup(int size) throws Exception {
+		this.size = size;
+	}
+
+	/**
+	 * Release resources acquired in {@link #setup(int)}.
+	 */
+	public void tearDown() {
+	}
+
+	/**
+	 * Convenience method for benchmarks that need the phantom level set.
+	 * 
+	 * @param size
+	 *            the size along each dimension
+	 * @return the level set
+	 */
+	protected ImageDataFloat createLevelset(int size) {
+		return createPhantom(size).getLevelset();
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Timing statistics for one benchmark at one volume size.
+ */
+public class BenchmarkResult {
+
+	/** The CSV header matching {@link #toCSV()}. */
+	public static final String CSV_HEADER = "benchmark,size,mean_ms,stddev_ms,min_ms,median_ms,samples";
+
+	/** The benchmark name. */
+	protected String name;
+
+	/** The volume size. */
+	protected int size;
+
+	/** The measured times in milliseconds. */
+	protected double[] samples;
+
+	/**
+	 * Instantiates a new benchmark result.
+	 * 
+	 * @param name
+	 *            the benchmark name
+	 * @param size
+	 *            the volume size
+	 * @param samples
+	 *            the measured times in milliseconds
+	 */
+	public BenchmarkResult(String name, int size, double[] samples) {
+		this.name = name;
+		this.size = size;
+		this.samples = samples;
+	}
+
+	/**
+	 * Parse a result from a CSV line written by {@link #toCSV()}. Only the
+	 * summary statistics are recovered.
+	 * 
+	 * @param line
+	 *            the line
+	 * @return the result, or null if the line is not a result
+	 */
+	public static BenchmarkResult parseCSV(String line) {
+		String[] tokens = line.trim().split(",");
+		if (tokens.length < 3 || tokens[0].equals("benchmark")) {
+			return null;
+		}
+		try {
+			return new BenchmarkResult(tokens[0], Integer.parseInt(tokens[1]),
+					new double[] { Double.parseDouble(tokens[2]) });
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the key that identifies this benchmark and size.
+	 * 
+	 * @return the key
+	 */
+	public String getKey() {
+		return name + "@" + size;
+	}
+
+	/**
+	 * Gets the mean time.
+	 * 
+	 * @return the mean in milliseconds
+	 */
+	public double getMean() {
+		double sum = 0;
+		for (double s : samples) {
+			sum += s;
+		}
+		return (samples.length > 0) ? sum / samples.length : 0;
+	}
+
+	/**
+	 * Gets the median time.
+	 * 
+	 * @return the median in milliseconds
+	 */
+	public double getMedian() {
+		if (samples.length == 0) {
+			return 0;
+		}
+		double[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		int mid = sorted.length / 2;
+		return (sorted.length % 2 == 1) ? sorted[mid]
+				: 0.5 * (sorted[mid - 1] + sorted[mid]);
+	}
+
+	/**
+	 * Gets the minimum time.
+	 * 
+	 * @return the minimum in milliseconds
+	 */
+	public double getMin() {
+		double min = Double.MAX_VALUE;
+		for (double s : samples) {
+			min = Math.min(min, s);
+		}
+		return (samples.length > 0) ? min : 0;
+	}
+
+	/**
+	 * Gets the name.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the size.
+	 * 
+	 * @return the size
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the sample standard deviation.
+	 * 
+	 * @return the standard deviation in milliseconds
+	 */
+	public double getStdDev() {
+		if (samples.length < 2) {
+			return 0;
+		}
+		double mean = getMean();
+		double sum = 0;
+		for (double s : samples) {
+			sum += (s - mean) * (s - mean);
+		}
+		return Math.sqrt(sum / (samples.length - 1));
+	}
+
+	/**
+	 * Format as a CSV line.
+	 * 
+	 * @return the line
+	 */
+	public String toCSV() {
+		return String.format(Locale.US, "%s,%d,%.4f,%.4f,%.4f,%.4f,%d", name,
+				size, getMean(), getStdDev(), getMin(), getMedian(),
+				samples.length);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "%-56s %5d %12.3f %10.3f %12.3f",
+				name, size, getMean(), getStdDev(), getMin());
+	}
+}
@@ -0,0 +1,416 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.imagesci.utility.ImageResampler;
+import org.imagesci.utility.IsoSurfaceGenerator;
+
+/**
+ * Runs the segmentation and geometry benchmarks on synthetic phantoms and
+ * optionally compares the results against a baseline to detect regressions.
+ * Each benchmark is set up once per volume size, run for a number of warm-up
+ * invocations so the JIT can compile the hot paths, and then timed.
+ * 
+ * <pre>
+ * java org.imagesci.benchmark.BenchmarkRunner [-sizes 64,128,256]
+ *     [-warmup 3] [-iterations 5] [-filter regex] [-output results.csv]
+ *     [-baseline baseline.csv] [-tolerance 0.15]
+ * </pre>
+ * 
+ * The process exits with status 1 if any benchmark is slower than its
+ * baseline mean by more than the tolerance, or if a benchmark fails.
+ */
+public class BenchmarkRunner {
+
+	/** The number of warm-up invocations. */
+	protected int warmupIterations = 3;
+
+	/** The number of timed invocations. */
+	protected int measurementIterations = 5;
+
+	/** The volume sizes. */
+	protected int[] sizes = new int[] { 64, 128, 256 };
+
+	/** The benchmark name filter. */
+	protected Pattern filter = null;
+
+	/** The relative slowdown that counts as a regression. */
+	protected double tolerance = 0.15;
+
+	/** The benchmarks. */
+	protected List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+	/** The results. */
+	protected List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+
+	/** The number of failed benchmarks. */
+	protected int failures = 0;
+
+	/**
+	 * Instantiates a new benchmark runner.
+	 */
+	public BenchmarkRunner() {
+	}
+
+	/**
+	 * Create the default set of benchmarks.
+	 * 
+	 * @return the benchmarks
+	 */
+	public static List<Benchmark> createDefaultBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new DistanceFieldBenchmark(5, false));
+		benchmarks.add(new DistanceFieldBenchmark(5, true));
+		benchmarks.add(new GaussianFilterBenchmark(4, false));
+		benchmarks.add(new GaussianFilterBenchmark(4, true));
+		for (ImageResampler.Method method : ImageResampler.Method.values()) {
+			benchmarks.add(new ResampleBenchmark(method));
+		}
+		for (IsoSurfaceGenerator.Method method : IsoSurfaceGenerator.Method
+				.values()) {
+			benchmarks.add(new IsoSurfaceBenchmark(method, false));
+			benchmarks.add(new IsoSurfaceBenchmark(method, true));
+		}
+		benchmarks.add(new VolumeConnectedComponentBenchmark());
+		benchmarks.add(new SurfaceBenchmark(
+				SurfaceBenchmark.Operation.CONNECTED_COMPONENTS));
+		benchmarks.add(new SurfaceBenchmark(SurfaceBenchmark.Operation.NORMALS));
+		benchmarks.add(new SurfaceBenchmark(
+				SurfaceBenchmark.Operation.CENTER_OF_MASS));
+		benchmarks.add(new RoundTripBenchmark(RoundTripBenchmark.Format.NIFTI));
+		benchmarks.add(new RoundTripBenchmark(RoundTripBenchmark.Format.VTK));
+		benchmarks.add(new RoundTripBenchmark(
+				RoundTripBenchmark.Format.VTK_BINARY));
+		for (ActiveContourBenchmark.Method method : ActiveContourBenchmark.Method
+				.values()) {
+			benchmarks.add(new ActiveContourBenchmark(method, 10));
+		}
+		benchmarks.add(new SpringlsHashBenchmark(false));
+		benchmarks.add(new SpringlsHashBenchmark(true));
+		return benchmarks;
+	}
+
+	/**
+	 * Read baseline results from a CSV file.
+	 * 
+	 * @param f
+	 *            the file
+	 * @return the results, indexed by key
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static HashMap<String, BenchmarkResult> readResults(File f)
+			throws IOException {
+		HashMap<String, BenchmarkResult> baseline = new HashMap<String, BenchmarkResult>();
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				BenchmarkResult result = BenchmarkResult.parseCSV(line);
+				if (result != null) {
+					baseline.put(result.getKey(), result);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return baseline;
+	}
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args
+	 *            the arguments
+	 */
+	public static void main(String[] args) {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		File output = null;
+		File baseline = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (i + 1 >= args.length) {
+				printUsage();
+				System.exit(2);
+			}
+			String val = args[++i];
+			if (arg.equalsIgnoreCase("-sizes")) {
+				String[] tokens = val.split(",");
+				int[] sizes = new int[tokens.length];
+				for (int n = 0; n < tokens.length; n++) {
+					sizes[n] = Integer.parseInt(tokens[n].trim());
+				}
+				runner.setSizes(sizes);
+			} else if (arg.equalsIgnoreCase("-warmup")) {
+				runner.setWarmupIterations(Integer.parseInt(val));
+			} else if (arg.equalsIgnoreCase("-iterations")) {
+				runner.setMeasurementIterations(Integer.parseInt(val));
+			} else if (arg.equalsIgnoreCase("-filter")) {
+				runner.setFilter(val);
+			} else if (arg.equalsIgnoreCase("-output")) {
+				output = new File(val);
+			} else if (arg.equalsIgnoreCase("-baseline")) {
+				baseline = new File(val);
+			} else if (arg.equalsIgnoreCase("-tolerance")) {
+				runner.setTolerance(Double.parseDouble(val));
+			} else {
+				printUsage();
+				System.exit(2);
+			}
+		}
+		runner.getBenchmarks().addAll(createDefaultBenchmarks());
+		runner.runAll();
+		int status = (runner.getFailures() > 0) ? 1 : 0;
+		try {
+			if (output != null) {
+				runner.writeResults(output);
+			}
+			if (baseline != null) {
+				if (runner.compare(readResults(baseline)) > 0) {
+					status = 1;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			status = 1;
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * Prints the usage.
+	 */
+	protected static void printUsage() {
+		System.err
+				.println("Usage: BenchmarkRunner [-sizes 64,128,256] [-warmup n] [-iterations n] "
+						+ "[-filter regex] [-output file.csv] [-baseline file.csv] [-tolerance 0.15]");
+	}
+
+	/**
+	 * Compare the results against a baseline and report regressions.
+	 * 
+	 * @param baseline
+	 *            the baseline results, indexed by key
+	 * @return the number of regressions
+	 */
+	public int compare(HashMap<String, BenchmarkResult> baseline) {
+		int regressions = 0;
+		System.out.println();
+		System.out.printf(Locale.US, "%-56s %5s %12s %12s %8s\n", "Benchmark",
+				"Size", "Baseline(ms)", "Current(ms)", "Change");
+		for (BenchmarkResult result : results) {
+			BenchmarkResult base = baseline.get(result.getKey());
+			if (base == null || base.getMean() <= 0) {
+				continue;
+			}
+			double change = result.getMean() / base.getMean() - 1;
+			boolean regression = (change > tolerance);
+			if (regression) {
+				regressions++;
+			}
+			System.out.printf(Locale.US, "%-56s %5d %12.3f %12.3f %+7.1f%%%s\n",
+					result.getName(), result.getSize(), base.getMean(),
+					result.getMean(), 100 * change, (regression) ? " REGRESSION"
+							: "");
+		}
+		return regressions;
+	}
+
+	/**
+	 * Gets the benchmarks.
+	 * 
+	 * @return the benchmarks
+	 */
+	public List<Benchmark> getBenchmarks() {
+		return benchmarks;
+	}
+
+	/**
+	 * Gets the number of failed benchmarks.
+	 * 
+	 * @return the failures
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Gets the results.
+	 * 
+	 * @return the results
+	 */
+	public List<BenchmarkResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * Run a benchmark at one size.
+	 * 
+	 * @param benchmark
+	 *            the benchmark
+	 * @param size
+	 *            the size
+	 * @return the result, or null if the benchmark could not be set up
+	 * @throws Exception
+	 *             if the benchmark failed while running
+	 */
+	public BenchmarkResult run(Benchmark benchmark, int size) throws Exception {
+		try {
+			benchmark.setup(size);
+		} catch (Throwable e) {
+			System.err.printf("%-56s %5d skipped: %s\n", benchmark.getName(),
+					size, e.toString());
+			benchmark.tearDown();
+			return null;
+		}
+		String name = benchmark.getName();
+		try {
+			for (int n = 0; n < warmupIterations; n++) {
+				benchmark.run();
+			}
+			double[] samples = new double[measurementIterations];
+			for (int n = 0; n < measurementIterations; n++) {
+				long startTime = System.nanoTime();
+				benchmark.run();
+				samples[n] = 1E-6 * (System.nanoTime() - startTime);
+			}
+			return new BenchmarkResult(name, size, samples);
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Run all benchmarks that match the filter at all sizes.
+	 */
+	public void runAll() {
+		System.out.printf(Locale.US, "%-56s %5s %12s %10s %12s\n", "Benchmark",
+				"Size", "Mean(ms)", "StdDev", "Min(ms)");
+		for (Benchmark benchmark : benchmarks) {
+			if (filter != null && !filter.matcher(benchmark.getName()).find()) {
+				continue;
+			}
+			for (int size : sizes) {
+				try {
+					BenchmarkResult result = run(benchmark, size);
+					if (result != null) {
+						results.add(result);
+						System.out.println(result);
+					}
+				} catch (Throwable e) {
+					failures++;
+					System.err.printf("%-56s %5d failed: %s\n",
+							benchmark.getName(), size, e.toString());
+					e.printStackTrace();
+				}
+				System.gc();
+			}
+		}
+	}
+
+	/**
+	 * Sets the benchmark name filter.
+	 * 
+	 * @param regex
+	 *            the regular expression
+	 */
+	public void setFilter(String regex) {
+		this.filter = (regex != null) ? Pattern.compile(regex) : null;
+	}
+
+	/**
+	 * Sets the number of timed invocations.
+	 * 
+	 * @param iterations
+	 *            the iterations
+	 */
+	public void setMeasurementIterations(int iterations) {
+		this.measurementIterations = Math.max(1, iterations);
+	}
+
+	/**
+	 * Sets the volume sizes.
+	 * 
+	 * @param sizes
+	 *            the sizes
+	 */
+	public void setSizes(int[] sizes) {
+		this.sizes = sizes;
+	}
+
+	/**
+	 * Sets the relative slowdown that counts as a regression.
+	 * 
+	 * @param tolerance
+	 *            the tolerance
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Sets the number of warm-up invocations.
+	 * 
+	 * @param iterations
+	 *            the iterations
+	 */
+	public void setWarmupIterations(int iterations) {
+		this.warmupIterations = Math.max(0, iterations);
+	}
+
+	/**
+	 * Write the results to a CSV file.
+	 * 
+	 * @param f
+	 *            the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void writeResults(File f) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(f));
+		try {
+			out.println(BenchmarkResult.CSV_HEADER);
+			for (BenchmarkResult result : results) {
+				out.println(result.toCSV());
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import org.imagesci.gac.DistanceField;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+
+/**
+ * Benchmarks {@link DistanceField#solve(ImageDataFloat, double)} on a
+ * metasphere level set.
+ */
+public class DistanceFieldBenchmark extends Benchmark {
+
+	/** The level set. */
+	protected ImageDataFloat levelset;
+
+	/** The maximum distance. */
+	protected double maxDistance;
+
+	/** Whether to use the parallel fast sweeping solver. */
+	protected boolean parallel;
+
+	/**
+	 * Instantiates a new distance field benchmark.
+	 * 
+	 * @param maxDistance
+	 *            the maximum distance
+	 * @param parallel
+	 *            whether to use the parallel solver
+	 */
+	public DistanceFieldBenchmark(double maxDistance, boolean parallel) {
+		this.maxDistance = maxDistance;
+		this.parallel = parallel;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#getName()
+	 */
+	@Override
+	public String getName() {
+		return "DistanceField.solve" + ((parallel) ? "[parallel]" : "");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#run()
+	 */
+	@Override
+	public void run() {
+		DistanceField df = new DistanceField();
+		df.setParallel(parallel);
+		consume(df.solve(levelset, maxDistance));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#setup(int)
+	 */
+	@Override
+	public void setup(int size) throws Exception {
+		super.setup(size);
+		levelset = createLevelset(size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#tearDown()
+	 */
+	@Override
+	public void tearDown() {
+		levelset = null;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import org.imagesci.utility.DataOperations;
+import org.imagesci.utility.RecursiveGaussianFilter;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+
+/**
+ * Benchmarks Gaussian smoothing of a metasphere level set with either
+ * {@link RecursiveGaussianFilter} or the heat equation iterations in
+ * {@link DataOperations#blur(float[][][], double)}.
+ */
+public class GaussianFilterBenchmark extends Benchmark {
+
+	/** The level set. */
+	protected ImageDataFloat levelset;
+
+	/** The standard deviation. */
+	protected double sigma;
+
+	/** Whether to use the recursive filter. */
+	protected boolean recursive;
+
+	/**
+	 * Instantiates a new Gaussian filter benchmark.
+	 * 
+	 * @param sigma
+	 *            the standard deviation in voxels
+	 * @param recursive
+	 *            whether to use the recursive filter
+	 */
+	public GaussianFilterBenchmark(double sigma, boolean recursive) {
+		this.sigma = sigma;
+		this.recursive = recursive;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#getName()
+	 */
+	@Override
+	public String getName() {
+		return ((recursive) ? "RecursiveGaussianFilter.solve"
+				: "DataOperations.blur") + "[" + sigma + "]";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#run()
+	 */
+	@Override
+	public void run() {
+		if (recursive) {
+			consume(new RecursiveGaussianFilter(sigma).solve(levelset));
+		} else {
+			consume(new ImageDataFloat(DataOperations.blur(
+					levelset.toArray3d(), sigma)));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#setup(int)
+	 */
+	@Override
+	public void setup(int size) throws Exception {
+		super.setup(size);
+		levelset = createLevelset(size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#tearDown()
+	 */
+	@Override
+	public void tearDown() {
+		levelset = null;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import org.imagesci.utility.IsoSurfaceGenerator;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+
+/**
+ * Benchmarks {@link IsoSurfaceGenerator#solve(ImageDataFloat, float)} for one
+ * extraction method.
+ */
+public class IsoSurfaceBenchmark extends Benchmark {
+
+	/** The level set. */
+	protected ImageDataFloat levelset;
+
+	/** The extraction method. */
+	protected IsoSurfaceGenerator.Method method;
+
+	/** Whether to extract slabs in parallel. */
+	protected boolean parallel;
+
+	/**
+	 * Instantiates a new iso-surface benchmark.
+	 * 
+	 * @param method
+	 *            the extraction method
+	 * @param parallel
+	 *            whether to extract slabs in parallel
+	 */
+	public IsoSurfaceBenchmark(IsoSurfaceGenerator.Method method,
+			boolean parallel) {
+		this.method = method;
+		this.parallel = parallel;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#getName()
+	 */
+	@Override
+	public String getName() {
+		return "IsoSurfaceGenerator.solve[" + method
+				+ ((parallel) ? ",parallel" : "") + "]";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#run()
+	 */
+	@Override
+	public void run() {
+		IsoSurfaceGenerator isosurf = new IsoSurfaceGenerator();
+		isosurf.setMethod(method);
+		isosurf.setParallel(parallel);
+		consume(isosurf.solve(levelset, 0));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#setup(int)
+	 */
+	@Override
+	public void setup(int size) throws Exception {
+		super.setup(size);
+		levelset = createLevelset(size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#tearDown()
+	 */
+	@Override
+	public void tearDown() {
+		levelset = null;
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.imagesci.utility.PhantomMetasphere;
+
+import edu.jhu.ece.iacl.jist.io.NIFTIReaderWriter;
+import edu.jhu.ece.iacl.jist.io.SurfaceVtkReaderWriter;
+import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface;
+import edu.jhu.ece.iacl.jist.structures.image.ImageData;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+
+/**
+ * Benchmarks writing a file and reading it back, using a temporary file.
+ */
+public class RoundTripBenchmark extends Benchmark {
+
+	/**
+	 * The file format.
+	 */
+	public enum Format {
+
+		/** NIfTI image of the metasphere. */
+		NIFTI,
+		/** ASCII VTK surface of the metasphere. */
+		VTK,
+		/** BINARY VTK surface of the metasphere. */
+		VTK_BINARY
+	}
+
+	/** The format. */
+	protected Format format;
+
+	/** The image. */
+	protected ImageDataFloat image;
+
+	/** The surface. */
+	protected EmbeddedSurface surf;
+
+	/** The surface reader writer. */
+	protected SurfaceVtkReaderWriter vtkReaderWriter;
+
+	/** The temporary file. */
+	protected File file;
+
+	/**
+	 * Instantiates a new round trip benchmark.
+	 * 
+	 * @param format
+	 *            the file format
+	 */
+	public RoundTripBenchmark(Format format) {
+		this.format = format;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#getName()
+	 */
+	@Override
+	public String getName() {
+		switch (format) {
+		case NIFTI:
+			return "NIFTIReaderWriter.roundTrip";
+		case VTK_BINARY:
+			return "SurfaceVtkReaderWriter.roundTripBinary";
+		case VTK:
+		default:
+			return "SurfaceVtkReaderWriter.roundTrip";
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#run()
+	 */
+	@Override
+	public void run() throws IOException {
+		switch (format) {
+		case NIFTI:
+			if (NIFTIReaderWriter.getInstance().write(image, file) == null) {
+				throw new IOException("Could not write " + file);
+			}
+			ImageData img = NIFTIReaderWriter.getInstance().read(file);
+			if (img == null) {
+				throw new IOException("Could not read " + file);
+			}
+			consume(img);
+			break;
+		case VTK:
+		case VTK_BINARY:
+			if (vtkReaderWriter.write(surf, file) == null) {
+				throw new IOException("Could not write " + file);
+			}
+			EmbeddedSurface mesh = vtkReaderWriter.read(file);
+			if (mesh == null) {
+				throw new IOException("Could not read " + file);
+			}
+			consume(mesh);
+			break;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#setup(int)
+	 */
+	@Override
+	public void setup(int size) throws Exception {
+		super.setup(size);
+		PhantomMetasphere phantom = createPhantom(size);
+		switch (format) {
+		case NIFTI:
+			image = phantom.getImage();
+			image.setName("benchmark");
+			file = File.createTempFile("benchmark", ".nii");
+			break;
+		case VTK:
+		case VTK_BINARY:
+			vtkReaderWriter = new SurfaceVtkReaderWriter();
+			vtkReaderWriter.setBinary(format == Format.VTK_BINARY);
+			surf = phantom.getSurface();
+			surf.setName("benchmark");
+			file = File.createTempFile("benchmark", ".vtk");
+			break;
+		}
+		file.deleteOnExit();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#tearDown()
+	 */
+	@Override
+	public void tearDown() {
+		if (file != null) {
+			file.delete();
+		}
+		file = null;
+		image = null;
+		surf = null;
+	}
+}
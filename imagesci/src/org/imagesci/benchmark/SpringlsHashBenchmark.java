@@ -0,0 +1,118 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Point3i;
+
+import org.imagesci.springls.ActiveContour3D;
+import org.imagesci.springls.SpringlsActiveContour3D;
+import org.imagesci.springls.SpringlsSpatialHash3D;
+import org.imagesci.utility.PhantomCube;
+
+/**
+ * Benchmarks the springls spatial hash, nearest neighbor and unsigned level
+ * set updates, either with the OpenCL kernels on the default CPU OpenCL device
+ * or with the Java kernels. Set up initializes a springls active contour on a
+ * cube phantom, which is not timed.
+ */
+public class SpringlsHashBenchmark extends Benchmark {
+
+	/** Use the Java kernels. */
+	protected boolean javaBackend;
+
+	/** The spring level set active contour. */
+	protected SpringlsActiveContour3D springls;
+
+	/**
+	 * Instantiates a new springls hash benchmark.
+	 * 
+	 * @param javaBackend
+	 *            use the Java kernels
+	 */
+	public SpringlsHashBenchmark(boolean javaBackend) {
+		this.javaBackend = javaBackend;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#getName()
+	 */
+	@Override
+	public String getName() {
+		return "SpringlsHash3D[" + (javaBackend ? "java" : "cl") + "]";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#run()
+	 */
+	@Override
+	public void run() {
+		SpringlsSpatialHash3D hash = springls.getSpatialHash();
+		hash.updateSpatialHash();
+		hash.updateNearestNeighbors();
+		hash.updateUnsignedLevelSet();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#setup(int)
+	 */
+	@Override
+	public void setup(int size) throws Exception {
+		super.setup(size);
+		PhantomCube cube = new PhantomCube(new Point3i(size, size, size));
+		cube.setCenter(new Point3d(0, 0, 0));
+		cube.setWidth(1.21);
+		cube.solve();
+		springls = new SpringlsActiveContour3D();
+		springls.setTask(ActiveContour3D.Task.ACTIVE_CONTOUR);
+		springls.setPreserveTopology(false);
+		springls.setMaxIterations(Integer.MAX_VALUE);
+		springls.setInitialDistanceFieldImage(cube.getLevelset());
+		springls.setInitialSurface(cube.getSurface());
+		springls.setJavaSpatialHash(javaBackend);
+		springls.init();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#tearDown()
+	 */
+	@Override
+	public void tearDown() {
+		if (springls != null) {
+			springls.dispose();
+			springls = null;
+		}
+	}
+}
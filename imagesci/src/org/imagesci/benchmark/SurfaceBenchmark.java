@@ -0,0 +1,126 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.benchmark;
+
+import org.imagesci.utility.SurfaceConnectedComponent;
+
+import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface;
+
+/**
+ * Benchmarks per-surface operations on the metasphere iso-surface.
+ */
+public class SurfaceBenchmark extends Benchmark {
+
+	/**
+	 * The surface operation.
+	 */
+	public enum Operation {
+
+		/** {@link EmbeddedSurface#computeNormals()}. */
+		NORMALS,
+		/** {@link EmbeddedSurface#getCenterOfMass()}. */
+		CENTER_OF_MASS,
+		/** {@link SurfaceConnectedComponent#labelComponents(EmbeddedSurface)}. */
+		CONNECTED_COMPONENTS
+	}
+
+	/** The operation. */
+	protected Operation operation;
+
+	/** The surface. */
+	protected EmbeddedSurface surf;
+
+	/**
+	 * Instantiates a new surface benchmark.
+	 * 
+	 * @param operation
+	 *            the operation
+	 */
+	public SurfaceBenchmark(Operation operation) {
+		this.operation = operation;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#getName()
+	 */
+	@Override
+	public String getName() {
+		switch (operation) {
+		case NORMALS:
+			return "EmbeddedSurface.computeNormals";
+		case CENTER_OF_MASS:
+			return "EmbeddedSurface.getCenterOfMass";
+		case CONNECTED_COMPONENTS:
+		default:
+			return "SurfaceConnectedComponent.labelComponents";
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#run()
+	 */
+	@Override
+	public void run() {
+		switch (operation) {
+		case NORMALS:
+			surf.computeNormals();
+			consume(surf.getNormal(0));
+			break;
+		case CENTER_OF_MASS:
+			consume(surf.getCenterOfMass());
+			break;
+		case CONNECTED_COMPONENTS:
+			consume(SurfaceConnectedComponent.labelComponents(surf));
+			break;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#setup(int)
+	 */
+	@Override
+	public void setup(int size) throws Exception {
+		super.setup(size);
+		surf = createPhantom(size).getSurface();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.benchmark.Benchmark#tearDown()
+	 */
+	@Override
+	public void tearDown() {
+		surf = null;
+	}
+}
@@ -26,18 +26,19 @@
  */
 package org.imagesci.gac;
 
+import org.imagesci.utility.ParallelUtil;
+
 import edu.jhu.ece.iacl.jist.pipeline.AbstractCalculation;
-import edu.jhu.ece.iacl.jist.structures.data.BinaryMinHeap;
+import edu.jhu.ece.iacl.jist.structures.data.BinaryMinFloatHeap;
 import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
-import edu.jhu.ece.iacl.jist.structures.image.ImageDataUByte;
-import edu.jhu.ece.iacl.jist.structures.image.MaskVolume6;
-import edu.jhu.ece.iacl.jist.structures.image.VoxelFloat;
-import edu.jhu.ece.iacl.jist.structures.image.VoxelIndexed;
 import edu.jhu.ece.iacl.jist.utility.VersionUtil;
 
 // TODO: Auto-generated Javadoc
 /**
- * Calculate distance field using Fast-marching method.
+ * Calculate distance field using Fast-marching method. The narrow band is
+ * stored in an indexed heap of primitive voxel indexes and keys. The parallel
+ * mode replaces fast marching with fast sweeping, where voxels on the same
+ * diagonal plane of a sweep are updated concurrently.
  * 
  * @author Blake Lucas
  */
@@ -55,12 +56,24 @@ public class DistanceField extends AbstractCalculation {
 	/** The Constant ISFij. */
 	private static final double ISFij = 1.0f;
 
+	/** The Constant MAX_SWEEP_ITERATIONS. */
+	private static final int MAX_SWEEP_ITERATIONS = 32;
+
 	/** The Constant NBAND. */
 	private static final byte NBAND = 2;
 
+	/** The Constant SWEEP_TOLERANCE. */
+	private static final float SWEEP_TOLERANCE = 1E-5f;
+
 	/** The Constant sdf. */
 	private static final DistanceField sdf = new DistanceField();
 
+	/** Use parallel fast sweeping instead of fast marching. */
+	protected boolean parallel = false;
+
+	/** The slices. */
+	protected int rows, cols, slices;
+
 	/**
 	 * Instantiates a new distance field.
 	 */
@@ -80,6 +93,41 @@ public class DistanceField extends AbstractCalculation {
 		setLabel("Fast-Marching Distance");
 	}
 
+	/**
+	 * Sets the parallel flag. When enabled the distance field is computed with
+	 * fast sweeping on all cores instead of serial fast marching.
+	 * 
+	 * @param parallel
+	 *            the new parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Checks if the distance field is computed in parallel.
+	 * 
+	 * @return true, if parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Gets the index.
+	 * 
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @return the index
+	 */
+	protected final int getIndex(int i, int j, int k) {
+		return (k * rows * cols) + (j * rows) + i;
+	}
+
 	/**
 	 * Solve.
 	 * 
@@ -91,258 +139,239 @@ public class DistanceField extends AbstractCalculation {
 	 */
 	public ImageDataFloat solve(ImageDataFloat vol, double maxDistance) {
 		String name = vol.getName();
-		int XN = vol.getRows();
-		int YN = vol.getCols();
-		int ZN = vol.getSlices();
-		int LX, HX, LY, HY, LZ, HZ;
-		short NSFlag, WEFlag, FBFlag;
-		int i, j, k, koff;
-		int nj, nk, ni;
-		double newvalue;
-		double s = 0, t = 0, w = 0;
-		double result;
-
-		MaskVolume6 mask = new MaskVolume6();
-		byte[] neighborsX = mask.getNeighborsX();
-		byte[] neighborsY = mask.getNeighborsY();
-		byte[] neighborsZ = mask.getNeighborsZ();
-		VoxelIndexed<VoxelFloat> he;
-		double Nv = 0, Sv = 0, Wv = 0, Ev = 0, Fv = 0, Bv = 0, Cv = 0; /*
-																		 * Value
-																		 * at
-																		 * six
-																		 * neighours
-																		 * of a
-																		 * pixel
-																		 */
-		int Nl, Sl, Wl, El, Fl, Bl; /* Label at six neighours of a pixel */
+		rows = vol.getRows();
+		cols = vol.getCols();
+		slices = vol.getSlices();
 		setLabel("Fast-Marching Distance Field");
-		setTotalUnits(ZN * 2);
-		ImageDataFloat distVol = new ImageDataFloat(XN, YN, ZN);
-		float[][][] distVolM = distVol.toArray3d();
-		ImageDataUByte labelVol = new ImageDataUByte(XN, YN, ZN);
-		byte[][][] labelVolM = labelVol.toArray3d();
-		float[][][] volM = vol.toArray3d();
-		// Initially label all points as far away
-		for (i = 0; i < XN; i++) {
-			for (j = 0; j < YN; j++) {
-				for (k = 0; k < ZN; k++) {
-					labelVolM[i][j][k] = (FARAWAY);
+		setTotalUnits(slices * 2);
+		ImageDataFloat distVol = new ImageDataFloat(rows, cols, slices);
+		final float[][][] distVolM = distVol.toArray3d();
+		final float[][][] volM = vol.toArray3d();
+		final float[] levelset = new float[rows * cols * slices];
+		final float[] dist = new float[rows * cols * slices];
+		final byte[] labels = new byte[rows * cols * slices];
+		ParallelUtil.forRange(0, slices, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int k = start; k < end; k++) {
+					int index = getIndex(0, 0, k);
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							levelset[index++] = volM[i][j][k];
+						}
+					}
 				}
 			}
-		}
-		int countAlive = 0;
+		});
 		// Initialize points just inside the boundary
-		for (k = 0; k < ZN; k++) {
-
-			incrementCompletedUnits();
-			for (j = 0; j < YN; j++) {
-				for (i = 0; i < XN; i++) {
-					// If level set is exactly zero, then label point alive and
-					// set distance to zero
-					if (volM[i][j][k] == 0) {
-						distVolM[i][j][k] = (0);
-						labelVolM[i][j][k] = (ALIVE);
-						countAlive++;
-					} else {
-						// Locate lower and upper neighbors
-						LX = (i == 0) ? 1 : 0;
-						HX = (i == (XN - 1)) ? 1 : 0;
-
-						LY = (j == 0) ? 1 : 0;
-						HY = (j == (YN - 1)) ? 1 : 0;
-
-						LZ = (k == 0) ? 1 : 0;
-						HZ = (k == (ZN - 1)) ? 1 : 0;
-
-						NSFlag = 0;
-						WEFlag = 0;
-						FBFlag = 0;
-
-						Nv = volM[i][j - 1 + LY][k];
-						Sv = volM[i][j + 1 - HY][k];
-						Wv = volM[i - 1 + LX][j][k];
-						Ev = volM[i + 1 - HX][j][k];
-						Fv = volM[i][j][k + 1 - HZ];
-						Bv = volM[i][j][k - 1 + LZ];
-						Cv = volM[i][j][k];
-						// Check if the current sign is the same as the north
-						// sign
-						if (Nv * Cv < 0) {
-							NSFlag = 1;
-							s = Nv;
-						}
-						// Check if the current sign is the same as the south
-						// sign
-						if (Sv * Cv < 0) {
-							if (NSFlag == 0) {
-								NSFlag = 1;
-								s = Sv;
-							} else {
-								s = (Math.abs(Nv) > Math.abs(Sv)) ? Nv : Sv;
-							}
-						}
-						// Check if the current sign is the same as the west
-						// sign
-						if (Wv * Cv < 0) {
-							WEFlag = 1;
-							t = Wv;
-						}
-						// Check if the current sign is the same as the east
-						// sign
-						if (Ev * Cv < 0) {
-							if (WEFlag == 0) {
-								WEFlag = 1;
-								t = Ev;
-							} else {
-								t = (Math.abs(Ev) > Math.abs(Wv)) ? Ev : Wv;
-							}
-						}
-						// Check if the current sign is the same as the forward
-						// sign
-						if (Fv * Cv < 0) {
-							FBFlag = 1;
-							w = Fv;
-						}
-						// Check if the current sign is the same as the backward
-						// sign
-						if (Bv * Cv < 0) {
-							if (FBFlag == 0) {
-								FBFlag = 1;
-								w = Bv;
-							} else {
-								w = (Math.abs(Fv) > Math.abs(Bv)) ? Fv : Bv;
+		ParallelUtil.forRange(0, slices, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int k = start; k < end; k++) {
+					initializeSlice(levelset, dist, labels, k);
+					synchronized (DistanceField.this) {
+						incrementCompletedUnits();
+					}
+				}
+			}
+		});
+		if (parallel) {
+			sweep(dist, labels, (float) maxDistance);
+		} else {
+			march(dist, labels, (float) maxDistance);
+		}
+		/* Add signs to the unsigned distance function */
+		final float maxDist = (float) maxDistance;
+		final boolean sweep = parallel;
+		ParallelUtil.forRange(0, slices, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int k = start; k < end; k++) {
+					int index = getIndex(0, 0, k);
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							float d = dist[index];
+							if ((sweep) ? d > maxDist
+									: labels[index] != ALIVE) {
+								d = maxDist;
 							}
+							distVolM[i][j][k] = (levelset[index] < 0) ? -d : d;
+							index++;
 						}
-
-						result = 0;
-						if (NSFlag != 0) {
-							s = Cv / (Cv - s);
-							result += 1.0 / (s * s);
-						}
-						if (WEFlag != 0) {
-							t = Cv / (Cv - t);
-							result += 1.0 / (t * t);
-						}
-						if (FBFlag != 0) {
-							w = Cv / (Cv - w);
-							result += 1.0 / (w * w);
-						}
-						if (result == 0) {
-							continue;
-						}
-						/*
-						 * if(count++<100){
-						 * System.out.println("jist.plugins"+"\t"+"ALIVE1
-						 * ("+i+","+j+","+k+") "+result);
-						 * System.out.println("jist.plugins"
-						 * +"\t"+Sv+" "+Wv+" "+Ev+" "+Fv+" "+Bv+" "+Cv); }
-						 */
-						countAlive++;
-						labelVolM[i][j][k] = (ALIVE);
-						result = Math.sqrt(result);
-						distVolM[i][j][k] = (float) (IFij / result);
 					}
+				}
+			}
+		});
+		this.markCompleted();
+		distVol.setName(name);
+		distVol.setHeader(vol.getHeader());
+		return distVol;
+	}
 
+	/**
+	 * Initialize the distance of voxels adjacent to the zero level set for
+	 * one slice.
+	 * 
+	 * @param levelset
+	 *            the level set
+	 * @param dist
+	 *            the distance field
+	 * @param labels
+	 *            the labels
+	 * @param k
+	 *            the slice
+	 */
+	private void initializeSlice(float[] levelset, float[] dist,
+			byte[] labels, int k) {
+		int LX, HX, LY, HY, LZ, HZ;
+		short NSFlag, WEFlag, FBFlag;
+		double s = 0, t = 0, w = 0;
+		double result;
+		double Nv, Sv, Wv, Ev, Fv, Bv, Cv;
+		int index = getIndex(0, 0, k);
+		for (int j = 0; j < cols; j++) {
+			for (int i = 0; i < rows; i++, index++) {
+				labels[index] = FARAWAY;
+				// If level set is exactly zero, then label point alive and
+				// set distance to zero
+				if (levelset[index] == 0) {
+					dist[index] = 0;
+					labels[index] = ALIVE;
+					continue;
+				}
+				// Locate lower and upper neighbors
+				LX = (i == 0) ? 1 : 0;
+				HX = (i == (rows - 1)) ? 1 : 0;
+				LY = (j == 0) ? 1 : 0;
+				HY = (j == (cols - 1)) ? 1 : 0;
+				LZ = (k == 0) ? 1 : 0;
+				HZ = (k == (slices - 1)) ? 1 : 0;
+				NSFlag = 0;
+				WEFlag = 0;
+				FBFlag = 0;
+				Nv = levelset[getIndex(i, j - 1 + LY, k)];
+				Sv = levelset[getIndex(i, j + 1 - HY, k)];
+				Wv = levelset[getIndex(i - 1 + LX, j, k)];
+				Ev = levelset[getIndex(i + 1 - HX, j, k)];
+				Fv = levelset[getIndex(i, j, k + 1 - HZ)];
+				Bv = levelset[getIndex(i, j, k - 1 + LZ)];
+				Cv = levelset[index];
+				// Check if the current sign is the same as the north sign
+				if (Nv * Cv < 0) {
+					NSFlag = 1;
+					s = Nv;
+				}
+				// Check if the current sign is the same as the south sign
+				if (Sv * Cv < 0) {
+					if (NSFlag == 0) {
+						NSFlag = 1;
+						s = Sv;
+					} else {
+						s = (Math.abs(Nv) > Math.abs(Sv)) ? Nv : Sv;
+					}
+				}
+				// Check if the current sign is the same as the west sign
+				if (Wv * Cv < 0) {
+					WEFlag = 1;
+					t = Wv;
+				}
+				// Check if the current sign is the same as the east sign
+				if (Ev * Cv < 0) {
+					if (WEFlag == 0) {
+						WEFlag = 1;
+						t = Ev;
+					} else {
+						t = (Math.abs(Ev) > Math.abs(Wv)) ? Ev : Wv;
+					}
+				}
+				// Check if the current sign is the same as the forward sign
+				if (Fv * Cv < 0) {
+					FBFlag = 1;
+					w = Fv;
+				}
+				// Check if the current sign is the same as the backward sign
+				if (Bv * Cv < 0) {
+					if (FBFlag == 0) {
+						FBFlag = 1;
+						w = Bv;
+					} else {
+						w = (Math.abs(Fv) > Math.abs(Bv)) ? Fv : Bv;
+					}
+				}
+				result = 0;
+				if (NSFlag != 0) {
+					s = Cv / (Cv - s);
+					result += 1.0 / (s * s);
 				}
+				if (WEFlag != 0) {
+					t = Cv / (Cv - t);
+					result += 1.0 / (t * t);
+				}
+				if (FBFlag != 0) {
+					w = Cv / (Cv - w);
+					result += 1.0 / (w * w);
+				}
+				if (result == 0) {
+					dist[index] = Float.MAX_VALUE;
+					continue;
+				}
+				labels[index] = ALIVE;
+				result = Math.sqrt(result);
+				dist[index] = (float) (IFij / result);
+			}
+		}
+	}
+
+	/**
+	 * Compute the unsigned distance with fast marching. The narrow band is
+	 * stored in an indexed heap so that keys are updated in place.
+	 * 
+	 * @param dist
+	 *            the distance field
+	 * @param labels
+	 *            the labels
+	 * @param maxDistance
+	 *            the max distance
+	 */
+	protected void march(float[] dist, byte[] labels, float maxDistance) {
+		final int[] neighborsX = { 1, -1, 0, 0, 0, 0 };
+		final int[] neighborsY = { 0, 0, 1, -1, 0, 0 };
+		final int[] neighborsZ = { 0, 0, 0, 0, 1, -1 };
+		int countAlive = 0;
+		for (int index = 0; index < labels.length; index++) {
+			if (labels[index] == ALIVE) {
+				countAlive++;
 			}
 		}
-		BinaryMinHeap heap = new BinaryMinHeap(countAlive, XN, YN, ZN);
+		BinaryMinFloatHeap heap = new BinaryMinFloatHeap(labels.length,
+				countAlive);
 		/* Initialize NarrowBand Heap */
-		for (k = 0; k < ZN; k++) {
+		int index = 0;
+		for (int k = 0; k < slices; k++) {
 			incrementCompletedUnits();
-			for (j = 0; j < YN; j++) {
-				for (i = 0; i < XN; i++) {
-
-					if (labelVol.get(i, j, k).shortValue() != ALIVE) {
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++, index++) {
+					if (labels[index] != ALIVE) {
 						continue;
 					}
-					// if(count++<100)System.out.println("jist.plugins"+"\t"+"ALIVE
-					// ("+i+","+j+","+k+")");
 					/* Put its 6 neighbors into NarrowBand */
-					for (koff = 0; koff < MaskVolume6.length; koff++) {/*
-																		 * Find
-																		 * six
-																		 * neighbouring
-																		 * points
-																		 */
-						ni = i + neighborsX[koff];
-						nj = j + neighborsY[koff];
-						nk = k + neighborsZ[koff];
-
-						if (nj < 0 || nj >= YN || nk < 0 || nk >= ZN || ni < 0
-								|| ni >= XN) {
+					for (int koff = 0; koff < 6; koff++) {
+						int ni = i + neighborsX[koff];
+						int nj = j + neighborsY[koff];
+						int nk = k + neighborsZ[koff];
+						if (nj < 0 || nj >= cols || nk < 0 || nk >= slices
+								|| ni < 0 || ni >= rows) {
 							continue; /* Out of computational Boundary */
 						}
-
-						if (labelVolM[ni][nj][nk] != FARAWAY) {
+						int nindex = getIndex(ni, nj, nk);
+						if (labels[nindex] != FARAWAY) {
 							continue;
 						}
-						labelVolM[ni][nj][nk] = (NBAND);
-						/*
-						 * Note: Only ALIVE points contribute to the distance
-						 * computation
-						 */
-						/* Neighbour to the north */
-						if (nj > 0) {
-							Nv = distVolM[ni][nj - 1][nk];
-							Nl = labelVolM[ni][nj - 1][nk];
-						} else {
-							Nl = 0;
-						}
-						/* Neighbour to the south */
-						if (nj < YN - 1) {
-							Sv = distVolM[ni][nj + 1][nk];
-							Sl = labelVolM[ni][nj + 1][nk];
-						} else {
-							Sl = 0;
-						}
-						/* Neighbour to the east */
-						if (nk < ZN - 1) {
-							Ev = distVolM[ni][nj][nk + 1];
-							El = labelVolM[ni][nj][nk + 1];
-						} else {
-							El = 0;
-						}
-						/* Neighbour to the west */
-						if (nk > 0) {
-							Wv = distVolM[ni][nj][nk - 1];
-							Wl = labelVolM[ni][nj][nk - 1];
-						} else {
-							Wl = 0;
-						}
-						/* Neighbour to the front */
-						if (ni < XN - 1) {
-							Fv = distVolM[ni + 1][nj][nk];
-							Fl = labelVolM[ni + 1][nj][nk];
-						} else {
-							Fl = 0;
-						}
-						/* Neighbour to the back */
-						if (ni > 0) {
-							Bv = distVolM[ni - 1][nj][nk];
-							Bl = labelVolM[ni - 1][nj][nk];
-						} else {
-							Bl = 0;
-						}
-						/*
-						 * Update the value of this to-be-updated NarrowBand
-						 * point
-						 */
-						newvalue = march(Nv, Sv, Ev, Wv, Fv, Bv, Nl, Sl, El,
-								Wl, Fl, Bl);
-						// if(count++<100)System.out.println("jist.plugins"+"\t"+"NEW
-						// VALUE
-						// ("+i+","+j+","+k+") ("+ni+","+nj+","+nk+")
-						// "+newvalue);
-
-						distVolM[ni][nj][nk] = (float) (newvalue);
-						VoxelIndexed<VoxelFloat> vox = new VoxelIndexed<VoxelFloat>(
-								new VoxelFloat((float) newvalue));
-						vox.setRefPosition(ni, nj, nk);
-						heap.add(vox);
+						labels[nindex] = NBAND;
+						float newvalue = update(dist, labels, ni, nj, nk);
+						dist[nindex] = newvalue;
+						heap.add(nindex, newvalue);
 					}
-
 				}
 			}
 		}
@@ -353,147 +382,256 @@ public class DistanceField extends AbstractCalculation {
 		 */
 		setLabel("Fast-Marching Distance Field");
 		setTotalUnits(heap.size());
-		while (!heap.isEmpty()) { /* There are still points not yet accepted */
-
-			// if(heap.size()%50000==0)System.out.println("jist.plugins"+"\t"+heap.size());
-			he = (VoxelIndexed<VoxelFloat>) heap.remove(); /*
-															 * Label the point
-															 * with smallest
-															 * value among all
-															 * NarrowBand points
-															 * as ALIVE
-															 */
-
-			/* Put the smallest heap element to ALIVE */
-			i = he.getRow();
-			j = he.getColumn();
-			k = he.getSlice();
-
-			if (he.getFloat() > maxDistance) {
+		while (!heap.isEmpty()) {
+			/*
+			 * Label the point with smallest value among all NarrowBand points
+			 * as ALIVE
+			 */
+			float value = heap.peekKey();
+			if (value > maxDistance) {
 				break;
 			}
-			distVolM[i][j][k] = (he.getFloat());
-			labelVolM[i][j][k] = (ALIVE);
-			/* Update its neighbor */
+			index = heap.remove();
+			dist[index] = value;
+			labels[index] = ALIVE;
+			int k = index / (rows * cols);
+			int j = (index - k * rows * cols) / rows;
+			int i = index - k * rows * cols - j * rows;
 			/*
 			 * Put FARAWAY neighbour into NarrowBand, Recompute values at
 			 * NarrowBand neighbours, Keep ALIVE (Accepted) neighbour unchanged
 			 */
-			for (koff = 0; koff < MaskVolume6.length; koff++) {
-				ni = i + neighborsX[koff];
-				nj = j + neighborsY[koff];
-				nk = k + neighborsZ[koff];
-
-				if (nj < 0 || nj >= YN || nk < 0 || nk >= ZN || ni < 0
-						|| ni >= XN) {
+			for (int koff = 0; koff < 6; koff++) {
+				int ni = i + neighborsX[koff];
+				int nj = j + neighborsY[koff];
+				int nk = k + neighborsZ[koff];
+				if (nj < 0 || nj >= cols || nk < 0 || nk >= slices || ni < 0
+						|| ni >= rows) {
 					continue; /* Out of boundary */
 				}
-				if (labelVolM[ni][nj][nk] == ALIVE) {
+				int nindex = getIndex(ni, nj, nk);
+				if (labels[nindex] == ALIVE) {
 					continue; /* Don't change ALIVE neighbour */
 				}
-
-				/* ReCompute the value at (nk][ nj][ ni) */
-				/*
-				 * Get the values and labels of six neighbours of the
-				 * to-be-updated point. The labels are needed since only values
-				 * at ALIVE neighbours will be used to update the value of the
-				 * to-be-updated point
-				 */
-
-				/*
-				 * Note: Only ALIVE points contribute to the distance
-				 * computation
-				 */
-				/* Neighbour to the north */
-				if (nj > 0) {
-					Nv = distVolM[ni][nj - 1][nk];
-					Nl = labelVolM[ni][nj - 1][nk];
-				} else {
-					Nl = 0;
-				}
-
-				/* Neighbour to the south */
-				if (nj < YN - 1) {
-					Sv = distVolM[ni][nj + 1][nk];
-					Sl = labelVolM[ni][nj + 1][nk];
-				} else {
-					Sl = 0;
-				}
-
-				/* Neighbour to the east */
-				if (nk < ZN - 1) {
-					Ev = distVolM[ni][nj][nk + 1];
-					El = labelVolM[ni][nj][nk + 1];
-				} else {
-					El = 0;
-				}
-
-				/* Neighbour to the west */
-				if (nk > 0) {
-					Wv = distVolM[ni][nj][nk - 1];
-					Wl = labelVolM[ni][nj][nk - 1];
-				} else {
-					Wl = 0;
-				}
-
-				/* Neighbour to the front */
-				if (ni < XN - 1) {
-					Fv = distVolM[ni + 1][nj][nk];
-					Fl = labelVolM[ni + 1][nj][nk];
-				} else {
-					Fl = 0;
-				}
-
-				/* Neighbour to the back */
-				if (ni > 0) {
-					Bv = distVolM[ni - 1][nj][nk];
-					Bl = labelVolM[ni - 1][nj][nk];
-				} else {
-					Bl = 0;
-				}
-
-				/* Update the value of this to-be-updated NarrowBand point */
-				newvalue = march(Nv, Sv, Ev, Wv, Fv, Bv, Nl, Sl, El, Wl, Fl, Bl);
-
+				float newvalue = update(dist, labels, ni, nj, nk);
 				/*
 				 * If it was a FARAWAY point, add it to the NarrowBand Heap;
-				 * otherwise, just update its value using the backpointer
+				 * otherwise, just update its key in place
 				 */
-				VoxelIndexed<VoxelFloat> vox = new VoxelIndexed<VoxelFloat>(
-						new VoxelFloat((float) newvalue));
-				vox.setRefPosition(ni, nj, nk);
-				if (labelVolM[ni][nj][nk] == NBAND) {
-					heap.change(ni, nj, nk, vox);
+				if (labels[nindex] == NBAND) {
+					heap.change(nindex, newvalue);
 				} else {
 					decrementCompletedUnits();
-					heap.add(vox);
-					labelVolM[ni][nj][nk] = (NBAND);
+					heap.add(nindex, newvalue);
+					labels[nindex] = NBAND;
 				}
-			} /* End of updating 6 neighbours */
+			}
 			incrementCompletedUnits();
-		}/* End of marching loop */
+		}
+	}
 
-		/* Add signs to the unsigned distance function */
-		for (i = 0; i < XN; i++) {
-			for (j = 0; j < YN; j++) {
-				for (k = 0; k < ZN; k++) {
-					if (labelVolM[i][j][k] != ALIVE) {
-						distVolM[i][j][k] = (float) (maxDistance);
-					}
-					if (volM[i][j][k] < 0) {
-						distVolM[i][j][k] = (-distVolM[i][j][k]);
+	/**
+	 * Compute the value at a NarrowBand point from its ALIVE neighbours.
+	 * 
+	 * @param dist
+	 *            the distance field
+	 * @param labels
+	 *            the labels
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @return the distance
+	 */
+	private float update(float[] dist, byte[] labels, int i, int j, int k) {
+		double Nv = 0, Sv = 0, Wv = 0, Ev = 0, Fv = 0, Bv = 0;
+		int Nl = 0, Sl = 0, Wl = 0, El = 0, Fl = 0, Bl = 0;
+		int index = getIndex(i, j, k);
+		/* Neighbour to the north */
+		if (j > 0) {
+			Nv = dist[index - rows];
+			Nl = labels[index - rows];
+		}
+		/* Neighbour to the south */
+		if (j < cols - 1) {
+			Sv = dist[index + rows];
+			Sl = labels[index + rows];
+		}
+		/* Neighbour to the east */
+		if (k < slices - 1) {
+			Ev = dist[index + rows * cols];
+			El = labels[index + rows * cols];
+		}
+		/* Neighbour to the west */
+		if (k > 0) {
+			Wv = dist[index - rows * cols];
+			Wl = labels[index - rows * cols];
+		}
+		/* Neighbour to the front */
+		if (i < rows - 1) {
+			Fv = dist[index + 1];
+			Fl = labels[index + 1];
+		}
+		/* Neighbour to the back */
+		if (i > 0) {
+			Bv = dist[index - 1];
+			Bl = labels[index - 1];
+		}
+		return (float) march(Nv, Sv, Ev, Wv, Fv, Bv, Nl, Sl, El, Wl, Fl, Bl);
+	}
 
-					}
+	/**
+	 * Compute the unsigned distance with fast sweeping. Each of the eight
+	 * sweep directions visits the diagonal planes i+j+k=const in order, and
+	 * voxels on the same plane are updated concurrently since their upwind
+	 * neighbours lie on the previous plane. Voxels adjacent to the zero level
+	 * set keep their initial values.
+	 * 
+	 * @param dist
+	 *            the distance field
+	 * @param labels
+	 *            the labels
+	 * @param maxDistance
+	 *            the max distance
+	 */
+	protected void sweep(final float[] dist, final byte[] labels,
+			final float maxDistance) {
+		final int threads = ParallelUtil.getThreadCount();
+		final int planes = rows + cols + slices - 2;
+		final boolean[] changed = new boolean[1];
+		setTotalUnits(MAX_SWEEP_ITERATIONS);
+		for (int iter = 0; iter < MAX_SWEEP_ITERATIONS; iter++) {
+			changed[0] = false;
+			for (int dir = 0; dir < 8; dir++) {
+				final boolean flipX = (dir & 1) != 0;
+				final boolean flipY = (dir & 2) != 0;
+				final boolean flipZ = (dir & 4) != 0;
+				for (int plane = 0; plane < planes; plane++) {
+					final int L = plane;
+					int kStart = Math.max(0, L - (rows - 1) - (cols - 1));
+					int kEnd = Math.min(slices - 1, L) + 1;
+					int chunks = Math.max(1, Math.min(threads,
+							((kEnd - kStart) * Math.min(rows, cols)) / 4096));
+					ParallelUtil.forRange(kStart, kEnd, chunks,
+							new ParallelUtil.RangeTask() {
+								@Override
+								public void run(int start, int end) {
+									boolean update = false;
+									for (int kk = start; kk < end; kk++) {
+										int k = (flipZ) ? slices - 1 - kk : kk;
+										int jStart = Math.max(0, L - kk
+												- (rows - 1));
+										int jEnd = Math.min(cols - 1, L - kk);
+										for (int jj = jStart; jj <= jEnd; jj++) {
+											int j = (flipY) ? cols - 1 - jj
+													: jj;
+											int ii = L - kk - jj;
+											int i = (flipX) ? rows - 1 - ii
+													: ii;
+											update |= sweepUpdate(dist,
+													labels, i, j, k,
+													maxDistance);
+										}
+									}
+									if (update) {
+										changed[0] = true;
+									}
+								}
+							});
 				}
 			}
+			incrementCompletedUnits();
+			if (!changed[0]) {
+				break;
+			}
 		}
+	}
 
-		this.markCompleted();
-		distVol.setName(name);
-		distVol.setHeader(vol.getHeader());
-		return distVol;
+	/**
+	 * Update one voxel with the Godunov upwind discretization of the eikonal
+	 * equation.
+	 * 
+	 * @param dist
+	 *            the distance field
+	 * @param labels
+	 *            the labels
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @param maxDistance
+	 *            the max distance
+	 * @return true, if the value changed
+	 */
+	private boolean sweepUpdate(float[] dist, byte[] labels, int i, int j,
+			int k, float maxDistance) {
+		int index = getIndex(i, j, k);
+		if (labels[index] == ALIVE) {
+			return false;
+		}
+		float a = Float.MAX_VALUE, b = Float.MAX_VALUE, c = Float.MAX_VALUE;
+		if (i > 0) {
+			a = dist[index - 1];
+		}
+		if (i < rows - 1) {
+			a = Math.min(a, dist[index + 1]);
+		}
+		if (j > 0) {
+			b = dist[index - rows];
+		}
+		if (j < cols - 1) {
+			b = Math.min(b, dist[index + rows]);
+		}
+		if (k > 0) {
+			c = dist[index - rows * cols];
+		}
+		if (k < slices - 1) {
+			c = Math.min(c, dist[index + rows * cols]);
+		}
+		// Sort so that a <= b <= c
+		float tmp;
+		if (a > b) {
+			tmp = a;
+			a = b;
+			b = tmp;
+		}
+		if (b > c) {
+			tmp = b;
+			b = c;
+			c = tmp;
+		}
+		if (a > b) {
+			tmp = a;
+			a = b;
+			b = tmp;
+		}
+		if (a >= maxDistance) {
+			return false;
+		}
+		double value = a + IFij;
+		if (value > b) {
+			double diff = a - b;
+			value = 0.5 * (a + b + Math.sqrt(2 * ISFij - diff * diff));
+			if (value > c) {
+				double s = a + b + c;
+				double s2 = a * a + b * b + c * c;
+				value = (s + Math.sqrt(s * s - 3 * (s2 - ISFij))) / 3;
+			}
+		}
+		if (value < dist[index] - SWEEP_TOLERANCE) {
+			dist[index] = (float) value;
+			return true;
+		} else if (value < dist[index]) {
+			dist[index] = (float) value;
+		}
+		return false;
 	}
 
+
 	/**
 	 * March.
 	 * 
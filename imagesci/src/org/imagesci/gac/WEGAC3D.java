@@ -48,6 +48,7 @@ import javax.vecmath.Point3d;
 import javax.vecmath.Point3i;
 
 import org.imagesci.springls.ActiveContour3D;
+import org.imagesci.utility.CLBufferPool;
 import org.imagesci.utility.PhantomBubbles;
 import org.imagesci.utility.PhantomCube;
 import org.imagesci.utility.PhantomMetasphere;
@@ -77,6 +78,9 @@ public class WEGAC3D extends ActiveContour3D {
 	/** The Constant STRIDE. */
 	protected static final int STRIDE = 128;
 
+	/** The number of work items in the prefix scan work group. */
+	protected static final int SCAN_WORKGROUP_SIZE = 128;
+
 	/** The WORKGROUP SIZE. */
 	public static int WORKGROUP_SIZE = 256;
 
@@ -93,6 +97,8 @@ public class WEGAC3D extends ActiveContour3D {
 	protected boolean adaptiveConvergence = false;
 	/** The adaptive convergence sampling interval. */
 	protected int adaptiveConvergenceSamplingInterval = 16;
+	/** The pool for buffers sized by the narrow band. */
+	protected CLBufferPool bufferPool = null;
 	/** The clamp speed. */
 	protected boolean clampSpeed = false;
 	/** The context. */
@@ -132,6 +138,9 @@ public class WEGAC3D extends ActiveContour3D {
 	/** The command queue. */
 	public CLCommandQueue queue;
 
+	/** True if the queue was created by this object and may be released. */
+	protected boolean ownsQueue = false;
+
 	/** The unsigned level set buffer. */
 	public CLBuffer<FloatBuffer> signedLevelSetBuffer = null;
 
@@ -176,7 +185,8 @@ public class WEGAC3D extends ActiveContour3D {
 
 		}
 		context = CLContext.create(device);
-		queue = device.createCommandQueue();
+		queue = profiler.createQueue(device);
+		ownsQueue = true;
 		System.out.println("Geodesic Active Contour using device: "
 				+ device.getVendor() + " " + device.getVersion() + " "
 				+ device.getName());
@@ -219,7 +229,8 @@ public class WEGAC3D extends ActiveContour3D {
 				define("ROWS", rows), define("COLS", cols),
 				define("SLICES", slices),
 				define("CLAMP_SPEED", clampSpeed ? 1 : 0),
-				define("STRIDE", STRIDE), define("MAX_DISTANCE", MAX_DISTANCE));
+				define("STRIDE", STRIDE), define("MAX_DISTANCE", MAX_DISTANCE),
+				define("SCAN_WORKGROUP_SIZE", SCAN_WORKGROUP_SIZE));
 
 		kernelMap = program.createCLKernels();
 
@@ -244,8 +255,8 @@ public class WEGAC3D extends ActiveContour3D {
 		}
 		signedLevelSet.rewind();
 		oldSignedLevelSet.rewind();
-		queue.putWriteBuffer(signedLevelSetBuffer, true).putWriteBuffer(
-				oldSignedLevelSetBuffer, true);
+		profiler.putWriteBuffer(queue, signedLevelSetBuffer, true);
+		profiler.putWriteBuffer(queue, oldSignedLevelSetBuffer, true);
 
 		if (pressureImage != null) {
 			rescale(pressureImage.toArray3d());
@@ -261,7 +272,7 @@ public class WEGAC3D extends ActiveContour3D {
 				}
 			}
 			buff.rewind();
-			queue.putWriteBuffer(pressureBuffer, true);
+			profiler.putWriteBuffer(queue, pressureBuffer, true);
 		}
 		if (vecFieldImage != null) {
 			float[][][][] vecField = vecFieldImage.toArray4d();
@@ -278,7 +289,7 @@ public class WEGAC3D extends ActiveContour3D {
 				}
 			}
 			advectBuff.rewind();
-			queue.putWriteBuffer(vecFieldBuffer, true);
+			profiler.putWriteBuffer(queue, vecFieldBuffer, true);
 		}
 
 		this.distFieldImage = initialDistanceFieldImage;
@@ -328,7 +339,7 @@ public class WEGAC3D extends ActiveContour3D {
 				topologyRuleBuffer = context.createByteBuffer(buff.length,
 						READ_ONLY);
 				topologyRuleBuffer.getBuffer().put(buff).rewind();
-				queue.putWriteBuffer(topologyRuleBuffer, true);
+				profiler.putWriteBuffer(queue, topologyRuleBuffer, true);
 				return true;
 			}
 			zis.close();
@@ -365,6 +376,7 @@ public class WEGAC3D extends ActiveContour3D {
 							time, 1E-9 * (endTime - startTime), 1E9 * time
 									/ (endTime - startTime));
 			finish();
+			profiler.finishRun();
 			context.release();
 			context = null;
 			markCompleted();
@@ -377,7 +389,7 @@ public class WEGAC3D extends ActiveContour3D {
 	 * Finish.
 	 */
 	public void finish() {
-		queue.putReadBuffer(signedLevelSetBuffer, true);
+		profiler.putReadBuffer(queue, signedLevelSetBuffer, true);
 		FloatBuffer buff = signedLevelSetBuffer.getBuffer();
 		for (int k = 0; k < slices; k++) {
 			for (int j = 0; j < cols; j++) {
@@ -418,7 +430,7 @@ public class WEGAC3D extends ActiveContour3D {
 								deltaLevelSetBuffer).putArg(pressureWeight)
 						.putArg(advectionWeight).putArg(curvatureWeight)
 						.putArg(activeListSize).rewind();
-				queue.put1DRangeKernel(pressureVecFieldSpeedKernel, 0,
+				profiler.put1DRangeKernel(queue, pressureVecFieldSpeedKernel, 0,
 						global_size, WORKGROUP_SIZE);
 			} else {
 				pressureSpeedKernel
@@ -426,8 +438,8 @@ public class WEGAC3D extends ActiveContour3D {
 								oldSignedLevelSetBuffer, deltaLevelSetBuffer)
 						.putArg(pressureWeight).putArg(curvatureWeight)
 						.putArg(activeListSize).rewind();
-				queue.put1DRangeKernel(pressureSpeedKernel, 0, global_size,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, pressureSpeedKernel, 0,
+						global_size, WORKGROUP_SIZE);
 			}
 		} else {
 			vecFieldSpeedKernel
@@ -435,21 +447,20 @@ public class WEGAC3D extends ActiveContour3D {
 							oldSignedLevelSetBuffer, deltaLevelSetBuffer)
 					.putArg(advectionWeight).putArg(curvatureWeight)
 					.putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(vecFieldSpeedKernel, 0, global_size,
-					WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, vecFieldSpeedKernel, 0,
+					global_size, WORKGROUP_SIZE);
 		}
 		if (preserveTopology) {
 			if (!clampSpeed) {
 				maxImageValue.putArgs(deltaLevelSetBuffer, maxTmpBuffer)
 						.putArg(activeListSize).rewind();
-				queue.put1DRangeKernel(
-						maxImageValue,
-						0,
-						roundToWorkgroupPower(1 + (activeListSize / STRIDE),
-								WORKGROUP_SIZE / 8), WORKGROUP_SIZE / 8);
+				profiler.put1DRangeKernel(queue, maxImageValue, 0,
+						roundToWorkgroupPower(1 + (activeListSize
+								/ STRIDE), WORKGROUP_SIZE / 8),
+						WORKGROUP_SIZE / 8);
 				maxTimeStep.putArg(maxTmpBuffer)
 						.putArg(1 + (activeListSize / STRIDE)).rewind();
-				queue.put1DRangeKernel(maxTimeStep, 0, 1, 1);
+				profiler.put1DRangeKernel(queue, maxTimeStep, 0, 1, 1);
 				for (int nn = 0; nn < 8; nn++) {
 					applyForces
 							.putArgs(activeListBuffer, oldSignedLevelSetBuffer,
@@ -457,8 +468,8 @@ public class WEGAC3D extends ActiveContour3D {
 									maxTmpBuffer, topologyRuleBuffer)
 							.putArg(activeListSize).putArg(nn).rewind();
 
-					queue.put1DRangeKernel(applyForces, 0, global_size,
-							WORKGROUP_SIZE);
+					profiler.put1DRangeKernel(queue, applyForces, 0,
+							global_size, WORKGROUP_SIZE);
 				}
 			} else {
 				for (int nn = 0; nn < 8; nn++) {
@@ -467,22 +478,21 @@ public class WEGAC3D extends ActiveContour3D {
 									deltaLevelSetBuffer, signedLevelSetBuffer,
 									topologyRuleBuffer).putArg(0.5f)
 							.putArg(activeListSize).putArg(nn).rewind();
-					queue.put1DRangeKernel(applyForces, 0, global_size,
-							WORKGROUP_SIZE);
+					profiler.put1DRangeKernel(queue, applyForces, 0,
+							global_size, WORKGROUP_SIZE);
 				}
 			}
 		} else {
 			if (!clampSpeed) {
 				maxImageValue.putArgs(deltaLevelSetBuffer, maxTmpBuffer)
 						.putArg(activeListSize).rewind();
-				queue.put1DRangeKernel(
-						maxImageValue,
-						0,
-						roundToWorkgroupPower(1 + (activeListSize / STRIDE),
-								WORKGROUP_SIZE / 8), WORKGROUP_SIZE / 8);
+				profiler.put1DRangeKernel(queue, maxImageValue, 0,
+						roundToWorkgroupPower(1 + (activeListSize
+								/ STRIDE), WORKGROUP_SIZE / 8),
+						WORKGROUP_SIZE / 8);
 				maxTimeStep.putArg(maxTmpBuffer)
 						.putArg(1 + (activeListSize / STRIDE)).rewind();
-				queue.put1DRangeKernel(maxTimeStep, 0, 1, 1);
+				profiler.put1DRangeKernel(queue, maxTimeStep, 0, 1, 1);
 				applyForces
 						.putArgs(activeListBuffer, oldSignedLevelSetBuffer,
 								deltaLevelSetBuffer, signedLevelSetBuffer,
@@ -493,7 +503,8 @@ public class WEGAC3D extends ActiveContour3D {
 								deltaLevelSetBuffer, signedLevelSetBuffer)
 						.putArg(0.5f).putArg(activeListSize).rewind();
 			}
-			queue.put1DRangeKernel(applyForces, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, applyForces, 0, global_size,
+					WORKGROUP_SIZE);
 
 		}
 		for (int i = 1; i <= maxLayers; i++) {
@@ -501,28 +512,30 @@ public class WEGAC3D extends ActiveContour3D {
 					.putArgs(activeListBuffer, oldSignedLevelSetBuffer,
 							signedLevelSetBuffer).putArg(i)
 					.putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(updateDistanceField, 0, global_size,
-					WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, updateDistanceField, 0,
+					global_size, WORKGROUP_SIZE);
 		}
 		if (!preserveTopology) {
 			final CLKernel plugLevelSet = kernelMap.get("plugLevelSet");
 			plugLevelSet.putArgs(activeListBuffer, signedLevelSetBuffer)
 					.putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(plugLevelSet, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, plugLevelSet, 0, global_size,
+					WORKGROUP_SIZE);
 		}
 		if (adaptiveConvergence) {
 			copyBuffers
 					.putArgs(activeListBuffer, oldSignedLevelSetBuffer,
 							signedLevelSetBuffer).putArg(activeListSize)
 					.rewind();
-			queue.put1DRangeKernel(copyBuffers, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, copyBuffers, 0, global_size,
+					WORKGROUP_SIZE);
 			final CLKernel rememberImageLabels = kernelMap
 					.get("rememberImageLabels");
 			final CLKernel diffImageLabels = kernelMap.get("diffImageLabels");
 			if ((time) % adaptiveConvergenceSamplingInterval == 0) {
 				rememberImageLabels
 						.putArgs(signedLevelSetBuffer, historyBuffer).rewind();
-				queue.put1DRangeKernel(rememberImageLabels, 0,
+				profiler.put1DRangeKernel(queue, rememberImageLabels, 0,
 						roundToWorkgroupPower(rows * cols * slices),
 						WORKGROUP_SIZE);
 			} else if ((time) % adaptiveConvergenceSamplingInterval == adaptiveConvergenceSamplingInterval - 1) {
@@ -530,7 +543,7 @@ public class WEGAC3D extends ActiveContour3D {
 				diffImageLabels.putArgs(signedLevelSetBuffer, historyBuffer)
 						.rewind();
 
-				queue.put1DRangeKernel(diffImageLabels, 0,
+				profiler.put1DRangeKernel(queue, diffImageLabels, 0,
 						roundToWorkgroupPower(rows * cols * slices),
 						WORKGROUP_SIZE);
 				final CLKernel dilateLabels = kernelMap.get("dilateLabels");
@@ -539,8 +552,8 @@ public class WEGAC3D extends ActiveContour3D {
 					for (int kk = 0; kk < 8; kk++) {
 						dilateLabels.putArgs(activeListBuffer, historyBuffer)
 								.putArg(activeListSize).putArg(kk).rewind();
-						queue.put1DRangeKernel(dilateLabels, 0, global_size,
-								WORKGROUP_SIZE);
+						profiler.put1DRangeKernel(queue, dilateLabels, 0,
+								global_size, WORKGROUP_SIZE);
 					}
 				}
 			}
@@ -549,7 +562,8 @@ public class WEGAC3D extends ActiveContour3D {
 					.putArgs(activeListBuffer, oldSignedLevelSetBuffer,
 							signedLevelSetBuffer).putArg(activeListSize)
 					.rewind();
-			queue.put1DRangeKernel(copyBuffers, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, copyBuffers, 0, global_size,
+					WORKGROUP_SIZE);
 		}
 		queue.finish();
 
@@ -589,14 +603,15 @@ public class WEGAC3D extends ActiveContour3D {
 					.putArgs(offsetBuffer, activeListBuffer,
 							signedLevelSetBuffer).putArg(activeListSize)
 					.putArg(nn).rewind();
-			queue.put1DRangeKernel(addCountActiveList, 0,
+			profiler.put1DRangeKernel(queue, addCountActiveList, 0,
 					roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1), 1);
 		}
 		prefixScanList.putArgs(offsetBuffer, maxValueBuffer)
 				.putArg(6 * (1 + (activeListSize / STRIDE))).rewind();
-		queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
+		profiler.put1DRangeKernel(queue, prefixScanList, 0,
+				SCAN_WORKGROUP_SIZE, SCAN_WORKGROUP_SIZE);
 		queue.finish();
-		queue.putReadBuffer(maxValueBuffer, true);
+		profiler.putReadBuffer(queue, maxValueBuffer, true);
 		int addElements = maxValueBuffer.getBuffer().get(0);
 		int newElements = addElements + activeListSize;
 		if (newElements != activeListSize) {
@@ -610,9 +625,7 @@ public class WEGAC3D extends ActiveContour3D {
 						.putArgs(offsetBuffer, activeListBuffer,
 								oldSignedLevelSetBuffer, signedLevelSetBuffer)
 						.putArg(activeListSize).putArg(nn).rewind();
-				queue.put1DRangeKernel(
-						expandActiveList,
-						0,
+				profiler.put1DRangeKernel(queue, expandActiveList, 0,
 						roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1),
 						1);
 			}
@@ -623,7 +636,9 @@ public class WEGAC3D extends ActiveContour3D {
 	}
 
 	/**
-	 * Rebuild narrow band.
+	 * Rebuild narrow band. Buffers sized by the narrow band come from a pool
+	 * and are only reallocated when the band outgrows them or shrinks far
+	 * below their capacity.
 	 */
 	public void rebuildNarrowBand() {
 		final CLKernel countActiveList = kernelMap.get("countActiveList");
@@ -632,72 +647,55 @@ public class WEGAC3D extends ActiveContour3D {
 		if (maxValueBuffer == null) {
 			maxValueBuffer = context.createIntBuffer(1, READ_WRITE, USE_BUFFER);
 		}
-		CLBuffer<IntBuffer> rebuildOffsetBuffer = context.createIntBuffer(
-				slices, READ_WRITE, USE_BUFFER);
+		if (bufferPool == null || bufferPool.getContext() != context) {
+			bufferPool = new CLBufferPool(context);
+		}
+		int volume = rows * cols * slices;
+		CLBuffer<IntBuffer> rebuildOffsetBuffer = bufferPool.getIntBuffer(
+				"rebuildOffset", slices, slices, READ_WRITE, USE_BUFFER);
 		countActiveList.putArgs(rebuildOffsetBuffer, oldSignedLevelSetBuffer,
 				signedLevelSetBuffer).rewind();
 
-		queue.put1DRangeKernel(countActiveList, 0,
+		profiler.put1DRangeKernel(queue, countActiveList, 0,
 				roundToWorkgroupPower(slices, WORKGROUP_SIZE / 4),
 				WORKGROUP_SIZE / 4);
 		prefixScanList.putArgs(rebuildOffsetBuffer, maxValueBuffer)
 				.putArg(slices).rewind();
-		queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
+		profiler.put1DRangeKernel(queue, prefixScanList, 0,
+				SCAN_WORKGROUP_SIZE, SCAN_WORKGROUP_SIZE);
 
 		queue.finish();
 		if (historyBuffer == null && adaptiveConvergence) {
-			historyBuffer = context.createByteBuffer(rows * cols * slices,
-					READ_WRITE, USE_BUFFER);
+			historyBuffer = context.createByteBuffer(volume, READ_WRITE,
+					USE_BUFFER);
 		}
-		queue.putReadBuffer(maxValueBuffer, true);
+		profiler.putReadBuffer(queue, maxValueBuffer, true);
 		activeListSize = maxValueBuffer.getBuffer().get(0);
-		activeListArraySize = (int) Math.min(
-				rows * cols * slices,
-				Math.max(activeListSize * 1.25f,
-						Math.ceil(rows * cols * slices * 0.1)));
+		activeListBuffer = bufferPool.getIntBuffer("activeList",
+				(int) Math.max(activeListSize, Math.ceil(volume * 0.1)),
+				volume, READ_WRITE, USE_BUFFER);
+		activeListArraySize = bufferPool.getCapacity("activeList");
 		System.out.println("Building narrowband with " + activeListSize
 				+ " active voxels out of " + activeListArraySize
 				+ " total voxels. ");
-		if (activeListBuffer != null) {
-			activeListBuffer.release();
-		}
-		activeListBuffer = context.createIntBuffer(activeListArraySize,
-				READ_WRITE, USE_BUFFER);
 
 		buildActiveList.putArgs(rebuildOffsetBuffer, activeListBuffer,
 				oldSignedLevelSetBuffer).rewind();
-		queue.put1DRangeKernel(buildActiveList, 0, slices, 2);
+		profiler.put1DRangeKernel(queue, buildActiveList, 0, slices, 2);
 
 		queue.finish();
 
-		rebuildOffsetBuffer.release();
-
-		if (offsetBuffer != null) {
-			offsetBuffer.release();
-		}
-		offsetBuffer = context.createIntBuffer(
-				6 * (1 + (activeListArraySize / STRIDE)), USE_BUFFER,
+		int blocks = 1 + (activeListArraySize / STRIDE);
+		offsetBuffer = bufferPool.getIntBuffer("offset", 6 * blocks,
+				6 * blocks, USE_BUFFER, READ_WRITE);
+		maxTmpBuffer = bufferPool.getFloatBuffer("maxTmp", blocks, blocks,
+				READ_WRITE, USE_BUFFER);
+		tmpActiveBuffer = bufferPool.getIntBuffer("tmpActive",
+				activeListArraySize, activeListArraySize, USE_BUFFER,
+				READ_WRITE);
+		deltaLevelSetBuffer = bufferPool.getFloatBuffer("deltaLevelSet",
+				activeListArraySize, activeListArraySize, USE_BUFFER,
 				READ_WRITE);
-
-		if (maxTmpBuffer != null) {
-			maxTmpBuffer.release();
-		}
-		maxTmpBuffer = context.createFloatBuffer(
-				1 + (activeListArraySize / STRIDE), READ_WRITE, USE_BUFFER);
-
-		if (tmpActiveBuffer != null) {
-			tmpActiveBuffer.release();
-		}
-
-		tmpActiveBuffer = context.createIntBuffer(activeListArraySize,
-				USE_BUFFER, READ_WRITE);
-
-		if (deltaLevelSetBuffer != null) {
-			deltaLevelSetBuffer.release();
-		}
-		deltaLevelSetBuffer = context.createFloatBuffer(activeListArraySize,
-				USE_BUFFER, READ_WRITE);
-
 	}
 
 	/**
@@ -721,7 +719,7 @@ public class WEGAC3D extends ActiveContour3D {
 					.putArgs(offsetBuffer, activeListBuffer,
 							oldSignedLevelSetBuffer, historyBuffer)
 					.putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(deleteCountActiveListHistory, 0,
+			profiler.put1DRangeKernel(queue, deleteCountActiveListHistory, 0,
 					roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1), 1);
 		} else {
 
@@ -729,15 +727,16 @@ public class WEGAC3D extends ActiveContour3D {
 					.putArgs(offsetBuffer, activeListBuffer,
 							oldSignedLevelSetBuffer).putArg(activeListSize)
 					.rewind();
-			queue.put1DRangeKernel(deleteCountActiveList, 0,
+			profiler.put1DRangeKernel(queue, deleteCountActiveList, 0,
 					roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1), 1);
 		}
 		queue.finish();
 		prefixScanList.putArgs(offsetBuffer, maxValueBuffer)
 				.putArg(1 + (activeListSize / STRIDE)).rewind();
-		queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
+		profiler.put1DRangeKernel(queue, prefixScanList, 0,
+				SCAN_WORKGROUP_SIZE, SCAN_WORKGROUP_SIZE);
 		queue.finish();
-		queue.putReadBuffer(maxValueBuffer, true);
+		profiler.putReadBuffer(queue, maxValueBuffer, true);
 		int newElements = maxValueBuffer.getBuffer().get(0);
 		int delete = activeListSize - newElements;
 
@@ -752,9 +751,7 @@ public class WEGAC3D extends ActiveContour3D {
 								signedLevelSetBuffer, historyBuffer)
 						.putArg(activeListSize).rewind();
 
-				queue.put1DRangeKernel(
-						compactActiveListHistory,
-						0,
+				profiler.put1DRangeKernel(queue, compactActiveListHistory, 0,
 						roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1),
 						1);
 			} else {
@@ -765,9 +762,7 @@ public class WEGAC3D extends ActiveContour3D {
 								signedLevelSetBuffer).putArg(activeListSize)
 						.rewind();
 
-				queue.put1DRangeKernel(
-						compactActiveList,
-						0,
+				profiler.put1DRangeKernel(queue, compactActiveList, 0,
 						roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1),
 						1);
 
@@ -906,6 +901,24 @@ public class WEGAC3D extends ActiveContour3D {
 		context.release();
 	}
 
+	/**
+	 * Gets the voxels in the narrow band. Voxel indexes are linear, k*rows*cols
+	 * + j*rows + i, and can be passed directly to the narrow band iso-surface
+	 * generators.
+	 * 
+	 * @return the active voxels
+	 */
+	public int[] getActiveVoxels() {
+		int[] voxels = new int[activeListSize];
+		if (activeListSize > 0) {
+			profiler.putReadBuffer(queue, activeListBuffer, true);
+			IntBuffer buff = activeListBuffer.getBuffer();
+			buff.get(voxels, 0, activeListSize);
+			buff.rewind();
+		}
+		return voxels;
+	}
+
 	/**
 	 * Gets the level set.
 	 * 
@@ -984,6 +997,22 @@ public class WEGAC3D extends ActiveContour3D {
 		this.pressureWeight = weight;
 	}
 
+	/**
+	 * Sets the profiling.
+	 * 
+	 * @param profiling
+	 *            the profiling
+	 */
+	@Override
+	public void setProfiling(boolean profiling) {
+		super.setProfiling(profiling);
+		CLCommandQueue oldQueue = queue;
+		queue = profiler.prepareQueue(oldQueue, ownsQueue);
+		if (queue != oldQueue) {
+			oldQueue.release();
+		}
+	}
+
 	/**
 	 * Sets the target pressure.
 	 * 
@@ -104,6 +104,14 @@ public class MACWE3D extends WEMOGAC3D {
 		super(refImage, type);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.imagesci.mogac.MOGAC3D#supportsJavaBackend()
+	 */
+	@Override
+	protected boolean supportsJavaBackend() {
+		return false;
+	}
+
 	/**
 	 * Solve.
 	 * 
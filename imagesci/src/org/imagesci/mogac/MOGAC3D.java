@@ -49,6 +49,8 @@ import java.util.zip.ZipInputStream;
 import javax.vecmath.Point3i;
 
 import org.imagesci.gac.TopologyPreservationRule3D;
+import org.imagesci.utility.KernelProfiler;
+import org.imagesci.utility.ParallelUtil;
 import org.imagesci.utility.PhantomMetasphere;
 import org.imagesci.utility.RandomSphereCollection;
 
@@ -122,8 +124,11 @@ public class MOGAC3D extends AbstractCalculation {
 	/** The unsigned level set buffer. */
 	public CLBuffer<FloatBuffer> distanceFieldBuffer = null;
 
-	/** The distance field. */
-	protected float[][][] distField;
+	/**
+	 * The distance field, with rows varying fastest. It is the storage of the
+	 * distance field image when that image is flat.
+	 */
+	protected float[] distField;
 	/** The distance field image. */
 	protected ImageDataFloat distFieldImage;
 	/** The elapsed time. */
@@ -144,6 +149,15 @@ public class MOGAC3D extends AbstractCalculation {
 	/** The label buffer. */
 	public CLBuffer<IntBuffer> imageLabelBuffer = null;
 
+	/** Use the multi-threaded Java kernels instead of an OpenCL device. */
+	protected boolean javaBackend = false;
+
+	/** The Java kernels. */
+	protected MogacKernels3D javaKernels = null;
+
+	/** The kernel profiler. */
+	protected KernelProfiler profiler = new KernelProfiler();
+
 	// public int final
 	/** The kernel map. */
 	public Map<String, CLKernel> kernelMap;
@@ -157,8 +171,11 @@ public class MOGAC3D extends AbstractCalculation {
 	/** The label masks. */
 	protected int[] labelMasks;
 
-	/** The labels. */
-	protected int[][][] labels;
+	/**
+	 * The labels, with rows varying fastest. It is the storage of the label
+	 * image when that image is flat.
+	 */
+	protected int[] labels;
 	/** The last start time. */
 	protected long lastStartTime = 0;
 
@@ -204,6 +221,9 @@ public class MOGAC3D extends AbstractCalculation {
 	/** The queue. */
 	public CLCommandQueue queue;
 
+	/** True if the queue was created by this object and may be released. */
+	protected boolean ownsQueue = false;
+
 	/** The resampling rate. */
 	private int resamplingRate = 8;
 
@@ -258,6 +278,13 @@ public class MOGAC3D extends AbstractCalculation {
 		this.image = refImage;
 		this.context = context;
 		this.queue = queue;
+		if (context == null || queue == null) {
+			if (!supportsJavaBackend()) {
+				throw new IllegalArgumentException(getClass().getSimpleName()
+						+ " requires an OpenCL context and command queue.");
+			}
+			useJavaBackend();
+		}
 	}
 
 	/**
@@ -273,29 +300,120 @@ public class MOGAC3D extends AbstractCalculation {
 		this.image = refImage;
 	}
 
+	/**
+	 * Instantiates a new Multi-Object Geodesic Active Contour 3D. If the device
+	 * type is null or no OpenCL device is available, the level set is evolved
+	 * with the multi-threaded Java kernels instead.
+	 * 
+	 * @param type
+	 *            the type
+	 */
 	public MOGAC3D(CLDevice.Type type) {
-		CLPlatform[] platforms = CLPlatform.listCLPlatforms();
-		CLDevice device = null;
-		for (CLPlatform p : platforms) {
-			device = p.getMaxFlopsDevice(type);
-			if (device != null) {
-				break;
+		if (type == null) {
+			if (!supportsJavaBackend()) {
+				throw new UnsupportedOperationException(getClass()
+						.getSimpleName() + " requires an OpenCL device.");
 			}
+			useJavaBackend();
+			return;
 		}
-		if (device == null) {
-			device = CLPlatform.getDefault().getMaxFlopsDevice();
-		}
-		if (type == CLDevice.Type.CPU) {
-			WORKGROUP_SIZE = 256;
-		} else if (type == CLDevice.Type.GPU) {
-			WORKGROUP_SIZE = 128;
+		try {
+			CLPlatform[] platforms = CLPlatform.listCLPlatforms();
+			CLDevice device = null;
+			for (CLPlatform p : platforms) {
+				device = p.getMaxFlopsDevice(type);
+				if (device != null) {
+					break;
+				}
+			}
+			if (device == null) {
+				device = CLPlatform.getDefault().getMaxFlopsDevice();
+			}
+			if (type == CLDevice.Type.CPU) {
+				WORKGROUP_SIZE = 256;
+			} else if (type == CLDevice.Type.GPU) {
+				WORKGROUP_SIZE = 128;
 
+			}
+			context = CLContext.create(device);
+			queue = profiler.createQueue(device);
+			ownsQueue = true;
+			System.out.println("MOGAC 3D using device: " + device.getVendor()
+					+ " " + device.getVersion() + " " + device.getName());
+		} catch (RuntimeException e) {
+			if (!supportsJavaBackend()) {
+				throw e;
+			}
+			System.err.println("No OpenCL device available: " + e.getMessage());
+			useJavaBackend();
+		} catch (LinkageError e) {
+			if (!supportsJavaBackend()) {
+				throw e;
+			}
+			System.err.println("No OpenCL device available: " + e.getMessage());
+			useJavaBackend();
 		}
-		context = CLContext.create(device);
-		queue = device.createCommandQueue();
-		System.out.println("MOGAC 3D using device: " + device.getVendor() + " "
-				+ device.getVersion() + " " + device.getName());
+	}
+
+	/**
+	 * Checks if this solver can evolve the level set with the Java kernels
+	 * when no OpenCL device is available. Subclasses with OpenCL-only kernels
+	 * return false, in which case the OpenCL failure is propagated. This is
+	 * called from the constructors, so overrides must not depend on instance
+	 * state.
+	 * 
+	 * @return true, if the Java backend is supported
+	 */
+	protected boolean supportsJavaBackend() {
+		return true;
+	}
+
+	/**
+	 * Evolve the level set with the multi-threaded Java kernels instead of an
+	 * OpenCL device.
+	 */
+	protected final void useJavaBackend() {
+		javaBackend = true;
+		context = null;
+		queue = null;
+		System.out.println("MOGAC 3D using Java backend with "
+				+ ParallelUtil.getThreadCount() + " threads");
+	}
 
+	/**
+	 * Checks if the level set is evolved with the Java kernels.
+	 * 
+	 * @return true, if no OpenCL device is used
+	 */
+	public boolean isJavaBackend() {
+		return javaBackend;
+	}
+
+	/**
+	 * Gets the kernel profiler.
+	 * 
+	 * @return the profiler
+	 */
+	public KernelProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Enable per-kernel profiling. If this solver created the command queue,
+	 * it is replaced with a profiling queue on the same device if necessary.
+	 * A shared queue without profiling support is kept and profiling stays
+	 * disabled.
+	 * 
+	 * @param profiling
+	 *            the profiling
+	 */
+	public void setProfiling(boolean profiling) {
+		profiler.setEnabled(profiling);
+		CLCommandQueue oldQueue = queue;
+		queue = profiler.prepareQueue(oldQueue, ownsQueue);
+		if (queue != oldQueue) {
+			oldQueue.release();
+		}
 	}
 
 	/**
@@ -313,7 +431,9 @@ public class MOGAC3D extends AbstractCalculation {
 			ImageDataInt labelImage, boolean containsOverlaps) {
 		try {
 			init(unsignedImage, labelImage, containsOverlaps);
-			queue.finish();
+			if (!javaBackend) {
+				queue.finish();
+			}
 			time = 0;
 			long startTime = lastStartTime = System.nanoTime();
 
@@ -322,7 +442,9 @@ public class MOGAC3D extends AbstractCalculation {
 					break;
 				}
 			}
-			queue.finish();
+			if (!javaBackend) {
+				queue.finish();
+			}
 			long endTime = System.nanoTime();
 			this.elapsedTime = endTime - startTime;
 			System.out
@@ -330,8 +452,11 @@ public class MOGAC3D extends AbstractCalculation {
 							time, 1E-9 * (endTime - startTime), 1E9 * time
 									/ (endTime - startTime));
 			finish();
-			context.release();
-			context = null;
+			profiler.finishRun();
+			if (context != null) {
+				context.release();
+				context = null;
+			}
 			markCompleted();
 			return distFieldImage;
 		} catch (IOException e) {
@@ -374,14 +499,14 @@ public class MOGAC3D extends AbstractCalculation {
 		this.containsOverlaps = containsOverlaps;
 		int mask = 0x00000001;
 		int l = 0;
-		this.labels = labelImage.toArray3d();
+		this.labels = getFlatData(labelImage);
 		if (containsOverlaps) {
 			TreeSet<Integer> labelHash = new TreeSet<Integer>();
 			int totalMask = 0;
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						l = labels[i][j][k];
+						l = labels[getIndex(i, j, k)];
 						totalMask |= l;
 						labelHash.add(l);
 					}
@@ -416,7 +541,7 @@ public class MOGAC3D extends AbstractCalculation {
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						l = labels[i][j][k];
+						l = labels[getIndex(i, j, k)];
 						labelHash.add(l);
 					}
 				}
@@ -434,6 +559,17 @@ public class MOGAC3D extends AbstractCalculation {
 				forceIndexes[i] = i - 1;
 			}
 		}
+		if (javaBackend) {
+			initJava(unsignedImage, labelImage);
+			initJavaForces();
+			javaKernels.allocateSpeedBuffers();
+			setTotalUnits(maxIterations / getResamplingRate());
+			if (topologyPreservation) {
+				loadLUT626();
+			}
+			finish();
+			return;
+		}
 		CLProgram program = context.createProgram(
 				getClass().getResourceAsStream("MogacEvolveLevelSet3D.cl"))
 				.build(define("ROWS", rows), define("COLS", cols),
@@ -452,7 +588,7 @@ public class MOGAC3D extends AbstractCalculation {
 		for (int k = 0; k < slices; k++) {
 			for (int j = 0; j < cols; j++) {
 				for (int i = 0; i < rows; i++) {
-					int lab = labels[i][j][k];
+					int lab = labels[getIndex(i, j, k)];
 					if (i == 0 || j == 0 || k == 0 || i == rows - 1
 							|| j == cols - 1 || k == slices - 1) {
 						lab = 0;
@@ -464,37 +600,38 @@ public class MOGAC3D extends AbstractCalculation {
 		}
 		label.rewind();
 		oldLabel.rewind();
-		queue.putWriteBuffer(imageLabelBuffer, true).putWriteBuffer(
-				oldImageLabelBuffer, true);
+		profiler.putWriteBuffer(queue, imageLabelBuffer, true);
+		profiler.putWriteBuffer(queue, oldImageLabelBuffer, true);
 		oldDistanceFieldBuffer = context.createFloatBuffer(
 				rows * cols * slices, READ_WRITE, USE_BUFFER);
 		if (unsignedImage == null) {
 
 			convertLabelsToLevelSet();
-			unsignedImage = new ImageDataFloat(rows, cols, slices);
+			unsignedImage = createDistanceFieldImage();
 			unsignedImage.setName(image.getName() + "_distfield");
-			queue.putReadBuffer(distanceFieldBuffer, true);
+			profiler.putReadBuffer(queue, distanceFieldBuffer, true);
 			FloatBuffer buff = distanceFieldBuffer.getBuffer();
 			FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer
 					.getBuffer();
-			this.distField = unsignedImage.toArray3d();
+			this.distField = getFlatData(unsignedImage);
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						float val = distField[i][j][k];
+						float val = distField[getIndex(i, j, k)];
 						if (i == 0 || j == 0 || k == 0 || i == rows - 1
 								|| j == cols - 1 || k == slices - 1) {
 							val = Math.max(val, 3);
-							distField[i][j][k] = Math.max(buff.get(), 0);
+							distField[getIndex(i, j, k)] = Math.max(
+									buff.get(), 0);
 						} else {
-							distField[i][j][k] = buff.get();
+							distField[getIndex(i, j, k)] = buff.get();
 						}
 						oldUnsignedLevelSet.put(val);
 					}
 				}
 			}
 			oldUnsignedLevelSet.rewind();
-			queue.putWriteBuffer(oldDistanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 			buff.rewind();
 		} else {
 			distanceFieldBuffer = context.createFloatBuffer(rows * cols
@@ -503,11 +640,11 @@ public class MOGAC3D extends AbstractCalculation {
 			FloatBuffer unsignedLevelSet = distanceFieldBuffer.getBuffer();
 			FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer
 					.getBuffer();
-			this.distField = unsignedImage.toArray3d();
+			this.distField = getFlatData(unsignedImage);
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						float val = distField[i][j][k];
+						float val = distField[getIndex(i, j, k)];
 						if (i == 0 || j == 0 || k == 0 || i == rows - 1
 								|| j == cols - 1 || k == slices - 1) {
 							val = Math.max(val, 3);
@@ -519,8 +656,8 @@ public class MOGAC3D extends AbstractCalculation {
 			}
 			unsignedLevelSet.rewind();
 			oldUnsignedLevelSet.rewind();
-			queue.putWriteBuffer(distanceFieldBuffer, true).putWriteBuffer(
-					oldDistanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, distanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 		}
 		labelMaskBuffer = context.createIntBuffer(labelMasks.length, READ_ONLY,
 				USE_BUFFER);
@@ -530,44 +667,39 @@ public class MOGAC3D extends AbstractCalculation {
 		forceIndexesBuffer.getBuffer().put(forceIndexes).rewind();
 
 		if (pressureImage != null) {
-			rescale(pressureImage.toArray3d());
-			float[][][] pressure = pressureImage.toArray3d();
+			rescalePressure();
 			pressureBuffer = context.createFloatBuffer(rows * cols * slices,
 					READ_ONLY);
 			FloatBuffer buff = pressureBuffer.getBuffer();
-			for (int k = 0; k < slices; k++) {
-				for (int j = 0; j < cols; j++) {
-					for (int i = 0; i < rows; i++) {
-						buff.put(pressure[i][j][k]);
-					}
-				}
-			}
+			pressureImage.toBuffer(buff);
 			buff.rewind();
-			queue.putWriteBuffer(pressureBuffer, true);
+			profiler.putWriteBuffer(queue, pressureBuffer, true);
 		}
 		if (vecFieldImage != null) {
-			float[][][][] vecField = vecFieldImage.toArray4d();
+			float[] vecField = getFlatData(vecFieldImage);
+			int size = rows * cols * slices;
 			vecFieldBuffer = context.createFloatBuffer(
 					rows * cols * slices * 3, READ_ONLY);
 			FloatBuffer advectBuff = vecFieldBuffer.getBuffer();
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						advectBuff.put(vecField[i][j][k][0]);
-						advectBuff.put(vecField[i][j][k][1]);
-						advectBuff.put(vecField[i][j][k][2]);
+						int id = getIndex(i, j, k);
+						advectBuff.put(vecField[id]);
+						advectBuff.put(vecField[id + size]);
+						advectBuff.put(vecField[id + 2 * size]);
 					}
 				}
 			}
 			advectBuff.rewind();
-			queue.putWriteBuffer(vecFieldBuffer, true);
+			profiler.putWriteBuffer(queue, vecFieldBuffer, true);
 		}
 		idBuffer = context.createIntBuffer(rows * cols * slices * 7,
 				READ_WRITE, USE_BUFFER);
 		deltaLevelSetBuffer = context.createFloatBuffer(rows * cols * slices
 				* 7, READ_WRITE, USE_BUFFER);
-		queue.putWriteBuffer(labelMaskBuffer, true).putWriteBuffer(
-				forceIndexesBuffer, true);
+		profiler.putWriteBuffer(queue, labelMaskBuffer, true);
+		profiler.putWriteBuffer(queue, forceIndexesBuffer, true);
 		this.distFieldImage = unsignedImage;
 		this.labelImage = labelImage;
 		if (image != null) {
@@ -586,10 +718,135 @@ public class MOGAC3D extends AbstractCalculation {
 		finish();
 	}
 
+	/**
+	 * Creates the Java kernels for the current label configuration.
+	 * 
+	 * @return the Java kernels
+	 */
+	protected MogacKernels3D createJavaKernels() {
+		return new MogacKernels3D(rows, cols, slices, containsOverlaps,
+				clampSpeed, labelMasks, forceIndexes, MAX_LAYERS);
+	}
+
+	/**
+	 * Initialize the label image and level set for the Java kernels.
+	 * 
+	 * @param unsignedImage
+	 *            the unsigned image, or null to compute it from the labels
+	 * @param labelImage
+	 *            the label image
+	 */
+	protected void initJava(ImageDataFloat unsignedImage,
+			ImageDataInt labelImage) {
+		javaKernels = createJavaKernels();
+		int[] label = javaKernels.labels;
+		int[] oldLabel = javaKernels.oldLabels;
+		int index = 0;
+		for (int k = 0; k < slices; k++) {
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					int lab = labels[getIndex(i, j, k)];
+					if (i == 0 || j == 0 || k == 0 || i == rows - 1
+							|| j == cols - 1 || k == slices - 1) {
+						lab = 0;
+					}
+					label[index] = lab;
+					oldLabel[index] = lab;
+					index++;
+				}
+			}
+		}
+		float[] unsignedLevelSet = javaKernels.distanceField;
+		float[] oldUnsignedLevelSet = javaKernels.oldDistanceField;
+		index = 0;
+		if (unsignedImage == null) {
+			convertLabelsToLevelSet();
+			unsignedImage = createDistanceFieldImage();
+			this.distField = getFlatData(unsignedImage);
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						float val = distField[getIndex(i, j, k)];
+						if (i == 0 || j == 0 || k == 0 || i == rows - 1
+								|| j == cols - 1 || k == slices - 1) {
+							val = Math.max(val, 3);
+							distField[getIndex(i, j, k)] = Math.max(
+									unsignedLevelSet[index], 0);
+						} else {
+							distField[getIndex(i, j, k)] =
+									unsignedLevelSet[index];
+						}
+						oldUnsignedLevelSet[index++] = val;
+					}
+				}
+			}
+		} else {
+			this.distField = getFlatData(unsignedImage);
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						float val = distField[getIndex(i, j, k)];
+						if (i == 0 || j == 0 || k == 0 || i == rows - 1
+								|| j == cols - 1 || k == slices - 1) {
+							val = Math.max(val, 3);
+						}
+						unsignedLevelSet[index] = val;
+						oldUnsignedLevelSet[index++] = val;
+					}
+				}
+			}
+		}
+		this.distFieldImage = unsignedImage;
+		this.labelImage = labelImage;
+		if (image != null) {
+			this.labelImage.setName(image.getName() + "_labels");
+			distFieldImage.setName(image.getName() + "_distfield");
+		} else {
+			this.labelImage.setName("labels");
+			distFieldImage.setName("distfield");
+		}
+	}
+
+	/**
+	 * Copy the pressure and vector field into the Java kernels.
+	 */
+	protected void initJavaForces() {
+		int index = 0;
+		if (pressureImage != null) {
+			rescalePressure();
+			float[] buff = javaKernels.pressure = new float[rows * cols
+					* slices];
+			pressureImage.toBuffer(FloatBuffer.wrap(buff));
+		}
+		if (vecFieldImage != null) {
+			float[] vecField = getFlatData(vecFieldImage);
+			int size = rows * cols * slices;
+			float[] advectBuff = javaKernels.vecField = new float[rows * cols
+					* slices * 3];
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						int id = getIndex(i, j, k);
+						advectBuff[index++] = vecField[id];
+						advectBuff[index++] = vecField[id + size];
+						advectBuff[index++] = vecField[id + 2 * size];
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Convert labels to level set.
 	 */
 	public void convertLabelsToLevelSet() {
+		if (javaBackend) {
+			javaKernels.labelsToLevelSet();
+			for (int i = 1; i <= 2 * MAX_LAYERS; i++) {
+				javaKernels.extendDistanceField(false, i);
+			}
+			return;
+		}
 		final CLKernel labelsToLevelSet = kernelMap.get("labelsToLevelSet");
 		final CLKernel extendDistanceField = kernelMap
 				.get("extendDistanceField");
@@ -600,16 +857,17 @@ public class MOGAC3D extends AbstractCalculation {
 
 		labelsToLevelSet.putArgs(imageLabelBuffer, oldImageLabelBuffer,
 				distanceFieldBuffer, oldDistanceFieldBuffer).rewind();
-		queue.put1DRangeKernel(labelsToLevelSet, 0, roundToWorkgroupPower(rows
-				* cols * slices), WORKGROUP_SIZE);
+		profiler.put1DRangeKernel(queue, labelsToLevelSet, 0,
+				roundToWorkgroupPower(rows * cols * slices), WORKGROUP_SIZE);
 		for (int i = 1; i <= 2 * MAX_LAYERS; i++) {
 			extendDistanceField
 					.putArgs(oldDistanceFieldBuffer, distanceFieldBuffer,
 							imageLabelBuffer).putArg(i).rewind();
-			queue.put1DRangeKernel(extendDistanceField, 0,
-					roundToWorkgroupPower(rows * cols * slices), WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, extendDistanceField, 0,
+					roundToWorkgroupPower(rows * cols * slices),
+					WORKGROUP_SIZE);
 		}
-		queue.putReadBuffer(distanceFieldBuffer, true);
+		profiler.putReadBuffer(queue, distanceFieldBuffer, true);
 	}
 
 	/**
@@ -618,6 +876,9 @@ public class MOGAC3D extends AbstractCalculation {
 	 * @return true, if successful
 	 */
 	public boolean step() {
+		if (javaBackend) {
+			return stepJava();
+		}
 		final CLKernel pressureSpeedKernel = kernelMap
 				.get("pressureSpeedKernel");
 		final CLKernel vecFieldSpeedKernel = kernelMap
@@ -641,7 +902,7 @@ public class MOGAC3D extends AbstractCalculation {
 								forceIndexesBuffer).putArg(pressureWeight)
 						.putArg(vecFieldWeight).putArg(curvatureWeight)
 						.rewind();
-				queue.put1DRangeKernel(pressureVecFieldSpeedKernel, 0,
+				profiler.put1DRangeKernel(queue, pressureVecFieldSpeedKernel, 0,
 						global_size, WORKGROUP_SIZE);
 			} else {
 				pressureSpeedKernel
@@ -650,8 +911,8 @@ public class MOGAC3D extends AbstractCalculation {
 								idBuffer, labelMaskBuffer, forceIndexesBuffer)
 						.putArg(pressureWeight).putArg(curvatureWeight)
 						.rewind();
-				queue.put1DRangeKernel(pressureSpeedKernel, 0, global_size,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, pressureSpeedKernel, 0,
+						global_size, WORKGROUP_SIZE);
 			}
 		} else {
 			vecFieldSpeedKernel
@@ -659,8 +920,8 @@ public class MOGAC3D extends AbstractCalculation {
 							oldImageLabelBuffer, deltaLevelSetBuffer, idBuffer,
 							labelMaskBuffer, forceIndexesBuffer)
 					.putArg(vecFieldWeight).putArg(curvatureWeight).rewind();
-			queue.put1DRangeKernel(vecFieldSpeedKernel, 0, global_size,
-					WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, vecFieldSpeedKernel, 0,
+					global_size, WORKGROUP_SIZE);
 		}
 		if (topologyPreservation) {
 			if (!clampSpeed) {
@@ -671,10 +932,10 @@ public class MOGAC3D extends AbstractCalculation {
 				}
 				maxImageValue.putArgs(deltaLevelSetBuffer, maxTmpBuffer)
 						.rewind();
-				queue.put1DRangeKernel(maxImageValue, 0,
+				profiler.put1DRangeKernel(queue, maxImageValue, 0,
 						roundToWorkgroupPower(rows * cols), WORKGROUP_SIZE);
 				maxTimeStep.putArg(maxTmpBuffer).rewind();
-				queue.put1DRangeKernel(maxTimeStep, 0, 8, 8);
+				profiler.put1DRangeKernel(queue, maxTimeStep, 0, 8, 8);
 
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
@@ -682,32 +943,32 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								maxTmpBuffer, topologyRuleBuffer).putArg(0)
 						.putArg(0).putArg(0).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
 								deltaLevelSetBuffer, idBuffer,
 								distanceFieldBuffer, imageLabelBuffer,
 								maxTmpBuffer, topologyRuleBuffer).putArg(0)
 						.putArg(1).putArg(0).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
 								deltaLevelSetBuffer, idBuffer,
 								distanceFieldBuffer, imageLabelBuffer,
 								maxTmpBuffer, topologyRuleBuffer).putArg(1)
 						.putArg(1).putArg(0).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
 								deltaLevelSetBuffer, idBuffer,
 								distanceFieldBuffer, imageLabelBuffer,
 								maxTmpBuffer, topologyRuleBuffer).putArg(1)
 						.putArg(0).putArg(0).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
@@ -715,32 +976,32 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								maxTmpBuffer, topologyRuleBuffer).putArg(0)
 						.putArg(0).putArg(1).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
 								deltaLevelSetBuffer, idBuffer,
 								distanceFieldBuffer, imageLabelBuffer,
 								maxTmpBuffer, topologyRuleBuffer).putArg(0)
 						.putArg(1).putArg(1).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
 								deltaLevelSetBuffer, idBuffer,
 								distanceFieldBuffer, imageLabelBuffer,
 								maxTmpBuffer, topologyRuleBuffer).putArg(1)
 						.putArg(1).putArg(1).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
 								deltaLevelSetBuffer, idBuffer,
 								distanceFieldBuffer, imageLabelBuffer,
 								maxTmpBuffer, topologyRuleBuffer).putArg(1)
 						.putArg(0).putArg(1).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 
 			} else {
 				applyForces
@@ -749,8 +1010,8 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								topologyRuleBuffer).putArg(0.5f).putArg(0)
 						.putArg(0).putArg(0).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
@@ -758,8 +1019,8 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								topologyRuleBuffer).putArg(0.5f).putArg(0)
 						.putArg(1).putArg(0).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
@@ -767,8 +1028,8 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								topologyRuleBuffer).putArg(0.5f).putArg(1)
 						.putArg(1).putArg(0).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
@@ -776,8 +1037,8 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								topologyRuleBuffer).putArg(0.5f).putArg(1)
 						.putArg(0).putArg(0).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
@@ -785,16 +1046,16 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								topologyRuleBuffer).putArg(0.5f).putArg(0)
 						.putArg(0).putArg(1).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
 								deltaLevelSetBuffer, idBuffer,
 								distanceFieldBuffer, imageLabelBuffer,
 								topologyRuleBuffer).putArg(0.5f).putArg(0)
 						.putArg(1).putArg(1).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
@@ -802,8 +1063,8 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								topologyRuleBuffer).putArg(0.5f).putArg(1)
 						.putArg(1).putArg(1).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 
 				applyForces
 						.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
@@ -811,8 +1072,8 @@ public class MOGAC3D extends AbstractCalculation {
 								distanceFieldBuffer, imageLabelBuffer,
 								topologyRuleBuffer).putArg(0.5f).putArg(1)
 						.putArg(0).putArg(1).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size / 8,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, applyForces, 0,
+						global_size / 8, WORKGROUP_SIZE);
 			}
 		} else {
 			if (!clampSpeed) {
@@ -824,15 +1085,15 @@ public class MOGAC3D extends AbstractCalculation {
 				maxImageValue.putArgs(deltaLevelSetBuffer, maxTmpBuffer)
 						.rewind();
 
-				queue.put1DRangeKernel(maxImageValue, 0,
+				profiler.put1DRangeKernel(queue, maxImageValue, 0,
 						roundToWorkgroupPower(rows * cols), WORKGROUP_SIZE);
 				maxTimeStep.putArg(maxTmpBuffer).rewind();
-				queue.put1DRangeKernel(maxTimeStep, 0, 1, 1);
+				profiler.put1DRangeKernel(queue, maxTimeStep, 0, 1, 1);
 				applyForces.putArgs(oldDistanceFieldBuffer,
 						oldImageLabelBuffer, deltaLevelSetBuffer, idBuffer,
 						distanceFieldBuffer, imageLabelBuffer, maxTmpBuffer)
 						.rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size,
+				profiler.put1DRangeKernel(queue, applyForces, 0, global_size,
 						WORKGROUP_SIZE);
 			} else {
 				applyForces
@@ -840,7 +1101,7 @@ public class MOGAC3D extends AbstractCalculation {
 								deltaLevelSetBuffer, idBuffer,
 								distanceFieldBuffer, imageLabelBuffer)
 						.putArg(0.5f).rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size,
+				profiler.put1DRangeKernel(queue, applyForces, 0, global_size,
 						WORKGROUP_SIZE);
 			}
 		}
@@ -848,15 +1109,16 @@ public class MOGAC3D extends AbstractCalculation {
 			extendDistanceField
 					.putArgs(oldDistanceFieldBuffer, distanceFieldBuffer,
 							imageLabelBuffer).putArg(i).rewind();
-			queue.put1DRangeKernel(extendDistanceField, 0, global_size,
-					WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, extendDistanceField, 0,
+					global_size, WORKGROUP_SIZE);
 		}
 
 		queue.finish();
 		// saveLevelSetAndLabelImages();
 		copyBuffers.putArgs(oldDistanceFieldBuffer, oldImageLabelBuffer,
 				distanceFieldBuffer, imageLabelBuffer).rewind();
-		queue.put1DRangeKernel(copyBuffers, 0, global_size, WORKGROUP_SIZE);
+		profiler.put1DRangeKernel(queue, copyBuffers, 0, global_size,
+				WORKGROUP_SIZE);
 		// contours = null;
 		dirty = true;
 		if (time % getResamplingRate() == 0) {
@@ -874,6 +1136,46 @@ public class MOGAC3D extends AbstractCalculation {
 		return true;
 	}
 
+	/**
+	 * Step using the Java kernels. Topology preserving updates are applied in
+	 * the same eight checkerboard passes as the OpenCL kernels.
+	 * 
+	 * @return true, if successful
+	 */
+	protected boolean stepJava() {
+		final int[] xOff = { 0, 0, 1, 1, 0, 0, 1, 1 };
+		final int[] yOff = { 0, 1, 1, 0, 0, 1, 1, 0 };
+		final int[] zOff = { 0, 0, 0, 0, 1, 1, 1, 1 };
+		MogacKernels3D kernels = javaKernels;
+		kernels.computeSpeed(false, pressureWeight, vecFieldWeight,
+				curvatureWeight);
+		float timeStep = (clampSpeed) ? 0.5f : kernels.maxTimeStep(false);
+		if (topologyPreservation) {
+			for (int nn = 0; nn < 8; nn++) {
+				kernels.applyForcesTopoRule(false, timeStep, xOff[nn],
+						yOff[nn], zOff[nn]);
+			}
+		} else {
+			kernels.applyForces(false, timeStep);
+		}
+		for (int i = 1; i <= MAX_LAYERS; i++) {
+			kernels.extendDistanceField(false, i);
+		}
+		kernels.copyBuffers(false);
+		dirty = true;
+		if (time % getResamplingRate() == 0) {
+			long tmp = System.nanoTime();
+			for (FrameUpdateListener updater : listeners) {
+				updater.frameUpdate(time, 1E9 * getResamplingRate()
+						/ (tmp - lastStartTime));
+			}
+			lastStartTime = tmp;
+			incrementCompletedUnits();
+		}
+		time++;
+		return true;
+	}
+
 	/**
 	 * Round to workgroup power.
 	 * 
@@ -889,6 +1191,112 @@ public class MOGAC3D extends AbstractCalculation {
 		}
 	}
 
+	/**
+	 * Gets the index of a voxel in the flat distance field and labels.
+	 * 
+	 * @param i
+	 *            the row
+	 * @param j
+	 *            the column
+	 * @param k
+	 *            the slice
+	 * @return the index
+	 */
+	protected final int getIndex(int i, int j, int k) {
+		return (k * cols + j) * rows + i;
+	}
+
+	/**
+	 * Creates an empty distance field image with flat storage.
+	 * 
+	 * @return the distance field image
+	 */
+	protected ImageDataFloat createDistanceFieldImage() {
+		return new ImageDataFloat(new float[rows * cols * slices], rows, cols,
+				slices, 1);
+	}
+
+	/**
+	 * Gets the voxels of an image with rows varying fastest, followed by
+	 * columns, slices and components. Flat images return their storage, so
+	 * they are never converted to nested arrays; nested images are copied.
+	 * 
+	 * @param img
+	 *            the image
+	 * @return the flat voxels
+	 */
+	protected static float[] getFlatData(ImageDataFloat img) {
+		float[] data = img.toArray1d();
+		if (data == null) {
+			data = new float[img.getRows() * img.getCols()
+					* Math.max(1, img.getSlices())
+					* Math.max(1, img.getComponents())];
+			img.toBuffer(FloatBuffer.wrap(data));
+		}
+		return data;
+	}
+
+	/**
+	 * Gets the voxels of an image with rows varying fastest, followed by
+	 * columns, slices and components. Flat images return their storage, so
+	 * they are never converted to nested arrays; nested images are copied.
+	 * 
+	 * @param img
+	 *            the image
+	 * @return the flat voxels
+	 */
+	protected static int[] getFlatData(ImageDataInt img) {
+		int[] data = img.toArray1d();
+		if (data == null) {
+			data = new int[img.getRows() * img.getCols()
+					* Math.max(1, img.getSlices())
+					* Math.max(1, img.getComponents())];
+			img.toBuffer(IntBuffer.wrap(data));
+		}
+		return data;
+	}
+
+	/**
+	 * Rescale the pressure image in place, using its flat storage when
+	 * available.
+	 */
+	protected void rescalePressure() {
+		float[] flat = pressureImage.toArray1d();
+		if (flat != null) {
+			rescale(flat);
+		} else {
+			rescale(pressureImage.toArray3d());
+		}
+	}
+
+	/**
+	 * Rescale.
+	 * 
+	 * @param pressureForce
+	 *            the pressure force stored as a flat array
+	 */
+	protected void rescale(float[] pressureForce) {
+		double min = Float.MAX_VALUE;
+		double max = Float.MIN_VALUE;
+		if (!Float.isNaN(targetPressure)) {
+			for (int i = 0; i < pressureForce.length; i++) {
+				double val = pressureForce[i] - targetPressure;
+				min = Math.min(val, min);
+				max = Math.max(val, max);
+			}
+			double normMin = (Math.abs(min) > 1E-4) ? 1 / Math.abs(min) : 1;
+			double normMax = (Math.abs(max) > 1E-4) ? 1 / Math.abs(max) : 1;
+			for (int i = 0; i < pressureForce.length; i++) {
+				double val = pressureForce[i] - targetPressure;
+				if (val < 0) {
+					pressureForce[i] = (float) (val * normMin);
+				} else {
+					pressureForce[i] = (float) (val * normMax);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Rescale.
 	 * 
@@ -966,10 +1374,14 @@ public class MOGAC3D extends AbstractCalculation {
 						Math.min(BUFFER, buff.length - index))) > 0) {
 					index += count;
 				}
+				if (javaBackend) {
+					javaKernels.topologyRule = buff;
+					return true;
+				}
 				topologyRuleBuffer = context.createByteBuffer(buff.length,
 						READ_ONLY);
 				topologyRuleBuffer.getBuffer().put(buff).rewind();
-				queue.putWriteBuffer(topologyRuleBuffer, true);
+				profiler.putWriteBuffer(queue, topologyRuleBuffer, true);
 				return true;
 			}
 			zis.close();
@@ -1008,20 +1420,40 @@ public class MOGAC3D extends AbstractCalculation {
 	 * Finish.
 	 */
 	public void finish() {
-		queue.putReadBuffer(distanceFieldBuffer, true).putReadBuffer(
-				imageLabelBuffer, true);
-		FloatBuffer buff = distanceFieldBuffer.getBuffer();
-		IntBuffer buff2 = imageLabelBuffer.getBuffer();
-		for (int k = 0; k < slices; k++) {
-			for (int j = 0; j < cols; j++) {
-				for (int i = 0; i < rows; i++) {
-					distField[i][j][k] = buff.get();
-					labels[i][j][k] = buff2.get();
+		int size = rows * cols * slices;
+		if (javaBackend) {
+			System.arraycopy(javaKernels.distanceField, 0, distField, 0, size);
+			System.arraycopy(javaKernels.labels, 0, labels, 0, size);
+		} else {
+			profiler.putReadBuffer(queue, distanceFieldBuffer, true);
+			profiler.putReadBuffer(queue, imageLabelBuffer, true);
+			FloatBuffer buff = distanceFieldBuffer.getBuffer();
+			IntBuffer buff2 = imageLabelBuffer.getBuffer();
+			buff.get(distField, 0, size);
+			buff2.get(labels, 0, size);
+			buff.rewind();
+			buff2.rewind();
+		}
+		// Images with nested storage were read into copies
+		if (!distFieldImage.isFlat()) {
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						distFieldImage.set(i, j, k,
+								distField[getIndex(i, j, k)]);
+					}
+				}
+			}
+		}
+		if (!labelImage.isFlat()) {
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						labelImage.set(i, j, k, labels[getIndex(i, j, k)]);
+					}
 				}
 			}
 		}
-		buff.rewind();
-		buff2.rewind();
 		dirty = false;
 	}
 
@@ -1346,6 +1778,32 @@ public class MOGAC3D extends AbstractCalculation {
 	}
 
 	public void setDistanceFieldImage(ImageDataFloat unsignedImage) {
+		if (javaBackend) {
+			float[] unsignedLevelSet = javaKernels.distanceField;
+			float[] oldUnsignedLevelSet = javaKernels.oldDistanceField;
+			this.distField = getFlatData(unsignedImage);
+			int index = 0;
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						float val = distField[getIndex(i, j, k)];
+						if (i == 0 || j == 0 || k == 0 || i == rows - 1
+								|| j == cols - 1 || k == slices - 1) {
+							val = Math.max(val, 3);
+						}
+						unsignedLevelSet[index] = val;
+						oldUnsignedLevelSet[index++] = val;
+					}
+				}
+			}
+			this.distFieldImage = unsignedImage;
+			if (image != null) {
+				distFieldImage.setName(image.getName() + "_distfield");
+			} else {
+				distFieldImage.setName("distfield");
+			}
+			return;
+		}
 		if (distanceFieldBuffer != null)
 			distanceFieldBuffer.release();
 		if (oldDistanceFieldBuffer != null)
@@ -1357,12 +1815,12 @@ public class MOGAC3D extends AbstractCalculation {
 				rows * cols * slices, READ_WRITE, USE_BUFFER);
 		FloatBuffer unsignedLevelSet = distanceFieldBuffer.getBuffer();
 		FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer.getBuffer();
-		this.distField = unsignedImage.toArray3d();
+		this.distField = getFlatData(unsignedImage);
 		System.out.println("WRITE DISTANCE FIELD IMAGE");
 		for (int k = 0; k < slices; k++) {
 			for (int j = 0; j < cols; j++) {
 				for (int i = 0; i < rows; i++) {
-					float val = distField[i][j][k];
+					float val = distField[getIndex(i, j, k)];
 					if (i == 0 || j == 0 || k == 0 || i == rows - 1
 							|| j == cols - 1 || k == slices - 1) {
 						val = Math.max(val, 3);
@@ -1375,8 +1833,8 @@ public class MOGAC3D extends AbstractCalculation {
 		unsignedLevelSet.rewind();
 		oldUnsignedLevelSet.rewind();
 
-		queue.putWriteBuffer(distanceFieldBuffer, true).putWriteBuffer(
-				oldDistanceFieldBuffer, true);
+		profiler.putWriteBuffer(queue, distanceFieldBuffer, true);
+		profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 		this.distFieldImage = unsignedImage;
 		if (image != null) {
 			distFieldImage.setName(image.getName() + "_distfield");
@@ -1408,14 +1866,14 @@ public class MOGAC3D extends AbstractCalculation {
 		this.labelImage = labelImage;
 		int mask = 0x00000001;
 		int l = 0;
-		this.labels = labelImage.toArray3d();
+		this.labels = getFlatData(labelImage);
 		if (containsOverlaps) {
 			TreeSet<Integer> labelHash = new TreeSet<Integer>();
 			int totalMask = 0;
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						l = labels[i][j][k];
+						l = labels[getIndex(i, j, k)];
 						totalMask |= l;
 						labelHash.add(l);
 					}
@@ -1450,7 +1908,7 @@ public class MOGAC3D extends AbstractCalculation {
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						l = labels[i][j][k];
+						l = labels[getIndex(i, j, k)];
 						labelHash.add(l);
 					}
 				}
@@ -1468,6 +1926,17 @@ public class MOGAC3D extends AbstractCalculation {
 				forceIndexes[i] = i - 1;
 			}
 		}
+		if (javaBackend) {
+			MogacKernels3D previous = javaKernels;
+			initJava(unsignedImage, labelImage);
+			if (previous != null) {
+				javaKernels.pressure = previous.pressure;
+				javaKernels.vecField = previous.vecField;
+				javaKernels.topologyRule = previous.topologyRule;
+			}
+			javaKernels.allocateSpeedBuffers();
+			return true;
+		}
 		if (imageLabelBuffer != null)
 			imageLabelBuffer.release();
 		if (oldImageLabelBuffer != null)
@@ -1481,7 +1950,7 @@ public class MOGAC3D extends AbstractCalculation {
 		for (int k = 0; k < slices; k++) {
 			for (int j = 0; j < cols; j++) {
 				for (int i = 0; i < rows; i++) {
-					int lab = labels[i][j][k];
+					int lab = labels[getIndex(i, j, k)];
 					if (i == 0 || j == 0 || k == 0 || i == rows - 1
 							|| j == cols - 1 || k == slices - 1) {
 						lab = 0;
@@ -1493,8 +1962,8 @@ public class MOGAC3D extends AbstractCalculation {
 		}
 		label.rewind();
 		oldLabel.rewind();
-		queue.putWriteBuffer(imageLabelBuffer, true).putWriteBuffer(
-				oldImageLabelBuffer, true);
+		profiler.putWriteBuffer(queue, imageLabelBuffer, true);
+		profiler.putWriteBuffer(queue, oldImageLabelBuffer, true);
 		if (distanceFieldBuffer != null)
 			distanceFieldBuffer.release();
 		if (oldDistanceFieldBuffer != null)
@@ -1504,30 +1973,31 @@ public class MOGAC3D extends AbstractCalculation {
 		init();
 		if (unsignedImage == null) {
 			convertLabelsToLevelSet();
-			unsignedImage = new ImageDataFloat(rows, cols, slices);
+			unsignedImage = createDistanceFieldImage();
 			unsignedImage.setName(image.getName() + "_distfield");
-			queue.putReadBuffer(distanceFieldBuffer, true);
+			profiler.putReadBuffer(queue, distanceFieldBuffer, true);
 			FloatBuffer buff = distanceFieldBuffer.getBuffer();
 			FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer
 					.getBuffer();
-			this.distField = unsignedImage.toArray3d();
+			this.distField = getFlatData(unsignedImage);
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						float val = distField[i][j][k];
+						float val = distField[getIndex(i, j, k)];
 						if (i == 0 || j == 0 || k == 0 || i == rows - 1
 								|| j == cols - 1 || k == slices - 1) {
 							val = Math.max(val, 3);
-							distField[i][j][k] = Math.max(buff.get(), 0);
+							distField[getIndex(i, j, k)] = Math.max(
+									buff.get(), 0);
 						} else {
-							distField[i][j][k] = buff.get();
+							distField[getIndex(i, j, k)] = buff.get();
 						}
 						oldUnsignedLevelSet.put(val);
 					}
 				}
 			}
 			oldUnsignedLevelSet.rewind();
-			queue.putWriteBuffer(oldDistanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 			buff.rewind();
 		} else {
 			distanceFieldBuffer = context.createFloatBuffer(rows * cols
@@ -1536,11 +2006,11 @@ public class MOGAC3D extends AbstractCalculation {
 			FloatBuffer unsignedLevelSet = distanceFieldBuffer.getBuffer();
 			FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer
 					.getBuffer();
-			this.distField = unsignedImage.toArray3d();
+			this.distField = getFlatData(unsignedImage);
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						float val = distField[i][j][k];
+						float val = distField[getIndex(i, j, k)];
 						if (i == 0 || j == 0 || k == 0 || i == rows - 1
 								|| j == cols - 1 || k == slices - 1) {
 							val = Math.max(val, 3);
@@ -1552,8 +2022,8 @@ public class MOGAC3D extends AbstractCalculation {
 			}
 			unsignedLevelSet.rewind();
 			oldUnsignedLevelSet.rewind();
-			queue.putWriteBuffer(distanceFieldBuffer, true).putWriteBuffer(
-					oldDistanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, distanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 		}
 		if (labelMaskBuffer != null)
 			labelMaskBuffer.release();
@@ -1575,8 +2045,8 @@ public class MOGAC3D extends AbstractCalculation {
 				READ_WRITE, USE_BUFFER);
 		deltaLevelSetBuffer = context.createFloatBuffer(rows * cols * slices
 				* 7, READ_WRITE, USE_BUFFER);
-		queue.putWriteBuffer(labelMaskBuffer, true).putWriteBuffer(
-				forceIndexesBuffer, true);
+		profiler.putWriteBuffer(queue, labelMaskBuffer, true);
+		profiler.putWriteBuffer(queue, forceIndexesBuffer, true);
 		System.out.println("SET LABEL IMAGE " + getNumColors());
 		this.distFieldImage = unsignedImage;
 		this.labelImage = labelImage;
@@ -1592,6 +2062,9 @@ public class MOGAC3D extends AbstractCalculation {
 	}
 
 	public void init() {
+		if (javaBackend) {
+			return;
+		}
 		CLProgram program;
 		try {
 			program = context.createProgram(
@@ -560,7 +560,7 @@ kernel void vecFieldSpeedKernel(
 	vecField+=3*id;
 	forceX = advectWeight * vecField[0];
 	forceY = advectWeight * vecField[1];
-	forceZ = advectWeight * vecField[3];
+	forceZ = advectWeight * vecField[2];
 	for(int index=0;index<7;index++){
 		label=activeLabels[index];
 		if(label==0){
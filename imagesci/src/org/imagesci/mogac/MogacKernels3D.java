@@ -0,0 +1,1144 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.mogac;
+
+import org.imagesci.utility.ParallelUtil;
+
+/**
+ * The Class MogacKernels3D is a multi-threaded Java implementation of the
+ * kernels in MogacEvolveLevelSet3D.cl and WEMogacEvolveLevelSet3D.cl. It is
+ * used by {@link MOGAC3D} and {@link WEMOGAC3D} when no OpenCL device is
+ * available. Buffers use the same linear voxel layout as the OpenCL buffers,
+ * index = k*rows*cols + j*rows + i. Every kernel has a full grid form and an
+ * active list form, the active list form follows the work-efficient kernels.
+ */
+public class MogacKernels3D {
+
+	/**
+	 * Per voxel operation.
+	 */
+	protected static interface VoxelTask {
+
+		/**
+		 * Run.
+		 *
+		 * @param id
+		 *            the voxel index
+		 * @param slot
+		 *            the slot in the speed buffers
+		 */
+		public void run(int id, int slot);
+	}
+
+	/** The Constant INF_FORCE. */
+	protected static final float INF_FORCE = 1E10f;
+
+	/** The Constant MAX_CURVATURE_FORCE. */
+	protected static final float MAX_CURVATURE_FORCE = 10.0f;
+
+	/** The Constant MAX_SPEED. */
+	protected static final float MAX_SPEED = 0.999f;
+
+	/** The number of active voxels in each chunk of the active list. */
+	protected static final int STRIDE = 128;
+
+	/** The checkerboard x shifts used by the narrow band kernels. */
+	public static final int[] xShift = { 0, 0, 1, 1, 0, 0, 1, 1 };
+
+	/** The checkerboard y shifts used by the narrow band kernels. */
+	public static final int[] yShift = { 0, 1, 0, 1, 0, 1, 0, 1 };
+
+	/** The checkerboard z shifts used by the narrow band kernels. */
+	public static final int[] zShift = { 0, 0, 0, 0, 1, 1, 1, 1 };
+
+	/** The x neighborhood. */
+	protected static final int[] xNeighborhood = { -1, 1, 0, 0, 0, 0 };
+
+	/** The y neighborhood. */
+	protected static final int[] yNeighborhood = { 0, 0, -1, 1, 0, 0 };
+
+	/** The z neighborhood. */
+	protected static final int[] zNeighborhood = { 0, 0, 0, 0, -1, 1 };
+
+	/** The active list. */
+	public int[] activeList = null;
+
+	/** The active list array size. */
+	public int activeListArraySize = 0;
+
+	/** The active list size. */
+	public int activeListSize = 0;
+
+	/** The clamp speed. */
+	protected boolean clampSpeed;
+
+	/** The contains overlaps. */
+	protected boolean containsOverlaps;
+
+	/** The delta level set. */
+	public float[] deltaLevelSet;
+
+	/** The unsigned distance field. */
+	public float[] distanceField;
+
+	/** The force indexes. */
+	protected int[] forceIndexes;
+
+	/** The label history used by the adaptive active set. */
+	public int[] history = null;
+
+	/** The object ids. */
+	public int[] ids;
+
+	/** The label image. */
+	public int[] labels;
+
+	/** The label masks. */
+	protected int[] labelMasks;
+
+	/** The max distance of the narrow band. */
+	protected float maxDistance;
+
+	/** The offsets used to compact and expand the active list. */
+	protected int[] offsets = null;
+
+	/** The old unsigned distance field. */
+	public float[] oldDistanceField;
+
+	/** The old label image. */
+	public int[] oldLabels;
+
+	/** The pressure. */
+	public float[] pressure = null;
+
+	/** The temporary active list. */
+	protected int[] tmpActiveList = null;
+
+	/** The topology look-up table. */
+	public byte[] topologyRule = null;
+
+	/** The vector field, three components per voxel. */
+	public float[] vecField = null;
+
+	/** The slices. */
+	public final int rows, cols, slices;
+
+	/**
+	 * Instantiates a new set of MOGAC kernels.
+	 *
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param containsOverlaps
+	 *            the contains overlaps
+	 * @param clampSpeed
+	 *            the clamp speed
+	 * @param labelMasks
+	 *            the label masks
+	 * @param forceIndexes
+	 *            the force indexes
+	 * @param maxDistance
+	 *            the max distance of the narrow band
+	 */
+	public MogacKernels3D(int rows, int cols, int slices,
+			boolean containsOverlaps, boolean clampSpeed, int[] labelMasks,
+			int[] forceIndexes, float maxDistance) {
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = slices;
+		this.containsOverlaps = containsOverlaps;
+		this.clampSpeed = clampSpeed;
+		this.labelMasks = labelMasks;
+		this.forceIndexes = forceIndexes;
+		this.maxDistance = maxDistance;
+		int size = rows * cols * slices;
+		distanceField = new float[size];
+		oldDistanceField = new float[size];
+		labels = new int[size];
+		oldLabels = new int[size];
+	}
+
+	/**
+	 * Allocate speed buffers for the full grid.
+	 */
+	public void allocateSpeedBuffers() {
+		allocateSpeedBuffers(rows * cols * slices);
+	}
+
+	/**
+	 * Allocate speed buffers.
+	 *
+	 * @param size
+	 *            the number of voxels
+	 */
+	protected void allocateSpeedBuffers(int size) {
+		deltaLevelSet = new float[7 * size];
+		ids = new int[7 * size];
+	}
+
+	/**
+	 * Gets the index.
+	 *
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @return the index
+	 */
+	public final int getIndex(int i, int j, int k) {
+		return (k * (rows * cols)) + (j * rows) + i;
+	}
+
+	/**
+	 * Gets the index clamped to the image boundary.
+	 *
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @return the safe index
+	 */
+	public final int getSafeIndex(int i, int j, int k) {
+		int r = Math.max(0, Math.min(rows - 1, i));
+		int c = Math.max(0, Math.min(cols - 1, j));
+		int s = Math.max(0, Math.min(slices - 1, k));
+		return (s * (rows * cols)) + (c * rows) + r;
+	}
+
+	/**
+	 * Gets the signed level set value for a label.
+	 *
+	 * @param image
+	 *            the unsigned level set
+	 * @param labelImage
+	 *            the label image
+	 * @param label
+	 *            the label
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @return the level set value
+	 */
+	protected final float getLevelSetValue(float[] image, int[] labelImage,
+			int label, int i, int j, int k) {
+		int ii = getSafeIndex(i, j, k);
+		return (labelImage[ii] == label) ? -image[ii] : image[ii];
+	}
+
+	/**
+	 * Gets the offset of a label in the label mask list.
+	 *
+	 * @param label
+	 *            the label
+	 * @return the offset
+	 */
+	protected final int getOffset(int label) {
+		if (containsOverlaps) {
+			for (int l = 0; l < labelMasks.length; l++) {
+				if (labelMasks[l] == label) {
+					return l;
+				}
+			}
+			return 0;
+		} else {
+			return label;
+		}
+	}
+
+	/**
+	 * Execute a task for every voxel, or for every voxel in the active list.
+	 *
+	 * @param active
+	 *            true to iterate over the active list
+	 * @param task
+	 *            the task
+	 */
+	protected void forEachVoxel(final boolean active, final VoxelTask task) {
+		int count = (active) ? activeListSize : rows * cols * slices;
+		ParallelUtil.forRange(0, count, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				if (active) {
+					for (int n = start; n < end; n++) {
+						task.run(activeList[n], n);
+					}
+				} else {
+					for (int n = start; n < end; n++) {
+						task.run(n, n);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Initialize the level set from the label image. Voxels on the boundary of
+	 * an object with a larger label are assigned a small distance.
+	 */
+	public void labelsToLevelSet() {
+		forEachVoxel(false, new VoxelTask() {
+			@Override
+			public void run(int id, int slot) {
+				int k = id / (rows * cols);
+				int ij = id - k * (rows * cols);
+				int j = ij / rows;
+				int i = ij - j * rows;
+				int currentLabel = labels[id];
+				oldLabels[id] = currentLabel;
+				if (currentLabel < oldLabels[getSafeIndex(i + 1, j, k)]
+						|| currentLabel < oldLabels[getSafeIndex(i - 1, j, k)]
+						|| currentLabel < oldLabels[getSafeIndex(i, j + 1, k)]
+						|| currentLabel < oldLabels[getSafeIndex(i, j - 1, k)]
+						|| currentLabel < oldLabels[getSafeIndex(i, j, k + 1)]
+						|| currentLabel < oldLabels[getSafeIndex(i, j, k - 1)]) {
+					distanceField[id] = 0.01f;
+					oldDistanceField[id] = 0.01f;
+				} else {
+					distanceField[id] = 1.0f;
+					oldDistanceField[id] = 1.0f;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Compute the speed of every label adjacent to a voxel on the zero level
+	 * set. The result is stored in the delta level set and id buffers, seven
+	 * entries per voxel.
+	 *
+	 * @param active
+	 *            true to iterate over the active list
+	 * @param pressureWeight
+	 *            the pressure weight
+	 * @param vecFieldWeight
+	 *            the vector field weight
+	 * @param curvWeight
+	 *            the curvature weight
+	 */
+	public void computeSpeed(final boolean active, final float pressureWeight,
+			final float vecFieldWeight, final float curvWeight) {
+		forEachVoxel(active, new VoxelTask() {
+			@Override
+			public void run(int id, int slot) {
+				computeSpeed(id, slot, active, pressureWeight,
+						vecFieldWeight, curvWeight);
+			}
+		});
+	}
+
+	/**
+	 * Compute the speed for one voxel.
+	 *
+	 * @param id
+	 *            the voxel index
+	 * @param slot
+	 *            the slot in the speed buffers
+	 * @param active
+	 *            true if iterating over the active list
+	 * @param pressureWeight
+	 *            the pressure weight
+	 * @param vecFieldWeight
+	 *            the vector field weight
+	 * @param curvWeight
+	 *            the curvature weight
+	 */
+	protected void computeSpeed(int id, int slot, boolean active,
+			float pressureWeight, float vecFieldWeight, float curvWeight) {
+		int off = 7 * slot;
+		if (oldDistanceField[id] > 0.5f) {
+			if (active) {
+				for (int index = 0; index < 7; index++) {
+					deltaLevelSet[off + index] = 0;
+				}
+			}
+			return;
+		}
+		int k = id / (rows * cols);
+		int ij = id - k * (rows * cols);
+		int j = ij / rows;
+		int i = ij - j * rows;
+		float[] levelset = oldDistanceField;
+		int[] labelImage = oldLabels;
+		float forceX = 0, forceY = 0, forceZ = 0;
+		if (vecField != null) {
+			forceX = vecFieldWeight * vecField[3 * id];
+			forceY = vecFieldWeight * vecField[3 * id + 1];
+			forceZ = vecFieldWeight * vecField[3 * id + 2];
+		}
+		float pressureValue = (pressure != null) ? pressure[id] : 0;
+		for (int index = 0; index < 7; index++) {
+			int label;
+			switch (index) {
+			case 0:
+				label = labelImage[id];
+				break;
+			case 1:
+				label = labelImage[getSafeIndex(i + 1, j, k)];
+				break;
+			case 2:
+				label = labelImage[getSafeIndex(i - 1, j, k)];
+				break;
+			case 3:
+				label = labelImage[getSafeIndex(i, j + 1, k)];
+				break;
+			case 4:
+				label = labelImage[getSafeIndex(i, j - 1, k)];
+				break;
+			case 5:
+				label = labelImage[getSafeIndex(i, j, k + 1)];
+				break;
+			default:
+				label = labelImage[getSafeIndex(i, j, k - 1)];
+				break;
+			}
+			if (label == 0) {
+				ids[off + index] = 0;
+				deltaLevelSet[off + index] = 0;
+				continue;
+			}
+			int offset = getOffset(label);
+			ids[off + index] = label;
+			if ((containsOverlaps) ? forceIndexes[offset] < 0 : offset < 1) {
+				deltaLevelSet[off + index] = MAX_SPEED;
+				continue;
+			}
+			float v111 = getLevelSetValue(levelset, labelImage, label, i, j, k);
+			float v010 = getLevelSetValue(levelset, labelImage, label, i - 1,
+					j, k - 1);
+			float v120 = getLevelSetValue(levelset, labelImage, label, i,
+					j + 1, k - 1);
+			float v110 = getLevelSetValue(levelset, labelImage, label, i, j,
+					k - 1);
+			float v100 = getLevelSetValue(levelset, labelImage, label, i,
+					j - 1, k - 1);
+			float v210 = getLevelSetValue(levelset, labelImage, label, i + 1,
+					j, k - 1);
+			float v001 = getLevelSetValue(levelset, labelImage, label, i - 1,
+					j - 1, k);
+			float v011 = getLevelSetValue(levelset, labelImage, label, i - 1,
+					j, k);
+			float v101 = getLevelSetValue(levelset, labelImage, label, i,
+					j - 1, k);
+			float v211 = getLevelSetValue(levelset, labelImage, label, i + 1,
+					j, k);
+			float v201 = getLevelSetValue(levelset, labelImage, label, i + 1,
+					j - 1, k);
+			float v221 = getLevelSetValue(levelset, labelImage, label, i + 1,
+					j + 1, k);
+			float v021 = getLevelSetValue(levelset, labelImage, label, i - 1,
+					j + 1, k);
+			float v121 = getLevelSetValue(levelset, labelImage, label, i,
+					j + 1, k);
+			float v012 = getLevelSetValue(levelset, labelImage, label, i - 1,
+					j, k + 1);
+			float v122 = getLevelSetValue(levelset, labelImage, label, i,
+					j + 1, k + 1);
+			float v112 = getLevelSetValue(levelset, labelImage, label, i, j,
+					k + 1);
+			float v102 = getLevelSetValue(levelset, labelImage, label, i,
+					j - 1, k + 1);
+			float v212 = getLevelSetValue(levelset, labelImage, label, i + 1,
+					j, k + 1);
+
+			float DxNeg = v111 - v011;
+			float DxPos = v211 - v111;
+			float DyNeg = v111 - v101;
+			float DyPos = v121 - v111;
+			float DzNeg = v111 - v110;
+			float DzPos = v112 - v111;
+
+			float DxCtr = 0.5f * (v211 - v011);
+			float DyCtr = 0.5f * (v121 - v101);
+			float DzCtr = 0.5f * (v112 - v110);
+			float DxxCtr = v211 - v111 - v111 + v011;
+			float DyyCtr = v121 - v111 - v111 + v101;
+			float DzzCtr = v112 - v111 - v111 + v110;
+			float DxyCtr = (v221 - v021 - v201 + v001) * 0.25f;
+			float DxzCtr = (v212 - v012 - v210 + v010) * 0.25f;
+			float DyzCtr = (v122 - v102 - v120 + v100) * 0.25f;
+
+			float numer = 0.5f * ((DyyCtr + DzzCtr) * DxCtr * DxCtr
+					+ (DxxCtr + DzzCtr) * DyCtr * DyCtr + (DxxCtr + DyyCtr)
+					* DzCtr * DzCtr - 2 * DxCtr * DyCtr * DxyCtr - 2 * DxCtr
+					* DzCtr * DxzCtr - 2 * DyCtr * DzCtr * DyzCtr);
+			float denom = DxCtr * DxCtr + DyCtr * DyCtr + DzCtr * DzCtr;
+			float kappa = 0;
+			if (Math.abs(denom) > 1E-5f) {
+				kappa = curvWeight * numer / denom;
+			} else {
+				kappa = curvWeight * numer * Math.signum(denom) * 1E5f;
+			}
+			if (kappa < -MAX_CURVATURE_FORCE) {
+				kappa = -MAX_CURVATURE_FORCE;
+			} else if (kappa > MAX_CURVATURE_FORCE) {
+				kappa = MAX_CURVATURE_FORCE;
+			}
+			float delta = kappa;
+			if (vecField != null) {
+				// Dot product force with upwind gradient
+				float advection = 0;
+				if (forceX > 0) {
+					advection = forceX * DxNeg;
+				} else if (forceX < 0) {
+					advection = forceX * DxPos;
+				}
+				if (forceY > 0) {
+					advection += forceY * DyNeg;
+				} else if (forceY < 0) {
+					advection += forceY * DyPos;
+				}
+				if (forceZ > 0) {
+					advection += forceZ * DzNeg;
+				} else if (forceZ < 0) {
+					advection += forceZ * DzPos;
+				}
+				delta = -advection + kappa;
+			}
+			if (pressure != null) {
+				// Force should be negative to move level set outwards if
+				// pressure is positive
+				float force = pressureWeight * pressureValue;
+				float press = 0;
+				if (force > 0) {
+					float DxNegMax = Math.max(DxNeg, 0.0f);
+					float DxPosMin = Math.min(DxPos, 0.0f);
+					float DyNegMax = Math.max(DyNeg, 0.0f);
+					float DyPosMin = Math.min(DyPos, 0.0f);
+					float DzNegMax = Math.max(DzNeg, 0.0f);
+					float DzPosMin = Math.min(DzPos, 0.0f);
+					float GradientSqrPos = DxNegMax * DxNegMax + DxPosMin
+							* DxPosMin + DyNegMax * DyNegMax + DyPosMin
+							* DyPosMin + DzNegMax * DzNegMax + DzPosMin
+							* DzPosMin;
+					press = -force * (float) Math.sqrt(GradientSqrPos);
+				} else if (force < 0) {
+					float DxNegMin = Math.min(DxNeg, 0.0f);
+					float DxPosMax = Math.max(DxPos, 0.0f);
+					float DyNegMin = Math.min(DyNeg, 0.0f);
+					float DyPosMax = Math.max(DyPos, 0.0f);
+					float DzNegMin = Math.min(DzNeg, 0.0f);
+					float DzPosMax = Math.max(DzPos, 0.0f);
+					float GradientSqrNeg = DxPosMax * DxPosMax + DxNegMin
+							* DxNegMin + DyPosMax * DyPosMax + DyNegMin
+							* DyNegMin + DzPosMax * DzPosMax + DzNegMin
+							* DzNegMin;
+					press = -force * (float) Math.sqrt(GradientSqrNeg);
+				}
+				delta = delta + press;
+			}
+			deltaLevelSet[off + index] = delta;
+		}
+	}
+
+	/**
+	 * Compute the time step from the maximum speed.
+	 *
+	 * @param active
+	 *            true to consider only the active list
+	 * @return the time step
+	 */
+	public float maxTimeStep(boolean active) {
+		final int count = 7 * ((active) ? activeListSize : rows * cols
+				* slices);
+		int chunks = Math.max(1, Math.min(count / STRIDE,
+				ParallelUtil.getThreadCount()));
+		final float[] maxBuffer = new float[chunks];
+		final int chunkCount = chunks;
+		ParallelUtil.forRange(0, chunks, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int c = start; c < end; c++) {
+					int st = (int) ((long) count * c / chunkCount);
+					int ed = (int) ((long) count * (c + 1) / chunkCount);
+					float maxValue = 0;
+					for (int n = st; n < ed; n++) {
+						maxValue = Math.max(Math.abs(deltaLevelSet[n]),
+								maxValue);
+					}
+					maxBuffer[c] = maxValue;
+				}
+			}
+		});
+		float maxValue = 0;
+		for (float val : maxBuffer) {
+			maxValue = Math.max(val, maxValue);
+		}
+		return 0.5f * ((maxValue > MAX_SPEED) ? (MAX_SPEED / maxValue)
+				: MAX_SPEED);
+	}
+
+	/**
+	 * Apply forces to the level set and update labels.
+	 *
+	 * @param active
+	 *            true to iterate over the active list
+	 * @param timeStep
+	 *            the time step
+	 */
+	public void applyForces(final boolean active, final float timeStep) {
+		forEachVoxel(active, new VoxelTask() {
+			@Override
+			public void run(int id, int slot) {
+				if (oldDistanceField[id] <= 0.5f) {
+					applyForces(id, slot, active, timeStep, null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Apply forces to the level set and update labels for one phase of the
+	 * checkerboard. Voxels in the same phase do not share a 26-neighborhood,
+	 * so the topology test sees a consistent label image.
+	 *
+	 * @param active
+	 *            true to iterate over the active list
+	 * @param timeStep
+	 *            the time step
+	 * @param xOff
+	 *            the x offset
+	 * @param yOff
+	 *            the y offset
+	 * @param zOff
+	 *            the z offset
+	 */
+	public void applyForcesTopoRule(final boolean active,
+			final float timeStep, final int xOff, final int yOff,
+			final int zOff) {
+		if (active) {
+			forEachVoxel(true, new VoxelTask() {
+				@Override
+				public void run(int id, int slot) {
+					int k = id / (rows * cols);
+					int ij = id - k * (rows * cols);
+					int j = ij / rows;
+					int i = ij - j * rows;
+					if (i % 2 != xOff || j % 2 != yOff || k % 2 != zOff) {
+						return;
+					}
+					if (oldDistanceField[id] <= 0.5f) {
+						applyForces(id, slot, true, timeStep, topologyRule);
+					}
+				}
+			});
+		} else {
+			final int halfRows = (rows - xOff + 1) / 2;
+			final int halfCols = (cols - yOff + 1) / 2;
+			final int halfSlices = (slices - zOff + 1) / 2;
+			ParallelUtil.forRange(0, halfSlices, new ParallelUtil.RangeTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int kk = start; kk < end; kk++) {
+						int k = 2 * kk + zOff;
+						for (int jj = 0; jj < halfCols; jj++) {
+							int j = 2 * jj + yOff;
+							for (int ii = 0; ii < halfRows; ii++) {
+								int id = getIndex(2 * ii + xOff, j, k);
+								if (oldDistanceField[id] <= 0.5f) {
+									applyForces(id, id, false, timeStep,
+											topologyRule);
+								}
+							}
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Apply forces to one voxel.
+	 *
+	 * @param id
+	 *            the voxel index
+	 * @param slot
+	 *            the slot in the speed buffers
+	 * @param active
+	 *            true if iterating over the active list, ties keep the
+	 *            current label instead of the smallest label
+	 * @param timeStep
+	 *            the time step
+	 * @param topoLUT
+	 *            the topology look-up table or null
+	 */
+	protected void applyForces(int id, int slot, boolean active,
+			float timeStep, byte[] topoLUT) {
+		float minValue1 = INF_FORCE;
+		float minValue2 = INF_FORCE;
+		int minLabel1 = -1;
+		int minLabel2 = -1;
+		int off = 7 * slot;
+		int oldLabel = labels[id];
+		for (int l = 0; l < 7; l++) {
+			int mask = ids[off + l];
+			float delta = deltaLevelSet[off + l];
+			if (clampSpeed) {
+				delta = timeStep * Math.max(-1.0f, Math.min(1.0f, delta));
+			} else {
+				delta = timeStep * delta;
+			}
+			if (mask != -1) {
+				float update = ((oldLabel == mask) ? -distanceField[id]
+						: distanceField[id]) + delta;
+				if (mask != minLabel1 && mask != minLabel2) {
+					if (update < minValue1) {
+						minValue2 = minValue1;
+						minLabel2 = minLabel1;
+						minValue1 = update;
+						minLabel1 = mask;
+					} else if (update < minValue2) {
+						minValue2 = update;
+						minLabel2 = mask;
+					}
+				}
+			}
+		}
+		if (topoLUT != null) {
+			int k = id / (rows * cols);
+			int ij = id - k * (rows * cols);
+			int j = ij / rows;
+			int i = ij - j * rows;
+			int mask = 0;
+			int bit = 0;
+			for (int di = -1; di <= 1; di++) {
+				for (int dj = -1; dj <= 1; dj++) {
+					for (int dk = -1; dk <= 1; dk++) {
+						if (labels[getSafeIndex(i + di, j + dj, k + dk)] == oldLabel) {
+							mask |= (1 << bit);
+						}
+						bit++;
+					}
+				}
+			}
+			if (!getBitValue(topoLUT, mask)) {
+				distanceField[id] = 1.0f;
+				return;
+			}
+		}
+		if (minLabel2 >= 0) {
+			if (minValue1 == minValue2) {
+				if (active) {
+					// Keep old label if possible
+					labels[id] = (oldLabel == minLabel1) ? oldLabel : minLabel2;
+				} else {
+					labels[id] = Math.min(minLabel1, minLabel2);
+				}
+			} else {
+				labels[id] = minLabel1;
+			}
+			distanceField[id] = Math.abs(0.5f * (minValue1 - minValue2));
+		} else if (minValue1 < INF_FORCE) {
+			labels[id] = minLabel1;
+			distanceField[id] = Math.abs(minValue1);
+		}
+	}
+
+	/**
+	 * Gets the bit value from the topology look-up table.
+	 *
+	 * @param bytes
+	 *            the bytes
+	 * @param i
+	 *            the bit index
+	 * @return true, if the configuration preserves topology
+	 */
+	protected static boolean getBitValue(byte[] bytes, int i) {
+		return ((bytes[bytes.length - (i >> 3) - 1] & (1 << (i % 8))) != 0);
+	}
+
+	/**
+	 * Extend the distance field by one layer.
+	 *
+	 * @param active
+	 *            true to iterate over the active list
+	 * @param band
+	 *            the band
+	 */
+	public void extendDistanceField(boolean active, final int band) {
+		forEachVoxel(active, new VoxelTask() {
+			@Override
+			public void run(int id, int slot) {
+				if (oldDistanceField[id] <= 0.5f
+						|| distanceField[id] <= band - 0.5f) {
+					return;
+				}
+				int k = id / (rows * cols);
+				int ij = id - k * (rows * cols);
+				int j = ij / rows;
+				int i = ij - j * rows;
+				int label = labels[id];
+				float v011 = getLevelSetValue(distanceField, labels, label,
+						i - 1, j, k);
+				float v121 = getLevelSetValue(distanceField, labels, label, i,
+						j + 1, k);
+				float v101 = getLevelSetValue(distanceField, labels, label, i,
+						j - 1, k);
+				float v211 = getLevelSetValue(distanceField, labels, label,
+						i + 1, j, k);
+				float v110 = getLevelSetValue(distanceField, labels, label, i,
+						j, k - 1);
+				float v112 = getLevelSetValue(distanceField, labels, label, i,
+						j, k + 1);
+				float v111 = 1E10f;
+				v111 = Math.min(Math.abs(v011 - 1), v111);
+				v111 = Math.min(Math.abs(v121 - 1), v111);
+				v111 = Math.min(Math.abs(v101 - 1), v111);
+				v111 = Math.min(Math.abs(v211 - 1), v111);
+				v111 = Math.min(Math.abs(v110 - 1), v111);
+				v111 = Math.min(Math.abs(v112 - 1), v111);
+				distanceField[id] = v111;
+			}
+		});
+	}
+
+	/**
+	 * Remove isolated voxels from the zero level set.
+	 */
+	public void plugLevelSet() {
+		forEachVoxel(true, new VoxelTask() {
+			@Override
+			public void run(int id, int slot) {
+				if (distanceField[id] > 0.5f) {
+					return;
+				}
+				int k = id / (rows * cols);
+				int ij = id - k * (rows * cols);
+				int j = ij / rows;
+				int i = ij - j * rows;
+				int label = labels[id];
+				if (label == labels[getSafeIndex(i + 1, j, k)]
+						&& label == labels[getSafeIndex(i - 1, j, k)]
+						&& label == labels[getSafeIndex(i, j + 1, k)]
+						&& label == labels[getSafeIndex(i, j - 1, k)]
+						&& label == labels[getSafeIndex(i, j, k + 1)]
+						&& label == labels[getSafeIndex(i, j, k - 1)]) {
+					distanceField[id] = maxDistance + 0.5f;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Copy the current level set and labels into the old buffers.
+	 *
+	 * @param active
+	 *            true to iterate over the active list
+	 */
+	public void copyBuffers(boolean active) {
+		if (active) {
+			forEachVoxel(true, new VoxelTask() {
+				@Override
+				public void run(int id, int slot) {
+					oldDistanceField[id] = distanceField[id];
+					oldLabels[id] = labels[id];
+				}
+			});
+		} else {
+			System.arraycopy(distanceField, 0, oldDistanceField, 0,
+					distanceField.length);
+			System.arraycopy(labels, 0, oldLabels, 0, labels.length);
+		}
+	}
+
+	/**
+	 * Remember the current labels in the history buffer.
+	 */
+	public void rememberImageLabels() {
+		System.arraycopy(labels, 0, history, 0, labels.length);
+	}
+
+	/**
+	 * Mark voxels whose label changed since the history was recorded.
+	 */
+	public void diffImageLabels() {
+		forEachVoxel(false, new VoxelTask() {
+			@Override
+			public void run(int id, int slot) {
+				history[id] = (labels[id] != history[id]) ? 1 : 0;
+			}
+		});
+	}
+
+	/**
+	 * Dilate the changed voxels in the history buffer for one phase of the
+	 * checkerboard.
+	 *
+	 * @param offset
+	 *            the checkerboard phase
+	 */
+	public void dilateLabels(int offset) {
+		final int xOff = xShift[offset];
+		final int yOff = yShift[offset];
+		final int zOff = zShift[offset];
+		forEachVoxel(true, new VoxelTask() {
+			@Override
+			public void run(int id, int slot) {
+				int k = id / (rows * cols);
+				int ij = id - k * (rows * cols);
+				int j = ij / rows;
+				int i = ij - j * rows;
+				if (i % 2 != xOff || j % 2 != yOff || k % 2 != zOff) {
+					return;
+				}
+				int sum = history[getSafeIndex(i + 1, j, k)]
+						+ history[getSafeIndex(i, j + 1, k)]
+						+ history[getSafeIndex(i, j - 1, k)]
+						+ history[getSafeIndex(i - 1, j, k)]
+						+ history[getSafeIndex(i, j, k - 1)]
+						+ history[getSafeIndex(i, j, k + 1)] + history[id];
+				history[id] = Math.max(0, Math.min(1, sum));
+			}
+		});
+	}
+
+	/**
+	 * Rebuild the active list from the voxels within the narrow band.
+	 */
+	public void rebuildNarrowBand() {
+		final int sliceSize = rows * cols;
+		final int[] sliceOffsets = new int[slices + 1];
+		ParallelUtil.forRange(0, slices, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int k = start; k < end; k++) {
+					int total = 0;
+					for (int id = k * sliceSize; id < (k + 1) * sliceSize; id++) {
+						if (oldDistanceField[id] <= maxDistance) {
+							total++;
+						}
+						if (distanceField[id] < 0) {
+							distanceField[id] = oldDistanceField[id];
+						}
+					}
+					sliceOffsets[k + 1] = total;
+				}
+			}
+		});
+		for (int k = 0; k < slices; k++) {
+			sliceOffsets[k + 1] += sliceOffsets[k];
+		}
+		activeListSize = sliceOffsets[slices];
+		int size = rows * cols * slices;
+		activeListArraySize = (int) Math.min(size,
+				Math.max(activeListSize * 1.25f, Math.ceil(size * 0.1)));
+		activeList = new int[activeListArraySize];
+		ParallelUtil.forRange(0, slices, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int k = start; k < end; k++) {
+					int total = sliceOffsets[k];
+					for (int id = k * sliceSize; id < (k + 1) * sliceSize; id++) {
+						if (oldDistanceField[id] <= maxDistance) {
+							activeList[total++] = id;
+						}
+					}
+				}
+			}
+		});
+		offsets = new int[6 * (1 + (activeListArraySize / STRIDE))];
+		tmpActiveList = new int[activeListArraySize];
+		allocateSpeedBuffers(activeListArraySize);
+	}
+
+	/**
+	 * Delete voxels that left the narrow band from the active list.
+	 *
+	 * @param useHistory
+	 *            true to also delete voxels whose label did not change
+	 * @param compact
+	 *            true to compact the list even if no voxels were deleted
+	 * @return the number of deleted voxels
+	 */
+	public int deleteElements(final boolean useHistory, boolean compact) {
+		final int elements = activeListSize;
+		int chunks = 1 + (elements / STRIDE);
+		ParallelUtil.forRange(0, chunks, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int c = start; c < end; c++) {
+					int total = 0;
+					int ed = Math.min((c + 1) * STRIDE, elements);
+					for (int n = c * STRIDE; n < ed; n++) {
+						int index = activeList[n];
+						float val = oldDistanceField[index];
+						if (val >= 0 && val <= maxDistance
+								&& (!useHistory || history[index] == 1)) {
+							total++;
+						}
+					}
+					offsets[c] = total;
+				}
+			}
+		});
+		int total = 0;
+		for (int c = 0; c < chunks; c++) {
+			total += offsets[c];
+			offsets[c] = total;
+		}
+		int newElements = total;
+		int delete = elements - newElements;
+		if (newElements == 0) {
+			activeListSize = 0;
+			return delete;
+		}
+		if (compact || newElements != elements) {
+			ParallelUtil.forRange(0, chunks, new ParallelUtil.RangeTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int c = start; c < end; c++) {
+						int off = (c > 0) ? offsets[c - 1] : 0;
+						int ed = Math.min((c + 1) * STRIDE, elements);
+						for (int n = c * STRIDE; n < ed; n++) {
+							int index = activeList[n];
+							if (useHistory && history[index] != 1) {
+								continue;
+							}
+							float val = oldDistanceField[index];
+							if (val >= 0 && val <= maxDistance) {
+								tmpActiveList[off++] = index;
+							} else {
+								distanceField[index] = maxDistance + 0.5f;
+								oldDistanceField[index] = maxDistance + 0.5f;
+							}
+						}
+					}
+				}
+			});
+			activeListSize = newElements;
+			int[] tmp = activeList;
+			activeList = tmpActiveList;
+			tmpActiveList = tmp;
+		}
+		return delete;
+	}
+
+	/**
+	 * Add voxels adjacent to the active list that entered the narrow band.
+	 *
+	 * @return the number of added voxels
+	 */
+	public int addElements() {
+		final int elements = activeListSize;
+		if (elements == 0) {
+			return 0;
+		}
+		final int chunks = 1 + (elements / STRIDE);
+		for (int nn = 0; nn < 6; nn++) {
+			final int offset = nn;
+			final int xOff = xNeighborhood[nn];
+			final int yOff = yNeighborhood[nn];
+			final int zOff = zNeighborhood[nn];
+			ParallelUtil.forRange(0, chunks, new ParallelUtil.RangeTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int c = start; c < end; c++) {
+						int total = 0;
+						int ed = Math.min((c + 1) * STRIDE, elements);
+						for (int n = c * STRIDE; n < ed; n++) {
+							int index = activeList[n];
+							int k = index / (rows * cols);
+							int ij = index - k * (rows * cols);
+							int j = ij / rows;
+							int i = ij - j * rows;
+							int index2 = getSafeIndex(i + xOff, j + yOff, k
+									+ zOff);
+							float val1 = distanceField[index];
+							float val2 = distanceField[index2];
+							if (val1 > -0.5f && val1 <= maxDistance - 1
+									&& val2 >= maxDistance) {
+								distanceField[index2] = -offset - 1;
+								total++;
+							}
+						}
+						offsets[6 * c + offset] = total;
+					}
+				}
+			});
+		}
+		int total = 0;
+		for (int n = 0; n < 6 * chunks; n++) {
+			total += offsets[n];
+			offsets[n] = total;
+		}
+		int addElements = total;
+		int newElements = addElements + elements;
+		if (newElements == elements) {
+			return 0;
+		}
+		if (newElements > activeListArraySize) {
+			rebuildNarrowBand();
+			return addElements;
+		}
+		for (int nn = 0; nn < 6; nn++) {
+			final int offset = nn;
+			final int xOff = xNeighborhood[nn];
+			final int yOff = yNeighborhood[nn];
+			final int zOff = zNeighborhood[nn];
+			ParallelUtil.forRange(0, chunks, new ParallelUtil.RangeTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int c = start; c < end; c++) {
+						int off2 = elements;
+						if (c > 0 || offset > 0) {
+							off2 += offsets[(6 * c + offset) - 1];
+						}
+						int ed = Math.min((c + 1) * STRIDE, elements);
+						for (int n = c * STRIDE; n < ed; n++) {
+							int index = activeList[n];
+							int k = index / (rows * cols);
+							int ij = index - k * (rows * cols);
+							int j = ij / rows;
+							int i = ij - j * rows;
+							int index2 = getSafeIndex(i + xOff, j + yOff, k
+									+ zOff);
+							float val1 = distanceField[index];
+							float val2 = distanceField[index2];
+							if (val1 > -0.5f && val1 <= maxDistance - 1
+									&& val2 == -offset - 1) {
+								activeList[off2++] = index2;
+								oldDistanceField[index2] = maxDistance;
+								distanceField[index2] = maxDistance;
+							}
+						}
+					}
+				}
+			});
+		}
+		activeListSize = newElements;
+		return addElements;
+	}
+}
@@ -63,12 +63,21 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 			float curvatureWeight) {
 		super(refImage, commons.context, commons.queue);
 		this.commons = commons;
+		this.profiler = commons.profiler;
 		this.stepSize = 2.0f;
 		this.curvatureWeight = curvatureWeight;
 		this.maxIterations = 4;
 		this.clampSpeed = true;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.imagesci.mogac.MOGAC3D#supportsJavaBackend()
+	 */
+	@Override
+	protected boolean supportsJavaBackend() {
+		return false;
+	}
+
 	/* (non-Javadoc)
 	 * @see edu.jhu.cs.cisst.algorithms.mogac.MOGAC3D#evolve()
 	 */
@@ -142,7 +151,7 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 							oldDistanceFieldBuffer, commons.indexBuffer,
 							commons.unsignedLevelSetBuffer, historyBuffer)
 					.putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(deleteCountActiveListHistory, 0,
+			profiler.put1DRangeKernel(queue, deleteCountActiveListHistory, 0,
 					roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1), 1);
 		} else {
 
@@ -151,16 +160,17 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 							oldDistanceFieldBuffer, commons.indexBuffer,
 							commons.unsignedLevelSetBuffer)
 					.putArg(activeListSize).rewind();
-			commons.queue.put1DRangeKernel(deleteCountActiveList, 0,
-					1 + (activeListSize / STRIDE), 1);
+			commons.profiler.put1DRangeKernel(commons.queue,
+					deleteCountActiveList, 0, 1 + (activeListSize / STRIDE), 1);
 		}
 
 		commons.queue.finish();
 		prefixScanList.putArgs(offsetBuffer, maxValueBuffer)
 				.putArg(1 + (activeListSize / STRIDE)).rewind();
-		commons.queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
+		commons.profiler.put1DRangeKernel(commons.queue, prefixScanList, 0, 1,
+				1);
 		commons.queue.finish();
-		commons.queue.putReadBuffer(maxValueBuffer, true);
+		commons.profiler.putReadBuffer(commons.queue, maxValueBuffer, true);
 
 		int newElements = maxValueBuffer.getBuffer().get(0);
 
@@ -177,9 +187,7 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 								tmpActiveBuffer, oldDistanceFieldBuffer,
 								distanceFieldBuffer, historyBuffer)
 						.putArg(activeListSize).rewind();
-				queue.put1DRangeKernel(
-						compactActiveListHistory,
-						0,
+				profiler.put1DRangeKernel(queue, compactActiveListHistory, 0,
 						roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1),
 						1);
 			} else {
@@ -190,9 +198,7 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 								distanceFieldBuffer).putArg(activeListSize)
 						.rewind();
 
-				queue.put1DRangeKernel(
-						compactActiveList,
-						0,
+				profiler.put1DRangeKernel(queue, compactActiveList, 0,
 						roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1),
 						1);
 			}
@@ -222,11 +228,9 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 		}
 		final CLKernel initIndexMap = commons.kernelMap.get("initIndexMapNB");
 		initIndexMap.setArgs(commons.indexBuffer);
-		commons.queue.put1DRangeKernel(
-				initIndexMap,
-				0,
-				SpringlsCommon3D.roundToWorkgroupPower(commons.rows
-						* commons.cols * commons.slices),
+		commons.profiler.put1DRangeKernel(commons.queue, initIndexMap, 0,
+				SpringlsCommon3D.roundToWorkgroupPower(commons.rows * commons
+						.cols * commons.slices),
 				SpringlsCommon3D.WORKGROUP_SIZE);
 	}
 
@@ -251,7 +255,7 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 						deltaLevelSetBuffer, idBuffer, labelMaskBuffer,
 						forceIndexesBuffer).putArg(stepSize)
 				.putArg(curvatureWeight).putArg(activeListSize).rewind();
-		queue.put1DRangeKernel(gradientSpeedKernel, 0, global_size,
+		profiler.put1DRangeKernel(queue, gradientSpeedKernel, 0, global_size,
 				WORKGROUP_SIZE);
 
 		if (topologyPreservation) {
@@ -263,7 +267,7 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 								imageLabelBuffer, topologyRuleBuffer)
 						.putArg(0.5f).putArg(activeListSize).putArg(nn)
 						.rewind();
-				queue.put1DRangeKernel(applyForces, 0, global_size,
+				profiler.put1DRangeKernel(queue, applyForces, 0, global_size,
 						WORKGROUP_SIZE);
 			}
 
@@ -275,7 +279,8 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 							distanceFieldBuffer, imageLabelBuffer).putArg(0.5f)
 					.putArg(activeListSize).rewind();
 
-			queue.put1DRangeKernel(applyForces, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, applyForces, 0, global_size,
+					WORKGROUP_SIZE);
 
 		}
 
@@ -284,35 +289,37 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 					.putArgs(activeListBuffer, oldDistanceFieldBuffer,
 							distanceFieldBuffer, imageLabelBuffer).putArg(i)
 					.putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(extendDistanceField, 0, global_size,
-					WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, extendDistanceField, 0,
+					global_size, WORKGROUP_SIZE);
 		}
 
 		final CLKernel plugLevelSet = kernelMap.get("plugLevelSet");
 		plugLevelSet
 				.putArgs(activeListBuffer, distanceFieldBuffer,
 						imageLabelBuffer).putArg(activeListSize).rewind();
-		queue.put1DRangeKernel(plugLevelSet, 0, global_size, WORKGROUP_SIZE);
+		profiler.put1DRangeKernel(queue, plugLevelSet, 0, global_size,
+				WORKGROUP_SIZE);
 
 		if (useAdaptiveActiveSet) {
 			copyBuffers
 					.putArgs(activeListBuffer, oldDistanceFieldBuffer,
 							oldImageLabelBuffer, distanceFieldBuffer,
 							imageLabelBuffer).putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(copyBuffers, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, copyBuffers, 0, global_size,
+					WORKGROUP_SIZE);
 			final CLKernel rememberImageLabels = kernelMap
 					.get("rememberImageLabels");
 			final CLKernel diffImageLabels = kernelMap.get("diffImageLabels");
 			if ((time) % sampling_interval == 0) {
 				rememberImageLabels.putArgs(imageLabelBuffer, historyBuffer)
 						.rewind();
-				queue.put1DRangeKernel(rememberImageLabels, 0,
+				profiler.put1DRangeKernel(queue, rememberImageLabels, 0,
 						roundToWorkgroupPower(rows * cols * slices),
 						WORKGROUP_SIZE);
 			} else if ((time) % sampling_interval == sampling_interval - 1) {
 				diffImageLabels.putArgs(imageLabelBuffer, historyBuffer)
 						.rewind();
-				queue.put1DRangeKernel(diffImageLabels, 0,
+				profiler.put1DRangeKernel(queue, diffImageLabels, 0,
 						roundToWorkgroupPower(rows * cols * slices),
 						WORKGROUP_SIZE);
 				final CLKernel dilateLabels = kernelMap.get("dilateLabels");
@@ -323,8 +330,8 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 						dilateLabels.putArgs(activeListBuffer, historyBuffer)
 								.putArg(activeListSize).putArg(kk).rewind();
 
-						queue.put1DRangeKernel(dilateLabels, 0, global_size,
-								WORKGROUP_SIZE);
+						profiler.put1DRangeKernel(queue, dilateLabels, 0,
+								global_size, WORKGROUP_SIZE);
 					}
 				}
 				final CLKernel markStaticSpringls = commons.kernelMap
@@ -332,15 +339,17 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 				markStaticSpringls
 						.putArgs(commons.capsuleBuffer, historyBuffer)
 						.putArg(commons.elements).rewind();
-				commons.queue.put1DRangeKernel(markStaticSpringls, 0,
-						commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
+				commons.profiler.put1DRangeKernel(commons.queue,
+						markStaticSpringls, 0, commons.arrayLength,
+						SpringlsCommon3D.WORKGROUP_SIZE);
 			}
 		} else {
 			copyBuffers
 					.putArgs(activeListBuffer, oldDistanceFieldBuffer,
 							oldImageLabelBuffer, distanceFieldBuffer,
 							imageLabelBuffer).putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(copyBuffers, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, copyBuffers, 0, global_size,
+					WORKGROUP_SIZE);
 		}
 		queue.finish();
 		dirty = true;
@@ -357,8 +366,9 @@ public class MuscleEvolveLevelSet3D extends WEMOGAC3D {
 				.get(SpringlsCommon3D.EXTEND_DISTANCE_FIELD);
 		for (int i = MAX_LAYERS - 1; i < layers; i++) {
 			extendDistanceField.putArgs(distanceFieldBuffer).putArg(i).rewind();
-			commons.queue.put1DRangeKernel(extendDistanceField, 0, commons.rows
-					* commons.cols * commons.slices,
+			commons.profiler.put1DRangeKernel(commons.queue,
+					extendDistanceField, 0,
+					commons.rows * commons.cols * commons.slices,
 					SpringlsCommon3D.WORKGROUP_SIZE);
 		}
 	}
@@ -40,6 +40,7 @@ import java.util.TreeSet;
 import javax.vecmath.Point3i;
 
 import org.imagesci.springls.SpringlsCommon3D;
+import org.imagesci.utility.CLBufferPool;
 import org.imagesci.utility.PhantomMetasphere;
 import org.imagesci.utility.RandomSphereCollection;
 
@@ -66,6 +67,9 @@ public class WEMOGAC3D extends MOGAC3D {
 	/** The Constant STRIDE. */
 	protected static final int STRIDE = SpringlsCommon3D.STRIDE;
 
+	/** The number of work items in the prefix scan work group. */
+	protected static final int SCAN_WORKGROUP_SIZE = 128;
+
 	/** The active list array size. */
 	public int activeListArraySize;
 
@@ -75,6 +79,9 @@ public class WEMOGAC3D extends MOGAC3D {
 	/** The active list size. */
 	public int activeListSize;
 
+	/** The pool for buffers sized by the narrow band. */
+	protected CLBufferPool bufferPool = null;
+
 	/** The history buffer. */
 	protected CLBuffer<IntBuffer> historyBuffer = null;
 
@@ -160,14 +167,14 @@ public class WEMOGAC3D extends MOGAC3D {
 		this.containsOverlaps = containsOverlaps;
 		int mask = 0x00000001;
 		int l = 0;
-		this.labels = labelImage.toArray3d();
+		this.labels = getFlatData(labelImage);
 		if (containsOverlaps) {
 			TreeSet<Integer> labelHash = new TreeSet<Integer>();
 			int totalMask = 0;
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						l = labels[i][j][k];
+						l = labels[getIndex(i, j, k)];
 						totalMask |= l;
 						labelHash.add(l);
 					}
@@ -202,7 +209,7 @@ public class WEMOGAC3D extends MOGAC3D {
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						l = labels[i][j][k];
+						l = labels[getIndex(i, j, k)];
 						labelHash.add(l);
 					}
 				}
@@ -221,6 +228,17 @@ public class WEMOGAC3D extends MOGAC3D {
 				forceIndexes[i] = i - 1;
 			}
 		}
+		if (javaBackend) {
+			initJava(unsignedImage, labelImage);
+			initJavaForces();
+			setTotalUnits(maxIterations / getResamplingRate());
+			if (topologyPreservation) {
+				loadLUT626();
+			}
+			finish();
+			rebuildNarrowBand();
+			return;
+		}
 		CLProgram program = context.createProgram(
 				getClass().getResourceAsStream("WEMogacEvolveLevelSet3D.cl"))
 				.build(define("ROWS", rows), define("COLS", cols),
@@ -229,7 +247,8 @@ public class WEMOGAC3D extends MOGAC3D {
 						define("CLAMP_SPEED", clampSpeed ? 1 : 0),
 						define("NUM_LABELS", numLabels),
 						define("STRIDE", STRIDE),
-						define("MAX_DISTANCE", MAX_DISTANCE));
+						define("MAX_DISTANCE", MAX_DISTANCE),
+						define("SCAN_WORKGROUP_SIZE", SCAN_WORKGROUP_SIZE));
 
 		kernelMap = program.createCLKernels();
 		imageLabelBuffer = context.createIntBuffer(rows * cols * slices,
@@ -241,7 +260,7 @@ public class WEMOGAC3D extends MOGAC3D {
 		for (int k = 0; k < slices; k++) {
 			for (int j = 0; j < cols; j++) {
 				for (int i = 0; i < rows; i++) {
-					int lab = labels[i][j][k];
+					int lab = labels[getIndex(i, j, k)];
 					label.put(lab);
 					oldLabel.put(lab);
 				}
@@ -249,31 +268,31 @@ public class WEMOGAC3D extends MOGAC3D {
 		}
 		label.rewind();
 		oldLabel.rewind();
-		queue.putWriteBuffer(imageLabelBuffer, true).putWriteBuffer(
-				oldImageLabelBuffer, true);
+		profiler.putWriteBuffer(queue, imageLabelBuffer, true);
+		profiler.putWriteBuffer(queue, oldImageLabelBuffer, true);
 		oldDistanceFieldBuffer = context.createFloatBuffer(
 				rows * cols * slices, READ_WRITE, USE_BUFFER);
 		if (unsignedImage == null) {
 
 			convertLabelsToLevelSet();
-			unsignedImage = new ImageDataFloat(rows, cols, slices);
+			unsignedImage = createDistanceFieldImage();
 			unsignedImage.setName(image.getName() + "_distfield");
-			queue.putReadBuffer(distanceFieldBuffer, true);
+			profiler.putReadBuffer(queue, distanceFieldBuffer, true);
 			FloatBuffer buff = distanceFieldBuffer.getBuffer();
 			FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer
 					.getBuffer();
-			this.distField = unsignedImage.toArray3d();
+			this.distField = getFlatData(unsignedImage);
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
 
-						float val = distField[i][j][k] = buff.get();
+						float val = distField[getIndex(i, j, k)] = buff.get();
 						oldUnsignedLevelSet.put(val);
 					}
 				}
 			}
 			oldUnsignedLevelSet.rewind();
-			queue.putWriteBuffer(oldDistanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 			buff.rewind();
 		} else {
 			distanceFieldBuffer = context.createFloatBuffer(rows * cols
@@ -282,12 +301,12 @@ public class WEMOGAC3D extends MOGAC3D {
 			FloatBuffer unsignedLevelSet = distanceFieldBuffer.getBuffer();
 			FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer
 					.getBuffer();
-			this.distField = unsignedImage.toArray3d();
+			this.distField = getFlatData(unsignedImage);
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
 						float val = Math.min(MAX_DISTANCE + 0.5f,
-								distField[i][j][k]);
+								distField[getIndex(i, j, k)]);
 						unsignedLevelSet.put(val);
 						oldUnsignedLevelSet.put(val);
 					}
@@ -295,8 +314,8 @@ public class WEMOGAC3D extends MOGAC3D {
 			}
 			unsignedLevelSet.rewind();
 			oldUnsignedLevelSet.rewind();
-			queue.putWriteBuffer(distanceFieldBuffer, true).putWriteBuffer(
-					oldDistanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, distanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 		}
 		labelMaskBuffer = context.createIntBuffer(labelMasks.length, READ_ONLY,
 				USE_BUFFER);
@@ -306,40 +325,35 @@ public class WEMOGAC3D extends MOGAC3D {
 		forceIndexesBuffer.getBuffer().put(forceIndexes).rewind();
 
 		if (pressureImage != null) {
-			rescale(pressureImage.toArray3d());
-			float[][][] pressure = pressureImage.toArray3d();
+			rescalePressure();
 			pressureBuffer = context.createFloatBuffer(rows * cols * slices,
 					READ_ONLY);
 			FloatBuffer buff = pressureBuffer.getBuffer();
-			for (int k = 0; k < slices; k++) {
-				for (int j = 0; j < cols; j++) {
-					for (int i = 0; i < rows; i++) {
-						buff.put(pressure[i][j][k]);
-					}
-				}
-			}
+			pressureImage.toBuffer(buff);
 			buff.rewind();
-			queue.putWriteBuffer(pressureBuffer, true);
+			profiler.putWriteBuffer(queue, pressureBuffer, true);
 		}
 		if (vecFieldImage != null) {
-			float[][][][] vecField = vecFieldImage.toArray4d();
+			float[] vecField = getFlatData(vecFieldImage);
+			int size = rows * cols * slices;
 			vecFieldBuffer = context.createFloatBuffer(
 					rows * cols * slices * 3, READ_ONLY);
 			FloatBuffer advectBuff = vecFieldBuffer.getBuffer();
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						advectBuff.put(vecField[i][j][k][0]);
-						advectBuff.put(vecField[i][j][k][1]);
-						advectBuff.put(vecField[i][j][k][2]);
+						int id = getIndex(i, j, k);
+						advectBuff.put(vecField[id]);
+						advectBuff.put(vecField[id + size]);
+						advectBuff.put(vecField[id + 2 * size]);
 					}
 				}
 			}
 			advectBuff.rewind();
-			queue.putWriteBuffer(vecFieldBuffer, true);
+			profiler.putWriteBuffer(queue, vecFieldBuffer, true);
 		}
-		queue.putWriteBuffer(labelMaskBuffer, true).putWriteBuffer(
-				forceIndexesBuffer, true);
+		profiler.putWriteBuffer(queue, labelMaskBuffer, true);
+		profiler.putWriteBuffer(queue, forceIndexesBuffer, true);
 
 		this.distFieldImage = unsignedImage;
 		this.labelImage = labelImage;
@@ -368,11 +382,84 @@ public class WEMOGAC3D extends MOGAC3D {
 		rebuildNarrowBand();
 	}
 
+	/* (non-Javadoc)
+	 * @see org.imagesci.mogac.MOGAC3D#createJavaKernels()
+	 */
+	@Override
+	protected MogacKernels3D createJavaKernels() {
+		return new MogacKernels3D(rows, cols, slices, containsOverlaps,
+				clampSpeed, labelMasks, forceIndexes, MAX_DISTANCE);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.imagesci.mogac.MOGAC3D#initJava(edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat, edu.jhu.ece.iacl.jist.structures.image.ImageDataInt)
+	 */
+	@Override
+	protected void initJava(ImageDataFloat unsignedImage,
+			ImageDataInt labelImage) {
+		javaKernels = createJavaKernels();
+		int[] label = javaKernels.labels;
+		int[] oldLabel = javaKernels.oldLabels;
+		int index = 0;
+		for (int k = 0; k < slices; k++) {
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					int lab = labels[getIndex(i, j, k)];
+					label[index] = lab;
+					oldLabel[index] = lab;
+					index++;
+				}
+			}
+		}
+		float[] unsignedLevelSet = javaKernels.distanceField;
+		float[] oldUnsignedLevelSet = javaKernels.oldDistanceField;
+		index = 0;
+		if (unsignedImage == null) {
+			convertLabelsToLevelSet();
+			unsignedImage = createDistanceFieldImage();
+			this.distField = getFlatData(unsignedImage);
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						float val = distField[getIndex(i, j, k)] =
+								unsignedLevelSet[index];
+						oldUnsignedLevelSet[index++] = val;
+					}
+				}
+			}
+		} else {
+			this.distField = getFlatData(unsignedImage);
+			for (int k = 0; k < slices; k++) {
+				for (int j = 0; j < cols; j++) {
+					for (int i = 0; i < rows; i++) {
+						float val = Math.min(MAX_DISTANCE + 0.5f,
+								distField[getIndex(i, j, k)]);
+						unsignedLevelSet[index] = val;
+						oldUnsignedLevelSet[index++] = val;
+					}
+				}
+			}
+		}
+		this.distFieldImage = unsignedImage;
+		this.labelImage = labelImage;
+		if (image != null) {
+			this.labelImage.setName(image.getName() + "_labels");
+			distFieldImage.setName(image.getName() + "_distfield");
+		} else {
+			this.labelImage.setName("labels");
+			distFieldImage.setName("distfield");
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see edu.jhu.cs.cisst.algorithms.mogac.MOGAC3D#convertLabelsToLevelSet()
 	 */
 	@Override
 	public void convertLabelsToLevelSet() {
+		if (javaBackend) {
+			super.convertLabelsToLevelSet();
+			return;
+		}
 		final CLKernel labelsToLevelSet = kernelMap.get("labelsToLevelSet");
 		final CLKernel extendDistanceField = kernelMap
 				.get("extendDistanceFieldFullGrid");
@@ -382,16 +469,17 @@ public class WEMOGAC3D extends MOGAC3D {
 		}
 		labelsToLevelSet.putArgs(imageLabelBuffer, oldImageLabelBuffer,
 				distanceFieldBuffer, oldDistanceFieldBuffer).rewind();
-		queue.put1DRangeKernel(labelsToLevelSet, 0, roundToWorkgroupPower(rows
-				* cols * slices), WORKGROUP_SIZE);
+		profiler.put1DRangeKernel(queue, labelsToLevelSet, 0,
+				roundToWorkgroupPower(rows * cols * slices), WORKGROUP_SIZE);
 		for (int i = 1; i <= 2 * MAX_LAYERS; i++) {
 			extendDistanceField
 					.putArgs(oldDistanceFieldBuffer, distanceFieldBuffer,
 							imageLabelBuffer).putArg(i).rewind();
-			queue.put1DRangeKernel(extendDistanceField, 0,
-					roundToWorkgroupPower(rows * cols * slices), WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, extendDistanceField, 0,
+					roundToWorkgroupPower(rows * cols * slices),
+					WORKGROUP_SIZE);
 		}
-		queue.putReadBuffer(distanceFieldBuffer, true);
+		profiler.putReadBuffer(queue, distanceFieldBuffer, true);
 	}
 
 	/*
@@ -403,6 +491,9 @@ public class WEMOGAC3D extends MOGAC3D {
 	 */
 	@Override
 	public boolean step() {
+		if (javaBackend) {
+			return stepJava();
+		}
 		final CLKernel pressureSpeedKernel = kernelMap
 				.get("pressureSpeedKernel");
 		final CLKernel vecFieldSpeedKernel = kernelMap
@@ -428,7 +519,7 @@ public class WEMOGAC3D extends MOGAC3D {
 						.putArg(pressureWeight).putArg(vecFieldWeight)
 						.putArg(curvatureWeight).putArg(activeListSize)
 						.rewind();
-				queue.put1DRangeKernel(pressureVecFieldSpeedKernel, 0,
+				profiler.put1DRangeKernel(queue, pressureVecFieldSpeedKernel, 0,
 						global_size, WORKGROUP_SIZE);
 			} else {
 				pressureSpeedKernel
@@ -438,8 +529,8 @@ public class WEMOGAC3D extends MOGAC3D {
 								forceIndexesBuffer).putArg(pressureWeight)
 						.putArg(curvatureWeight).putArg(activeListSize)
 						.rewind();
-				queue.put1DRangeKernel(pressureSpeedKernel, 0, global_size,
-						WORKGROUP_SIZE);
+				profiler.put1DRangeKernel(queue, pressureSpeedKernel, 0,
+						global_size, WORKGROUP_SIZE);
 			}
 		} else {
 			vecFieldSpeedKernel
@@ -448,22 +539,21 @@ public class WEMOGAC3D extends MOGAC3D {
 							deltaLevelSetBuffer, idBuffer, labelMaskBuffer,
 							forceIndexesBuffer).putArg(vecFieldWeight)
 					.putArg(curvatureWeight).putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(vecFieldSpeedKernel, 0, global_size,
-					WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, vecFieldSpeedKernel, 0,
+					global_size, WORKGROUP_SIZE);
 		}
 		if (topologyPreservation) {
 			if (!clampSpeed) {
 				// Find max
 				maxImageValue.putArgs(deltaLevelSetBuffer, maxTmpBuffer)
 						.putArg(activeListSize).rewind();
-				queue.put1DRangeKernel(
-						maxImageValue,
-						0,
-						roundToWorkgroupPower(1 + (activeListSize / STRIDE),
-								WORKGROUP_SIZE / 8), WORKGROUP_SIZE / 8);
+				profiler.put1DRangeKernel(queue, maxImageValue, 0,
+						roundToWorkgroupPower(1 + (activeListSize
+								/ STRIDE), WORKGROUP_SIZE / 8),
+						WORKGROUP_SIZE / 8);
 				maxTimeStep.putArg(maxTmpBuffer)
 						.putArg(1 + (activeListSize / STRIDE)).rewind();
-				queue.put1DRangeKernel(maxTimeStep, 0, 1, 1);
+				profiler.put1DRangeKernel(queue, maxTimeStep, 0, 1, 1);
 				for (int nn = 0; nn < 8; nn++) {
 					applyForces
 							.putArgs(activeListBuffer, oldDistanceFieldBuffer,
@@ -473,8 +563,8 @@ public class WEMOGAC3D extends MOGAC3D {
 									topologyRuleBuffer).putArg(activeListSize)
 							.putArg(nn).rewind();
 
-					queue.put1DRangeKernel(applyForces, 0, global_size,
-							WORKGROUP_SIZE);
+					profiler.put1DRangeKernel(queue, applyForces, 0,
+							global_size, WORKGROUP_SIZE);
 				}
 			} else {
 				for (int nn = 0; nn < 8; nn++) {
@@ -485,8 +575,8 @@ public class WEMOGAC3D extends MOGAC3D {
 									imageLabelBuffer, topologyRuleBuffer)
 							.putArg(0.5f).putArg(activeListSize).putArg(nn)
 							.rewind();
-					queue.put1DRangeKernel(applyForces, 0, global_size,
-							WORKGROUP_SIZE);
+					profiler.put1DRangeKernel(queue, applyForces, 0,
+							global_size, WORKGROUP_SIZE);
 				}
 			}
 		} else {
@@ -495,14 +585,13 @@ public class WEMOGAC3D extends MOGAC3D {
 
 				maxImageValue.putArgs(deltaLevelSetBuffer, maxTmpBuffer)
 						.putArg(activeListSize).rewind();
-				queue.put1DRangeKernel(
-						maxImageValue,
-						0,
-						roundToWorkgroupPower(1 + (activeListSize / STRIDE),
-								WORKGROUP_SIZE / 8), WORKGROUP_SIZE / 8);
+				profiler.put1DRangeKernel(queue, maxImageValue, 0,
+						roundToWorkgroupPower(1 + (activeListSize
+								/ STRIDE), WORKGROUP_SIZE / 8),
+						WORKGROUP_SIZE / 8);
 				maxTimeStep.putArg(maxTmpBuffer)
 						.putArg(1 + (activeListSize / STRIDE)).rewind();
-				queue.put1DRangeKernel(maxTimeStep, 0, 1, 1);
+				profiler.put1DRangeKernel(queue, maxTimeStep, 0, 1, 1);
 				applyForces
 						.putArgs(activeListBuffer, oldDistanceFieldBuffer,
 								oldImageLabelBuffer, deltaLevelSetBuffer,
@@ -516,43 +605,46 @@ public class WEMOGAC3D extends MOGAC3D {
 								idBuffer, distanceFieldBuffer, imageLabelBuffer)
 						.putArg(0.5f).putArg(activeListSize).rewind();
 			}
-			queue.put1DRangeKernel(applyForces, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, applyForces, 0, global_size,
+					WORKGROUP_SIZE);
 		}
 		for (int i = 1; i <= MAX_LAYERS; i++) {
 			extendDistanceField
 					.putArgs(activeListBuffer, oldDistanceFieldBuffer,
 							distanceFieldBuffer, imageLabelBuffer).putArg(i)
 					.putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(extendDistanceField, 0, global_size,
-					WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, extendDistanceField, 0,
+					global_size, WORKGROUP_SIZE);
 		}
 
 		final CLKernel plugLevelSet = kernelMap.get("plugLevelSet");
 		plugLevelSet
 				.putArgs(activeListBuffer, distanceFieldBuffer,
 						imageLabelBuffer).putArg(activeListSize).rewind();
-		queue.put1DRangeKernel(plugLevelSet, 0, global_size, WORKGROUP_SIZE);
+		profiler.put1DRangeKernel(queue, plugLevelSet, 0, global_size,
+				WORKGROUP_SIZE);
 
 		if (useAdaptiveActiveSet) {
 			copyBuffers
 					.putArgs(activeListBuffer, oldDistanceFieldBuffer,
 							oldImageLabelBuffer, distanceFieldBuffer,
 							imageLabelBuffer).putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(copyBuffers, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, copyBuffers, 0, global_size,
+					WORKGROUP_SIZE);
 			final CLKernel rememberImageLabels = kernelMap
 					.get("rememberImageLabels");
 			final CLKernel diffImageLabels = kernelMap.get("diffImageLabels");
 			if ((time) % sampling_interval == 0) {
 				rememberImageLabels.putArgs(imageLabelBuffer, historyBuffer)
 						.rewind();
-				queue.put1DRangeKernel(rememberImageLabels, 0,
+				profiler.put1DRangeKernel(queue, rememberImageLabels, 0,
 						roundToWorkgroupPower(rows * cols * slices),
 						WORKGROUP_SIZE);
 			}
 			if ((time) % sampling_interval == sampling_interval - 1) {
 				diffImageLabels.putArgs(imageLabelBuffer, historyBuffer)
 						.rewind();
-				queue.put1DRangeKernel(diffImageLabels, 0,
+				profiler.put1DRangeKernel(queue, diffImageLabels, 0,
 						roundToWorkgroupPower(rows * cols * slices),
 						WORKGROUP_SIZE);
 				final CLKernel dilateLabels = kernelMap.get("dilateLabels");
@@ -562,8 +654,8 @@ public class WEMOGAC3D extends MOGAC3D {
 						dilateLabels.putArgs(activeListBuffer, historyBuffer)
 								.putArg(activeListSize).putArg(kk).rewind();
 
-						queue.put1DRangeKernel(dilateLabels, 0, global_size,
-								WORKGROUP_SIZE);
+						profiler.put1DRangeKernel(queue, dilateLabels, 0,
+								global_size, WORKGROUP_SIZE);
 					}
 				}
 
@@ -573,7 +665,8 @@ public class WEMOGAC3D extends MOGAC3D {
 					.putArgs(activeListBuffer, oldDistanceFieldBuffer,
 							oldImageLabelBuffer, distanceFieldBuffer,
 							imageLabelBuffer).putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(copyBuffers, 0, global_size, WORKGROUP_SIZE);
+			profiler.put1DRangeKernel(queue, copyBuffers, 0, global_size,
+					WORKGROUP_SIZE);
 		}
 		queue.finish();
 		dirty = true;
@@ -598,6 +691,63 @@ public class WEMOGAC3D extends MOGAC3D {
 		return true;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.imagesci.mogac.MOGAC3D#stepJava()
+	 */
+	@Override
+	protected boolean stepJava() {
+		MogacKernels3D kernels = javaKernels;
+		long startTime = System.nanoTime();
+		kernels.computeSpeed(true, pressureWeight, vecFieldWeight,
+				curvatureWeight);
+		float timeStep = (clampSpeed) ? 0.5f : kernels.maxTimeStep(true);
+		if (topologyPreservation) {
+			for (int nn = 0; nn < 8; nn++) {
+				kernels.applyForcesTopoRule(true, timeStep,
+						MogacKernels3D.xShift[nn], MogacKernels3D.yShift[nn],
+						MogacKernels3D.zShift[nn]);
+			}
+		} else {
+			kernels.applyForces(true, timeStep);
+		}
+		for (int i = 1; i <= MAX_LAYERS; i++) {
+			kernels.extendDistanceField(true, i);
+		}
+		kernels.plugLevelSet();
+		kernels.copyBuffers(true);
+		if (useAdaptiveActiveSet) {
+			if ((time) % sampling_interval == 0) {
+				kernels.rememberImageLabels();
+			}
+			if ((time) % sampling_interval == sampling_interval - 1) {
+				kernels.diffImageLabels();
+				for (int cycle = 0; cycle < 4; cycle++) {
+					for (int kk = 0; kk < 8; kk++) {
+						kernels.dilateLabels(kk);
+					}
+				}
+			}
+		}
+		dirty = true;
+		deleteElements();
+		addElements();
+		stepElapsedTime += (System.nanoTime() - startTime);
+		if (activeListSize == 0) {
+			return false;
+		}
+		if (time % getResamplingRate() == 0) {
+			long tmp = System.nanoTime();
+			for (FrameUpdateListener updater : listeners) {
+				updater.frameUpdate(time, 1E9 * getResamplingRate()
+						/ (tmp - lastStartTime));
+			}
+			lastStartTime = tmp;
+			incrementCompletedUnits();
+		}
+		time++;
+		return true;
+	}
+
 	/**
 	 * Adds elements to the active list.
 	 * 
@@ -607,6 +757,12 @@ public class WEMOGAC3D extends MOGAC3D {
 		if (activeListSize == 0) {
 			return 0;
 		}
+		if (javaBackend) {
+			int addElements = javaKernels.addElements();
+			activeListSize = javaKernels.activeListSize;
+			activeListArraySize = javaKernels.activeListArraySize;
+			return addElements;
+		}
 		final CLKernel addCountActiveList = kernelMap.get("addCountActiveList");
 		final CLKernel prefixScanList = kernelMap.get("prefixScanList");
 		final CLKernel expandActiveList = (useAdaptiveActiveSet) ? kernelMap
@@ -617,14 +773,15 @@ public class WEMOGAC3D extends MOGAC3D {
 					.putArgs(offsetBuffer, activeListBuffer,
 							distanceFieldBuffer).putArg(activeListSize)
 					.putArg(nn).rewind();
-			queue.put1DRangeKernel(addCountActiveList, 0,
+			profiler.put1DRangeKernel(queue, addCountActiveList, 0,
 					roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1), 1);
 		}
 		prefixScanList.putArgs(offsetBuffer, maxValueBuffer)
 				.putArg(6 * (1 + (activeListSize / STRIDE))).rewind();
-		queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
+		profiler.put1DRangeKernel(queue, prefixScanList, 0,
+				SCAN_WORKGROUP_SIZE, SCAN_WORKGROUP_SIZE);
 		queue.finish();
-		queue.putReadBuffer(maxValueBuffer, true);
+		profiler.putReadBuffer(queue, maxValueBuffer, true);
 		int addElements = maxValueBuffer.getBuffer().get(0);
 		int newElements = addElements + activeListSize;
 		if (newElements != activeListSize) {
@@ -646,9 +803,7 @@ public class WEMOGAC3D extends MOGAC3D {
 									oldDistanceFieldBuffer, distanceFieldBuffer)
 							.putArg(activeListSize).putArg(nn).rewind();
 				}
-				queue.put1DRangeKernel(
-						expandActiveList,
-						0,
+				profiler.put1DRangeKernel(queue, expandActiveList, 0,
 						roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1),
 						1);
 			}
@@ -659,9 +814,23 @@ public class WEMOGAC3D extends MOGAC3D {
 	}
 
 	/**
-	 * Rebuild narrow band.
+	 * Rebuild narrow band. Buffers sized by the narrow band come from a pool
+	 * and are only reallocated when the band outgrows them or shrinks far
+	 * below their capacity.
 	 */
 	public void rebuildNarrowBand() {
+		if (javaBackend) {
+			if (useAdaptiveActiveSet && javaKernels.history == null) {
+				javaKernels.history = new int[rows * cols * slices];
+			}
+			javaKernels.rebuildNarrowBand();
+			activeListSize = javaKernels.activeListSize;
+			activeListArraySize = javaKernels.activeListArraySize;
+			System.out.println("Building narrowband with " + activeListSize
+					+ " active voxels out of " + activeListArraySize
+					+ " total voxels. ");
+			return;
+		}
 		final CLKernel countActiveList = kernelMap.get("countActiveList");
 		final CLKernel buildActiveList = kernelMap.get("buildActiveList");
 		final CLKernel prefixScanList = kernelMap.get("prefixScanList");
@@ -672,73 +841,53 @@ public class WEMOGAC3D extends MOGAC3D {
 			historyBuffer = context.createIntBuffer(rows * cols * slices,
 					USE_BUFFER, READ_WRITE);
 		}
-		CLBuffer<IntBuffer> rebuildOffsetBuffer = context.createIntBuffer(
-				slices, READ_WRITE, USE_BUFFER);
+		if (bufferPool == null || bufferPool.getContext() != context) {
+			bufferPool = new CLBufferPool(context);
+		}
+		int volume = rows * cols * slices;
+		CLBuffer<IntBuffer> rebuildOffsetBuffer = bufferPool.getIntBuffer(
+				"rebuildOffset", slices, slices, READ_WRITE, USE_BUFFER);
 		countActiveList.putArgs(rebuildOffsetBuffer, oldDistanceFieldBuffer,
 				distanceFieldBuffer).rewind();
 
-		queue.put1DRangeKernel(countActiveList, 0,
+		profiler.put1DRangeKernel(queue, countActiveList, 0,
 				roundToWorkgroupPower(slices, WORKGROUP_SIZE / 4),
 				WORKGROUP_SIZE / 4);
 		prefixScanList.putArgs(rebuildOffsetBuffer, maxValueBuffer)
 				.putArg(slices).rewind();
-		queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
+		profiler.put1DRangeKernel(queue, prefixScanList, 0,
+				SCAN_WORKGROUP_SIZE, SCAN_WORKGROUP_SIZE);
 
 		queue.finish();
-		queue.putReadBuffer(maxValueBuffer, true);
+		profiler.putReadBuffer(queue, maxValueBuffer, true);
 		activeListSize = maxValueBuffer.getBuffer().get(0);
-		activeListArraySize = (int) Math.min(
-				rows * cols * slices,
-				Math.max(activeListSize * 1.25f,
-						Math.ceil(rows * cols * slices * 0.1)));
+		activeListBuffer = bufferPool.getIntBuffer("activeList",
+				(int) Math.max(activeListSize, Math.ceil(volume * 0.1)),
+				volume, READ_WRITE, USE_BUFFER);
+		activeListArraySize = bufferPool.getCapacity("activeList");
 		System.out.println("Building narrowband with " + activeListSize
 				+ " active voxels out of " + activeListArraySize
 				+ " total voxels. ");
-		if (activeListBuffer != null) {
-			activeListBuffer.release();
-		}
-		activeListBuffer = context.createIntBuffer(activeListArraySize,
-				READ_WRITE, USE_BUFFER);
 
 		buildActiveList.putArgs(rebuildOffsetBuffer, activeListBuffer,
 				oldDistanceFieldBuffer).rewind();
-		queue.put1DRangeKernel(buildActiveList, 0, slices, 2);
+		profiler.put1DRangeKernel(queue, buildActiveList, 0, slices, 2);
 
 		queue.finish();
 
-		rebuildOffsetBuffer.release();
-
-		if (offsetBuffer != null) {
-			offsetBuffer.release();
-		}
-		offsetBuffer = context.createIntBuffer(
-				6 * (1 + (activeListArraySize / STRIDE)), USE_BUFFER,
+		int blocks = 1 + (activeListArraySize / STRIDE);
+		offsetBuffer = bufferPool.getIntBuffer("offset", 6 * blocks,
+				6 * blocks, USE_BUFFER, READ_WRITE);
+		maxTmpBuffer = bufferPool.getFloatBuffer("maxTmp", blocks, blocks,
+				READ_WRITE, USE_BUFFER);
+		tmpActiveBuffer = bufferPool.getIntBuffer("tmpActive",
+				activeListArraySize, activeListArraySize, USE_BUFFER,
 				READ_WRITE);
-
-		if (maxTmpBuffer != null) {
-			maxTmpBuffer.release();
-		}
-		maxTmpBuffer = context.createFloatBuffer(
-				1 + (activeListArraySize / STRIDE), READ_WRITE, USE_BUFFER);
-
-		if (tmpActiveBuffer != null) {
-			tmpActiveBuffer.release();
-		}
-
-		tmpActiveBuffer = context.createIntBuffer(activeListArraySize,
-				USE_BUFFER, READ_WRITE);
-
-		if (deltaLevelSetBuffer != null) {
-			deltaLevelSetBuffer.release();
-		}
-		deltaLevelSetBuffer = context.createFloatBuffer(
-				activeListArraySize * 7, USE_BUFFER, READ_WRITE);
-
-		if (idBuffer != null) {
-			idBuffer.release();
-		}
-		idBuffer = context.createIntBuffer(activeListArraySize * 7, USE_BUFFER,
+		deltaLevelSetBuffer = bufferPool.getFloatBuffer("deltaLevelSet",
+				activeListArraySize * 7, activeListArraySize * 7, USE_BUFFER,
 				READ_WRITE);
+		idBuffer = bufferPool.getIntBuffer("id", activeListArraySize * 7,
+				activeListArraySize * 7, USE_BUFFER, READ_WRITE);
 	}
 
 	/**
@@ -747,6 +896,13 @@ public class WEMOGAC3D extends MOGAC3D {
 	 * @return the number of deleted elements.
 	 */
 	protected int deleteElements() {
+		if (javaBackend) {
+			int delete = javaKernels.deleteElements(useAdaptiveActiveSet
+					&& time % sampling_interval == sampling_interval - 1,
+					useAdaptiveActiveSet);
+			activeListSize = javaKernels.activeListSize;
+			return delete;
+		}
 		final CLKernel deleteCountActiveList = kernelMap
 				.get("deleteCountActiveList");
 		final CLKernel deleteCountActiveListHistory = kernelMap
@@ -763,7 +919,7 @@ public class WEMOGAC3D extends MOGAC3D {
 					.putArgs(offsetBuffer, activeListBuffer,
 							oldDistanceFieldBuffer, historyBuffer)
 					.putArg(activeListSize).rewind();
-			queue.put1DRangeKernel(deleteCountActiveListHistory, 0,
+			profiler.put1DRangeKernel(queue, deleteCountActiveListHistory, 0,
 					roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1), 1);
 		} else {
 
@@ -771,15 +927,16 @@ public class WEMOGAC3D extends MOGAC3D {
 					.putArgs(offsetBuffer, activeListBuffer,
 							oldDistanceFieldBuffer).putArg(activeListSize)
 					.rewind();
-			queue.put1DRangeKernel(deleteCountActiveList, 0,
+			profiler.put1DRangeKernel(queue, deleteCountActiveList, 0,
 					roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1), 1);
 		}
 		queue.finish();
 		prefixScanList.putArgs(offsetBuffer, maxValueBuffer)
 				.putArg(1 + (activeListSize / STRIDE)).rewind();
-		queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
+		profiler.put1DRangeKernel(queue, prefixScanList, 0,
+				SCAN_WORKGROUP_SIZE, SCAN_WORKGROUP_SIZE);
 		queue.finish();
-		queue.putReadBuffer(maxValueBuffer, true);
+		profiler.putReadBuffer(queue, maxValueBuffer, true);
 		int newElements = maxValueBuffer.getBuffer().get(0);
 
 		int delete = activeListSize - newElements;
@@ -799,9 +956,7 @@ public class WEMOGAC3D extends MOGAC3D {
 								tmpActiveBuffer, oldDistanceFieldBuffer,
 								distanceFieldBuffer, historyBuffer)
 						.putArg(activeListSize).rewind();
-				queue.put1DRangeKernel(
-						compactActiveListHistory,
-						0,
+				profiler.put1DRangeKernel(queue, compactActiveListHistory, 0,
 						roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1),
 						1);
 			} else {
@@ -812,9 +967,7 @@ public class WEMOGAC3D extends MOGAC3D {
 								distanceFieldBuffer).putArg(activeListSize)
 						.rewind();
 
-				queue.put1DRangeKernel(
-						compactActiveList,
-						0,
+				profiler.put1DRangeKernel(queue, compactActiveList, 0,
 						roundToWorkgroupPower(1 + (activeListSize / STRIDE), 1),
 						1);
 			}
@@ -883,6 +1036,9 @@ public class WEMOGAC3D extends MOGAC3D {
 	}
 
 	public void init() {
+		if (javaBackend) {
+			return;
+		}
 		CLProgram program;
 		try {
 			program = context.createProgram(
@@ -894,7 +1050,9 @@ public class WEMOGAC3D extends MOGAC3D {
 							define("CLAMP_SPEED", clampSpeed ? 1 : 0),
 							define("NUM_LABELS", numLabels),
 							define("STRIDE", STRIDE),
-							define("MAX_DISTANCE", MAX_DISTANCE));
+							define("MAX_DISTANCE", MAX_DISTANCE),
+							define("SCAN_WORKGROUP_SIZE",
+									SCAN_WORKGROUP_SIZE));
 
 			kernelMap = program.createCLKernels();
 		} catch (IOException e) {
@@ -928,14 +1086,14 @@ public class WEMOGAC3D extends MOGAC3D {
 		this.labelImage = labelImage;
 		int mask = 0x00000001;
 		int l = 0;
-		this.labels = labelImage.toArray3d();
+		this.labels = getFlatData(labelImage);
 		if (containsOverlaps) {
 			TreeSet<Integer> labelHash = new TreeSet<Integer>();
 			int totalMask = 0;
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						l = labels[i][j][k];
+						l = labels[getIndex(i, j, k)];
 						totalMask |= l;
 						labelHash.add(l);
 					}
@@ -970,7 +1128,7 @@ public class WEMOGAC3D extends MOGAC3D {
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						l = labels[i][j][k];
+						l = labels[getIndex(i, j, k)];
 						labelHash.add(l);
 					}
 				}
@@ -988,6 +1146,17 @@ public class WEMOGAC3D extends MOGAC3D {
 				forceIndexes[i] = i - 1;
 			}
 		}
+		if (javaBackend) {
+			MogacKernels3D previous = javaKernels;
+			super.initJava(unsignedImage, labelImage);
+			if (previous != null) {
+				javaKernels.pressure = previous.pressure;
+				javaKernels.vecField = previous.vecField;
+				javaKernels.topologyRule = previous.topologyRule;
+			}
+			rebuildNarrowBand();
+			return true;
+		}
 		if (imageLabelBuffer != null)
 			imageLabelBuffer.release();
 		if (oldImageLabelBuffer != null)
@@ -1001,7 +1170,7 @@ public class WEMOGAC3D extends MOGAC3D {
 		for (int k = 0; k < slices; k++) {
 			for (int j = 0; j < cols; j++) {
 				for (int i = 0; i < rows; i++) {
-					int lab = labels[i][j][k];
+					int lab = labels[getIndex(i, j, k)];
 					if (i == 0 || j == 0 || k == 0 || i == rows - 1
 							|| j == cols - 1 || k == slices - 1) {
 						lab = 0;
@@ -1013,8 +1182,8 @@ public class WEMOGAC3D extends MOGAC3D {
 		}
 		label.rewind();
 		oldLabel.rewind();
-		queue.putWriteBuffer(imageLabelBuffer, true).putWriteBuffer(
-				oldImageLabelBuffer, true);
+		profiler.putWriteBuffer(queue, imageLabelBuffer, true);
+		profiler.putWriteBuffer(queue, oldImageLabelBuffer, true);
 		if (distanceFieldBuffer != null)
 			distanceFieldBuffer.release();
 		if (oldDistanceFieldBuffer != null)
@@ -1024,30 +1193,31 @@ public class WEMOGAC3D extends MOGAC3D {
 		init();
 		if (unsignedImage == null) {
 			convertLabelsToLevelSet();
-			unsignedImage = new ImageDataFloat(rows, cols, slices);
+			unsignedImage = createDistanceFieldImage();
 			unsignedImage.setName(image.getName() + "_distfield");
-			queue.putReadBuffer(distanceFieldBuffer, true);
+			profiler.putReadBuffer(queue, distanceFieldBuffer, true);
 			FloatBuffer buff = distanceFieldBuffer.getBuffer();
 			FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer
 					.getBuffer();
-			this.distField = unsignedImage.toArray3d();
+			this.distField = getFlatData(unsignedImage);
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						float val = distField[i][j][k];
+						float val = distField[getIndex(i, j, k)];
 						if (i == 0 || j == 0 || k == 0 || i == rows - 1
 								|| j == cols - 1 || k == slices - 1) {
 							val = Math.max(val, 3);
-							distField[i][j][k] = Math.max(buff.get(), 0);
+							distField[getIndex(i, j, k)] = Math.max(
+									buff.get(), 0);
 						} else {
-							distField[i][j][k] = buff.get();
+							distField[getIndex(i, j, k)] = buff.get();
 						}
 						oldUnsignedLevelSet.put(val);
 					}
 				}
 			}
 			oldUnsignedLevelSet.rewind();
-			queue.putWriteBuffer(oldDistanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 			buff.rewind();
 		} else {
 			distanceFieldBuffer = context.createFloatBuffer(rows * cols
@@ -1056,11 +1226,11 @@ public class WEMOGAC3D extends MOGAC3D {
 			FloatBuffer unsignedLevelSet = distanceFieldBuffer.getBuffer();
 			FloatBuffer oldUnsignedLevelSet = oldDistanceFieldBuffer
 					.getBuffer();
-			this.distField = unsignedImage.toArray3d();
+			this.distField = getFlatData(unsignedImage);
 			for (int k = 0; k < slices; k++) {
 				for (int j = 0; j < cols; j++) {
 					for (int i = 0; i < rows; i++) {
-						float val = distField[i][j][k];
+						float val = distField[getIndex(i, j, k)];
 						if (i == 0 || j == 0 || k == 0 || i == rows - 1
 								|| j == cols - 1 || k == slices - 1) {
 							val = Math.max(val, 3);
@@ -1072,17 +1242,13 @@ public class WEMOGAC3D extends MOGAC3D {
 			}
 			unsignedLevelSet.rewind();
 			oldUnsignedLevelSet.rewind();
-			queue.putWriteBuffer(distanceFieldBuffer, true).putWriteBuffer(
-					oldDistanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, distanceFieldBuffer, true);
+			profiler.putWriteBuffer(queue, oldDistanceFieldBuffer, true);
 		}
 		if (labelMaskBuffer != null)
 			labelMaskBuffer.release();
 		if (forceIndexesBuffer != null)
 			forceIndexesBuffer.release();
-		if (deltaLevelSetBuffer != null)
-			deltaLevelSetBuffer.release();
-		if (idBuffer != null)
-			idBuffer.release();
 
 		labelMaskBuffer = context.createIntBuffer(labelMasks.length, READ_ONLY,
 				USE_BUFFER);
@@ -1090,13 +1256,8 @@ public class WEMOGAC3D extends MOGAC3D {
 		forceIndexesBuffer = context.createIntBuffer(forceIndexes.length,
 				READ_ONLY, USE_BUFFER);
 		forceIndexesBuffer.getBuffer().put(forceIndexes).rewind();
-
-		idBuffer = context.createIntBuffer(rows * cols * slices * 7,
-				READ_WRITE, USE_BUFFER);
-		deltaLevelSetBuffer = context.createFloatBuffer(rows * cols * slices
-				* 7, READ_WRITE, USE_BUFFER);
-		queue.putWriteBuffer(labelMaskBuffer, true).putWriteBuffer(
-				forceIndexesBuffer, true);
+		profiler.putWriteBuffer(queue, labelMaskBuffer, true);
+		profiler.putWriteBuffer(queue, forceIndexesBuffer, true);
 		this.distFieldImage = unsignedImage;
 		this.labelImage = labelImage;
 
@@ -1118,6 +1279,27 @@ public class WEMOGAC3D extends MOGAC3D {
 		return true;
 	}
 
+	/**
+	 * Gets the voxels in the narrow band. Voxel indexes are linear, k*rows*cols
+	 * + j*rows + i, and can be passed directly to the narrow band iso-surface
+	 * generators.
+	 * 
+	 * @return the active voxels
+	 */
+	public int[] getActiveVoxels() {
+		int[] voxels = new int[activeListSize];
+		if (javaBackend) {
+			System.arraycopy(javaKernels.activeList, 0, voxels, 0,
+					activeListSize);
+		} else if (activeListSize > 0) {
+			profiler.putReadBuffer(queue, activeListBuffer, true);
+			IntBuffer buff = activeListBuffer.getBuffer();
+			buff.get(voxels, 0, activeListSize);
+			buff.rewind();
+		}
+		return voxels;
+	}
+
 	/**
 	 * Sets the adaptive update.
 	 * 
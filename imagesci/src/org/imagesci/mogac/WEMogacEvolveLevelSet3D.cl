@@ -25,6 +25,9 @@
  * @author Blake Lucas (img.science@gmail.com)
  */
 #define INF_FORCE 1E10f
+#ifndef SCAN_WORKGROUP_SIZE
+#define SCAN_WORKGROUP_SIZE 128
+#endif
 
 #define MAX_HISTORY 126
 constant int xShift[8] = { 0, 0, 1, 1, 0, 0, 1, 1 };
@@ -808,7 +811,7 @@ kernel void vecFieldSpeedKernel(
 	vecField+=3*id;
 	forceX = advectWeight * vecField[0];
 	forceY = advectWeight * vecField[1];
-	forceZ = advectWeight * vecField[3];
+	forceZ = advectWeight * vecField[2];
 	for(int index=0;index<7;index++){
 		label=activeLabels[index];
 		if(label==0){
@@ -1417,15 +1420,50 @@ kernel void countActiveList(global int* offsets,global float* oldDistanceField,g
 	}
 	offsets[k]=total;
 }
+// Inclusive prefix sum of offsets[0..sz) computed by a single work-group of
+// SCAN_WORKGROUP_SIZE items. Each pass scans 2*SCAN_WORKGROUP_SIZE elements in
+// local memory with an up-sweep and down-sweep and carries the running total.
 kernel void prefixScanList(global int* offsets,global int* maxBuffer,int sz){
-	uint id=get_global_id(0);
-	if(id!=0)return;
-	int total=0;
-	for(int n=0;n<sz;n++){
-		total+=offsets[n];
-		offsets[n]=total;
+	local int scratch[2*SCAN_WORKGROUP_SIZE];
+	int lid=get_local_id(0);
+	int carry=0;
+	for(int base=0;base<sz;base+=2*SCAN_WORKGROUP_SIZE){
+		int i0=base+lid;
+		int i1=i0+SCAN_WORKGROUP_SIZE;
+		int v0=(i0<sz)?offsets[i0]:0;
+		int v1=(i1<sz)?offsets[i1]:0;
+		scratch[lid]=v0;
+		scratch[lid+SCAN_WORKGROUP_SIZE]=v1;
+		int stride=1;
+		for(int d=SCAN_WORKGROUP_SIZE;d>0;d>>=1){
+			barrier(CLK_LOCAL_MEM_FENCE);
+			if(lid<d){
+				scratch[stride*(2*lid+2)-1]+=scratch[stride*(2*lid+1)-1];
+			}
+			stride<<=1;
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+		int total=scratch[2*SCAN_WORKGROUP_SIZE-1];
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if(lid==0)scratch[2*SCAN_WORKGROUP_SIZE-1]=0;
+		for(int d=1;d<2*SCAN_WORKGROUP_SIZE;d<<=1){
+			stride>>=1;
+			barrier(CLK_LOCAL_MEM_FENCE);
+			if(lid<d){
+				int ai=stride*(2*lid+1)-1;
+				int bi=stride*(2*lid+2)-1;
+				int t=scratch[ai];
+				scratch[ai]=scratch[bi];
+				scratch[bi]+=t;
+			}
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if(i0<sz)offsets[i0]=carry+scratch[lid]+v0;
+		if(i1<sz)offsets[i1]=carry+scratch[lid+SCAN_WORKGROUP_SIZE]+v1;
+		carry+=total;
+		barrier(CLK_LOCAL_MEM_FENCE);
 	}
-	maxBuffer[0]=total;
+	if(lid==0)maxBuffer[0]=carry;
 }
 
 kernel void buildActiveList(global int* offsets,global int* activeListBuffer,global float* distanceField){
@@ -37,6 +37,9 @@ import edu.jhu.ece.iacl.jist.structures.image.ImageDataInt;
  */
 public class CompressLevelSets {
 
+	/** The distance stored outside the narrow band of all level sets. */
+	public static final float MAX_DISTANCE = 10.0f;
+
 	/** The label image. */
 	protected ImageDataInt labelImage;
 
@@ -61,7 +64,7 @@ public class CompressLevelSets {
 			float[][] levelset = levelSetImage.toArray2d();
 			for (int i = 0; i < rows; i++) {
 				for (int j = 0; j < cols; j++) {
-					levelset[i][j] = 10.0f;
+					levelset[i][j] = MAX_DISTANCE;
 				}
 			}
 			int index = 0;
@@ -93,7 +96,7 @@ public class CompressLevelSets {
 			for (int i = 0; i < rows; i++) {
 				for (int j = 0; j < cols; j++) {
 					for (int k = 0; k < slices; k++) {
-						levelset[i][j][k] = 10.0f;
+						levelset[i][j][k] = MAX_DISTANCE;
 					}
 				}
 			}
@@ -136,4 +139,13 @@ public class CompressLevelSets {
 	public ImageDataInt getLabelImage() {
 		return labelImage;
 	}
+
+	/**
+	 * Gets the label image and distance field stored in sparse bricks.
+	 * 
+	 * @return the sparse level sets
+	 */
+	public SparseLevelSets getSparseLevelSets() {
+		return new SparseLevelSets(this);
+	}
 }
@@ -35,6 +35,7 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
 import org.imagesci.mogac.MuscleEvolveLevelSet3D;
+import org.imagesci.springls.MeshRasterizer3D;
 import org.imagesci.springls.SpringlsCommon3D;
 import org.imagesci.springls.SpringlsSurface;
 
@@ -68,6 +69,9 @@ public class FastMeshToMUSCLE extends AbstractCalculation {
 	/** The MA x_ cycles. */
 	protected final int MAX_CYCLES = 16;
 
+	/** Rasterize the mesh with {@link MeshRasterizer3D} instead of OpenCL. */
+	protected boolean javaRasterizer = false;
+
 	/**
 	 * Instantiates a new mesh to muscle.
 	 * 
@@ -106,7 +110,8 @@ public class FastMeshToMUSCLE extends AbstractCalculation {
 	public void solve(EmbeddedSurface initialSurface, int[] order,
 			float smoothWeight, int smoothingIters) throws IOException {
 		setTotalUnits(order.length);
-		commons.setSpringls(new SpringlsSurface(initialSurface));
+		SpringlsSurface springls = new SpringlsSurface(initialSurface);
+		commons.setSpringls(springls);
 		long startTime = System.nanoTime();
 		int numLabels = 0;
 		for (int i = 0; i < order.length; i++) {
@@ -117,6 +122,96 @@ public class FastMeshToMUSCLE extends AbstractCalculation {
 
 		System.out
 				.println("Labels " + numLabels + " padded to " + padLabelSize);
+		if (javaRasterizer) {
+			MeshRasterizer3D rasterizer = new MeshRasterizer3D(commons.rows,
+					commons.cols, commons.slices);
+			rasterizer.setSurface(springls);
+			rasterizer.solve(order);
+			distField = new ImageDataFloat(rasterizer.getDistances(),
+					commons.rows, commons.cols, commons.slices, 1);
+			labelImage = new ImageDataInt(rasterizer.getLabels(),
+					commons.rows, commons.cols, commons.slices, 1);
+			distField.setName(initialSurface.getName() + "_distfield");
+			labelImage.setName(initialSurface.getName() + "_labels");
+		} else {
+			rasterizeOpenCL(initialSurface, order, numLabels, padLabelSize);
+		}
+
+		if (smoothingIters > 0) {
+			System.out.println("Smoothing ...");
+			MuscleEvolveLevelSet3D mogac = new MuscleEvolveLevelSet3D(commons,
+					labelImage, smoothWeight);
+			mogac.setPreserveTopology(false);
+			mogac.setMaxIterations(smoothingIters);
+			mogac.init(distField, labelImage, false);
+			mogac.evolve();
+			distField = mogac.getDistanceField();
+			labelImage = mogac.getImageLabels();
+			labelImage.setName(initialSurface.getName() + "_labels");
+			distField.setName(initialSurface.getName() + "_distfield");
+		}
+
+		long stopTime = System.nanoTime();
+		System.out.println("Elapsed Time: " + ((stopTime - startTime) * 1E-9)
+				+ " sec");
+		commons.dispose();
+		markCompleted();
+	}
+
+	/**
+	 * Gets the distance field.
+	 * 
+	 * @return the distance field
+	 */
+	public ImageDataFloat getDistanceField() {
+		// TODO Auto-generated method stub
+		return distField;
+	}
+
+	/**
+	 * Gets the label image.
+	 * 
+	 * @return the label image
+	 */
+	public ImageDataInt getLabelImage() {
+		// TODO Auto-generated method stub
+		return labelImage;
+	}
+
+	/**
+	 * Checks if the mesh is rasterized with {@link MeshRasterizer3D}.
+	 * 
+	 * @return true, if the java rasterizer is used
+	 */
+	public boolean isJavaRasterizer() {
+		return javaRasterizer;
+	}
+
+	/**
+	 * Sets whether to rasterize the mesh with {@link MeshRasterizer3D}, which
+	 * scales with mesh size, instead of the OpenCL kernels.
+	 * 
+	 * @param javaRasterizer
+	 *            true to use the java rasterizer
+	 */
+	public void setJavaRasterizer(boolean javaRasterizer) {
+		this.javaRasterizer = javaRasterizer;
+	}
+
+	/**
+	 * Build the label image and distance field with the OpenCL kernels.
+	 * 
+	 * @param initialSurface
+	 *            the initial surface
+	 * @param order
+	 *            the order
+	 * @param numLabels
+	 *            the number of labels
+	 * @param padLabelSize
+	 *            the number of labels padded to a multiple of 32
+	 */
+	private void rasterizeOpenCL(EmbeddedSurface initialSurface, int[] order,
+			int numLabels, int padLabelSize) {
 		CLBuffer<IntBuffer> orderBuffer = commons.context.createIntBuffer(
 				order.length, USE_BUFFER, READ_WRITE);
 		orderBuffer.getBuffer().put(order).rewind();
@@ -238,45 +333,5 @@ public class FastMeshToMUSCLE extends AbstractCalculation {
 		}
 		labelsBuffer.rewind();
 		distFieldBuffer.rewind();
-
-		if (smoothingIters > 0) {
-			System.out.println("Smoothing ...");
-			MuscleEvolveLevelSet3D mogac = new MuscleEvolveLevelSet3D(commons,
-					labelImage, smoothWeight);
-			mogac.setPreserveTopology(false);
-			mogac.setMaxIterations(smoothingIters);
-			mogac.init(distField, labelImage, false);
-			mogac.evolve();
-			distField = mogac.getDistanceField();
-			labelImage = mogac.getImageLabels();
-			labelImage.setName(initialSurface.getName() + "_labels");
-			distField.setName(initialSurface.getName() + "_distfield");
-		}
-
-		long stopTime = System.nanoTime();
-		System.out.println("Elapsed Time: " + ((stopTime - startTime) * 1E-9)
-				+ " sec");
-		commons.dispose();
-		markCompleted();
-	}
-
-	/**
-	 * Gets the distance field.
-	 * 
-	 * @return the distance field
-	 */
-	public ImageDataFloat getDistanceField() {
-		// TODO Auto-generated method stub
-		return distField;
-	}
-
-	/**
-	 * Gets the label image.
-	 * 
-	 * @return the label image
-	 */
-	public ImageDataInt getLabelImage() {
-		// TODO Auto-generated method stub
-		return labelImage;
 	}
 }
@@ -101,7 +101,7 @@ public class MuscleActiveContour3D extends SpringlsActiveContour3D {
 					.printf("Time Steps: %d\nElapsed Time: %6.4f sec\nFrame Rate: %6.2f fps\n",
 							time, 1E-9 * (endTime - startTime), 1E9 * time
 									/ (endTime - startTime));
-
+			profiler.finishRun();
 			markCompleted();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -156,6 +156,7 @@ public class MuscleActiveContour3D extends SpringlsActiveContour3D {
 		this.cols = cols;
 		this.slices = slices;
 		this.commons = commons;
+		commons.setProfiler(profiler);
 		((MuscleCommon3D) commons).setActiveContour(this);
 		commons.setResampling(resamplingEnabled);
 		commons.initialize(rows, cols, slices, preserveTopology);
@@ -592,4 +593,15 @@ public class MuscleActiveContour3D extends SpringlsActiveContour3D {
 		this.labelImage = labelImage;
 		updateDimensions(labelImage);
 	}
+
+	/**
+	 * Sets the initial label image and distance field from sparse level sets.
+	 * 
+	 * @param levelSets
+	 *            the sparse level sets
+	 */
+	public void setInitialLevelSets(SparseLevelSets levelSets) {
+		setInitialLabelImage(levelSets.getLabelImage());
+		setInitialDistanceFieldImage(levelSets.getDistanceFieldImage());
+	}
 }
@@ -105,13 +105,14 @@ public class MuscleAdvectACWE3D extends MuscleAdvect3D {
 			regionAverage.putArgs(mogac.imageLabelBuffer,
 					mogac.distanceFieldBuffer, pressureImageBuffer,
 					mogac.labelMaskBuffer, averages, areas, stddev).rewind();
-			commons.queue.put1DRangeKernel(regionAverage, 0,
+			commons.profiler.put1DRangeKernel(commons.queue, regionAverage, 0,
 					SpringlsCommon3D.roundToWorkgroupPower(commons.slices),
 					SpringlsCommon3D.WORKGROUP_SIZE);
 			commons.queue.finish();
 			sumAverages.putArgs(averages, areas, stddev).rewind();
-			commons.queue.put1DRangeKernel(sumAverages, 0, SpringlsCommon3D
-					.roundToWorkgroupPower(mogac.getNumLabels()),
+			commons.profiler.put1DRangeKernel(commons.queue, sumAverages, 0,
+					SpringlsCommon3D.roundToWorkgroupPower(mogac
+							.getNumLabels()),
 					SpringlsCommon3D.WORKGROUP_SIZE);
 		}
 		time++;
@@ -139,21 +140,19 @@ public class MuscleAdvectACWE3D extends MuscleAdvect3D {
 						pointUpdates, averages).putArg(pressureWeight)
 				.putArg(commons.elements).rewind();
 
-		commons.queue.put1DRangeKernel(computeForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, computeForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		computeMaxForces.putArgs(pointUpdates, maxForces)
 				.putArg(SpringlsCommon3D.STRIDE).putArg(commons.elements)
 				.rewind();
 		// Find the maximum force in order to choose an appropriate step
 		// size.
-		commons.queue.put1DRangeKernel(
-				computeMaxForces,
-				0,
+		commons.profiler.put1DRangeKernel(commons.queue, computeMaxForces, 0,
 				SpringlsCommon3D.roundToWorkgroupPower(commons.arrayLength
 						/ SpringlsCommon3D.STRIDE),
 				SpringlsCommon3D.WORKGROUP_SIZE);
 
-		commons.queue.putReadBuffer(maxForces, true);
+		commons.profiler.putReadBuffer(commons.queue, maxForces, true);
 		FloatBuffer buff = maxForces.getBuffer();
 		float maxForce = 0;
 		while (buff.hasRemaining()) {
@@ -173,8 +172,8 @@ public class MuscleAdvectACWE3D extends MuscleAdvect3D {
 						mogac.imageLabelBuffer, commons.springlLabelBuffer,
 						pointUpdates).putArg(maxForce).putArg(commons.elements)
 				.rewind();
-		commons.queue.put1DRangeKernel(applyForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, applyForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 		maxForces.release();
 		pointUpdates.release();
@@ -186,8 +185,9 @@ public class MuscleAdvectACWE3D extends MuscleAdvect3D {
 	 * Prints the averages.
 	 */
 	public void printAverages() {
-		commons.queue.putReadBuffer(averages, true).putReadBuffer(areas, true)
-				.putReadBuffer(stddev, true);
+		commons.profiler.putReadBuffer(commons.queue, averages, true);
+		commons.profiler.putReadBuffer(commons.queue, areas, true);
+		commons.profiler.putReadBuffer(commons.queue, stddev, true);
 		FloatBuffer avgs = averages.getBuffer();
 		FloatBuffer area = areas.getBuffer();
 		FloatBuffer std = stddev.getBuffer();
@@ -222,7 +222,7 @@ public class MuscleAdvectACWE3D extends MuscleAdvect3D {
 
 		}
 		avgs.rewind();
-		commons.queue.putWriteBuffer(averages, true);
+		commons.profiler.putWriteBuffer(commons.queue, averages, true);
 	}
 
 	/**
@@ -270,8 +270,9 @@ public class MuscleAdvectACWE3D extends MuscleAdvect3D {
 		avgs.rewind();
 		area.rewind();
 		stds.rewind();
-		commons.queue.putWriteBuffer(averages, true)
-				.putWriteBuffer(areas, true).putWriteBuffer(stddev, true);
+		commons.profiler.putWriteBuffer(commons.queue, averages, true);
+		commons.profiler.putWriteBuffer(commons.queue, areas, true);
+		commons.profiler.putWriteBuffer(commons.queue, stddev, true);
 	}
 
 	/**
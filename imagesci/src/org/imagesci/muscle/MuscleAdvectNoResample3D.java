@@ -179,21 +179,19 @@ public class MuscleAdvectNoResample3D extends MuscleAdvect3D {
 					.putArg(commons.elements).rewind();
 		}
 
-		commons.queue.put1DRangeKernel(computeForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, computeForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		computeMaxForces.putArgs(pointUpdates, maxForces)
 				.putArg(SpringlsCommon3D.STRIDE).putArg(3 * commons.elements)
 				.rewind();
 		// Find the maximum force in order to choose an appropriate step
 		// size.
-		commons.queue.put1DRangeKernel(
-				computeMaxForces,
-				0,
+		commons.profiler.put1DRangeKernel(commons.queue, computeMaxForces, 0,
 				SpringlsCommon3D.roundToWorkgroupPower(3 * commons.arrayLength
 						/ SpringlsCommon3D.STRIDE),
 				SpringlsCommon3D.WORKGROUP_SIZE);
 
-		commons.queue.putReadBuffer(maxForces, true);
+		commons.profiler.putReadBuffer(commons.queue, maxForces, true);
 		FloatBuffer buff = maxForces.getBuffer();
 		float maxForce = 0;
 		while (buff.hasRemaining()) {
@@ -213,8 +211,8 @@ public class MuscleAdvectNoResample3D extends MuscleAdvect3D {
 						mogac.imageLabelBuffer, commons.springlLabelBuffer,
 						pointUpdates).putArg(maxForce).putArg(commons.elements)
 				.rewind();
-		commons.queue.put1DRangeKernel(applyForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, applyForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 		maxForces.release();
 		pointUpdates.release();
@@ -71,13 +71,14 @@ public class MuscleAdvectNoResampleACWE3D extends MuscleAdvectACWE3D {
 			regionAverage.putArgs(mogac.imageLabelBuffer,
 					mogac.distanceFieldBuffer, pressureImageBuffer,
 					mogac.labelMaskBuffer, averages, areas, stddev).rewind();
-			commons.queue.put1DRangeKernel(regionAverage, 0,
+			commons.profiler.put1DRangeKernel(commons.queue, regionAverage, 0,
 					SpringlsCommon3D.roundToWorkgroupPower(commons.slices),
 					SpringlsCommon3D.WORKGROUP_SIZE);
 			commons.queue.finish();
 			sumAverages.putArgs(averages, areas, stddev).rewind();
-			commons.queue.put1DRangeKernel(sumAverages, 0, SpringlsCommon3D
-					.roundToWorkgroupPower(mogac.getNumLabels()),
+			commons.profiler.put1DRangeKernel(commons.queue, sumAverages, 0,
+					SpringlsCommon3D.roundToWorkgroupPower(mogac
+							.getNumLabels()),
 					SpringlsCommon3D.WORKGROUP_SIZE);
 		}
 		time++;
@@ -103,21 +104,19 @@ public class MuscleAdvectNoResampleACWE3D extends MuscleAdvectACWE3D {
 						mogac.imageLabelBuffer, pointUpdates, averages)
 				.putArg(pressureWeight).putArg(commons.elements).rewind();
 
-		commons.queue.put1DRangeKernel(computeForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, computeForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		computeMaxForces.putArgs(pointUpdates, maxForces)
 				.putArg(SpringlsCommon3D.STRIDE).putArg(3 * commons.elements)
 				.rewind();
 		// Find the maximum force in order to choose an appropriate step
 		// size.
-		commons.queue.put1DRangeKernel(
-				computeMaxForces,
-				0,
+		commons.profiler.put1DRangeKernel(commons.queue, computeMaxForces, 0,
 				SpringlsCommon3D.roundToWorkgroupPower(3 * commons.arrayLength
 						/ SpringlsCommon3D.STRIDE),
 				SpringlsCommon3D.WORKGROUP_SIZE);
 
-		commons.queue.putReadBuffer(maxForces, true);
+		commons.profiler.putReadBuffer(commons.queue, maxForces, true);
 		FloatBuffer buff = maxForces.getBuffer();
 		float maxForce = 0;
 		while (buff.hasRemaining()) {
@@ -138,8 +137,8 @@ public class MuscleAdvectNoResampleACWE3D extends MuscleAdvectACWE3D {
 						mogac.imageLabelBuffer, commons.springlLabelBuffer,
 						pointUpdates).putArg(maxForce).putArg(commons.elements)
 				.rewind();
-		commons.queue.put1DRangeKernel(applyForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, applyForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 		maxForces.release();
 		pointUpdates.release();
@@ -317,7 +317,8 @@ public class MuscleApplyDisplacementField3D extends MuscleActiveContour3D {
 		pbuff.put(M.m32);
 		pbuff.put(M.m33);
 		pbuff.rewind();
-		commons.queue.putWriteBuffer(modelViewMatrixBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue, modelViewMatrixBuffer,
+				true);
 		M.invert();
 		pbuff = modelViewInverseMatrixBuffer.getBuffer();
 		pbuff.put(M.m00);
@@ -337,28 +338,29 @@ public class MuscleApplyDisplacementField3D extends MuscleActiveContour3D {
 		pbuff.put(M.m32);
 		pbuff.put(M.m33);
 		pbuff.rewind();
-		commons.queue.putWriteBuffer(modelViewInverseMatrixBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue,
+				modelViewInverseMatrixBuffer, true);
 		long initTime = System.nanoTime();
 		final int global_size = MOGAC3D.roundToWorkgroupPower(rows * cols
 				* slices);
 		applyTransform.putArgs(commons.capsuleBuffer, modelViewMatrixBuffer)
 				.putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(applyTransform, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, applyTransform, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 
 		System.out.println("Applying Inverse Transform");
 		transformImage.putArgs(evolve.oldDistanceFieldBuffer,
 				evolve.oldImageLabelBuffer, evolve.distanceFieldBuffer,
 				evolve.imageLabelBuffer, modelViewInverseMatrixBuffer).rewind();
-		commons.queue.put1DRangeKernel(transformImage, 0, global_size,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, transformImage, 0,
+				global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 		copyBuffers.putArgs(evolve.distanceFieldBuffer,
 				evolve.imageLabelBuffer, evolve.oldDistanceFieldBuffer,
 				evolve.oldImageLabelBuffer).rewind();
-		commons.queue.put1DRangeKernel(copyBuffers, 0, global_size,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, copyBuffers, 0,
+				global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 		modelViewMatrixBuffer.release();
 		modelViewInverseMatrixBuffer.release();
@@ -99,9 +99,9 @@ public class MuscleCommon3D extends SpringlsCommon3D {
 	 */
 	@Override
 	public EmbeddedSurface getSpringlsSurface() {
-		queue.putReadBuffer(capsuleBuffer, true).putReadBuffer(
-				springlLabelBuffer, true);
-		queue.putReadBuffer(springlLabelBuffer, true);
+		profiler.putReadBuffer(queue, capsuleBuffer, true);
+		profiler.putReadBuffer(queue, springlLabelBuffer, true);
+		profiler.putReadBuffer(queue, springlLabelBuffer, true);
 		IntBuffer lbuffer = springlLabelBuffer.getBuffer();
 		ByteBuffer buffer = capsuleBuffer.getBuffer();
 		Point3f[] points = new Point3f[3 * elements];
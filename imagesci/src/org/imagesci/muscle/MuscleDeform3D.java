@@ -83,8 +83,8 @@ public class MuscleDeform3D extends MuscleAdvect3D {
 						mogac.imageLabelBuffer, commons.springlLabelBuffer,
 						pointUpdates).putArg((float) (timeStep * maxForce))
 				.putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(applyForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, applyForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 		return timeStep * maxForce;
 	}
@@ -135,27 +135,26 @@ public class MuscleDeform3D extends MuscleAdvect3D {
 			}
 		}
 		advectBuff.rewind();
-		commons.queue.putWriteBuffer(vecFieldImageBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue, vecFieldImageBuffer,
+				true);
 		final CLKernel initDeformationField = commons.kernelMap
 				.get("initDeformationField");
 		initDeformationField
 				.putArgs(commons.capsuleBuffer, vecFieldImageBuffer,
 						pointUpdates).putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(initDeformationField, 0,
-				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, initDeformationField,
+				0, commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		final CLKernel computeMaxForces = commons.kernelMap
 				.get(SpringlsCommon3D.COMPUTE_MAX_FORCES);
 		computeMaxForces.putArgs(pointUpdates, maxForces)
 				.putArg(SpringlsCommon3D.STRIDE).putArg(commons.elements)
 				.rewind();
 		// Find the maximum force in order to choose an appropriate step size.
-		commons.queue.put1DRangeKernel(
-				computeMaxForces,
-				0,
+		commons.profiler.put1DRangeKernel(commons.queue, computeMaxForces, 0,
 				SpringlsCommon3D.roundToWorkgroupPower(commons.arrayLength
 						/ SpringlsCommon3D.STRIDE),
 				SpringlsCommon3D.WORKGROUP_SIZE);
-		commons.queue.putReadBuffer(maxForces, true);
+		commons.profiler.putReadBuffer(commons.queue, maxForces, true);
 		FloatBuffer buff = maxForces.getBuffer();
 		maxForce = 0;
 		while (buff.hasRemaining()) {
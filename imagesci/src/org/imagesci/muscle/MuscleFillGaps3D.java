@@ -101,13 +101,11 @@ public class MuscleFillGaps3D extends SpringlsFillGaps3D {
 						commons.springlLabelBuffer)
 				.putArg(((MuscleCommon3D) commons).activeListSize)
 				.putArg(label).rewind();
-		commons.queue
-				.put1DRangeKernel(
-						reduceLevelSet,
-						0,
-						SpringlsCommon2D
-								.roundToWorgroupPower(((MuscleCommon3D) commons).activeListSize),
-						SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, reduceLevelSet, 0,
+				SpringlsCommon2D
+						.roundToWorgroupPower(((MuscleCommon3D)
+								commons).activeListSize),
+				SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 
 	}
@@ -147,7 +145,7 @@ public class MuscleFillGaps3D extends SpringlsFillGaps3D {
 				.putArg((commons.flip) ? -1 : 1).putArg(activeListSize)
 				.putArg(label).rewind();
 
-		commons.queue.put1DRangeKernel(fillGapCount, 0,
+		commons.profiler.put1DRangeKernel(commons.queue, fillGapCount, 0,
 				SpringlsCommon2D.roundToWorgroupPower(activeListSize),
 				SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
@@ -172,8 +170,8 @@ public class MuscleFillGaps3D extends SpringlsFillGaps3D {
 					.putArgs(commons.capsuleBuffer, commons.springlLabelBuffer,
 							capsuleBuffer2, labelBuffer2).putArg(oldElements)
 					.rewind();
-			commons.queue.put1DRangeKernel(copyElements, 0, oldArrayLength,
-					SpringlsCommon3D.WORKGROUP_SIZE);
+			commons.profiler.put1DRangeKernel(commons.queue, copyElements, 0,
+					oldArrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		} else {
 			labelBuffer2 = commons.springlLabelBuffer;
 			capsuleBuffer2 = commons.capsuleBuffer;
@@ -187,7 +185,7 @@ public class MuscleFillGaps3D extends SpringlsFillGaps3D {
 						commons.a2iTriangleConnectionTableBuffer)
 				.putArg((commons.flip) ? -1 : 1).putArg(oldElements)
 				.putArg(activeListSize).putArg(label).rewind();
-		commons.queue.put1DRangeKernel(expandGaps, 0,
+		commons.profiler.put1DRangeKernel(commons.queue, expandGaps, 0,
 				SpringlsCommon2D.roundToWorgroupPower(activeListSize),
 				SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
@@ -216,8 +214,8 @@ public class MuscleFillGaps3D extends SpringlsFillGaps3D {
 						commons.originalUnsignedLevelSetBuffer,
 						commons.springlLabelBuffer).putArg(commons.elements)
 				.rewind();
-		commons.queue.put1DRangeKernel(fixLabels, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, fixLabels, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 	}
 
@@ -97,13 +97,13 @@ public class MuscleIsoSurface3D {
 			convertUnsignedToSigned();
 			combineLabelImages.putArgs(imageLabelBuffer, distanceFieldBuffer)
 					.putArg(label).rewind();
-			commons.queue.put1DRangeKernel(combineLabelImages, 0, commons.rows
-					* commons.cols * commons.slices,
+			commons.profiler.put1DRangeKernel(commons.queue, combineLabelImages,
+					0, commons.rows * commons.cols * commons.slices,
 					SpringlsCommon3D.WORKGROUP_SIZE);
 		}
 		commons.queue.finish();
 		int[][][] imageMat;
-		commons.queue.putReadBuffer(imageLabelBuffer, true);
+		commons.profiler.putReadBuffer(commons.queue, imageLabelBuffer, true);
 		IntBuffer levelSet = imageLabelBuffer.getBuffer();
 		imageMat = new int[commons.rows][commons.cols][commons.slices];
 		for (int k = 0; k < commons.slices; k++) {
@@ -135,8 +135,8 @@ public class MuscleIsoSurface3D {
 						commons.unsignedLevelSetBuffer,
 						commons.springlLabelBuffer).putArg(commons.mapLength)
 				.putArg(label).rewind();
-		commons.queue.put1DRangeKernel(reduceLevelSet, 0, commons.rows
-				* commons.cols * commons.slices,
+		commons.profiler.put1DRangeKernel(commons.queue, reduceLevelSet, 0,
+				commons.rows * commons.cols * commons.slices,
 				SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 	}
@@ -152,8 +152,8 @@ public class MuscleIsoSurface3D {
 		final CLKernel multiplyLevelSets = commons.kernelMap
 				.get("multiplyLevelSets");
 		initSignedLevelSet.putArg(distanceFieldBuffer).rewind();
-		commons.queue.put1DRangeKernel(initSignedLevelSet, 0, commons.rows
-				* commons.cols * commons.slices,
+		commons.profiler.put1DRangeKernel(commons.queue, initSignedLevelSet, 0,
+				commons.rows * commons.cols * commons.slices,
 				SpringlsCommon3D.WORKGROUP_SIZE);
 		int blockSize = commons.rows / (MAX_CYCLES);
 		CLBuffer<FloatBuffer> tmpSignedLevelSet = commons.context
@@ -173,7 +173,8 @@ public class MuscleIsoSurface3D {
 						.putArgs(commons.unsignedLevelSetBuffer, buffIn,
 								buffOut).putArg(blockSize).rewind();
 
-				commons.queue.put1DRangeKernel(erodeLevelSet, 0, globalSize,
+				commons.profiler.put1DRangeKernel(commons.queue, erodeLevelSet,
+						0, globalSize,
 						Math.min(globalSize, SpringlsCommon3D.WORKGROUP_SIZE));
 				CLBuffer<FloatBuffer> tmp = buffOut;
 				buffOut = buffIn;
@@ -186,8 +187,8 @@ public class MuscleIsoSurface3D {
 		tmpSignedLevelSet.release();
 		multiplyLevelSets.putArgs(commons.unsignedLevelSetBuffer,
 				distanceFieldBuffer).rewind();
-		commons.queue.put1DRangeKernel(multiplyLevelSets, 0, commons.rows
-				* commons.cols * commons.slices,
+		commons.profiler.put1DRangeKernel(commons.queue, multiplyLevelSets, 0,
+				commons.rows * commons.cols * commons.slices,
 				SpringlsCommon3D.WORKGROUP_SIZE);
 
 	}
@@ -87,17 +87,17 @@ public class MuscleSpatialHash3D extends SpringlsSpatialHash3D {
 						(commons).spatialLookUp, commons.capsuleBuffer,
 						commons.springlLabelBuffer).putArg(commons.elements)
 				.rewind();
-		commons.queue.put1DRangeKernel(mapNearestNeighbors, 0,
+		commons.profiler.put1DRangeKernel(commons.queue, mapNearestNeighbors, 0,
 				commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
 		sortNearestNeighbors.putArgs(nbrLists).putArg(commons.elements * 3)
 				.rewind();
-		commons.queue.put1DRangeKernel(sortNearestNeighbors, 0,
-				commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, sortNearestNeighbors,
+				0, commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
 		reduceNearestNeighbors
 				.putArgs(commons.capsuleBuffer, commons.capsuleNeighborBuffer,
 						nbrLists).putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(reduceNearestNeighbors, 0,
-				commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, reduceNearestNeighbors,
+				0, commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 	}
 }
@@ -0,0 +1,339 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.muscle;
+
+import java.awt.Color;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageData;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataInt;
+import edu.jhu.ece.iacl.jist.structures.image.ImageHeader;
+import edu.jhu.ece.iacl.jist.structures.image.VoxelType;
+import edu.jhu.ece.iacl.jist.structures.image.Voxel;
+
+/**
+ * A read-only image backed by {@link SparseLevelSets}. It exposes either the
+ * label image or the distance field without decoding the bricks into dense
+ * arrays, so it can be passed directly to the NIfTI writer.
+ */
+public class SparseLevelSetImage extends ImageData {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 3817442296571530528L;
+
+	/** True if the image exposes labels instead of distances. */
+	protected boolean labels;
+
+	/** The sparse level sets. */
+	protected transient SparseLevelSets sparse;
+
+	/**
+	 * Instantiates a new sparse level set image.
+	 * 
+	 * @param sparse
+	 *            the sparse level sets
+	 * @param labels
+	 *            true to expose the labels, false to expose the distances
+	 */
+	public SparseLevelSetImage(SparseLevelSets sparse, boolean labels) {
+		this.sparse = sparse;
+		this.labels = labels;
+		this.type = (labels) ? VoxelType.INT : VoxelType.FLOAT;
+		this.rows = sparse.getRows();
+		this.cols = sparse.getCols();
+		this.slices = sparse.getSlices();
+		this.components = 1;
+		setHeader(new ImageHeader());
+		setName(sparse.getName() + ((labels) ? "_labels" : "_distfield"));
+	}
+
+	/**
+	 * Gets the sparse level sets.
+	 * 
+	 * @return the sparse level sets
+	 */
+	public SparseLevelSets getSparseLevelSets() {
+		return sparse;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#clone()
+	 */
+	@Override
+	public ImageData clone() {
+		ImageData v = (labels) ? sparse.getLabelImage() : sparse
+				.getDistanceFieldImage();
+		v.setHeader(getHeader());
+		v.setName(getName());
+		return v;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#dispose()
+	 */
+	@Override
+	public void dispose() {
+		sparse = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#get(int, int, int,
+	 * int)
+	 */
+	@Override
+	public Number get(int i, int j, int k, int l) {
+		if (labels) {
+			return sparse.getLabel(i, j, k);
+		} else {
+			return sparse.getDistance(i, j, k);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getBoolean(int,
+	 * int, int, int)
+	 */
+	@Override
+	public boolean getBoolean(int i, int j, int k, int l) {
+		return getDouble(i, j, k, l) != 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getByte(int, int,
+	 * int, int)
+	 */
+	@Override
+	public byte getByte(int i, int j, int k, int l) {
+		return (byte) getInt(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getColor(int, int,
+	 * int, int)
+	 */
+	@Override
+	public Color getColor(int i, int j, int k, int l) {
+		return new Color(getInt(i, j, k, l));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getDouble(int, int,
+	 * int, int)
+	 */
+	@Override
+	public double getDouble(int i, int j, int k, int l) {
+		return (labels) ? sparse.getLabel(i, j, k) : sparse.getDistance(i, j,
+				k);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getFloat(int, int,
+	 * int, int)
+	 */
+	@Override
+	public float getFloat(int i, int j, int k, int l) {
+		return (labels) ? sparse.getLabel(i, j, k) : sparse.getDistance(i, j,
+				k);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getInt(int, int,
+	 * int, int)
+	 */
+	@Override
+	public int getInt(int i, int j, int k, int l) {
+		return (labels) ? sparse.getLabel(i, j, k) : (int) sparse
+				.getDistance(i, j, k);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getShort(int, int,
+	 * int, int)
+	 */
+	@Override
+	public short getShort(int i, int j, int k, int l) {
+		return (short) getInt(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getUByte(int, int,
+	 * int, int)
+	 */
+	@Override
+	public short getUByte(int i, int j, int k, int l) {
+		int val = getInt(i, j, k, l);
+		return (short) (val < 0 ? 0 : val > 255 ? 255 : val);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#isNotAvailable()
+	 */
+	@Override
+	public boolean isNotAvailable() {
+		return (sparse == null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#mimic()
+	 */
+	@Override
+	public ImageData mimic() {
+		return mimic(rows, cols, slices, components);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#mimic(int, int,
+	 * int, int)
+	 */
+	@Override
+	public ImageData mimic(int rows, int cols, int slices, int components) {
+		ImageData vol;
+		if (labels) {
+			vol = new ImageDataInt(rows, cols, slices, components);
+		} else {
+			vol = new ImageDataFloat(rows, cols, slices, components);
+		}
+		vol.setHeader(this.getHeader());
+		return vol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, boolean)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, boolean a) {
+		throw new UnsupportedOperationException(
+				"Sparse level set images are read-only.");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, java.awt.Color)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, Color a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, double)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, double a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, float)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, float a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, int)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, int a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, java.lang.Number)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, Number a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, short)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, short a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * edu.jhu.ece.iacl.jist.structures.image.ImageData#set(edu.jhu.ece.iacl
+	 * .jist.structures.image.Voxel)
+	 */
+	@Override
+	public void set(Voxel a) {
+		set(0, 0, 0, 0, true);
+	}
+}
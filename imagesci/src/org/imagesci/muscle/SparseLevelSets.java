@@ -0,0 +1,817 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.muscle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.imagesci.utility.ParallelUtil;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageData;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataInt;
+
+/**
+ * The Class SparseLevelSets stores a compressed label image and distance field
+ * from {@link CompressLevelSets} in 8x8x8 bricks. A brick whose labels are all
+ * equal stores a single label, otherwise it stores all of its labels. A brick
+ * whose distances are all equal stores a single distance, otherwise it stores
+ * only the distances that differ from the background distance. Conversion to
+ * and from the dense images is lossless.
+ * 
+ * The images returned by {@link #getLabelView()} and
+ * {@link #getDistanceFieldView()} read the bricks directly, so they can be
+ * written with the NIfTI writer without creating the dense images.
+ */
+public class SparseLevelSets {
+
+	/** The brick size along each dimension. */
+	public static final int BRICK_SIZE = 8;
+
+	/** The number of voxels in a brick. */
+	public static final int BRICK_VOXELS = BRICK_SIZE * BRICK_SIZE
+			* BRICK_SIZE;
+
+	/** The file magic number. */
+	protected static final int MAGIC = 0x534C5331;
+
+	/** The background distance. */
+	protected float background;
+
+	/** The distance of each brick, or the background of non-uniform bricks. */
+	protected float[] brickDistances;
+
+	/** The label of each uniform brick. */
+	protected int[] brickLabels;
+
+	/** The number of bricks along each dimension. */
+	protected int brickRows, brickCols, brickSlices;
+
+	/** The offset of the band of each brick in the band arrays. */
+	protected int[] bandOffsets;
+
+	/** The brick voxel index of each band voxel. */
+	protected short[] bandIndexes;
+
+	/** The distance of each band voxel. */
+	protected float[] bandValues;
+
+	/** The offset of the labels of each brick, or -1 for uniform bricks. */
+	protected int[] labelOffsets;
+
+	/** The labels of non-uniform bricks. */
+	protected int[] labelData;
+
+	/** The name. */
+	protected String name;
+
+	/** The image dimensions. */
+	protected int rows, cols, slices;
+
+	/**
+	 * Instantiates new sparse level sets from compressed level sets.
+	 * 
+	 * @param compressed
+	 *            the compressed level sets
+	 */
+	public SparseLevelSets(CompressLevelSets compressed) {
+		this(compressed.getLabelImage(), compressed.getDistanceFieldImage(),
+				CompressLevelSets.MAX_DISTANCE);
+	}
+
+	/**
+	 * Instantiates new sparse level sets from a label image and a distance
+	 * field.
+	 * 
+	 * @param labelImage
+	 *            the label image
+	 * @param distanceField
+	 *            the distance field
+	 * @param background
+	 *            the background distance, which is not stored
+	 */
+	public SparseLevelSets(final ImageData labelImage,
+			final ImageData distanceField, float background) {
+		init(labelImage.getRows(), labelImage.getCols(),
+				labelImage.getSlices(), background);
+		name = distanceField.getName();
+		if (name != null && name.endsWith("_distfield")) {
+			name = name.substring(0, name.length() - "_distfield".length());
+		}
+		int bricks = brickLabels.length;
+		final int[] labelCounts = new int[bricks];
+		final int[] bandCounts = new int[bricks];
+		ParallelUtil.forRange(0, bricks, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				int[] labels = new int[BRICK_VOXELS];
+				float[] values = new float[BRICK_VOXELS];
+				for (int b = start; b < end; b++) {
+					readBrick(b, labelImage, distanceField, labels, values);
+					encodeBrick(b, labels, values, labelCounts, bandCounts);
+				}
+			}
+		});
+		int labelTotal = 0, bandTotal = 0;
+		for (int b = 0; b < bricks; b++) {
+			if (labelCounts[b] > 0) {
+				labelOffsets[b] = labelTotal;
+				labelTotal += labelCounts[b];
+			}
+			bandOffsets[b] = bandTotal;
+			bandTotal += bandCounts[b];
+		}
+		bandOffsets[bricks] = bandTotal;
+		labelData = new int[labelTotal];
+		bandIndexes = new short[bandTotal];
+		bandValues = new float[bandTotal];
+		ParallelUtil.forRange(0, bricks, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				int[] labels = new int[BRICK_VOXELS];
+				float[] values = new float[BRICK_VOXELS];
+				for (int b = start; b < end; b++) {
+					if (labelOffsets[b] < 0
+							&& bandOffsets[b] == bandOffsets[b + 1]) {
+						continue;
+					}
+					readBrick(b, labelImage, distanceField, labels, values);
+					storeBrick(b, labels, values);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Instantiates empty sparse level sets.
+	 */
+	protected SparseLevelSets() {
+	}
+
+	/**
+	 * Read sparse level sets from a file written by {@link #write(File)}.
+	 * 
+	 * @param f
+	 *            the file
+	 * @return the sparse level sets
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static SparseLevelSets read(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(f))));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(f.getName()
+						+ " is not a sparse level set file.");
+			}
+			SparseLevelSets sparse = new SparseLevelSets();
+			sparse.name = in.readUTF();
+			int rows = in.readInt();
+			int cols = in.readInt();
+			int slices = in.readInt();
+			sparse.init(rows, cols, slices, in.readFloat());
+			int bricks = sparse.brickLabels.length;
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			readInts(in, buffer, sparse.brickLabels, bricks);
+			readInts(in, buffer, sparse.labelOffsets, bricks);
+			readFloats(in, buffer, sparse.brickDistances, bricks);
+			readInts(in, buffer, sparse.bandOffsets, bricks + 1);
+			sparse.labelData = new int[in.readInt()];
+			readInts(in, buffer, sparse.labelData, sparse.labelData.length);
+			int bandTotal = sparse.bandOffsets[bricks];
+			sparse.bandIndexes = new short[bandTotal];
+			sparse.bandValues = new float[bandTotal];
+			for (int i = 0; i < bandTotal; i++) {
+				sparse.bandIndexes[i] = in.readShort();
+			}
+			readFloats(in, buffer, sparse.bandValues, bandTotal);
+			return sparse;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read floats.
+	 * 
+	 * @param in
+	 *            the input stream
+	 * @param buffer
+	 *            the transfer buffer
+	 * @param data
+	 *            the data
+	 * @param length
+	 *            the number of floats
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected static void readFloats(DataInputStream in, ByteBuffer buffer,
+			float[] data, int length) throws IOException {
+		int chunk = buffer.capacity() / 4;
+		for (int off = 0; off < length; off += chunk) {
+			int n = Math.min(chunk, length - off);
+			in.readFully(buffer.array(), 0, 4 * n);
+			buffer.clear();
+			buffer.asFloatBuffer().get(data, off, n);
+		}
+	}
+
+	/**
+	 * Read ints.
+	 * 
+	 * @param in
+	 *            the input stream
+	 * @param buffer
+	 *            the transfer buffer
+	 * @param data
+	 *            the data
+	 * @param length
+	 *            the number of ints
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected static void readInts(DataInputStream in, ByteBuffer buffer,
+			int[] data, int length) throws IOException {
+		int chunk = buffer.capacity() / 4;
+		for (int off = 0; off < length; off += chunk) {
+			int n = Math.min(chunk, length - off);
+			in.readFully(buffer.array(), 0, 4 * n);
+			buffer.clear();
+			buffer.asIntBuffer().get(data, off, n);
+		}
+	}
+
+	/**
+	 * Write floats.
+	 * 
+	 * @param out
+	 *            the output stream
+	 * @param buffer
+	 *            the transfer buffer
+	 * @param data
+	 *            the data
+	 * @param length
+	 *            the number of floats
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected static void writeFloats(DataOutputStream out, ByteBuffer buffer,
+			float[] data, int length) throws IOException {
+		int chunk = buffer.capacity() / 4;
+		for (int off = 0; off < length; off += chunk) {
+			int n = Math.min(chunk, length - off);
+			buffer.clear();
+			buffer.asFloatBuffer().put(data, off, n);
+			out.write(buffer.array(), 0, 4 * n);
+		}
+	}
+
+	/**
+	 * Write ints.
+	 * 
+	 * @param out
+	 *            the output stream
+	 * @param buffer
+	 *            the transfer buffer
+	 * @param data
+	 *            the data
+	 * @param length
+	 *            the number of ints
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected static void writeInts(DataOutputStream out, ByteBuffer buffer,
+			int[] data, int length) throws IOException {
+		int chunk = buffer.capacity() / 4;
+		for (int off = 0; off < length; off += chunk) {
+			int n = Math.min(chunk, length - off);
+			buffer.clear();
+			buffer.asIntBuffer().put(data, off, n);
+			out.write(buffer.array(), 0, 4 * n);
+		}
+	}
+
+	/**
+	 * Gets the background distance.
+	 * 
+	 * @return the background distance
+	 */
+	public float getBackground() {
+		return background;
+	}
+
+	/**
+	 * Gets the number of bricks.
+	 * 
+	 * @return the brick count
+	 */
+	public int getBrickCount() {
+		return brickLabels.length;
+	}
+
+	/**
+	 * Gets the brick index of a voxel.
+	 * 
+	 * @param i
+	 *            the row
+	 * @param j
+	 *            the column
+	 * @param k
+	 *            the slice
+	 * @return the brick index
+	 */
+	protected final int getBrick(int i, int j, int k) {
+		return ((k / BRICK_SIZE) * brickCols + (j / BRICK_SIZE)) * brickRows
+				+ (i / BRICK_SIZE);
+	}
+
+	/**
+	 * Gets the voxel index within a brick.
+	 * 
+	 * @param i
+	 *            the row
+	 * @param j
+	 *            the column
+	 * @param k
+	 *            the slice
+	 * @return the brick voxel index
+	 */
+	protected static final int getBrickVoxel(int i, int j, int k) {
+		return ((k % BRICK_SIZE) * BRICK_SIZE + (j % BRICK_SIZE)) * BRICK_SIZE
+				+ (i % BRICK_SIZE);
+	}
+
+	/**
+	 * Gets the cols.
+	 * 
+	 * @return the cols
+	 */
+	public int getCols() {
+		return cols;
+	}
+
+	/**
+	 * Gets the distance of a voxel.
+	 * 
+	 * @param i
+	 *            the row
+	 * @param j
+	 *            the column
+	 * @param k
+	 *            the slice
+	 * @return the distance
+	 */
+	public float getDistance(int i, int j, int k) {
+		int b = getBrick(i, j, k);
+		int start = bandOffsets[b];
+		int end = bandOffsets[b + 1];
+		if (start == end) {
+			return brickDistances[b];
+		}
+		short v = (short) getBrickVoxel(i, j, k);
+		// Band voxels are stored in brick voxel order
+		while (start < end) {
+			int mid = (start + end) >>> 1;
+			if (bandIndexes[mid] < v) {
+				start = mid + 1;
+			} else {
+				end = mid;
+			}
+		}
+		if (start < bandOffsets[b + 1] && bandIndexes[start] == v) {
+			return bandValues[start];
+		}
+		return brickDistances[b];
+	}
+
+	/**
+	 * Gets the dense distance field image.
+	 * 
+	 * @return the distance field image
+	 */
+	public ImageDataFloat getDistanceFieldImage() {
+		final float[] data = new float[rows * cols * Math.max(1, slices)];
+		ParallelUtil.forRange(0, brickLabels.length,
+				new ParallelUtil.RangeTask() {
+					@Override
+					public void run(int start, int end) {
+						for (int b = start; b < end; b++) {
+							decodeDistances(b, data);
+						}
+					}
+				});
+		ImageDataFloat img = new ImageDataFloat(data, rows, cols, slices, 1);
+		img.setName(name + "_distfield");
+		return img;
+	}
+
+	/**
+	 * Gets a read-only view of the distance field backed by the bricks.
+	 * 
+	 * @return the distance field view
+	 */
+	public ImageData getDistanceFieldView() {
+		return new SparseLevelSetImage(this, false);
+	}
+
+	/**
+	 * Gets the label of a voxel.
+	 * 
+	 * @param i
+	 *            the row
+	 * @param j
+	 *            the column
+	 * @param k
+	 *            the slice
+	 * @return the label
+	 */
+	public int getLabel(int i, int j, int k) {
+		int b = getBrick(i, j, k);
+		int offset = labelOffsets[b];
+		return (offset < 0) ? brickLabels[b] : labelData[offset
+				+ getBrickVoxel(i, j, k)];
+	}
+
+	/**
+	 * Gets the dense label image.
+	 * 
+	 * @return the label image
+	 */
+	public ImageDataInt getLabelImage() {
+		final int[] data = new int[rows * cols * Math.max(1, slices)];
+		ParallelUtil.forRange(0, brickLabels.length,
+				new ParallelUtil.RangeTask() {
+					@Override
+					public void run(int start, int end) {
+						for (int b = start; b < end; b++) {
+							decodeLabels(b, data);
+						}
+					}
+				});
+		ImageDataInt img = new ImageDataInt(data, rows, cols, slices, 1);
+		img.setName(name + "_labels");
+		return img;
+	}
+
+	/**
+	 * Gets a read-only view of the label image backed by the bricks.
+	 * 
+	 * @return the label view
+	 */
+	public ImageData getLabelView() {
+		return new SparseLevelSetImage(this, true);
+	}
+
+	/**
+	 * Gets the approximate memory used by the bricks in bytes.
+	 * 
+	 * @return the memory size
+	 */
+	public long getMemorySize() {
+		return 4L * (brickLabels.length + labelOffsets.length
+				+ brickDistances.length + bandOffsets.length
+				+ labelData.length + bandValues.length) + 2L
+				* bandIndexes.length;
+	}
+
+	/**
+	 * Gets the name.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the rows.
+	 * 
+	 * @return the rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Gets the slices.
+	 * 
+	 * @return the slices
+	 */
+	public int getSlices() {
+		return slices;
+	}
+
+	/**
+	 * Gets the number of bricks with a single label and a single distance.
+	 * 
+	 * @return the uniform brick count
+	 */
+	public int getUniformBrickCount() {
+		int count = 0;
+		for (int b = 0; b < brickLabels.length; b++) {
+			if (labelOffsets[b] < 0 && bandOffsets[b] == bandOffsets[b + 1]) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Sets the name.
+	 * 
+	 * @param name
+	 *            the new name
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Write the bricks to a gzip compressed file.
+	 * 
+	 * @param f
+	 *            the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void write(File f) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(f))));
+		try {
+			int bricks = brickLabels.length;
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			out.writeInt(MAGIC);
+			out.writeUTF((name != null) ? name : "");
+			out.writeInt(rows);
+			out.writeInt(cols);
+			out.writeInt(slices);
+			out.writeFloat(background);
+			writeInts(out, buffer, brickLabels, bricks);
+			writeInts(out, buffer, labelOffsets, bricks);
+			writeFloats(out, buffer, brickDistances, bricks);
+			writeInts(out, buffer, bandOffsets, bricks + 1);
+			out.writeInt(labelData.length);
+			writeInts(out, buffer, labelData, labelData.length);
+			for (short index : bandIndexes) {
+				out.writeShort(index);
+			}
+			writeFloats(out, buffer, bandValues, bandValues.length);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Checks if a brick voxel lies inside the image.
+	 * 
+	 * @param b
+	 *            the brick
+	 * @param v
+	 *            the brick voxel index
+	 * @return true, if the voxel is inside the image
+	 */
+	protected final boolean contains(int b, int v) {
+		int i = (b % brickRows) * BRICK_SIZE + v % BRICK_SIZE;
+		int j = ((b / brickRows) % brickCols) * BRICK_SIZE + (v / BRICK_SIZE)
+				% BRICK_SIZE;
+		int k = (b / (brickRows * brickCols)) * BRICK_SIZE + v
+				/ (BRICK_SIZE * BRICK_SIZE);
+		return (i < rows && j < cols && k < Math.max(1, slices));
+	}
+
+	/**
+	 * Decode the distances of a brick into a flat array.
+	 * 
+	 * @param b
+	 *            the brick
+	 * @param data
+	 *            the flat distance field
+	 */
+	protected void decodeDistances(int b, float[] data) {
+		int bi = b % brickRows;
+		int bj = (b / brickRows) % brickCols;
+		int bk = b / (brickRows * brickCols);
+		int i0 = bi * BRICK_SIZE, j0 = bj * BRICK_SIZE, k0 = bk * BRICK_SIZE;
+		int i1 = Math.min(rows, i0 + BRICK_SIZE);
+		int j1 = Math.min(cols, j0 + BRICK_SIZE);
+		int k1 = Math.min(Math.max(1, slices), k0 + BRICK_SIZE);
+		float fill = brickDistances[b];
+		for (int k = k0; k < k1; k++) {
+			for (int j = j0; j < j1; j++) {
+				int index = (k * cols + j) * rows;
+				for (int i = i0; i < i1; i++) {
+					data[index + i] = fill;
+				}
+			}
+		}
+		for (int n = bandOffsets[b]; n < bandOffsets[b + 1]; n++) {
+			int v = bandIndexes[n];
+			int i = i0 + v % BRICK_SIZE;
+			int j = j0 + (v / BRICK_SIZE) % BRICK_SIZE;
+			int k = k0 + v / (BRICK_SIZE * BRICK_SIZE);
+			data[(k * cols + j) * rows + i] = bandValues[n];
+		}
+	}
+
+	/**
+	 * Decode the labels of a brick into a flat array.
+	 * 
+	 * @param b
+	 *            the brick
+	 * @param data
+	 *            the flat label image
+	 */
+	protected void decodeLabels(int b, int[] data) {
+		int bi = b % brickRows;
+		int bj = (b / brickRows) % brickCols;
+		int bk = b / (brickRows * brickCols);
+		int i0 = bi * BRICK_SIZE, j0 = bj * BRICK_SIZE, k0 = bk * BRICK_SIZE;
+		int i1 = Math.min(rows, i0 + BRICK_SIZE);
+		int j1 = Math.min(cols, j0 + BRICK_SIZE);
+		int k1 = Math.min(Math.max(1, slices), k0 + BRICK_SIZE);
+		int offset = labelOffsets[b];
+		for (int k = k0; k < k1; k++) {
+			for (int j = j0; j < j1; j++) {
+				int index = (k * cols + j) * rows;
+				int v = ((k - k0) * BRICK_SIZE + (j - j0)) * BRICK_SIZE - i0;
+				for (int i = i0; i < i1; i++) {
+					data[index + i] = (offset < 0) ? brickLabels[b]
+							: labelData[offset + v + i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Determine whether a brick is uniform and count the labels and band
+	 * voxels it needs.
+	 * 
+	 * @param b
+	 *            the brick
+	 * @param labels
+	 *            the brick labels
+	 * @param values
+	 *            the brick distances
+	 * @param labelCounts
+	 *            the label counts
+	 * @param bandCounts
+	 *            the band counts
+	 */
+	protected void encodeBrick(int b, int[] labels, float[] values,
+			int[] labelCounts, int[] bandCounts) {
+		boolean uniformLabel = true;
+		boolean uniformValue = true;
+		int fillBits = Float.floatToRawIntBits(values[0]);
+		int backgroundBits = Float.floatToRawIntBits(background);
+		int band = 0;
+		for (int v = 0; v < BRICK_VOXELS; v++) {
+			if (labels[v] != labels[0]) {
+				uniformLabel = false;
+			}
+			int bits = Float.floatToRawIntBits(values[v]);
+			if (bits != fillBits) {
+				uniformValue = false;
+			}
+			if (bits != backgroundBits && contains(b, v)) {
+				band++;
+			}
+		}
+		brickLabels[b] = labels[0];
+		labelCounts[b] = (uniformLabel) ? 0 : BRICK_VOXELS;
+		brickDistances[b] = (uniformValue) ? values[0] : background;
+		bandCounts[b] = (uniformValue) ? 0 : band;
+	}
+
+	/**
+	 * Initialize the brick arrays.
+	 * 
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 * @param background
+	 *            the background distance
+	 */
+	protected void init(int rows, int cols, int slices, float background) {
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = slices;
+		this.background = background;
+		brickRows = (rows + BRICK_SIZE - 1) / BRICK_SIZE;
+		brickCols = (cols + BRICK_SIZE - 1) / BRICK_SIZE;
+		brickSlices = (Math.max(1, slices) + BRICK_SIZE - 1) / BRICK_SIZE;
+		int bricks = brickRows * brickCols * brickSlices;
+		brickLabels = new int[bricks];
+		brickDistances = new float[bricks];
+		labelOffsets = new int[bricks];
+		bandOffsets = new int[bricks + 1];
+		Arrays.fill(labelOffsets, -1);
+	}
+
+	/**
+	 * Read the labels and distances of a brick. Voxels outside the image are
+	 * padded with the first voxel of the brick so that they never prevent a
+	 * brick from being uniform.
+	 * 
+	 * @param b
+	 *            the brick
+	 * @param labelImage
+	 *            the label image
+	 * @param distanceField
+	 *            the distance field
+	 * @param labels
+	 *            the brick labels
+	 * @param values
+	 *            the brick distances
+	 */
+	protected void readBrick(int b, ImageData labelImage,
+			ImageData distanceField, int[] labels, float[] values) {
+		int bi = b % brickRows;
+		int bj = (b / brickRows) % brickCols;
+		int bk = b / (brickRows * brickCols);
+		int i0 = bi * BRICK_SIZE, j0 = bj * BRICK_SIZE, k0 = bk * BRICK_SIZE;
+		int k1 = Math.max(1, slices);
+		int label = labelImage.getInt(i0, j0, k0, 0);
+		float value = distanceField.getFloat(i0, j0, k0, 0);
+		int v = 0;
+		for (int k = k0; k < k0 + BRICK_SIZE; k++) {
+			for (int j = j0; j < j0 + BRICK_SIZE; j++) {
+				for (int i = i0; i < i0 + BRICK_SIZE; i++) {
+					if (i < rows && j < cols && k < k1) {
+						labels[v] = labelImage.getInt(i, j, k, 0);
+						values[v] = distanceField.getFloat(i, j, k, 0);
+					} else {
+						labels[v] = label;
+						values[v] = value;
+					}
+					v++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store the labels and band voxels of a brick at its offsets.
+	 * 
+	 * @param b
+	 *            the brick
+	 * @param labels
+	 *            the brick labels
+	 * @param values
+	 *            the brick distances
+	 */
+	protected void storeBrick(int b, int[] labels, float[] values) {
+		if (labelOffsets[b] >= 0) {
+			System.arraycopy(labels, 0, labelData, labelOffsets[b],
+					BRICK_VOXELS);
+		}
+		int n = bandOffsets[b];
+		int end = bandOffsets[b + 1];
+		int backgroundBits = Float.floatToRawIntBits(background);
+		for (int v = 0; v < BRICK_VOXELS && n < end; v++) {
+			if (Float.floatToRawIntBits(values[v]) != backgroundBits
+					&& contains(b, v)) {
+				bandIndexes[n] = (short) v;
+				bandValues[n] = values[v];
+				n++;
+			}
+		}
+	}
+}
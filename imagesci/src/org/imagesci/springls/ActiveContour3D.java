@@ -30,6 +30,8 @@ import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.imagesci.utility.KernelProfiler;
+
 import edu.jhu.ece.iacl.jist.pipeline.AbstractCalculation;
 import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface;
 import edu.jhu.ece.iacl.jist.structures.image.ImageData;
@@ -107,6 +109,9 @@ public abstract class ActiveContour3D extends AbstractCalculation {
 	/** The preserve topology. */
 	protected boolean preserveTopology = false;
 
+	/** The kernel profiler. */
+	protected KernelProfiler profiler = new KernelProfiler();
+
 	/** The pressure image. */
 	protected ImageDataFloat pressureImage = null;
 
@@ -264,6 +269,15 @@ public abstract class ActiveContour3D extends AbstractCalculation {
 		return maxIterations;
 	}
 
+	/**
+	 * Gets the kernel profiler.
+	 * 
+	 * @return the profiler
+	 */
+	public KernelProfiler getProfiler() {
+		return profiler;
+	}
+
 	/**
 	 * Gets the reference image.
 	 * 
@@ -402,6 +416,17 @@ public abstract class ActiveContour3D extends AbstractCalculation {
 		this.pressureWeight = pressureWeight;
 	}
 
+	/**
+	 * Enable per-kernel profiling. Solvers replace their command queue with
+	 * a profiling queue on the same device if necessary.
+	 * 
+	 * @param profiling
+	 *            the profiling
+	 */
+	public void setProfiling(boolean profiling) {
+		profiler.setEnabled(profiling);
+	}
+
 	/**
 	 * Sets the reference image.
 	 *
@@ -446,6 +471,47 @@ public abstract class ActiveContour3D extends AbstractCalculation {
 	 */
 	public abstract void solve();
 
+	/**
+	 * Rescale the pressure image in place, using its flat storage when
+	 * available.
+	 */
+	protected void rescalePressure() {
+		float[] flat = pressureImage.toArray1d();
+		if (flat != null) {
+			rescale(flat);
+		} else {
+			rescale(pressureImage.toArray3d());
+		}
+	}
+
+	/**
+	 * Rescale.
+	 * 
+	 * @param pressureForce
+	 *            the pressure force stored as a flat array
+	 */
+	protected void rescale(float[] pressureForce) {
+		double min = Float.MAX_VALUE;
+		double max = Float.MIN_VALUE;
+		if (!Float.isNaN(targetPressure)) {
+			for (int i = 0; i < pressureForce.length; i++) {
+				double val = pressureForce[i] - targetPressure;
+				min = Math.min(val, min);
+				max = Math.max(val, max);
+			}
+			double normMin = (Math.abs(min) > 1E-4) ? 1 / Math.abs(min) : 1;
+			double normMax = (Math.abs(max) > 1E-4) ? 1 / Math.abs(max) : 1;
+			for (int i = 0; i < pressureForce.length; i++) {
+				double val = pressureForce[i] - targetPressure;
+				if (val < 0) {
+					pressureForce[i] = (float) (val * normMin);
+				} else {
+					pressureForce[i] = (float) (val * normMax);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Rescale.
 	 * 
@@ -0,0 +1,787 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.springls;
+
+import java.util.Arrays;
+
+import javax.vecmath.Point3f;
+
+import org.imagesci.utility.ParallelUtil;
+
+/**
+ * The Class MeshRasterizer3D converts a triangle mesh into a distance field
+ * and label image on the CPU. Triangles are binned into 8x8x8 bricks, and the
+ * exact unsigned distance within a narrow band is computed independently for
+ * each brick. Voxels are labeled by counting crossings of a ray along the
+ * rows axis with the triangles of each label. Outside the band, the nearest
+ * band voxel is found with a separable exact Euclidean distance transform
+ * (Felzenszwalb and Huttenlocher, "Distance Transforms of Sampled
+ * Functions"), and the distance is measured to the triangles nearest that
+ * voxel and its neighbors.
+ */
+public class MeshRasterizer3D {
+
+	/** The brick size along each dimension. */
+	public static final int BRICK_SIZE = 8;
+
+	/** The ray offset in the column direction that avoids vertex hits. */
+	protected static final double RAY_OFFSET_COL = 1.2345E-4;
+
+	/** The ray offset in the slice direction that avoids vertex hits. */
+	protected static final double RAY_OFFSET_SLICE = 2.3456E-4;
+
+	/** The band width in voxels. */
+	protected float bandWidth;
+
+	/** The number of bricks along each dimension. */
+	protected int brickRows, brickCols, brickSlices;
+
+	/** The unsigned distances. */
+	protected float[] distances;
+
+	/** The voxel labels. */
+	protected int[] labels;
+
+	/** The nearest triangle of each voxel, or -1 outside the band. */
+	protected int[] nearest;
+
+	/** The image dimensions. */
+	protected int rows, cols, slices;
+
+	/** The triangle labels. */
+	protected int[] triangleLabels;
+
+	/** The triangles in springl layout with vertexes in voxel coordinates. */
+	protected float[] triangles;
+
+	/** The triangle count. */
+	protected int triangleCount;
+
+	/**
+	 * Instantiates a new mesh rasterizer. The band width defaults to the band
+	 * used by the OpenCL buildDistanceField kernel.
+	 * 
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 */
+	public MeshRasterizer3D(int rows, int cols, int slices) {
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = slices;
+		brickRows = (rows + BRICK_SIZE - 1) / BRICK_SIZE;
+		brickCols = (cols + BRICK_SIZE - 1) / BRICK_SIZE;
+		brickSlices = (slices + BRICK_SIZE - 1) / BRICK_SIZE;
+		bandWidth = (float) (2 * SpringlsConstants.vExtent)
+				* SpringlsConstants.scaleUp;
+	}
+
+	/**
+	 * Compute the one dimensional squared distance transform of a sampled
+	 * function and the sample that attains the minimum at each location.
+	 * 
+	 * @param f
+	 *            the function, infinite where undefined
+	 * @param features
+	 *            the feature of each sample
+	 * @param n
+	 *            the number of samples
+	 * @param v
+	 *            the parabola locations
+	 * @param z
+	 *            the parabola boundaries
+	 * @param d
+	 *            the transformed function
+	 * @param nearestFeatures
+	 *            the feature of the minimizing sample
+	 */
+	protected static void transform(float[] f, int[] features, int n,
+			int[] v, float[] z, float[] d, int[] nearestFeatures) {
+		int k = -1;
+		for (int q = 0; q < n; q++) {
+			if (f[q] == Float.POSITIVE_INFINITY) {
+				continue;
+			}
+			float s = Float.NEGATIVE_INFINITY;
+			while (k >= 0) {
+				int p = v[k];
+				s = ((f[q] + q * q) - (f[p] + p * p)) / (2 * (q - p));
+				if (s > z[k]) {
+					break;
+				}
+				k--;
+			}
+			k++;
+			v[k] = q;
+			z[k] = (k == 0) ? Float.NEGATIVE_INFINITY : s;
+			z[k + 1] = Float.POSITIVE_INFINITY;
+		}
+		if (k < 0) {
+			Arrays.fill(d, 0, n, Float.POSITIVE_INFINITY);
+			Arrays.fill(nearestFeatures, 0, n, -1);
+			return;
+		}
+		int m = 0;
+		for (int q = 0; q < n; q++) {
+			while (z[m + 1] < q) {
+				m++;
+			}
+			int p = v[m];
+			d[q] = (q - p) * (q - p) + f[p];
+			nearestFeatures[q] = features[p];
+		}
+	}
+
+	/**
+	 * Gets the band width.
+	 * 
+	 * @return the band width
+	 */
+	public float getBandWidth() {
+		return bandWidth;
+	}
+
+	/**
+	 * Gets the unsigned distances in image order.
+	 * 
+	 * @return the distances
+	 */
+	public float[] getDistances() {
+		return distances;
+	}
+
+	/**
+	 * Gets the voxel labels in image order. Voxels outside all objects are
+	 * labeled 0.
+	 * 
+	 * @return the labels
+	 */
+	public int[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Gets the signed distances in image order, which are negative inside
+	 * objects.
+	 * 
+	 * @return the signed distances
+	 */
+	public float[] getSignedDistances() {
+		final float[] signed = new float[distances.length];
+		ParallelUtil.forRange(0, signed.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int n = start; n < end; n++) {
+					signed[n] = (labels[n] > 0) ? -distances[n] : distances[n];
+				}
+			}
+		});
+		return signed;
+	}
+
+	/**
+	 * Sets the band width in voxels within which exact distances are
+	 * computed.
+	 * 
+	 * @param bandWidth
+	 *            the new band width
+	 */
+	public void setBandWidth(float bandWidth) {
+		this.bandWidth = bandWidth;
+	}
+
+	/**
+	 * Sets the surface. Triangle labels are the reference ids of the springls.
+	 * 
+	 * @param surf
+	 *            the surface
+	 */
+	public void setSurface(SpringlsSurface surf) {
+		float scaleUp = SpringlsConstants.scaleUp;
+		triangleCount = surf.getCapsules().size();
+		triangles = new float[triangleCount
+				* SpringlsHashKernels3D.FLOATS_PER_SPRINGL];
+		triangleLabels = new int[triangleCount];
+		int id = 0;
+		for (Springl3D capsule : surf.getCapsules()) {
+			int off = id * SpringlsHashKernels3D.FLOATS_PER_SPRINGL + 4;
+			for (int n = 0; n < 3; n++) {
+				Point3f pt = capsule.vertexes[n];
+				triangles[off + 4 * n] = scaleUp * pt.x;
+				triangles[off + 4 * n + 1] = scaleUp * pt.y;
+				triangles[off + 4 * n + 2] = scaleUp * pt.z;
+			}
+			triangleLabels[id++] = capsule.referenceId;
+		}
+	}
+
+	/**
+	 * Compute the distance field and label image. A voxel is assigned the
+	 * label that appears last in the order among the objects that contain it.
+	 * 
+	 * @param order
+	 *            the label order, or null to treat all triangles as the
+	 *            boundary of a single object with label 1
+	 */
+	public void solve(int[] order) {
+		int maxLabel = 1;
+		if (order != null) {
+			for (int l : triangleLabels) {
+				maxLabel = Math.max(maxLabel, l);
+			}
+		}
+		final int[] priority = new int[maxLabel + 1];
+		Arrays.fill(priority, -1);
+		if (order == null) {
+			priority[1] = 0;
+		} else {
+			for (int n = 0; n < order.length; n++) {
+				if (order[n] > 0 && order[n] <= maxLabel) {
+					priority[order[n]] = n;
+				}
+			}
+		}
+		distances = new float[rows * cols * slices];
+		labels = new int[rows * cols * slices];
+		nearest = new int[rows * cols * slices];
+		computeBandDistances();
+		computeLabels(order == null, priority);
+		extendDistances();
+		nearest = null;
+	}
+
+	/**
+	 * Bin boxes into cells of a grid. The bins are stored in compressed row
+	 * format and the boxes in each bin are in increasing order.
+	 * 
+	 * @param boxes
+	 *            the inclusive lower and upper cell of each box
+	 * @param count
+	 *            the box count
+	 * @param binRows
+	 *            the grid rows
+	 * @param binCols
+	 *            the grid cols
+	 * @param binSlices
+	 *            the grid slices
+	 * @return the bin offsets followed by the box ids, where the offsets have
+	 *         one more entry than there are bins
+	 */
+	protected int[][] binBoxes(final int[] boxes, int count,
+			final int binRows, final int binCols, int binSlices) {
+		final int bins = binRows * binCols * binSlices;
+		final int chunks = Math.max(1,
+				Math.min(ParallelUtil.getThreadCount(), count));
+		final int[][] counts = new int[chunks][bins];
+		final int[] chunkStarts = new int[chunks + 1];
+		for (int c = 0; c <= chunks; c++) {
+			chunkStarts[c] = (int) ((long) count * c / chunks);
+		}
+		ParallelUtil.forRange(0, chunks, chunks, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int c = start; c < end; c++) {
+					int[] binCounts = counts[c];
+					for (int t = chunkStarts[c]; t < chunkStarts[c + 1]; t++) {
+						int b = 6 * t;
+						for (int k = boxes[b + 2]; k <= boxes[b + 5]; k++) {
+							for (int j = boxes[b + 1]; j <= boxes[b + 4]; j++) {
+								int index = (k * binCols + j) * binRows;
+								for (int i = boxes[b]; i <= boxes[b + 3]; i++) {
+									binCounts[index + i]++;
+								}
+							}
+						}
+					}
+				}
+			}
+		});
+		// Chunk offsets are assigned bin by bin so that each bin lists its
+		// boxes in increasing order
+		int[] offsets = new int[bins + 1];
+		int total = 0;
+		for (int n = 0; n < bins; n++) {
+			offsets[n] = total;
+			for (int c = 0; c < chunks; c++) {
+				int tmp = counts[c][n];
+				counts[c][n] = total;
+				total += tmp;
+			}
+		}
+		offsets[bins] = total;
+		final int[] ids = new int[total];
+		ParallelUtil.forRange(0, chunks, chunks, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int c = start; c < end; c++) {
+					int[] binOffsets = counts[c];
+					for (int t = chunkStarts[c]; t < chunkStarts[c + 1]; t++) {
+						int b = 6 * t;
+						for (int k = boxes[b + 2]; k <= boxes[b + 5]; k++) {
+							for (int j = boxes[b + 1]; j <= boxes[b + 4]; j++) {
+								int index = (k * binCols + j) * binRows;
+								for (int i = boxes[b]; i <= boxes[b + 3]; i++) {
+									ids[binOffsets[index + i]++] = t;
+								}
+							}
+						}
+					}
+				}
+			}
+		});
+		return new int[][] { offsets, ids };
+	}
+
+	/**
+	 * Compute the exact unsigned distance to the nearest triangle for voxels
+	 * within the band. Voxels outside the band are set to infinity.
+	 */
+	protected void computeBandDistances() {
+		final int[] boxes = new int[6 * triangleCount];
+		final int[] voxelBoxes = new int[6 * triangleCount];
+		final int[] dims = new int[] { rows, cols, slices };
+		for (int t = 0; t < triangleCount; t++) {
+			int off = t * SpringlsHashKernels3D.FLOATS_PER_SPRINGL + 4;
+			for (int a = 0; a < 3; a++) {
+				float lower = Math.min(Math.min(triangles[off + a],
+						triangles[off + 4 + a]), triangles[off + 8 + a]);
+				float upper = Math.max(Math.max(triangles[off + a],
+						triangles[off + 4 + a]), triangles[off + 8 + a]);
+				int lo = (int) Math.max(0, Math.ceil(lower - bandWidth));
+				int hi = (int) Math.min(dims[a] - 1,
+						Math.floor(upper + bandWidth));
+				if (hi < lo) {
+					// Outside the image, so the triangle lands in no bins
+					lo = 1;
+					hi = 0;
+				}
+				voxelBoxes[6 * t + a] = lo;
+				voxelBoxes[6 * t + 3 + a] = hi;
+				boxes[6 * t + a] = lo / BRICK_SIZE;
+				boxes[6 * t + 3 + a] = (hi < lo) ? -1 : hi / BRICK_SIZE;
+			}
+		}
+		int[][] bins = binBoxes(boxes, triangleCount, brickRows, brickCols,
+				brickSlices);
+		final int[] offsets = bins[0];
+		final int[] ids = bins[1];
+		final int bricks = brickRows * brickCols * brickSlices;
+		final float band2 = bandWidth * bandWidth;
+		ParallelUtil.forRange(0, bricks,
+				Math.min(bricks, 8 * ParallelUtil.getThreadCount()),
+				new ParallelUtil.RangeTask() {
+					@Override
+					public void run(int start, int end) {
+						for (int b = start; b < end; b++) {
+							computeBrickDistances(b, offsets, ids, voxelBoxes,
+									band2);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Compute the unsigned distances of the voxels in a brick.
+	 * 
+	 * @param b
+	 *            the brick
+	 * @param offsets
+	 *            the brick offsets
+	 * @param ids
+	 *            the binned triangles
+	 * @param voxelBoxes
+	 *            the voxel bounding boxes of the triangles
+	 * @param band2
+	 *            the squared band width
+	 */
+	protected void computeBrickDistances(int b, int[] offsets, int[] ids,
+			int[] voxelBoxes, float band2) {
+		int i0 = (b % brickRows) * BRICK_SIZE;
+		int j0 = ((b / brickRows) % brickCols) * BRICK_SIZE;
+		int k0 = (b / (brickRows * brickCols)) * BRICK_SIZE;
+		int i1 = Math.min(rows, i0 + BRICK_SIZE) - 1;
+		int j1 = Math.min(cols, j0 + BRICK_SIZE) - 1;
+		int k1 = Math.min(slices, k0 + BRICK_SIZE) - 1;
+		for (int k = k0; k <= k1; k++) {
+			for (int j = j0; j <= j1; j++) {
+				int index = (k * cols + j) * rows;
+				for (int i = i0; i <= i1; i++) {
+					distances[index + i] = Float.POSITIVE_INFINITY;
+					nearest[index + i] = -1;
+				}
+			}
+		}
+		for (int n = offsets[b]; n < offsets[b + 1]; n++) {
+			int t = ids[n];
+			int box = 6 * t;
+			int kl = Math.max(k0, voxelBoxes[box + 2]);
+			int ku = Math.min(k1, voxelBoxes[box + 5]);
+			int jl = Math.max(j0, voxelBoxes[box + 1]);
+			int ju = Math.min(j1, voxelBoxes[box + 4]);
+			int il = Math.max(i0, voxelBoxes[box]);
+			int iu = Math.min(i1, voxelBoxes[box + 3]);
+			for (int k = kl; k <= ku; k++) {
+				for (int j = jl; j <= ju; j++) {
+					int index = (k * cols + j) * rows;
+					for (int i = il; i <= iu; i++) {
+						float d2 = SpringlsHashKernels3D.distanceSquared(i, j,
+								k, triangles, t);
+						if (d2 <= band2 && d2 < distances[index + i]) {
+							distances[index + i] = d2;
+							nearest[index + i] = t;
+						}
+					}
+				}
+			}
+		}
+		for (int k = k0; k <= k1; k++) {
+			for (int j = j0; j <= j1; j++) {
+				int index = (k * cols + j) * rows;
+				for (int i = i0; i <= i1; i++) {
+					distances[index + i] = (float) Math
+							.sqrt(distances[index + i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Label voxels by counting crossings of rays along the rows axis with the
+	 * triangles of each label.
+	 * 
+	 * @param singleObject
+	 *            true if all triangles bound a single object
+	 * @param priority
+	 *            the position of each label in the order, or -1 if the label
+	 *            is not ordered
+	 */
+	protected void computeLabels(final boolean singleObject,
+			final int[] priority) {
+		int[] boxes = new int[6 * triangleCount];
+		for (int t = 0; t < triangleCount; t++) {
+			int off = t * SpringlsHashKernels3D.FLOATS_PER_SPRINGL + 4;
+			int label = (singleObject) ? 1 : triangleLabels[t];
+			int lo = 1, hi = 0;
+			int klo = 1, khi = 0;
+			if (label > 0 && label < priority.length && priority[label] >= 0) {
+				float ly = Math.min(Math.min(triangles[off + 1],
+						triangles[off + 5]), triangles[off + 9]);
+				float uy = Math.max(Math.max(triangles[off + 1],
+						triangles[off + 5]), triangles[off + 9]);
+				float lz = Math.min(Math.min(triangles[off + 2],
+						triangles[off + 6]), triangles[off + 10]);
+				float uz = Math.max(Math.max(triangles[off + 2],
+						triangles[off + 6]), triangles[off + 10]);
+				lo = (int) Math.max(0, Math.floor(ly));
+				hi = (int) Math.min(cols - 1, Math.ceil(uy));
+				klo = (int) Math.max(0, Math.floor(lz));
+				khi = (int) Math.min(slices - 1, Math.ceil(uz));
+			}
+			if (hi < lo || khi < klo) {
+				lo = 1;
+				hi = 0;
+			}
+			boxes[6 * t + 1] = lo;
+			boxes[6 * t + 4] = hi;
+			boxes[6 * t + 2] = klo;
+			boxes[6 * t + 5] = khi;
+		}
+		int[][] bins = binBoxes(boxes, triangleCount, 1, cols, slices);
+		final int[] offsets = bins[0];
+		final int[] ids = bins[1];
+		final int lines = cols * slices;
+		int maxHits = 0;
+		for (int line = 0; line < lines; line++) {
+			maxHits = Math.max(maxHits, offsets[line + 1] - offsets[line]);
+		}
+		final int hitCapacity = maxHits;
+		ParallelUtil.forRange(0, lines,
+				Math.min(lines, 8 * ParallelUtil.getThreadCount()),
+				new ParallelUtil.RangeTask() {
+					@Override
+					public void run(int start, int end) {
+						int[] parity = new int[priority.length];
+						int[] active = new int[priority.length];
+						float[] hits = new float[hitCapacity];
+						int[] hitLabels = new int[hitCapacity];
+						for (int line = start; line < end; line++) {
+							int j = line % cols;
+							int k = line / cols;
+							double py = j + RAY_OFFSET_COL;
+							double pz = k + RAY_OFFSET_SLICE;
+							int count = 0;
+							int last = offsets[line + 1];
+							for (int n = offsets[line]; n < last; n++) {
+								float x = intersect(ids[n], py, pz);
+								if (!Float.isNaN(x)) {
+									hits[count] = x;
+									hitLabels[count++] = (singleObject) ? 1
+											: triangleLabels[ids[n]];
+								}
+							}
+							labelLine(line * rows, hits, hitLabels, count,
+									priority, parity, active);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Extend the band distances to all voxels. The nearest band voxel is found
+	 * with a separable exact Euclidean distance transform of the squared band
+	 * distances, and the distance is measured to the nearest triangles found
+	 * for the voxel and its face neighbors. Band distances are kept.
+	 */
+	protected void extendDistances() {
+		final float[] squared = new float[distances.length];
+		final int[] features = new int[distances.length];
+		ParallelUtil.forRange(0, squared.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int n = start; n < end; n++) {
+					float d = distances[n];
+					squared[n] = d * d;
+					features[n] = (nearest[n] >= 0) ? n : -1;
+				}
+			}
+		});
+		final int[] dims = new int[] { rows, cols, slices };
+		final int[] strides = new int[] { 1, rows, rows * cols };
+		for (int a = 0; a < 3; a++) {
+			final int axis = a;
+			final int n = dims[axis];
+			final int stride = strides[axis];
+			final int lines = squared.length / n;
+			ParallelUtil.forRange(0, lines, new ParallelUtil.RangeTask() {
+				@Override
+				public void run(int start, int end) {
+					float[] f = new float[n];
+					float[] d = new float[n];
+					int[] fin = new int[n];
+					int[] fout = new int[n];
+					int[] v = new int[n];
+					float[] z = new float[n + 1];
+					for (int line = start; line < end; line++) {
+						int base = getLineStart(axis, line);
+						for (int q = 0; q < n; q++) {
+							f[q] = squared[base + q * stride];
+							fin[q] = features[base + q * stride];
+						}
+						transform(f, fin, n, v, z, d, fout);
+						for (int q = 0; q < n; q++) {
+							squared[base + q * stride] = d[q];
+							features[base + q * stride] = fout[q];
+						}
+					}
+				}
+			});
+		}
+		ParallelUtil.forRange(0, squared.length, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int n = start; n < end; n++) {
+					if (nearest[n] >= 0 || features[n] < 0) {
+						continue;
+					}
+					int i = n % rows;
+					int j = (n / rows) % cols;
+					int k = n / (rows * cols);
+					// Neighbors may have found a closer triangle
+					float d2 = Float.POSITIVE_INFINITY;
+					for (int m = 0; m < 7; m++) {
+						int nbr = getNeighbor(n, i, j, k, m);
+						if (nbr >= 0 && features[nbr] >= 0) {
+							d2 = Math.min(d2, SpringlsHashKernels3D
+									.distanceSquared(i, j, k, triangles,
+											nearest[features[nbr]]));
+						}
+					}
+					distances[n] = (float) Math.sqrt(d2);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets a voxel or one of its six face neighbors.
+	 * 
+	 * @param n
+	 *            the voxel index
+	 * @param i
+	 *            the row
+	 * @param j
+	 *            the column
+	 * @param k
+	 *            the slice
+	 * @param m
+	 *            the neighbor, where 0 is the voxel itself
+	 * @return the neighbor index, or -1 if it is outside the image
+	 */
+	protected int getNeighbor(int n, int i, int j, int k, int m) {
+		switch (m) {
+		case 0:
+			return n;
+		case 1:
+			return (i > 0) ? n - 1 : -1;
+		case 2:
+			return (i < rows - 1) ? n + 1 : -1;
+		case 3:
+			return (j > 0) ? n - rows : -1;
+		case 4:
+			return (j < cols - 1) ? n + rows : -1;
+		case 5:
+			return (k > 0) ? n - rows * cols : -1;
+		default:
+			return (k < slices - 1) ? n + rows * cols : -1;
+		}
+	}
+
+	/**
+	 * Gets the index of the first voxel of a line along an axis.
+	 * 
+	 * @param axis
+	 *            the axis
+	 * @param line
+	 *            the line
+	 * @return the voxel index
+	 */
+	protected int getLineStart(int axis, int line) {
+		switch (axis) {
+		case 0:
+			return line * rows;
+		case 1:
+			return (line / rows) * rows * cols + line % rows;
+		default:
+			return line;
+		}
+	}
+
+	/**
+	 * Intersect a ray along the rows axis with a triangle.
+	 * 
+	 * @param t
+	 *            the triangle
+	 * @param py
+	 *            the ray column
+	 * @param pz
+	 *            the ray slice
+	 * @return the row of the intersection, or NaN if there is none
+	 */
+	protected float intersect(int t, double py, double pz) {
+		int off = t * SpringlsHashKernels3D.FLOATS_PER_SPRINGL + 4;
+		double y0 = triangles[off + 1] - py, z0 = triangles[off + 2] - pz;
+		double y1 = triangles[off + 5] - py, z1 = triangles[off + 6] - pz;
+		double y2 = triangles[off + 9] - py, z2 = triangles[off + 10] - pz;
+		double w0 = y1 * z2 - z1 * y2;
+		double w1 = y2 * z0 - z2 * y0;
+		double w2 = y0 * z1 - z0 * y1;
+		boolean positive = (w0 >= 0 && w1 >= 0 && w2 >= 0);
+		boolean negative = (w0 <= 0 && w1 <= 0 && w2 <= 0);
+		if (!positive && !negative) {
+			return Float.NaN;
+		}
+		double area = w0 + w1 + w2;
+		if (area == 0) {
+			return Float.NaN;
+		}
+		return (float) ((w0 * triangles[off] + w1 * triangles[off + 4] + w2
+				* triangles[off + 8]) / area);
+	}
+
+	/**
+	 * Label the voxels of a line from its sorted ray crossings.
+	 * 
+	 * @param base
+	 *            the index of the first voxel of the line
+	 * @param hits
+	 *            the crossing rows
+	 * @param hitLabels
+	 *            the crossing labels
+	 * @param count
+	 *            the crossing count
+	 * @param priority
+	 *            the label priorities
+	 * @param parity
+	 *            the scratch parity of each label, which is all zero
+	 * @param active
+	 *            the scratch list of labels with odd parity
+	 */
+	protected void labelLine(int base, float[] hits, int[] hitLabels,
+			int count, int[] priority, int[] parity, int[] active) {
+		// Insertion sort, since a ray crosses few triangles
+		for (int n = 1; n < count; n++) {
+			float x = hits[n];
+			int l = hitLabels[n];
+			int m = n - 1;
+			while (m >= 0 && hits[m] > x) {
+				hits[m + 1] = hits[m];
+				hitLabels[m + 1] = hitLabels[m];
+				m--;
+			}
+			hits[m + 1] = x;
+			hitLabels[m + 1] = l;
+		}
+		int activeCount = 0;
+		int label = 0;
+		int i = 0;
+		for (int n = 0; n < count; n++) {
+			int end = Math.min(rows, (int) Math.ceil(hits[n]));
+			for (; i < end; i++) {
+				labels[base + i] = label;
+			}
+			int l = hitLabels[n];
+			parity[l] ^= 1;
+			if (parity[l] == 1) {
+				active[activeCount++] = l;
+			} else {
+				for (int m = 0; m < activeCount; m++) {
+					if (active[m] == l) {
+						active[m] = active[--activeCount];
+						break;
+					}
+				}
+			}
+			label = 0;
+			int best = -1;
+			for (int m = 0; m < activeCount; m++) {
+				if (priority[active[m]] > best) {
+					best = priority[active[m]];
+					label = active[m];
+				}
+			}
+		}
+		for (; i < rows; i++) {
+			labels[base + i] = label;
+		}
+		for (int m = 0; m < activeCount; m++) {
+			parity[active[m]] = 0;
+		}
+	}
+}
@@ -71,6 +71,9 @@ public class MeshToSpringls extends AbstractCalculation {
 	/** The MA x_ cycles. */
 	protected final int MAX_CYCLES = 16;
 
+	/** Rasterize the mesh with {@link MeshRasterizer3D} instead of OpenCL. */
+	protected boolean javaRasterizer = false;
+
 	/**
 	 * Instantiates a new mesh to springls.
 	 * 
@@ -120,7 +123,8 @@ public class MeshToSpringls extends AbstractCalculation {
 	 */
 	public ImageDataFloat solve(EmbeddedSurface initialSurface,
 			float smoothWeight, int smoothingIters) throws IOException {
-		commons.setSpringls(new SpringlsSurface(initialSurface));
+		SpringlsSurface springls = new SpringlsSurface(initialSurface);
+		commons.setSpringls(springls);
 		long startTime = System.nanoTime();
 		CLBuffer<FloatBuffer> tmpSignedLevelSet = commons.context
 				.createFloatBuffer(
@@ -128,9 +132,22 @@ public class MeshToSpringls extends AbstractCalculation {
 						USE_BUFFER, READ_WRITE);
 		SpringlsEvolveLevelSet3D evolve = new SpringlsEvolveLevelSet3D(commons,
 				-smoothWeight);
-		createUnsignedLevelSet(commons);
-		evolve.extendUnsignedDistanceField(4);
-		convertUnsignedToSigned(commons, tmpSignedLevelSet);
+		if (javaRasterizer) {
+			MeshRasterizer3D rasterizer = new MeshRasterizer3D(commons.rows,
+					commons.cols, commons.slices);
+			rasterizer.setSurface(springls);
+			rasterizer.solve(null);
+			commons.unsignedLevelSetBuffer.getBuffer()
+					.put(rasterizer.getDistances()).rewind();
+			commons.signedLevelSetBuffer.getBuffer()
+					.put(rasterizer.getSignedDistances()).rewind();
+			commons.queue.putWriteBuffer(commons.unsignedLevelSetBuffer, false)
+					.putWriteBuffer(commons.signedLevelSetBuffer, true);
+		} else {
+			createUnsignedLevelSet(commons);
+			evolve.extendUnsignedDistanceField(4);
+			convertUnsignedToSigned(commons, tmpSignedLevelSet);
+		}
 		commons.queue.finish();
 
 		if (smoothingIters > 0) {
@@ -254,6 +271,26 @@ public class MeshToSpringls extends AbstractCalculation {
 		return distField;
 	}
 
+	/**
+	 * Checks if the mesh is rasterized with {@link MeshRasterizer3D}.
+	 * 
+	 * @return true, if the java rasterizer is used
+	 */
+	public boolean isJavaRasterizer() {
+		return javaRasterizer;
+	}
+
+	/**
+	 * Sets whether to rasterize the mesh with {@link MeshRasterizer3D}, which
+	 * scales with mesh size, instead of the OpenCL kernels.
+	 * 
+	 * @param javaRasterizer
+	 *            true to use the java rasterizer
+	 */
+	public void setJavaRasterizer(boolean javaRasterizer) {
+		this.javaRasterizer = javaRasterizer;
+	}
+
 	/**
 	 * The main method.
 	 *
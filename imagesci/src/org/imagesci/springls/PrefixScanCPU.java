@@ -64,7 +64,7 @@ public class PrefixScanCPU implements CLResource {
 	/** The batch size. */
 	protected int batchSize = 1024;
 
-	/** The buffer. */
+	/** The buffer of sub list totals. */
 	private CLBuffer<IntBuffer> buffer;
 
 	/** The max value buffer. */
@@ -128,6 +128,9 @@ public class PrefixScanCPU implements CLResource {
 		if (buffer != null) {
 			buffer.release();
 		}
+		if (maxValueBuffer != null) {
+			maxValueBuffer.release();
+		}
 		released = true;
 	}
 
@@ -233,7 +236,8 @@ public class PrefixScanCPU implements CLResource {
 
 	// main exclusive scan routine
 	/**
-	 * Scan.
+	 * Scan. The queue is in-order, so the blocking read of the total also
+	 * waits for the scan kernels.
 	 *
 	 * @param src the src
 	 * @param arrayLength the array length
@@ -241,12 +245,17 @@ public class PrefixScanCPU implements CLResource {
 	 */
 	public int scan(CLBuffer<IntBuffer> src, int arrayLength) {
 		int bufferSize = 1 + arrayLength / batchSize;
-		buffer = queue.getContext().createIntBuffer(bufferSize, READ_WRITE);
+		if (buffer == null || buffer.getNIOCapacity() < bufferSize) {
+			if (buffer != null) {
+				buffer.release();
+			}
+			buffer = queue.getContext().createIntBuffer(bufferSize,
+					READ_WRITE);
+		}
 		if (maxValueBuffer == null) {
 			maxValueBuffer = queue.getContext().createIntBuffer(1, READ_WRITE,
 					COPY_BUFFER);
 		}
-
 		int global_size = SpringlsCommon3D.roundToWorkgroupPower(bufferSize,
 				WORKGROUP_SIZE);
 		prefixScanSubList.putArgs(src, buffer).putArg(batchSize)
@@ -261,10 +270,7 @@ public class PrefixScanCPU implements CLResource {
 		queue.put1DRangeKernel(prefixScanSubList, 0, 1, 1);
 		addScanList.putArgs(src, buffer).putArg(batchSize).putArg(arrayLength)
 				.rewind();
-
 		queue.put1DRangeKernel(addScanList, 0, global_size, WORKGROUP_SIZE);
-		queue.finish();
-		buffer.release();
 		queue.putReadBuffer(maxValueBuffer, true);
 		return maxValueBuffer.getBuffer().get(0);
 	}
@@ -29,6 +29,7 @@ package org.imagesci.springls;
 
 import java.awt.Dimension;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 
 import javax.vecmath.Point3d;
 import javax.vecmath.Point3i;
@@ -38,6 +39,7 @@ import org.imagesci.utility.IsoSurfaceGenerator;
 import org.imagesci.utility.PhantomBubbles;
 import org.imagesci.utility.PhantomCube;
 
+import com.jogamp.opencl.CLBuffer;
 import com.jogamp.opencl.CLDevice;
 import com.jogamp.opencl.CLDevice.Type;
 import com.jogamp.opencl.CLKernel;
@@ -88,6 +90,9 @@ public class SpringlsActiveContour3D extends ActiveContour3D {
 	/** The iso surf. */
 	protected SpringlsIsoSurface3D isoSurf;
 
+	/** Compute the spatial hash on the host. */
+	protected boolean javaSpatialHash = false;
+
 	/** The relax. */
 	protected SpringlsRelax3D relax;
 
@@ -124,6 +129,7 @@ public class SpringlsActiveContour3D extends ActiveContour3D {
 					.printf("Time Steps: %d\nElapsed Time: %6.4f sec\nFrame Rate: %6.2f fps\n",
 							time, 1E-9 * (endTime - startTime), 1E9 * time
 									/ (endTime - startTime));
+			profiler.finishRun();
 			markCompleted();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -161,6 +167,7 @@ public class SpringlsActiveContour3D extends ActiveContour3D {
 		this.cols = cols;
 		this.slices = slices;
 		this.commons = commons;
+		commons.setProfiler(profiler);
 
 		commons.setReferenceImage(referenceImage);
 		SpringlsSurface surf = null;
@@ -171,14 +178,14 @@ public class SpringlsActiveContour3D extends ActiveContour3D {
 			int r = initialDistanceFieldImage.getRows();
 			int c = initialDistanceFieldImage.getCols();
 			int s = initialDistanceFieldImage.getSlices();
-			float[][][] img = initialDistanceFieldImage.toArray3d();
 			ImageDataFloat imgDown = new ImageDataFloat(r / 2 + 1, c / 2 + 1,
 					s / 2 + 1);
 			float[][][] imageDown = imgDown.toArray3d();
 			for (int i = 0; i < r; i += 2) {
 				for (int j = 0; j < c; j += 2) {
 					for (int k = 0; k < s; k += 2) {
-						imageDown[i / 2][j / 2][k / 2] = img[i][j][k];
+						imageDown[i / 2][j / 2][k / 2] =
+								initialDistanceFieldImage.getFloat(i, j, k);
 					}
 				}
 			}
@@ -197,21 +204,21 @@ public class SpringlsActiveContour3D extends ActiveContour3D {
 		(evolve).setAdaptiveUpdateInterval(adaptiveConvergenceSamplingInterval);
 		fillGaps = new SpringlsFillGaps3D(commons);
 		hash = new SpringlsSpatialHash3D(commons);
+		hash.setJavaBackend(javaSpatialHash);
 		isoSurf = new SpringlsIsoSurface3D(commons);
 		relax = new SpringlsRelax3D(commons, SpringlsConstants.relaxTimeStep);
 
 		// WARNING: RESCALING WILL MODIFY ORIGINAL PRESSURE IMAGE
 		advect = createAdvect();
-		commons.setInitialSignedLevelSet(initialDistanceFieldImage.toArray3d());
+		commons.setInitialSignedLevelSet(initialDistanceFieldImage);
 
 		if (referencelevelSetImage != null) {
-			commons.setReferenceLevelSet(referencelevelSetImage.toArray3d());
+			commons.setReferenceLevelSet(referencelevelSetImage);
 		} else {
 			if (initialDistanceFieldImage != null) {
-				commons.setReferenceLevelSet(initialDistanceFieldImage
-						.toArray3d());
+				commons.setReferenceLevelSet(initialDistanceFieldImage);
 			} else {
-				commons.setReferenceLevelSet(getUnsignedLevelSet().toArray3d());
+				commons.setReferenceLevelSet(getUnsignedLevelSet());
 			}
 		}
 		time = 0;
@@ -233,38 +240,25 @@ public class SpringlsActiveContour3D extends ActiveContour3D {
 		SpringlsAdvect3D advect = null;
 		// WARNING: RESCALING WILL MODIFY ORIGINAL PRESSURE IMAGE
 		if (task == Task.ACTIVE_CONTOUR) {
-			if (resamplingEnabled) {
-				if (pressureImage != null) {
-					rescale(pressureImage.toArray3d());
-					if (vecFieldImage != null) {
-						advect = new SpringlsAdvect3D(commons,
-								pressureImage.toArray3d(),
-								vecFieldImage.toArray4d(), pressureWeight,
-								advectionWeight);
-					} else {
-						advect = new SpringlsAdvect3D(commons,
-								pressureImage.toArray3d(), pressureWeight);
-					}
-				} else if (vecFieldImage != null) {
-					advect = new SpringlsAdvect3D(commons,
-							vecFieldImage.toArray4d(), advectionWeight);
-				}
+			CLBuffer<FloatBuffer> pressureBuffer = null;
+			CLBuffer<FloatBuffer> vecFieldBuffer = null;
+			if (pressureImage != null) {
+				rescalePressure();
+				pressureBuffer = commons.createImageBuffer(pressureImage);
+			}
+			if (vecFieldImage != null) {
+				vecFieldBuffer = commons.createImageBuffer(vecFieldImage);
+			}
+			float pWeight = (pressureBuffer != null) ? pressureWeight : 0;
+			float aWeight = (vecFieldBuffer != null) ? advectionWeight : 0;
+			if (pressureBuffer == null && vecFieldBuffer == null) {
+				advect = null;
+			} else if (resamplingEnabled) {
+				advect = new SpringlsAdvect3D(commons, pressureBuffer,
+						vecFieldBuffer, pWeight, aWeight);
 			} else {
-				if (pressureImage != null) {
-					rescale(pressureImage.toArray3d());
-					if (vecFieldImage != null) {
-						advect = new SpringlsAdvectNoResample3D(commons,
-								pressureImage.toArray3d(),
-								vecFieldImage.toArray4d(), pressureWeight,
-								advectionWeight);
-					} else {
-						advect = new SpringlsAdvectNoResample3D(commons,
-								pressureImage.toArray3d(), pressureWeight);
-					}
-				} else if (vecFieldImage != null) {
-					advect = new SpringlsAdvectNoResample3D(commons,
-							vecFieldImage.toArray4d(), advectionWeight);
-				}
+				advect = new SpringlsAdvectNoResample3D(commons,
+						pressureBuffer, vecFieldBuffer, pWeight, aWeight);
 			}
 		} else {
 			if (resamplingEnabled) {
@@ -280,6 +274,38 @@ public class SpringlsActiveContour3D extends ActiveContour3D {
 		return advect;
 	}
 
+	/**
+	 * Gets the spatial hash.
+	 * 
+	 * @return the spatial hash
+	 */
+	public SpringlsSpatialHash3D getSpatialHash() {
+		return hash;
+	}
+
+	/**
+	 * Checks if the spatial hash is computed on the host.
+	 * 
+	 * @return true, if the spatial hash is computed on the host
+	 */
+	public boolean isJavaSpatialHash() {
+		return javaSpatialHash;
+	}
+
+	/**
+	 * Compute the spatial hash and nearest neighbors on the host with
+	 * {@link SpringlsHashKernels3D}.
+	 * 
+	 * @param javaSpatialHash
+	 *            the java spatial hash
+	 */
+	public void setJavaSpatialHash(boolean javaSpatialHash) {
+		this.javaSpatialHash = javaSpatialHash;
+		if (hash != null) {
+			hash.setJavaBackend(javaSpatialHash);
+		}
+	}
+
 	/**
 	 * Gets the unsigned level set.
 	 * 
@@ -363,6 +389,10 @@ public class SpringlsActiveContour3D extends ActiveContour3D {
 			
 			updateLevelSetTime = System.nanoTime() - startTime;
 		}
+		// The stages only drop redundant barriers on the in-order queue; the
+		// element and narrow-band counts are still read back with blocking
+		// reads inside each stage. Wait once here to time the whole iteration.
+		commons.queue.finish();
 		long computeTime = System.nanoTime() - initTime;
 		if (time % resamplingInterval == 0 && time != 0) {
 			System.out
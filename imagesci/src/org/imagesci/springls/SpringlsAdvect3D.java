@@ -125,7 +125,8 @@ public class SpringlsAdvect3D {
 		this.pressureWeight = pressureWeight;
 		this.advectionWeight = 0;
 
-		commons.queue.putWriteBuffer(pressureImageBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue, pressureImageBuffer,
+				true);
 	}
 
 	/**
@@ -177,8 +178,10 @@ public class SpringlsAdvect3D {
 		advectBuff.rewind();
 		this.pressureWeight = pressureWeight;
 		this.advectionWeight = advectionWeight;
-		commons.queue.putWriteBuffer(pressureImageBuffer, true);
-		commons.queue.putWriteBuffer(vecFieldImageBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue, pressureImageBuffer,
+				true);
+		commons.profiler.putWriteBuffer(commons.queue, vecFieldImageBuffer,
+				true);
 	}
 
 	/**
@@ -213,7 +216,8 @@ public class SpringlsAdvect3D {
 		this.pressureWeight = 0;
 		this.advectionWeight = advectionWeight;
 
-		commons.queue.putWriteBuffer(vecFieldImageBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue, vecFieldImageBuffer,
+				true);
 	}
 
 	/**
@@ -263,20 +267,18 @@ public class SpringlsAdvect3D {
 					.putArg(commons.elements).rewind();
 		}
 
-		commons.queue.put1DRangeKernel(computeForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, computeForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		computeMaxForces.putArgs(pointUpdates, maxForces)
 				.putArg(SpringlsCommon3D.STRIDE).putArg(commons.elements)
 				.rewind();
 		// Find the maximum force in order to choose an appropriate step size.
-		commons.queue.put1DRangeKernel(
-				computeMaxForces,
-				0,
+		commons.profiler.put1DRangeKernel(commons.queue, computeMaxForces, 0,
 				SpringlsCommon3D.roundToWorkgroupPower(commons.arrayLength
 						/ SpringlsCommon3D.STRIDE),
 				SpringlsCommon3D.WORKGROUP_SIZE);
 
-		commons.queue.putReadBuffer(maxForces, true);
+		commons.profiler.putReadBuffer(commons.queue, maxForces, true);
 		FloatBuffer buff = maxForces.getBuffer();
 		float maxForce = 0;
 		while (buff.hasRemaining()) {
@@ -295,9 +297,8 @@ public class SpringlsAdvect3D {
 				.putArgs(commons.capsuleBuffer, commons.signedLevelSetBuffer,
 						pointUpdates).putArg(maxForce).putArg(commons.elements)
 				.rewind();
-		commons.queue.put1DRangeKernel(applyForces, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
-		commons.queue.finish();
+		commons.profiler.put1DRangeKernel(commons.queue, applyForces, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		maxForces.release();
 		pointUpdates.release();
 		return displacement;
@@ -348,7 +349,8 @@ public class SpringlsAdvect3D {
 			}
 		}
 		pressureBuff.rewind();
-		commons.queue.putWriteBuffer(pressureImageBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue, pressureImageBuffer,
+				true);
 	}
 
 	/**
@@ -381,7 +383,8 @@ public class SpringlsAdvect3D {
 			}
 		}
 		advectBuff.rewind();
-		commons.queue.putWriteBuffer(vecFieldImageBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue, vecFieldImageBuffer,
+				true);
 	}
 
 }
@@ -95,8 +95,8 @@ public class SpringlsAdvectEnright3D extends SpringlsAdvect3D {
 				.get(SpringlsCommon3D.ADVECT_ZALESAK);
 		advect.putArgs(commons.capsuleBuffer).putArg((float) timeStep)
 				.putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(advect, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, advect, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		return timeStep;
 	}
 
@@ -114,8 +114,8 @@ public class SpringlsAdvectEnright3D extends SpringlsAdvect3D {
 		advect.putArgs(commons.capsuleBuffer).putArg((float) timeStep)
 				.putArg((float) time).putArg((float) period)
 				.putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(advect, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, advect, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		return timeStep;
 	}
 }
@@ -52,6 +52,7 @@ import javax.vecmath.Point3f;
 
 import org.imagesci.gac.TopologyPreservationRule3D;
 import org.imagesci.utility.IsoSurfaceGenerator;
+import org.imagesci.utility.KernelProfiler;
 
 import com.jogamp.opencl.CLBuffer;
 import com.jogamp.opencl.CLCommandQueue;
@@ -67,6 +68,7 @@ import edu.jhu.cs.cisst.vent.renderer.processing.RendererProcessing3D;
 import edu.jhu.cs.cisst.vent.renderer.processing.SpringlsRaycastRenderer;
 import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface;
 import edu.jhu.ece.iacl.jist.structures.image.ImageData;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -269,6 +271,12 @@ public class SpringlsCommon3D {
 	/** The queue. */
 	public CLCommandQueue queue;
 
+	/** True if the queue was created by this object and may be released. */
+	protected boolean ownsQueue = false;
+
+	/** The kernel profiler shared by all stages. */
+	public KernelProfiler profiler = new KernelProfiler();
+
 	/** The ref image. */
 	protected ImageData refImage;
 
@@ -354,7 +362,8 @@ public class SpringlsCommon3D {
 			WORKGROUP_SIZE = 128;
 		}
 		context = CLContext.create(device);
-		queue = device.createCommandQueue();
+		queue = profiler.createQueue(device);
+		ownsQueue = true;
 		System.out.println("Springls common using device: "
 				+ device.getVendor() + " " + device.getVersion() + " "
 				+ device.getName());
@@ -435,7 +444,7 @@ public class SpringlsCommon3D {
 			}
 			buff.rewind();
 			buff2.rewind();
-			queue.putWriteBuffer(capsuleBuffer, true);
+			profiler.putWriteBuffer(queue, capsuleBuffer, true);
 		}
 		loadLUT();
 	}
@@ -641,8 +650,8 @@ public class SpringlsCommon3D {
 		buff.rewind();
 		buff2.rewind();
 
-		queue.putWriteBuffer(capsuleBuffer, true).putWriteBuffer(
-				springlLabelBuffer, true);
+		profiler.putWriteBuffer(queue, capsuleBuffer, true);
+		profiler.putWriteBuffer(queue, springlLabelBuffer, true);
 		// System.out.println("SET SPRINGLS " + elements + " " + arrayLength +
 		// " "+ mapLength);
 	}
@@ -681,8 +690,8 @@ public class SpringlsCommon3D {
 		buff.rewind();
 		buff2.rewind();
 
-		queue.putWriteBuffer(capsuleBuffer, true).putWriteBuffer(
-				springlLabelBuffer, true);
+		profiler.putWriteBuffer(queue, capsuleBuffer, true);
+		profiler.putWriteBuffer(queue, springlLabelBuffer, true);
 		// System.out.println("SET SPRINGLS " + elements + " " + arrayLength +
 		// " "+ mapLength);
 	}
@@ -795,7 +804,7 @@ public class SpringlsCommon3D {
 				topologyRuleBuffer = context.createByteBuffer(buff.length,
 						READ_ONLY);
 				topologyRuleBuffer.getBuffer().put(buff).rewind();
-				queue.putWriteBuffer(topologyRuleBuffer, true);
+				profiler.putWriteBuffer(queue, topologyRuleBuffer, true);
 				return true;
 			}
 			zis.close();
@@ -1017,6 +1026,24 @@ public class SpringlsCommon3D {
 				rasterHeight, refreshRate);
 	}
 
+	/**
+	 * Sets the kernel profiler shared by all stages. If profiling is enabled
+	 * and this object created the queue, the queue is replaced with a
+	 * profiling queue. A shared queue without profiling support is kept and
+	 * the profiler is disabled.
+	 * 
+	 * @param profiler
+	 *            the profiler
+	 */
+	public void setProfiler(KernelProfiler profiler) {
+		this.profiler = profiler;
+		CLCommandQueue oldQueue = queue;
+		queue = profiler.prepareQueue(oldQueue, ownsQueue);
+		if (queue != oldQueue) {
+			oldQueue.release();
+		}
+	}
+
 	/**
 	 * Dispose.
 	 */
@@ -1037,7 +1064,7 @@ public class SpringlsCommon3D {
 	public int[][] getNeighborReferences() {
 		int N = elements;
 		int[][] capsuleNbrs = new int[N * 3][2 * SpringlsConstants.maxNeighbors];
-		queue.putReadBuffer(capsuleNeighborBuffer, true);
+		profiler.putReadBuffer(queue, capsuleNeighborBuffer, true);
 		ByteBuffer buff = capsuleNeighborBuffer.getBuffer();
 		int id = 0;
 		int index = 0;
@@ -1085,7 +1112,7 @@ public class SpringlsCommon3D {
 	 */
 	public float[][][] getSignedLevelSet() {
 		float[][][] imageMat;
-		queue.putReadBuffer(signedLevelSetBuffer, true);
+		profiler.putReadBuffer(queue, signedLevelSetBuffer, true);
 		FloatBuffer levelSet = signedLevelSetBuffer.getBuffer();
 		imageMat = new float[rows][cols][slices];
 		for (int k = 0; k < slices; k++) {
@@ -1108,8 +1135,8 @@ public class SpringlsCommon3D {
 		if (elements == 0) {
 			return null;
 		}
-		queue.putReadBuffer(capsuleBuffer, true).putReadBuffer(
-				springlLabelBuffer, true);
+		profiler.putReadBuffer(queue, capsuleBuffer, true);
+		profiler.putReadBuffer(queue, springlLabelBuffer, true);
 		ByteBuffer buffer = capsuleBuffer.getBuffer();
 
 		Point3f[] points = new Point3f[3 * elements];
@@ -1156,7 +1183,7 @@ public class SpringlsCommon3D {
 	 */
 	public float[][][] getUnsignedLevelSet() {
 		float[][][] imageMat;
-		queue.putReadBuffer(unsignedLevelSetBuffer, true);
+		profiler.putReadBuffer(queue, unsignedLevelSetBuffer, true);
 		FloatBuffer levelSet = unsignedLevelSetBuffer.getBuffer();
 		imageMat = new float[rows][cols][slices];
 		for (int k = 0; k < slices; k++) {
@@ -1198,7 +1225,7 @@ public class SpringlsCommon3D {
 	 */
 	public void printByteBuffer(CLBuffer<ByteBuffer> readBuffer, int snapshot) {
 		ByteBuffer buffer = readBuffer.getBuffer();
-		queue.putReadBuffer(readBuffer, true);
+		profiler.putReadBuffer(queue, readBuffer, true);
 		for (int i = 0; i < snapshot; i++) {
 			if (i % 16 == 0) {
 				out.print("\n");
@@ -1220,7 +1247,7 @@ public class SpringlsCommon3D {
 	public void printCheckSublistSorted(CLBuffer<IntBuffer> readBuffer,
 			int snapshot) {
 		IntBuffer buffer = readBuffer.getBuffer();
-		queue.putReadBuffer(readBuffer, true);
+		profiler.putReadBuffer(queue, readBuffer, true);
 		int lastValue = -1;
 		int currentValue = 0;
 		for (int i = 0; i < snapshot; i++) {
@@ -1250,7 +1277,7 @@ public class SpringlsCommon3D {
 	 */
 	public void printFloatBuffer(CLBuffer<FloatBuffer> readBuffer, int snapshot) {
 		FloatBuffer buffer = readBuffer.getBuffer();
-		queue.putReadBuffer(readBuffer, true);
+		profiler.putReadBuffer(queue, readBuffer, true);
 		for (int i = 0; i < snapshot; i++) {
 			if (i % 128 == 0) {
 				out.print("\n");
@@ -1271,7 +1298,7 @@ public class SpringlsCommon3D {
 	 */
 	public void printIntBuffer(CLBuffer<IntBuffer> readBuffer, int snapshot) {
 		IntBuffer buffer = readBuffer.getBuffer();
-		queue.putReadBuffer(readBuffer, true);
+		profiler.putReadBuffer(queue, readBuffer, true);
 		for (int i = 0; i < snapshot; i++) {
 			if (!buffer.hasRemaining()) {
 				break;
@@ -1295,7 +1322,7 @@ public class SpringlsCommon3D {
 	 */
 	public void printStructBuffer(CLBuffer<ByteBuffer> readBuffer, int snapshot) {
 
-		queue.putReadBuffer(readBuffer, true);
+		profiler.putReadBuffer(queue, readBuffer, true);
 		ByteBuffer buffer = readBuffer.getBuffer();
 		for (int i = 0; i < snapshot; i++) {
 			out.print(buffer.getFloat() + ", ");
@@ -1334,7 +1361,31 @@ public class SpringlsCommon3D {
 			}
 		}
 		buff.rewind();
-		queue.putWriteBuffer(signedLevelSetBuffer, false);
+		profiler.putWriteBuffer(queue, signedLevelSetBuffer, false);
+	}
+
+	/**
+	 * Sets the initial signed level set. Flat images are read directly, so
+	 * their storage is not converted to nested arrays.
+	 * 
+	 * @param image
+	 *            the new initial signed level set
+	 */
+	public void setInitialSignedLevelSet(ImageDataFloat image) {
+		float[] data = image.toArray1d();
+		if (data == null) {
+			setInitialSignedLevelSet(image.toArray3d());
+			return;
+		}
+		float maxDistance = SpringlsEvolveLevelSet3D.MAX_DISTANCE + 0.5f;
+		FloatBuffer buff = signedLevelSetBuffer.getBuffer();
+		int size = image.getRows() * image.getCols() * image.getSlices();
+		for (int index = 0; index < size; index++) {
+			buff.put(Math.max(-maxDistance,
+					Math.min(maxDistance, data[index])));
+		}
+		buff.rewind();
+		profiler.putWriteBuffer(queue, signedLevelSetBuffer, false);
 	}
 
 	/**
@@ -1353,7 +1404,7 @@ public class SpringlsCommon3D {
 			}
 		}
 		buff.rewind();
-		queue.putWriteBuffer(unsignedLevelSetBuffer, true);
+		profiler.putWriteBuffer(queue, unsignedLevelSetBuffer, true);
 	}
 
 	/**
@@ -1382,7 +1433,63 @@ public class SpringlsCommon3D {
 			}
 		}
 		buff.rewind();
-		queue.putWriteBuffer(originalUnsignedLevelSetBuffer, true);
+		profiler.putWriteBuffer(queue, originalUnsignedLevelSetBuffer, true);
+	}
+
+	/**
+	 * Sets the reference level set. Flat images are read directly, so their
+	 * storage is not converted to nested arrays.
+	 * 
+	 * @param image
+	 *            the new reference level set
+	 */
+	public void setReferenceLevelSet(ImageDataFloat image) {
+		float[] data = image.toArray1d();
+		if (data == null) {
+			setReferenceLevelSet(image.toArray3d());
+			return;
+		}
+		FloatBuffer buff = originalUnsignedLevelSetBuffer.getBuffer();
+		int size = image.getRows() * image.getCols() * image.getSlices();
+		for (int index = 0; index < size; index++) {
+			buff.put(Math.abs(data[index]));
+		}
+		buff.rewind();
+		profiler.putWriteBuffer(queue, originalUnsignedLevelSetBuffer, true);
+	}
+
+	/**
+	 * Creates a read-only buffer holding the voxels of an image and uploads
+	 * it. Vector components are interleaved per voxel, and flat images are
+	 * read without converting their storage to nested arrays.
+	 * 
+	 * @param image
+	 *            the image
+	 * @return the buffer
+	 */
+	public CLBuffer<FloatBuffer> createImageBuffer(ImageDataFloat image) {
+		int size = image.getRows() * image.getCols() * image.getSlices();
+		int components = Math.max(1, image.getComponents());
+		CLBuffer<FloatBuffer> buffer = context.createFloatBuffer(size
+				* components, READ_ONLY, USE_BUFFER);
+		FloatBuffer buff = buffer.getBuffer();
+		float[] data = image.toArray1d();
+		if (data == null) {
+			data = new float[size * components];
+			image.toBuffer(FloatBuffer.wrap(data));
+		}
+		if (components == 1) {
+			buff.put(data, 0, size);
+		} else {
+			for (int index = 0; index < size; index++) {
+				for (int l = 0; l < components; l++) {
+					buff.put(data[index + l * size]);
+				}
+			}
+		}
+		buff.rewind();
+		profiler.putWriteBuffer(queue, buffer, true);
+		return buffer;
 	}
 
 	/**
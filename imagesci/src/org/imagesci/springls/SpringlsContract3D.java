@@ -114,15 +114,15 @@ public class SpringlsContract3D {
 			contractCount.putArgs(commons.capsuleBuffer, offsets, atlasBias)
 					.putArg(commons.elements).putArg(atlasThreshold).rewind();
 		}
-		commons.queue.put1DRangeKernel(contractCount, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, contractCount, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		int total = (commons).scan.scan(offsets, commons.elements);
 		contractArray
 				.putArgs(commons.capsuleBuffer, commons.springlLabelBuffer,
 						capsuleBuffer2, labelBuffer2, offsets)
 				.putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(contractArray, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, contractArray, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		int oldElements = commons.elements;
 		commons.elements = total;
 		commons.springlLabelBuffer.release();
@@ -130,7 +130,6 @@ public class SpringlsContract3D {
 		commons.capsuleBuffer.release();
 		commons.capsuleBuffer = capsuleBuffer2;
 		offsets.release();
-		commons.queue.finish();
 		return oldElements - commons.elements;
 	}
 
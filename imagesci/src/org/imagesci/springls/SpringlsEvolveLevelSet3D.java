@@ -158,9 +158,10 @@ public class SpringlsEvolveLevelSet3D {
 		}
 		originalLevelSet.rewind();
 		levelSet.rewind();
-		commons.queue.putWriteBuffer(commons.signedLevelSetBuffer, true);
-		commons.queue.putWriteBuffer(commons.originalUnsignedLevelSetBuffer,
-				true);
+		commons.profiler.putWriteBuffer(commons.queue,
+				commons.signedLevelSetBuffer, true);
+		commons.profiler.putWriteBuffer(commons.queue,
+				commons.originalUnsignedLevelSetBuffer, true);
 	}
 
 	/**
@@ -234,9 +235,11 @@ public class SpringlsEvolveLevelSet3D {
 							commons.signedLevelSetBuffer, commons.indexBuffer,
 							commons.unsignedLevelSetBuffer, historyBuffer)
 					.putArg(activeListSize).rewind();
-			commons.queue.put1DRangeKernel(deleteCountActiveListHistory, 0,
-					SpringlsCommon3D.roundToWorkgroupPower(
-							1 + (activeListSize / STRIDE), 1), 1);
+			commons.profiler.put1DRangeKernel(commons.queue,
+					deleteCountActiveListHistory, 0,
+					SpringlsCommon3D.roundToWorkgroupPower(1 + (activeListSize
+							/ STRIDE), 1),
+					1);
 		} else {
 
 			deleteCountActiveList
@@ -244,16 +247,17 @@ public class SpringlsEvolveLevelSet3D {
 							commons.signedLevelSetBuffer, commons.indexBuffer,
 							commons.unsignedLevelSetBuffer)
 					.putArg(activeListSize).rewind();
-			commons.queue.put1DRangeKernel(deleteCountActiveList, 0,
-					SpringlsCommon3D.roundToWorkgroupPower(
-							1 + (activeListSize / STRIDE), 1), 1);
+			commons.profiler.put1DRangeKernel(commons.queue,
+					deleteCountActiveList, 0,
+					SpringlsCommon3D.roundToWorkgroupPower(1 + (activeListSize
+							/ STRIDE), 1),
+					1);
 		}
-		commons.queue.finish();
 		prefixScanList.putArgs(offsetBuffer, maxValueBuffer)
 				.putArg(1 + (activeListSize / STRIDE)).rewind();
-		commons.queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
-		commons.queue.finish();
-		commons.queue.putReadBuffer(maxValueBuffer, true);
+		commons.profiler.put1DRangeKernel(commons.queue, prefixScanList, 0, 1,
+				1);
+		commons.profiler.putReadBuffer(commons.queue, maxValueBuffer, true);
 		int newElements = maxValueBuffer.getBuffer().get(0);
 		int delete = activeListSize - newElements;
 
@@ -268,9 +272,11 @@ public class SpringlsEvolveLevelSet3D {
 								newSignedLevelSetBuffer, historyBuffer)
 						.putArg(activeListSize).rewind();
 
-				commons.queue.put1DRangeKernel(compactActiveListHistory, 0,
-						SpringlsCommon3D.roundToWorkgroupPower(
-								1 + (activeListSize / STRIDE), 1), 1);
+				commons.profiler.put1DRangeKernel(commons.queue,
+						compactActiveListHistory, 0,
+						SpringlsCommon3D.roundToWorkgroupPower(1
+								+ (activeListSize / STRIDE), 1),
+						1);
 			} else {
 
 				compactActiveList
@@ -279,13 +285,14 @@ public class SpringlsEvolveLevelSet3D {
 								newSignedLevelSetBuffer).putArg(activeListSize)
 						.rewind();
 
-				commons.queue.put1DRangeKernel(compactActiveList, 0,
-						SpringlsCommon3D.roundToWorkgroupPower(
-								1 + (activeListSize / STRIDE), 1), 1);
+				commons.profiler.put1DRangeKernel(commons.queue,
+						compactActiveList, 0,
+						SpringlsCommon3D.roundToWorkgroupPower(1
+								+ (activeListSize / STRIDE), 1),
+						1);
 
 			}
 			activeListSize = newElements;
-			commons.queue.finish();
 			CLBuffer<IntBuffer> tmp = activeListBuffer;
 			activeListBuffer = tmpActiveBuffer;
 			tmpActiveBuffer = tmp;
@@ -312,15 +319,17 @@ public class SpringlsEvolveLevelSet3D {
 					.putArgs(offsetBuffer, activeListBuffer,
 							newSignedLevelSetBuffer).putArg(activeListSize)
 					.putArg(nn).rewind();
-			commons.queue.put1DRangeKernel(addCountActiveList, 0,
-					SpringlsCommon3D.roundToWorkgroupPower(
-							1 + (activeListSize / STRIDE), 1), 1);
+			commons.profiler.put1DRangeKernel(commons.queue, addCountActiveList,
+					0,
+					SpringlsCommon3D.roundToWorkgroupPower(1 + (activeListSize
+							/ STRIDE), 1),
+					1);
 		}
 		prefixScanList.putArgs(offsetBuffer, maxValueBuffer)
 				.putArg(6 * (1 + (activeListSize / STRIDE))).rewind();
-		commons.queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
-		commons.queue.finish();
-		commons.queue.putReadBuffer(maxValueBuffer, true);
+		commons.profiler.put1DRangeKernel(commons.queue, prefixScanList, 0, 1,
+				1);
+		commons.profiler.putReadBuffer(commons.queue, maxValueBuffer, true);
 		int addElements = maxValueBuffer.getBuffer().get(0);
 		int newElements = addElements + activeListSize;
 		// System.out.println(activeListSize + " ADDED " + addElements);
@@ -336,13 +345,14 @@ public class SpringlsEvolveLevelSet3D {
 								commons.signedLevelSetBuffer,
 								newSignedLevelSetBuffer).putArg(activeListSize)
 						.putArg(nn).rewind();
-				commons.queue.put1DRangeKernel(expandActiveList, 0,
-						SpringlsCommon3D.roundToWorkgroupPower(
-								1 + (activeListSize / STRIDE), 1), 1);
+				commons.profiler.put1DRangeKernel(commons.queue,
+						expandActiveList, 0,
+						SpringlsCommon3D.roundToWorkgroupPower(1
+								+ (activeListSize / STRIDE), 1),
+						1);
 			}
 		}
 		activeListSize = newElements;
-		commons.queue.finish();
 		return addElements;
 	}
 
@@ -374,31 +384,30 @@ public class SpringlsEvolveLevelSet3D {
 			newSignedLevelSetBuffer.getBuffer()
 					.put(commons.signedLevelSetBuffer.getBuffer()).rewind();
 			commons.signedLevelSetBuffer.getBuffer().rewind();
-			commons.queue.putWriteBuffer(newSignedLevelSetBuffer, true);
+			commons.profiler.putWriteBuffer(commons.queue,
+					newSignedLevelSetBuffer, true);
 		}
 		final CLKernel initIndexMap = commons.kernelMap.get("initIndexMapNB");
 		initIndexMap.setArgs(commons.indexBuffer);
-		commons.queue.put1DRangeKernel(
-				initIndexMap,
-				0,
-				SpringlsCommon3D.roundToWorkgroupPower(commons.rows
-						* commons.cols * commons.slices),
+		commons.profiler.put1DRangeKernel(commons.queue, initIndexMap, 0,
+				SpringlsCommon3D.roundToWorkgroupPower(commons.rows * commons
+						.cols * commons.slices),
 				SpringlsCommon3D.WORKGROUP_SIZE);
 		CLBuffer<IntBuffer> rebuildOffsetBuffer = commons.context
 				.createIntBuffer(commons.slices, READ_WRITE, USE_BUFFER);
 		countActiveList.putArgs(rebuildOffsetBuffer,
 				commons.signedLevelSetBuffer, newSignedLevelSetBuffer).rewind();
 
-		commons.queue.put1DRangeKernel(countActiveList, 0, SpringlsCommon3D
-				.roundToWorkgroupPower(commons.slices,
-						SpringlsCommon3D.WORKGROUP_SIZE / 4),
+		commons.profiler.put1DRangeKernel(commons.queue, countActiveList, 0,
+				SpringlsCommon3D.roundToWorkgroupPower(commons
+						.slices, SpringlsCommon3D.WORKGROUP_SIZE / 4),
 				SpringlsCommon3D.WORKGROUP_SIZE / 4);
 		prefixScanList.putArgs(rebuildOffsetBuffer, maxValueBuffer)
 				.putArg(commons.slices).rewind();
-		commons.queue.put1DRangeKernel(prefixScanList, 0, 1, 1);
+		commons.profiler.put1DRangeKernel(commons.queue, prefixScanList, 0, 1,
+				1);
 
-		commons.queue.finish();
-		commons.queue.putReadBuffer(maxValueBuffer, true);
+		commons.profiler.putReadBuffer(commons.queue, maxValueBuffer, true);
 		activeListSize = maxValueBuffer.getBuffer().get(0);
 		activeListArraySize = (int) Math.min(
 				commons.rows * commons.cols * commons.slices,
@@ -420,11 +429,10 @@ public class SpringlsEvolveLevelSet3D {
 
 		buildActiveList.putArgs(rebuildOffsetBuffer, activeListBuffer,
 				commons.signedLevelSetBuffer).rewind();
-		commons.queue.put1DRangeKernel(buildActiveList, 0, SpringlsCommon3D
-				.roundToWorkgroupPower(commons.slices,
-						SpringlsCommon3D.WORKGROUP_SIZE / 4),
+		commons.profiler.put1DRangeKernel(commons.queue, buildActiveList, 0,
+				SpringlsCommon3D.roundToWorkgroupPower(commons
+						.slices, SpringlsCommon3D.WORKGROUP_SIZE / 4),
 				SpringlsCommon3D.WORKGROUP_SIZE / 4);
-		commons.queue.finish();
 		rebuildOffsetBuffer.release();
 		if (offsetBuffer != null) {
 			offsetBuffer.release();
@@ -463,14 +471,12 @@ public class SpringlsEvolveLevelSet3D {
 		for (int i = MAX_LAYERS - 1; i < layers; i++) {
 			extendDistanceField.putArgs(commons.signedLevelSetBuffer).putArg(i)
 					.rewind();
-			commons.queue.put1DRangeKernel(
-					extendDistanceField,
-					0,
+			commons.profiler.put1DRangeKernel(commons.queue,
+					extendDistanceField, 0,
 					SpringlsCommon3D.roundToWorkgroupPower(commons.rows
 							* commons.cols * commons.slices),
 					SpringlsCommon3D.WORKGROUP_SIZE);
 		}
-		commons.queue.finish();
 	}
 
 	/**
@@ -485,14 +491,12 @@ public class SpringlsEvolveLevelSet3D {
 		for (int i = 0; i < layers; i++) {
 			extendDistanceField.putArgs(commons.unsignedLevelSetBuffer)
 					.putArg(i).rewind();
-			commons.queue.put1DRangeKernel(
-					extendDistanceField,
-					0,
+			commons.profiler.put1DRangeKernel(commons.queue,
+					extendDistanceField, 0,
 					SpringlsCommon3D.roundToWorkgroupPower(commons.rows
 							* commons.cols * commons.slices),
 					SpringlsCommon3D.WORKGROUP_SIZE);
 		}
-		commons.queue.finish();
 	}
 
 	/**
@@ -560,8 +564,8 @@ public class SpringlsEvolveLevelSet3D {
 						.putArg(commons.flip ? -1 : 1).putArg(stepSize)
 						.putArg(curvatureWeight * stepSize)
 						.putArg(activeListSize).putArg(nn).rewind();
-				commons.queue.put1DRangeKernel(evolveLevelSet, 0, global_size,
-						SpringlsCommon3D.WORKGROUP_SIZE);
+				commons.profiler.put1DRangeKernel(commons.queue, evolveLevelSet,
+						0, global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 			}
 		} else {
 			evolveLevelSet
@@ -570,15 +574,16 @@ public class SpringlsEvolveLevelSet3D {
 							newSignedLevelSetBuffer).putArg(stepSize)
 					.putArg(curvatureWeight * stepSize).putArg(activeListSize)
 					.rewind();
-			commons.queue.put1DRangeKernel(evolveLevelSet, 0, global_size,
-					SpringlsCommon3D.WORKGROUP_SIZE);
+			commons.profiler.put1DRangeKernel(commons.queue, evolveLevelSet, 0,
+					global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 		}
 		for (int i = 1; i <= MAX_LAYERS; i++) {
 			updateDistanceField
 					.putArgs(activeListBuffer, commons.signedLevelSetBuffer,
 							newSignedLevelSetBuffer).putArg(i)
 					.putArg(activeListSize).rewind();
-			commons.queue.put1DRangeKernel(updateDistanceField, 0, global_size,
+			commons.profiler.put1DRangeKernel(commons.queue,
+					updateDistanceField, 0, global_size,
 					SpringlsCommon3D.WORKGROUP_SIZE);
 		}
 
@@ -586,16 +591,16 @@ public class SpringlsEvolveLevelSet3D {
 			final CLKernel plugLevelSet = commons.kernelMap.get("plugLevelSet");
 			plugLevelSet.putArgs(activeListBuffer, newSignedLevelSetBuffer)
 					.putArg(activeListSize).rewind();
-			commons.queue.put1DRangeKernel(plugLevelSet, 0, global_size,
-					SpringlsCommon3D.WORKGROUP_SIZE);
+			commons.profiler.put1DRangeKernel(commons.queue, plugLevelSet, 0,
+					global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 		}
 		if (useAdaptiveActiveSet) {
 			copyBuffers
 					.putArgs(activeListBuffer, commons.signedLevelSetBuffer,
 							newSignedLevelSetBuffer).putArg(activeListSize)
 					.rewind();
-			commons.queue.put1DRangeKernel(copyBuffers, 0, global_size,
-					SpringlsCommon3D.WORKGROUP_SIZE);
+			commons.profiler.put1DRangeKernel(commons.queue, copyBuffers, 0,
+					global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 			final CLKernel rememberImageLabels = commons.kernelMap
 					.get("rememberImageLabels");
 			final CLKernel diffImageLabels = commons.kernelMap
@@ -603,9 +608,8 @@ public class SpringlsEvolveLevelSet3D {
 			if ((time) % sampling_interval == 0) {
 				rememberImageLabels.putArgs(newSignedLevelSetBuffer,
 						historyBuffer).rewind();
-				commons.queue.put1DRangeKernel(
-						rememberImageLabels,
-						0,
+				commons.profiler.put1DRangeKernel(commons.queue,
+						rememberImageLabels, 0,
 						SpringlsCommon3D.roundToWorkgroupPower(commons.rows
 								* commons.cols * commons.slices),
 						SpringlsCommon3D.WORKGROUP_SIZE);
@@ -614,9 +618,8 @@ public class SpringlsEvolveLevelSet3D {
 				diffImageLabels.putArgs(newSignedLevelSetBuffer, historyBuffer)
 						.rewind();
 
-				commons.queue.put1DRangeKernel(
-						diffImageLabels,
-						0,
+				commons.profiler.put1DRangeKernel(commons.queue,
+						diffImageLabels, 0,
 						SpringlsCommon3D.roundToWorkgroupPower(commons.rows
 								* commons.cols * commons.slices),
 						SpringlsCommon3D.WORKGROUP_SIZE);
@@ -627,8 +630,9 @@ public class SpringlsEvolveLevelSet3D {
 					for (int kk = 0; kk < 8; kk++) {
 						dilateLabels.putArgs(activeListBuffer, historyBuffer)
 								.putArg(activeListSize).putArg(kk).rewind();
-						commons.queue.put1DRangeKernel(dilateLabels, 0,
-								global_size, SpringlsCommon3D.WORKGROUP_SIZE);
+						commons.profiler.put1DRangeKernel(commons.queue,
+								dilateLabels, 0, global_size,
+								SpringlsCommon3D.WORKGROUP_SIZE);
 					}
 				}
 				final CLKernel markStaticSpringls = commons.kernelMap
@@ -636,8 +640,9 @@ public class SpringlsEvolveLevelSet3D {
 				markStaticSpringls
 						.putArgs(commons.capsuleBuffer, historyBuffer)
 						.putArg(commons.elements).rewind();
-				commons.queue.put1DRangeKernel(markStaticSpringls, 0,
-						commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
+				commons.profiler.put1DRangeKernel(commons.queue,
+						markStaticSpringls, 0, commons.arrayLength,
+						SpringlsCommon3D.WORKGROUP_SIZE);
 
 			}
 		} else {
@@ -645,8 +650,8 @@ public class SpringlsEvolveLevelSet3D {
 					.putArgs(activeListBuffer, commons.signedLevelSetBuffer,
 							newSignedLevelSetBuffer).putArg(activeListSize)
 					.rewind();
-			commons.queue.put1DRangeKernel(copyBuffers, 0, global_size,
-					SpringlsCommon3D.WORKGROUP_SIZE);
+			commons.profiler.put1DRangeKernel(commons.queue, copyBuffers, 0,
+					global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 		}
 
 	}
@@ -72,8 +72,8 @@ public class SpringlsExpand3D {
 				.get(SpringlsCommon3D.EXPAND_ARRAY);
 		expandCount.putArgs(commons.capsuleBuffer, offsets)
 				.putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(expandCount, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, expandCount, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		int total = (commons).scan.scan(offsets, commons.elements);
 		int oldElements = commons.elements;
 		commons.elements = total;
@@ -92,10 +92,9 @@ public class SpringlsExpand3D {
 				.putArgs(commons.capsuleBuffer, commons.springlLabelBuffer,
 						capsuleBuffer2, labelBuffer2, offsets)
 				.putArg(oldElements).rewind();
-		commons.queue.put1DRangeKernel(expandArray, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, expandArray, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 
-		commons.queue.finish();
 		commons.springlLabelBuffer.release();
 		commons.springlLabelBuffer = labelBuffer2;
 		commons.capsuleBuffer.release();
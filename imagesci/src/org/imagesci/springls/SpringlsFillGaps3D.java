@@ -94,10 +94,9 @@ public class SpringlsFillGaps3D {
 				.putArg((commons.flip) ? -1 : 1).putArg(activeListSize)
 				.rewind();
 
-		commons.queue.put1DRangeKernel(fillGapCount, 0,
+		commons.profiler.put1DRangeKernel(commons.queue, fillGapCount, 0,
 				SpringlsCommon3D.roundToWorkgroupPower(activeListSize),
 				SpringlsCommon3D.WORKGROUP_SIZE);
-		commons.queue.finish();
 
 		int oldElements = commons.elements;
 		int sum = (commons).scan.scan(offsets, activeListSize);
@@ -120,13 +119,12 @@ public class SpringlsFillGaps3D {
 					.putArgs(commons.capsuleBuffer, commons.springlLabelBuffer,
 							capsuleBuffer2, labelBuffer2).putArg(oldElements)
 					.rewind();
-			commons.queue.put1DRangeKernel(copyElements, 0, oldArrayLength,
-					SpringlsCommon3D.WORKGROUP_SIZE);
+			commons.profiler.put1DRangeKernel(commons.queue, copyElements, 0,
+					oldArrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		} else {
 			labelBuffer2 = commons.springlLabelBuffer;
 			capsuleBuffer2 = commons.capsuleBuffer;
 		}
-		commons.queue.finish();
 		expandGaps
 				.putArgs(capsuleBuffer2, labelBuffer2,
 						commons.signedLevelSetBuffer,
@@ -135,10 +133,9 @@ public class SpringlsFillGaps3D {
 						commons.a2iTriangleConnectionTableBuffer)
 				.putArg((commons.flip) ? -1 : 1).putArg(oldElements)
 				.putArg(activeListSize).rewind();
-		commons.queue.put1DRangeKernel(expandGaps, 0,
+		commons.profiler.put1DRangeKernel(commons.queue, expandGaps, 0,
 				SpringlsCommon3D.roundToWorkgroupPower(activeListSize),
 				SpringlsCommon3D.WORKGROUP_SIZE);
-		commons.queue.finish();
 
 		if (commons.springlLabelBuffer != labelBuffer2) {
 			commons.springlLabelBuffer.release();
@@ -148,7 +145,6 @@ public class SpringlsFillGaps3D {
 			commons.capsuleBuffer.release();
 		}
 		commons.capsuleBuffer = capsuleBuffer2;
-		commons.queue.finish();
 		return commons.elements - oldElements;
 	}
 
@@ -162,8 +158,8 @@ public class SpringlsFillGaps3D {
 						commons.originalUnsignedLevelSetBuffer,
 						commons.springlLabelBuffer).putArg(commons.elements)
 				.rewind();
-		commons.queue.put1DRangeKernel(fixLabels, 0, commons.arrayLength,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, fixLabels, 0,
+				commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		commons.queue.finish();
 	}
 }
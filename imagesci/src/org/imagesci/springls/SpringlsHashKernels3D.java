@@ -0,0 +1,637 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.springls;
+
+import java.util.Arrays;
+
+import org.imagesci.utility.ParallelUtil;
+
+/**
+ * The Class SpringlsHashKernels3D is a multi-threaded Java implementation of
+ * the spatial hash, nearest neighbor and unsigned level set kernels in
+ * SpringlsNearestNeighbors3D.cl. It is used by {@link SpringlsSpatialHash3D}
+ * for headless runs on CPU. Springls use the same layout as the capsule
+ * buffer, 16 floats per springl (particle, then three vertexes), and the
+ * capsule neighbor table uses the same layout as the capsule neighbor buffer,
+ * {@link SpringlsConstants#maxNeighbors} (capsule id, vertex id) pairs per
+ * springl vertex terminated by a capsule id of -1.
+ * 
+ * The spatial hash is a flat cell list over the active voxels that is built
+ * with a stable counting sort, so unlike the OpenCL look-up table the number
+ * of springls per cell is not capped at MAX_BIN_SIZE-1.
+ */
+public class SpringlsHashKernels3D {
+
+	/** The number of floats per springl. */
+	public static final int FLOATS_PER_SPRINGL = 16;
+
+	/** The active list. */
+	public int[] activeList = null;
+
+	/** The active list size. */
+	public int activeListSize = 0;
+
+	/** The capsule neighbor table. */
+	public int[] capsuleNeighbors = null;
+
+	/** The springls. */
+	public float[] capsules = null;
+
+	/** The offset of each cell in the cell springls, indexed by active slot. */
+	public int[] cellOffsets = null;
+
+	/** The springls in each cell, sorted by cell. */
+	public int[] cellSpringls = null;
+
+	/** The number of springls. */
+	public int elements = 0;
+
+	/** The neighbor search radius. */
+	protected float maxRadius;
+
+	/** The vertex extent. */
+	protected float maxVExtent;
+
+	/** The scale factors between springl and hash coordinates. */
+	protected float scaleUp, scaleDown;
+
+	/** The active slot of each voxel, or -1 if the voxel is not active. */
+	public int[] indexMap;
+
+	/** The (cell, springl) pairs generated by each slab of springls. */
+	protected int[][] slabPairs = null;
+
+	/** The number of pairs generated by each slab of springls. */
+	protected int[] slabPairCounts = null;
+
+	/**
+	 * The number of pairs of each slab in each cell, and then the write offset
+	 * of each slab in each cell. It only grows between updates.
+	 */
+	protected int[] slabCellCounts = null;
+
+	/** The image dimensions. */
+	protected int rows, cols, slices;
+
+	/**
+	 * Instantiates new springls hash kernels. Like the OpenCL program, the
+	 * kernels use the values in {@link SpringlsConstants} at construction.
+	 * 
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the cols
+	 * @param slices
+	 *            the slices
+	 */
+	public SpringlsHashKernels3D(int rows, int cols, int slices) {
+		this.rows = rows;
+		this.cols = cols;
+		this.slices = slices;
+		maxRadius = (float) SpringlsConstants.nearestNeighborDistance
+				* SpringlsConstants.scaleDown;
+		maxVExtent = (float) SpringlsConstants.vExtent;
+		scaleUp = SpringlsConstants.scaleUp;
+		scaleDown = SpringlsConstants.scaleDown;
+		indexMap = new int[rows * cols * slices];
+		Arrays.fill(indexMap, -1);
+	}
+
+	/**
+	 * Squared distance between a point and a triangle edge.
+	 * 
+	 * @param px
+	 *            the point x
+	 * @param py
+	 *            the point y
+	 * @param pz
+	 *            the point z
+	 * @param capsules
+	 *            the springls
+	 * @param v1
+	 *            the offset of the first edge point
+	 * @param v2
+	 *            the offset of the second edge point
+	 * @return the squared distance
+	 */
+	public static float edgeDistanceSquared(float px, float py, float pz,
+			float[] capsules, int v1, int v2) {
+		float x1 = capsules[v1], y1 = capsules[v1 + 1], z1 = capsules[v1 + 2];
+		float dx = capsules[v2] - x1;
+		float dy = capsules[v2 + 1] - y1;
+		float dz = capsules[v2 + 2] - z1;
+		float len = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		float cx = x1, cy = y1, cz = z1;
+		if (len > 0) {
+			dx /= len;
+			dy /= len;
+			dz /= len;
+			float param = dx * (px - x1) + dy * (py - y1) + dz * (pz - z1);
+			if (0 < param) {
+				if (param < len) {
+					cx = dx * param + x1;
+					cy = dy * param + y1;
+					cz = dz * param + z1;
+				} else {
+					cx = capsules[v2];
+					cy = capsules[v2 + 1];
+					cz = capsules[v2 + 2];
+				}
+			}
+		}
+		cx -= px;
+		cy -= py;
+		cz -= pz;
+		return cx * cx + cy * cy + cz * cz;
+	}
+
+	/**
+	 * Squared distance between a point and the triangle of a springl. The
+	 * implementation follows distanceSquaredTriangle() in
+	 * SpringlsNearestNeighbors3D.cl, which is from geometric tools
+	 * (http://www.geometrictools.com).
+	 * 
+	 * @param px
+	 *            the point x
+	 * @param py
+	 *            the point y
+	 * @param pz
+	 *            the point z
+	 * @param capsules
+	 *            the springls
+	 * @param id
+	 *            the springl id
+	 * @return the squared distance
+	 */
+	public static float distanceSquared(float px, float py, float pz,
+			float[] capsules, int id) {
+		int off = id * FLOATS_PER_SPRINGL + 4;
+		float bx = capsules[off];
+		float by = capsules[off + 1];
+		float bz = capsules[off + 2];
+		float e0x = capsules[off + 4] - bx;
+		float e0y = capsules[off + 5] - by;
+		float e0z = capsules[off + 6] - bz;
+		float e1x = capsules[off + 8] - bx;
+		float e1y = capsules[off + 9] - by;
+		float e1z = capsules[off + 10] - bz;
+		float dvx = bx - px, dvy = by - py, dvz = bz - pz;
+		float a = e0x * e0x + e0y * e0y + e0z * e0z;
+		float b = e0x * e1x + e0y * e1y + e0z * e1z;
+		float c = e1x * e1x + e1y * e1y + e1z * e1z;
+		float d = e0x * dvx + e0y * dvy + e0z * dvz;
+		float e = e1x * dvx + e1y * dvy + e1z * dvz;
+		float det = a * c - b * b;
+		float s = b * e - c * d;
+		float t = b * d - a * e;
+		if (s + t <= det) {
+			if (s < 0) {
+				if (t < 0) {
+					// Region 4
+					float tmp0 = c + e;
+					float tmp1 = a + d;
+					if (tmp0 > tmp1) {
+						s = 0;
+						t = (tmp1 <= 0 ? 1 : (e >= 0 ? 0 : -e / c));
+					} else {
+						t = 0;
+						s = (tmp1 <= 0 ? 1 : (d >= 0 ? 0 : -d / a));
+					}
+				} else {
+					// Region 3
+					s = 0;
+					t = (e >= 0 ? 0 : (-e >= c ? 1 : -e / c));
+				}
+			} else if (t < 0) {
+				// Region 5
+				t = 0;
+				s = (d >= 0 ? 0 : (-d >= a ? 1 : -d / a));
+			} else {
+				// Region 0
+				float invDet = 1.0f / det;
+				s *= invDet;
+				t *= invDet;
+			}
+		} else {
+			if (s < 0) {
+				// Region 2
+				float tmp0 = b + d;
+				float tmp1 = c + e;
+				if (tmp1 > tmp0) {
+					float numer = tmp1 - tmp0;
+					float denom = a - 2 * b + c;
+					s = (numer >= denom ? 1 : numer / denom);
+					t = 1 - s;
+				} else {
+					s = 0;
+					t = (tmp1 <= 0 ? 1 : (e >= 0 ? 0 : -e / c));
+				}
+			} else if (t < 0) {
+				// Region 6
+				float tmp0 = b + e;
+				float tmp1 = a + d;
+				if (tmp1 > tmp0) {
+					float numer = tmp1 - tmp0;
+					float denom = c - 2 * b + a;
+					t = (numer >= denom ? 1 : numer / denom);
+					s = 1 - t;
+				} else {
+					t = 0;
+					s = (tmp1 <= 0 ? 1 : (d >= 0 ? 0 : -d / a));
+				}
+			} else {
+				// Region 1
+				float numer = c + e - b - d;
+				if (numer < 0) {
+					s = 0;
+				} else {
+					float denom = a - 2 * b + c;
+					s = (numer >= denom ? 1 : numer / denom);
+				}
+				t = 1 - s;
+			}
+		}
+		float dx = bx + s * e0x + t * e1x - px;
+		float dy = by + s * e0y + t * e1y - py;
+		float dz = bz + s * e0z + t * e1z - pz;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Gets the lower grid bound of a coordinate in the spatial hash.
+	 * 
+	 * @param x
+	 *            the coordinate
+	 * @return the lower bound
+	 */
+	protected int getLower(float x) {
+		return (int) Math.max(0, Math.floor(x * scaleUp));
+	}
+
+	/**
+	 * Gets the exclusive upper grid bound of a coordinate in the spatial hash.
+	 * 
+	 * @param x
+	 *            the coordinate
+	 * @param max
+	 *            the largest grid index
+	 * @return the upper bound
+	 */
+	protected int getUpper(float x, int max) {
+		return (int) Math.min(max, Math.ceil(x * scaleUp) + 1);
+	}
+
+	/**
+	 * Gets the safe index.
+	 * 
+	 * @param i
+	 *            the i
+	 * @param j
+	 *            the j
+	 * @param k
+	 *            the k
+	 * @return the safe index
+	 */
+	protected int getSafeIndex(int i, int j, int k) {
+		int r = Math.max(0, Math.min(i, rows - 1));
+		int c = Math.max(0, Math.min(j, cols - 1));
+		int s = Math.max(0, Math.min(k, slices - 1));
+		return (s * (rows * cols)) + (c * rows) + r;
+	}
+
+	/**
+	 * Sets the active list and updates the index map. The active list is
+	 * copied.
+	 * 
+	 * @param list
+	 *            the active list
+	 * @param size
+	 *            the active list size
+	 */
+	public void setActiveList(int[] list, int size) {
+		for (int i = 0; i < activeListSize; i++) {
+			indexMap[activeList[i]] = -1;
+		}
+		if (activeList == null || activeList.length < size) {
+			activeList = new int[size];
+		}
+		System.arraycopy(list, 0, activeList, 0, size);
+		activeListSize = size;
+		for (int i = 0; i < size; i++) {
+			indexMap[list[i]] = i;
+		}
+	}
+
+	/**
+	 * Sets the springls.
+	 * 
+	 * @param capsules
+	 *            the springls, 16 floats per springl
+	 * @param elements
+	 *            the number of springls
+	 */
+	public void setSpringls(float[] capsules, int elements) {
+		this.capsules = capsules;
+		this.elements = elements;
+	}
+
+	/**
+	 * Update nearest neighbors. For each springl vertex, the springls in the
+	 * cells around the vertex are gathered into a per-thread candidate buffer
+	 * of {@link SpringlsConstants#maxNearestBins} entries, sorted and reduced
+	 * to the springl edges that lie within the neighbor search radius.
+	 */
+	public void updateNearestNeighbors() {
+		final int stride = 2 * SpringlsConstants.maxNeighbors;
+		int size = stride * 3 * elements;
+		if (capsuleNeighbors == null || capsuleNeighbors.length < size) {
+			capsuleNeighbors = new int[size];
+		}
+		ParallelUtil.forRange(0, 3 * elements, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				int[] nbrs = new int[SpringlsConstants.maxNearestBins];
+				for (int gid = start; gid < end; gid++) {
+					int count = mapNearestNeighbors(gid, nbrs);
+					Arrays.sort(nbrs, 0, count);
+					reduceNearestNeighbors(gid, nbrs, count, gid * stride);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Update spatial hash. Each slab of springls records the (cell, springl)
+	 * pairs for the active voxels within twice the vertex extent of its
+	 * springls, then the pairs are sorted by cell with a counting sort.
+	 * Springls within a cell are in ascending order.
+	 */
+	public void updateSpatialHash() {
+		final int slabs = Math.max(1,
+				Math.min(ParallelUtil.getThreadCount(), elements / 64));
+		final int cells = activeListSize;
+		if (slabPairs == null || slabPairs.length != slabs) {
+			slabPairs = new int[slabs][64];
+			slabPairCounts = new int[slabs];
+		}
+		ParallelUtil.forRange(0, slabs, slabs, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					int first = (int) ((long) elements * s / slabs);
+					int last = (int) ((long) elements * (s + 1) / slabs);
+					splatSpringls(s, first, last);
+				}
+			}
+		});
+		if (slabCellCounts == null || slabCellCounts.length < slabs * cells) {
+			slabCellCounts = new int[slabs * cells];
+		} else {
+			Arrays.fill(slabCellCounts, 0, slabs * cells, 0);
+		}
+		final int[] slabCounts = slabCellCounts;
+		ParallelUtil.forRange(0, slabs, slabs, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					int[] pairs = slabPairs[s];
+					int n = slabPairCounts[s];
+					int off = s * cells;
+					for (int i = 0; i < n; i += 2) {
+						slabCounts[off + pairs[i]]++;
+					}
+				}
+			}
+		});
+		if (cellOffsets == null || cellOffsets.length < cells + 1) {
+			cellOffsets = new int[cells + 1];
+		}
+		int total = 0;
+		for (int c = 0; c < cells; c++) {
+			cellOffsets[c] = total;
+			for (int s = 0; s < slabs; s++) {
+				int n = slabCounts[s * cells + c];
+				slabCounts[s * cells + c] = total;
+				total += n;
+			}
+		}
+		cellOffsets[cells] = total;
+		if (cellSpringls == null || cellSpringls.length < total) {
+			cellSpringls = new int[Math.max(total, 1)];
+		}
+		ParallelUtil.forRange(0, slabs, slabs, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					int[] pairs = slabPairs[s];
+					int n = slabPairCounts[s];
+					int off = s * cells;
+					for (int i = 0; i < n; i += 2) {
+						int c = pairs[i];
+						cellSpringls[slabCounts[off + c]++] = pairs[i + 1];
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Update unsigned level set. The unsigned distance to the nearest springl
+	 * in the cell of each active voxel is stored in the level set.
+	 * 
+	 * @param levelSet
+	 *            the unsigned level set
+	 */
+	public void updateUnsignedLevelSet(final float[] levelSet) {
+		ParallelUtil.forRange(0, activeListSize, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				float maxValue = (0.1f + maxVExtent) * (0.1f + maxVExtent);
+				float scale = scaleDown;
+				for (int gid = start; gid < end; gid++) {
+					int id = activeList[gid];
+					int k = id / (rows * cols);
+					int ij = id - k * (rows * cols);
+					int j = ij / rows;
+					int i = ij - j * rows;
+					float px = i * scale, py = j * scale, pz = k * scale;
+					float value = maxValue;
+					int last = cellOffsets[gid + 1];
+					for (int n = cellOffsets[gid]; n < last; n++) {
+						float d2 = distanceSquared(px, py, pz, capsules,
+								cellSpringls[n]);
+						if (d2 < value) {
+							value = d2;
+						}
+					}
+					levelSet[id] = (float) Math.sqrt(value);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gather the springls in the cells around a springl vertex.
+	 * 
+	 * @param gid
+	 *            the springl vertex index, 3*springl+vertex
+	 * @param nbrs
+	 *            the candidate buffer
+	 * @return the number of candidates
+	 */
+	protected int mapNearestNeighbors(int gid, int[] nbrs) {
+		int id = gid / 3;
+		int pt = id * FLOATS_PER_SPRINGL + 4 * (gid - 3 * id + 1);
+		float x = capsules[pt], y = capsules[pt + 1], z = capsules[pt + 2];
+		int lowerRow = getLower(x - maxRadius);
+		int lowerCol = getLower(y - maxRadius);
+		int lowerSlice = getLower(z - maxRadius);
+		int upperRow = getUpper(x + maxRadius, rows - 1);
+		int upperCol = getUpper(y + maxRadius, cols - 1);
+		int upperSlice = getUpper(z + maxRadius, slices - 1);
+		int offset = 0;
+		for (int k = lowerSlice; k < upperSlice; k++) {
+			for (int j = lowerCol; j < upperCol; j++) {
+				for (int i = lowerRow; i < upperRow; i++) {
+					int slot = indexMap[getSafeIndex(i, j, k)];
+					if (slot < 0) {
+						continue;
+					}
+					int last = cellOffsets[slot + 1];
+					for (int n = cellOffsets[slot]; n < last; n++) {
+						int cid = cellSpringls[n];
+						if (cid != id) {
+							nbrs[offset++] = cid;
+							if (offset >= nbrs.length) {
+								return offset;
+							}
+						}
+					}
+				}
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Reduce the sorted candidates of a springl vertex to the springl edges
+	 * within the neighbor search radius.
+	 * 
+	 * @param gid
+	 *            the springl vertex index, 3*springl+vertex
+	 * @param nbrs
+	 *            the sorted candidates
+	 * @param count
+	 *            the number of candidates
+	 * @param out
+	 *            the offset in the capsule neighbor table
+	 */
+	protected void reduceNearestNeighbors(int gid, int[] nbrs, int count,
+			int out) {
+		int id = gid / 3;
+		int pt = id * FLOATS_PER_SPRINGL + 4 * (gid - 3 * id + 1);
+		float x = capsules[pt], y = capsules[pt + 1], z = capsules[pt + 2];
+		float minDistSquared = maxRadius * maxRadius;
+		int maxNeighbors = SpringlsConstants.maxNeighbors;
+		int lastNeighborId = -1;
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			int cid = nbrs[i];
+			if (cid == lastNeighborId) {
+				continue;
+			}
+			lastNeighborId = cid;
+			int v = cid * FLOATS_PER_SPRINGL + 4;
+			for (int e = 0; e < 3; e++) {
+				if (edgeDistanceSquared(x, y, z, capsules, v + 4 * e, v + 4
+						* ((e + 1) % 3)) < minDistSquared) {
+					capsuleNeighbors[out + 2 * offset] = cid;
+					capsuleNeighbors[out + 2 * offset + 1] = e;
+					offset++;
+					if (offset >= maxNeighbors) {
+						return;
+					}
+				}
+			}
+		}
+		capsuleNeighbors[out + 2 * offset] = -1;
+	}
+
+	/**
+	 * Record the (cell, springl) pairs for a slab of springls.
+	 * 
+	 * @param slab
+	 *            the slab
+	 * @param first
+	 *            the first springl
+	 * @param last
+	 *            the springl after the last springl
+	 */
+	protected void splatSpringls(int slab, int first, int last) {
+		int[] pairs = slabPairs[slab];
+		int n = 0;
+		float scale = scaleDown;
+		float maxDist = 4 * maxVExtent * maxVExtent;
+		for (int id = first; id < last; id++) {
+			int v = id * FLOATS_PER_SPRINGL + 4;
+			float minX = Math.min(capsules[v], Math.min(capsules[v + 4],
+					capsules[v + 8]));
+			float minY = Math.min(capsules[v + 1], Math.min(capsules[v + 5],
+					capsules[v + 9]));
+			float minZ = Math.min(capsules[v + 2], Math.min(capsules[v + 6],
+					capsules[v + 10]));
+			float maxX = Math.max(capsules[v], Math.max(capsules[v + 4],
+					capsules[v + 8]));
+			float maxY = Math.max(capsules[v + 1], Math.max(capsules[v + 5],
+					capsules[v + 9]));
+			float maxZ = Math.max(capsules[v + 2], Math.max(capsules[v + 6],
+					capsules[v + 10]));
+			int upperRow = getUpper(maxX, rows - 1);
+			int upperCol = getUpper(maxY, cols - 1);
+			int upperSlice = getUpper(maxZ, slices - 1);
+			for (int k = getLower(minZ); k < upperSlice; k++) {
+				for (int j = getLower(minY); j < upperCol; j++) {
+					for (int i = getLower(minX); i < upperRow; i++) {
+						int slot = indexMap[getSafeIndex(i, j, k)];
+						if (slot < 0
+								|| distanceSquared(i * scale, j * scale, k
+										* scale, capsules, id) > maxDist) {
+							continue;
+						}
+						if (n + 2 > pairs.length) {
+							pairs = Arrays.copyOf(pairs, pairs.length * 2);
+						}
+						pairs[n++] = slot;
+						pairs[n++] = id;
+					}
+				}
+			}
+		}
+		slabPairs[slab] = pairs;
+		slabPairCounts[slab] = n;
+	}
+}
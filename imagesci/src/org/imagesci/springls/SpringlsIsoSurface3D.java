@@ -117,8 +117,8 @@ public class SpringlsIsoSurface3D {
 		final CLKernel multiplyLevelSets = commons.kernelMap
 				.get("multiplyLevelSets");
 		initSignedLevelSet.putArg(commons.signedLevelSetBuffer).rewind();
-		commons.queue.put1DRangeKernel(initSignedLevelSet, 0, commons.rows
-				* commons.cols * commons.slices,
+		commons.profiler.put1DRangeKernel(commons.queue, initSignedLevelSet, 0,
+				commons.rows * commons.cols * commons.slices,
 				SpringlsCommon3D.WORKGROUP_SIZE);
 		int blockSize = commons.rows / (MAX_CYCLES);
 		CLBuffer<FloatBuffer> tmpSignedLevelSet = commons.context
@@ -138,7 +138,8 @@ public class SpringlsIsoSurface3D {
 						.putArgs(commons.unsignedLevelSetBuffer, buffIn,
 								buffOut).putArg(blockSize).rewind();
 
-				commons.queue.put1DRangeKernel(erodeLevelSet, 0, globalSize,
+				commons.profiler.put1DRangeKernel(commons.queue, erodeLevelSet,
+						0, globalSize,
 						Math.min(globalSize, SpringlsCommon3D.WORKGROUP_SIZE));
 				CLBuffer<FloatBuffer> tmp = buffOut;
 				buffOut = buffIn;
@@ -151,8 +152,8 @@ public class SpringlsIsoSurface3D {
 		tmpSignedLevelSet.release();
 		multiplyLevelSets.putArgs(commons.unsignedLevelSetBuffer,
 				commons.signedLevelSetBuffer).rewind();
-		commons.queue.put1DRangeKernel(multiplyLevelSets, 0, commons.rows
-				* commons.cols * commons.slices,
+		commons.profiler.put1DRangeKernel(commons.queue, multiplyLevelSets, 0,
+				commons.rows * commons.cols * commons.slices,
 				SpringlsCommon3D.WORKGROUP_SIZE);
 
 	}
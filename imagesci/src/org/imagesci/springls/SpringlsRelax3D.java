@@ -119,13 +119,11 @@ public class SpringlsRelax3D {
 				.putArg(commons.elements).rewind();
 
 		for (int i = 0; i < maxIterations; i++) {
-			commons.queue.put1DRangeKernel(relaxKernel, 0, commons.arrayLength,
-					SpringlsCommon3D.WORKGROUP_SIZE);
-			commons.queue.put1DRangeKernel(applyUpdates, 0,
+			commons.profiler.put1DRangeKernel(commons.queue, relaxKernel, 0,
+					commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
+			commons.profiler.put1DRangeKernel(commons.queue, applyUpdates, 0,
 					commons.arrayLength, SpringlsCommon3D.WORKGROUP_SIZE);
 		}
-
-		commons.queue.finish();
 	}
 
 	/**
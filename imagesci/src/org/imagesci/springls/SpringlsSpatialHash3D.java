@@ -29,6 +29,8 @@ package org.imagesci.springls;
 import static com.jogamp.opencl.CLMemory.Mem.READ_WRITE;
 import static com.jogamp.opencl.CLMemory.Mem.USE_BUFFER;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
 import com.jogamp.opencl.CLBuffer;
@@ -44,9 +46,33 @@ public class SpringlsSpatialHash3D {
 	/** The Constant DISTANCE_FIELD_EXTENT. */
 	protected static final int DISTANCE_FIELD_EXTENT = 4;
 
+	/** The active list read back from the active list buffer. */
+	protected int[] activeList = null;
+
+	/** The springls read back from the capsule buffer. */
+	protected float[] capsules = null;
+
+	/** The capsule buffer that the springls were read from. */
+	protected CLBuffer<ByteBuffer> capsulesSource = null;
+
+	/** The number of springls read. */
+	protected int capsulesElements = -1;
+
+	/** The profiler command count when the springls were read. */
+	protected long capsulesCommandCount = -1;
+
+	/** The unsigned level set read back for the java kernels. */
+	protected float[] levelSet = null;
+
 	/** The commons. */
 	protected SpringlsCommon3D commons;
 
+	/** The java backend. */
+	protected boolean javaBackend = false;
+
+	/** The java kernels. */
+	protected SpringlsHashKernels3D javaKernels = null;
+
 	/** The last active list array length. */
 	protected int lastActiveListArrayLength = -1;
 
@@ -69,17 +95,87 @@ public class SpringlsSpatialHash3D {
 		this.commons = commons;
 	}
 
+	/**
+	 * Gets the java kernels.
+	 * 
+	 * @return the java kernels, or null if the java backend is not used
+	 */
+	public SpringlsHashKernels3D getJavaKernels() {
+		return javaKernels;
+	}
+
+	/**
+	 * Checks if the spatial hash is computed in Java.
+	 * 
+	 * @return true, if the java backend is used
+	 */
+	public boolean isJavaBackend() {
+		return javaBackend;
+	}
+
+	/**
+	 * Compute the spatial hash, the nearest neighbors and the unsigned level
+	 * set on the host with {@link SpringlsHashKernels3D} instead of with
+	 * OpenCL kernels. The results are written to the same device buffers, so
+	 * the relax and level set stages are unaffected.
+	 * 
+	 * @param javaBackend
+	 *            the java backend
+	 */
+	public void setJavaBackend(boolean javaBackend) {
+		this.javaBackend = javaBackend;
+		if (javaBackend && javaKernels == null) {
+			javaKernels = new SpringlsHashKernels3D(commons.rows,
+					commons.cols, commons.slices);
+		}
+	}
+
+	/**
+	 * Read springls from the capsule buffer into the java kernels.
+	 */
+	protected void readSpringls() {
+		int size = SpringlsHashKernels3D.FLOATS_PER_SPRINGL * commons.elements;
+		if (capsules == null || capsules.length < size) {
+			capsules = new float[size];
+		}
+		commons.profiler.putReadBuffer(commons.queue, commons.capsuleBuffer,
+				true);
+		ByteBuffer buff = commons.capsuleBuffer.getBuffer();
+		buff.rewind();
+		buff.asFloatBuffer().get(capsules, 0, size);
+		javaKernels.setSpringls(capsules, commons.elements);
+		capsulesSource = commons.capsuleBuffer;
+		capsulesElements = commons.elements;
+		capsulesCommandCount = commons.profiler.getCommandCount();
+	}
+
+	/**
+	 * Read springls into the java kernels unless the last copy is still
+	 * current. The copy is current if the capsule buffer is the same and no
+	 * kernel or write has been enqueued since it was read.
+	 */
+	protected void readSpringlsIfChanged() {
+		if (capsulesSource != commons.capsuleBuffer
+				|| capsulesElements != commons.elements
+				|| capsulesCommandCount != commons.profiler.getCommandCount()) {
+			readSpringls();
+		}
+	}
+
 	/**
 	 * Update nearest neighbors.
 	 */
 	public void updateNearestNeighbors() {
+		if (javaBackend) {
+			updateNearestNeighborsJava();
+			return;
+		}
 		final CLKernel mapNearestNeighbors = commons.kernelMap
 				.get(SpringlsCommon3D.MAP_NEAREST_NEIGHBORS);
 		final CLKernel sortNearestNeighbors = commons.kernelMap
 				.get(SpringlsCommon3D.SORT_NEAREST_NEIGHBORS);
 		final CLKernel reduceNearestNeighbors = commons.kernelMap
 				.get(SpringlsCommon3D.REDUCE_NEAREST_NEIGHBORS);
-		commons.queue.finish();
 		int listSize = SpringlsConstants.maxNearestBins * commons.elements * 3;
 		if (lastArrayLength != commons.arrayLength) {
 			if (commons.capsuleNeighborBuffer != null) {
@@ -102,24 +198,50 @@ public class SpringlsSpatialHash3D {
 				.putArgs(nbrLists, commons.indexBuffer,
 						(commons).spatialLookUp, commons.capsuleBuffer)
 				.putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(mapNearestNeighbors, 0,
+		commons.profiler.put1DRangeKernel(commons.queue, mapNearestNeighbors, 0,
 				commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
 		sortNearestNeighbors.putArgs(nbrLists).putArg(commons.elements * 3)
 				.rewind();
-		commons.queue.put1DRangeKernel(sortNearestNeighbors, 0,
-				commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, sortNearestNeighbors,
+				0, commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
 		reduceNearestNeighbors
 				.putArgs(commons.capsuleBuffer, commons.capsuleNeighborBuffer,
 						nbrLists).putArg(commons.elements).rewind();
-		commons.queue.put1DRangeKernel(reduceNearestNeighbors, 0,
-				commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
-		commons.queue.finish();
+		commons.profiler.put1DRangeKernel(commons.queue, reduceNearestNeighbors,
+				0, commons.arrayLength * 3, SpringlsCommon3D.WORKGROUP_SIZE);
+	}
+
+	/**
+	 * Update nearest neighbors with the java kernels.
+	 */
+	protected void updateNearestNeighborsJava() {
+		if (lastArrayLength != commons.arrayLength) {
+			if (commons.capsuleNeighborBuffer != null) {
+				commons.capsuleNeighborBuffer.release();
+			}
+			commons.capsuleNeighborBuffer = commons.context.createByteBuffer(
+					((2 * Integer.SIZE) / 8) * SpringlsConstants.maxNeighbors
+							* commons.arrayLength * 3, READ_WRITE, USE_BUFFER);
+			lastArrayLength = commons.arrayLength;
+		}
+		readSpringlsIfChanged();
+		javaKernels.updateNearestNeighbors();
+		ByteBuffer buff = commons.capsuleNeighborBuffer.getBuffer();
+		buff.rewind();
+		buff.asIntBuffer().put(javaKernels.capsuleNeighbors, 0,
+				2 * SpringlsConstants.maxNeighbors * 3 * commons.elements);
+		commons.profiler.putWriteBuffer(commons.queue,
+				commons.capsuleNeighborBuffer, true);
 	}
 
 	/**
 	 * Update spatial hash.
 	 */
 	public void updateSpatialHash() {
+		if (javaBackend) {
+			updateSpatialHashJava();
+			return;
+		}
 		int activeListArrayLength = (commons).activeListArraySize;
 		if (lastActiveListArrayLength != activeListArrayLength) {
 			commons.mapLength = activeListArrayLength
@@ -139,19 +261,44 @@ public class SpringlsSpatialHash3D {
 				.roundToWorkgroupPower((commons).activeListSize);
 		initLUT.putArg((commons).spatialLookUp)
 				.putArg((commons).activeListSize).rewind();
-		commons.queue.put1DRangeKernel(initLUT, 0, global_size,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, initLUT, 0,
+				global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 		updateIndexMap.putArgs(commons.indexBuffer, (commons).activeListBuffer)
 				.putArg((commons).activeListSize).rewind();
-		commons.queue.put1DRangeKernel(updateIndexMap, 0, global_size,
-				SpringlsCommon3D.WORKGROUP_SIZE);
+		commons.profiler.put1DRangeKernel(commons.queue, updateIndexMap, 0,
+				global_size, SpringlsCommon3D.WORKGROUP_SIZE);
 		buildLUT.putArgs(commons.capsuleBuffer, commons.indexBuffer,
 				(commons).spatialLookUp).putArg(commons.elements)
 				.putArg((commons).activeListSize).rewind();
-		commons.queue.put1DRangeKernel(buildLUT, 0,
+		commons.profiler.put1DRangeKernel(commons.queue, buildLUT, 0,
 				SpringlsCommon3D.roundToWorkgroupPower(commons.elements),
 				SpringlsCommon3D.WORKGROUP_SIZE);
-		commons.queue.finish();
+		commons.setActiveSetValid(true);
+	}
+
+	/**
+	 * Update spatial hash with the java kernels. The index map on the device
+	 * is still updated because the level set kernels depend on it.
+	 */
+	protected void updateSpatialHashJava() {
+		final CLKernel updateIndexMap = commons.kernelMap.get("updateIndexMap");
+		int global_size = SpringlsCommon3D
+				.roundToWorkgroupPower((commons).activeListSize);
+		updateIndexMap.putArgs(commons.indexBuffer, (commons).activeListBuffer)
+				.putArg((commons).activeListSize).rewind();
+		commons.profiler.put1DRangeKernel(commons.queue, updateIndexMap, 0,
+				global_size, SpringlsCommon3D.WORKGROUP_SIZE);
+		if (activeList == null || activeList.length < commons.activeListSize) {
+			activeList = new int[commons.activeListArraySize];
+		}
+		commons.profiler.putReadBuffer(commons.queue,
+				commons.activeListBuffer, true);
+		IntBuffer buff = commons.activeListBuffer.getBuffer();
+		buff.rewind();
+		buff.get(activeList, 0, commons.activeListSize);
+		javaKernels.setActiveList(activeList, commons.activeListSize);
+		readSpringls();
+		javaKernels.updateSpatialHash();
 		commons.setActiveSetValid(true);
 	}
 
@@ -159,6 +306,10 @@ public class SpringlsSpatialHash3D {
 	 * Update unsigned level set.
 	 */
 	public void updateUnsignedLevelSet() {
+		if (javaBackend) {
+			updateUnsignedLevelSetJava();
+			return;
+		}
 		final CLKernel reduceLevelSet = commons.kernelMap
 				.get(SpringlsCommon3D.REDUCE_LEVEL_SET);
 
@@ -166,10 +317,32 @@ public class SpringlsSpatialHash3D {
 				.putArgs((commons).activeListBuffer, (commons).spatialLookUp,
 						commons.capsuleBuffer, commons.unsignedLevelSetBuffer)
 				.putArg((commons).activeListSize).rewind();
-		commons.queue.put1DRangeKernel(reduceLevelSet, 0, SpringlsCommon3D
-				.roundToWorkgroupPower((commons).activeListSize),
+		commons.profiler.put1DRangeKernel(commons.queue, reduceLevelSet, 0,
+				SpringlsCommon3D
+						.roundToWorkgroupPower((commons).activeListSize),
 				SpringlsCommon3D.WORKGROUP_SIZE);
-		commons.queue.finish();
+	}
+
+	/**
+	 * Update unsigned level set with the java kernels. The springls read for
+	 * the spatial hash are reused if nothing has been enqueued since.
+	 */
+	protected void updateUnsignedLevelSetJava() {
+		int size = commons.rows * commons.cols * commons.slices;
+		commons.profiler.putReadBuffer(commons.queue,
+				commons.unsignedLevelSetBuffer, true);
+		FloatBuffer buff = commons.unsignedLevelSetBuffer.getBuffer();
+		if (levelSet == null || levelSet.length != size) {
+			levelSet = new float[size];
+		}
+		buff.rewind();
+		buff.get(levelSet);
+		readSpringlsIfChanged();
+		javaKernels.updateUnsignedLevelSet(levelSet);
+		buff.rewind();
+		buff.put(levelSet).rewind();
+		commons.profiler.putWriteBuffer(commons.queue,
+				commons.unsignedLevelSetBuffer, true);
 	}
 
 }
@@ -0,0 +1,341 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.utility;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jogamp.opencl.CLBuffer;
+import com.jogamp.opencl.CLContext;
+import com.jogamp.opencl.CLMemory.Mem;
+
+/**
+ * Pool of named OpenCL buffers that belong to one context. A request for a
+ * buffer returns the pooled buffer if its capacity lies between the
+ * requested size and the requested size divided by the shrink threshold.
+ * Otherwise the buffer is released and replaced by a buffer with room for
+ * the requested size times the headroom, rounded up to a capacity class.
+ * Capacity classes are the powers of two and 1.5 times the powers of two, so
+ * a buffer that keeps growing is reallocated only a logarithmic number of
+ * times.
+ */
+public class CLBufferPool {
+
+	/**
+	 * A pooled buffer.
+	 */
+	protected static class Entry {
+
+		/** The buffer. */
+		protected CLBuffer<?> buffer;
+
+		/** The capacity in elements. */
+		protected int capacity;
+	}
+
+	/** The default headroom. */
+	public static final float DEFAULT_HEADROOM = 1.25f;
+
+	/** The default shrink threshold. */
+	public static final float DEFAULT_SHRINK_THRESHOLD = 0.25f;
+
+	/** The context. */
+	protected CLContext context;
+
+	/** The pooled buffers by name. */
+	protected Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/** The factor applied to the requested size when a buffer is created. */
+	protected float headroom = DEFAULT_HEADROOM;
+
+	/**
+	 * The fraction of the capacity below which a request replaces a buffer
+	 * with a smaller one.
+	 */
+	protected float shrinkThreshold = DEFAULT_SHRINK_THRESHOLD;
+
+	/** The number of buffers created. */
+	protected int allocationCount = 0;
+
+	/**
+	 * Instantiates a new buffer pool.
+	 * 
+	 * @param context
+	 *            the context
+	 */
+	public CLBufferPool(CLContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Gets the smallest capacity class that holds a number of elements.
+	 * 
+	 * @param size
+	 *            the number of elements
+	 * @return the capacity class
+	 */
+	public static int getCapacityClass(int size) {
+		if (size <= 1) {
+			return 1;
+		}
+		long pow = Long.highestOneBit(size - 1) << 1;
+		long mid = pow / 4 * 3;
+		return (int) Math.min((mid >= size) ? mid : pow, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets the number of buffers created by this pool.
+	 * 
+	 * @return the allocation count
+	 */
+	public int getAllocationCount() {
+		return allocationCount;
+	}
+
+	/**
+	 * Gets the capacity of a pooled buffer.
+	 * 
+	 * @param name
+	 *            the name
+	 * @return the capacity in elements, or 0 if there is no such buffer
+	 */
+	public int getCapacity(String name) {
+		Entry entry = entries.get(name);
+		return (entry != null) ? entry.capacity : 0;
+	}
+
+	/**
+	 * Gets the context.
+	 * 
+	 * @return the context
+	 */
+	public CLContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Gets the headroom.
+	 * 
+	 * @return the headroom
+	 */
+	public float getHeadroom() {
+		return headroom;
+	}
+
+	/**
+	 * Gets the shrink threshold.
+	 * 
+	 * @return the shrink threshold
+	 */
+	public float getShrinkThreshold() {
+		return shrinkThreshold;
+	}
+
+	/**
+	 * Sets the factor applied to the requested size when a buffer is
+	 * created.
+	 * 
+	 * @param headroom
+	 *            the headroom, at least 1
+	 */
+	public void setHeadroom(float headroom) {
+		this.headroom = Math.max(1, headroom);
+	}
+
+	/**
+	 * Sets the fraction of the capacity below which a request replaces a
+	 * buffer with a smaller one. Zero disables shrinking.
+	 * 
+	 * @param shrinkThreshold
+	 *            the shrink threshold
+	 */
+	public void setShrinkThreshold(float shrinkThreshold) {
+		this.shrinkThreshold = shrinkThreshold;
+	}
+
+	/**
+	 * Gets a byte buffer.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param size
+	 *            the number of elements required
+	 * @param maxSize
+	 *            the largest capacity worth allocating
+	 * @param flags
+	 *            the memory flags used if a buffer is created
+	 * @return the buffer
+	 */
+	@SuppressWarnings("unchecked")
+	public CLBuffer<ByteBuffer> getByteBuffer(String name, int size,
+			int maxSize, Mem... flags) {
+		Entry entry = find(name, size);
+		if (entry == null) {
+			int capacity = getAllocationSize(size, maxSize);
+			entry = store(name, context.createByteBuffer(capacity, flags),
+					capacity);
+		}
+		return (CLBuffer<ByteBuffer>) entry.buffer;
+	}
+
+	/**
+	 * Gets a float buffer.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param size
+	 *            the number of elements required
+	 * @param maxSize
+	 *            the largest capacity worth allocating
+	 * @param flags
+	 *            the memory flags used if a buffer is created
+	 * @return the buffer
+	 */
+	@SuppressWarnings("unchecked")
+	public CLBuffer<FloatBuffer> getFloatBuffer(String name, int size,
+			int maxSize, Mem... flags) {
+		Entry entry = find(name, size);
+		if (entry == null) {
+			int capacity = getAllocationSize(size, maxSize);
+			entry = store(name, context.createFloatBuffer(capacity, flags),
+					capacity);
+		}
+		return (CLBuffer<FloatBuffer>) entry.buffer;
+	}
+
+	/**
+	 * Gets an integer buffer.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param size
+	 *            the number of elements required
+	 * @param maxSize
+	 *            the largest capacity worth allocating
+	 * @param flags
+	 *            the memory flags used if a buffer is created
+	 * @return the buffer
+	 */
+	@SuppressWarnings("unchecked")
+	public CLBuffer<IntBuffer> getIntBuffer(String name, int size,
+			int maxSize, Mem... flags) {
+		Entry entry = find(name, size);
+		if (entry == null) {
+			int capacity = getAllocationSize(size, maxSize);
+			entry = store(name, context.createIntBuffer(capacity, flags),
+					capacity);
+		}
+		return (CLBuffer<IntBuffer>) entry.buffer;
+	}
+
+	/**
+	 * Release all pooled buffers.
+	 */
+	public void release() {
+		for (Entry entry : entries.values()) {
+			entry.buffer.release();
+		}
+		entries.clear();
+	}
+
+	/**
+	 * Release a pooled buffer.
+	 * 
+	 * @param name
+	 *            the name
+	 */
+	public void release(String name) {
+		Entry entry = entries.remove(name);
+		if (entry != null) {
+			entry.buffer.release();
+		}
+	}
+
+	/**
+	 * Find a pooled buffer that can be reused for a request, releasing the
+	 * pooled buffer if it cannot.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param size
+	 *            the number of elements required
+	 * @return the entry, or null if a buffer must be created
+	 */
+	protected Entry find(String name, int size) {
+		Entry entry = entries.get(name);
+		if (entry == null) {
+			return null;
+		}
+		if (size <= entry.capacity
+				&& size >= entry.capacity * shrinkThreshold) {
+			return entry;
+		}
+		release(name);
+		return null;
+	}
+
+	/**
+	 * Gets the capacity of a new buffer.
+	 * 
+	 * @param size
+	 *            the number of elements required
+	 * @param maxSize
+	 *            the largest capacity worth allocating
+	 * @return the capacity
+	 */
+	protected int getAllocationSize(int size, int maxSize) {
+		int capacity = getCapacityClass((int) Math.min(Integer.MAX_VALUE,
+				Math.ceil(size * (double) headroom)));
+		if (maxSize > 0) {
+			capacity = Math.min(capacity, maxSize);
+		}
+		return Math.max(Math.max(capacity, size), 1);
+	}
+
+	/**
+	 * Store a new buffer.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param buffer
+	 *            the buffer
+	 * @param capacity
+	 *            the capacity
+	 * @return the entry
+	 */
+	protected Entry store(String name, CLBuffer<?> buffer, int capacity) {
+		Entry entry = new Entry();
+		entry.buffer = buffer;
+		entry.capacity = capacity;
+		entries.put(name, entry);
+		allocationCount++;
+		return entry;
+	}
+}
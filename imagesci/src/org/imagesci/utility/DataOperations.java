@@ -1469,114 +1469,33 @@ public final class DataOperations {
 	}
 
 	/**
-	 * Upsample3 d.
+	 * Upsample an image by replicating each voxel samplingRate times along
+	 * each axis.
 	 *
 	 * @param image the image
 	 * @param samplingRate the sampling rate
 	 * @return the image data float
+	 * @see ImageResampler
 	 */
 	public static ImageDataFloat upsample3D(ImageDataFloat image,
 			int samplingRate) {
-		float[][][] img2d = image.toArray3d();
-		float[][][][] img3d = image.toArray4d();
-		ImageDataFloat upImage = null;
-		int rows = image.getRows();
-		int cols = image.getCols();
-		int slices = image.getSlices();
-		int comps = image.getComponents();
-		if (img2d != null) {
-			upImage = new ImageDataFloat(rows * samplingRate, cols
-					* samplingRate, slices * samplingRate);
-			upImage.setName(image.getName() + "_up");
-			for (int i = 0; i < rows * samplingRate; i++) {
-				for (int j = 0; j < cols * samplingRate; j++) {
-					for (int k = 0; k < slices * samplingRate; k++) {
-						upImage.set(i, j, k, img2d[i / samplingRate][j
-								/ samplingRate][k / samplingRate]);
-					}
-				}
-			}
-		} else if (img3d != null) {
-			// Upsample vector field
-			upImage = new ImageDataFloat(rows * samplingRate, cols
-					* samplingRate, slices * samplingRate, comps);
-			upImage.setName(image.getName() + "_up");
-			for (int i = 0; i < rows * samplingRate; i++) {
-				for (int j = 0; j < cols * samplingRate; j++) {
-					for (int k = 0; k < slices * samplingRate; k++) {
-						for (int c = 0; c < comps; c++) {
-							upImage.set(i, j, k, img3d[i / samplingRate][j
-									/ samplingRate][k / samplingRate][c]);
-						}
-					}
-				}
-			}
-		}
-		return upImage;
+		return new ImageResampler(ImageResampler.Method.NEAREST).upsample(
+				image, samplingRate);
 	}
 
 	/**
-	 * Upsample3 d.
+	 * Resample an image to a new size with trilinear interpolation.
 	 *
 	 * @param image the image
 	 * @param up_rows the up_rows
 	 * @param up_cols the up_cols
 	 * @param up_slices the up_slices
 	 * @return the image data float
+	 * @see ImageResampler
 	 */
 	public static ImageDataFloat upsample3D(ImageDataFloat image, int up_rows,
 			int up_cols, int up_slices) {
-		if (image.getRows() == up_rows && image.getCols() == up_cols
-				&& image.getSlices() == up_slices) {
-			ImageDataFloat upImage = new ImageDataFloat(image);
-			upImage.setName(image.getName() + "_up");
-			return upImage;
-		} else {
-			float[][][] img3d = image.toArray3d();
-			float[][][][] img4d = image.toArray4d();
-			ImageDataFloat upImage = null;
-			int rows = image.getRows();
-			int cols = image.getCols();
-			int slices = image.getSlices();
-			int comps = image.getComponents();
-			if (img3d != null) {
-				upImage = new ImageDataFloat(up_rows, up_cols, up_slices);
-				upImage.setName(image.getName() + "_up");
-				double rowDelta = rows / (double) up_rows;
-				double colDelta = cols / (double) up_cols;
-				double sliceDelta = slices / (double) up_slices;
-				for (int i = 0; i < up_rows; i++) {
-					for (int j = 0; j < up_cols; j++) {
-						for (int k = 0; k < up_slices; k++) {
-							upImage.set(i, j, k, DataOperations.interpolate(i
-									* rowDelta, j * colDelta, k * sliceDelta,
-									img3d, rows, cols, slices));
-						}
-					}
-				}
-			} else if (img4d != null) {
-				// Upsample vector field
-				upImage = new ImageDataFloat(up_rows, up_cols, up_slices, comps);
-				upImage.setName(image.getName() + "_up");
-				double rowDelta = rows / (double) up_rows;
-				double colDelta = cols / (double) up_cols;
-				double sliceDelta = slices / (double) up_slices;
-				for (int i = 0; i < up_rows; i++) {
-					for (int j = 0; j < up_cols; j++) {
-						for (int k = 0; k < up_slices; k++) {
-							for (int c = 0; c < comps; c++) {
-								upImage.set(i, j, k, DataOperations
-										.interpolate(i * rowDelta,
-												j * colDelta, k * sliceDelta,
-												c, img4d, rows, cols, slices,
-												comps));
-							}
-						}
-					}
-				}
-			}
-			return upImage;
-		}
+		return new ImageResampler(ImageResampler.Method.LINEAR).resample(
+				image, up_rows, up_cols, up_slices);
 	}
-
 }
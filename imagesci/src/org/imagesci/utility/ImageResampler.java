@@ -0,0 +1,470 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.utility;
+
+import java.nio.FloatBuffer;
+
+import org.imagesci.utility.ParallelUtil.RangeTask;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+import edu.jhu.ece.iacl.jist.structures.image.ImageHeader;
+
+/**
+ * Resamples scalar and vector images stored in flat arrays with rows
+ * varying fastest. Nearest neighbor, trilinear and cubic B-spline kernels
+ * are separable, so the volume is resampled one axis at a time and the
+ * lines along each axis are processed in parallel. Voxel centers are
+ * aligned, so voxel i of the output samples the input at (i + 0.5) * n /
+ * m - 0.5 along an axis of length n resampled to m. When antialiasing is
+ * enabled, axes that are reduced are first smoothed with a
+ * {@link RecursiveGaussianFilter}.
+ */
+public class ImageResampler {
+
+	/**
+	 * The interpolation method.
+	 */
+	public enum Method {
+
+		/** Nearest neighbor. */
+		NEAREST,
+		/** Linear interpolation. */
+		LINEAR,
+		/** Interpolating cubic B-spline. */
+		CUBIC
+	}
+
+	/** The pole of the cubic B-spline prefilter. */
+	private static final double POLE = Math.sqrt(3) - 2;
+
+	/**
+	 * The number of adjacent lines gathered together along the column and
+	 * slice axes.
+	 */
+	private static final int BLOCK_SIZE = 16;
+
+	/** The interpolation method. */
+	protected Method method;
+
+	/** Whether to smooth axes that are reduced. */
+	protected boolean antialias = true;
+
+	/**
+	 * Instantiates a new image resampler.
+	 * 
+	 * @param method
+	 *            the interpolation method
+	 */
+	public ImageResampler(Method method) {
+		this.method = method;
+	}
+
+	/**
+	 * Gets the interpolation method.
+	 * 
+	 * @return the method
+	 */
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * Sets the interpolation method.
+	 * 
+	 * @param method
+	 *            the method
+	 */
+	public void setMethod(Method method) {
+		this.method = method;
+	}
+
+	/**
+	 * Checks if downsampling is antialiased.
+	 * 
+	 * @return true, if antialiased
+	 */
+	public boolean isAntialias() {
+		return antialias;
+	}
+
+	/**
+	 * Sets whether axes that are reduced are smoothed before resampling.
+	 * 
+	 * @param antialias
+	 *            the antialias
+	 */
+	public void setAntialias(boolean antialias) {
+		this.antialias = antialias;
+	}
+
+	/**
+	 * Resample an image by an integer factor along each axis. Slices are
+	 * not resampled for 2D images.
+	 * 
+	 * @param image
+	 *            the image
+	 * @param samplingRate
+	 *            the sampling rate
+	 * @return the resampled image
+	 */
+	public ImageDataFloat upsample(ImageDataFloat image, int samplingRate) {
+		int slices = image.getSlices();
+		return resample(image, image.getRows() * samplingRate,
+				image.getCols() * samplingRate,
+				(slices > 1) ? slices * samplingRate : 1);
+	}
+
+	/**
+	 * Resample an image to a new size. Vector images are resampled one
+	 * component at a time. The resolutions in the header are scaled to keep
+	 * the physical extent of the image.
+	 * 
+	 * @param image
+	 *            the image
+	 * @param newRows
+	 *            the new rows
+	 * @param newCols
+	 *            the new columns
+	 * @param newSlices
+	 *            the new slices
+	 * @return the resampled image
+	 */
+	public ImageDataFloat resample(ImageDataFloat image, int newRows,
+			int newCols, int newSlices) {
+		int rows = image.getRows();
+		int cols = image.getCols();
+		int slices = Math.max(1, image.getSlices());
+		int components = Math.max(1, image.getComponents());
+		float[] data = image.toArray1d();
+		if (data == null) {
+			data = new float[rows * cols * slices * components];
+			image.toBuffer(FloatBuffer.wrap(data));
+		}
+		float[] result = resample(data, rows, cols, slices, components,
+				newRows, newCols, newSlices);
+		ImageDataFloat resampled = new ImageDataFloat(result, newRows,
+				newCols, newSlices, components);
+		resampled.setName(image.getName() + "_up");
+		if (image.getHeader() != null) {
+			ImageHeader header = image.getHeader().clone();
+			float[] res = header.getDimResolutions();
+			int[] from = new int[] { rows, cols, slices };
+			int[] to = new int[] { newRows, newCols, newSlices };
+			for (int d = 0; d < 3 && d < res.length; d++) {
+				res[d] *= from[d] / (float) to[d];
+			}
+			resampled.setHeader(header);
+		}
+		return resampled;
+	}
+
+	/**
+	 * Resample a flat volume. The input is not modified.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the columns
+	 * @param slices
+	 *            the slices
+	 * @param components
+	 *            the components
+	 * @param newRows
+	 *            the new rows
+	 * @param newCols
+	 *            the new columns
+	 * @param newSlices
+	 *            the new slices
+	 * @return the resampled data
+	 */
+	public float[] resample(float[] data, int rows, int cols, int slices,
+			int components, int newRows, int newCols, int newSlices) {
+		if (antialias
+				&& (newRows < rows || newCols < cols || newSlices < slices)) {
+			// Unit sigma with resolutions 1/s gives s voxels per axis
+			float[] res = new float[] { getAntialiasResolution(rows, newRows),
+					getAntialiasResolution(cols, newCols),
+					getAntialiasResolution(slices, newSlices) };
+			RecursiveGaussianFilter filter = new RecursiveGaussianFilter(1);
+			filter.setResolutions(res);
+			float[] smoothed = data.clone();
+			int volume = rows * cols * slices;
+			for (int l = 0; l < components; l++) {
+				filter.apply(smoothed, l * volume, rows, cols, slices, 0, 0, 0);
+			}
+			data = smoothed;
+		}
+		int[] from = new int[] { rows, cols, slices };
+		int[] to = new int[] { newRows, newCols, newSlices };
+		int lastAxis = -1;
+		for (int d = 0; d < 3; d++) {
+			if (from[d] != to[d]) {
+				lastAxis = d;
+			}
+		}
+		int volume = rows * cols * slices;
+		int newVolume = newRows * newCols * newSlices;
+		float[] result = new float[newVolume * components];
+		for (int l = 0; l < components; l++) {
+			if (lastAxis < 0) {
+				System.arraycopy(data, l * volume, result, l * newVolume,
+						volume);
+				continue;
+			}
+			int[] dims = from.clone();
+			float[] src = data;
+			int srcOffset = l * volume;
+			for (int d = 0; d <= lastAxis; d++) {
+				if (from[d] == to[d]) {
+					continue;
+				}
+				int lines = dims[0] * dims[1] * dims[2] / dims[d];
+				int wrap = (d == 0) ? 0 : ((d == 1) ? dims[0] : dims[0]
+						* dims[1]);
+				dims[d] = to[d];
+				float[] dst = (d == lastAxis) ? result : new float[dims[0]
+						* dims[1] * dims[2]];
+				int dstOffset = (d == lastAxis) ? l * newVolume : 0;
+				resampleAxis(src, srcOffset, dst, dstOffset, from[d], to[d],
+						lines, wrap);
+				src = dst;
+				srcOffset = dstOffset;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the resolution that yields the antialiasing standard deviation
+	 * 0.5 * sqrt(r^2 - 1) in voxels for a reduction factor r when filtered
+	 * with unit standard deviation.
+	 * 
+	 * @param n
+	 *            the input length
+	 * @param m
+	 *            the output length
+	 * @return the resolution
+	 */
+	private static float getAntialiasResolution(int n, int m) {
+		double r = n / (double) m;
+		return (r > 1) ? (float) (2 / Math.sqrt(r * r - 1))
+				: Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Resample all lines along one axis. Lines are contiguous if wrap is
+	 * zero, otherwise samples on a line are wrap apart and line n starts at
+	 * (n % wrap) + (n / wrap) * wrap * length, where length is the number of
+	 * samples on the line.
+	 * 
+	 * @param src
+	 *            the source
+	 * @param srcOffset
+	 *            the source offset
+	 * @param dst
+	 *            the destination
+	 * @param dstOffset
+	 *            the destination offset
+	 * @param n
+	 *            the input length
+	 * @param m
+	 *            the output length
+	 * @param lines
+	 *            the number of lines
+	 * @param wrap
+	 *            the wrap
+	 */
+	private void resampleAxis(final float[] src, final int srcOffset,
+			final float[] dst, final int dstOffset, final int n, final int m,
+			int lines, final int wrap) {
+		final int taps = (method == Method.NEAREST) ? 1
+				: ((method == Method.LINEAR) ? 2 : 4);
+		final int[] indexes = new int[m * taps];
+		final float[] weights = new float[m * taps];
+		double scale = n / (double) m;
+		for (int i = 0; i < m; i++) {
+			double x = (i + 0.5) * scale - 0.5;
+			int x0 = (int) Math.floor(x);
+			double t = x - x0;
+			int off = i * taps;
+			switch (method) {
+			case NEAREST:
+				indexes[off] = clamp((int) Math.floor(x + 0.5), n);
+				weights[off] = 1;
+				break;
+			case LINEAR:
+				indexes[off] = clamp(x0, n);
+				indexes[off + 1] = clamp(x0 + 1, n);
+				weights[off] = (float) (1 - t);
+				weights[off + 1] = (float) t;
+				break;
+			case CUBIC:
+				double t2 = t * t;
+				double t3 = t2 * t;
+				double s = 1 - t;
+				for (int k = 0; k < 4; k++) {
+					indexes[off + k] = mirror(x0 - 1 + k, n);
+				}
+				weights[off] = (float) (s * s * s / 6);
+				weights[off + 1] = (float) ((4 - 6 * t2 + 3 * t3) / 6);
+				weights[off + 2] = (float) ((1 + 3 * t + 3 * t2 - 3 * t3) / 6);
+				weights[off + 3] = (float) (t3 / 6);
+				break;
+			}
+		}
+		final boolean prefilter = (method == Method.CUBIC);
+		ParallelUtil.forRange(0, lines, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				double[][] in = new double[BLOCK_SIZE][n];
+				float[][] out = new float[BLOCK_SIZE][m];
+				int stride = Math.max(wrap, 1);
+				for (int line = start; line < end;) {
+					int srcBase = srcOffset;
+					int dstBase = dstOffset;
+					int count = 1;
+					if (wrap == 0) {
+						srcBase += line * n;
+						dstBase += line * m;
+					} else {
+						int group = line / wrap;
+						srcBase += (line % wrap) + group * wrap * n;
+						dstBase += (line % wrap) + group * wrap * m;
+						count = Math.min(BLOCK_SIZE,
+								Math.min(end - line, wrap - line % wrap));
+					}
+					int index = srcBase;
+					for (int i = 0; i < n; i++, index += stride) {
+						for (int b = 0; b < count; b++) {
+							in[b][i] = src[index + b];
+						}
+					}
+					for (int b = 0; b < count; b++) {
+						double[] x = in[b];
+						if (prefilter) {
+							toSplineCoefficients(x);
+						}
+						float[] y = out[b];
+						for (int i = 0, off = 0; i < m; i++) {
+							double sum = 0;
+							for (int k = 0; k < taps; k++, off++) {
+								sum += weights[off] * x[indexes[off]];
+							}
+							y[i] = (float) sum;
+						}
+					}
+					index = dstBase;
+					for (int i = 0; i < m; i++, index += stride) {
+						for (int b = 0; b < count; b++) {
+							dst[index + b] = out[b][i];
+						}
+					}
+					line += count;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Convert samples on a line to cubic B-spline coefficients in place
+	 * with mirror boundary conditions.
+	 * 
+	 * @param c
+	 *            the line
+	 */
+	private static void toSplineCoefficients(double[] c) {
+		int n = c.length;
+		if (n < 2) {
+			return;
+		}
+		double z = POLE;
+		double sum = c[0];
+		if (n > 30) {
+			// Truncate the mirrored sum once z^k is negligible
+			double zk = z;
+			for (int k = 1; k < 30; k++) {
+				sum += zk * c[k];
+				zk *= z;
+			}
+		} else {
+			double zk = z;
+			double zn = Math.pow(z, n - 1);
+			double z2n = zn * zn / z;
+			sum += zn * c[n - 1];
+			for (int k = 1; k < n - 1; k++) {
+				sum += (zk + z2n) * c[k];
+				zk *= z;
+				z2n /= z;
+			}
+			sum /= (1 - zn * zn);
+		}
+		c[0] = sum;
+		for (int k = 1; k < n; k++) {
+			c[k] += z * c[k - 1];
+		}
+		c[n - 1] = (z / (z * z - 1)) * (c[n - 1] + z * c[n - 2]);
+		for (int k = n - 2; k >= 0; k--) {
+			c[k] = z * (c[k + 1] - c[k]);
+		}
+		for (int k = 0; k < n; k++) {
+			c[k] *= 6;
+		}
+	}
+
+	/**
+	 * Clamp an index to [0, n).
+	 * 
+	 * @param i
+	 *            the index
+	 * @param n
+	 *            the length
+	 * @return the clamped index
+	 */
+	private static int clamp(int i, int n) {
+		return Math.max(0, Math.min(i, n - 1));
+	}
+
+	/**
+	 * Mirror an index about the first and last samples.
+	 * 
+	 * @param i
+	 *            the index
+	 * @param n
+	 *            the length
+	 * @return the mirrored index
+	 */
+	private static int mirror(int i, int n) {
+		if (n == 1) {
+			return 0;
+		}
+		int period = 2 * n - 2;
+		i = Math.abs(i) % period;
+		return (i < n) ? i : period - i;
+	}
+}
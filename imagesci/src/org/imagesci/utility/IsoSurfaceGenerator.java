@@ -42,6 +42,8 @@ package org.imagesci.utility;
  * @author Blake Lucas
  */
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Hashtable;
 import java.util.LinkedList;
 
@@ -183,6 +185,114 @@ public class IsoSurfaceGenerator extends AbstractCalculation {
 		}
 	}
 
+	/**
+	 * The Class SlabMesh stores the vertices and triangles generated for a
+	 * contiguous range of rows in primitive arrays.
+	 */
+	protected static class SlabMesh {
+
+		/** The first row. */
+		protected int startRow;
+
+		/** One past the last row. */
+		protected int endRow;
+
+		/** Maps edge hash values to local vertex ids. */
+		protected LongIntHashMap edgeMap = new LongIntHashMap(1024);
+
+		/** The edge hash value for each local vertex. */
+		protected long[] keys = new long[256];
+
+		/** Flags vertices on the first row that belong to the previous slab. */
+		protected boolean[] shared = new boolean[256];
+
+		/** The vertex coordinates. */
+		protected float[] points = new float[768];
+
+		/** The vertex count. */
+		protected int vertCount = 0;
+
+		/** The triangle vertex ids. */
+		protected int[] indexes = new int[768];
+
+		/** The index count. */
+		protected int indexCount = 0;
+
+		/** Maps local vertex ids to ids in the merged surface. */
+		protected int[] globalIds;
+
+		/** Scratch space for cube corner positions. */
+		protected int[] corners = new int[24];
+
+		/** Scratch space for cube corner values. */
+		protected float[] values = new float[8];
+
+		/** Scratch space for tetrahedron corner positions. */
+		protected int[] tetCorners = new int[12];
+
+		/** Scratch space for tetrahedron corner values. */
+		protected float[] tetValues = new float[4];
+
+		/** Scratch space for edge vertex ids. */
+		protected int[] edgeVertex = new int[12];
+
+		/** Scratch space for triangle vertex ids. */
+		protected int[] tri = new int[3];
+
+		/**
+		 * Instantiates a new slab mesh.
+		 *
+		 * @param startRow the first row
+		 * @param endRow one past the last row
+		 */
+		public SlabMesh(int startRow, int endRow) {
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		/**
+		 * Add a vertex.
+		 *
+		 * @param key the edge hash value
+		 * @param shared true if the vertex belongs to the previous slab
+		 * @param x the x
+		 * @param y the y
+		 * @param z the z
+		 * @return the local vertex id
+		 */
+		protected int addVertex(long key, boolean shared, float x, float y,
+				float z) {
+			if (vertCount == keys.length) {
+				keys = Arrays.copyOf(keys, vertCount * 2);
+				this.shared = Arrays.copyOf(this.shared, vertCount * 2);
+				points = Arrays.copyOf(points, vertCount * 6);
+			}
+			keys[vertCount] = key;
+			this.shared[vertCount] = shared;
+			points[3 * vertCount] = x;
+			points[3 * vertCount + 1] = y;
+			points[3 * vertCount + 2] = z;
+			edgeMap.put(key, vertCount);
+			return vertCount++;
+		}
+
+		/**
+		 * Add a triangle.
+		 *
+		 * @param v1 the first vertex
+		 * @param v2 the second vertex
+		 * @param v3 the third vertex
+		 */
+		protected void addTriangle(int v1, int v2, int v3) {
+			if (indexCount + 3 > indexes.length) {
+				indexes = Arrays.copyOf(indexes, indexes.length * 2);
+			}
+			indexes[indexCount++] = v1;
+			indexes[indexCount++] = v2;
+			indexes[indexCount++] = v3;
+		}
+	}
+
 	/**
 	 * The winding order for triangle vertices.
 	 */
@@ -1032,6 +1142,9 @@ public class IsoSurfaceGenerator extends AbstractCalculation {
 	/** The nudge level set. */
 	protected boolean nudgeLevelSet = true;
 
+	/** Generate the surface with slab-parallel workers. */
+	protected boolean parallel = false;
+
 	/** The resolution in X. */
 	protected float resX = 1;
 
@@ -1142,6 +1255,15 @@ public class IsoSurfaceGenerator extends AbstractCalculation {
 		} else {
 			resX = resY = resZ = 1;
 		}
+		if (parallel) {
+			EmbeddedSurface surf = solveParallel();
+			volMat = null;
+			surf.setName(vol.getName());
+			if (!silent) {
+				markCompleted();
+			}
+			return surf;
+		}
 		Hashtable<Long, EdgeSplit> splits = new Hashtable<Long, EdgeSplit>();
 		LinkedList<Triangle> triangles = new LinkedList<Triangle>();
 		if (!silent) {
@@ -1219,6 +1341,489 @@ public class IsoSurfaceGenerator extends AbstractCalculation {
 		return surf;
 	}
 
+	/**
+	 * Solve for the iso-surface by splitting the volume into slabs of rows
+	 * that are triangulated concurrently. Each slab keeps its own edge map,
+	 * vertices on the boundary plane shared with the previous slab are
+	 * resolved against that slab's map. Slabs are merged in row order, so the
+	 * vertex and triangle ordering matches the serial path.
+	 *
+	 * @return the iso-surface
+	 */
+	protected EmbeddedSurface solveParallel() {
+		int threads = ParallelUtil.getThreadCount();
+		int slabCount = Math.max(1, Math.min(rows, 4 * threads));
+		final SlabMesh[] slabs = new SlabMesh[slabCount];
+		for (int s = 0; s < slabCount; s++) {
+			slabs[s] = new SlabMesh((int) ((long) rows * s / slabCount),
+					(int) ((long) rows * (s + 1) / slabCount));
+		}
+		if (!silent) {
+			setTotalUnits(rows);
+		}
+		ParallelUtil.forRange(0, slabCount, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					triangulateSlab(slabs[s], s > 0);
+					if (!silent) {
+						synchronized (IsoSurfaceGenerator.this) {
+							incrementCompletedUnits(slabs[s].endRow
+									- slabs[s].startRow);
+						}
+					}
+				}
+			}
+		});
+		return mergeSlabs(slabs, false);
+	}
+
+	/**
+	 * Solve for the iso-surface restricted to a list of candidate cells, such
+	 * as the active voxels of a narrow band level set. Cells are addressed by
+	 * their linear index k*rows*cols + j*rows + i. The list must contain
+	 * every cell the iso-surface passes through, otherwise the surface will
+	 * contain holes. For a signed distance field a band of width 2 around the
+	 * iso-level is sufficient.
+	 *
+	 * @param vol the volume
+	 * @param isoLevel the target iso-level
+	 * @param cells the candidate cell indexes
+	 * @param cellCount the number of candidate cells
+	 * @return the iso-surface
+	 */
+	public EmbeddedSurface solve(ImageDataFloat vol, float isoLevel,
+			int[] cells, int cellCount) {
+		volMat = vol.toArray3d();
+		volsMat = vol.toArray4d();
+		rows = vol.getRows();
+		cols = vol.getCols();
+		slices = vol.getSlices();
+		this.component = -1;
+		vertCount = 0;
+		this.isoLevel = isoLevel;
+		if (useResolutions) {
+			float[] res = vol.getHeader().getDimResolutions();
+			resX = res[0];
+			resY = res[1];
+			resZ = res[2];
+		} else {
+			resX = resY = resZ = 1;
+		}
+		EmbeddedSurface surf = solveCells(cells, cellCount);
+		volMat = null;
+		surf.setName(vol.getName());
+		if (!silent) {
+			markCompleted();
+		}
+		return surf;
+	}
+
+	/**
+	 * Solve for the iso-surface restricted to the cells whose linear index is
+	 * set in the bit set.
+	 *
+	 * @param vol the volume
+	 * @param isoLevel the target iso-level
+	 * @param cells the candidate cells
+	 * @return the iso-surface
+	 * @see #solve(ImageDataFloat, float, int[], int)
+	 */
+	public EmbeddedSurface solve(ImageDataFloat vol, float isoLevel,
+			BitSet cells) {
+		int[] list = toCellList(cells);
+		return solve(vol, isoLevel, list, list.length);
+	}
+
+	/**
+	 * Convert a bit set of cells to a list of cell indexes.
+	 *
+	 * @param cells the cells
+	 * @return the cell indexes
+	 */
+	protected static int[] toCellList(BitSet cells) {
+		int[] list = new int[cells.cardinality()];
+		int n = 0;
+		for (int i = cells.nextSetBit(0); i >= 0; i = cells.nextSetBit(i + 1)) {
+			list[n++] = i;
+		}
+		return list;
+	}
+
+	/**
+	 * Triangulate a list of candidate cells. The list is split into chunks
+	 * that are triangulated concurrently when parallel execution is enabled.
+	 * Chunks do not share a boundary plane, so vertices are merged through a
+	 * global edge map in chunk order.
+	 *
+	 * @param cells the cell indexes
+	 * @param cellCount the number of cells
+	 * @return the iso-surface
+	 */
+	protected EmbeddedSurface solveCells(final int[] cells, final int cellCount) {
+		int chunkCount = (parallel) ? Math.max(1,
+				Math.min(cellCount, 4 * ParallelUtil.getThreadCount())) : 1;
+		final SlabMesh[] slabs = new SlabMesh[chunkCount];
+		for (int s = 0; s < chunkCount; s++) {
+			slabs[s] = new SlabMesh((int) ((long) cellCount * s / chunkCount),
+					(int) ((long) cellCount * (s + 1) / chunkCount));
+		}
+		if (!silent) {
+			setTotalUnits(cellCount);
+		}
+		ParallelUtil.RangeTask task = new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					triangulateCells(slabs[s], cells, slabs[s].startRow,
+							slabs[s].endRow);
+					if (!silent) {
+						synchronized (IsoSurfaceGenerator.this) {
+							incrementCompletedUnits(slabs[s].endRow
+									- slabs[s].startRow);
+						}
+					}
+				}
+			}
+		};
+		if (parallel) {
+			ParallelUtil.forRange(0, chunkCount, task);
+		} else {
+			task.run(0, chunkCount);
+		}
+		return mergeSlabs(slabs, true);
+	}
+
+	/**
+	 * Merge triangulated slabs into a single surface. Slab vertices are
+	 * assigned global ids in slab order. For slabs of rows only vertices on
+	 * the plane shared with the previous slab can be duplicates, for chunks
+	 * of candidate cells every vertex is resolved through a global edge map.
+	 *
+	 * @param slabs the slabs
+	 * @param global true to merge all vertices through a global edge map
+	 * @return the iso-surface
+	 */
+	protected EmbeddedSurface mergeSlabs(final SlabMesh[] slabs, boolean global) {
+		int slabCount = slabs.length;
+		int vertTotal = 0;
+		int indexTotal = 0;
+		final int[] indexOffsets = new int[slabCount];
+		LongIntHashMap globalMap = null;
+		if (global) {
+			int expected = 0;
+			for (SlabMesh slab : slabs) {
+				expected += slab.vertCount;
+			}
+			globalMap = new LongIntHashMap(expected);
+		}
+		for (int s = 0; s < slabCount; s++) {
+			SlabMesh slab = slabs[s];
+			slab.globalIds = new int[slab.vertCount];
+			for (int v = 0; v < slab.vertCount; v++) {
+				if (global) {
+					int id = globalMap.putIfAbsent(slab.keys[v], vertTotal);
+					if (id == LongIntHashMap.NOT_FOUND) {
+						slab.shared[v] = false;
+						slab.globalIds[v] = vertTotal++;
+					} else {
+						slab.shared[v] = true;
+						slab.globalIds[v] = id;
+					}
+					continue;
+				}
+				int id = LongIntHashMap.NOT_FOUND;
+				if (slab.shared[v]) {
+					id = slabs[s - 1].edgeMap.get(slab.keys[v]);
+				}
+				if (id == LongIntHashMap.NOT_FOUND) {
+					slab.shared[v] = false;
+					slab.globalIds[v] = vertTotal++;
+				} else {
+					slab.globalIds[v] = slabs[s - 1].globalIds[id];
+				}
+			}
+			indexOffsets[s] = indexTotal;
+			indexTotal += slab.indexCount;
+		}
+		final float[] points = new float[3 * vertTotal];
+		final int[] indexes = new int[indexTotal];
+		ParallelUtil.forRange(0, slabCount, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					SlabMesh slab = slabs[s];
+					for (int v = 0; v < slab.vertCount; v++) {
+						if (!slab.shared[v]) {
+							int g = slab.globalIds[v];
+							points[3 * g] = slab.points[3 * v];
+							points[3 * g + 1] = slab.points[3 * v + 1];
+							points[3 * g + 2] = slab.points[3 * v + 2];
+						}
+					}
+					int offset = indexOffsets[s];
+					for (int n = 0; n < slab.indexCount; n++) {
+						indexes[offset + n] = slab.globalIds[slab.indexes[n]];
+					}
+				}
+			}
+		});
+		vertCount = vertTotal;
+		return new EmbeddedSurface(points, indexes);
+	}
+
+	/**
+	 * Triangulate a slab of rows.
+	 *
+	 * @param slab the slab
+	 * @param hasPrevious true if a slab precedes this one
+	 */
+	protected void triangulateSlab(SlabMesh slab, boolean hasPrevious) {
+		int sharedRow = (hasPrevious) ? slab.startRow : -1;
+		for (int i = slab.startRow; i < slab.endRow; i++) {
+			for (int j = 0; j < cols; j++) {
+				for (int k = 0; k < slices; k++) {
+					triangulateCell(slab, sharedRow, i, j, k);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Triangulate a range of cells from a candidate list.
+	 *
+	 * @param slab the slab
+	 * @param cells the cell indexes
+	 * @param start the first entry
+	 * @param end one past the last entry
+	 */
+	protected void triangulateCells(SlabMesh slab, int[] cells, int start,
+			int end) {
+		int plane = rows * cols;
+		for (int n = start; n < end; n++) {
+			int index = cells[n];
+			int k = index / plane;
+			int ij = index - k * plane;
+			int j = ij / rows;
+			int i = ij - j * rows;
+			triangulateCell(slab, -1, i, j, k);
+		}
+	}
+
+	/**
+	 * Triangulate a single cell.
+	 *
+	 * @param slab the slab
+	 * @param sharedRow the row shared with the previous slab
+	 * @param i the row
+	 * @param j the column
+	 * @param k the slice
+	 */
+	protected void triangulateCell(SlabMesh slab, int sharedRow, int i, int j,
+			int k) {
+		int[] corners = slab.corners;
+		float[] values = slab.values;
+		for (int v = 0; v < 8; v++) {
+			int x = corners[3 * v] = clampRow(i + a2fVertexOffset[v][0]);
+			int y = corners[3 * v + 1] = clampColumn(j + a2fVertexOffset[v][1]);
+			int z = corners[3 * v + 2] = clampSlice(k + a2fVertexOffset[v][2]);
+			values[v] = getValue(x, y, z);
+		}
+		if (method == Method.MARCHING_CUBES || connectivityRule != null) {
+			marchCubeSlab(slab, sharedRow);
+		} else if (method == Method.MARCHING_TETRAHEDRALS) {
+			int[] tetCorners = slab.tetCorners;
+			float[] tetValues = slab.tetValues;
+			for (int t = 0; t < 6; t++) {
+				for (int v = 0; v < 4; v++) {
+					int c = a2iTetrahedronsInACube[t][v];
+					tetCorners[3 * v] = corners[3 * c];
+					tetCorners[3 * v + 1] = corners[3 * c + 1];
+					tetCorners[3 * v + 2] = corners[3 * c + 2];
+					tetValues[v] = values[c];
+				}
+				marchTetrahedralSlab(slab, sharedRow);
+			}
+		}
+	}
+
+	/**
+	 * Triangulate one cube of a slab with the marching cubes tables or the
+	 * connectivity consistent tables.
+	 *
+	 * @param slab the slab
+	 * @param sharedRow the row shared with the previous slab
+	 */
+	private void marchCubeSlab(SlabMesh slab, int sharedRow) {
+		int[] corners = slab.corners;
+		float[] values = slab.values;
+		int[] edgeVertex = slab.edgeVertex;
+		int[] tri = slab.tri;
+		boolean flip = false;
+		boolean consistent = (connectivityRule != null);
+		int[] edgeFlags = aiCubeEdgeFlags;
+		int[][] triTable = a2iTriangleConnectionTable;
+		if (consistent) {
+			switch (connectivityRule) {
+			case CONNECT_18_6:
+				flip = true;
+				edgeFlags = aiCubeEdgeFlagsCC618;
+				triTable = a2iTriangleConnectionTableCC618;
+				break;
+			case CONNECT_26_6:
+				flip = true;
+				edgeFlags = aiCubeEdgeFlagsCC626;
+				triTable = a2iTriangleConnectionTableCC626;
+				break;
+			case CONNECT_6_18:
+				edgeFlags = aiCubeEdgeFlagsCC618;
+				triTable = a2iTriangleConnectionTableCC618;
+				break;
+			case CONNECT_6_26:
+				edgeFlags = aiCubeEdgeFlagsCC626;
+				triTable = a2iTriangleConnectionTableCC626;
+				break;
+			}
+		}
+		int flagIndex = 0;
+		for (int v = 0; v < 8; v++) {
+			if ((flip) ? values[v] > isoLevel : values[v] <= isoLevel) {
+				flagIndex |= 1 << v;
+			}
+		}
+		int flags = edgeFlags[flagIndex];
+		if (flags == 0) {
+			return;
+		}
+		for (int e = 0; e < 12; e++) {
+			if ((flags & (1 << e)) != 0) {
+				int c1 = a2iEdgeConnection[e][0];
+				int c2 = a2iEdgeConnection[e][1];
+				edgeVertex[e] = findOrAddVertex(slab, sharedRow, corners,
+						3 * c1, values[c1], corners, 3 * c2, values[c2]);
+			}
+		}
+		int[] row = triTable[flagIndex];
+		for (int t = 0; t < 5; t++) {
+			if (consistent) {
+				if (3 * t >= row.length) {
+					break;
+				}
+			} else if (row[3 * t] < 0) {
+				break;
+			}
+			for (int c = 0; c < 3; c++) {
+				int vid = edgeVertex[row[3 * t + c]];
+				if (!consistent || flip) {
+					tri[c] = vid;
+				} else {
+					tri[2 - c] = vid;
+				}
+			}
+			addTriangle(slab, tri);
+		}
+	}
+
+	/**
+	 * Triangulate one tetrahedron of a slab.
+	 *
+	 * @param slab the slab
+	 * @param sharedRow the row shared with the previous slab
+	 */
+	private void marchTetrahedralSlab(SlabMesh slab, int sharedRow) {
+		int[] corners = slab.tetCorners;
+		float[] values = slab.tetValues;
+		int[] edgeVertex = slab.edgeVertex;
+		int[] tri = slab.tri;
+		int flagIndex = 0;
+		for (int v = 0; v < 4; v++) {
+			if (values[v] <= isoLevel) {
+				flagIndex |= 1 << v;
+			}
+		}
+		int flags = aiTetrahedronEdgeFlags[flagIndex];
+		if (flags == 0) {
+			return;
+		}
+		for (int e = 0; e < 6; e++) {
+			if ((flags & (1 << e)) != 0) {
+				int c1 = a2iTetrahedronEdgeConnection[e][0];
+				int c2 = a2iTetrahedronEdgeConnection[e][1];
+				edgeVertex[e] = findOrAddVertex(slab, sharedRow, corners,
+						3 * c1, values[c1], corners, 3 * c2, values[c2]);
+			}
+		}
+		int[] row = a2iTetrahedronTriangles[flagIndex];
+		for (int t = 0; t < 5; t++) {
+			if (row[3 * t] < 0) {
+				break;
+			}
+			for (int c = 0; c < 3; c++) {
+				tri[c] = edgeVertex[row[3 * t + c]];
+			}
+			addTriangle(slab, tri);
+		}
+	}
+
+	/**
+	 * Add a triangle to a slab using the current winding order.
+	 *
+	 * @param slab the slab
+	 * @param tri the triangle vertex ids
+	 */
+	private void addTriangle(SlabMesh slab, int[] tri) {
+		if (winding == Winding.CLOCKWISE) {
+			slab.addTriangle(tri[0], tri[1], tri[2]);
+		} else {
+			slab.addTriangle(tri[2], tri[1], tri[0]);
+		}
+	}
+
+	/**
+	 * Find the vertex for an edge crossing, adding it if it does not exist.
+	 *
+	 * @param slab the slab
+	 * @param sharedRow the row shared with the previous slab
+	 * @param p1 the first grid position array
+	 * @param o1 the first grid position offset
+	 * @param v1 the first value
+	 * @param p2 the second grid position array
+	 * @param o2 the second grid position offset
+	 * @param v2 the second value
+	 * @return the local vertex id
+	 */
+	private int findOrAddVertex(SlabMesh slab, int sharedRow, int[] p1,
+			int o1, float v1, int[] p2, int o2, float v2) {
+		long h1 = hashValue(p1[o1], p1[o1 + 1], p1[o1 + 2]);
+		long h2 = hashValue(p2[o2], p2[o2 + 1], p2[o2 + 2]);
+		long d = (long) rows * cols * slices;
+		long key = (h1 < h2) ? h1 + d * h2 : h2 + d * h1;
+		int vid = slab.edgeMap.get(key);
+		if (vid != LongIntHashMap.NOT_FOUND) {
+			return vid;
+		}
+		double delta = v2 - v1;
+		float t = (delta == 0.0) ? 0.5f : (float) ((isoLevel - v1) / delta);
+		float s = 1.0f - t;
+		return slab.addVertex(key, p1[o1] == sharedRow
+				&& p2[o2] == sharedRow,
+				resX * (s * p1[o1] + t * p2[o2]),
+				resY * (s * p1[o1 + 1] + t * p2[o2 + 1]),
+				resZ * (s * p1[o1 + 2] + t * p2[o2 + 2]));
+	}
+
+	/**
+	 * Generate hash value for grid point.
+	 *
+	 * @param x the x
+	 * @param y the y
+	 * @param z the z
+	 * @return the hash value
+	 */
+	protected long hashValue(int x, int y, int z) {
+		return (long) z * rows * cols + (long) rows * y + x;
+	}
+
 	/**
 	 * Triangulate using marching cubes.
 	 * 
@@ -1723,6 +2328,25 @@ public class IsoSurfaceGenerator extends AbstractCalculation {
 		this.nudgeLevelSet = nudgeLevelSet;
 	}
 
+	/**
+	 * Sets the parallel flag. When enabled the volume is triangulated in
+	 * slabs of rows on the shared worker pool.
+	 *
+	 * @param parallel the new parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Checks if slab-parallel generation is enabled.
+	 *
+	 * @return true, if is parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
 	/**
 	 * Sets the silent.
 	 *
@@ -27,6 +27,7 @@
 package org.imagesci.utility;
 
 
+import java.util.BitSet;
 import java.util.Hashtable;
 import java.util.LinkedList;
 
@@ -92,6 +93,45 @@ public class IsoSurfaceGeneratorMogac extends IsoSurfaceGenerator {
 	 */
 	public EmbeddedSurface[] solve(ImageDataFloat levelset,
 			ImageDataInt labelImage, int[] labelMasks, boolean containsOverlap) {
+		return solve(levelset, labelImage, labelMasks, containsOverlap, null, 0);
+	}
+
+	/**
+	 * Solve for the iso-surfaces restricted to the cells whose linear index is
+	 * set in the bit set.
+	 *
+	 * @param levelset the levelset
+	 * @param labelImage the label image
+	 * @param labelMasks the label masks
+	 * @param containsOverlap the contains overlap
+	 * @param cells the candidate cells
+	 * @return the embedded surface[]
+	 */
+	public EmbeddedSurface[] solve(ImageDataFloat levelset,
+			ImageDataInt labelImage, int[] labelMasks, boolean containsOverlap,
+			BitSet cells) {
+		int[] list = toCellList(cells);
+		return solve(levelset, labelImage, labelMasks, containsOverlap, list,
+				list.length);
+	}
+
+	/**
+	 * Solve for the iso-surfaces restricted to a list of candidate cells, such
+	 * as the active voxels of a narrow band level set. Cells are addressed by
+	 * their linear index k*rows*cols + j*rows + i and must cover every cell
+	 * the iso-surfaces pass through.
+	 *
+	 * @param levelset the levelset
+	 * @param labelImage the label image
+	 * @param labelMasks the label masks
+	 * @param containsOverlap the contains overlap
+	 * @param cells the candidate cell indexes, or null to process all cells
+	 * @param cellCount the number of candidate cells
+	 * @return the embedded surface[]
+	 */
+	public EmbeddedSurface[] solve(ImageDataFloat levelset,
+			ImageDataInt labelImage, int[] labelMasks, boolean containsOverlap,
+			int[] cells, int cellCount) {
 		int numObjects = labelMasks.length - 1;
 		EmbeddedSurface[] contours = new EmbeddedSurface[numObjects];
 		this.labels = labelImage.toArray3d();
@@ -112,6 +152,13 @@ public class IsoSurfaceGeneratorMogac extends IsoSurfaceGenerator {
 				resX = resY = resZ = 1;
 			}
 			this.currentLabel = labelMasks[nn + 1];
+			if (cells != null || parallel) {
+				EmbeddedSurface surf = (cells != null) ? solveCells(cells,
+						cellCount) : solveParallel();
+				surf.setName(levelset.getName() + "_" + currentLabel);
+				contours[nn] = surf;
+				continue;
+			}
 			Hashtable<Long, EdgeSplit> splits = new Hashtable<Long, EdgeSplit>();
 			LinkedList<Triangle> triangles = new LinkedList<Triangle>();
 			if (!silent) {
@@ -0,0 +1,657 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.utility;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+import com.jogamp.opencl.CLBuffer;
+import com.jogamp.opencl.CLCommandQueue;
+import com.jogamp.opencl.CLDevice;
+import com.jogamp.opencl.CLEvent;
+import com.jogamp.opencl.CLEvent.ProfilingCommand;
+import com.jogamp.opencl.CLEventList;
+import com.jogamp.opencl.CLKernel;
+
+/**
+ * Records the device time of OpenCL kernels and host-device transfers. Solvers
+ * enqueue work through the profiler instead of the command queue; when
+ * profiling is disabled the calls are forwarded to the queue unchanged. When
+ * enabled, each command is enqueued with an event whose profiling counters are
+ * accumulated per kernel name, or per transfer direction, once the command has
+ * completed.
+ */
+public class KernelProfiler {
+
+	/**
+	 * The type of command.
+	 */
+	public enum CommandType {
+
+		/** A kernel launch. */
+		KERNEL,
+		/** A host to device transfer. */
+		WRITE,
+		/** A device to host transfer. */
+		READ
+	}
+
+	/**
+	 * Accumulated timing for one kernel or transfer direction. Times are in
+	 * nanoseconds.
+	 */
+	public static class Metric {
+
+		/** The name. */
+		protected String name;
+
+		/** The command type. */
+		protected CommandType type;
+
+		/** The number of commands. */
+		protected long count = 0;
+
+		/** The total time from enqueue to end. */
+		protected long totalTime = 0;
+
+		/** The total execution time from start to end. */
+		protected long executionTime = 0;
+
+		/** The minimum execution time. */
+		protected long minTime = Long.MAX_VALUE;
+
+		/** The maximum execution time. */
+		protected long maxTime = 0;
+
+		/** The number of bytes transferred. */
+		protected long bytes = 0;
+
+		/**
+		 * Instantiates a new metric.
+		 * 
+		 * @param name
+		 *            the name
+		 * @param type
+		 *            the command type
+		 */
+		public Metric(String name, CommandType type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		/**
+		 * Adds one completed command.
+		 * 
+		 * @param queued
+		 *            the time the command was enqueued
+		 * @param start
+		 *            the time the command started
+		 * @param end
+		 *            the time the command ended
+		 * @param size
+		 *            the number of bytes transferred
+		 */
+		protected void add(long queued, long start, long end, long size) {
+			long exec = end - start;
+			count++;
+			totalTime += end - queued;
+			executionTime += exec;
+			minTime = Math.min(minTime, exec);
+			maxTime = Math.max(maxTime, exec);
+			bytes += size;
+		}
+
+		/**
+		 * Gets the number of bytes transferred.
+		 * 
+		 * @return the bytes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Gets the number of commands.
+		 * 
+		 * @return the count
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the total execution time.
+		 * 
+		 * @return the execution time
+		 */
+		public long getExecutionTime() {
+			return executionTime;
+		}
+
+		/**
+		 * Gets the maximum execution time.
+		 * 
+		 * @return the maximum time
+		 */
+		public long getMaxTime() {
+			return maxTime;
+		}
+
+		/**
+		 * Gets the mean execution time.
+		 * 
+		 * @return the mean time
+		 */
+		public double getMeanTime() {
+			return (count > 0) ? executionTime / (double) count : 0;
+		}
+
+		/**
+		 * Gets the minimum execution time.
+		 * 
+		 * @return the minimum time
+		 */
+		public long getMinTime() {
+			return (count > 0) ? minTime : 0;
+		}
+
+		/**
+		 * Gets the name.
+		 * 
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the total time from enqueue to end, which includes the time
+		 * spent waiting in the queue.
+		 * 
+		 * @return the total time
+		 */
+		public long getTotalTime() {
+			return totalTime;
+		}
+
+		/**
+		 * Gets the command type.
+		 * 
+		 * @return the type
+		 */
+		public CommandType getType() {
+			return type;
+		}
+
+		/**
+		 * Gets the transfer throughput.
+		 * 
+		 * @return the throughput in bytes per second
+		 */
+		public double getThroughput() {
+			return (executionTime > 0) ? 1E9 * bytes / executionTime : 0;
+		}
+	}
+
+	/**
+	 * A command whose event has not been read yet.
+	 */
+	protected static class PendingCommand {
+
+		/** The name. */
+		protected String name;
+
+		/** The command type. */
+		protected CommandType type;
+
+		/** The number of bytes transferred. */
+		protected long bytes;
+
+		/** The queue. */
+		protected CLCommandQueue queue;
+
+		/** The events. */
+		protected CLEventList events;
+
+		/**
+		 * Instantiates a new pending command.
+		 * 
+		 * @param name
+		 *            the name
+		 * @param type
+		 *            the type
+		 * @param bytes
+		 *            the bytes
+		 * @param queue
+		 *            the queue
+		 * @param events
+		 *            the events
+		 */
+		public PendingCommand(String name, CommandType type, long bytes,
+				CLCommandQueue queue, CLEventList events) {
+			this.name = name;
+			this.type = type;
+			this.bytes = bytes;
+			this.queue = queue;
+			this.events = events;
+		}
+	}
+
+	/** The metric name for host to device transfers. */
+	public static final String WRITE_BUFFER = "putWriteBuffer";
+
+	/** The metric name for device to host transfers. */
+	public static final String READ_BUFFER = "putReadBuffer";
+
+	/**
+	 * The number of outstanding events after which completed events are read
+	 * back and released.
+	 */
+	protected static final int MAX_PENDING = 1024;
+
+	/**
+	 * The number of kernels and host to device transfers enqueued. Objects
+	 * that keep host copies of device buffers compare it to tell whether a
+	 * copy may be stale.
+	 */
+	protected long commandCount = 0;
+
+	/** The enabled. */
+	protected boolean enabled = false;
+
+	/** The metrics, in the order they were first recorded. */
+	protected LinkedHashMap<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+	/** The pending commands. */
+	protected ArrayList<PendingCommand> pending = new ArrayList<PendingCommand>();
+
+	/** The output file written at the end of each run. */
+	protected File outputFile = null;
+
+	/**
+	 * Instantiates a new kernel profiler. Profiling is enabled by default if
+	 * the system property "imagesci.profile" is set to true.
+	 */
+	public KernelProfiler() {
+		this.enabled = Boolean.getBoolean("imagesci.profile");
+	}
+
+	/**
+	 * Create a command queue on a device, with profiling support if profiling
+	 * is enabled.
+	 * 
+	 * @param device
+	 *            the device
+	 * @return the queue
+	 */
+	public CLCommandQueue createQueue(CLDevice device) {
+		if (enabled) {
+			return device
+					.createCommandQueue(CLCommandQueue.Mode.PROFILING_MODE);
+		} else {
+			return device.createCommandQueue();
+		}
+	}
+
+	/**
+	 * Read back the profiling counters of all pending commands, waiting for
+	 * them to complete if necessary.
+	 */
+	public synchronized void collect() {
+		for (PendingCommand cmd : pending) {
+			cmd.queue.putWaitForEvents(cmd.events, true);
+			CLEvent event = cmd.events.getEvent(0);
+			Metric metric = metrics.get(cmd.name);
+			if (metric == null) {
+				metric = new Metric(cmd.name, cmd.type);
+				metrics.put(cmd.name, metric);
+			}
+			metric.add(event.getProfilingInfo(ProfilingCommand.QUEUED),
+					event.getProfilingInfo(ProfilingCommand.START),
+					event.getProfilingInfo(ProfilingCommand.END), cmd.bytes);
+			cmd.events.release();
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Collect pending commands, write the metrics to the output file if one is
+	 * set, and print a summary. Solvers call this at the end of a run.
+	 */
+	public void finishRun() {
+		if (!enabled) {
+			return;
+		}
+		collect();
+		System.out.print(toString());
+		if (outputFile != null) {
+			try {
+				if (outputFile.getName().toLowerCase().endsWith(".json")) {
+					writeJSON(outputFile);
+				} else {
+					writeCSV(outputFile);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of kernels and host to device transfers enqueued so far.
+	 * 
+	 * @return the command count
+	 */
+	public long getCommandCount() {
+		return commandCount;
+	}
+
+	/**
+	 * Gets the metric for a kernel name or transfer direction.
+	 * 
+	 * @param name
+	 *            the name
+	 * @return the metric, or null if nothing was recorded
+	 */
+	public synchronized Metric getMetric(String name) {
+		collect();
+		return metrics.get(name);
+	}
+
+	/**
+	 * Gets all metrics.
+	 * 
+	 * @return the metrics
+	 */
+	public synchronized Collection<Metric> getMetrics() {
+		collect();
+		return new ArrayList<Metric>(metrics.values());
+	}
+
+	/**
+	 * Gets the output file.
+	 * 
+	 * @return the output file
+	 */
+	public File getOutputFile() {
+		return outputFile;
+	}
+
+	/**
+	 * Checks if profiling is enabled.
+	 * 
+	 * @return true, if enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Return a command queue that supports profiling. If profiling is enabled
+	 * and the queue was created without profiling support, the queue is
+	 * finished and a new profiling queue is created on the same device.
+	 * <p>
+	 * A queue that the caller does not own is never replaced, because other
+	 * objects such as renderers rely on the order of commands in it. In that
+	 * case profiling is disabled and the queue is returned unchanged.
+	 * <p>
+	 * The replaced queue is not released. The caller must swap every
+	 * reference to it for the returned queue and release it. Call this before
+	 * the queue is shared with other objects such as renderers.
+	 * 
+	 * @param queue
+	 *            the queue
+	 * @param ownsQueue
+	 *            whether the caller created the queue
+	 * @return the queue to use
+	 */
+	public CLCommandQueue prepareQueue(CLCommandQueue queue, boolean ownsQueue) {
+		if (!enabled || queue == null || queue.isProfilingEnabled()) {
+			return queue;
+		}
+		if (!ownsQueue) {
+			System.err.println("Profiling disabled: the shared command queue "
+					+ "was created without profiling support.");
+			enabled = false;
+			return queue;
+		}
+		queue.finish();
+		return queue.getDevice().createCommandQueue(
+				CLCommandQueue.Mode.PROFILING_MODE);
+	}
+
+	/**
+	 * Enqueue a kernel.
+	 * 
+	 * @param queue
+	 *            the queue
+	 * @param kernel
+	 *            the kernel
+	 * @param globalWorkOffset
+	 *            the global work offset
+	 * @param globalWorkSize
+	 *            the global work size
+	 * @param localWorkSize
+	 *            the local work size
+	 * @return the queue
+	 */
+	public CLCommandQueue put1DRangeKernel(CLCommandQueue queue,
+			CLKernel kernel, long globalWorkOffset, long globalWorkSize,
+			long localWorkSize) {
+		commandCount++;
+		if (!enabled) {
+			return queue.put1DRangeKernel(kernel, globalWorkOffset,
+					globalWorkSize, localWorkSize);
+		}
+		CLEventList events = new CLEventList(1);
+		queue.put1DRangeKernel(kernel, globalWorkOffset, globalWorkSize,
+				localWorkSize, events);
+		addPending(new PendingCommand(kernel.name, CommandType.KERNEL, 0,
+				queue, events));
+		return queue;
+	}
+
+	/**
+	 * Enqueue a device to host transfer.
+	 * 
+	 * @param queue
+	 *            the queue
+	 * @param buffer
+	 *            the buffer
+	 * @param blocking
+	 *            whether to wait for the transfer to complete
+	 * @return the queue
+	 */
+	public CLCommandQueue putReadBuffer(CLCommandQueue queue,
+			CLBuffer<?> buffer, boolean blocking) {
+		if (!enabled) {
+			return queue.putReadBuffer(buffer, blocking);
+		}
+		CLEventList events = new CLEventList(1);
+		queue.putReadBuffer(buffer, blocking, events);
+		addPending(new PendingCommand(READ_BUFFER, CommandType.READ,
+				buffer.getCLSize(), queue, events));
+		return queue;
+	}
+
+	/**
+	 * Enqueue a host to device transfer.
+	 * 
+	 * @param queue
+	 *            the queue
+	 * @param buffer
+	 *            the buffer
+	 * @param blocking
+	 *            whether to wait for the transfer to complete
+	 * @return the queue
+	 */
+	public CLCommandQueue putWriteBuffer(CLCommandQueue queue,
+			CLBuffer<?> buffer, boolean blocking) {
+		commandCount++;
+		if (!enabled) {
+			return queue.putWriteBuffer(buffer, blocking);
+		}
+		CLEventList events = new CLEventList(1);
+		queue.putWriteBuffer(buffer, blocking, events);
+		addPending(new PendingCommand(WRITE_BUFFER, CommandType.WRITE,
+				buffer.getCLSize(), queue, events));
+		return queue;
+	}
+
+	/**
+	 * Discard all metrics and pending commands.
+	 */
+	public synchronized void reset() {
+		for (PendingCommand cmd : pending) {
+			cmd.queue.putWaitForEvents(cmd.events, true);
+			cmd.events.release();
+		}
+		pending.clear();
+		metrics.clear();
+	}
+
+	/**
+	 * Sets whether profiling is enabled. The command queue must support
+	 * profiling, see {@link #prepareQueue(CLCommandQueue, boolean)}.
+	 * 
+	 * @param enabled
+	 *            the new enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Sets the file written at the end of each run. Files ending in ".json"
+	 * are written as JSON, all others as CSV.
+	 * 
+	 * @param outputFile
+	 *            the output file
+	 */
+	public void setOutputFile(File outputFile) {
+		this.outputFile = outputFile;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuffer buff = new StringBuffer();
+		long total = 0;
+		for (Metric metric : metrics.values()) {
+			total += metric.executionTime;
+		}
+		buff.append(String.format(Locale.US, "%-36s %8s %12s %10s %7s %12s\n",
+				"Command", "Count", "Total(ms)", "Mean(us)", "Share",
+				"MB/s"));
+		for (Metric metric : metrics.values()) {
+			buff.append(String.format(Locale.US,
+					"%-36s %8d %12.3f %10.3f %6.1f%% %12.1f\n", metric.name,
+					metric.count, 1E-6 * metric.executionTime,
+					1E-3 * metric.getMeanTime(),
+					(total > 0) ? 100.0 * metric.executionTime / total : 0,
+					1E-6 * metric.getThroughput()));
+		}
+		return buff.toString();
+	}
+
+	/**
+	 * Write the metrics as CSV.
+	 * 
+	 * @param f
+	 *            the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void writeCSV(File f) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(f));
+		try {
+			out.println("name,type,count,total_ns,execution_ns,min_ns,max_ns,bytes");
+			for (Metric metric : getMetrics()) {
+				out.printf(Locale.US, "%s,%s,%d,%d,%d,%d,%d,%d\n",
+						metric.name, metric.type, metric.count,
+						metric.totalTime, metric.executionTime,
+						metric.getMinTime(), metric.maxTime, metric.bytes);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the metrics as JSON.
+	 * 
+	 * @param f
+	 *            the file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void writeJSON(File f) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(f));
+		try {
+			out.println("[");
+			int index = 0;
+			Collection<Metric> values = getMetrics();
+			for (Metric metric : values) {
+				out.printf(Locale.US, "  {\"name\": \"%s\", \"type\": \"%s\", "
+						+ "\"count\": %d, \"total_ns\": %d, "
+						+ "\"execution_ns\": %d, \"min_ns\": %d, "
+						+ "\"max_ns\": %d, \"bytes\": %d}%s\n", metric.name,
+						metric.type, metric.count, metric.totalTime,
+						metric.executionTime, metric.getMinTime(),
+						metric.maxTime, metric.bytes,
+						(++index < values.size()) ? "," : "");
+			}
+			out.println("]");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Adds a pending command, reading back completed commands when too many
+	 * events are outstanding.
+	 * 
+	 * @param cmd
+	 *            the command
+	 */
+	protected synchronized void addPending(PendingCommand cmd) {
+		pending.add(cmd);
+		if (pending.size() >= MAX_PENDING) {
+			collect();
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.utility;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values that stores entries
+ * in primitive arrays. It is not synchronized, each thread is expected to
+ * own its map.
+ */
+public class LongIntHashMap {
+
+	/** Value returned by {@link #get(long)} for missing keys. */
+	public static final int NOT_FOUND = -1;
+
+	/** Marks an empty slot. */
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	/** The keys. */
+	private long[] keys;
+
+	/** The values. */
+	private int[] values;
+
+	/** The number of entries. */
+	private int size = 0;
+
+	/** The mask used to wrap slot indexes. */
+	private int mask;
+
+	/** Whether the reserved key {@link #EMPTY} has been inserted. */
+	private boolean hasEmptyKey = false;
+
+	/** The value of the reserved key. */
+	private int emptyKeyValue;
+
+	/**
+	 * Instantiates a new hash map.
+	 */
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Instantiates a new hash map.
+	 *
+	 * @param expected
+	 *            the expected number of entries
+	 */
+	public LongIntHashMap(int expected) {
+		int capacity = 16;
+		while (capacity < 2L * expected && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Allocate.
+	 *
+	 * @param capacity
+	 *            the capacity
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Mix the bits of a key.
+	 *
+	 * @param key
+	 *            the key
+	 *
+	 * @return the slot
+	 */
+	private int slot(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	/**
+	 * Gets the value for a key.
+	 *
+	 * @param key
+	 *            the key
+	 *
+	 * @return the value or {@link #NOT_FOUND}
+	 */
+	public int get(long key) {
+		if (key == EMPTY) {
+			return (hasEmptyKey) ? emptyKeyValue : NOT_FOUND;
+		}
+		int s = slot(key);
+		long k;
+		while ((k = keys[s]) != EMPTY) {
+			if (k == key) {
+				return values[s];
+			}
+			s = (s + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Checks if the map contains a key.
+	 *
+	 * @param key
+	 *            the key
+	 *
+	 * @return true, if successful
+	 */
+	public boolean containsKey(long key) {
+		if (key == EMPTY) {
+			return hasEmptyKey;
+		}
+		int s = slot(key);
+		long k;
+		while ((k = keys[s]) != EMPTY) {
+			if (k == key) {
+				return true;
+			}
+			s = (s + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Associates a value with a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 *
+	 * @return the previous value or {@link #NOT_FOUND}
+	 */
+	public int put(long key, int value) {
+		if (key == EMPTY) {
+			int old = (hasEmptyKey) ? emptyKeyValue : NOT_FOUND;
+			if (!hasEmptyKey) {
+				size++;
+			}
+			hasEmptyKey = true;
+			emptyKeyValue = value;
+			return old;
+		}
+		int s = slot(key);
+		long k;
+		while ((k = keys[s]) != EMPTY) {
+			if (k == key) {
+				int old = values[s];
+				values[s] = value;
+				return old;
+			}
+			s = (s + 1) & mask;
+		}
+		keys[s] = key;
+		values[s] = value;
+		if (++size > (mask + 1) >> 1) {
+			rehash();
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Gets the value for a key, inserting the supplied value if the key is
+	 * missing.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value to insert
+	 *
+	 * @return the existing value, or {@link #NOT_FOUND} if the value was
+	 *         inserted
+	 */
+	public int putIfAbsent(long key, int value) {
+		if (key == EMPTY) {
+			if (hasEmptyKey) {
+				return emptyKeyValue;
+			}
+			put(key, value);
+			return NOT_FOUND;
+		}
+		int s = slot(key);
+		long k;
+		while ((k = keys[s]) != EMPTY) {
+			if (k == key) {
+				return values[s];
+			}
+			s = (s + 1) & mask;
+		}
+		keys[s] = key;
+		values[s] = value;
+		if (++size > (mask + 1) >> 1) {
+			rehash();
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Double the table size.
+	 */
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != EMPTY) {
+				int s = slot(key);
+				while (keys[s] != EMPTY) {
+					s = (s + 1) & mask;
+				}
+				keys[s] = key;
+				values[s] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		hasEmptyKey = false;
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.utility;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared worker pool for the CPU implementations of the image and geometry
+ * algorithms. Work is expressed as index ranges that are split into
+ * contiguous chunks, one chunk is always executed on the calling thread.
+ * Calls made from inside a worker run serially so nested loops cannot
+ * exhaust the pool.
+ */
+public class ParallelUtil {
+
+	/**
+	 * Task executed over a half-open index range [start, end).
+	 */
+	public static interface RangeTask {
+
+		/**
+		 * Run.
+		 *
+		 * @param start
+		 *            the first index
+		 * @param end
+		 *            one past the last index
+		 */
+		public void run(int start, int end);
+	}
+
+	/** The pool. */
+	private static ExecutorService pool = null;
+
+	/** The thread count. */
+	private static int threadCount = Runtime.getRuntime().availableProcessors();
+
+	/** Flags threads that belong to the pool. */
+	private static final ThreadLocal<Boolean> worker = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return Boolean.FALSE;
+		}
+	};
+
+	/**
+	 * Gets the thread count.
+	 *
+	 * @return the thread count
+	 */
+	public static int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Sets the number of threads used by subsequent calls. The pool is
+	 * recreated on the next call.
+	 *
+	 * @param count
+	 *            the thread count
+	 */
+	public static synchronized void setThreadCount(int count) {
+		count = Math.max(1, count);
+		if (count != threadCount) {
+			threadCount = count;
+			if (pool != null) {
+				pool.shutdown();
+				pool = null;
+			}
+		}
+	}
+
+	/**
+	 * Checks if the current thread is a pool worker.
+	 *
+	 * @return true, if is worker thread
+	 */
+	public static boolean isWorkerThread() {
+		return worker.get();
+	}
+
+	/**
+	 * Gets the pool.
+	 *
+	 * @return the pool
+	 */
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			final AtomicInteger counter = new AtomicInteger(0);
+			pool = Executors.newFixedThreadPool(threadCount,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							Thread th = new Thread(new Runnable() {
+								@Override
+								public void run() {
+									worker.set(Boolean.TRUE);
+									r.run();
+								}
+							});
+							th.setName("imagesci-worker-"
+									+ counter.getAndIncrement());
+							th.setDaemon(true);
+							return th;
+						}
+					});
+		}
+		return pool;
+	}
+
+	/**
+	 * Execute the task over [start, end) using one chunk per thread.
+	 *
+	 * @param start
+	 *            the start
+	 * @param end
+	 *            the end
+	 * @param task
+	 *            the task
+	 */
+	public static void forRange(int start, int end, RangeTask task) {
+		forRange(start, end, threadCount, task);
+	}
+
+	/**
+	 * Execute the task over [start, end) split into the requested number of
+	 * chunks. Blocks until all chunks have completed and rethrows the first
+	 * failure.
+	 *
+	 * @param start
+	 *            the start
+	 * @param end
+	 *            the end
+	 * @param chunks
+	 *            the number of chunks
+	 * @param task
+	 *            the task
+	 */
+	public static void forRange(int start, int end, int chunks,
+			final RangeTask task) {
+		int length = end - start;
+		if (length <= 0) {
+			return;
+		}
+		chunks = Math.min(chunks, length);
+		if (chunks <= 1 || threadCount <= 1 || isWorkerThread()) {
+			task.run(start, end);
+			return;
+		}
+		ExecutorService exec = getPool();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(chunks - 1);
+		for (int c = 1; c < chunks; c++) {
+			final int st = start + (int) ((long) length * c / chunks);
+			final int ed = start + (int) ((long) length * (c + 1) / chunks);
+			futures.add(exec.submit(new Runnable() {
+				@Override
+				public void run() {
+					task.run(st, ed);
+				}
+			}));
+		}
+		RuntimeException error = null;
+		try {
+			task.run(start, start + length / chunks);
+		} catch (RuntimeException e) {
+			error = e;
+		}
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (error == null) {
+					error = new RuntimeException(e);
+				}
+			} catch (ExecutionException e) {
+				if (error == null) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						error = (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					} else {
+						error = new RuntimeException(cause);
+					}
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+}
@@ -36,6 +36,12 @@ import javax.vecmath.Point3i;
  */
 public class PhantomBubbles extends PhantomSimulator3D {
 
+	/** The bubble centers. */
+	protected Point3d[] centers;
+
+	/** The bubble radii. */
+	protected double[] radii;
+
 	/** The max radius. */
 	protected double maxRadius;
 
@@ -89,42 +95,53 @@ public class PhantomBubbles extends PhantomSimulator3D {
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see edu.jhu.cs.cisst.algorithms.util.phantom.PhantomSimulator3D#solve()
+	 * @see org.imagesci.utility.PhantomSimulator3D#evaluate(int, int, int)
 	 */
 	@Override
-	public void solve() {
+	protected double evaluate(int i, int j, int k) {
 		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					levelset.set(i, j, k, 1E10);
-				}
-			}
+		double x = (i - 0.5 * rows) * scale;
+		double y = (j - 0.5 * cols) * scale;
+		double z = (k - 0.5 * slices) * scale;
+		double val = 1E10;
+		for (int n = 0; n < centers.length; n++) {
+			Point3d center = centers[n];
+			double r = Math.sqrt((x - center.x) * (x - center.x)
+					+ (y - center.y) * (y - center.y) + (z - center.z)
+					* (z - center.z));
+			val = Math.min(val, r - radii[n]);
 		}
-		for (int n = 0; n < numBubbles; n++) {
+		return val;
+	}
 
+	/**
+	 * Place the bubbles. The random number generator is reset so that the
+	 * same bubbles are placed every time.
+	 */
+	@Override
+	protected void initialize() {
+		randn.setSeed(SEED);
+		centers = new Point3d[numBubbles];
+		radii = new double[numBubbles];
+		for (int n = 0; n < numBubbles; n++) {
 			double v = randn.nextDouble();
 			double ra = (1 - v) * minRadius + v * maxRadius;
-			Point3d center = new Point3d((2 * randn.nextDouble() - 1)
+			centers[n] = new Point3d((2 * randn.nextDouble() - 1)
 					* (1 - ra - 4.0 / rows), (2 * randn.nextDouble() - 1)
 					* (1 - ra - 4.0 / cols), (2 * randn.nextDouble() - 1)
 					* (1 - ra - 4.0 / slices));
-
-			for (int i = 0; i < rows; i++) {
-				for (int j = 0; j < cols; j++) {
-					for (int k = 0; k < slices; k++) {
-						double x = (i - 0.5 * rows) * scale;
-						double y = (j - 0.5 * cols) * scale;
-						double z = (k - 0.5 * slices) * scale;
-						double r = Math.sqrt((x - center.x) * (x - center.x)
-								+ (y - center.y) * (y - center.y)
-								+ (z - center.z) * (z - center.z));
-						levelset.set(i, j, k,
-								Math.min(levelset.getFloat(i, j, k), r - ra));
-					}
-				}
-			}
+			radii[n] = ra;
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.algorithms.util.phantom.PhantomSimulator3D#solve()
+	 */
+	@Override
+	public void solve() {
+		fillLevelSet();
 		levelset.setName("bubbles_level");
 		image.setName("bubbles");
 		finish();
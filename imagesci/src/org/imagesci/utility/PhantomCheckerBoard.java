@@ -153,33 +153,36 @@ public class PhantomCheckerBoard extends PhantomSimulator3D {
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see edu.jhu.cs.cisst.algorithms.util.phantom.PhantomSimulator3D#solve()
+	 * @see org.imagesci.utility.PhantomSimulator3D#evaluate(int, int, int)
 	 */
 	@Override
-	public void solve() {
+	protected double evaluate(int i, int j, int k) {
 		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
 		double f = 2 * Math.PI / width;
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					double x = (i - 0.5 * rows) * scale;
-					double y = (j - 0.5 * cols) * scale;
-					double z = (k - 0.5 * slices) * scale;
-					levelset.set(
-							i,
-							j,
-							k,
-							(((x - center.x) > -0.5 * width
-									&& (x - center.x) < 0.5 * width
-									&& (y - center.y) > -0.5 * width
-									&& (y - center.y) < 0.5 * width
-									&& (z - center.z) > -0.5 * width && (z - center.z) < 0.5 * width) ? Math
-									.signum(Math.sin(f * xFrequency * x)
-											* Math.sin(f * yFrequency * y)
-											* Math.sin(f * zFrequency * z)) : 1));
-				}
-			}
+		double x = (i - 0.5 * rows) * scale;
+		double y = (j - 0.5 * cols) * scale;
+		double z = (k - 0.5 * slices) * scale;
+		if ((x - center.x) > -0.5 * width && (x - center.x) < 0.5 * width
+				&& (y - center.y) > -0.5 * width
+				&& (y - center.y) < 0.5 * width
+				&& (z - center.z) > -0.5 * width
+				&& (z - center.z) < 0.5 * width) {
+			return Math.signum(Math.sin(f * xFrequency * x)
+					* Math.sin(f * yFrequency * y)
+					* Math.sin(f * zFrequency * z));
+		} else {
+			return 1;
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.algorithms.util.phantom.PhantomSimulator3D#solve()
+	 */
+	@Override
+	public void solve() {
+		fillLevelSet();
 		levelset.setName("checkerboard_level");
 		image.setName("checkerboard");
 		finish();
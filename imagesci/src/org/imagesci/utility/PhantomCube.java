@@ -73,6 +73,23 @@ public class PhantomCube extends PhantomSimulator3D {
 		this.width = width;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.utility.PhantomSimulator3D#evaluate(int, int, int)
+	 */
+	@Override
+	protected double evaluate(int i, int j, int k) {
+		double x = (i - 0.5 * rows) / (float) (0.5 * rows);
+		double y = (j - 0.5 * cols) / (float) (0.5 * cols);
+		double z = (k - 0.5 * slices) / (float) (0.5 * slices);
+		return ((x - center.x) > -0.5 * width && (x - center.x) < 0.5 * width
+				&& (y - center.y) > -0.5 * width
+				&& (y - center.y) < 0.5 * width
+				&& (z - center.z) > -0.5 * width
+				&& (z - center.z) < 0.5 * width) ? -1 : 1;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -80,27 +97,7 @@ public class PhantomCube extends PhantomSimulator3D {
 	 */
 	@Override
 	public void solve() {
-		// double scale=2.0/Math.max(rows,Math.max(cols,slices));
-
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					double x = (i - 0.5 * rows) / (float) (0.5 * rows);
-					double y = (j - 0.5 * cols) / (float) (0.5 * cols);
-					double z = (k - 0.5 * slices) / (float) (0.5 * slices);
-					levelset.set(
-							i,
-							j,
-							k,
-							((x - center.x) > -0.5 * width
-									&& (x - center.x) < 0.5 * width
-									&& (y - center.y) > -0.5 * width
-									&& (y - center.y) < 0.5 * width
-									&& (z - center.z) > -0.5 * width && (z - center.z) < 0.5 * width) ? -1
-									: 1);
-				}
-			}
-		}
+		fillLevelSet();
 		levelset.setName("cube_level");
 		image.setName("cube");
 		finish();
@@ -99,6 +99,36 @@ public class PhantomMetasphere extends PhantomSimulator3D {
 		this.minAmplitude = minAmplitude;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.utility.PhantomSimulator3D#evaluate(int, int, int)
+	 */
+	@Override
+	protected double evaluate(int i, int j, int k) {
+		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
+		double x = (i - 0.5 * rows) * scale;
+		double y = (j - 0.5 * cols) * scale;
+		double z = (k - 0.5 * slices) * scale;
+
+		double rXY = Math.sqrt((x - center.x) * (x - center.x)
+				+ (y - center.y) * (y - center.y));
+
+		double rXYZ = Math.sqrt((x - center.x) * (x - center.x)
+				+ (y - center.y) * (y - center.y) + (z - center.z)
+				* (z - center.z));
+		double alpha = Math.atan2(y, x);
+		double r1 = Math.sqrt(maxAmplitude * maxAmplitude
+				- ((z - center.z) * (z - center.z)))
+				/ maxAmplitude;
+		double beta = Math.atan2(z, rXY);
+		double d = (minAmplitude + (maxAmplitude - minAmplitude)
+				* (Math.cos(alpha * frequency)));
+		double r2 = (minAmplitude + (maxAmplitude - minAmplitude)
+				* (Math.cos(2 * beta * frequency)));
+		return 0.5 * ((rXY - r1 * d) + (rXYZ - r2));
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -106,33 +136,7 @@ public class PhantomMetasphere extends PhantomSimulator3D {
 	 */
 	@Override
 	public void solve() {
-		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					double x = (i - 0.5 * rows) * scale;
-					double y = (j - 0.5 * cols) * scale;
-					double z = (k - 0.5 * slices) * scale;
-
-					double rXY = Math.sqrt((x - center.x) * (x - center.x)
-							+ (y - center.y) * (y - center.y));
-
-					double rXYZ = Math.sqrt((x - center.x) * (x - center.x)
-							+ (y - center.y) * (y - center.y) + (z - center.z)
-							* (z - center.z));
-					double alpha = Math.atan2(y, x);
-					double r1 = Math.sqrt(maxAmplitude * maxAmplitude
-							- ((z - center.z) * (z - center.z)))
-							/ maxAmplitude;
-					double beta = Math.atan2(z, rXY);
-					double d = (minAmplitude + (maxAmplitude - minAmplitude)
-							* (Math.cos(alpha * frequency)));
-					double r2 = (minAmplitude + (maxAmplitude - minAmplitude)
-							* (Math.cos(2 * beta * frequency)));
-					levelset.set(i, j, k, 0.5 * ((rXY - r1 * d) + (rXYZ - r2)));
-				}
-			}
-		}
+		fillLevelSet();
 		levelset.setName("metasphere_level");
 		image.setName("metasphere");
 		finish();
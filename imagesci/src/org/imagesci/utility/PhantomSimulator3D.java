@@ -27,19 +27,25 @@
 package org.imagesci.utility;
 
 
+import java.io.File;
 import java.util.Random;
 
 import javax.vecmath.Point3i;
 
 import org.imagesci.gac.DistanceField3D;
 
+import edu.jhu.ece.iacl.jist.io.NIFTIReaderWriter;
 import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface;
 import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
 import edu.jhu.ece.iacl.jist.utility.VersionUtil;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class PhantomSimulator3D.
+ * The Class PhantomSimulator3D. Subclasses define an implicit function that
+ * is evaluated in parallel over the volume with {@link ParallelUtil}, so the
+ * number of worker threads is set with {@link ParallelUtil#setThreadCount}.
+ * The phantom image can also be streamed slice by slice to a NIfTI file
+ * without allocating the volume.
  */
 public abstract class PhantomSimulator3D {
 	/**
@@ -83,6 +89,9 @@ public abstract class PhantomSimulator3D {
 		Sphere
 	}
 
+	/** The random seed. */
+	protected static final long SEED = 43897075348790543l;
+
 	/** The Constant phantomNames. */
 	public static final String[] phantomNames = new String[] { "Sphere",
 			"Cube", "Bubbles", "Metasphere" };
@@ -133,9 +142,7 @@ public abstract class PhantomSimulator3D {
 		this.rows = dims.x;
 		this.cols = dims.y;
 		this.slices = dims.z;
-		levelset = new ImageDataFloat(rows, cols, slices);
-		image = new ImageDataFloat(rows, cols, slices);
-		randn = new Random(43897075348790543l);
+		randn = new Random(SEED);
 	}
 
 	/**
@@ -292,34 +299,160 @@ public abstract class PhantomSimulator3D {
 	public abstract void solve();
 
 	/**
-	 * Finish.
+	 * Stream the phantom image to a NIfTI file. Slices are computed in
+	 * parallel in slabs as they are written, so the volume is never
+	 * allocated. The implicit function is used without re-distancing, and no
+	 * surface is generated.
+	 * 
+	 * @param f
+	 *            the file
+	 * @return the file, or null if the image could not be written
 	 */
-	protected void finish() {
+	public File stream(File f) {
+		initialize();
+		return NIFTIReaderWriter.getInstance().write(
+				new PhantomSliceImage(this), f);
+	}
 
-		DistanceField3D df = new DistanceField3D();
-		levelset = df.solve(levelset, 10);
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					double l = levelset.getDouble(i, j, k);
-					double noise = 0;
-					switch (noiseType) {
-					case Uniform:
-						noise = noiseLevel * (2 * randn.nextDouble() - 1);
-						break;
-					case Gaussian:
-						noise = noiseLevel * randn.nextGaussian();
-						break;
+	/**
+	 * Compute the phantom image for a range of slices in parallel.
+	 * 
+	 * @param startSlice
+	 *            the first slice
+	 * @param endSlice
+	 *            the slice after the last slice
+	 * @param data
+	 *            the image slices with rows varying fastest
+	 */
+	protected void computeSlices(final int startSlice, int endSlice,
+			final float[] data) {
+		ParallelUtil.forRange(startSlice, endSlice,
+				new ParallelUtil.RangeTask() {
+					@Override
+					public void run(int start, int end) {
+						for (int k = start; k < end; k++) {
+							Random random = createNoise(k);
+							int index = (k - startSlice) * rows * cols;
+							for (int j = 0; j < cols; j++) {
+								for (int i = 0; i < rows; i++) {
+									float l = (float) evaluate(i, j, k);
+									data[index++] = getIntensity(l, random);
+								}
+							}
+						}
 					}
-					double v = noise + heaviside(l, fuzziness, heaviside);
-					if (invertImage) {
-						image.set(i, j, k, 1 - v);
-					} else {
-						image.set(i, j, k, v);
+				});
+	}
+
+	/**
+	 * Creates the noise generator for a slice, so that the noise does not
+	 * depend on the number of threads.
+	 * 
+	 * @param k
+	 *            the slice
+	 * @return the random number generator
+	 */
+	protected Random createNoise(int k) {
+		return new Random(SEED ^ (k * 0x9E3779B97F4A7C15L));
+	}
+
+	/**
+	 * Evaluate the implicit function at a voxel. The function is negative
+	 * inside the phantom.
+	 * 
+	 * @param i
+	 *            the row
+	 * @param j
+	 *            the column
+	 * @param k
+	 *            the slice
+	 * @return the level set value
+	 */
+	protected abstract double evaluate(int i, int j, int k);
+
+	/**
+	 * Fill the image from the level set in parallel slabs.
+	 */
+	protected void fillImage() {
+		ParallelUtil.forRange(0, slices, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int k = start; k < end; k++) {
+					Random random = createNoise(k);
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							image.set(i, j, k, getIntensity(
+									levelset.getDouble(i, j, k), random));
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Fill the level set by evaluating the implicit function in parallel
+	 * slabs. The level set and image are allocated if necessary.
+	 */
+	protected void fillLevelSet() {
+		if (levelset == null) {
+			levelset = new ImageDataFloat(rows, cols, slices);
+		}
+		if (image == null) {
+			image = new ImageDataFloat(rows, cols, slices);
+		}
+		initialize();
+		ParallelUtil.forRange(0, rows, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					for (int j = 0; j < cols; j++) {
+						for (int k = 0; k < slices; k++) {
+							levelset.set(i, j, k, (float) evaluate(i, j, k));
+						}
 					}
 				}
 			}
+		});
+	}
+
+	/**
+	 * Gets the image intensity for a level set value.
+	 * 
+	 * @param l
+	 *            the level set value
+	 * @param random
+	 *            the noise generator
+	 * @return the intensity
+	 */
+	protected float getIntensity(double l, Random random) {
+		double noise = 0;
+		switch (noiseType) {
+		case Uniform:
+			noise = noiseLevel * (2 * random.nextDouble() - 1);
+			break;
+		case Gaussian:
+			noise = noiseLevel * random.nextGaussian();
+			break;
 		}
+		double v = noise + heaviside(l, fuzziness, heaviside);
+		return (float) ((invertImage) ? 1 - v : v);
+	}
+
+	/**
+	 * Initialize any state needed by {@link #evaluate(int, int, int)}.
+	 */
+	protected void initialize() {
+	}
+
+	/**
+	 * Finish.
+	 */
+	protected void finish() {
+
+		DistanceField3D df = new DistanceField3D();
+		levelset = df.solve(levelset, 10);
+		fillImage();
 		IsoSurfaceGenerator isosurf = new IsoSurfaceGenerator();
 		surf = isosurf.solve(levelset, 0);
 		surf.setName(image.getName());
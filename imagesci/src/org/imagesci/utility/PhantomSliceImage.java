@@ -0,0 +1,347 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.utility;
+
+import java.awt.Color;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageData;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+import edu.jhu.ece.iacl.jist.structures.image.ImageHeader;
+import edu.jhu.ece.iacl.jist.structures.image.Voxel;
+import edu.jhu.ece.iacl.jist.structures.image.VoxelType;
+
+/**
+ * A read-only image of a phantom that computes slabs of slices on demand.
+ * Voxels must be read in slice order, as the NIfTI writer does, so that each
+ * slab is computed once and only one slab is held in memory.
+ */
+public class PhantomSliceImage extends ImageData {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = -6093721750398413627L;
+
+	/** The slab. */
+	protected transient float[] slab;
+
+	/** The number of slices in a slab. */
+	protected int slabSlices;
+
+	/** The phantom. */
+	protected transient PhantomSimulator3D phantom;
+
+	/** The slice range of the current slab. */
+	protected int startSlice, endSlice;
+
+	/**
+	 * Instantiates a new phantom slice image. Each slab holds two slices per
+	 * worker thread.
+	 * 
+	 * @param phantom
+	 *            the phantom
+	 */
+	public PhantomSliceImage(PhantomSimulator3D phantom) {
+		this.phantom = phantom;
+		this.type = VoxelType.FLOAT;
+		this.rows = phantom.rows;
+		this.cols = phantom.cols;
+		this.slices = phantom.slices;
+		this.components = 1;
+		this.slabSlices = Math.min(Math.max(1, slices),
+				2 * ParallelUtil.getThreadCount());
+		setHeader(new ImageHeader());
+		setName(getClass().getSimpleName());
+	}
+
+	/**
+	 * Compute the slab that starts at a slice.
+	 * 
+	 * @param k
+	 *            the slice
+	 */
+	protected void computeSlab(int k) {
+		if (slab == null) {
+			slab = new float[rows * cols * slabSlices];
+		}
+		startSlice = k;
+		endSlice = Math.min(Math.max(1, slices), k + slabSlices);
+		phantom.computeSlices(startSlice, endSlice, slab);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#clone()
+	 */
+	@Override
+	public ImageData clone() {
+		ImageData v = mimic();
+		for (int k = 0; k < Math.max(1, slices); k++) {
+			for (int j = 0; j < cols; j++) {
+				for (int i = 0; i < rows; i++) {
+					v.set(i, j, k, getFloat(i, j, k, 0));
+				}
+			}
+		}
+		v.setName(getName());
+		return v;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#dispose()
+	 */
+	@Override
+	public void dispose() {
+		slab = null;
+		phantom = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#get(int, int, int,
+	 * int)
+	 */
+	@Override
+	public Number get(int i, int j, int k, int l) {
+		return getFloat(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getBoolean(int,
+	 * int, int, int)
+	 */
+	@Override
+	public boolean getBoolean(int i, int j, int k, int l) {
+		return getDouble(i, j, k, l) != 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getByte(int, int,
+	 * int, int)
+	 */
+	@Override
+	public byte getByte(int i, int j, int k, int l) {
+		return (byte) getInt(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getColor(int, int,
+	 * int, int)
+	 */
+	@Override
+	public Color getColor(int i, int j, int k, int l) {
+		return new Color(getInt(i, j, k, l));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getDouble(int, int,
+	 * int, int)
+	 */
+	@Override
+	public double getDouble(int i, int j, int k, int l) {
+		return getFloat(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getFloat(int, int,
+	 * int, int)
+	 */
+	@Override
+	public float getFloat(int i, int j, int k, int l) {
+		if (k < startSlice || k >= endSlice) {
+			computeSlab(k);
+		}
+		return slab[((k - startSlice) * cols + j) * rows + i];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getInt(int, int,
+	 * int, int)
+	 */
+	@Override
+	public int getInt(int i, int j, int k, int l) {
+		return (int) getFloat(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getShort(int, int,
+	 * int, int)
+	 */
+	@Override
+	public short getShort(int i, int j, int k, int l) {
+		return (short) getInt(i, j, k, l);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#getUByte(int, int,
+	 * int, int)
+	 */
+	@Override
+	public short getUByte(int i, int j, int k, int l) {
+		int val = getInt(i, j, k, l);
+		return (short) (val < 0 ? 0 : val > 255 ? 255 : val);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#isNotAvailable()
+	 */
+	@Override
+	public boolean isNotAvailable() {
+		return (phantom == null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#mimic()
+	 */
+	@Override
+	public ImageData mimic() {
+		return mimic(rows, cols, slices, components);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#mimic(int, int,
+	 * int, int)
+	 */
+	@Override
+	public ImageData mimic(int rows, int cols, int slices, int components) {
+		ImageData vol = new ImageDataFloat(rows, cols, slices, components);
+		vol.setHeader(this.getHeader());
+		return vol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, boolean)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, boolean a) {
+		throw new UnsupportedOperationException(
+				"Streamed phantom images are read-only.");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, java.awt.Color)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, Color a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, double)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, double a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, float)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, float a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, int)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, int a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, java.lang.Number)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, Number a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.ece.iacl.jist.structures.image.ImageData#set(int, int, int,
+	 * int, short)
+	 */
+	@Override
+	public void set(int i, int j, int k, int l, short a) {
+		set(i, j, k, l, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * edu.jhu.ece.iacl.jist.structures.image.ImageData#set(edu.jhu.ece.iacl
+	 * .jist.structures.image.Voxel)
+	 */
+	@Override
+	public void set(Voxel a) {
+		set(0, 0, 0, 0, true);
+	}
+}
@@ -52,6 +52,22 @@ public class PhantomSphere extends PhantomSimulator3D {
 		super(dims);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.utility.PhantomSimulator3D#evaluate(int, int, int)
+	 */
+	@Override
+	protected double evaluate(int i, int j, int k) {
+		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
+		double x = (i - 0.5 * rows) * scale;
+		double y = (j - 0.5 * cols) * scale;
+		double z = (k - 0.5 * slices) * scale;
+		double r = Math.sqrt((x - center.x) * (x - center.x) + (y - center.y)
+				* (y - center.y) + (z - center.z) * (z - center.z));
+		return (r - radius) / scale;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -59,20 +75,7 @@ public class PhantomSphere extends PhantomSimulator3D {
 	 */
 	@Override
 	public void solve() {
-		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					double x = (i - 0.5 * rows) * scale;
-					double y = (j - 0.5 * cols) * scale;
-					double z = (k - 0.5 * slices) * scale;
-					double r = Math.sqrt((x - center.x) * (x - center.x)
-							+ (y - center.y) * (y - center.y) + (z - center.z)
-							* (z - center.z));
-					levelset.set(i, j, k, (r - radius) / scale);
-				}
-			}
-		}
+		fillLevelSet();
 		levelset.setName("sphere_level");
 		image.setName("sphere");
 		finish();
@@ -83,30 +86,7 @@ public class PhantomSphere extends PhantomSimulator3D {
 	 */
 	@Override
 	protected void finish() {
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					double l = levelset.getDouble(i, j, k);
-					double noise = 0;
-					switch (noiseType) {
-					case Uniform:
-						noise = noiseLevel * (2 * randn.nextDouble() - 1);
-						break;
-					case Gaussian:
-						noise = noiseLevel * randn.nextGaussian();
-						break;
-					}
-					double v = noise
-							+ PhantomSimulator3D.heaviside(l, fuzziness,
-									heaviside);
-					if (invertImage) {
-						image.set(i, j, k, 1 - v);
-					} else {
-						image.set(i, j, k, v);
-					}
-				}
-			}
-		}
+		fillImage();
 		IsoSurfaceGenerator isosurf = new IsoSurfaceGenerator();
 		surf = isosurf.solve(levelset, 0);
 		surf.setName(image.getName());
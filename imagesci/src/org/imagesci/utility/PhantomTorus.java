@@ -81,6 +81,24 @@ public class PhantomTorus extends PhantomSimulator3D {
 		this.outerRadius = outerRadius;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.imagesci.utility.PhantomSimulator3D#evaluate(int, int, int)
+	 */
+	@Override
+	protected double evaluate(int i, int j, int k) {
+		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
+		double x = (i - 0.5 * rows) * scale;
+		double y = (j - 0.5 * cols) * scale;
+		double z = (k - 0.5 * slices) * scale;
+		double xp = (x - center.x);
+		double yp = (y - center.y);
+		double zp = (z - center.z);
+		double tmp = (outerRadius - Math.sqrt(zp * zp + yp * yp));
+		return tmp * tmp + xp * xp - innerRadius * innerRadius;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -88,22 +106,7 @@ public class PhantomTorus extends PhantomSimulator3D {
 	 */
 	@Override
 	public void solve() {
-		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					double x = (i - 0.5 * rows) * scale;
-					double y = (j - 0.5 * cols) * scale;
-					double z = (k - 0.5 * slices) * scale;
-					double xp = (x - center.x);
-					double yp = (y - center.y);
-					double zp = (z - center.z);
-					double tmp = (outerRadius - Math.sqrt(zp * zp + yp * yp));
-					levelset.set(i, j, k, tmp * tmp + xp * xp - innerRadius
-							* innerRadius);
-				}
-			}
-		}
+		fillLevelSet();
 		levelset.setName("torus_level");
 		image.setName("torus");
 		finish();
@@ -116,31 +116,33 @@ public class PhantomZalesakSphere extends PhantomSimulator3D {
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see edu.jhu.cs.cisst.algorithms.util.phantom.PhantomSimulator3D#solve()
+	 * @see org.imagesci.utility.PhantomSimulator3D#evaluate(int, int, int)
 	 */
 	@Override
-	public void solve() {
+	protected double evaluate(int i, int j, int k) {
 		double scale = 2.0 / Math.min(rows, Math.min(cols, slices));
-
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					double x = (i - 0.5 * rows) * scale;
-					double y = (j - 0.5 * cols) * scale;
-					double z = (k - 0.5 * slices) * scale;
-					if (y > center.y - radius && y < center.y - radius + depth
-							&& x > center.x - width * 0.5f
-							&& x < center.x + width * 0.5f) {
-						levelset.set(i, j, k, 5);
-					} else {
-						double r = Math.sqrt((x - center.x) * (x - center.x)
-								+ (y - center.y) * (y - center.y)
-								+ (z - center.z) * (z - center.z));
-						levelset.set(i, j, k, r - radius);
-					}
-				}
-			}
+		double x = (i - 0.5 * rows) * scale;
+		double y = (j - 0.5 * cols) * scale;
+		double z = (k - 0.5 * slices) * scale;
+		if (y > center.y - radius && y < center.y - radius + depth
+				&& x > center.x - width * 0.5f && x < center.x + width * 0.5f) {
+			return 5;
+		} else {
+			double r = Math.sqrt((x - center.x) * (x - center.x)
+					+ (y - center.y) * (y - center.y) + (z - center.z)
+					* (z - center.z));
+			return r - radius;
 		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see edu.jhu.cs.cisst.algorithms.util.phantom.PhantomSimulator3D#solve()
+	 */
+	@Override
+	public void solve() {
+		fillLevelSet();
 		levelset.setName("milled_sphere_level");
 		image.setName("milled_sphere");
 		finish();
@@ -56,8 +56,8 @@ public class RandomSphereCollection {
 	 * @param numDots the num dots
 	 * @param radius the radius
 	 */
-	public RandomSphereCollection(int rows, int cols, int slices, int numDots,
-			float radius) {
+	public RandomSphereCollection(int rows, final int cols, final int slices,
+			int numDots, final float radius) {
 
 		int gridRows = (int) Math.floor(rows / (2 * radius + 3));
 		int gridCols = (int) Math.floor(cols / (2 * radius + 3));
@@ -84,28 +84,36 @@ public class RandomSphereCollection {
 		Random randn = new Random(738957323l);
 		Collections.shuffle(gridPoints, randn);
 
-		float[][][] unsigned = distfieldImage.toArray3d();
-		int[][][] labels = labelImage.toArray3d();
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					float val = 10.0f;
-					int label = 0;
-					for (int l = 0; l < numDots; l++) {
-						Point3f pt = gridPoints.get(l);
-						float dist = (pt.x - i) * (pt.x - i) + (pt.y - j)
-								* (pt.y - j) + (pt.z - k) * (pt.z - k);
-						if (dist < radius * radius) {
-							label = l + 1;
+		final float[][][] unsigned = distfieldImage.toArray3d();
+		final int[][][] labels = labelImage.toArray3d();
+		final int dots = numDots;
+		final Point3f[] points = gridPoints.toArray(new Point3f[0]);
+		ParallelUtil.forRange(0, rows, new ParallelUtil.RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					for (int j = 0; j < cols; j++) {
+						for (int k = 0; k < slices; k++) {
+							float val = 10.0f;
+							int label = 0;
+							for (int l = 0; l < dots; l++) {
+								Point3f pt = points[l];
+								float dist = (pt.x - i) * (pt.x - i)
+										+ (pt.y - j) * (pt.y - j) + (pt.z - k)
+										* (pt.z - k);
+								if (dist < radius * radius) {
+									label = l + 1;
+								}
+								val = (float) Math.min(val,
+										Math.abs(Math.sqrt(dist) - radius));
+							}
+							labels[i][j][k] = label;
+							unsigned[i][j][k] = val;
 						}
-						val = (float) Math.min(val,
-								Math.abs(Math.sqrt(dist) - radius));
 					}
-					labels[i][j][k] = label;
-					unsigned[i][j][k] = val;
 				}
 			}
-		}
+		});
 	}
 
 	/**
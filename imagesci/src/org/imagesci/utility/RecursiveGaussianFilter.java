@@ -0,0 +1,513 @@
+/**
+ *       Java Image Science Toolkit
+ *                  ---
+ *     Multi-Object Image Segmentation
+ *
+ * Copyright(C) 2012, Blake Lucas (img.science@gmail.com)
+ * All rights reserved.
+ *
+ * Center for Computer-Integrated Surgical Systems and Technology &
+ * Johns Hopkins Applied Physics Laboratory &
+ * The Johns Hopkins University
+ *
+ * Redistribution and use in source and binary forms are permitted
+ * provided that the above copyright notice and this paragraph are
+ * duplicated in all such forms and that any documentation,
+ * advertising materials, and other materials related to such
+ * distribution and use acknowledge that the software was developed
+ * by the The Johns Hopkins University.  The name of the
+ * University may not be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * @author Blake Lucas (img.science@gmail.com)
+ */
+package org.imagesci.utility;
+
+import java.util.Arrays;
+
+import org.imagesci.utility.ParallelUtil.RangeTask;
+
+import edu.jhu.ece.iacl.jist.structures.image.ImageData;
+import edu.jhu.ece.iacl.jist.structures.image.ImageDataFloat;
+
+/**
+ * Recursive Gaussian filter based on the third order infinite impulse
+ * response approximation of Young and van Vliet, using the pole design of
+ * van Vliet, Young and Verbeek (1998). Each axis is filtered with
+ * one causal and one anti-causal pass, so the cost per voxel does not depend
+ * on the standard deviation. Derivatives are computed by central
+ * differences of the smoothed signal along the differentiated axis. The
+ * standard deviation is specified in physical units and converted to voxels
+ * with the image resolutions, so anisotropic volumes are smoothed
+ * isotropically. Lines along each axis are filtered in parallel.
+ * 
+ * Boundaries are handled by replicating the first and last sample. The
+ * initial state of the anti-causal pass is computed with the method of
+ * Triggs and Sdika so that the response near the end of a line matches an
+ * infinitely extended signal.
+ */
+public class RecursiveGaussianFilter {
+
+	/** The smallest standard deviation, in voxels, that is smoothed. */
+	public static final double MIN_SIGMA = 0.5;
+
+	/** The real part of the complex poles for a standard deviation of 2. */
+	private static final double POLE_RE = 1.41650;
+
+	/** The imaginary part of the complex poles. */
+	private static final double POLE_IM = 1.00829;
+
+	/** The real pole. */
+	private static final double POLE_REAL = 1.86543;
+
+	/**
+	 * The number of adjacent lines gathered together along the column and
+	 * slice axes, so that each cache line is read once.
+	 */
+	private static final int BLOCK_SIZE = 16;
+
+	/** The standard deviation in physical units. */
+	protected double sigma;
+
+	/** The voxel resolutions. */
+	protected float[] resolutions = new float[] { 1.0f, 1.0f, 1.0f };
+
+	/**
+	 * Instantiates a new recursive Gaussian filter.
+	 * 
+	 * @param sigma
+	 *            the standard deviation in physical units
+	 */
+	public RecursiveGaussianFilter(double sigma) {
+		this.sigma = sigma;
+	}
+
+	/**
+	 * Gets the standard deviation.
+	 * 
+	 * @return the standard deviation in physical units
+	 */
+	public double getSigma() {
+		return sigma;
+	}
+
+	/**
+	 * Sets the standard deviation.
+	 * 
+	 * @param sigma
+	 *            the standard deviation in physical units
+	 */
+	public void setSigma(double sigma) {
+		this.sigma = sigma;
+	}
+
+	/**
+	 * Gets the voxel resolutions.
+	 * 
+	 * @return the resolutions
+	 */
+	public float[] getResolutions() {
+		return resolutions;
+	}
+
+	/**
+	 * Sets the voxel resolutions. Missing or non-positive entries default
+	 * to one.
+	 * 
+	 * @param res
+	 *            the resolutions
+	 */
+	public void setResolutions(float[] res) {
+		for (int d = 0; d < 3; d++) {
+			boolean valid = (res != null && d < res.length && res[d] > 0);
+			resolutions[d] = (valid) ? res[d] : 1.0f;
+		}
+	}
+
+	/**
+	 * Smooth an image. The resolutions are taken from the image header.
+	 * 
+	 * @param image
+	 *            the image
+	 * @return the smoothed image
+	 */
+	public ImageDataFloat solve(ImageData image) {
+		return solve(image, 0, 0, 0);
+	}
+
+	/**
+	 * Smooth an image and differentiate it along each axis. The resolutions
+	 * are taken from the image header and the derivatives are expressed in
+	 * physical units.
+	 * 
+	 * @param image
+	 *            the image
+	 * @param orderX
+	 *            the derivative order along rows, 0, 1 or 2
+	 * @param orderY
+	 *            the derivative order along columns, 0, 1 or 2
+	 * @param orderZ
+	 *            the derivative order along slices, 0, 1 or 2
+	 * @return the filtered image
+	 */
+	public ImageDataFloat solve(ImageData image, int orderX, int orderY,
+			int orderZ) {
+		int rows = image.getRows();
+		int cols = image.getCols();
+		int slices = Math.max(1, image.getSlices());
+		int components = Math.max(1, image.getComponents());
+		if (image.getHeader() != null) {
+			setResolutions(image.getHeader().getDimResolutions());
+		}
+		float[] data = null;
+		if (image instanceof ImageDataFloat
+				&& ((ImageDataFloat) image).isFlat()) {
+			data = ((ImageDataFloat) image).toArray1d().clone();
+		} else {
+			data = new float[rows * cols * slices * components];
+			int index = 0;
+			for (int l = 0; l < components; l++) {
+				for (int k = 0; k < slices; k++) {
+					for (int j = 0; j < cols; j++) {
+						for (int i = 0; i < rows; i++) {
+							data[index++] = image.getFloat(i, j, k, l);
+						}
+					}
+				}
+			}
+		}
+		int volume = rows * cols * slices;
+		for (int l = 0; l < components; l++) {
+			apply(data, l * volume, rows, cols, slices, orderX, orderY, orderZ);
+		}
+		ImageDataFloat result = new ImageDataFloat(data, rows, cols, slices,
+				components);
+		result.setName(image.getName() + "_gauss");
+		result.setHeader(image.getHeader());
+		return result;
+	}
+
+	/**
+	 * Filter a flat volume with rows varying fastest. The input is not
+	 * modified.
+	 * 
+	 * @param data
+	 *            the volume
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the columns
+	 * @param slices
+	 *            the slices, 1 for a 2D image
+	 * @param orderX
+	 *            the derivative order along rows
+	 * @param orderY
+	 *            the derivative order along columns
+	 * @param orderZ
+	 *            the derivative order along slices
+	 * @return the filtered volume
+	 */
+	public float[] filter(float[] data, int rows, int cols, int slices,
+			int orderX, int orderY, int orderZ) {
+		float[] result = data.clone();
+		apply(result, 0, rows, cols, Math.max(1, slices), orderX, orderY,
+				orderZ);
+		return result;
+	}
+
+	/**
+	 * Filter a flat volume in place.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param offset
+	 *            the offset of the first voxel
+	 * @param rows
+	 *            the rows
+	 * @param cols
+	 *            the columns
+	 * @param slices
+	 *            the slices
+	 * @param orderX
+	 *            the derivative order along rows
+	 * @param orderY
+	 *            the derivative order along columns
+	 * @param orderZ
+	 *            the derivative order along slices
+	 */
+	protected void apply(float[] data, int offset, int rows, int cols,
+			int slices, int orderX, int orderY, int orderZ) {
+		filterAxis(data, offset, 0, rows, cols * slices, 1, 0, 0, orderX);
+		filterAxis(data, offset, 1, cols, rows * slices, rows, rows, rows
+				* cols, orderY);
+		if (slices > 1) {
+			filterAxis(data, offset, 2, slices, rows * cols, rows * cols, rows
+					* cols, 0, orderZ);
+		} else if (orderZ != 0) {
+			Arrays.fill(data, offset, offset + rows * cols, 0);
+		}
+	}
+
+	/**
+	 * Filter all lines along one axis. Lines are contiguous if wrap is zero,
+	 * otherwise line n starts at offset + (n % wrap) + (n / wrap) * step2
+	 * and up to BLOCK_SIZE neighboring lines are filtered together.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param offset
+	 *            the offset
+	 * @param axis
+	 *            the axis
+	 * @param length
+	 *            the length of each line
+	 * @param lines
+	 *            the number of lines
+	 * @param stride
+	 *            the stride between samples on a line
+	 * @param wrap
+	 *            the number of lines before the second step is taken
+	 * @param step2
+	 *            the second step
+	 * @param order
+	 *            the derivative order
+	 */
+	private void filterAxis(final float[] data, final int offset, int axis,
+			final int length, int lines, final int stride, final int wrap,
+			final int step2, final int order) {
+		if (order < 0 || order > 2) {
+			throw new IllegalArgumentException("Derivative order " + order
+					+ " is not supported.");
+		}
+		if (length < 1) {
+			return;
+		}
+		final double h = resolutions[axis];
+		final double s = sigma / h;
+		final double[] coeffs = (s >= MIN_SIGMA) ? getCoefficients(s) : null;
+		if (coeffs == null && order == 0) {
+			return;
+		}
+		final double[] m = (coeffs != null) ? getBoundaryMatrix(coeffs, s)
+				: null;
+		ParallelUtil.forRange(0, lines, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				double[][] block = new double[BLOCK_SIZE][length];
+				double[] tmp = new double[length];
+				for (int n = start; n < end;) {
+					int base = offset;
+					int count = 1;
+					if (wrap == 0) {
+						base += n * length;
+					} else {
+						base += (n % wrap) + (n / wrap) * step2;
+						count = Math.min(BLOCK_SIZE,
+								Math.min(end - n, wrap - n % wrap));
+					}
+					int index = base;
+					for (int i = 0; i < length; i++, index += stride) {
+						for (int b = 0; b < count; b++) {
+							block[b][i] = data[index + b];
+						}
+					}
+					for (int b = 0; b < count; b++) {
+						if (coeffs != null) {
+							smooth(block[b], coeffs, m);
+						}
+						if (order > 0) {
+							differentiate(block[b], tmp, order, h);
+							System.arraycopy(tmp, 0, block[b], 0, length);
+						}
+					}
+					index = base;
+					for (int i = 0; i < length; i++, index += stride) {
+						for (int b = 0; b < count; b++) {
+							data[index + b] = (float) block[b][i];
+						}
+					}
+					n += count;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Differentiate a line by central differences, replicating the end
+	 * samples.
+	 * 
+	 * @param in
+	 *            the input
+	 * @param out
+	 *            the output
+	 * @param order
+	 *            the derivative order
+	 * @param h
+	 *            the sample spacing
+	 */
+	private static void differentiate(double[] in, double[] out, int order,
+			double h) {
+		int last = in.length - 1;
+		if (order == 1) {
+			double scale = 0.5 / h;
+			for (int i = 0; i <= last; i++) {
+				out[i] = scale
+						* (in[Math.min(i + 1, last)] - in[Math.max(i - 1, 0)]);
+			}
+		} else {
+			double scale = 1.0 / (h * h);
+			for (int i = 0; i <= last; i++) {
+				out[i] = scale
+						* (in[Math.min(i + 1, last)] - 2 * in[i] + in[Math
+								.max(i - 1, 0)]);
+			}
+		}
+	}
+
+	/**
+	 * Gets the normalized recursion coefficients {B, b1, b2, b3} for a
+	 * standard deviation in voxels. The poles designed for a standard
+	 * deviation of two voxels are raised to the power 1/q, where q is found
+	 * by bisection so that the variance of the combined causal and
+	 * anti-causal response equals the requested variance.
+	 * 
+	 * @param s
+	 *            the standard deviation in voxels
+	 * @return the coefficients
+	 */
+	protected static double[] getCoefficients(double s) {
+		double target = s * s;
+		double lo = 0.1, hi = 1;
+		double[] c = new double[4];
+		while (getVariance(getCoefficients(hi, c)) < target) {
+			lo = hi;
+			hi *= 2;
+		}
+		for (int iter = 0; iter < 64; iter++) {
+			double q = 0.5 * (lo + hi);
+			if (getVariance(getCoefficients(q, c)) < target) {
+				lo = q;
+			} else {
+				hi = q;
+			}
+		}
+		return getCoefficients(0.5 * (lo + hi), c);
+	}
+
+	/**
+	 * Gets the normalized recursion coefficients for a scale parameter.
+	 * 
+	 * @param q
+	 *            the scale parameter, 1 for a standard deviation of two
+	 *            voxels
+	 * @param c
+	 *            the coefficients {B, b1, b2, b3}
+	 * @return the coefficients
+	 */
+	private static double[] getCoefficients(double q, double[] c) {
+		// Poles 1/d of the complex pair and the real pole
+		double mag = Math.pow(Math.hypot(POLE_RE, POLE_IM), -1 / q);
+		double arg = -Math.atan2(POLE_IM, POLE_RE) / q;
+		double re = mag * Math.cos(arg);
+		double norm = mag * mag;
+		double p = Math.pow(POLE_REAL, -1 / q);
+		c[1] = 2 * re + p;
+		c[2] = -(norm + 2 * re * p);
+		c[3] = norm * p;
+		c[0] = 1 - (c[1] + c[2] + c[3]);
+		return c;
+	}
+
+	/**
+	 * Gets the variance of the impulse response of the causal and
+	 * anti-causal recursions, computed from the moments of the causal
+	 * response B / (1 - b1 z^-1 - b2 z^-2 - b3 z^-3).
+	 * 
+	 * @param c
+	 *            the coefficients
+	 * @return the variance
+	 */
+	private static double getVariance(double[] c) {
+		double m1 = (c[1] + 2 * c[2] + 3 * c[3]) / c[0];
+		double m2 = (2 * c[2] + 6 * c[3]) / c[0];
+		return 2 * (m2 + m1 * m1 + m1);
+	}
+
+	/**
+	 * Gets the matrix that maps the deviation of the last three causal
+	 * outputs from the boundary value to the initial state of the
+	 * anti-causal pass. The matrix is obtained by running each unit state
+	 * through both passes on a zero signal until the response has decayed.
+	 * 
+	 * @param c
+	 *            the coefficients
+	 * @param s
+	 *            the standard deviation in voxels
+	 * @return the 3x3 matrix in row major order
+	 */
+	protected static double[] getBoundaryMatrix(double[] c, double s) {
+		double b1 = c[1], b2 = c[2], b3 = c[3];
+		double[] w = new double[64 + (int) Math.ceil(40 * s)];
+		double[] m = new double[9];
+		for (int col = 0; col < 3; col++) {
+			Arrays.fill(w, 0);
+			// w[0], w[1] and w[2] hold the causal outputs at N-3, N-2, N-1
+			w[2 - col] = 1;
+			for (int i = 3; i < w.length; i++) {
+				w[i] = b1 * w[i - 1] + b2 * w[i - 2] + b3 * w[i - 3];
+			}
+			double y1 = 0, y2 = 0, y3 = 0;
+			for (int i = w.length - 1; i >= 3; i--) {
+				double y = c[0] * w[i] + b1 * y1 + b2 * y2 + b3 * y3;
+				y3 = y2;
+				y2 = y1;
+				y1 = y;
+			}
+			// y1, y2 and y3 hold the anti-causal outputs at N, N+1, N+2
+			m[col] = y1;
+			m[3 + col] = y2;
+			m[6 + col] = y3;
+		}
+		return m;
+	}
+
+	/**
+	 * Smooth a line in place with the causal and anti-causal recursions.
+	 * 
+	 * @param x
+	 *            the line
+	 * @param c
+	 *            the coefficients
+	 * @param m
+	 *            the boundary matrix
+	 */
+	private static void smooth(double[] x, double[] c, double[] m) {
+		int n = x.length;
+		double b = c[0], b1 = c[1], b2 = c[2], b3 = c[3];
+		double u = x[n - 1];
+		double w1 = x[0], w2 = w1, w3 = w1;
+		for (int i = 0; i < n; i++) {
+			double w = b * x[i] + b1 * w1 + b2 * w2 + b3 * w3;
+			x[i] = w;
+			w3 = w2;
+			w2 = w1;
+			w1 = w;
+		}
+		double d0 = x[n - 1] - u;
+		double d1 = x[Math.max(n - 2, 0)] - u;
+		double d2 = x[Math.max(n - 3, 0)] - u;
+		double y1 = u + m[0] * d0 + m[1] * d1 + m[2] * d2;
+		double y2 = u + m[3] * d0 + m[4] * d1 + m[5] * d2;
+		double y3 = u + m[6] * d0 + m[7] * d1 + m[8] * d2;
+		for (int i = n - 1; i >= 0; i--) {
+			double y = b * x[i] + b1 * y1 + b2 * y2 + b3 * y3;
+			x[i] = y;
+			y3 = y2;
+			y2 = y1;
+			y1 = y;
+		}
+	}
+}
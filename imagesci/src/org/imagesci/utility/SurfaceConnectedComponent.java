@@ -33,17 +33,22 @@ import edu.jhu.ece.iacl.jist.structures.geom.EmbeddedSurface.Direction;
 
 import java.io.File;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
-import java.util.Stack;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.imagesci.utility.ParallelUtil.RangeTask;
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class SurfaceConnectedComponent.
+ * The Class SurfaceConnectedComponent. Components are found with a
+ * lock-free union-find over the triangles of the mesh, so each triangle is
+ * visited once and the triangles can be processed in parallel.
  */
 public class SurfaceConnectedComponent {
 
 	/**
-	 * Builds the neighbor vertex vertex table.
+	 * Builds the neighbor vertex vertex table. Each row lists the far
+	 * vertices of the triangles around a vertex, walking the ring in the
+	 * requested direction.
 	 *
 	 * @param mesh the mesh
 	 * @param dir the dir
@@ -51,116 +56,175 @@ public class SurfaceConnectedComponent {
 	 */
 	public static int[][] buildNeighborVertexVertexTable(EmbeddedSurface mesh,
 			Direction dir) {
-
-		int vertexCount = mesh.getVertexCount();
+		final int vertexCount = mesh.getVertexCount();
 		int indexCount = mesh.getIndexCount();
-		int v1, v2, v3;
-		int[][] neighborTable = new int[vertexCount][0];
-		ArrayList<Integer>[] tmpTable = new ArrayList[vertexCount];
-		for (int i = 0; i < vertexCount; i++) {
-			tmpTable[i] = new ArrayList<Integer>();
+		final int[][] neighborTable = new int[vertexCount][0];
+		if (dir != Direction.CLOCKWISE && dir != Direction.COUNTER_CLOCKWISE) {
+			return neighborTable;
 		}
-		if (dir == Direction.CLOCKWISE) {
-			for (int i = 0; i < indexCount; i += 3) {
-				v1 = mesh.getCoordinateIndex(i);
-				v2 = mesh.getCoordinateIndex(i + 1);
-				v3 = mesh.getCoordinateIndex(i + 2);
-				tmpTable[v1].add(v2);
-				tmpTable[v1].add(v3);
-				tmpTable[v2].add(v3);
-				tmpTable[v2].add(v1);
-				tmpTable[v3].add(v1);
-				tmpTable[v3].add(v2);
-			}
-		} else if (dir == Direction.COUNTER_CLOCKWISE) {
-			for (int i = 0; i < indexCount; i += 3) {
-				v1 = mesh.getCoordinateIndex(i);
-				v2 = mesh.getCoordinateIndex(i + 1);
-				v3 = mesh.getCoordinateIndex(i + 2);
-				tmpTable[v1].add(v3);
-				tmpTable[v1].add(v2);
-				tmpTable[v2].add(v1);
-				tmpTable[v2].add(v3);
-				tmpTable[v3].add(v2);
-				tmpTable[v3].add(v1);
+		int[] indices = new int[indexCount];
+		mesh.getCoordinateIndices(0, indices);
+		// Store one (next, previous) pair per incident triangle in compressed
+		// rows, in the order the triangles appear.
+		final int[] rowStart = new int[vertexCount + 1];
+		for (int i = 0; i < indexCount; i++) {
+			rowStart[indices[i] + 1] += 2;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			rowStart[v + 1] += rowStart[v];
+		}
+		final int[] pairs = new int[rowStart[vertexCount]];
+		int[] fill = new int[vertexCount];
+		boolean clockwise = (dir == Direction.CLOCKWISE);
+		for (int i = 0; i < indexCount; i += 3) {
+			for (int c = 0; c < 3; c++) {
+				int v = indices[i + c];
+				int next = indices[i + (c + 1) % 3];
+				int prev = indices[i + (c + 2) % 3];
+				int pos = rowStart[v] + fill[v];
+				pairs[pos] = (clockwise) ? next : prev;
+				pairs[pos + 1] = (clockwise) ? prev : next;
+				fill[v] += 2;
 			}
 		}
-		int pivot;
-		int count = 0;
-		ArrayList<Integer> neighbors;
-		boolean found;
-		for (int i = 0; i < vertexCount; i++) {
-			neighborTable[i] = new int[tmpTable[i].size() / 2];
-			// System.out.println(i + " NEIGHBOR TABLE " +
-			// neighborTable[i].length);
-			neighbors = tmpTable[i];
-			count = 0;
-			if (neighbors.size() == 0)
-				continue;
-			neighbors.remove(0);
-			neighborTable[i][count++] = pivot = neighbors.remove(0);
-			while (neighbors.size() > 0) {
-				found = false;
-				for (int k = 0; k < neighbors.size(); k += 2) {
-					if (neighbors.get(k) == pivot) {
-						neighbors.remove(k);
-						neighborTable[i][count++] = pivot = neighbors.remove(k);
-						found = true;
-						break;
+		fill = null;
+		ParallelUtil.forRange(0, vertexCount, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				boolean[] used = new boolean[16];
+				for (int v = start; v < end; v++) {
+					int first = rowStart[v];
+					int n = (rowStart[v + 1] - first) / 2;
+					if (n == 0) {
+						continue;
 					}
-				}
-				if (!found) {
-					neighbors.remove(0);
-					neighborTable[i][count++] = pivot = neighbors.remove(0);
+					if (used.length < n) {
+						used = new boolean[2 * n];
+					}
+					for (int k = 0; k < n; k++) {
+						used[k] = false;
+					}
+					int[] ring = new int[n];
+					int count = 0;
+					int pivot = ring[count++] = pairs[first + 1];
+					used[0] = true;
+					int firstUnused = 1;
+					while (count < n) {
+						while (used[firstUnused]) {
+							firstUnused++;
+						}
+						// Continue with the triangle that shares the last
+						// edge, or start over at the first remaining one.
+						int match = firstUnused;
+						for (int k = firstUnused; k < n; k++) {
+							if (!used[k] && pairs[first + 2 * k] == pivot) {
+								match = k;
+								break;
+							}
+						}
+						used[match] = true;
+						pivot = ring[count++] = pairs[first + 2 * match + 1];
+					}
+					neighborTable[v] = ring;
 				}
 			}
-		}
+		});
 		return neighborTable;
 	}
 
 	/**
-	 * Label components.
+	 * Find the root of a vertex, halving the path along the way.
 	 *
-	 * @param surf the surf
-	 * @return the int
+	 * @param parent the parent array
+	 * @param v the vertex
+	 * @return the root
 	 */
-	public static final int labelComponents(EmbeddedSurface surf) {
-		int[][] neighborVertexVertexTable = buildNeighborVertexVertexTable(
-				surf, EmbeddedSurface.Direction.CLOCKWISE);
-		int vertCount = surf.getVertexCount();
-		Stack<VertexLabel> stack = new Stack<VertexLabel>();
-		VertexLabel[] labels = new VertexLabel[vertCount];
-		for (int id = 0; id < vertCount; ++id) {
-			labels[id] = new VertexLabel(id, -1);
+	private static int find(AtomicIntegerArray parent, int v) {
+		int p;
+		while ((p = parent.get(v)) != v) {
+			int gp = parent.get(p);
+			parent.compareAndSet(v, p, gp);
+			v = gp;
 		}
-		int labelCount = 0;
+		return v;
+	}
+
+	/**
+	 * Merge the components of two vertices. The larger root is linked to the
+	 * smaller one with a compare and set, so concurrent unions are safe and
+	 * every root is the smallest vertex of its component.
+	 *
+	 * @param parent the parent array
+	 * @param u the first vertex
+	 * @param v the second vertex
+	 */
+	private static void union(AtomicIntegerArray parent, int u, int v) {
 		while (true) {
-			VertexLabel first = null;
-			for (int id = 0; id < vertCount; ++id) {
-				if (labels[id].label == -1) {
-					first = labels[id];
-					break;
-				}
+			u = find(parent, u);
+			v = find(parent, v);
+			if (u == v) {
+				return;
 			}
-			if (first == null)
-				break;
-			int label = ++labelCount;
-			first.label = label;
-			stack.push(first);
-			while (!(stack.isEmpty())) {
-				VertexLabel top = (VertexLabel) stack.pop();
-				int[] nbrs = neighborVertexVertexTable[top.vid];
-				for (int nbr : nbrs) {
-					if (labels[nbr].label == -1) {
-						labels[nbr].label = label;
-						stack.push(labels[nbr]);
-					}
+			if (u < v) {
+				int tmp = u;
+				u = v;
+				v = tmp;
+			}
+			if (parent.compareAndSet(u, u, v)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Label the connected components of the vertices. Components are
+	 * numbered from 1 in order of their smallest vertex, and vertices that do
+	 * not belong to any triangle form their own component.
+	 *
+	 * @param surf the surf
+	 * @return the vertex labels
+	 */
+	public static int[] labelVertices(EmbeddedSurface surf) {
+		int vertCount = surf.getVertexCount();
+		final int[] indices = new int[surf.getIndexCount()];
+		surf.getCoordinateIndices(0, indices);
+		final AtomicIntegerArray parent = new AtomicIntegerArray(vertCount);
+		for (int v = 0; v < vertCount; v++) {
+			parent.set(v, v);
+		}
+		ParallelUtil.forRange(0, indices.length / 3, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int t = start; t < end; t++) {
+					union(parent, indices[3 * t], indices[3 * t + 1]);
+					union(parent, indices[3 * t + 1], indices[3 * t + 2]);
 				}
 			}
+		});
+		// Roots are visited before the other vertices of their component
+		final int[] labels = new int[vertCount];
+		int labelCount = 0;
+		for (int v = 0; v < vertCount; v++) {
+			int root = find(parent, v);
+			labels[v] = (root == v) ? ++labelCount : labels[root];
 		}
-		double[][] vertData = new double[vertCount][1];
-		for (VertexLabel label : labels) {
-			vertData[label.vid][0] = label.label;
+		return labels;
+	}
+
+	/**
+	 * Label components. The label of each vertex is stored as vertex data
+	 * and the label of the first vertex of each triangle as cell data.
+	 *
+	 * @param surf the surf
+	 * @return the int
+	 */
+	public static final int labelComponents(EmbeddedSurface surf) {
+		int[] labels = labelVertices(surf);
+		int labelCount = 0;
+		double[][] vertData = new double[labels.length][1];
+		for (int v = 0; v < labels.length; v++) {
+			vertData[v][0] = labels[v];
+			labelCount = Math.max(labelCount, labels[v]);
 		}
 		int indexCount = surf.getIndexCount();
 		double[][] cellData = new double[indexCount / 3][1];
@@ -172,29 +236,6 @@ public class SurfaceConnectedComponent {
 		return labelCount + 1;
 	}
 
-	/**
-	 * The Class VertexLabel.
-	 */
-	protected static class VertexLabel {
-		
-		/** The vid. */
-		public int vid;
-		
-		/** The label. */
-		public int label;
-
-		/**
-		 * Instantiates a new vertex label.
-		 *
-		 * @param vid the vid
-		 * @param label the label
-		 */
-		public VertexLabel(int vid, int label) {
-			this.vid = vid;
-			this.label = label;
-		}
-	}
-
 	/**
 	 * The main method.
 	 *
@@ -211,4 +252,4 @@ public class SurfaceConnectedComponent {
 			e.printStackTrace();
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -26,389 +26,760 @@
  */
 package org.imagesci.utility;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Stack;
+import java.util.Map;
+import java.util.Random;
+
+import org.imagesci.gac.TopologyRule3D;
+import org.imagesci.utility.ParallelUtil.RangeTask;
+
 import edu.jhu.ece.iacl.jist.structures.image.ImageDataInt;
 
-// TODO: Auto-generated Javadoc
 /**
- * The Class VolumeConnectedComponent.
+ * Labels the 6, 18 or 26-connected components of a volume with a two-pass
+ * union-find over primitive arrays. Slabs of slices are labeled in parallel,
+ * the slabs are merged across their boundary planes, and the trees are then
+ * resolved to consecutive labels while the voxel count and bounding box of
+ * every component are accumulated.
  */
 public class VolumeConnectedComponent {
-	
+
 	/**
-	 * The Class VertexLabel.
+	 * The result of a connected component labeling. Labels start at 1 and 0
+	 * marks voxels that do not belong to any component.
 	 */
-	protected static class VertexLabel {
-		
-		/** The k. */
-		public int i, j, k;
-		
-		/** The label. */
-		public int label;
+	public static class Components {
+
+		/** The rows. */
+		protected int rows;
+
+		/** The cols. */
+		protected int cols;
+
+		/** The slices. */
+		protected int slices;
+
+		/** The labels, stored with rows varying fastest. */
+		protected int[] labels;
+
+		/** The number of components. */
+		protected int count;
+
+		/** The voxel count of each label. */
+		protected int[] volumes;
 
 		/**
-		 * Instantiates a new vertex label.
+		 * The bounding box of each label stored as (minI, minJ, minK, maxI,
+		 * maxJ, maxK).
+		 */
+		protected int[] boxes;
+
+		/**
+		 * Instantiates a new components result.
 		 *
-		 * @param i the i
-		 * @param j the j
-		 * @param k the k
-		 * @param label the label
+		 * @param rows
+		 *            the rows
+		 * @param cols
+		 *            the cols
+		 * @param slices
+		 *            the slices
+		 * @param labels
+		 *            the labels
+		 * @param count
+		 *            the count
+		 * @param volumes
+		 *            the volumes
+		 * @param boxes
+		 *            the bounding boxes
 		 */
-		public VertexLabel(int i, int j, int k, int label) {
-			this.i = i;
-			this.j = j;
-			this.k = k;
-			this.label = label;
+		protected Components(int rows, int cols, int slices, int[] labels,
+				int count, int[] volumes, int[] boxes) {
+			this.rows = rows;
+			this.cols = cols;
+			this.slices = slices;
+			this.labels = labels;
+			this.count = count;
+			this.volumes = volumes;
+			this.boxes = boxes;
 		}
-	}
 
-	/**
-	 * Gets the neighbor.
-	 *
-	 * @param labels the labels
-	 * @param i the i
-	 * @param j the j
-	 * @param k the k
-	 * @param rows the rows
-	 * @param cols the cols
-	 * @param slices the slices
-	 * @return the neighbor
-	 */
-	private static VertexLabel getNeighbor(VertexLabel[][][] labels, int i,
-			int j, int k, int rows, int cols, int slices) {
-		if (i < 0 || j < 0 || k < 0 || i >= rows || j >= cols || k >= slices)
-			return null;
-		return labels[i][j][k];
+		/**
+		 * Gets the bounding box of a component.
+		 *
+		 * @param label
+		 *            the label
+		 * @return the minimum and maximum (i, j, k) voxel coordinates
+		 */
+		public int[] getBoundingBox(int label) {
+			int[] box = new int[6];
+			System.arraycopy(boxes, 6 * label, box, 0, 6);
+			return box;
+		}
+
+		/**
+		 * Gets the number of components.
+		 *
+		 * @return the label count
+		 */
+		public int getLabelCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the label of the component with the most voxels.
+		 *
+		 * @return the largest label, or 0 if there are no components
+		 */
+		public int getLargestLabel() {
+			int best = 0;
+			int max = 0;
+			for (int l = 1; l <= count; l++) {
+				if (volumes[l] > max) {
+					max = volumes[l];
+					best = l;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Gets the label array. Voxel (i,j,k) is stored at index
+		 * (k*cols+j)*rows+i.
+		 *
+		 * @return the labels
+		 */
+		public int[] getLabels() {
+			return labels;
+		}
+
+		/**
+		 * Gets the voxel count of a component.
+		 *
+		 * @param label
+		 *            the label
+		 * @return the volume
+		 */
+		public int getVolume(int label) {
+			return volumes[label];
+		}
+
+		/**
+		 * Relabel the components in order of decreasing volume so that label
+		 * 1 is the largest component. Components with equal volume keep their
+		 * relative order.
+		 */
+		public void sortByVolume() {
+			if (count == 0) {
+				return;
+			}
+			long[] keys = new long[count];
+			for (int l = 1; l <= count; l++) {
+				keys[l - 1] = ((long) (Integer.MAX_VALUE - volumes[l]) << 32)
+						| l;
+			}
+			Arrays.sort(keys);
+			final int[] map = new int[count + 1];
+			int[] sortedVolumes = new int[count + 1];
+			int[] sortedBoxes = new int[6 * (count + 1)];
+			for (int n = 0; n < count; n++) {
+				int l = (int) (keys[n] & 0xFFFFFFFFL);
+				map[l] = n + 1;
+				sortedVolumes[n + 1] = volumes[l];
+				System.arraycopy(boxes, 6 * l, sortedBoxes, 6 * (n + 1), 6);
+			}
+			ParallelUtil.forRange(0, labels.length, new RangeTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int v = start; v < end; v++) {
+						labels[v] = map[labels[v]];
+					}
+				}
+			});
+			volumes = sortedVolumes;
+			boxes = sortedBoxes;
+		}
+
+		/**
+		 * Wrap the labels in an image without copying them.
+		 *
+		 * @return the label image
+		 */
+		public ImageDataInt toImage() {
+			return new ImageDataInt(labels, rows, cols, slices, 1);
+		}
 	}
 
 	/**
-	 * Extract largest non background component.
+	 * Check that the slab-parallel labeling matches a single-threaded run on
+	 * random masks, whose components cross the slab boundaries in many
+	 * places. The thread count is changed while the check runs, so it should
+	 * not run while other work uses {@link ParallelUtil}.
 	 *
-	 * @param image the image
-	 * @return the image data int
+	 * @param size the mask size
+	 * @param trials the number of random masks
 	 */
-	public static ImageDataInt extractLargestNonBackgroundComponent(
-			ImageDataInt image) {
-		int rows = image.getRows();
-		int cols = image.getCols();
-		int slices = image.getSlices();
-		ImageDataInt outImage = new ImageDataInt(rows, cols, slices);
-		int[][][] labelImage = image.toArray3d();
-		Stack<VertexLabel> stack = new Stack<VertexLabel>();
-		VertexLabel[][][] labels = new VertexLabel[rows][cols][slices];
-		int id = 0;
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					if (labelImage[i][j][k] != 0) {
-						labels[i][j][k] = new VertexLabel(i, j, k, -1);
-					}
-				}
-			}
-		}
-		int labelCount = 0;
-		HashMap<Integer, Integer> volumes = new HashMap<Integer, Integer>();
-		while (true) {
-			VertexLabel first = null;
-			for (int i = 0; i < rows; i++) {
-				for (int j = 0; j < cols; j++) {
-					for (int k = 0; k < slices; k++) {
-						if (labels[i][j][k] != null
-								&& labels[i][j][k].label == -1) {
-							first = labels[i][j][k];
-							break;
+	public static void checkParallelLabels(int size, int trials) {
+		int threads = ParallelUtil.getThreadCount();
+		Random rand = new Random(size);
+		int[] connectivities = new int[] { 6, 18, 26 };
+		try {
+			for (int t = 0; t < trials; t++) {
+				ImageDataInt random = new ImageDataInt(size, size, size);
+				for (int i = 0; i < size; i++) {
+					for (int j = 0; j < size; j++) {
+						for (int k = 0; k < size; k++) {
+							random.set(i, j, k,
+									(rand.nextFloat() < 0.3f) ? 1 : 0);
 						}
 					}
 				}
-			}
-			if (first == null)
-				break;
-			int label;
-			first.label = (label = labelCount++);
-			stack.push(first);
-			int vol = 1;
-			while (!(stack.isEmpty())) {
-				VertexLabel top = (VertexLabel) stack.pop();
-				VertexLabel[] nbrs = new VertexLabel[6];
-				int i = top.i;
-				int j = top.j;
-				int k = top.k;
-				nbrs[0] = getNeighbor(labels, i + 1, j, k, rows, cols, slices);
-				nbrs[1] = getNeighbor(labels, i - 1, j, k, rows, cols, slices);
-				nbrs[2] = getNeighbor(labels, i, j + 1, k, rows, cols, slices);
-				nbrs[3] = getNeighbor(labels, i, j - 1, k, rows, cols, slices);
-				nbrs[4] = getNeighbor(labels, i, j, k + 1, rows, cols, slices);
-				nbrs[5] = getNeighbor(labels, i, j, k - 1, rows, cols, slices);
-				for (VertexLabel nbr : nbrs) {
-					if (nbr != null && nbr.label == -1) {
-						nbr.label = label;
-						vol++;
-						stack.push(nbr);
+				for (int connectivity : connectivities) {
+					ParallelUtil.setThreadCount(1);
+					ImageDataInt serial = VolumeConnectedComponent
+							.labelComponents(random, connectivity);
+					ParallelUtil.setThreadCount(Math.max(4, threads));
+					ImageDataInt parallel = VolumeConnectedComponent
+							.labelComponents(random, connectivity);
+					for (int i = 0; i < size; i++) {
+						for (int j = 0; j < size; j++) {
+							for (int k = 0; k < size; k++) {
+								if (serial.getInt(i, j, k) != parallel.getInt(
+										i, j, k)) {
+									throw new IllegalStateException(
+											"Parallel labels differ at (" + i
+													+ "," + j + "," + k
+													+ ") with connectivity "
+													+ connectivity);
+								}
+							}
+						}
 					}
 				}
 			}
-			volumes.put(label, vol);
-		}
-		int max = 0;
-		int bestLabel = 0;
-		for (Integer label : volumes.keySet()) {
-			int vol = volumes.get(label);
-			System.out.println(label + ": " + vol);
-			if (vol > max) {
-				bestLabel = label;
-				max = vol;
-			}
+		} finally {
+			ParallelUtil.setThreadCount(threads);
 		}
-		System.out.println("Biggest Object " + bestLabel);
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					if (labels[i][j][k] != null
-							&& labels[i][j][k].label == bestLabel) {
-						outImage.set(i, j, k, labelImage[i][j][k]);
+	}
+
+	/**
+	 * Extract largest foreground component using 6-connectivity.
+	 *
+	 * @param image the image
+	 * @param targetLabel the target label
+	 * @return the image data int
+	 */
+	public static ImageDataInt extractLargestForegroundComponent(
+			ImageDataInt image, int targetLabel) {
+		return extractLargestForegroundComponent(image, targetLabel, 6);
+	}
+
+	/**
+	 * Extract largest foreground component. Voxels with the target label
+	 * that are not part of its largest component are set to zero, all other
+	 * voxels keep their value.
+	 *
+	 * @param image the image
+	 * @param targetLabel the target label
+	 * @param connectivity the connectivity (6, 18 or 26)
+	 * @return the image data int
+	 */
+	public static ImageDataInt extractLargestForegroundComponent(
+			ImageDataInt image, final int targetLabel, int connectivity) {
+		final Components comps = findComponents(image, false, targetLabel,
+				connectivity);
+		final int largest = comps.getLargestLabel();
+		final int[] values = getValues(image);
+		final int[] labels = comps.getLabels();
+		ParallelUtil.forRange(0, labels.length, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int v = start; v < end; v++) {
+					if (values[v] == targetLabel) {
+						labels[v] = (labels[v] == largest) ? targetLabel : 0;
+					} else {
+						labels[v] = values[v];
 					}
 				}
 			}
-		}
+		});
+		ImageDataInt outImage = comps.toImage();
 		outImage.setHeader(image.getHeader());
 		outImage.setName(image.getName());
 		return outImage;
 	}
 
 	/**
-	 * Extract largest foreground component.
+	 * Extract largest non background component using 6-connectivity.
 	 *
 	 * @param image the image
-	 * @param targetLabel the target label
 	 * @return the image data int
 	 */
-	public static ImageDataInt extractLargestForegroundComponent(
-			ImageDataInt image, int targetLabel) {
+	public static ImageDataInt extractLargestNonBackgroundComponent(
+			ImageDataInt image) {
+		return extractLargestNonBackgroundComponent(image, 6);
+	}
+
+	/**
+	 * Extract largest non background component. Only the voxels inside the
+	 * bounding box of the largest component are visited.
+	 *
+	 * @param image the image
+	 * @param connectivity the connectivity (6, 18 or 26)
+	 * @return the image data int
+	 */
+	public static ImageDataInt extractLargestNonBackgroundComponent(
+			ImageDataInt image, int connectivity) {
 		int rows = image.getRows();
 		int cols = image.getCols();
 		int slices = image.getSlices();
-		ImageDataInt outImage = new ImageDataInt(rows, cols, slices);
-		int[][][] labelImage = image.toArray3d();
-		Stack<VertexLabel> stack = new Stack<VertexLabel>();
-		VertexLabel[][][] labels = new VertexLabel[rows][cols][slices];
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					if (labelImage[i][j][k] == targetLabel) {
-						labels[i][j][k] = new VertexLabel(i, j, k, -1);
-					}
-				}
-			}
-		}
-		int labelCount = 0;
-		HashMap<Integer, Integer> volumes = new HashMap<Integer, Integer>();
-		while (true) {
-			VertexLabel first = null;
-			for (int i = 0; i < rows; i++) {
-				for (int j = 0; j < cols; j++) {
-					for (int k = 0; k < slices; k++) {
-						if (labels[i][j][k] != null
-								&& labels[i][j][k].label == -1) {
-							first = labels[i][j][k];
-							break;
+		Components comps = findComponents(image, true, 0, connectivity);
+		int largest = comps.getLargestLabel();
+		int[] values = getValues(image);
+		int[] labels = comps.getLabels();
+		int[] out = new int[labels.length];
+		if (largest > 0) {
+			int[] box = comps.getBoundingBox(largest);
+			for (int k = box[2]; k <= box[5]; k++) {
+				for (int j = box[1]; j <= box[4]; j++) {
+					int v = (k * cols + j) * rows + box[0];
+					for (int i = box[0]; i <= box[3]; i++, v++) {
+						if (labels[v] == largest) {
+							out[v] = values[v];
 						}
 					}
 				}
 			}
-			if (first == null)
-				break;
-			int label;
-			first.label = (label = labelCount++);
-			stack.push(first);
-			int vol = 1;
-			while (!(stack.isEmpty())) {
-				VertexLabel top = (VertexLabel) stack.pop();
-				VertexLabel[] nbrs = new VertexLabel[6];
-				int i = top.i;
-				int j = top.j;
-				int k = top.k;
-				nbrs[0] = getNeighbor(labels, i + 1, j, k, rows, cols, slices);
-				nbrs[1] = getNeighbor(labels, i - 1, j, k, rows, cols, slices);
-				nbrs[2] = getNeighbor(labels, i, j + 1, k, rows, cols, slices);
-				nbrs[3] = getNeighbor(labels, i, j - 1, k, rows, cols, slices);
-				nbrs[4] = getNeighbor(labels, i, j, k + 1, rows, cols, slices);
-				nbrs[5] = getNeighbor(labels, i, j, k - 1, rows, cols, slices);
-				for (VertexLabel nbr : nbrs) {
-					if (nbr != null && nbr.label == -1) {
-						nbr.label = label;
-						vol++;
-						stack.push(nbr);
-					}
-				}
-			}
-			volumes.put(label, vol);
-		}
-		int max = 0;
-		int bestLabel = 0;
-		for (Integer label : volumes.keySet()) {
-			int vol = volumes.get(label);
-			System.out.println(label + ": " + vol);
-			if (vol > max) {
-				bestLabel = label;
-				max = vol;
-			}
-		}
-		System.out.println("Biggest Object " + bestLabel);
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					if (labels[i][j][k] != null
-							&& labels[i][j][k].label != bestLabel) {
-						outImage.set(i, j, k, 0);
-					} else {
-						outImage.set(i, j, k, labelImage[i][j][k]);
-					}
-				}
-			}
 		}
+		ImageDataInt outImage = new ImageDataInt(out, rows, cols, slices, 1);
 		outImage.setHeader(image.getHeader());
 		outImage.setName(image.getName());
 		return outImage;
 	}
 
 	/**
-	 * The Class LabelVolume.
+	 * Find the connected components of all non-zero voxels.
+	 *
+	 * @param image
+	 *            the image
+	 * @param connectivity
+	 *            the connectivity (6, 18 or 26)
+	 * @return the components
 	 */
-	protected static class LabelVolume implements Comparable<LabelVolume> {
-		
-		/** The label. */
-		public int label;
-		
-		/** The volume. */
-		public int volume;
-
-		/**
-		 * Instantiates a new label volume.
-		 *
-		 * @param label the label
-		 * @param volume the volume
-		 */
-		public LabelVolume(int label, int volume) {
-			this.label = label;
-			this.volume = volume;
-		}
+	public static Components findComponents(ImageDataInt image,
+			int connectivity) {
+		return findComponents(image, true, 0, connectivity);
+	}
 
-		/* (non-Javadoc)
-		 * @see java.lang.Comparable#compareTo(java.lang.Object)
-		 */
-		@Override
-		public int compareTo(LabelVolume l) {
-			return (int) Math.signum(l.volume - volume);
-		}
+	/**
+	 * Find the connected components of voxels with the target label.
+	 *
+	 * @param image
+	 *            the image
+	 * @param targetLabel
+	 *            the target label
+	 * @param connectivity
+	 *            the connectivity (6, 18 or 26)
+	 * @return the components
+	 */
+	public static Components findComponents(ImageDataInt image,
+			int targetLabel, int connectivity) {
+		return findComponents(image, false, targetLabel, connectivity);
+	}
 
-		/**
-		 * Gets the string.
-		 *
-		 * @return the string
-		 */
-		public String getString() {
-			return ("[" + label + ":" + volume + "]");
+	/**
+	 * Gets the object connectivity of a topology rule, which is the first
+	 * number in the rule name.
+	 *
+	 * @param rule
+	 *            the rule
+	 * @return the connectivity
+	 */
+	public static int getConnectivity(TopologyRule3D.Rule rule) {
+		switch (rule) {
+		case CONNECT_18_6:
+			return 18;
+		case CONNECT_26_6:
+			return 26;
+		default:
+			return 6;
 		}
 	}
 
 	/**
-	 * Label componenets.
+	 * Label componenets using 6-connectivity.
 	 *
 	 * @param image the image
 	 * @return the image data int
 	 */
 	public static ImageDataInt labelComponenets(ImageDataInt image) {
-		int rows = image.getRows();
-		int cols = image.getCols();
-		int slices = image.getSlices();
-		ImageDataInt outImage = new ImageDataInt(rows, cols, slices);
-		int[][][] labelImage = image.toArray3d();
-		Stack<VertexLabel> stack = new Stack<VertexLabel>();
-		VertexLabel[][][] labels = new VertexLabel[rows][cols][slices];
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					if (labelImage[i][j][k] == 0) {
-						labels[i][j][k] = new VertexLabel(i, j, k, 0);
-					} else {
-						labels[i][j][k] = new VertexLabel(i, j, k, -1);
+		return labelComponents(image, 6);
+	}
+
+	/**
+	 * Label the connected components of all non-zero voxels. Labels are
+	 * ordered by decreasing volume starting at 1.
+	 *
+	 * @param image the image
+	 * @param connectivity the connectivity (6, 18 or 26)
+	 * @return the image data int
+	 */
+	public static ImageDataInt labelComponents(ImageDataInt image,
+			int connectivity) {
+		Components comps = findComponents(image, true, 0, connectivity);
+		comps.sortByVolume();
+		ImageDataInt outImage = comps.toImage();
+		outImage.setHeader(image.getHeader());
+		outImage.setName(image.getName());
+		return outImage;
+	}
+
+	/**
+	 * The main method. Checks the slab-parallel labeling against a
+	 * single-threaded run.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args) {
+		checkParallelLabels(48, 3);
+		System.out.println("Parallel labels match single-threaded labels.");
+	}
+
+	/**
+	 * Find the root of a voxel with path halving.
+	 *
+	 * @param parent
+	 *            the parent array
+	 * @param v
+	 *            the voxel
+	 * @return the root
+	 */
+	private static int find(int[] parent, int v) {
+		int p;
+		while ((p = parent[v]) != v) {
+			int gp = parent[p];
+			parent[v] = gp;
+			v = gp;
+		}
+		return v;
+	}
+
+	/**
+	 * Find the root of a voxel without modifying the trees. This is safe to
+	 * call while other threads point voxels directly at their roots.
+	 *
+	 * @param parent
+	 *            the parent array
+	 * @param v
+	 *            the voxel
+	 * @return the root
+	 */
+	private static int findRoot(int[] parent, int v) {
+		int p;
+		while ((p = parent[v]) != v) {
+			v = p;
+		}
+		return v;
+	}
+
+	/**
+	 * Find components.
+	 *
+	 * @param image
+	 *            the image
+	 * @param nonZero
+	 *            label all non-zero voxels instead of the target label
+	 * @param targetLabel
+	 *            the target label
+	 * @param connectivity
+	 *            the connectivity
+	 * @return the components
+	 */
+	private static Components findComponents(ImageDataInt image,
+			final boolean nonZero, final int targetLabel, int connectivity) {
+		if (connectivity != 6 && connectivity != 18 && connectivity != 26) {
+			throw new IllegalArgumentException("Unsupported connectivity "
+					+ connectivity);
+		}
+		final int rows = image.getRows();
+		final int cols = image.getCols();
+		final int slices = image.getSlices();
+		final int sliceSize = rows * cols;
+		final int[] values = getValues(image);
+		final int[] parent = new int[sliceSize * slices];
+		final int[] labels = new int[parent.length];
+		// Backward neighbor offsets, all of which are visited before the
+		// voxel in scan order.
+		int maxDist = (connectivity == 6) ? 1 : ((connectivity == 18) ? 2 : 3);
+		int n = 0;
+		int[] di = new int[13], dj = new int[13], dk = new int[13];
+		for (int k = -1; k <= 0; k++) {
+			for (int j = -1; j <= 1; j++) {
+				for (int i = -1; i <= 1; i++) {
+					int dist = Math.abs(i) + Math.abs(j) + Math.abs(k);
+					if ((k < 0 || j < 0 || (j == 0 && i < 0))
+							&& dist <= maxDist) {
+						di[n] = i;
+						dj[n] = j;
+						dk[n] = k;
+						n++;
 					}
 				}
 			}
 		}
-		int labelCount = 0;
-		HashMap<Integer, Integer> volumes = new HashMap<Integer, Integer>();
-		while (true) {
-			VertexLabel first = null;
-			for (int i = 0; i < rows; i++) {
-				for (int j = 0; j < cols; j++) {
-					for (int k = 0; k < slices; k++) {
-						if (labels[i][j][k] != null
-								&& labels[i][j][k].label == -1) {
-							first = labels[i][j][k];
-							break;
+		final int nbrCount = n;
+		final int[] nbrI = Arrays.copyOf(di, n);
+		final int[] nbrJ = Arrays.copyOf(dj, n);
+		final int[] nbrK = Arrays.copyOf(dk, n);
+		final int[] nbrOffset = new int[n];
+		for (int m = 0; m < n; m++) {
+			nbrOffset[m] = (nbrK[m] * cols + nbrJ[m]) * rows + nbrI[m];
+		}
+		final int slabs = Math.max(1,
+				Math.min(ParallelUtil.getThreadCount(), slices));
+		final int[] slabStart = new int[slabs + 1];
+		for (int s = 0; s <= slabs; s++) {
+			slabStart[s] = (int) ((long) slices * s / slabs);
+		}
+		// First pass, build union-find trees inside each slab. Roots are
+		// always the smallest voxel index in their tree.
+		ParallelUtil.forRange(0, slabs, slabs, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					int k0 = slabStart[s];
+					for (int k = k0; k < slabStart[s + 1]; k++) {
+						for (int j = 0; j < cols; j++) {
+							int v = (k * cols + j) * rows;
+							for (int i = 0; i < rows; i++, v++) {
+								int val = values[v];
+								if ((nonZero) ? val == 0 : val != targetLabel) {
+									parent[v] = -1;
+									continue;
+								}
+								parent[v] = v;
+								for (int m = 0; m < nbrCount; m++) {
+									int ni = i + nbrI[m];
+									int nj = j + nbrJ[m];
+									if (ni < 0 || ni >= rows || nj < 0
+											|| nj >= cols || k + nbrK[m] < k0) {
+										continue;
+									}
+									int u = v + nbrOffset[m];
+									if (parent[u] >= 0) {
+										union(parent, u, v);
+									}
+								}
+							}
 						}
 					}
 				}
 			}
-			if (first == null)
-				break;
-			int label;
-			first.label = (label = ++labelCount);
-			stack.push(first);
-			int vol = 1;
-			while (!(stack.isEmpty())) {
-				VertexLabel top = (VertexLabel) stack.pop();
-				VertexLabel[] nbrs = new VertexLabel[6];
-				int i = top.i;
-				int j = top.j;
-				int k = top.k;
-				nbrs[0] = getNeighbor(labels, i + 1, j, k, rows, cols, slices);
-				nbrs[1] = getNeighbor(labels, i - 1, j, k, rows, cols, slices);
-				nbrs[2] = getNeighbor(labels, i, j + 1, k, rows, cols, slices);
-				nbrs[3] = getNeighbor(labels, i, j - 1, k, rows, cols, slices);
-				nbrs[4] = getNeighbor(labels, i, j, k + 1, rows, cols, slices);
-				nbrs[5] = getNeighbor(labels, i, j, k - 1, rows, cols, slices);
-				for (VertexLabel nbr : nbrs) {
-					if (nbr != null && nbr.label == -1) {
-						nbr.label = label;
-						vol++;
-						stack.push(nbr);
+		});
+		// Merge trees across the first plane of each slab.
+		for (int s = 1; s < slabs; s++) {
+			int k = slabStart[s];
+			for (int j = 0; j < cols; j++) {
+				int v = (k * cols + j) * rows;
+				for (int i = 0; i < rows; i++, v++) {
+					if (parent[v] < 0) {
+						continue;
+					}
+					for (int m = 0; m < nbrCount; m++) {
+						if (nbrK[m] == 0) {
+							continue;
+						}
+						int ni = i + nbrI[m];
+						int nj = j + nbrJ[m];
+						if (ni < 0 || ni >= rows || nj < 0 || nj >= cols) {
+							continue;
+						}
+						int u = v + nbrOffset[m];
+						if (parent[u] >= 0) {
+							union(parent, u, v);
+						}
 					}
 				}
 			}
-			volumes.put(label, vol);
 		}
-		int max = 0;
-		int index = 0;
-		LabelVolume[] labelVols = new LabelVolume[volumes.keySet().size()];
-		for (Integer label : volumes.keySet()) {
-			int vol = volumes.get(label);
-			labelVols[index++] = new LabelVolume(label, vol);
-
+		// Second pass, point every voxel at its root and count the roots in
+		// each slab. Trees span slabs, so the walk must not compress paths
+		// through voxels owned by other slabs; each slab only rewrites its
+		// own voxels, and always to the root, which cannot change here.
+		final int[] rootCounts = new int[slabs + 1];
+		ParallelUtil.forRange(0, slabs, slabs, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					int roots = 0;
+					int last = slabStart[s + 1] * sliceSize;
+					for (int v = slabStart[s] * sliceSize; v < last; v++) {
+						if (parent[v] >= 0) {
+							int r = findRoot(parent, v);
+							parent[v] = r;
+							if (r == v) {
+								roots++;
+							}
+						}
+					}
+					rootCounts[s + 1] = roots;
+				}
+			}
+		});
+		for (int s = 1; s <= slabs; s++) {
+			rootCounts[s] += rootCounts[s - 1];
 		}
-		Arrays.sort(labelVols);
-		HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
-		index = 1;
-		for (LabelVolume lab : labelVols) {
-			System.out.println(index + ") " + lab.label + ": " + lab.volume);
-			map.put(lab.label, index++);
+		final int count = rootCounts[slabs];
+		final int[] volumes = new int[count + 1];
+		final int[] boxes = new int[6 * (count + 1)];
+		// Number the roots in scan order.
+		ParallelUtil.forRange(0, slabs, slabs, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					int label = rootCounts[s];
+					int last = slabStart[s + 1] * sliceSize;
+					for (int v = slabStart[s] * sliceSize; v < last; v++) {
+						if (parent[v] == v) {
+							labels[v] = ++label;
+							int off = 6 * label;
+							boxes[off] = boxes[off + 3] = v % rows;
+							boxes[off + 1] = boxes[off + 4] = (v / rows) % cols;
+							boxes[off + 2] = boxes[off + 5] = v / sliceSize;
+						}
+					}
+				}
+			}
+		});
+		// Label the remaining voxels and accumulate volumes and bounding
+		// boxes. Components rooted in an earlier slab are accumulated
+		// separately and merged afterwards.
+		@SuppressWarnings("unchecked")
+		final Map<Integer, int[]>[] foreign = new Map[slabs];
+		ParallelUtil.forRange(0, slabs, slabs, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int s = start; s < end; s++) {
+					int firstLabel = rootCounts[s] + 1;
+					HashMap<Integer, int[]> others;
+					others = new HashMap<Integer, int[]>();
+					int lastForeign = 0;
+					int[] stats = null;
+					for (int k = slabStart[s]; k < slabStart[s + 1]; k++) {
+						for (int j = 0; j < cols; j++) {
+							int v = (k * cols + j) * rows;
+							for (int i = 0; i < rows; i++, v++) {
+								int p = parent[v];
+								if (p < 0) {
+									continue;
+								}
+								int label = (p == v) ? labels[v] : labels[p];
+								labels[v] = label;
+								if (label >= firstLabel) {
+									volumes[label]++;
+									int off = 6 * label;
+									if (i < boxes[off]) {
+										boxes[off] = i;
+									} else if (i > boxes[off + 3]) {
+										boxes[off + 3] = i;
+									}
+									if (j < boxes[off + 1]) {
+										boxes[off + 1] = j;
+									} else if (j > boxes[off + 4]) {
+										boxes[off + 4] = j;
+									}
+									boxes[off + 5] = k;
+								} else {
+									if (label != lastForeign) {
+										stats = others.get(label);
+										if (stats == null) {
+											stats = new int[] { 0, i, j, k, i,
+													j, k };
+											others.put(label, stats);
+										}
+										lastForeign = label;
+									}
+									stats[0]++;
+									stats[1] = Math.min(stats[1], i);
+									stats[2] = Math.min(stats[2], j);
+									stats[4] = Math.max(stats[4], i);
+									stats[5] = Math.max(stats[5], j);
+									stats[6] = k;
+								}
+							}
+						}
+					}
+					foreign[s] = others;
+				}
+			}
+		});
+		for (int s = 0; s < slabs; s++) {
+			for (Map.Entry<Integer, int[]> entry : foreign[s].entrySet()) {
+				int label = entry.getKey();
+				int[] stats = entry.getValue();
+				int off = 6 * label;
+				volumes[label] += stats[0];
+				for (int c = 0; c < 3; c++) {
+					boxes[off + c] = Math.min(boxes[off + c], stats[1 + c]);
+					boxes[off + 3 + c] = Math.max(boxes[off + 3 + c],
+							stats[4 + c]);
+				}
+			}
+		}
+		return new Components(rows, cols, slices, labels, count, volumes,
+				boxes);
+	}
 
+	/**
+	 * Gets the voxel values as a flat array with rows varying fastest.
+	 *
+	 * @param image
+	 *            the image
+	 * @return the values
+	 */
+	private static int[] getValues(ImageDataInt image) {
+		if (image.isFlat()) {
+			return image.toArray1d();
 		}
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				for (int k = 0; k < slices; k++) {
-					if (labels[i][j][k].label > 0)
-						outImage.set(i, j, k, map.get(labels[i][j][k].label));
+		final int rows = image.getRows();
+		final int cols = image.getCols();
+		final int slices = image.getSlices();
+		final int[][][] vol = image.toArray3d();
+		final int[] values = new int[rows * cols * slices];
+		ParallelUtil.forRange(0, slices, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int k = start; k < end; k++) {
+					for (int j = 0; j < cols; j++) {
+						int v = (k * cols + j) * rows;
+						for (int i = 0; i < rows; i++, v++) {
+							values[v] = vol[i][j][k];
+						}
+					}
 				}
 			}
-		}
-		outImage.setHeader(image.getHeader());
-		outImage.setName(image.getName());
-		return outImage;
+		});
+		return values;
 	}
 
+	/**
+	 * Merge the trees containing two voxels. The smaller root becomes the
+	 * parent of the larger one.
+	 *
+	 * @param parent
+	 *            the parent array
+	 * @param u
+	 *            the first voxel
+	 * @param v
+	 *            the second voxel
+	 */
+	private static void union(int[] parent, int u, int v) {
+		int ru = find(parent, u);
+		int rv = find(parent, v);
+		if (ru < rv) {
+			parent[rv] = ru;
+		} else if (rv < ru) {
+			parent[ru] = rv;
+		}
+	}
 }
@@ -50,6 +50,7 @@ import com.jogamp.opencl.CLProgram;
 import com.jogamp.opengl.util.awt.TextRenderer;
 
 import edu.jhu.cs.cisst.vent.VisualizationProcessing3D;
+import edu.jhu.cs.cisst.vent.renderer.processing.DirtyBrickSet;
 import edu.jhu.cs.cisst.vent.renderer.processing.MOGACRenderer3D;
 import edu.jhu.cs.cisst.vent.renderer.processing.RenderingConfig;
 import edu.jhu.ece.iacl.jist.io.NIFTIReaderWriter;
@@ -92,6 +93,7 @@ public class RoboRenderer extends MOGACRenderer3D {
 			int rasterWidth, int rasterHeight, int refreshRate) {
 		super(applet, simulator, rasterWidth, rasterHeight, refreshRate);
 		enableAntiAlias = false;
+		incrementalUpload = true;
 		insetWidth = 320;
 		insetHeight = 320;
 		// TODO Auto-generated constructor stub
@@ -409,9 +411,10 @@ public class RoboRenderer extends MOGACRenderer3D {
 			return;
 		}
 		synchronized (this) {
-			System.nanoTime();
 			int global_size = MOGAC3D.roundToWorkgroupPower(simulator.rows
 					* simulator.cols * simulator.slices, WORKGROUP_SIZE);
+			// Painted voxels are not in the simulator's active list
+			boolean painted = renderPaintDirty;
 			if (time > 0) {
 				if (simulator.imageLabelBuffer != null) {
 					syncPaint();
@@ -427,33 +430,15 @@ public class RoboRenderer extends MOGACRenderer3D {
 			maskLabels.setArgs(imageLabelBufferCopy, volumeColorBuffer,
 					gpuColorLUT).rewind();
 			queue.put1DRangeKernel(maskLabels, 0, global_size, WORKGROUP_SIZE);
-			copyLevelSetImage.putArgs(distanceFieldBufferCopy,
-					imageLabelBufferCopy, gpuColorLUT, volumeColorBuffer)
-					.rewind();
-			queue.put1DRangeKernel(copyLevelSetImage, 0, global_size,
-					WORKGROUP_SIZE);
-			if (enableSmoothingParam != null && enableSmoothingParam.getValue()) {
-				final int SMOOTH_ITERATIONS = 8;
-				float smoothing = 0.8f;
-				bilateralFilter.putArgs(volumeColorBuffer).putArg(smoothing)
-						.putArg(1.0f).rewind();
-				for (int k = 0; k < SMOOTH_ITERATIONS; k++) {
-					queue.put1DRangeKernel(bilateralFilter, 0, global_size,
-							WORKGROUP_SIZE);
-				}
-			}
-			queue.putReadBuffer(volumeColorBuffer, false);
-			if (distanceFieldTexture == null) {
-				CLImageFormat iformat = new CLImageFormat(
-						CLImageFormat.ChannelOrder.RGBA,
-						CLImageFormat.ChannelType.FLOAT);
-				distanceFieldTexture = context.createImage3d(
-						volumeColorBuffer.getBuffer(), simulator.rows,
-						simulator.cols, simulator.slices, iformat, READ_WRITE,
-						CLMemory.Mem.COPY_BUFFER);
+			// Image loads, parameter changes and paint strokes refresh the
+			// whole volume
+			if (time > 0 && fps >= 0 && !painted
+					&& simulator.imageLabelBuffer != null
+					&& isBrickUploadAvailable()) {
+				updateBricks();
+			} else {
+				updateVolume(global_size);
 			}
-			queue.putWriteImage(distanceFieldTexture, false);
-			System.nanoTime();
 		}
 		dirty = true;
 	}
@@ -733,7 +718,7 @@ public class RoboRenderer extends MOGACRenderer3D {
 									define("GPU", 1),
 									define("CONTAINS_OVERLAPS", (simulator
 											.containsOverlaps() ? 1 : 0)),
-									ENABLE_MAD);
+									define("BRICK_SIZE", CUBE_DIM), ENABLE_MAD);
 					bilateralFilter = program
 							.createCLKernel("bilateralFilterVolume");
 					copyPaint = program.createCLKernel("copyPaint");
@@ -751,6 +736,15 @@ public class RoboRenderer extends MOGACRenderer3D {
 							.createCLKernel("copyNarrowBandToImage");
 					clearNarrowBandToImage = program
 							.createCLKernel("clearNarrowBandToImage");
+					copyLevelSetImageBricks = program
+							.createCLKernel("copyLevelSetImageBricks");
+					bilateralFilterBricks = program
+							.createCLKernel("bilateralFilterBricks");
+					packBricks = program.createCLKernel("packBricks");
+					bufferToImageCopy = queue.getDevice()
+							.isImageSupportAvailable();
+					dirtyBricks = new DirtyBrickSet(simulator.rows,
+							simulator.cols, simulator.slices, CUBE_DIM);
 					int bufferSize = config.getWidth() * config.getHeight() * 3;
 					multiply.putArg(pixelBuffer).putArg(bufferSize).rewind();
 					config.setMaxIterations(4 * simulator.rows);
@@ -1017,17 +1011,7 @@ public class RoboRenderer extends MOGACRenderer3D {
 			renderPaintDirty = false;
 		} else {
 			if (simulator.queue != null && simulator.imageLabelBuffer != null) {
-				simulator.queue.putReadBuffer(simulator.imageLabelBuffer, true)
-						.putReadBuffer(simulator.distanceFieldBuffer, true);
-				imageLabelBufferCopy.getBuffer()
-						.put(simulator.imageLabelBuffer.getBuffer()).rewind();
-				distanceFieldBufferCopy.getBuffer()
-						.put(simulator.distanceFieldBuffer.getBuffer())
-						.rewind();
-				simulator.imageLabelBuffer.getBuffer().rewind();
-				simulator.distanceFieldBuffer.getBuffer().rewind();
-				queue.putWriteBuffer(imageLabelBufferCopy, true)
-						.putWriteBuffer(distanceFieldBufferCopy, true);
+				copySimulatorBuffers();
 			}
 		}
 	}